@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsBlockCache;
+import org.eclipse.jgit.internal.storage.dfs.DfsBlockCacheConfig;
+import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Object reads from a DFS pack, going through {@code DfsBlockCache.getOrLoad}
+ * for every block, with a cache that either holds the whole pack or must
+ * constantly evict.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DfsBlockCacheBenchmark {
+	/** Repository and cache shared by all benchmark threads. */
+	@State(Scope.Benchmark)
+	public static class Repo {
+		@Param({ "4096", "65536" })
+		int blockSize;
+
+		@Param({ "1", "256" })
+		int blockLimitMiB;
+
+		@Param({ "1", "16" })
+		int shardCount;
+
+		InMemoryRepository repo;
+
+		ObjectId[] blobs;
+
+		@Setup
+		public void setUp() throws Exception {
+			DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+					.setBlockSize(blockSize)
+					.setBlockLimit(blockLimitMiB * 1024L * 1024L)
+					.setShardCount(shardCount));
+
+			repo = new InMemoryRepository(
+					new DfsRepositoryDescription("dfsblockcache"));
+			RevCommit tip = SyntheticRepository.generateHistory(repo, 200,
+					2000, 20);
+			new DfsGarbageCollector(repo).pack(NullProgressMonitor.INSTANCE);
+
+			List<ObjectId> ids = SyntheticRepository.listBlobs(repo, tip);
+			blobs = ids.toArray(new ObjectId[ids.size()]);
+		}
+
+		@TearDown
+		public void tearDown() {
+			repo.close();
+			DfsBlockCache.reconfigure(new DfsBlockCacheConfig());
+		}
+	}
+
+	/** Per-thread reader and position in the object list. */
+	@State(Scope.Thread)
+	public static class Reader {
+		ObjectReader reader;
+
+		int next;
+
+		@Setup
+		public void setUp(Repo r) {
+			reader = r.repo.newObjectReader();
+			next = System.identityHashCode(this);
+		}
+
+		@TearDown
+		public void tearDown() {
+			reader.close();
+		}
+	}
+
+	@Benchmark
+	public byte[] readBlob(Repo r, Reader t) throws Exception {
+		ObjectId id = r.blobs[(t.next++ & Integer.MAX_VALUE) % r.blobs.length];
+		return t.reader.open(id).getCachedBytes();
+	}
+
+	@Benchmark
+	@Threads(4)
+	public byte[] readBlobContended(Repo r, Reader t) throws Exception {
+		return readBlob(r, t);
+	}
+}
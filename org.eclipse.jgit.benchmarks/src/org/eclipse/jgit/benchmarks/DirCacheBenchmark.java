@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.benchmarks;
+
+import java.io.File;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheBuilder;
+import org.eclipse.jgit.dircache.DirCacheEntry;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Reading and writing the index file with {@link DirCache}. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class DirCacheBenchmark {
+	@Param({ "1000", "100000" })
+	int entries;
+
+	private File dir;
+
+	private File index;
+
+	private DirCache cache;
+
+	@Setup
+	public void setUp() throws Exception {
+		dir = File.createTempFile("dircache", ".tmp");
+		FileUtils.delete(dir);
+		FileUtils.mkdir(dir);
+		index = new File(dir, "index");
+
+		// Entries older than the index are not racily clean, so writing
+		// does not smudge them.
+		long mtime = System.currentTimeMillis() - 3600 * 1000;
+		Random rnd = new Random(42);
+		byte[] raw = new byte[20];
+		DirCache dc = DirCache.lock(index, FS.DETECTED);
+		DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < entries; i++) {
+			DirCacheEntry e = new DirCacheEntry(SyntheticRepository.path(i));
+			e.setFileMode(FileMode.REGULAR_FILE);
+			rnd.nextBytes(raw);
+			e.setObjectId(ObjectId.fromRaw(raw));
+			e.setLength(rnd.nextInt(100000));
+			e.setLastModified(mtime);
+			b.add(e);
+		}
+		b.finish();
+		dc.write();
+		dc.commit();
+		cache = DirCache.read(index, FS.DETECTED);
+	}
+
+	@TearDown
+	public void tearDown() throws Exception {
+		FileUtils.delete(dir, FileUtils.RECURSIVE);
+	}
+
+	@Benchmark
+	public DirCache read() throws Exception {
+		return DirCache.read(index, FS.DETECTED);
+	}
+
+	@Benchmark
+	public boolean write() throws Exception {
+		DirCache dc = DirCache.lock(index, FS.DETECTED);
+		DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < cache.getEntryCount(); i++)
+			b.add(cache.getEntry(i));
+		b.finish();
+		dc.write();
+		return dc.commit();
+	}
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Binary search of object names in a version 2 pack index. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PackIndexBenchmark {
+	@Param({ "10000", "1000000" })
+	int objects;
+
+	private PackIndex index;
+
+	private ObjectId[] present;
+
+	private ObjectId[] absent;
+
+	private int next;
+
+	@Setup
+	public void setUp() throws IOException {
+		Random rnd = new Random(42);
+		List<PackedObjectInfo> list = new ArrayList<>(objects);
+		byte[] raw = new byte[20];
+		long offset = 12;
+		for (int i = 0; i < objects; i++) {
+			rnd.nextBytes(raw);
+			PackedObjectInfo oe = new PackedObjectInfo(ObjectId.fromRaw(raw));
+			oe.setOffset(offset);
+			offset += 20 + rnd.nextInt(4000);
+			list.add(oe);
+		}
+		present = new ObjectId[1024];
+		for (int i = 0; i < present.length; i++)
+			present[i] = list.get(rnd.nextInt(objects)).copy();
+		absent = new ObjectId[1024];
+		for (int i = 0; i < absent.length; i++) {
+			rnd.nextBytes(raw);
+			absent[i] = ObjectId.fromRaw(raw);
+		}
+
+		// Object names must be sorted in the index.
+		Collections.sort(list);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PackIndexWriter.createVersion(out, 2).write(list, new byte[20]);
+		index = PackIndex.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	@Benchmark
+	public long findOffset() {
+		return index.findOffset(present[next++ & 1023]);
+	}
+
+	@Benchmark
+	public long findOffsetMissing() {
+		return index.findOffset(absent[next++ & 1023]);
+	}
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileRepositoryBuilder;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.FileUtils;
+
+/** Generates deterministic repositories for the benchmarks to run over. */
+final class SyntheticRepository {
+	private static final String[] WORDS = { "final", "int", "return",
+			"if", "(", ")", "{", "}", "for", "while", "new", "this", "null",
+			"ObjectId", "RevWalk", "buf", "ptr", "cnt", "=", "+", ";",
+			"0", "1", "true", "false" };
+
+	private SyntheticRepository() {
+		// Static utility methods only.
+	}
+
+	/**
+	 * Create a new bare repository in a temporary directory.
+	 *
+	 * @param name
+	 *            prefix of the directory name.
+	 * @return the new repository.
+	 * @throws IOException
+	 *             the repository cannot be created.
+	 */
+	static FileRepository create(String name) throws IOException {
+		File dir = File.createTempFile(name, ".git");
+		FileUtils.delete(dir);
+		FileRepository repo = (FileRepository) new FileRepositoryBuilder()
+				.setGitDir(dir).build();
+		repo.create(true);
+		return repo;
+	}
+
+	/**
+	 * Close a repository created by {@link #create(String)} and delete it.
+	 *
+	 * @param repo
+	 *            repository to destroy.
+	 * @throws IOException
+	 *             the repository cannot be deleted.
+	 */
+	static void destroy(Repository repo) throws IOException {
+		repo.close();
+		FileUtils.delete(repo.getDirectory(),
+				FileUtils.RECURSIVE | FileUtils.SKIP_MISSING);
+	}
+
+	/**
+	 * Generate a linear history on {@code refs/heads/master}.
+	 * <p>
+	 * The first commit adds {@code files} text files spread over a few
+	 * directories; every following commit edits some lines of
+	 * {@code changesPerCommit} of them, so blobs delta well against their
+	 * previous versions.
+	 *
+	 * @param repo
+	 *            repository to write to.
+	 * @param commits
+	 *            number of commits to create.
+	 * @param files
+	 *            number of files in each tree.
+	 * @param changesPerCommit
+	 *            number of files modified by each commit after the first.
+	 * @return the last commit.
+	 * @throws Exception
+	 *             the history cannot be written.
+	 */
+	static RevCommit generateHistory(Repository repo, int commits, int files,
+			int changesPerCommit) throws Exception {
+		Random rnd = new Random(42);
+		String[] contents = new String[files];
+		TestRepository<Repository> tr = new TestRepository<>(repo);
+		TestRepository<Repository>.CommitBuilder cb = tr.commit();
+		for (int i = 0; i < files; i++) {
+			contents[i] = text(rnd, 50 + rnd.nextInt(200));
+			cb.add(path(i), contents[i]);
+		}
+		RevCommit tip = cb.create();
+		for (int c = 1; c < commits; c++) {
+			cb = tr.commit().parent(tip);
+			for (int j = 0; j < changesPerCommit; j++) {
+				int i = rnd.nextInt(files);
+				contents[i] = edit(rnd, contents[i]);
+				cb.add(path(i), contents[i]);
+			}
+			tip = cb.create();
+		}
+		tr.update("refs/heads/master", tip);
+		try (RevWalk rw = new RevWalk(repo)) {
+			return rw.parseCommit(tip);
+		}
+	}
+
+	/**
+	 * List the blobs of a commit's tree.
+	 *
+	 * @param repo
+	 *            repository holding the commit.
+	 * @param commit
+	 *            commit to list.
+	 * @return ids of all blobs reachable from the commit's tree.
+	 * @throws IOException
+	 *             the tree cannot be read.
+	 */
+	static List<ObjectId> listBlobs(Repository repo, RevCommit commit)
+			throws IOException {
+		List<ObjectId> ids = new ArrayList<>();
+		try (TreeWalk tw = new TreeWalk(repo)) {
+			tw.addTree(commit.getTree());
+			tw.setRecursive(true);
+			while (tw.next())
+				ids.add(tw.getObjectId(0));
+		}
+		return ids;
+	}
+
+	/**
+	 * @param i
+	 *            file number.
+	 * @return path of the file, in one of 16 directories.
+	 */
+	static String path(int i) {
+		return String.format("d%02d/f%05d.txt",
+				Integer.valueOf(i % 16), Integer.valueOf(i));
+	}
+
+	/**
+	 * Generate source-like text.
+	 *
+	 * @param rnd
+	 *            random source.
+	 * @param lines
+	 *            number of lines.
+	 * @return the text.
+	 */
+	static String text(Random rnd, int lines) {
+		StringBuilder b = new StringBuilder(lines * 40);
+		for (int i = 0; i < lines; i++)
+			line(rnd, b);
+		return b.toString();
+	}
+
+	private static String edit(Random rnd, String text) {
+		String[] lines = text.split("\n", -1);
+		StringBuilder b = new StringBuilder(text.length() + 200);
+		int edits = 1 + rnd.nextInt(3);
+		for (String l : lines) {
+			if (l.isEmpty())
+				continue;
+			if (edits > 0 && rnd.nextInt(lines.length) < 3) {
+				line(rnd, b);
+				edits--;
+			} else
+				b.append(l).append('\n');
+		}
+		return b.toString();
+	}
+
+	private static void line(Random rnd, StringBuilder b) {
+		int indent = rnd.nextInt(4);
+		for (int i = 0; i < indent; i++)
+			b.append('\t');
+		int words = 1 + rnd.nextInt(8);
+		for (int w = 0; w < words; w++) {
+			if (w > 0)
+				b.append(' ');
+			b.append(WORDS[rnd.nextInt(WORDS.length)]);
+		}
+		b.append('\n');
+	}
+}
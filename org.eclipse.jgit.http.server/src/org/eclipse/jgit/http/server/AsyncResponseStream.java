@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.server;
+
+import static javax.servlet.http.HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+import static org.eclipse.jgit.http.server.GitSmartHttpTools.sendError;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * Writes a response with Servlet 3.1 non-blocking output.
+ * <p>
+ * A smart service runs on a worker thread and writes into this stream. The
+ * data is queued and handed to the container from {@link #onWritePossible()}
+ * whenever the client can take more, so no container thread waits on a slow
+ * client. Once {@link #MAX_QUEUED} bytes are queued the worker blocks, which
+ * in turn stops the service from producing more pack data.
+ * <p>
+ * The stream only switches the response to non-blocking mode when the first
+ * byte is written. Until then the worker may still reset the response and
+ * send an error the usual way.
+ */
+class AsyncResponseStream extends OutputStream implements WriteListener {
+	/** Maximum number of bytes waiting for the client. */
+	static final int MAX_QUEUED = 256 * 1024;
+
+	/** Smart service to run on a worker thread. */
+	interface Service {
+		/**
+		 * Run the service.
+		 *
+		 * @param rsp
+		 *            response to send; it reports itself as committed once
+		 *            output has started.
+		 * @param out
+		 *            stream for the response body.
+		 * @throws IOException
+		 */
+		void run(HttpServletResponse rsp, AsyncResponseStream out)
+				throws IOException;
+	}
+
+	/**
+	 * Start asynchronous processing of a request.
+	 *
+	 * @param req
+	 *            current request; the caller must have checked
+	 *            {@link HttpServletRequest#isAsyncSupported()}.
+	 * @param rsp
+	 *            current response.
+	 * @param executor
+	 *            worker pool to run the service on.
+	 * @param db
+	 *            repository the service works on. It is kept open until the
+	 *            service is done, even though the filter that opened it closes
+	 *            it when the container thread returns.
+	 * @param service
+	 *            the service.
+	 * @throws IOException
+	 *             the executor rejected the request and the error response
+	 *             could not be sent.
+	 */
+	static void start(HttpServletRequest req, HttpServletResponse rsp,
+			Executor executor, final Repository db, final Service service)
+			throws IOException {
+		final AsyncContext ctx = req.startAsync();
+		// UploadPack and ReceivePack enforce their own timeouts.
+		ctx.setTimeout(0);
+		final AsyncResponseStream out = new AsyncResponseStream(ctx, rsp);
+		final HttpServletResponse wrapped = new HttpServletResponseWrapper(
+				rsp) {
+			@Override
+			public boolean isCommitted() {
+				return out.isStarted() || super.isCommitted();
+			}
+		};
+
+		db.incrementOpen();
+		try {
+			executor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						service.run(wrapped, out);
+					} catch (IOException e) {
+						ctx.getRequest().getServletContext().log(
+								e.getMessage(), e);
+					} finally {
+						db.close();
+						out.close();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			db.close();
+			try {
+				sendError(req, rsp, SC_SERVICE_UNAVAILABLE);
+			} finally {
+				ctx.complete();
+			}
+		}
+	}
+
+	private final AsyncContext ctx;
+
+	private final HttpServletResponse rsp;
+
+	private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+
+	private ServletOutputStream out;
+
+	private int queued;
+
+	private boolean flush;
+
+	private boolean closed;
+
+	private boolean completed;
+
+	private IOException error;
+
+	private AsyncResponseStream(AsyncContext ctx, HttpServletResponse rsp) {
+		this.ctx = ctx;
+		this.rsp = rsp;
+	}
+
+	/** @return true once data was written and output is non-blocking. */
+	synchronized boolean isStarted() {
+		return out != null;
+	}
+
+	@Override
+	public void write(int b) throws IOException {
+		write(new byte[] { (byte) b }, 0, 1);
+	}
+
+	@Override
+	public synchronized void write(byte[] b, int off, int len)
+			throws IOException {
+		if (len == 0)
+			return;
+		checkOpen();
+		while (queued >= MAX_QUEUED && error == null) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				throw new InterruptedIOException();
+			}
+		}
+		checkOpen();
+		queue.add(Arrays.copyOfRange(b, off, off + len));
+		queued += len;
+		if (out == null) {
+			out = rsp.getOutputStream();
+			out.setWriteListener(this);
+		}
+		drain();
+	}
+
+	@Override
+	public synchronized void flush() throws IOException {
+		checkOpen();
+		if (out != null) {
+			flush = true;
+			drain();
+		}
+	}
+
+	/**
+	 * Finish the response once all queued data was written.
+	 * <p>
+	 * Never throws; failures are reported to the writer or through
+	 * {@link #onError(Throwable)}.
+	 */
+	@Override
+	public synchronized void close() {
+		if (closed)
+			return;
+		closed = true;
+		if (out == null) {
+			complete();
+			return;
+		}
+		try {
+			drain();
+		} catch (IOException e) {
+			onError(e);
+		}
+	}
+
+	@Override
+	public synchronized void onWritePossible() throws IOException {
+		drain();
+	}
+
+	@Override
+	public synchronized void onError(Throwable t) {
+		if (error == null)
+			error = t instanceof IOException ? (IOException) t
+					: new IOException(t);
+		queue.clear();
+		queued = 0;
+		notifyAll();
+		complete();
+	}
+
+	private void checkOpen() throws IOException {
+		if (error != null)
+			throw error;
+		if (closed)
+			throw new IOException(HttpServerText.get().streamClosed);
+	}
+
+	private void drain() throws IOException {
+		while (!completed && out.isReady()) {
+			byte[] buf = queue.poll();
+			if (buf != null) {
+				out.write(buf);
+				queued -= buf.length;
+				notifyAll();
+			} else if (flush) {
+				flush = false;
+				out.flush();
+			} else {
+				if (closed)
+					complete();
+				return;
+			}
+		}
+	}
+
+	private void complete() {
+		if (!completed) {
+			completed = true;
+			ctx.complete();
+		}
+	}
+}
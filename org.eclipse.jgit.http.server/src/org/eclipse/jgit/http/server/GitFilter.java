@@ -45,8 +45,10 @@
 
 import java.io.File;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterConfig;
@@ -62,11 +64,16 @@
 import org.eclipse.jgit.http.server.resolver.DefaultReceivePackFactory;
 import org.eclipse.jgit.http.server.resolver.DefaultUploadPackFactory;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryMaintenance;
+import org.eclipse.jgit.transport.PostReceiveHookChain;
 import org.eclipse.jgit.transport.ReceivePack;
 import org.eclipse.jgit.transport.UploadPack;
 import org.eclipse.jgit.transport.resolver.FileResolver;
 import org.eclipse.jgit.transport.resolver.ReceivePackFactory;
 import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
+import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
 import org.eclipse.jgit.util.StringUtils;
 
@@ -99,6 +106,10 @@ public class GitFilter extends MetaFilter {
 
 	private final List<Filter> receivePackFilters = new LinkedList<>();
 
+	private Executor asyncExecutor;
+
+	private RepositoryMaintenance maintenance;
+
 	/**
 	 * New servlet that will load its base directory from {@code web.xml}.
 	 * <p>
@@ -178,6 +189,44 @@ public void addReceivePackFilter(Filter filter) {
 		receivePackFilters.add(filter);
 	}
 
+	/**
+	 * Run fetch and push requests on a worker pool.
+	 * <p>
+	 * If set, and the container supports asynchronous processing for this
+	 * servlet (Servlet 3.1 or later, registered with async-supported), the
+	 * container thread is released as soon as a request to
+	 * {@code git-upload-pack} or {@code git-receive-pack} has been accepted.
+	 * The pack is produced on the executor and written with non-blocking
+	 * output, so a slow client only holds a worker while pack data is being
+	 * generated, and generation stops while the client falls behind. Filters
+	 * added with {@code addUploadPackFilter} or {@code addReceivePackFilter}
+	 * return before such a request is finished. A bounded executor that
+	 * rejects a request makes the server answer with 503.
+	 *
+	 * @param executor
+	 *            the worker pool; null to process requests on the container
+	 *            thread.
+	 * @since 4.8
+	 */
+	public void setAsyncExecutor(Executor executor) {
+		assertNotInitialized();
+		this.asyncExecutor = executor;
+	}
+
+	/**
+	 * Set the scheduler maintaining repositories after pushes.
+	 *
+	 * @param maintenance
+	 *            the scheduler, notified after each push through the
+	 *            post-receive hook of the {@link ReceivePack}. If null no
+	 *            maintenance is scheduled.
+	 * @since 4.8
+	 */
+	public void setRepositoryMaintenance(RepositoryMaintenance maintenance) {
+		assertNotInitialized();
+		this.maintenance = maintenance;
+	}
+
 	private void assertNotInitialized() {
 		if (initialized)
 			throw new IllegalStateException(HttpServerText.get().alreadyInitializedByContainer);
@@ -195,12 +244,30 @@ public void init(FilterConfig filterConfig) throws ServletException {
 
 		initialized = true;
 
+		if (maintenance != null
+				&& receivePackFactory != ReceivePackFactory.DISABLED) {
+			final ReceivePackFactory<HttpServletRequest> f = receivePackFactory;
+			final RepositoryMaintenance m = maintenance;
+			receivePackFactory = new ReceivePackFactory<HttpServletRequest>() {
+				@Override
+				public ReceivePack create(HttpServletRequest req,
+						Repository db) throws ServiceNotEnabledException,
+						ServiceNotAuthorizedException {
+					ReceivePack rp = f.create(req, db);
+					rp.setPostReceiveHook(PostReceiveHookChain
+							.newChain(Arrays.asList(rp.getPostReceiveHook(),
+									m.newPostReceiveHook())));
+					return rp;
+				}
+			};
+		}
+
 		if (uploadPackFactory != UploadPackFactory.DISABLED) {
 			ServletBinder b = serve("*/" + GitSmartHttpTools.UPLOAD_PACK);
 			b = b.through(new UploadPackServlet.Factory(uploadPackFactory));
 			for (Filter f : uploadPackFilters)
 				b = b.through(f);
-			b.with(new UploadPackServlet());
+			b.with(new UploadPackServlet(asyncExecutor));
 		}
 
 		if (receivePackFactory != ReceivePackFactory.DISABLED) {
@@ -208,7 +275,7 @@ public void init(FilterConfig filterConfig) throws ServletException {
 			b = b.through(new ReceivePackServlet.Factory(receivePackFactory));
 			for (Filter f : receivePackFilters)
 				b = b.through(f);
-			b.with(new ReceivePackServlet());
+			b.with(new ReceivePackServlet(asyncExecutor));
 		}
 
 		ServletBinder refs = serve("*/" + Constants.INFO_REFS);
@@ -44,6 +44,7 @@
 package org.eclipse.jgit.http.server;
 
 import java.util.Enumeration;
+import java.util.concurrent.Executor;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterConfig;
@@ -54,6 +55,7 @@
 
 import org.eclipse.jgit.http.server.glue.MetaServlet;
 import org.eclipse.jgit.http.server.resolver.AsIsFileService;
+import org.eclipse.jgit.lib.RepositoryMaintenance;
 import org.eclipse.jgit.transport.ReceivePack;
 import org.eclipse.jgit.transport.UploadPack;
 import org.eclipse.jgit.transport.resolver.ReceivePackFactory;
@@ -171,6 +173,42 @@ public void addReceivePackFilter(Filter filter) {
 		gitFilter.addReceivePackFilter(filter);
 	}
 
+	/**
+	 * Run fetch and push requests on a worker pool.
+	 * <p>
+	 * If set, and the container supports asynchronous processing for this
+	 * servlet (Servlet 3.1 or later, registered with async-supported), the
+	 * container thread is released as soon as a request to
+	 * {@code git-upload-pack} or {@code git-receive-pack} has been accepted.
+	 * The pack is produced on the executor and written with non-blocking
+	 * output, so a slow client only holds a worker while pack data is being
+	 * generated, and generation stops while the client falls behind. Filters
+	 * added with {@code addUploadPackFilter} or {@code addReceivePackFilter}
+	 * return before such a request is finished. A bounded executor that
+	 * rejects a request makes the server answer with 503.
+	 *
+	 * @param executor
+	 *            the worker pool; null to process requests on the container
+	 *            thread.
+	 * @since 4.8
+	 */
+	public void setAsyncExecutor(Executor executor) {
+		gitFilter.setAsyncExecutor(executor);
+	}
+
+	/**
+	 * Set the scheduler maintaining repositories after pushes.
+	 *
+	 * @param maintenance
+	 *            the scheduler, notified after each push through the
+	 *            post-receive hook of the {@link ReceivePack}. If null no
+	 *            maintenance is scheduled.
+	 * @since 4.8
+	 */
+	public void setRepositoryMaintenance(RepositoryMaintenance maintenance) {
+		gitFilter.setRepositoryMaintenance(maintenance);
+	}
+
 	@Override
 	public void init(final ServletConfig config) throws ServletException {
 		gitFilter.init(new FilterConfig() {
@@ -82,5 +82,6 @@ public static HttpServerText get() {
 	/***/ public String servletAlreadyInitialized;
 	/***/ public String servletMustNotBeNull;
 	/***/ public String servletWasAlreadyBound;
+	/***/ public String streamClosed;
 	/***/ public String unexpectedeOFOn;
 }
@@ -62,8 +62,10 @@
 import static org.eclipse.jgit.util.HttpSupport.HDR_USER_AGENT;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.MessageFormat;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -75,6 +77,7 @@
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.PackProtocolException;
 import org.eclipse.jgit.errors.UnpackException;
@@ -90,6 +93,13 @@
 class ReceivePackServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
+	/** Worker pool for asynchronous requests; null to always block. */
+	private final transient Executor executor;
+
+	ReceivePackServlet(@Nullable Executor executor) {
+		this.executor = executor;
+	}
+
 	static class InfoRefs extends SmartServiceInfoRefs {
 		private final ReceivePackFactory<HttpServletRequest> receivePackFactory;
 
@@ -180,14 +190,31 @@ public void doPost(final HttpServletRequest req,
 			return;
 		}
 
-		SmartOutputStream out = new SmartOutputStream(req, rsp, false) {
+		final ReceivePack rp = (ReceivePack) req.getAttribute(ATTRIBUTE_HANDLER);
+		if (executor != null && req.isAsyncSupported()) {
+			AsyncResponseStream.start(req, rsp, executor, rp.getRepository(),
+					new AsyncResponseStream.Service() {
+						@Override
+						public void run(HttpServletResponse r,
+								AsyncResponseStream out) throws IOException {
+							receive(req, r, rp, version, out);
+						}
+					});
+			return;
+		}
+		receive(req, rsp, rp, version, null);
+	}
+
+	private void receive(HttpServletRequest req, HttpServletResponse rsp,
+			ReceivePack rp, int[] version, @Nullable OutputStream dst)
+			throws IOException {
+		SmartOutputStream out = new SmartOutputStream(req, rsp, false, dst) {
 			@Override
 			public void flush() throws IOException {
 				doFlush();
 			}
 		};
 
-		ReceivePack rp = (ReceivePack) req.getAttribute(ATTRIBUTE_HANDLER);
 		try {
 			rp.setBiDirectionalPipe(false);
 			rp.setEchoCommandFailures(hasPushStatusBug(version));
@@ -65,29 +65,46 @@
  * smaller payloads are primarily pure text that compresses well, while much
  * larger payloads are heavily compressed binary data. {@link UploadPackServlet}
  * is one such servlet.
+ * <p>
+ * When the servlet writes asynchronously the response body goes to an
+ * {@link AsyncResponseStream} instead, which blocks the writer while the
+ * client is behind.
  */
 class SmartOutputStream extends TemporaryBuffer {
 	private static final int LIMIT = 32 * 1024;
 
 	private final HttpServletRequest req;
 	private final HttpServletResponse rsp;
+	private final OutputStream dst;
 	private boolean compressStream;
 	private boolean startedOutput;
 
 	SmartOutputStream(final HttpServletRequest req,
 			final HttpServletResponse rsp,
 			boolean compressStream) {
+		this(req, rsp, compressStream, null);
+	}
+
+	SmartOutputStream(final HttpServletRequest req,
+			final HttpServletResponse rsp,
+			boolean compressStream,
+			OutputStream dst) {
 		super(LIMIT);
 		this.req = req;
 		this.rsp = rsp;
 		this.compressStream = compressStream;
+		this.dst = dst;
+	}
+
+	private OutputStream getResponseStream() throws IOException {
+		return dst != null ? dst : rsp.getOutputStream();
 	}
 
 	@Override
 	protected OutputStream overflow() throws IOException {
 		startedOutput = true;
 
-		OutputStream out = rsp.getOutputStream();
+		OutputStream out = getResponseStream();
 		if (compressStream && acceptsGzipEncoding(req)) {
 			rsp.setHeader(HDR_CONTENT_ENCODING, ENCODING_GZIP);
 			out = new GZIPOutputStream(out);
@@ -129,7 +146,7 @@ public void close() throws IOException {
 			// hardcoded LIMIT constant above assures us we wouldn't store
 			// more than 2 GiB of content in memory.
 			rsp.setContentLength((int) out.length());
-			final OutputStream os = rsp.getOutputStream();
+			final OutputStream os = getResponseStream();
 			try {
 				out.writeTo(os, null);
 				os.flush();
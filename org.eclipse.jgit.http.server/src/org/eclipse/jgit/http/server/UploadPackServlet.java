@@ -58,11 +58,15 @@
 import static org.eclipse.jgit.http.server.ServletUtils.consumeRequestBody;
 import static org.eclipse.jgit.http.server.ServletUtils.getInputStream;
 import static org.eclipse.jgit.http.server.ServletUtils.getRepository;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
 import static org.eclipse.jgit.util.HttpSupport.HDR_USER_AGENT;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Executor;
 
 import javax.servlet.Filter;
 import javax.servlet.FilterChain;
@@ -74,6 +78,7 @@
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
+import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.transport.InternalHttpServerGlue;
 import org.eclipse.jgit.transport.RefAdvertiser.PacketLineOutRefAdvertiser;
@@ -88,6 +93,13 @@
 class UploadPackServlet extends HttpServlet {
 	private static final long serialVersionUID = 1L;
 
+	/** Worker pool for asynchronous requests; null to always block. */
+	private final transient Executor executor;
+
+	UploadPackServlet(@Nullable Executor executor) {
+		this.executor = executor;
+	}
+
 	static class InfoRefs extends SmartServiceInfoRefs {
 		private final UploadPackFactory<HttpServletRequest> uploadPackFactory;
 
@@ -105,6 +117,7 @@ protected void begin(HttpServletRequest req, Repository db)
 			InternalHttpServerGlue.setPeerUserAgent(
 					up,
 					req.getHeader(HDR_USER_AGENT));
+			setExtraParameters(req, up);
 			req.setAttribute(ATTRIBUTE_HANDLER, up);
 		}
 
@@ -122,6 +135,16 @@ protected void advertise(HttpServletRequest req,
 		}
 	}
 
+	/**
+	 * Pass the colon separated parameters of the {@code Git-Protocol} header,
+	 * such as {@code version=2}, on to UploadPack.
+	 */
+	static void setExtraParameters(HttpServletRequest req, UploadPack up) {
+		String params = req.getHeader(HDR_GIT_PROTOCOL);
+		if (params != null)
+			up.setExtraParameters(Arrays.asList(params.split(":"))); //$NON-NLS-1$
+	}
+
 	static class Factory implements Filter {
 		private final UploadPackFactory<HttpServletRequest> uploadPackFactory;
 
@@ -179,16 +202,33 @@ public void doPost(final HttpServletRequest req,
 			return;
 		}
 
-		SmartOutputStream out = new SmartOutputStream(req, rsp, false) {
+		final UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
+		if (executor != null && req.isAsyncSupported()) {
+			AsyncResponseStream.start(req, rsp, executor, up.getRepository(),
+					new AsyncResponseStream.Service() {
+						@Override
+						public void run(HttpServletResponse r,
+								AsyncResponseStream out) throws IOException {
+							upload(req, r, up, out);
+						}
+					});
+			return;
+		}
+		upload(req, rsp, up, null);
+	}
+
+	private void upload(HttpServletRequest req, HttpServletResponse rsp,
+			UploadPack up, @Nullable OutputStream dst) throws IOException {
+		SmartOutputStream out = new SmartOutputStream(req, rsp, false, dst) {
 			@Override
 			public void flush() throws IOException {
 				doFlush();
 			}
 		};
 
-		UploadPack up = (UploadPack) req.getAttribute(ATTRIBUTE_HANDLER);
 		try {
 			up.setBiDirectionalPipe(false);
+			setExtraParameters(req, up);
 			rsp.setContentType(UPLOAD_PACK_RESULT_TYPE);
 
 			up.upload(getInputStream(req), out, null);
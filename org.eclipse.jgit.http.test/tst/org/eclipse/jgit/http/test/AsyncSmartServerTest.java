@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.http.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jgit.errors.RepositoryNotFoundException;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.http.server.GitServlet;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.http.HttpTestCase;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.transport.resolver.RepositoryResolver;
+import org.eclipse.jgit.transport.resolver.ServiceNotEnabledException;
+import org.junit.Before;
+import org.junit.Test;
+
+public class AsyncSmartServerTest extends HttpTestCase {
+	private TestRepository<Repository> src;
+
+	private URIish remoteURI;
+
+	private URIish rejectURI;
+
+	private final AtomicInteger tasks = new AtomicInteger();
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+
+		src = createTestRepository();
+		final String srcName = src.getRepository().getDirectory().getName();
+		StoredConfig cfg = src.getRepository().getConfig();
+		cfg.setBoolean("http", null, "receivepack", true);
+		cfg.save();
+
+		ServletContextHandler app = addContext("/git", new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				tasks.incrementAndGet();
+				new Thread(command).start();
+			}
+		});
+		ServletContextHandler reject = addContext("/reject", new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException();
+			}
+		});
+		server.setUp();
+
+		remoteURI = toURIish(app, srcName);
+		rejectURI = toURIish(reject, srcName);
+	}
+
+	private ServletContextHandler addContext(String path, Executor executor) {
+		final Repository db = src.getRepository();
+		final String srcName = db.getDirectory().getName();
+		GitServlet gs = new GitServlet();
+		gs.setRepositoryResolver(new RepositoryResolver<HttpServletRequest>() {
+			@Override
+			public Repository open(HttpServletRequest req, String name)
+					throws RepositoryNotFoundException,
+					ServiceNotEnabledException {
+				if (!name.equals(srcName))
+					throw new RepositoryNotFoundException(name);
+				db.incrementOpen();
+				return db;
+			}
+		});
+		gs.setAsyncExecutor(executor);
+
+		ServletContextHandler app = server.addContext(path);
+		ServletHolder holder = new ServletHolder(gs);
+		holder.setAsyncSupported(true);
+		app.addServlet(holder, "/*");
+		return app;
+	}
+
+	@Test
+	public void testFetchLargePack() throws Exception {
+		// Incompressible content much larger than the write queue, so the
+		// worker has to wait for the client.
+		byte[] data = new byte[4 * 1024 * 1024];
+		new Random(42).nextBytes(data);
+		RevBlob blob = src.blob(data);
+		RevCommit c = src.commit().add("big", blob).create();
+		src.update(master, c);
+
+		Repository dst = createBareRepository();
+		try (Transport t = Transport.open(dst, remoteURI)) {
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+		}
+		assertEquals(c, dst.exactRef(master).getObjectId());
+		assertTrue(dst.hasObject(blob));
+		assertTrue(tasks.get() > 0);
+	}
+
+	@Test
+	public void testPush() throws Exception {
+		TestRepository<Repository> local = new TestRepository<>(
+				createBareRepository());
+		RevCommit c = local.commit().add("file", "content").create();
+		local.update(master, c);
+
+		try (Transport t = Transport.open(local.getRepository(), remoteURI)) {
+			t.push(NullProgressMonitor.INSTANCE, push(local, c));
+		}
+		assertEquals(c, src.getRepository().exactRef(master).getObjectId());
+		assertTrue(tasks.get() > 0);
+	}
+
+	@Test
+	public void testExecutorRejects() throws Exception {
+		src.update(master, src.commit().create());
+
+		Repository dst = createBareRepository();
+		try (Transport t = Transport.open(dst, rejectURI)) {
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+			fail("fetch succeeded although the executor rejected it");
+		} catch (TransportException e) {
+			// Expected, the server answered with 503.
+		}
+	}
+}
@@ -46,6 +46,7 @@
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_ENCODING;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_LENGTH;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_TYPE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -373,6 +374,39 @@ public void testInitialClone_Small() throws Exception {
 				.getResponseHeader(HDR_CONTENT_TYPE));
 	}
 
+	@Test
+	public void testInitialClone_ProtocolV2() throws Exception {
+		Repository dst = createBareRepository();
+		dst.getConfig().setInt("protocol", null, "version", 2);
+		assertFalse(dst.hasObject(A_txt));
+
+		try (Transport t = Transport.open(dst, remoteURI)) {
+			t.fetch(NullProgressMonitor.INSTANCE, mirror(master));
+		}
+
+		assertTrue(dst.hasObject(A_txt));
+		assertEquals(B, dst.exactRef(master).getObjectId());
+		fsck(dst, B);
+
+		List<AccessEvent> requests = getRequests();
+		assertEquals(3, requests.size());
+
+		AccessEvent info = requests.get(0);
+		assertEquals("GET", info.getMethod());
+		assertEquals(join(remoteURI, "info/refs"), info.getPath());
+		assertEquals("version=2", info.getRequestHeader(HDR_GIT_PROTOCOL));
+		assertEquals(200, info.getStatus());
+
+		// One request to list the refs, one to fetch the objects.
+		for (AccessEvent service : requests.subList(1, 3)) {
+			assertEquals("POST", service.getMethod());
+			assertEquals(join(remoteURI, "git-upload-pack"), service.getPath());
+			assertEquals("version=2",
+					service.getRequestHeader(HDR_GIT_PROTOCOL));
+			assertEquals(200, service.getStatus());
+		}
+	}
+
 	@Test
 	public void testInitialClone_RedirectSmall() throws Exception {
 		Repository dst = createBareRepository();
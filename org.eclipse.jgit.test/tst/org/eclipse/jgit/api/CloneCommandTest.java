@@ -60,6 +60,8 @@
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.JGitInternalException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.PackFile;
 import org.eclipse.jgit.junit.RepositoryTestCase;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.lib.BranchConfig.BranchRebaseMode;
@@ -74,6 +76,7 @@
 import org.eclipse.jgit.submodule.SubmoduleStatus;
 import org.eclipse.jgit.submodule.SubmoduleStatusType;
 import org.eclipse.jgit.submodule.SubmoduleWalk;
+import org.eclipse.jgit.transport.FilterSpec;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.util.SystemReader;
@@ -270,6 +273,52 @@ public static RefSpec fetchRefSpec(Repository r) throws URISyntaxException {
 		return remoteConfig.getFetchRefSpecs().get(0);
 	}
 
+	@Test
+	public void testCloneRepositoryWithFilter() throws Exception {
+		FileBasedConfig cfg = db.getConfig();
+		cfg.setBoolean("uploadpack", null, "allowfilter", true);
+		cfg.setBoolean("uploadpack", null, "allowanysha1inwant", true);
+		cfg.save();
+		ObjectId masterBlob = db.resolve("master:Test.txt");
+
+		File directory = createTempDirectory("testCloneRepositoryWithFilter");
+		CloneCommand command = Git.cloneRepository();
+		command.setDirectory(directory);
+		command.setURI(fileUri());
+		command.setFilterSpec(FilterSpec.withBlobLimit(0));
+		Git git2 = command.call();
+		addRepoToClose(git2.getRepository());
+		Repository clone = git2.getRepository();
+
+		assertEquals("refs/heads/test", clone.getFullBranch());
+		assertEquals("Some change",
+				read(new File(directory, "Test.txt")));
+		assertFalse(clone.hasObject(masterBlob));
+		assertTrue(clone.hasObject(db.resolve("master^{tree}")));
+		assertTrue(clone.getConfig().getBoolean(
+				ConfigConstants.CONFIG_REMOTE_SECTION, "origin",
+				ConfigConstants.CONFIG_KEY_PROMISOR, false));
+		assertEquals("blob:none", clone.getConfig().getString(
+				ConfigConstants.CONFIG_REMOTE_SECTION, "origin",
+				ConfigConstants.CONFIG_KEY_PARTIAL_CLONE_FILTER));
+		assertEquals(1, clone.getConfig().getInt(
+				ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 0));
+		assertEquals("origin", clone.getConfig().getString(
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PARTIAL_CLONE));
+		try (Git reopened = Git.open(directory)) {
+			assertEquals("refs/heads/test",
+					reopened.getRepository().getFullBranch());
+		}
+
+		boolean promisor = false;
+		for (PackFile p : ((FileRepository) clone).getObjectDatabase()
+				.getPacks())
+			promisor |= p.isPromisor();
+		assertTrue(promisor);
+	}
+
 	@Test
 	public void testCloneRepositoryWithBranch() throws IOException,
 			JGitInternalException, GitAPIException {
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.api.blame;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.blame.BlameCache;
+import org.eclipse.jgit.blame.BlameGenerator;
+import org.eclipse.jgit.blame.BlameResult;
+import org.eclipse.jgit.blame.FileBlameCache;
+import org.eclipse.jgit.blame.InMemoryBlameCache;
+import org.eclipse.jgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Test;
+
+/** Unit tests of {@link BlameCache} use by {@link BlameGenerator}. */
+public class BlameCacheTest extends RepositoryTestCase {
+	private static class CountingCache extends InMemoryBlameCache {
+		final List<String> hits = new ArrayList<>();
+
+		CountingCache() {
+			super(10);
+		}
+
+		@Override
+		public synchronized Entry get(AnyObjectId commit, String path) {
+			Entry e = super.get(commit, path);
+			if (e != null)
+				hits.add(commit.name() + ' ' + path);
+			return e;
+		}
+	}
+
+	@Test
+	public void testIncrementalBlame() throws Exception {
+		try (Git git = new Git(db)) {
+			commit(git, "a.txt", "one", "two", "three");
+			commit(git, "a.txt", "one", "two", "2.5", "three");
+			writeTrashFile("b.txt", join("zero", "one", "two", "2.5", "three"));
+			git.rm().addFilepattern("a.txt").call();
+			RevCommit c3 = commit(git, "b.txt", "zero", "one", "two", "2.5",
+					"three");
+			RevCommit c4 = commit(git, "b.txt", "zero", "one", "2", "2.5",
+					"three", "four");
+
+			CountingCache cache = new CountingCache();
+			BlameResult first = blame("b.txt", c3, cache);
+			assertEquals(1, cache.size());
+			assertEquals(Arrays.asList(), cache.hits);
+			assertSameBlame(blame("b.txt", c3, null), first);
+
+			BlameResult second = blame("b.txt", c4, cache);
+			assertEquals(Arrays.asList(c3.name() + " b.txt"), cache.hits);
+			assertEquals(2, cache.size());
+			assertSameBlame(blame("b.txt", c4, null), second);
+
+			// The result itself is served from the cache.
+			cache.hits.clear();
+			BlameResult third = blame("b.txt", c4, cache);
+			assertEquals(Arrays.asList(c4.name() + " b.txt"), cache.hits);
+			assertSameBlame(second, third);
+		}
+	}
+
+	@Test
+	public void testWorkingTreeUsesCache() throws Exception {
+		try (Git git = new Git(db)) {
+			commit(git, "a.txt", "one", "two");
+			RevCommit c2 = commit(git, "a.txt", "one", "two", "three");
+			writeTrashFile("a.txt", join("zero", "one", "two", "three"));
+
+			CountingCache cache = new CountingCache();
+			blame("a.txt", c2, cache);
+
+			BlameResult cached = git.blame().setFilePath("a.txt")
+					.setBlameCache(cache).call();
+			BlameResult direct = git.blame().setFilePath("a.txt").call();
+			assertEquals(Arrays.asList(c2.name() + " a.txt"), cache.hits);
+			assertEquals(1, cache.size());
+			assertSameBlame(direct, cached);
+		}
+	}
+
+	@Test
+	public void testFileBlameCache() throws Exception {
+		try (Git git = new Git(db)) {
+			commit(git, "a.txt", "one", "two");
+			RevCommit c2 = commit(git, "a.txt", "one", "two", "three");
+
+			FileBlameCache cache = new FileBlameCache(db);
+			BlameResult direct = blame("a.txt", c2, cache);
+			BlameCache.Entry e = cache.get(c2, "a.txt");
+			assertNotNull(e);
+			assertEquals(3, e.getLineCount());
+			assertEquals(2, e.getSegments().size());
+			assertNull(cache.get(c2, "b.txt"));
+			assertSameBlame(direct, blame("a.txt", c2, cache));
+
+			// A damaged entry is ignored and dropped.
+			File[] dirs = cache.getDirectory().listFiles();
+			assertEquals(1, dirs.length);
+			File f = dirs[0].listFiles()[0];
+			write(f, "garbage");
+			assertNull(cache.get(c2, "a.txt"));
+			assertEquals(0, dirs[0].listFiles().length);
+			FileUtils.delete(cache.getDirectory(), FileUtils.RECURSIVE);
+		}
+	}
+
+	@Test
+	public void testFileBlameCachePrune() throws Exception {
+		try (Git git = new Git(db)) {
+			RevCommit c1 = commit(git, "a.txt", "one", "two");
+			RevCommit c2 = commit(git, "a.txt", "one", "two", "three");
+
+			FileBlameCache cache = new FileBlameCache(db);
+			blame("a.txt", c1, cache);
+			blame("a.txt", c2, cache);
+			ObjectId missing = ObjectId
+					.fromString("0123456789012345678901234567890123456789");
+			cache.put(missing, "a.txt", cache.get(c2, "a.txt"));
+			File dir = cache.getDirectory();
+			File other = new File(new File(dir, "ab"), "cdef");
+			write(other, "not an entry");
+			File lock = new File(new File(dir, "ab"), "cdef.lock");
+			write(lock, "being written");
+
+			// The removal of commits is done by gc.
+			git.gc().call();
+			assertNull(cache.get(missing, "a.txt"));
+			assertTrue(other.exists());
+			assertTrue(lock.exists());
+			assertNotNull(cache.get(c1, "a.txt"));
+			assertNotNull(cache.get(c2, "a.txt"));
+
+			// The least recently used entry is evicted first.
+			File f1 = entryFile(dir, c1);
+			File f2 = entryFile(dir, c2);
+			f1.setLastModified(f2.lastModified() - 10000);
+			cache.setMaxSize(f2.length());
+			try (ObjectReader reader = db.newObjectReader()) {
+				cache.prune(reader);
+			}
+			assertNull(cache.get(c1, "a.txt"));
+			assertNotNull(cache.get(c2, "a.txt"));
+			FileUtils.delete(dir, FileUtils.RECURSIVE);
+		}
+	}
+
+	private static File entryFile(File dir, ObjectId commit) {
+		String name = commit.name();
+		for (File f : new File(dir, name.substring(0, 2)).listFiles())
+			if (f.getName().startsWith(name.substring(2)))
+				return f;
+		throw new AssertionError(name);
+	}
+
+	@Test
+	public void testEntryEncoding() throws IOException {
+		ObjectId c = ObjectId
+				.fromString("0123456789012345678901234567890123456789");
+		ObjectId b = ObjectId
+				.fromString("abcdefabcdefabcdefabcdefabcdefabcdefabcd");
+		BlameCache.Entry e = new BlameCache.Entry(Arrays.asList(
+				new BlameCache.Segment(2, 1, c, "x/y", b, 7),
+				new BlameCache.Segment(0, 2, b, "z", c, 0)));
+		BlameCache.Entry r = BlameCache.Entry.fromByteArray(e.toByteArray());
+		assertEquals(3, r.getLineCount());
+		assertEquals(2, r.getSegments().size());
+		BlameCache.Segment s = r.getSegments().get(1);
+		assertEquals(2, s.getResultStart());
+		assertEquals(1, s.getLength());
+		assertEquals(c, s.getSourceCommit());
+		assertEquals("x/y", s.getSourcePath());
+		assertEquals(b, s.getSourceBlob());
+		assertEquals(7, s.getSourceStart());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testEntryWithGap() {
+		ObjectId c = ObjectId.zeroId();
+		new BlameCache.Entry(Arrays.asList(
+				new BlameCache.Segment(0, 1, c, "a", c, 0),
+				new BlameCache.Segment(2, 1, c, "a", c, 2)));
+	}
+
+	private BlameResult blame(String path, RevCommit start, BlameCache cache)
+			throws IOException {
+		try (BlameGenerator generator = new BlameGenerator(db, path)) {
+			generator.setBlameCache(cache);
+			generator.push(null, start);
+			return generator.computeBlameResult();
+		}
+	}
+
+	private static void assertSameBlame(BlameResult expected,
+			BlameResult actual) {
+		int lines = expected.getResultContents().size();
+		assertEquals(lines, actual.getResultContents().size());
+		for (int i = 0; i < lines; i++) {
+			assertEquals(expected.getSourceCommit(i),
+					actual.getSourceCommit(i));
+			assertEquals(expected.getSourcePath(i), actual.getSourcePath(i));
+			assertEquals(expected.getSourceLine(i), actual.getSourceLine(i));
+			assertEquals(expected.getSourceAuthor(i),
+					actual.getSourceAuthor(i));
+		}
+	}
+
+	private RevCommit commit(Git git, String path, String... lines)
+			throws Exception {
+		writeTrashFile(path, join(lines));
+		git.add().addFilepattern(path).call();
+		return git.commit().setMessage(path).call();
+	}
+
+	private static String join(String... lines) {
+		StringBuilder joined = new StringBuilder();
+		for (String line : lines)
+			joined.append(line).append('\n');
+		return joined.toString();
+	}
+}
@@ -44,10 +44,12 @@
 package org.eclipse.jgit.diff;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
@@ -57,6 +59,7 @@
 import org.eclipse.jgit.lib.AbbreviatedObjectId;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.junit.Before;
 import org.junit.Test;
@@ -621,6 +624,73 @@ public void testRenameLimit() throws Exception {
 		assertSame(d, entries.get(3));
 	}
 
+	@Test
+	public void testRenameLimit_Approximate() throws Exception {
+		ObjectId aId = blob("foo\nbar\nbaz\nblarg\n");
+		ObjectId bId = blob("foo\nbar\nbaz\nblah\n");
+		DiffEntry a = DiffEntry.add(PATH_A, aId);
+		DiffEntry b = DiffEntry.delete(PATH_B, bId);
+
+		ObjectId cId = blob("a\nb\nc\nd\n");
+		ObjectId dId = blob("a\nb\nc\n");
+		DiffEntry c = DiffEntry.add(PATH_H, cId);
+		DiffEntry d = DiffEntry.delete(PATH_Q, dId);
+
+		rd.add(a);
+		rd.add(b);
+		rd.add(c);
+		rd.add(d);
+
+		rd.setRenameLimit(1);
+		rd.setApproximateRenames(true);
+
+		assertFalse(rd.isOverRenameLimit());
+
+		List<DiffEntry> entries = rd.compute();
+		assertFalse(rd.isOverRenameLimit());
+		assertEquals(2, entries.size());
+		assertEquals(ChangeType.RENAME, entries.get(0).getChangeType());
+		assertEquals(PATH_B, entries.get(0).getOldPath());
+		assertEquals(PATH_A, entries.get(0).getNewPath());
+		assertEquals(ChangeType.RENAME, entries.get(1).getChangeType());
+		assertEquals(PATH_Q, entries.get(1).getOldPath());
+		assertEquals(PATH_H, entries.get(1).getNewPath());
+	}
+
+	@Test
+	public void testCandidateIndex_ManyFiles() throws Exception {
+		List<DiffEntry> srcs = new ArrayList<>();
+		List<DiffEntry> dsts = new ArrayList<>();
+		for (int i = 0; i < 100; i++) {
+			StringBuilder content = new StringBuilder();
+			for (int line = 0; line < 20; line++)
+				content.append("file ").append(i).append(" line ").append(line)
+						.append('\n');
+			srcs.add(DiffEntry.delete("old/" + i, blob(content.toString())));
+			content.append("new line\n");
+			dsts.add(DiffEntry.add("new/" + i, blob(content.toString())));
+		}
+
+		try (ObjectReader reader = db.newObjectReader()) {
+			ContentSource cs = ContentSource.create(reader);
+			SimilarityRenameDetector d = new SimilarityRenameDetector(
+					new ContentSource.Pair(cs, cs), srcs, dsts);
+			d.setUseCandidateIndex(true);
+			d.setThreads(4);
+			d.compute(null);
+
+			List<DiffEntry> matches = d.getMatches();
+			assertEquals(100, matches.size());
+			for (DiffEntry e : matches) {
+				assertEquals(ChangeType.RENAME, e.getChangeType());
+				assertEquals(e.getOldPath().substring(4),
+						e.getNewPath().substring(4));
+			}
+			assertTrue(d.getLeftOverSources().isEmpty());
+			assertTrue(d.getLeftOverDestinations().isEmpty());
+		}
+	}
+
 	private ObjectId blob(String content) throws Exception {
 		return testDb.blob(content).copy();
 	}
@@ -43,6 +43,7 @@
 
 package org.eclipse.jgit.diff;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
@@ -173,6 +174,27 @@ public void testCommonScore_SimiliarBy75() throws TableFullException {
 		assertEquals(75, dst.score(src, 100));
 	}
 
+	@Test
+	public void testMinHash() throws TableFullException {
+		int[] src = hash("A\nB\nC\nD\n").minHash(64);
+		assertEquals(64, src.length);
+		assertArrayEquals(src, hash("D\nC\nB\nA\n").minHash(64));
+
+		int same = 0;
+		int[] dst = hash("A\nB\nC\nQ\n").minHash(64);
+		for (int i = 0; i < src.length; i++)
+			if (src[i] == dst[i])
+				same++;
+		assertTrue("similar files share values", 0 < same && same < 64);
+
+		same = 0;
+		dst = hash("E\nF\nG\nH\n").minHash(64);
+		for (int i = 0; i < src.length; i++)
+			if (src[i] == dst[i])
+				same++;
+		assertEquals(0, same);
+	}
+
 	private static SimilarityIndex hash(String text) throws TableFullException {
 		SimilarityIndex src = new SimilarityIndex();
 		byte[] raw = Constants.encode(text);
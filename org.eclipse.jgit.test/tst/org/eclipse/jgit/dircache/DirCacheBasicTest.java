@@ -59,6 +59,9 @@
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.SystemReader;
 import org.junit.Test;
 
@@ -235,6 +238,65 @@ public void testDetectUnmergedPaths() throws Exception {
 		assertTrue(dc.hasUnmergedPaths());
 	}
 
+	@Test
+	public void testWriteReadV4_FromConfig() throws Exception {
+		final FileBasedConfig cfg = db.getConfig();
+		cfg.setInt("index", null, "version", 4);
+		cfg.save();
+
+		final String longPath = "d/" + new String(new char[5000]).replace(
+				'\0', 'x');
+		final String[] paths = { "a.b", "a/b/c", "a/b/d", "a/bc", "a0",
+				"b", longPath, longPath + "y" };
+		final DirCache dc = db.lockDirCache();
+		final DirCacheBuilder b = dc.builder();
+		for (int i = 0; i < paths.length; i++) {
+			final DirCacheEntry e = new DirCacheEntry(paths[i]);
+			e.setFileMode(FileMode.REGULAR_FILE);
+			e.setLength(i);
+			e.setAssumeValid(i == 3);
+			b.add(e);
+		}
+		b.commit();
+
+		final File idx = new File(db.getDirectory(), "index");
+		final byte[] raw = IO.readFully(idx);
+		assertEquals(4, NB.decodeInt32(raw, 4));
+
+		final DirCache read = db.readDirCache();
+		assertEquals(DirCache.DirCacheVersion.DIRC_VERSION_PATHCOMPRESS,
+				read.getVersion());
+		assertEquals(paths.length, read.getEntryCount());
+		for (int i = 0; i < paths.length; i++) {
+			final DirCacheEntry e = read.getEntry(i);
+			assertEquals(paths[i], e.getPathString());
+			assertEquals(i, e.getLength());
+			assertEquals(i == 3, e.isAssumeValid());
+		}
+	}
+
+	@Test
+	public void testWriteKeepsVersionReadFromDisk() throws Exception {
+		final DirCache dc = db.lockDirCache();
+		dc.setVersion(DirCache.DirCacheVersion.DIRC_VERSION_PATHCOMPRESS);
+		final DirCacheBuilder b = dc.builder();
+		final DirCacheEntry e = new DirCacheEntry("a");
+		e.setFileMode(FileMode.REGULAR_FILE);
+		b.add(e);
+		b.commit();
+
+		final DirCache again = db.lockDirCache();
+		again.builder().commit();
+		final byte[] raw = IO.readFully(new File(db.getDirectory(), "index"));
+		assertEquals(4, NB.decodeInt32(raw, 4));
+
+		final DirCache v2 = db.lockDirCache();
+		v2.setVersion(DirCache.DirCacheVersion.DIRC_VERSION_MINIMUM);
+		v2.builder().commit();
+		assertEquals(2, NB.decodeInt32(
+				IO.readFully(new File(db.getDirectory(), "index")), 4));
+	}
+
 	@Test
 	public void testFindOnEmpty() throws Exception {
 		final DirCache dc = DirCache.newInCore();
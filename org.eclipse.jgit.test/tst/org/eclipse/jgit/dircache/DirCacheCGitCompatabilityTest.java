@@ -56,6 +56,7 @@
 import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.Map;
@@ -63,6 +64,7 @@
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.junit.JGitTestUtil;
 import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
@@ -220,6 +222,73 @@ public void testReadWriteV3() throws Exception {
 		assertArrayEquals(expectedBytes, indexBytes);
 	}
 
+	@Test
+	public void testReadWriteV4() throws Exception {
+		final File file = pathOf("gitgit.index.v4");
+		final Map<String, CGitIndexRecord> ls = readLsFiles();
+		final DirCache dc = new DirCache(file, FS.DETECTED);
+		dc.read();
+		assertEquals(DirCache.DirCacheVersion.DIRC_VERSION_PATHCOMPRESS,
+				dc.getVersion());
+		assertEquals(ls.size(), dc.getEntryCount());
+		{
+			final Iterator<CGitIndexRecord> rItr = ls.values().iterator();
+			for (int i = 0; rItr.hasNext(); i++)
+				assertEqual(rItr.next(), dc.getEntry(i));
+		}
+		assertEquals(ObjectId
+				.fromString("698dd0b8d0c299f080559a1cffc7fe029479a408"),
+				dc.getCacheTree(false).getObjectId());
+
+		// C Git orders the cached trees differently than we do, so only
+		// the path compressed entries are expected to be identical.
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		dc.writeTo(null, bos);
+		final byte[] indexBytes = bos.toByteArray();
+		final byte[] expectedBytes = IO.readFully(file);
+		final int treeExt = indexOf(expectedBytes, Constants.encode("TREE"));
+		assertTrue(treeExt > 0);
+		assertEquals(treeExt, indexOf(indexBytes, Constants.encode("TREE")));
+		assertArrayEquals(Arrays.copyOf(expectedBytes, treeExt),
+				Arrays.copyOf(indexBytes, treeExt));
+	}
+
+	private static int indexOf(byte[] buf, byte[] needle) {
+		outer: for (int i = 0; i + needle.length <= buf.length; i++) {
+			for (int j = 0; j < needle.length; j++) {
+				if (buf[i + j] != needle[j])
+					continue outer;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	@Test
+	public void testReadWriteV4Extended() throws Exception {
+		final File file = pathOf("gitgit.index.v4.extended");
+		final DirCache dc = new DirCache(file, FS.DETECTED);
+		dc.read();
+
+		assertEquals(10, dc.getEntryCount());
+		assertV3TreeEntry(0, "dir1/file1.txt", false, false, dc);
+		assertV3TreeEntry(1, "dir2/file2.txt", true, false, dc);
+		assertV3TreeEntry(2, "dir3/file3.txt", false, false, dc);
+		assertV3TreeEntry(3, "dir3/file3a.txt", true, false, dc);
+		assertV3TreeEntry(4, "dir4/file4.txt", true, false, dc);
+		assertV3TreeEntry(5, "dir4/file4a.txt", false, false, dc);
+		assertV3TreeEntry(6, "file.txt", true, false, dc);
+		assertV3TreeEntry(7, "newdir1/newfile1.txt", false, true, dc);
+		assertV3TreeEntry(8, "newdir1/newfile2.txt", false, true, dc);
+		assertV3TreeEntry(9, "newfile.txt", false, true, dc);
+
+		final ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		dc.writeTo(null, bos);
+		final byte[] indexBytes = bos.toByteArray();
+		final byte[] expectedBytes = IO.readFully(file);
+		assertArrayEquals(expectedBytes, indexBytes);
+	}
+
 	private static void assertV3TreeEntry(int indexPosition, String path,
 			boolean skipWorkTree, boolean intentToAdd, DirCache dc) {
 		final DirCacheEntry entry = dc.getEntry(indexPosition);
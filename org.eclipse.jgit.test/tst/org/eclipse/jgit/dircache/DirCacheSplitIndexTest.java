@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.errors.IndexReadException;
+import org.eclipse.jgit.junit.JGitTestUtil;
+import org.eclipse.jgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.SystemReader;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DirCacheSplitIndexTest extends RepositoryTestCase {
+	private static final String SHARED = "sharedindex.60d24befab604af0167be140c8504e70381ba254";
+
+	private File index;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		index = new File(db.getDirectory(), "index");
+	}
+
+	@Test
+	public void testReadCGitSplitIndex() throws Exception {
+		Files.copy(JGitTestUtil.getTestResourceFile("split.index").toPath(),
+				index.toPath());
+		Files.copy(JGitTestUtil.getTestResourceFile(SHARED).toPath(),
+				new File(db.getDirectory(), SHARED).toPath());
+
+		DirCache dc = db.readDirCache();
+		String[] paths = { "a.txt", "b.txt", "c.txt", "dir/x", "e.txt",
+				"f.txt", "g.txt", "h.txt", "n.txt" };
+		assertEquals(paths.length, dc.getEntryCount());
+		for (int i = 0; i < paths.length; i++)
+			assertEquals(paths[i], dc.getEntry(i).getPathString());
+		assertEquals(blob("changed\n"), dc.getEntry("b.txt").getObjectId());
+		assertEquals(blob("new\n"), dc.getEntry("n.txt").getObjectId());
+		assertEquals(blob("a\n"), dc.getEntry("a.txt").getObjectId());
+		assertNull(dc.getEntry("d.txt"));
+	}
+
+	@Test
+	public void testMissingSharedIndex() throws Exception {
+		Files.copy(JGitTestUtil.getTestResourceFile("split.index").toPath(),
+				index.toPath());
+		try {
+			db.readDirCache();
+			fail("read index without its shared index");
+		} catch (IndexReadException e) {
+			assertTrue(e.getMessage().contains(SHARED));
+		}
+	}
+
+	@Test
+	public void testWriteOnlyChanges() throws Exception {
+		enableSplitIndex(100);
+		writeEntries("a", "b", "c", "d", "e");
+		assertEquals(1, sharedIndexes().size());
+		assertEquals(0, mainEntryCount());
+
+		DirCache dc = db.lockDirCache();
+		DirCacheEditor ed = dc.editor();
+		ed.add(new DirCacheEditor.PathEdit("b") {
+			@Override
+			public void apply(DirCacheEntry ent) {
+				ent.setObjectId(blob("modified"));
+			}
+		});
+		ed.add(new DirCacheEditor.DeletePath("d"));
+		ed.add(new DirCacheEditor.PathEdit("f") {
+			@Override
+			public void apply(DirCacheEntry ent) {
+				ent.setFileMode(FileMode.REGULAR_FILE);
+				ent.setObjectId(blob("f"));
+			}
+		});
+		assertTrue(ed.commit());
+
+		// Only the replaced "b" and added "f" are in the main index.
+		assertEquals(1, sharedIndexes().size());
+		assertEquals(2, mainEntryCount());
+
+		dc = db.readDirCache();
+		assertEquals(5, dc.getEntryCount());
+		assertEquals("a", dc.getEntry(0).getPathString());
+		assertEquals(blob("modified"), dc.getEntry("b").getObjectId());
+		assertEquals(blob("c"), dc.getEntry("c").getObjectId());
+		assertNull(dc.getEntry("d"));
+		assertEquals(blob("f"), dc.getEntry("f").getObjectId());
+	}
+
+	@Test
+	public void testConsolidateSharedIndex() throws Exception {
+		enableSplitIndex(20);
+		writeEntries("a", "b", "c", "d", "e");
+		List<File> before = sharedIndexes();
+		assertEquals(1, before.size());
+
+		DirCache dc = db.lockDirCache();
+		DirCacheEditor ed = dc.editor();
+		ed.add(new DirCacheEditor.DeletePath("a"));
+		ed.add(new DirCacheEditor.DeletePath("b"));
+		assertTrue(ed.commit());
+
+		// 2 of 5 entries changed, over the limit of 20%.
+		assertEquals(0, mainEntryCount());
+		List<File> after = sharedIndexes();
+		assertEquals(2, after.size());
+
+		dc = db.readDirCache();
+		assertEquals(3, dc.getEntryCount());
+		assertEquals("c", dc.getEntry(0).getPathString());
+	}
+
+	@Test
+	public void testPruneExpiredSharedIndexes() throws Exception {
+		enableSplitIndex(0);
+		FileBasedConfig cfg = db.getConfig();
+		cfg.setString("splitIndex", null, "sharedIndexExpire", "now");
+		cfg.save();
+
+		writeEntries("a", "b");
+		File first = sharedIndexes().get(0);
+		first.setLastModified(
+				SystemReader.getInstance().getCurrentTime() - 60 * 1000);
+		writeEntries("a", "b", "c");
+		List<File> shared = sharedIndexes();
+		assertEquals(1, shared.size());
+		assertFalse(shared.contains(first));
+	}
+
+	@Test
+	public void testDisableSplitIndex() throws Exception {
+		enableSplitIndex(100);
+		writeEntries("a", "b", "c");
+		assertEquals(0, mainEntryCount());
+
+		FileBasedConfig cfg = db.getConfig();
+		cfg.setBoolean("core", null, "splitIndex", false);
+		cfg.save();
+		writeEntries("a", "b", "c");
+		assertEquals(3, mainEntryCount());
+		assertEquals(3, db.readDirCache().getEntryCount());
+	}
+
+	private void enableSplitIndex(int maxPercentChange) throws Exception {
+		FileBasedConfig cfg = db.getConfig();
+		cfg.setBoolean("core", null, "splitIndex", true);
+		cfg.setInt("splitIndex", null, "maxPercentChange", maxPercentChange);
+		cfg.save();
+	}
+
+	private void writeEntries(String... paths) throws Exception {
+		DirCache dc = db.lockDirCache();
+		DirCacheBuilder b = dc.builder();
+		for (String path : paths) {
+			DirCacheEntry e = new DirCacheEntry(path);
+			e.setFileMode(FileMode.REGULAR_FILE);
+			e.setObjectId(blob(path));
+			b.add(e);
+		}
+		assertTrue(b.commit());
+	}
+
+	private int mainEntryCount() throws Exception {
+		return NB.decodeInt32(IO.readFully(index), 8);
+	}
+
+	private List<File> sharedIndexes() {
+		List<File> r = new ArrayList<>();
+		for (File f : db.getDirectory().listFiles()) {
+			if (f.getName().startsWith("sharedindex."))
+				r.add(f);
+		}
+		return r;
+	}
+
+	private static ObjectId blob(String content) {
+		try (ObjectInserter.Formatter fmt = new ObjectInserter.Formatter()) {
+			return fmt.idFor(Constants.OBJ_BLOB, Constants.encode(content));
+		}
+	}
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.util.FsMonitor;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FsMonitorTest extends RepositoryTestCase {
+	private TestMonitor monitor;
+
+	private Git git;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		writeTrashFile("a", "a");
+		writeTrashFile("d/b", "b");
+		git = new Git(db);
+		git.add().addFilepattern(".").call();
+		git.commit().setMessage("initial").call();
+		monitor = new TestMonitor();
+		db.setFsMonitor(monitor);
+	}
+
+	@Test
+	public void testStatusMarksEntries() throws Exception {
+		DirCache dc = db.readDirCache();
+		assertNotNull(dc.getFsMonitorToken());
+		assertFalse(dc.getEntry("a").isFsMonitorValid());
+
+		assertTrue(git.status().call().isClean());
+		dc = db.readDirCache();
+		assertTrue(dc.getEntry("a").isFsMonitorValid());
+		assertTrue(dc.getEntry("d/b").isFsMonitorValid());
+	}
+
+	@Test
+	public void testUnreportedChangeIsTrusted() throws Exception {
+		assertTrue(git.status().call().isClean());
+		writeTrashFile("a", "A");
+		writeTrashFile("d/b", "B");
+		assertTrue(git.status().call().isClean());
+
+		monitor.changed("a");
+		assertEquals(Collections.singleton("a"),
+				git.status().call().getModified());
+		assertFalse(db.readDirCache().getEntry("a").isFsMonitorValid());
+		assertTrue(db.readDirCache().getEntry("d/b").isFsMonitorValid());
+	}
+
+	@Test
+	public void testReportedDirectory() throws Exception {
+		assertTrue(git.status().call().isClean());
+		writeTrashFile("d/b", "B");
+		monitor.changed("d");
+		assertEquals(Collections.singleton("d/b"),
+				git.status().call().getModified());
+		assertTrue(db.readDirCache().getEntry("a").isFsMonitorValid());
+	}
+
+	@Test
+	public void testUnknownToken() throws Exception {
+		assertTrue(git.status().call().isClean());
+		writeTrashFile("a", "A");
+		monitor.reset();
+		assertEquals(Collections.singleton("a"),
+				git.status().call().getModified());
+	}
+
+	@Test
+	public void testModifiedEntryIsNotValid() throws Exception {
+		assertTrue(git.status().call().isClean());
+		DirCache dc = db.lockDirCache();
+		DirCacheEntry e = dc.getEntry("a");
+		assertTrue(e.isFsMonitorValid());
+		e.setLastModified(e.getLastModified() + 1000);
+		assertFalse(e.isFsMonitorValid());
+		dc.write();
+		assertTrue(dc.commit());
+		assertFalse(db.readDirCache().getEntry("a").isFsMonitorValid());
+	}
+
+	@Test
+	public void testAddKeepsValidEntry() throws Exception {
+		assertTrue(git.status().call().isClean());
+		DirCacheEntry before = db.readDirCache().getEntry("a");
+		writeTrashFile("a", "A");
+		git.add().addFilepattern("a").call();
+		DirCacheEntry after = db.readDirCache().getEntry("a");
+		assertEquals(before.getObjectId(), after.getObjectId());
+
+		monitor.changed("a");
+		git.add().addFilepattern("a").call();
+		assertEquals("[a, mode:100644, content:A][d/b, mode:100644, content:b]",
+				indexState(CONTENT));
+	}
+
+	@Test
+	public void testWithoutMonitor() throws Exception {
+		assertTrue(git.status().call().isClean());
+		writeTrashFile("a", "A");
+		db.setFsMonitor(null);
+		DirCache dc = db.readDirCache();
+		assertNull(dc.getFsMonitorToken());
+		assertFalse(dc.getEntry("d/b").isFsMonitorValid());
+		assertEquals(Collections.singleton("a"),
+				git.status().call().getModified());
+
+		// The stale extension is dropped when the index is written
+		dc = db.lockDirCache();
+		dc.write();
+		assertTrue(dc.commit());
+		db.setFsMonitor(monitor);
+		dc = db.readDirCache();
+		assertFalse(dc.getEntry("d/b").isFsMonitorValid());
+		assertEquals(Collections.singleton("a"),
+				git.status().call().getModified());
+	}
+
+	private static class TestMonitor extends FsMonitor {
+		private String generation = "0";
+
+		private final List<String> changes = new ArrayList<>();
+
+		synchronized void changed(String path) {
+			changes.add(path);
+		}
+
+		synchronized void reset() {
+			generation = String.valueOf(Integer.parseInt(generation) + 1);
+			changes.clear();
+		}
+
+		@Override
+		public synchronized Changes getChangesSince(String token) {
+			String next = generation + ':' + changes.size();
+			if (token == null || !token.startsWith(generation + ':'))
+				return new Changes(next);
+			int since = Integer.parseInt(
+					token.substring(generation.length() + 1));
+			return new Changes(next, changes.subList(since, changes.size()));
+		}
+	}
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.IndexDiff;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.treewalk.FileTreeIterator;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UntrackedCacheTest extends RepositoryTestCase {
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		writeTrashFile("tracked", "tracked");
+		try (Git git = new Git(db)) {
+			git.add().addFilepattern("tracked").call();
+			git.commit().setMessage("initial").call();
+		}
+	}
+
+	@Test
+	public void testWriteRead() throws Exception {
+		UntrackedCache c = new UntrackedCache(
+				UntrackedCache.ident(db.getWorkTree()));
+		c.setInfoExcludeId(ObjectId.zeroId());
+		c.setExcludesFileId(ObjectId.zeroId());
+		UntrackedCache.Directory root = new UntrackedCache.Directory("");
+		root.setExcludeId(ObjectId.zeroId());
+		c.addDirectory(root);
+		UntrackedCache.Directory a = new UntrackedCache.Directory("a/b");
+		a.setValid(true);
+		a.setLastModified(1234567890123L);
+		a.setLength(4096);
+		a.setExcludeId(blob("*.o\n"));
+		a.getUntracked().addAll(Arrays.asList("c", "d/"));
+		c.addDirectory(a);
+		UntrackedCache.Directory d = new UntrackedCache.Directory("a/b/d");
+		d.setValid(true);
+		d.setExcludeId(ObjectId.zeroId());
+		c.addDirectory(d);
+
+		DirCache dc = db.lockDirCache();
+		dc.setUntrackedCache(c);
+		dc.write();
+		assertTrue(dc.commit());
+
+		UntrackedCache read = db.readDirCache().getUntrackedCache();
+		assertNotNull(read);
+		assertEquals(c.getIdent(), read.getIdent());
+		assertEquals(a.getLastModified(),
+				read.getDirectory("a/b").getLastModified());
+		// "a" was written without stat data and exclude id
+		assertFalse(read.getDirectory("a").isValid());
+		assertNull(read.getDirectory("a").getExcludeId());
+		assertEquals(a, read.getDirectory("a/b"));
+		assertEquals(d, read.getDirectory("a/b/d"));
+		assertEquals(root, read.getDirectory(""));
+		assertEquals(4, read.getDirectories().size());
+		assertEquals(1, db.readDirCache().getEntryCount());
+	}
+
+	@Test
+	public void testForeignCacheIsDropped() throws Exception {
+		DirCache dc = db.lockDirCache();
+		dc.setUntrackedCache(new UntrackedCache("Location "
+				+ db.getWorkTree().getAbsolutePath() + ", system Linux"));
+		dc.write();
+		assertTrue(dc.commit());
+		assertNull(db.readDirCache().getUntrackedCache());
+	}
+
+	@Test
+	public void testReuseUnchangedDirectory() throws Exception {
+		enableUntrackedCache("true");
+		writeTrashFile("u/a.txt", "a");
+		writeTrashFile("u/v/b.txt", "b");
+		File u = age("u");
+		age("u/v");
+
+		assertEquals(set("u/a.txt", "u/v/b.txt"), untracked());
+		UntrackedCache cache = db.readDirCache().getUntrackedCache();
+		assertNotNull(cache);
+		assertTrue(cache.getDirectory("u").isValid());
+		assertEquals(Arrays.asList("a.txt", "v/"),
+				cache.getDirectory("u").getUntracked());
+
+		// A file sneaked in without changing the time stamp of the directory
+		// is not seen, which proves the directory was not listed again.
+		long lastModified = u.lastModified();
+		writeTrashFile("u/c.txt", "c");
+		u.setLastModified(lastModified);
+		assertEquals(set("u/a.txt", "u/v/b.txt"), untracked());
+
+		u.setLastModified(lastModified - 1000);
+		assertEquals(set("u/a.txt", "u/c.txt", "u/v/b.txt"), untracked());
+	}
+
+	@Test
+	public void testChangedSubdirectory() throws Exception {
+		enableUntrackedCache("true");
+		writeTrashFile("u/a.txt", "a");
+		writeTrashFile("u/v/b.txt", "b");
+		age("u");
+		assertEquals(set("u/a.txt", "u/v/b.txt"), untracked());
+
+		writeTrashFile("u/v/c.txt", "c");
+		assertEquals(set("u/a.txt", "u/v/b.txt", "u/v/c.txt"), untracked());
+	}
+
+	@Test
+	public void testChangedGitignore() throws Exception {
+		enableUntrackedCache("true");
+		writeTrashFile("u/a.txt", "a");
+		writeTrashFile("u/b.o", "b");
+		File u = age("u");
+		assertEquals(set("u/a.txt", "u/b.o"), untracked());
+
+		writeTrashFile(Constants.DOT_GIT_IGNORE, "*.o\n");
+		assertEquals(set(".gitignore", "u/a.txt"), untracked());
+
+		// The ignored file keeps the directory out of the cache.
+		assertFalse(db.readDirCache().getUntrackedCache().getDirectory("u")
+				.isValid());
+		long lastModified = u.lastModified();
+		writeTrashFile("u/c.txt", "c");
+		u.setLastModified(lastModified);
+		assertEquals(set(".gitignore", "u/a.txt", "u/c.txt"), untracked());
+	}
+
+	@Test
+	public void testRacilyModifiedDirectoryNotTrusted() throws Exception {
+		enableUntrackedCache("true");
+		writeTrashFile("u/a.txt", "a");
+		File u = new File(db.getWorkTree(), "u");
+		u.setLastModified(System.currentTimeMillis());
+		assertEquals(set("u/a.txt"), untracked());
+		assertFalse(db.readDirCache().getUntrackedCache().getDirectory("u")
+				.isValid());
+	}
+
+	@Test
+	public void testKeepAndDisable() throws Exception {
+		writeTrashFile("u/a.txt", "a");
+		age("u");
+		assertEquals(set("u/a.txt"), untracked());
+		assertNull(db.readDirCache().getUntrackedCache());
+
+		enableUntrackedCache("true");
+		untracked();
+		assertNotNull(db.readDirCache().getUntrackedCache());
+
+		enableUntrackedCache("keep");
+		writeTrashFile("u/b.txt", "b");
+		assertEquals(set("u/a.txt", "u/b.txt"), untracked());
+		assertNotNull(db.readDirCache().getUntrackedCache());
+
+		enableUntrackedCache("false");
+		assertEquals(set("u/a.txt", "u/b.txt"), untracked());
+		assertNull(db.readDirCache().getUntrackedCache());
+	}
+
+	private void enableUntrackedCache(String value) throws Exception {
+		FileBasedConfig cfg = db.getConfig();
+		cfg.setString(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_UNTRACKED_CACHE, value);
+		cfg.save();
+	}
+
+	/** Move the time stamps of a directory tree out of the racy window. */
+	private File age(String path) {
+		File dir = new File(db.getWorkTree(), path);
+		long time = System.currentTimeMillis() - 10000;
+		age(dir, time);
+		return dir;
+	}
+
+	private static void age(File dir, long time) {
+		File[] children = dir.listFiles();
+		if (children != null) {
+			for (File c : children) {
+				if (c.isDirectory())
+					age(c, time);
+			}
+		}
+		dir.setLastModified(time);
+	}
+
+	private Set<String> untracked() throws Exception {
+		IndexDiff diff = new IndexDiff(db, Constants.HEAD,
+				new FileTreeIterator(db));
+		diff.diff();
+		return diff.getUntracked();
+	}
+
+	private static Set<String> set(String... paths) {
+		Set<String> s = new HashSet<>();
+		Collections.addAll(s, paths);
+		return s;
+	}
+
+	private static ObjectId blob(String content) {
+		return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB,
+				Constants.encode(content));
+	}
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommitGraphTest {
+	private TestRepository<InMemoryRepository> tr;
+
+	private CommitGraph graph;
+
+	@Before
+	public void setUp() throws Exception {
+		tr = new TestRepository<>(new InMemoryRepository(
+				new DfsRepositoryDescription("test")));
+	}
+
+	@Test
+	public void testEmptyGraph() throws Exception {
+		writeAndReadGraph(new HashSet<ObjectId>());
+		assertEquals(0, graph.getCommitCount());
+		assertEquals(-1, graph.findGraphPosition(ObjectId.zeroId()));
+	}
+
+	@Test
+	public void testLinearHistory() throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		RevCommit c = tr.commit().parent(b).add("c", "c").create();
+		writeAndReadGraph(set(c));
+
+		assertEquals(3, graph.getCommitCount());
+		verifyCommit(a, 1);
+		verifyCommit(b, 2);
+		verifyCommit(c, 3);
+	}
+
+	@Test
+	public void testMergeAndOctopus() throws Exception {
+		RevCommit root = tr.commit().create();
+		RevCommit b1 = tr.commit().parent(root).add("b1", "1").create();
+		RevCommit b2 = tr.commit().parent(b1).add("b2", "2").create();
+		RevCommit c1 = tr.commit().parent(root).add("c1", "1").create();
+		RevCommit d1 = tr.commit().parent(root).add("d1", "1").create();
+		RevCommit merge = tr.commit().parent(b2).parent(c1).create();
+		RevCommit octopus = tr.commit().parent(merge).parent(c1).parent(d1)
+				.parent(b1).create();
+		writeAndReadGraph(set(octopus));
+
+		assertEquals(7, graph.getCommitCount());
+		verifyCommit(root, 1);
+		verifyCommit(b1, 2);
+		verifyCommit(b2, 3);
+		verifyCommit(c1, 2);
+		verifyCommit(d1, 2);
+		verifyCommit(merge, 4);
+		verifyCommit(octopus, 5);
+	}
+
+	@Test
+	public void testMultipleTipsAndTags() throws Exception {
+		RevCommit a = tr.commit().create();
+		RevCommit b = tr.commit().parent(a).create();
+		RevCommit c = tr.commit().parent(a).create();
+		writeAndReadGraph(set(tr.tag("v1", b), c, tr.blob("not a commit")));
+
+		assertEquals(3, graph.getCommitCount());
+		verifyCommit(a, 1);
+		verifyCommit(b, 2);
+		verifyCommit(c, 2);
+	}
+
+	@Test
+	public void testCorruptSignature() throws Exception {
+		byte[] data = new byte[64];
+		try {
+			CommitGraphLoader.read(new ByteArrayInputStream(data));
+			fail("accepted a file without signature");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private void verifyCommit(RevCommit c, int generation) throws Exception {
+		tr.getRevWalk().parseHeaders(c);
+		int pos = graph.findGraphPosition(c);
+		assertEquals(c, graph.getObjectId(pos));
+
+		CommitGraph.CommitData data = graph.getCommitData(pos);
+		assertEquals(c.getTree(), data.getTree());
+		assertEquals(c.getCommitTime(), data.getCommitTime());
+		assertEquals(generation, data.getGeneration());
+		assertEquals(generation, graph.getGeneration(pos));
+
+		int[] parents = data.getParents();
+		ObjectId[] actual = new ObjectId[parents.length];
+		for (int i = 0; i < parents.length; i++)
+			actual[i] = graph.getObjectId(parents[i]);
+		assertArrayEquals(c.getParents(), actual);
+	}
+
+	private void writeAndReadGraph(Set<ObjectId> wants) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try (ObjectReader reader = tr.getRepository().newObjectReader()) {
+			new CommitGraphWriter(reader).write(NullProgressMonitor.INSTANCE,
+					out, wants);
+		}
+		graph = CommitGraphLoader
+				.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static Set<ObjectId> set(ObjectId... ids) {
+		return new HashSet<>(Arrays.asList(ids));
+	}
+}
@@ -41,7 +41,12 @@
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
 
+import java.util.HashMap;
+import java.util.Map;
+
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.Config;
 import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.ExpectedException;
@@ -85,4 +90,28 @@ public void validBlockSize() {
 
 		assertThat(config.getBlockSize(), is(65536));
 	}
+
+	@Test
+	@SuppressWarnings("boxing")
+	public void shardCountFromConfig() {
+		Config rc = new Config();
+		rc.setInt("core", "dfs", "shardCount", 8);
+		DfsBlockCacheConfig config = new DfsBlockCacheConfig().fromConfig(rc);
+
+		assertThat(config.getShardCount(), is(8));
+		assertThat(config.setShardCount(0).getShardCount(), is(1));
+	}
+
+	@Test
+	@SuppressWarnings("boxing")
+	public void cacheHotMapIsCopied() {
+		Map<PackExt, Integer> hot = new HashMap<>();
+		hot.put(PackExt.INDEX, 3);
+		DfsBlockCacheConfig config = new DfsBlockCacheConfig()
+				.setCacheHotMap(hot);
+		hot.put(PackExt.BITMAP_INDEX, 3);
+
+		assertThat(config.getCacheHotMap().get(PackExt.INDEX), is(3));
+		assertThat(config.getCacheHotMap().size(), is(1));
+	}
 }
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.Deflater;
+
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.junit.JGitTestUtil;
+import org.eclipse.jgit.junit.TestRng;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DfsBlockCacheTest {
+	private InMemoryRepository db;
+
+	@Before
+	public void setUp() {
+		db = new InMemoryRepository(new DfsRepositoryDescription("test"));
+	}
+
+	@After
+	public void tearDown() {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig());
+	}
+
+	@Test
+	public void statsArePerPackExt() throws Exception {
+		List<ObjectId> ids = insertBlobs(4, 256);
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig());
+		db.getObjectDatabase().clearCache();
+		DfsBlockCache cache = DfsBlockCache.getInstance();
+
+		try (ObjectReader rdr = db.newObjectReader()) {
+			for (ObjectId id : ids)
+				assertNotNull(rdr.open(id).getCachedBytes());
+		}
+
+		assertEquals(1, cache.getMissCount(INDEX));
+		assertTrue(cache.getHitCount(INDEX) > 0);
+		assertTrue(cache.getMissCount(PACK) > 0);
+		assertTrue(cache.getTotalLoadTime(PACK) > 0);
+		assertTrue(cache.getCurrentSize(INDEX) > 0);
+		assertTrue(cache.getCurrentSize(PACK) > 0);
+		assertEquals(0, cache.getEvictions(PACK));
+
+		long hits = 0;
+		long miss = 0;
+		for (PackExt ext : PackExt.values()) {
+			hits += cache.getHitCount(ext);
+			miss += cache.getMissCount(ext);
+		}
+		assertEquals(hits, cache.getHitCount());
+		assertEquals(miss, cache.getMissCount());
+	}
+
+	@Test
+	public void shardedCacheStaysWithinLimit() throws Exception {
+		List<ObjectId> ids = insertBlobs(16, 2048);
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(8 * 512)
+				.setShardCount(4));
+		db.getObjectDatabase().clearCache();
+		DfsBlockCache cache = DfsBlockCache.getInstance();
+
+		try (ObjectReader rdr = db.newObjectReader()) {
+			for (int pass = 0; pass < 2; pass++) {
+				for (ObjectId id : ids)
+					assertEquals(2048, rdr.open(id).getCachedBytes().length);
+			}
+		}
+		assertTrue(cache.getEvictions(PACK) > 0);
+		assertTrue(cache.getCurrentSize() <= 8 * 512);
+	}
+
+	@Test
+	public void shardCountIsLimitedByBlocks() throws Exception {
+		List<ObjectId> ids = insertBlobs(2, 1024);
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(2 * 512)
+				.setShardCount(64));
+		db.getObjectDatabase().clearCache();
+
+		try (ObjectReader rdr = db.newObjectReader()) {
+			for (ObjectId id : ids)
+				assertEquals(1024, rdr.open(id).getCachedBytes().length);
+		}
+	}
+
+	@Test
+	public void hotMapKeepsIndexResident() {
+		assertFalse(survivesStreaming(1));
+		assertTrue(survivesStreaming(4));
+	}
+
+	private static boolean survivesStreaming(int indexHotCount) {
+		DfsBlockCache.reconfigure(new DfsBlockCacheConfig()
+				.setBlockSize(512)
+				.setBlockLimit(4 * 512)
+				.setCacheHotMap(Collections.singletonMap(INDEX,
+						Integer.valueOf(indexHotCount))));
+		DfsBlockCache cache = DfsBlockCache.getInstance();
+		DfsPackKey key = new DfsPackKey();
+
+		DfsBlockCache.Ref<Object> idx = cache.put(key, INDEX, -1, 512,
+				new Object());
+		for (int i = 0; i < 8; i++)
+			idx.get();
+		for (int i = 0; i < 6; i++)
+			cache.put(key, PACK, i * 512, 512, new Object());
+		return idx.has();
+	}
+
+	private List<ObjectId> insertBlobs(int cnt, int size) throws Exception {
+		TestRng rng = new TestRng(JGitTestUtil.getName());
+		List<ObjectId> ids = new ArrayList<>(cnt);
+		try (DfsInserter ins = (DfsInserter) db.newObjectInserter()) {
+			ins.setCompressionLevel(Deflater.NO_COMPRESSION);
+			for (int i = 0; i < cnt; i++) {
+				byte[] data = rng.nextBytes(size);
+				data[0] = (byte) i; // TestRng repeats every 256 bytes.
+				ObjectId id = ins.insert(Constants.OBJ_BLOB, data);
+				ids.add(id);
+			}
+			ins.flush();
+		}
+		return ids;
+	}
+}
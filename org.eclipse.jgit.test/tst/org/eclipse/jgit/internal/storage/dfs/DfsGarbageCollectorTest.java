@@ -4,7 +4,10 @@
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.GC_REST;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.COMMIT_GRAPH;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.MULTI_PACK_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.eclipse.jgit.lib.Constants.OBJ_COMMIT;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
@@ -16,6 +19,7 @@
 import java.util.Collections;
 import java.util.concurrent.TimeUnit;
 
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
 import org.eclipse.jgit.junit.MockSystemReader;
 import org.eclipse.jgit.junit.TestRepository;
@@ -636,6 +640,68 @@ private TestRepository<InMemoryRepository>.CommitBuilder commit() {
 		return git.commit();
 	}
 
+	@Test
+	public void testWriteCommitGraph() throws Exception {
+		RevCommit commit0 = commit().message("0").create();
+		RevCommit commit1 = commit().message("1").parent(commit0).create();
+		git.update("master", commit1);
+
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		gc.setWriteCommitGraph(true);
+		gc.setGarbageTtl(0, TimeUnit.MILLISECONDS);
+		run(gc);
+
+		DfsPackFile pack = odb.getPacks()[0];
+		assertEquals(GC, pack.getPackDescription().getPackSource());
+		assertTrue(pack.getPackDescription().hasFileExt(COMMIT_GRAPH));
+		try (DfsReader reader = (DfsReader) odb.newReader()) {
+			CommitGraph graph = reader.getCommitGraph();
+			assertNotNull(graph);
+			assertEquals(2, graph.getCommitCount());
+			int pos = graph.findGraphPosition(commit1);
+			assertEquals(2, graph.getGeneration(pos));
+		}
+	}
+
+	@Test
+	public void testWriteMultiPackIndex() throws Exception {
+		RevCommit commit0 = commit().message("0").create();
+		RevCommit commit1 = commit().message("1").parent(commit0).create();
+		git.update("master", commit1);
+
+		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
+		gc.setWriteMultiPackIndex(true);
+		gc.setGarbageTtl(0, TimeUnit.MILLISECONDS);
+		run(gc);
+
+		RevCommit commit2 = commit().message("2").parent(commit1).create();
+		git.update("master", commit2);
+
+		DfsPackFile gcPack = null;
+		for (DfsPackFile pack : odb.getPacks()) {
+			if (pack.getPackDescription().getPackSource() == GC)
+				gcPack = pack;
+		}
+		assertNotNull(gcPack);
+		assertTrue(gcPack.getPackDescription().hasFileExt(MULTI_PACK_INDEX));
+		try (DfsReader reader = (DfsReader) odb.newReader()) {
+			DfsMultiPackIndex midx = odb.getPackList()
+					.getMultiPackIndex(reader);
+			assertNotNull(midx);
+			assertEquals(1, midx.index.getPackNames().length);
+			assertTrue(midx.index.findPosition(commit1) >= 0);
+			// Objects inserted after the collection are not covered.
+			assertEquals(-1, midx.index.findPosition(commit2));
+
+			for (RevCommit c : new RevCommit[] { commit0, commit1,
+					commit2 }) {
+				assertTrue(reader.has(c));
+				assertEquals(OBJ_COMMIT, reader.open(c).getType());
+				assertTrue(reader.getObjectSize(c, OBJ_COMMIT) > 0);
+			}
+		}
+	}
+
 	private void gcNoTtl() throws IOException {
 		DfsGarbageCollector gc = new DfsGarbageCollector(repo);
 		gc.setGarbageTtl(0, TimeUnit.MILLISECONDS); // disable TTL
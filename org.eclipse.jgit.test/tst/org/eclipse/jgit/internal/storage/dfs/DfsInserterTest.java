@@ -50,13 +50,18 @@
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import java.util.zip.Deflater;
 
+import org.eclipse.jgit.internal.WorkerPool;
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.junit.JGitTestUtil;
@@ -130,6 +135,83 @@ public void testReadFromInserterLargerObjects() throws IOException {
 		assertTrue(packs.get(0).getFileSize(PackExt.PACK) > 2048);
 	}
 
+	@Test
+	public void testInsertBatch() throws IOException {
+		TestRng rng = new TestRng(JGitTestUtil.getName());
+		List<byte[]> objects = new ArrayList<>();
+		for (int i = 0; i < 300; i++)
+			objects.add(rng.nextBytes(8192));
+		objects.add(objects.get(0));
+
+		List<ObjectId> ids;
+		try (ObjectInserter ins = db.newObjectInserter()) {
+			ins.setHashThreads(4);
+			ids = ins.insert(Constants.OBJ_BLOB, objects);
+			assertEquals(objects.size(), ids.size());
+			assertEquals(ids.get(0), ids.get(ids.size() - 1));
+			ins.flush();
+		}
+
+		try (ObjectInserter.Formatter fmt = new ObjectInserter.Formatter();
+				ObjectReader reader = db.newObjectReader()) {
+			for (int i = 0; i < ids.size(); i++) {
+				byte[] data = objects.get(i);
+				assertEquals(fmt.idFor(Constants.OBJ_BLOB, data), ids.get(i));
+				assertTrue(Arrays.equals(data,
+						reader.open(ids.get(i)).getCachedBytes()));
+			}
+		}
+	}
+
+	@Test
+	public void testInsertBatchWithoutCollisionDetection() throws IOException {
+		TestRng rng = new TestRng(JGitTestUtil.getName());
+		List<byte[]> objects = new ArrayList<>();
+		for (int i = 0; i < 300; i++)
+			objects.add(rng.nextBytes(8192));
+
+		try (ObjectInserter ins = db.newObjectInserter()) {
+			List<ObjectId> expected = new ArrayList<>();
+			for (byte[] data : objects)
+				expected.add(ins.idFor(Constants.OBJ_BLOB, data));
+
+			ins.setHashThreads(4);
+			ins.setDetectCollision(false);
+			assertEquals(expected, ins.insert(Constants.OBJ_BLOB, objects));
+		}
+	}
+
+	@Test
+	public void testInsertBatchFromWorkerThreads() throws Exception {
+		TestRng rng = new TestRng(JGitTestUtil.getName());
+		final List<byte[]> objects = new ArrayList<>();
+		for (int i = 0; i < 300; i++)
+			objects.add(rng.nextBytes(8192));
+
+		final List<ObjectId> expected = new ArrayList<>();
+		try (ObjectInserter.Formatter fmt = new ObjectInserter.Formatter()) {
+			for (byte[] data : objects)
+				expected.add(fmt.idFor(Constants.OBJ_BLOB, data));
+		}
+
+		// Occupy every worker with a batch; hashing must not wait on the pool.
+		List<Future<List<ObjectId>>> batches = new ArrayList<>();
+		for (int i = 0; i < WorkerPool.getThreadCount(); i++) {
+			batches.add(WorkerPool.get().submit(
+					new Callable<List<ObjectId>>() {
+						@Override
+						public List<ObjectId> call() throws IOException {
+							try (ObjectInserter ins = db.newObjectInserter()) {
+								ins.setHashThreads(4);
+								return ins.insert(Constants.OBJ_BLOB, objects);
+							}
+						}
+					}));
+		}
+		for (Future<List<ObjectId>> f : batches)
+			assertEquals(expected, f.get(1, TimeUnit.MINUTES));
+	}
+
 	@Test
 	public void testReadFromFallback() throws IOException {
 		ObjectInserter ins = db.newObjectInserter();
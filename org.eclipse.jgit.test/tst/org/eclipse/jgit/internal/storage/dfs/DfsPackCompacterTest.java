@@ -45,13 +45,28 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.COMPACT;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.INSERT;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.LAYERED_BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.MULTI_PACK_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+import static org.eclipse.jgit.lib.ObjectReader.OBJ_ANY;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
 
 import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
+import org.eclipse.jgit.lib.BitmapObject;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.junit.Before;
 import org.junit.Test;
@@ -131,6 +146,127 @@ public void testEstimateGcPackSizeWithAnExistingGcPack() throws Exception {
 				pack.getPackDescription().getEstimatedPackSize());
 	}
 
+	@Test
+	public void testGeometricAutoAddKeepsLargePack() throws Exception {
+		byte[] data = new byte[64 * 1024];
+		new Random(0).nextBytes(data);
+		RevCommit commit0 = commit().add("large", git.blob(data)).create();
+		RevCommit commit1 = commit().message("1").parent(commit0).create();
+		RevCommit commit2 = commit().message("2").parent(commit1).create();
+		git.update("master", commit2);
+
+		DfsPackFile large = null;
+		for (DfsPackFile pack : odb.getPacks()) {
+			if (large == null || pack.getPackDescription().getFileSize(
+					PACK) > large.getPackDescription().getFileSize(PACK))
+				large = pack;
+		}
+		assertEquals(4, odb.getPacks().length);
+
+		DfsPackCompactor compactor = new DfsPackCompactor(repo);
+		compactor.setGeometricFactor(2).autoAdd();
+		compactor.compact(null);
+		odb.clearCache();
+
+		// The small INSERT packs are compacted, the large one is untouched.
+		assertEquals(2, odb.getPacks().length);
+		boolean largeFound = false;
+		for (DfsPackFile pack : odb.getPacks()) {
+			if (pack.getPackDescription().equals(large.getPackDescription()))
+				largeFound = true;
+			else
+				assertEquals(COMPACT,
+						pack.getPackDescription().getPackSource());
+		}
+		assertTrue(largeFound);
+	}
+
+	@Test
+	public void testCompactionLayersBitmaps() throws Exception {
+		RevCommit commit0 = commit().message("0").create();
+		RevCommit commit1 = commit().message("1").parent(commit0).create();
+		git.update("master", commit1);
+		new DfsGarbageCollector(repo).pack(null);
+		odb.clearCache();
+
+		RevCommit commit2 = commit().message("2").parent(commit1).create();
+		RevCommit commit3 = commit().message("3").parent(commit1).create();
+		git.update("master", commit2);
+		git.update("side", commit3);
+
+		DfsPackCompactor compactor = new DfsPackCompactor(repo);
+		for (DfsPackFile pack : odb.getPacks()) {
+			if (pack.getPackDescription().getPackSource() == INSERT)
+				compactor.add(pack);
+		}
+		compactor.compact(null);
+		odb.clearCache();
+
+		assertEquals(1, compactor.getNewPacks().size());
+		DfsPackDescription layer = compactor.getNewPacks().get(0);
+		assertTrue(layer.hasFileExt(LAYERED_BITMAP_INDEX));
+		assertFalse(layer.hasFileExt(BITMAP_INDEX));
+		try (DfsReader ctx = (DfsReader) odb.newReader()) {
+			BitmapIndex index = ctx.getBitmapIndex();
+			for (RevCommit c : new RevCommit[] { commit1, commit2, commit3 }) {
+				Bitmap bitmap = index.getBitmap(c);
+				assertNotNull(bitmap);
+				int count = 0;
+				for (BitmapObject o : bitmap) {
+					assertTrue(ctx.has(o.getObjectId()));
+					count++;
+				}
+				// The commits and their shared empty tree.
+				assertEquals(c == commit1 ? 3 : 4, count);
+			}
+		}
+	}
+
+	@Test
+	public void testCompactionWritesMultiPackIndex() throws Exception {
+		byte[] data = new byte[64 * 1024];
+		new Random(0).nextBytes(data);
+		RevBlob large = git.blob(data);
+		RevCommit commit0 = commit().add("large", large).create();
+		RevCommit commit1 = commit().message("1").parent(commit0).create();
+		RevCommit commit2 = commit().message("2").parent(commit1).create();
+		git.update("master", commit2);
+		repo.getConfig().setBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				null, ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, true);
+
+		DfsPackCompactor compactor = new DfsPackCompactor(repo);
+		compactor.setGeometricFactor(2).autoAdd();
+		compactor.compact(null);
+		odb.clearCache();
+
+		// The index covers the new pack and the large pack left in place.
+		assertEquals(1, compactor.getNewPacks().size());
+		assertTrue(
+				compactor.getNewPacks().get(0).hasFileExt(MULTI_PACK_INDEX));
+		try (DfsReader ctx = (DfsReader) odb.newReader()) {
+			DfsMultiPackIndex midx = odb.getPackList().getMultiPackIndex(ctx);
+			assertNotNull(midx);
+			assertEquals(2, midx.index.getPackNames().length);
+			for (ObjectId id : new ObjectId[] { large, commit0, commit1,
+					commit2 }) {
+				assertTrue(midx.index.findPosition(id) >= 0);
+				assertTrue(ctx.has(id));
+				assertTrue(ctx.getObjectSize(id, OBJ_ANY) > 0);
+			}
+			assertEquals(data.length, ctx.open(large).getSize());
+
+			// Batch lookups resolve through the index as well.
+			AsyncObjectLoaderQueue<ObjectId> q = ctx.open(
+					Arrays.<ObjectId> asList(large, commit1), true);
+			int n = 0;
+			while (q.next()) {
+				q.open();
+				n++;
+			}
+			assertEquals(2, n);
+		}
+	}
+
 	private TestRepository<InMemoryRepository>.CommitBuilder commit() {
 		return git.commit();
 	}
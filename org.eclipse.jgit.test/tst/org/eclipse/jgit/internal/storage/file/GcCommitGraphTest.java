@@ -0,0 +1,273 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.revwalk.filter.RevFilter;
+import org.junit.Test;
+
+public class GcCommitGraphTest extends GcTestCase {
+	@Test
+	public void testNotWrittenByDefault() throws Exception {
+		tr.branch("master").commit().create();
+		gc.gc();
+		assertFalse(repo.getObjectDatabase().getCommitGraphFile().exists());
+	}
+
+	@Test
+	public void testNotReadWhenDisabled() throws Exception {
+		RevCommit tip = commitChain(3);
+		tr.update("refs/heads/master", tip);
+		enableCommitGraph(false, true);
+		gc.gc();
+
+		assertTrue(repo.getObjectDatabase().getCommitGraphFile().exists());
+		try (ObjectReader reader = repo.newObjectReader()) {
+			assertNull(reader.getCommitGraph());
+		}
+	}
+
+	@Test
+	public void testGraphCoversAllRefs() throws Exception {
+		RevCommit a = commitChain(5);
+		RevCommit b = tr.commit().parent(a).create();
+		tr.update("refs/heads/master", a);
+		tr.update("refs/heads/side", b);
+		tr.lightweightTag("t", tr.commit().create());
+		enableCommitGraph(true, true);
+		gc.gc();
+
+		try (ObjectReader reader = repo.newObjectReader()) {
+			CommitGraph graph = reader.getCommitGraph();
+			assertNotNull(graph);
+			assertEquals(7, graph.getCommitCount());
+			assertTrue(graph.findGraphPosition(b) >= 0);
+		}
+	}
+
+	@Test
+	public void testWalkUsesGraph() throws Exception {
+		RevCommit a = tr.commit().add("a", "a").create();
+		RevCommit b = tr.commit().parent(a).add("b", "b").create();
+		RevCommit c = tr.commit().parent(a).add("c", "c").create();
+		RevCommit m = tr.commit().parent(b).parent(c).create();
+		tr.update("refs/heads/master", m);
+		enableCommitGraph(true, true);
+		gc.gc();
+
+		// A commit newer than the graph must still be parsed.
+		RevCommit n = tr.commit().parent(m).create();
+
+		try (RevWalk rw = new RevWalk(repo)) {
+			rw.setRetainBody(false);
+			RevCommit gm = rw.parseCommit(m);
+			assertArrayEquals(m.getParents(), gm.getParents());
+			assertEquals(m.getTree(), gm.getTree());
+			assertEquals(m.getCommitTime(), gm.getCommitTime());
+			assertNull(gm.getRawBuffer());
+
+			rw.markStart(rw.parseCommit(n));
+			int cnt = 0;
+			while (rw.next() != null)
+				cnt++;
+			assertEquals(5, cnt);
+		}
+	}
+
+	@Test
+	public void testIsMergedIntoWithGraph() throws Exception {
+		RevCommit a = tr.commit().create();
+		RevCommit b = tr.commit().parent(a).create();
+		RevCommit c = tr.commit().parent(a).create();
+		RevCommit m = tr.commit().parent(b).parent(c).create();
+		RevCommit d = tr.commit().parent(c).create();
+		tr.update("refs/heads/master", m);
+		tr.update("refs/heads/side", d);
+		enableCommitGraph(true, true);
+		gc.gc();
+
+		RevCommit n = tr.commit().parent(m).create();
+		RevCommit o = tr.commit().parent(n).create();
+		try (RevWalk rw = new RevWalk(repo)) {
+			assertTrue(rw.isMergedInto(rw.parseCommit(a), rw.parseCommit(m)));
+			assertTrue(rw.isMergedInto(rw.parseCommit(c), rw.parseCommit(d)));
+			assertTrue(rw.isMergedInto(rw.parseCommit(m), rw.parseCommit(m)));
+			assertTrue(rw.isMergedInto(rw.parseCommit(c), rw.parseCommit(o)));
+			assertTrue(rw.isMergedInto(rw.parseCommit(n), rw.parseCommit(o)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(d), rw.parseCommit(m)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(b), rw.parseCommit(d)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(m), rw.parseCommit(a)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(o), rw.parseCommit(n)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(n), rw.parseCommit(d)));
+		}
+	}
+
+	@Test
+	public void testIsMergedIntoCommitsNewerThanGraph() throws Exception {
+		RevCommit a = tr.commit().create();
+		RevCommit b = tr.commit().parent(a).create();
+		tr.update("refs/heads/master", b);
+		enableCommitGraph(true, true);
+		gc.gc();
+
+		RevCommit c = tr.commit().parent(b).create();
+		RevCommit d = tr.commit().parent(c).create();
+		RevCommit e = tr.commit().parent(d).create();
+		RevCommit f = tr.commit().parent(a).create();
+		try (RevWalk rw = new RevWalk(repo)) {
+			assertTrue(rw.isMergedInto(rw.parseCommit(c), rw.parseCommit(e)));
+			assertTrue(rw.isMergedInto(rw.parseCommit(b), rw.parseCommit(e)));
+			assertTrue(rw.isMergedInto(rw.parseCommit(a), rw.parseCommit(e)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(e), rw.parseCommit(c)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(c), rw.parseCommit(f)));
+			assertFalse(rw.isMergedInto(rw.parseCommit(f), rw.parseCommit(e)));
+		}
+	}
+
+	@Test
+	public void testMergeBaseWithStaleGraph() throws Exception {
+		RevCommit a = tr.commit().create();
+		RevCommit b = tr.commit().parent(a).create();
+		RevCommit c = tr.commit().parent(a).create();
+		RevCommit d = tr.commit().parent(b).parent(c).create();
+		RevCommit e = tr.commit().parent(c).create();
+		tr.update("refs/heads/master", d);
+		tr.update("refs/heads/side", e);
+		enableCommitGraph(true, true);
+		gc.gc();
+
+		// Commits newer than the graph, some with a skewed commit time.
+		tr.tick(-1000);
+		RevCommit f = tr.commit().parent(d).create();
+		tr.tick(2000);
+		RevCommit g = tr.commit().parent(e).parent(b).create();
+		RevCommit h = tr.commit().parent(f).create();
+		RevCommit i = tr.commit().parent(g).parent(h).create();
+		RevCommit j = tr.commit().parent(c).create();
+
+		RevCommit[] all = { a, b, c, d, e, f, g, h, i, j };
+		List<List<RevCommit>> expected = new ArrayList<>();
+		enableCommitGraph(false, true);
+		for (RevCommit x : all)
+			for (RevCommit y : all)
+				expected.add(mergeBases(x, y));
+
+		enableCommitGraph(true, true);
+		int n = 0;
+		for (RevCommit x : all)
+			for (RevCommit y : all)
+				assertEquals(x.name() + " " + y.name(), expected.get(n++),
+						mergeBases(x, y));
+		assertEquals(Arrays.asList(b), mergeBases(i, b));
+		assertEquals(Arrays.asList(c), mergeBases(h, j));
+	}
+
+	@Test
+	public void testMergeBaseCutsOffWithGraph() throws Exception {
+		RevCommit base = commitChain(10);
+		RevCommit deep = tr.commit().parent(base).create();
+		RevCommit side = deep;
+		for (int i = 0; i < 10; i++)
+			side = tr.commit().parent(side).create();
+		tr.update("refs/heads/master", base);
+		tr.update("refs/heads/side", side);
+		enableCommitGraph(true, true);
+		gc.gc();
+
+		RevCommit b = tr.commit().parent(base).create();
+		RevCommit a = tr.commit().parent(b).parent(side).create();
+		try (RevWalk rw = new RevWalk(repo)) {
+			rw.setRevFilter(RevFilter.MERGE_BASE);
+			rw.markStart(rw.parseCommit(a));
+			rw.markStart(rw.parseCommit(b));
+			assertEquals(b, rw.next());
+			assertNull(rw.next());
+
+			// The side branch is not walked past the first merge base.
+			assertNull(rw.lookupCommit(deep).getParents());
+		}
+	}
+
+	private List<RevCommit> mergeBases(RevCommit x, RevCommit y)
+			throws Exception {
+		try (RevWalk rw = new RevWalk(repo)) {
+			rw.setRevFilter(RevFilter.MERGE_BASE);
+			rw.markStart(rw.parseCommit(x));
+			rw.markStart(rw.parseCommit(y));
+			List<RevCommit> bases = new ArrayList<>();
+			RevCommit mb;
+			while ((mb = rw.next()) != null)
+				bases.add(mb);
+			Collections.sort(bases);
+			return bases;
+		}
+	}
+
+	private void enableCommitGraph(boolean read, boolean write)
+			throws Exception {
+		StoredConfig config = repo.getConfig();
+		config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_COMMIT_GRAPH, read);
+		config.setBoolean(ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, write);
+		config.save();
+	}
+}
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.lib.BitmapIndex.Bitmap;
+import org.eclipse.jgit.lib.BitmapObject;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.transport.PackParser;
+import org.junit.Test;
+
+public class GcGeometricRepackTest extends GcTestCase {
+	private final Random random = new Random(42);
+
+	@Test
+	public void testBasePackIsKept() throws Exception {
+		RevCommit base = commitWithBlob(null, 64 * 1024);
+		gc.gc();
+		File basePack = onlyPack();
+
+		enableGeometricRepack(2);
+		RevCommit tip = commitWithBlob(base, 100);
+		gc.gc();
+
+		stats = gc.getStatistics();
+		assertEquals(0, stats.numberOfLooseObjects);
+		assertEquals(2, stats.numberOfPackFiles);
+		// One bitmap of the base pack, one of the layer on top of it.
+		assertEquals(2, stats.numberOfBitmaps);
+		assertTrue(basePack.exists());
+		assertTrue(repo.hasObject(tip));
+		assertTrue(repo.hasObject(base));
+	}
+
+	@Test
+	public void testSmallPacksAreRolledUp() throws Exception {
+		RevCommit base = commitWithBlob(null, 64 * 1024);
+		gc.gc();
+		File basePack = onlyPack();
+
+		enableGeometricRepack(2);
+		RevCommit a = commitWithBlob(base, 100);
+		gc.gc();
+		assertEquals(2, gc.getStatistics().numberOfPackFiles);
+
+		RevCommit b = commitWithBlob(a, 100);
+		gc.gc();
+
+		stats = gc.getStatistics();
+		assertEquals(0, stats.numberOfLooseObjects);
+		assertEquals(2, stats.numberOfPackFiles);
+		assertTrue(basePack.exists());
+		for (RevCommit c : new RevCommit[] { base, a, b })
+			assertTrue(repo.hasObject(c));
+	}
+
+	@Test
+	public void testFreshPacksAreNotRolledUp() throws Exception {
+		RevCommit base = commitWithBlob(null, 64 * 1024);
+		gc.gc();
+		enableGeometricRepack(2);
+		RevCommit a = commitWithBlob(base, 100);
+		gc.gc();
+		assertEquals(2, repo.getObjectDatabase().getPacks().size());
+		long old = System.currentTimeMillis() - 2 * 60 * 60 * 1000;
+		Set<File> oldPacks = new HashSet<>();
+		for (PackFile p : repo.getObjectDatabase().getPacks()) {
+			assertTrue(p.getPackFile().setLastModified(old));
+			oldPacks.add(p.getPackFile());
+		}
+
+		// Packs received just now are younger than gc.prunePackExpire.
+		RevCommit tip = a;
+		for (int i = 0; i < 3; i++) {
+			RevCommit c = commitWithBlob(tip, 100);
+			receivePack(c, tip);
+			tip = c;
+		}
+		Set<File> fresh = new HashSet<>();
+		for (PackFile p : repo.getObjectDatabase().getPacks())
+			fresh.add(p.getPackFile());
+		fresh.removeAll(oldPacks);
+		assertEquals(3, fresh.size());
+		RevCommit loose = commitWithBlob(tip, 4 * 1024);
+
+		gc.setPackExpireAgeMillis(60 * 60 * 1000);
+		gc.gc();
+
+		stats = gc.getStatistics();
+		assertEquals(0, stats.numberOfLooseObjects);
+		assertEquals(5, stats.numberOfPackFiles);
+		for (File f : fresh)
+			assertTrue(f.exists());
+		int oldLeft = 0;
+		for (File f : oldPacks)
+			if (f.exists())
+				oldLeft++;
+		assertEquals(1, oldLeft);
+		for (RevCommit c : new RevCommit[] { base, a, tip, loose })
+			assertTrue(repo.hasObject(c));
+	}
+
+	@Test
+	public void testBasePackIsRolledUpWhenOutgrown() throws Exception {
+		RevCommit base = commitWithBlob(null, 100);
+		gc.gc();
+		File basePack = onlyPack();
+
+		enableGeometricRepack(2);
+		RevCommit tip = commitWithBlob(base, 64 * 1024);
+		gc.gc();
+
+		stats = gc.getStatistics();
+		assertEquals(1, stats.numberOfPackFiles);
+		assertEquals(2, stats.numberOfBitmaps);
+		assertFalse(basePack.exists());
+		assertTrue(repo.hasObject(tip));
+		assertTrue(repo.hasObject(base));
+	}
+
+	@Test
+	public void testHeadsPackGetsLayeredBitmap() throws Exception {
+		RevCommit base = commitWithBlob(null, 64 * 1024);
+		gc.gc();
+		File basePack = onlyPack();
+
+		enableGeometricRepack(2);
+		RevCommit tip = commitWithBlob(base, 100);
+		gc.gc();
+
+		for (PackFile p : repo.getObjectDatabase().getPacks()) {
+			boolean isBase = p.getPackFile().equals(basePack);
+			assertEquals(Boolean.valueOf(!isBase),
+					Boolean.valueOf(p.getBitmapIndex().isLayer()));
+			// Layers never take the .bitmap file other readers expect to be
+			// complete.
+			assertEquals(Boolean.valueOf(isBase),
+					Boolean.valueOf(extFile(p, ".bitmap").exists()));
+			assertEquals(Boolean.valueOf(!isBase),
+					Boolean.valueOf(extFile(p, ".lbitmap").exists()));
+		}
+		assertBitmapMatchesWalk(tip);
+		assertBitmapMatchesWalk(base);
+	}
+
+	@Test
+	public void testLayerOnLayer() throws Exception {
+		RevCommit base = commitWithBlob(null, 64 * 1024);
+		gc.gc();
+
+		enableGeometricRepack(2);
+		RevCommit a = commitWithBlob(base, 8 * 1024);
+		gc.gc();
+		RevCommit b = commitWithBlob(a, 100);
+		gc.gc();
+
+		assertEquals(3, repo.getObjectDatabase().getPacks().size());
+		int layers = 0;
+		for (PackFile p : repo.getObjectDatabase().getPacks()) {
+			File bitmap = extFile(p, ".bitmap");
+			if (!bitmap.exists())
+				bitmap = extFile(p, ".lbitmap");
+			PackIndex idx = p.getIndex();
+			PackBitmapIndex read = PackBitmapIndex.open(bitmap, idx,
+					new PackReverseIndex(idx));
+			PackBitmapIndex mapped = PackBitmapIndex.mmap(bitmap, idx,
+					new PackReverseIndex(idx));
+			assertEquals(read.getObjectCount(), mapped.getObjectCount());
+			assertEquals(Boolean.valueOf(read.isLayer()),
+					Boolean.valueOf(mapped.isLayer()));
+			if (read.isLayer())
+				layers++;
+		}
+		assertEquals(2, layers);
+		for (RevCommit c : new RevCommit[] { base, a, b })
+			assertBitmapMatchesWalk(c);
+	}
+
+	private void assertBitmapMatchesWalk(RevCommit tip) throws Exception {
+		Set<ObjectId> reachable = new HashSet<>();
+		try (ObjectWalk ow = new ObjectWalk(repo)) {
+			ow.markStart(ow.parseCommit(tip));
+			RevObject o;
+			while ((o = ow.next()) != null)
+				reachable.add(o.copy());
+			while ((o = ow.nextObject()) != null)
+				reachable.add(o.copy());
+		}
+
+		Set<ObjectId> bitmapped = new HashSet<>();
+		try (ObjectReader reader = repo.newObjectReader()) {
+			Bitmap bitmap = reader.getBitmapIndex().getBitmap(tip);
+			assertNotNull(bitmap);
+			for (BitmapObject o : bitmap)
+				bitmapped.add(o.getObjectId());
+		}
+		assertEquals(reachable, bitmapped);
+	}
+
+	private static File extFile(PackFile p, String ext) {
+		return new File(
+				p.getPackFile().getPath().replaceAll("\\.pack$", ext));
+	}
+
+	private RevCommit commitWithBlob(RevCommit parent, int size)
+			throws Exception {
+		byte[] data = new byte[size];
+		random.nextBytes(data);
+		RevBlob blob = tr.blob(data);
+		RevCommit c = parent != null
+				? tr.commit().parent(parent).add("f", blob).create()
+				: tr.commit().add("f", blob).create();
+		tr.update("refs/heads/master", c);
+		return c;
+	}
+
+	private void receivePack(RevCommit want, RevCommit have)
+			throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (PackWriter pw = new PackWriter(repo)) {
+			pw.preparePack(NullProgressMonitor.INSTANCE,
+					Collections.<ObjectId> singleton(want),
+					Collections.<ObjectId> singleton(have));
+			pw.writePack(NullProgressMonitor.INSTANCE,
+					NullProgressMonitor.INSTANCE, buf);
+		}
+		try (ObjectInserter ins = repo.newObjectInserter()) {
+			PackParser p = ins.newPackParser(
+					new ByteArrayInputStream(buf.toByteArray()));
+			p.parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+		}
+	}
+
+	private File onlyPack() throws Exception {
+		assertEquals(1, repo.getObjectDatabase().getPacks().size());
+		return repo.getObjectDatabase().getPacks().iterator().next()
+				.getPackFile();
+	}
+
+	private void enableGeometricRepack(int factor) throws Exception {
+		StoredConfig config = repo.getConfig();
+		config.setInt(ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_GEOMETRIC_FACTOR, factor);
+		config.save();
+		gc.setPackExpireAgeMillis(0);
+	}
+}
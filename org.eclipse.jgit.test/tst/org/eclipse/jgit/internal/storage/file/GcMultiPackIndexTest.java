@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Collections;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndex;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndexLoader;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.junit.TestRepository.CommitBuilder;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.PackParser;
+import org.junit.Test;
+
+public class GcMultiPackIndexTest extends GcTestCase {
+	@Test
+	public void testNotWrittenByDefault() throws Exception {
+		tr.branch("master").commit().create();
+		gc.gc();
+		assertFalse(midxFile().exists());
+	}
+
+	@Test
+	public void testGcWritesIndex() throws Exception {
+		RevBlob a = tr.blob("a");
+		RevCommit tip = tr.commit().add("a", a).create();
+		tr.update("refs/heads/master", tip);
+		enableMultiPackIndex(true);
+		gc.gc();
+
+		MultiPackIndex midx = MultiPackIndexLoader.open(midxFile());
+		assertEquals(1, midx.getPackNames().length);
+		assertTrue(midx.findPosition(a) >= 0);
+		assertTrue(midx.findPosition(tip) >= 0);
+		assertReadable(a, tip);
+	}
+
+	@Test
+	public void testReceivedPackIsAppended() throws Exception {
+		CommitBuilder cb = tr.commit();
+		for (int i = 0; i < 10; i++)
+			cb.add("f" + i, "content " + i);
+		RevCommit first = cb.create();
+		tr.update("refs/heads/master", first);
+		enableMultiPackIndex(true);
+		gc.gc();
+		long midxModified = midxFile().lastModified();
+
+		// A small pack goes into the incremental index only.
+		RevCommit received = receivePack("b");
+		assertTrue(incrementalMidxFile().exists());
+		assertEquals(midxModified, midxFile().lastModified());
+		assertEquals(0, repo.getObjectDatabase().getPacksNotInMultiPackIndex());
+		MultiPackIndex inc = MultiPackIndexLoader.open(incrementalMidxFile());
+		assertEquals(1, inc.getPackNames().length);
+		assertTrue(inc.findPosition(received) >= 0);
+		assertEquals(-1, inc.findPosition(first));
+		assertReadable(first, received);
+
+		repo.getObjectDatabase().updateMultiPackIndex(
+				NullProgressMonitor.INSTANCE);
+		assertFalse(incrementalMidxFile().exists());
+		assertEquals(0, repo.getObjectDatabase().getPacksNotInMultiPackIndex());
+		MultiPackIndex midx = MultiPackIndexLoader.open(midxFile());
+		assertEquals(2, midx.getPackNames().length);
+		assertTrue(midx.findPosition(first) >= 0);
+		assertTrue(midx.findPosition(received) >= 0);
+		assertReadable(first, received);
+	}
+
+	@Test
+	public void testLargeReceivedPackIsMerged() throws Exception {
+		RevCommit first = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", first);
+		enableMultiPackIndex(true);
+		gc.gc();
+
+		// The pack is as large as the base index, so both are merged.
+		RevCommit received = receivePack("b");
+		assertFalse(incrementalMidxFile().exists());
+		assertEquals(0, repo.getObjectDatabase().getPacksNotInMultiPackIndex());
+		MultiPackIndex midx = MultiPackIndexLoader.open(midxFile());
+		assertEquals(2, midx.getPackNames().length);
+		assertTrue(midx.findPosition(received) >= 0);
+		assertReadable(first, received);
+	}
+
+	@Test
+	public void testUncoveredPackIsSearched() throws Exception {
+		RevCommit first = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", first);
+		enableMultiPackIndex(true);
+		gc.gc();
+
+		enableMultiPackIndex(false);
+		RevCommit received = receivePack("b");
+		enableMultiPackIndex(true);
+
+		assertEquals(1, repo.getObjectDatabase().getPacksNotInMultiPackIndex());
+		MultiPackIndex midx = MultiPackIndexLoader.open(midxFile());
+		assertEquals(-1, midx.findPosition(received));
+		assertReadable(first, received);
+	}
+
+	@Test
+	public void testRemovedPackIsIgnored() throws Exception {
+		RevCommit first = tr.commit().add("a", "a").create();
+		tr.update("refs/heads/master", first);
+		enableMultiPackIndex(true);
+		gc.gc();
+
+		// Repack without updating the index; it now names a deleted pack.
+		enableMultiPackIndex(false);
+		RevCommit second = tr.commit().parent(first).add("b", "b").create();
+		tr.update("refs/heads/master", second);
+		gc.gc();
+		enableMultiPackIndex(true);
+
+		assertReadable(first, second);
+	}
+
+	private RevCommit receivePack(String content) throws Exception {
+		TestRepository<InMemoryRepository> src = new TestRepository<>(
+				new InMemoryRepository(new DfsRepositoryDescription("src")));
+		RevCommit tip = src.commit().add(content, content).create();
+
+		ByteArrayOutputStream pack = new ByteArrayOutputStream();
+		try (PackWriter pw = new PackWriter(src.getRepository())) {
+			pw.preparePack(NullProgressMonitor.INSTANCE,
+					Collections.singleton(tip),
+					Collections.<ObjectId> emptySet());
+			pw.writePack(NullProgressMonitor.INSTANCE,
+					NullProgressMonitor.INSTANCE, pack);
+		}
+		try (ObjectInserter ins = repo.newObjectInserter()) {
+			PackParser p = ins.newPackParser(
+					new ByteArrayInputStream(pack.toByteArray()));
+			p.parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+		}
+		return tip;
+	}
+
+	private void assertReadable(ObjectId... ids) throws Exception {
+		try (ObjectReader reader = repo.newObjectReader()) {
+			for (ObjectId id : ids) {
+				assertTrue(reader.has(id));
+				reader.open(id).getBytes();
+				assertTrue(reader.getObjectSize(id, ObjectReader.OBJ_ANY) > 0);
+			}
+		}
+	}
+
+	private File midxFile() {
+		return repo.getObjectDatabase().getMultiPackIndexFile();
+	}
+
+	private File incrementalMidxFile() {
+		return new File(midxFile().getParentFile(),
+				"multi-pack-index-incremental");
+	}
+
+	private void enableMultiPackIndex(boolean enable) throws Exception {
+		StoredConfig config = repo.getConfig();
+		config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, enable);
+		config.save();
+	}
+}
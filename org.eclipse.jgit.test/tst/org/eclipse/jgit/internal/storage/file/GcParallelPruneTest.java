@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.errors.CancelledException;
+import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Before;
+import org.junit.Test;
+
+public class GcParallelPruneTest extends GcTestCase {
+	@Before
+	public void enableParallelPrune() throws Exception {
+		StoredConfig config = repo.getConfig();
+		config.setInt(ConfigConstants.CONFIG_GC_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PRUNE_THREADS, 4);
+		config.save();
+	}
+
+	@Test
+	public void testPrunePacked() throws Exception {
+		BranchBuilder bb = tr.branch("refs/heads/master");
+		for (int i = 0; i < 20; i++)
+			bb.commit().add("f" + i, "content " + i).create();
+		assertEquals(60, gc.getStatistics().numberOfLooseObjects);
+
+		gc.repack();
+		RevBlob loose = tr.blob("not packed");
+		gc.prunePacked();
+
+		stats = gc.getStatistics();
+		assertEquals(1, stats.numberOfLooseObjects);
+		assertEquals(60, stats.numberOfPackedObjects);
+		assertTrue(repo.hasObject(loose));
+	}
+
+	@Test
+	public void testPruneUnreferenced() throws Exception {
+		List<RevBlob> unreferenced = new ArrayList<>();
+		for (int i = 0; i < 20; i++)
+			unreferenced.add(tr.blob("unreferenced " + i));
+		RevCommit tip = tr.branch("refs/heads/master").commit()
+				.add("a", "a").create();
+		RevBlob kept = tr.blob("kept");
+
+		gc.setExpireAgeMillis(0);
+		fsTick();
+		gc.prune(Collections.<ObjectId> singleton(kept));
+
+		for (RevBlob b : unreferenced)
+			assertFalse(repo.hasObject(b));
+		assertTrue(repo.hasObject(tip));
+		assertTrue(repo.hasObject(kept));
+	}
+
+	@Test
+	public void testCancelled() throws Exception {
+		tr.branch("refs/heads/master").commit().add("a", "a").create();
+		gc.setProgressMonitor(new ProgressMonitor() {
+			@Override
+			public void start(int totalTasks) {
+				// not reported
+			}
+
+			@Override
+			public void beginTask(String title, int totalWork) {
+				// not reported
+			}
+
+			@Override
+			public void update(int completed) {
+				// not reported
+			}
+
+			@Override
+			public void endTask() {
+				// not reported
+			}
+
+			@Override
+			public boolean isCancelled() {
+				return true;
+			}
+		});
+		try {
+			gc.prunePacked();
+			fail("prunePacked was not cancelled");
+		} catch (CancelledException e) {
+			// expected
+		}
+		assertEquals(3, gc.getStatistics().numberOfLooseObjects);
+	}
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.internal.storage.pack.PackExt;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdOwnerMap;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.junit.Test;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+public class MappedPackBitmapIndexTest extends GcTestCase {
+	@Test
+	public void testMappedBitmapsMatchHeapBitmaps() throws Exception {
+		RevCommit tip = commitChain(150);
+		tr.branch("refs/heads/master").update(tip);
+		gc.gc();
+
+		PackFile pack = repo.getObjectDatabase().getPacks().iterator().next();
+		File bitmapFile = new File(pack.getPackFile().getPath()
+				.replaceAll("\\.pack$", "." + PackExt.BITMAP_INDEX.getExtension()));
+		PackIndex idx = PackIndex.mmap(new File(pack.getPackFile().getPath()
+				.replaceAll("\\.pack$", "." + PackExt.INDEX.getExtension())));
+		PackReverseIndex rev = new PackReverseIndex(idx);
+
+		PackBitmapIndexV1 heap = (PackBitmapIndexV1) PackBitmapIndex
+				.open(bitmapFile, idx, rev);
+		PackBitmapIndexV1 mapped = (PackBitmapIndexV1) PackBitmapIndex
+				.mmap(bitmapFile, idx, rev);
+
+		assertTrue(heap.getBitmapCount() > 0);
+		assertEquals(heap.getBitmapCount(), mapped.getBitmapCount());
+		EWAHCompressedBitmap all = new EWAHCompressedBitmap();
+		for (int i = 0; i < idx.getObjectCount(); i++)
+			all.set(i);
+		for (int type = Constants.OBJ_COMMIT; type <= Constants.OBJ_TAG; type++)
+			assertEquals(heap.ofObjectType(all, type),
+					mapped.ofObjectType(all, type));
+
+		ObjectIdOwnerMap<BasePackBitmapIndex.StoredBitmap> expect = heap
+				.getBitmaps();
+		for (BasePackBitmapIndex.StoredBitmap sb : expect) {
+			ObjectId id = sb.toObjectId();
+			EWAHCompressedBitmap b = mapped.getBitmap(id);
+			assertNotNull(b);
+			assertEquals(heap.getBitmap(id), b);
+		}
+		assertEquals(heap.getBitmap(tip), mapped.getBitmap(tip));
+	}
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+import org.junit.Test;
+
+public class MappedPackIndexV2Test extends PackIndexV2Test {
+	@Override
+	public void setUp() throws Exception {
+		super.setUp();
+		smallIdx = PackIndex.mmap(getFileForPack34be9032());
+		denseIdx = PackIndex.mmap(getFileForPackdf2982f28());
+	}
+
+	@Test
+	public void testMapped() {
+		assertTrue(smallIdx instanceof MappedPackIndexV2);
+		assertTrue(denseIdx instanceof MappedPackIndexV2);
+	}
+
+	@Test
+	public void testMatchesHeapIndex() throws Exception {
+		PackIndex heap = PackIndex.open(getFileForPackdf2982f28());
+		assertEquals(heap.getObjectCount(), denseIdx.getObjectCount());
+		assertEquals(heap.getOffset64Count(), denseIdx.getOffset64Count());
+
+		Iterator<MutableEntry> expect = heap.iterator();
+		Iterator<MutableEntry> actual = denseIdx.iterator();
+		long nth = 0;
+		while (expect.hasNext()) {
+			assertTrue(actual.hasNext());
+			MutableEntry e = expect.next();
+			MutableEntry a = actual.next();
+			ObjectId id = e.toObjectId();
+			assertEquals(id, a.toObjectId());
+			assertEquals(e.getOffset(), a.getOffset());
+			assertEquals(id, denseIdx.getObjectId(nth));
+			assertEquals(e.getOffset(), denseIdx.getOffset(nth));
+			assertEquals(e.getOffset(), denseIdx.findOffset(id));
+			assertEquals(heap.findCRC32(id), denseIdx.findCRC32(id));
+			nth++;
+		}
+		assertFalse(actual.hasNext());
+		assertEquals(-1, denseIdx.findOffset(ObjectId.zeroId()));
+	}
+
+	@Test
+	public void testResolve() throws Exception {
+		PackIndex heap = PackIndex.open(getFileForPackdf2982f28());
+		for (String prefix : new String[] { "0", "4", "a", "fe" }) {
+			AbbreviatedObjectId id = AbbreviatedObjectId.fromString(prefix);
+			Set<ObjectId> expect = new HashSet<>();
+			Set<ObjectId> actual = new HashSet<>();
+			heap.resolve(expect, id, 100);
+			denseIdx.resolve(actual, id, 100);
+			assertEquals(expect, actual);
+		}
+	}
+}
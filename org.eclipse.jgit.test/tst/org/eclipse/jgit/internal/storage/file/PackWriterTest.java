@@ -71,6 +71,7 @@
 import org.eclipse.jgit.junit.JGitTestUtil;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
+import org.eclipse.jgit.junit.TestRepository.CommitBuilder;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdSet;
@@ -485,6 +486,32 @@ public void testDeltaStatistics() throws Exception {
 		}
 	}
 
+	@Test
+	public void testParallelRepresentationSelection() throws Exception {
+		FileRepository repo = createBareRepository();
+		TestRepository<FileRepository> testRepo = new TestRepository<>(repo);
+		BranchBuilder bb = testRepo.branch("refs/heads/master");
+		CommitBuilder cb = bb.commit();
+		int blobs = 2 * 4096;
+		for (int i = 0; i < blobs; i++) {
+			cb.add("f" + i, testRepo.blob("blob " + i));
+		}
+		RevCommit c = cb.create();
+		testRepo.getRevWalk().parseHeaders(c);
+		writePack(repo, wants(c), EMPTY_ID_SET);
+
+		PackConfig pc = new PackConfig(repo);
+		pc.setThreads(4);
+		try (PackWriter pw = new PackWriter(pc, repo.newObjectReader())) {
+			pw.preparePack(NullProgressMonitor.INSTANCE, wants(c), NONE);
+			pw.writePack(NullProgressMonitor.INSTANCE,
+					NullProgressMonitor.INSTANCE, new ByteArrayOutputStream());
+			PackStatistics stats = pw.getStatistics();
+			assertEquals(blobs + 2, stats.getTotalObjects());
+			assertEquals(stats.getTotalObjects(), stats.getReusedObjects());
+		}
+	}
+
 	// Generate consistent junk data for building files that delta well
 	private String genDeltableData(int length) {
 		assertTrue("Generated data must have a length > 0", length > 0);
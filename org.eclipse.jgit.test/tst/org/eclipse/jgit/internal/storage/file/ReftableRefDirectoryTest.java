@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ConfigConstants;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.ReflogEntry;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.util.FS;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ReftableRefDirectoryTest extends LocalDiskRepositoryTestCase {
+	private FileRepository diskRepo;
+
+	private RefDirectory refdir;
+
+	private RevCommit A;
+
+	private RevCommit B;
+
+	private RevTag v1_0;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+
+		FileRepository r = createBareRepository();
+		TestRepository<FileRepository> repo = new TestRepository<>(r);
+		A = repo.commit().create();
+		B = repo.commit(repo.getRevWalk().parseCommit(A));
+		v1_0 = repo.tag("v1_0", B);
+		repo.getRevWalk().parseBody(v1_0);
+
+		StoredConfig cfg = r.getConfig();
+		cfg.setString(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PACKED_REFS_FORMAT,
+				Constants.REFTABLE);
+		cfg.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_LOGALLREFUPDATES, true);
+		cfg.save();
+
+		diskRepo = new FileRepository(r.getDirectory());
+		addRepoToClose(diskRepo);
+		refdir = (RefDirectory) diskRepo.getRefDatabase();
+	}
+
+	@Test
+	public void testPackMovesRefsIntoReftable() throws IOException {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/next", B);
+		writeLooseRef("refs/tags/v1.0", v1_0);
+
+		refdir.pack(Arrays.asList("refs/heads/master", "refs/heads/next",
+				"refs/tags/v1.0"));
+
+		assertTrue(stackList().isFile());
+		assertFalse(looseFile("refs/heads/master").exists());
+		assertFalse(new File(diskRepo.getDirectory(), "packed-refs").exists());
+
+		Ref master = refdir.exactRef("refs/heads/master");
+		assertEquals(PACKED, master.getStorage());
+		assertEquals(A, master.getObjectId());
+
+		Ref tag = refdir.exactRef("refs/tags/v1.0");
+		assertEquals(v1_0, tag.getObjectId());
+		assertEquals(B, tag.getPeeledObjectId());
+
+		Map<String, Ref> heads = refdir.getRefs(R_HEADS);
+		assertEquals("[master, next]", heads.keySet().toString());
+		assertEquals(B, heads.get("next").getObjectId());
+		assertEquals("[HEAD, refs/heads/master, refs/heads/next, refs/tags/v1.0]",
+				refdir.getRefs(RefDatabase.ALL).keySet().toString());
+	}
+
+	@Test
+	public void testExistingPackedRefsSeedStack() throws IOException {
+		write(new File(diskRepo.getDirectory(), "packed-refs"),
+				A.name() + " refs/heads/master\n" //
+						+ B.name() + " refs/heads/old\n");
+		writeLooseRef("refs/heads/next", B);
+
+		assertEquals(A, refdir.exactRef("refs/heads/master").getObjectId());
+		refdir.pack(Arrays.asList("refs/heads/next"));
+
+		assertFalse(new File(diskRepo.getDirectory(), "packed-refs").exists());
+		assertEquals(A, refdir.exactRef("refs/heads/master").getObjectId());
+		assertEquals(B, refdir.exactRef("refs/heads/old").getObjectId());
+		assertEquals(B, refdir.exactRef("refs/heads/next").getObjectId());
+		assertEquals(3, refdir.getRefs(R_HEADS).size());
+	}
+
+	@Test
+	public void testFirstTableMarksRepositoryFormat() throws Exception {
+		assertFalse(stackList().exists());
+		writeLooseRef("refs/heads/master", A);
+		refdir.pack(Arrays.asList("refs/heads/master"));
+
+		FileBasedConfig cfg = new FileBasedConfig(
+				new File(diskRepo.getDirectory(), "config"), FS.DETECTED);
+		cfg.load();
+		assertEquals(1, cfg.getInt("core", "repositoryformatversion", 0));
+		assertEquals("reftable", cfg.getString("extensions", null,
+				"refsStorage"));
+
+		// The extension alone keeps writes in the stack.
+		cfg.unset("core", null, "packedRefsFormat");
+		cfg.save();
+		try (FileRepository r = new FileRepository(diskRepo.getDirectory())) {
+			RefDirectory dir = (RefDirectory) r.getRefDatabase();
+			assertTrue(dir.writesReftable());
+			writeLooseRef("refs/heads/next", B);
+			dir.pack(Arrays.asList("refs/heads/next"));
+			assertFalse(new File(r.getDirectory(), "packed-refs").exists());
+			assertEquals(B, dir.exactRef("refs/heads/next").getObjectId());
+		}
+	}
+
+	@Test
+	public void testLooseRefShadowsPackedRef() throws IOException {
+		writeLooseRef("refs/heads/master", A);
+		refdir.pack(Arrays.asList("refs/heads/master"));
+		writeLooseRef("refs/heads/master", B);
+
+		assertEquals(B, refdir.exactRef("refs/heads/master").getObjectId());
+		assertEquals(B, refdir.getRefs(R_HEADS).get("master").getObjectId());
+	}
+
+	@Test
+	public void testDeletePackedRef() throws IOException {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/side", B);
+		refdir.pack(Arrays.asList("refs/heads/master", "refs/heads/side"));
+
+		RefUpdate u = diskRepo.updateRef("refs/heads/side");
+		u.setForceUpdate(true);
+		assertEquals(RefUpdate.Result.FORCED, u.delete());
+
+		assertNull(refdir.exactRef("refs/heads/side"));
+		assertEquals("[master]", refdir.getRefs(R_HEADS).keySet().toString());
+		assertFalse(refdir.isNameConflicting("refs/heads/side/x"));
+		assertTrue(refdir.isNameConflicting("refs/heads/master/x"));
+		assertTrue(refdir.isNameConflicting("refs/heads"));
+	}
+
+	@Test
+	public void testBatchUpdateAppendsOneTable() throws IOException {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/gone", A);
+		refdir.pack(Arrays.asList("refs/heads/master", "refs/heads/gone"));
+		int tables = refdir.getReftableStack().getTableCount();
+
+		List<ReceiveCommand> commands = Arrays.asList(
+				new ReceiveCommand(A, B, "refs/heads/master"),
+				new ReceiveCommand(ObjectId.zeroId(), v1_0, "refs/tags/v1.0"),
+				new ReceiveCommand(A, ObjectId.zeroId(), "refs/heads/gone"));
+		BatchRefUpdate bru = refdir.newBatchUpdate();
+		assertTrue(bru.isAtomic());
+		bru.setRefLogMessage("batch", true);
+		bru.addCommand(commands);
+		bru.execute(new RevWalk(diskRepo), NullProgressMonitor.INSTANCE);
+
+		for (ReceiveCommand cmd : commands)
+			assertEquals(cmd.getRefName(), ReceiveCommand.Result.OK,
+					cmd.getResult());
+		assertFalse(looseFile("refs/heads/master").exists());
+		assertTrue(refdir.getReftableStack().getTableCount() <= tables + 1);
+
+		assertEquals(B, refdir.exactRef("refs/heads/master").getObjectId());
+		assertNull(refdir.exactRef("refs/heads/gone"));
+		Ref tag = refdir.exactRef("refs/tags/v1.0");
+		assertEquals(v1_0, tag.getObjectId());
+		assertEquals(B, tag.getPeeledObjectId());
+
+		ReflogEntry e = diskRepo.getReflogReader("refs/heads/master")
+				.getLastEntry();
+		assertNotNull(e);
+		assertEquals(B, e.getNewId());
+		assertEquals("batch: fast forward", e.getComment());
+	}
+
+	@Test
+	public void testAtomicBatchUpdateRejectsAll() throws IOException {
+		writeLooseRef("refs/heads/master", A);
+		refdir.pack(Arrays.asList("refs/heads/master"));
+
+		List<ReceiveCommand> commands = Arrays.asList(
+				new ReceiveCommand(ObjectId.zeroId(), A, "refs/heads/new"),
+				new ReceiveCommand(B, A, "refs/heads/master"));
+		BatchRefUpdate bru = refdir.newBatchUpdate();
+		bru.addCommand(commands);
+		bru.execute(new RevWalk(diskRepo), NullProgressMonitor.INSTANCE);
+
+		assertEquals(ReceiveCommand.Result.REJECTED_OTHER_REASON,
+				commands.get(0).getResult());
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE,
+				commands.get(1).getResult());
+		assertNull(refdir.exactRef("refs/heads/new"));
+		assertEquals(A, refdir.exactRef("refs/heads/master").getObjectId());
+	}
+
+	@Test
+	public void testBatchUpdateNameConflicts() throws IOException {
+		writeLooseRef("refs/heads/master", A);
+		writeLooseRef("refs/heads/side", A);
+		refdir.pack(Arrays.asList("refs/heads/master", "refs/heads/side"));
+
+		List<ReceiveCommand> commands = Arrays.asList(
+				new ReceiveCommand(ObjectId.zeroId(), A,
+						"refs/heads/master/x"),
+				new ReceiveCommand(ObjectId.zeroId(), B, "refs/heads/side/x"),
+				new ReceiveCommand(A, ObjectId.zeroId(), "refs/heads/side"));
+		BatchRefUpdate bru = refdir.newBatchUpdate();
+		bru.setAtomic(false);
+		bru.addCommand(commands);
+		bru.execute(new RevWalk(diskRepo), NullProgressMonitor.INSTANCE);
+
+		assertEquals(ReceiveCommand.Result.LOCK_FAILURE,
+				commands.get(0).getResult());
+		assertEquals(ReceiveCommand.Result.OK, commands.get(1).getResult());
+		assertEquals(ReceiveCommand.Result.OK, commands.get(2).getResult());
+		assertEquals("[master, side/x]",
+				refdir.getRefs(R_HEADS).keySet().toString());
+	}
+
+	@Test
+	public void testGcCompactsStack() throws Exception {
+		List<String> names = new ArrayList<>();
+		for (int i = 0; i < 200; i++) {
+			String name = "refs/heads/b" + i;
+			writeLooseRef(name, i % 2 == 0 ? A : B);
+			names.add(name);
+		}
+		refdir.pack(names);
+		writeLooseRef("refs/heads/master", A);
+		refdir.pack(Arrays.asList("refs/heads/master"));
+		assertEquals(2, refdir.getReftableStack().getTableCount());
+
+		new GC(diskRepo).packRefs();
+		assertEquals(1, refdir.getReftableStack().getTableCount());
+		assertEquals(A, refdir.exactRef("refs/heads/master").getObjectId());
+		for (int i = 0; i < 200; i++)
+			assertEquals(i % 2 == 0 ? A : B,
+					refdir.exactRef(names.get(i)).getObjectId());
+	}
+
+	private File stackList() {
+		return new File(new File(diskRepo.getDirectory(), Constants.REFTABLE),
+				FileReftableStack.TABLES_LIST);
+	}
+
+	private File looseFile(String name) {
+		return new File(diskRepo.getDirectory(), name);
+	}
+
+	private void writeLooseRef(String name, AnyObjectId id) throws IOException {
+		write(looseFile(name), id.name() + "\n");
+	}
+}
@@ -45,6 +45,11 @@
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import org.eclipse.jgit.internal.storage.file.BasePackBitmapIndex.StoredBitmap;
 import org.eclipse.jgit.lib.ObjectId;
 import org.junit.Test;
@@ -77,6 +82,26 @@ public void testGetBitmapWithThreeXor() {
 		assertEquals(bitmapOf(50, 90), sb.getBitmap());
 	}
 
+	@Test
+	public void testGetSerializedBitmapWithXor() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(out);
+		out.write(new byte[] { 1, 2, 3 }); // leading data
+		bitmapOf(100).serialize(dos);
+		int second = dos.size() + 3;
+		bitmapOf(90, 101).serialize(dos);
+		ByteBuffer buf = ByteBuffer.wrap(out.toByteArray());
+
+		StoredBitmap base = new StoredBitmap(ObjectId.zeroId(), buf, 3,
+				null, 0);
+		StoredBitmap sb = new StoredBitmap(ObjectId.zeroId(), buf, second,
+				base, 0);
+		assertEquals(bitmapOf(90, 100, 101), sb.getBitmap());
+		assertEquals(bitmapOf(100), base.getBitmap());
+		assertEquals(-1, BasePackBitmapIndex.serializedSize(buf,
+				buf.limit() - 4));
+	}
+
 	private static final StoredBitmap newStoredBitmap(
 			EWAHCompressedBitmap... bitmaps) {
 		StoredBitmap sb = null;
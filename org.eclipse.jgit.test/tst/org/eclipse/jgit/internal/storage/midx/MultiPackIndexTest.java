@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.transport.PackedObjectInfo;
+import org.junit.Test;
+
+public class MultiPackIndexTest {
+	private static final ObjectId A = id(0x01);
+
+	private static final ObjectId B = id(0x7f);
+
+	private static final ObjectId C = id(0x80);
+
+	private static final ObjectId D = id(0xff);
+
+	@Test
+	public void testEmpty() throws Exception {
+		MultiPackIndex midx = writeAndRead(new MultiPackIndexWriter());
+		assertEquals(0, midx.getObjectCount());
+		assertEquals(0, midx.getPackNames().length);
+		assertEquals(-1, midx.findPosition(A));
+	}
+
+	@Test
+	public void testPacksAreMerged() throws Exception {
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		writer.addPack("pack-b.idx", index(C, 12, A, 40));
+		writer.addPack("pack-a.idx", index(D, 0x90000000L, B, 12));
+		MultiPackIndex midx = writeAndRead(writer);
+
+		assertArrayEquals(new String[] { "pack-a.idx", "pack-b.idx" },
+				midx.getPackNames());
+		assertEquals(4, midx.getObjectCount());
+		verify(midx, A, 1, 40);
+		verify(midx, B, 0, 12);
+		verify(midx, C, 1, 12);
+		verify(midx, D, 0, 0x90000000L);
+		assertEquals(-1, midx.findPosition(id(0x02)));
+	}
+
+	@Test
+	public void testFirstPackWinsDuplicates() throws Exception {
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		writer.addPack("pack-new.idx", index(A, 100));
+		writer.addPack("pack-old.idx", index(A, 12, B, 40));
+		MultiPackIndex midx = writeAndRead(writer);
+
+		assertEquals(2, midx.getObjectCount());
+		verify(midx, A, 0, 100);
+		verify(midx, B, 1, 40);
+	}
+
+	@Test
+	public void testIncrementalUpdate() throws Exception {
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		writer.addPack("pack-b.idx", index(A, 12, C, 40));
+		MultiPackIndex base = writeAndRead(writer);
+
+		writer = new MultiPackIndexWriter();
+		writer.addPack("pack-c.idx", index(C, 80, D, 12));
+		writer.addPack("pack-a.idx", index(B, 12));
+		writer.addMultiPackIndex(base);
+		MultiPackIndex midx = writeAndRead(writer);
+
+		assertArrayEquals(
+				new String[] { "pack-a.idx", "pack-b.idx", "pack-c.idx" },
+				midx.getPackNames());
+		assertEquals(4, midx.getObjectCount());
+		verify(midx, A, 1, 12);
+		verify(midx, B, 0, 12);
+		verify(midx, C, 2, 80);
+		verify(midx, D, 2, 12);
+	}
+
+	@Test
+	public void testCorruptSignature() throws Exception {
+		byte[] data = new byte[64];
+		try {
+			MultiPackIndexLoader.read(new ByteArrayInputStream(data));
+			fail("accepted a file without signature");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	private static void verify(MultiPackIndex midx, ObjectId id, int packId,
+			long offset) {
+		int pos = midx.findPosition(id);
+		assertEquals(id, midx.getObjectId(pos));
+		assertEquals(packId, midx.getPackId(pos));
+		assertEquals(offset, midx.getOffset(pos));
+	}
+
+	private static MultiPackIndex writeAndRead(MultiPackIndexWriter writer)
+			throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writer.write(NullProgressMonitor.INSTANCE, out);
+		return MultiPackIndexLoader
+				.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static PackIndex index(Object... idAndOffset) throws IOException {
+		List<PackedObjectInfo> objs = new ArrayList<>();
+		for (int i = 0; i < idAndOffset.length; i += 2) {
+			PackedObjectInfo info = new PackedObjectInfo(
+					(ObjectId) idAndOffset[i]);
+			info.setOffset(((Number) idAndOffset[i + 1]).longValue());
+			objs.add(info);
+		}
+		Collections.sort(objs);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PackIndexWriter.createVersion(out, 2).write(objs, new byte[20]);
+		return PackIndex.read(new ByteArrayInputStream(out.toByteArray()));
+	}
+
+	private static ObjectId id(int firstByte) {
+		byte[] raw = new byte[20];
+		raw[0] = (byte) firstByte;
+		raw[19] = 1;
+		return ObjectId.fromRaw(raw);
+	}
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.pack;
+
+import static org.eclipse.jgit.internal.storage.pack.GeometricProgression.rollUpCount;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class GeometricProgressionTest {
+	@Test
+	public void testNoPacks() {
+		assertEquals(0, rollUpCount(new long[0], 0, 2));
+		assertEquals(0, rollUpCount(new long[0], 100, 2));
+	}
+
+	@Test
+	public void testProgressionIsKept() {
+		assertEquals(0, rollUpCount(new long[] { 1, 2, 6, 18 }, 0, 2));
+		assertEquals(0, rollUpCount(new long[] { 10, 1000 }, 0, 2));
+		assertEquals(0, rollUpCount(new long[] { 1000 }, 0, 2));
+	}
+
+	@Test
+	public void testSmallPacksAreRolledUp() {
+		assertEquals(3, rollUpCount(new long[] { 5, 5, 5, 1000 }, 0, 2));
+		assertEquals(2, rollUpCount(new long[] { 5, 5, 100, 1000 }, 0, 2));
+	}
+
+	@Test
+	public void testPackIsComparedWithAllSmallerPacks() {
+		// Each pack is twice its neighbour, but 70 < 2 * (10 + 30).
+		assertEquals(3, rollUpCount(new long[] { 10, 30, 70 }, 0, 2));
+		assertEquals(4, rollUpCount(new long[] { 1, 2, 4, 8 }, 0, 2));
+		assertEquals(0, rollUpCount(new long[] { 10, 30, 80 }, 0, 2));
+	}
+
+	@Test
+	public void testRollUpCascades() {
+		// 4 + 4 = 8 is too large to stay below 10.
+		assertEquals(3, rollUpCount(new long[] { 4, 4, 10, 1000 }, 0, 2));
+		// 1 + 1 = 2 is too large to stay below 5 with a factor of 3.
+		assertEquals(3, rollUpCount(new long[] { 1, 1, 5, 100 }, 0, 3));
+	}
+
+	@Test
+	public void testPendingDataIsCounted() {
+		assertEquals(0, rollUpCount(new long[] { 10, 1000 }, 1, 2));
+		assertEquals(1, rollUpCount(new long[] { 10, 1000 }, 6, 2));
+		assertEquals(2, rollUpCount(new long[] { 10, 100 }, 60, 2));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testFactorTooSmall() {
+		rollUpCount(new long[] { 1, 2 }, 0, 1);
+	}
+}
@@ -0,0 +1,302 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.reftable;
+
+import static org.eclipse.jgit.lib.Constants.HEAD;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+import static org.eclipse.jgit.lib.Constants.R_HEADS;
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.junit.Test;
+
+public class ReftableTest {
+	@Test
+	public void emptyTable() throws IOException {
+		ReftableReader t = read(write(Collections.<Ref> emptyList()));
+		assertEquals(0, t.getRefCount());
+		try (RefCursor rc = t.allRefs()) {
+			assertFalse(rc.next());
+		}
+		assertNull(t.exactRef(HEAD));
+	}
+
+	@Test
+	public void oneIdRef() throws IOException {
+		Ref exp = ref(R_HEADS + "master", 1);
+		ReftableReader t = read(write(Collections.singletonList(exp)));
+		assertEquals(1, t.getRefCount());
+
+		Ref act = t.exactRef(exp.getName());
+		assertNotNull(act);
+		assertEquals(exp.getName(), act.getName());
+		assertEquals(exp.getObjectId(), act.getObjectId());
+		assertEquals(PACKED, act.getStorage());
+		assertTrue(act.isPeeled());
+		assertNull(act.getPeeledObjectId());
+		assertNull(t.exactRef(R_HEADS + "mast"));
+		assertNull(t.exactRef(R_HEADS + "masters"));
+	}
+
+	@Test
+	public void peeledTag() throws IOException {
+		Ref exp = new ObjectIdRef.PeeledTag(PACKED, "refs/tags/v1.0", id(1),
+				id(2));
+		ReftableReader t = read(write(Collections.singletonList(exp)));
+		Ref act = t.exactRef(exp.getName());
+		assertEquals(id(1), act.getObjectId());
+		assertEquals(id(2), act.getPeeledObjectId());
+	}
+
+	@Test
+	public void symbolicRef() throws IOException {
+		Ref master = ref(R_HEADS + "master", 1);
+		Ref head = new SymbolicRef(HEAD, master);
+		ReftableReader t = read(write(Arrays.asList(head, master)));
+		Ref act = t.exactRef(HEAD);
+		assertTrue(act.isSymbolic());
+		assertEquals(master.getName(), act.getTarget().getName());
+	}
+
+	@Test
+	public void manyRefsInSmallBlocks() throws IOException {
+		List<Ref> refs = new ArrayList<>();
+		for (int i = 1; i <= 5670; i++)
+			refs.add(ref(String.format("refs/heads/%04d", Integer.valueOf(i)),
+					i));
+
+		ReftableWriter w = new ReftableWriter().setBlockSize(256)
+				.setRestartInterval(4);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		w.begin(out).sortAndWriteRefs(refs).finish();
+		assertTrue(w.getBlockCount() > 1);
+		assertEquals(refs.size(), w.getRefCount());
+		assertEquals(out.size(), w.size());
+
+		ReftableReader t = read(out.toByteArray());
+		assertEquals(256, t.getBlockSize());
+		try (RefCursor rc = t.allRefs()) {
+			for (Ref exp : refs) {
+				assertTrue(rc.next());
+				assertEquals(exp.getName(), rc.getRef().getName());
+				assertEquals(exp.getObjectId(), rc.getRef().getObjectId());
+			}
+			assertFalse(rc.next());
+		}
+		for (Ref exp : refs)
+			assertEquals(exp.getObjectId(),
+					t.exactRef(exp.getName()).getObjectId());
+		assertNull(t.exactRef("refs/heads/0000"));
+		assertNull(t.exactRef("refs/heads/9999"));
+		assertNull(t.exactRef("refs/heads/12345"));
+	}
+
+	@Test
+	public void seekPrefix() throws IOException {
+		List<Ref> refs = new ArrayList<>();
+		for (int i = 1; i <= 500; i++) {
+			refs.add(ref(String.format("refs/changes/%03d/1", Integer.valueOf(i)),
+					i));
+		}
+		refs.add(ref(R_HEADS + "master", 1));
+		refs.add(ref("refs/tags/v1", 2));
+
+		ReftableReader t = read(write(refs, 512));
+		try (RefCursor rc = t.seekRefsWithPrefix("refs/changes/12")) {
+			for (int i = 120; i <= 129; i++) {
+				assertTrue(rc.next());
+				assertEquals(String.format("refs/changes/%03d/1",
+						Integer.valueOf(i)), rc.getRef().getName());
+			}
+			assertFalse(rc.next());
+		}
+		try (RefCursor rc = t.seekRefsWithPrefix(R_HEADS)) {
+			assertTrue(rc.next());
+			assertEquals(R_HEADS + "master", rc.getRef().getName());
+			assertFalse(rc.next());
+		}
+		try (RefCursor rc = t.seekRefsWithPrefix("refs/notes/")) {
+			assertFalse(rc.next());
+		}
+	}
+
+	@Test
+	public void deletionsHiddenByDefault() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReftableWriter w = new ReftableWriter().begin(out);
+		w.deleteRef(R_HEADS + "a");
+		w.writeRef(ref(R_HEADS + "b", 1));
+		w.finish();
+
+		ReftableReader t = read(out.toByteArray());
+		assertNull(t.exactRef(R_HEADS + "a"));
+		try (RefCursor rc = t.allRefs()) {
+			assertTrue(rc.next());
+			assertEquals(R_HEADS + "b", rc.getRef().getName());
+			assertFalse(rc.next());
+		}
+
+		t.setIncludeDeletes(true);
+		try (RefCursor rc = t.allRefs()) {
+			assertTrue(rc.next());
+			assertTrue(rc.wasDeleted());
+			assertEquals(R_HEADS + "a", rc.getRef().getName());
+			assertNull(rc.getRef().getObjectId());
+			assertEquals(NEW, rc.getRef().getStorage());
+		}
+	}
+
+	@Test
+	public void recordsMustIncrease() throws IOException {
+		ReftableWriter w = new ReftableWriter()
+				.begin(new ByteArrayOutputStream());
+		w.writeRef(ref(R_HEADS + "b", 1));
+		try {
+			w.writeRef(ref(R_HEADS + "a", 2));
+			fail("expected IllegalArgumentException");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void rejectsCorruptFile() {
+		byte[] table = write(Collections.singletonList(ref(HEAD, 1)));
+		table[table.length - 1] ^= 0xff;
+		try {
+			read(table);
+			fail("expected IOException");
+		} catch (IOException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void mergedNewestWins() throws IOException {
+		ReftableReader base = read(write(Arrays.asList(
+				ref(R_HEADS + "a", 1),
+				ref(R_HEADS + "b", 2),
+				ref(R_HEADS + "c", 3))));
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ReftableWriter w = new ReftableWriter().begin(out);
+		w.deleteRef(R_HEADS + "a");
+		w.writeRef(ref(R_HEADS + "b", 4));
+		w.writeRef(ref(R_HEADS + "d", 5));
+		w.finish();
+		ReftableReader top = read(out.toByteArray());
+
+		MergedReftable m = new MergedReftable(
+				Arrays.<Reftable> asList(base, top));
+		try (RefCursor rc = m.allRefs()) {
+			assertTrue(rc.next());
+			assertEquals(R_HEADS + "b", rc.getRef().getName());
+			assertEquals(id(4), rc.getRef().getObjectId());
+			assertTrue(rc.next());
+			assertEquals(R_HEADS + "c", rc.getRef().getName());
+			assertTrue(rc.next());
+			assertEquals(R_HEADS + "d", rc.getRef().getName());
+			assertFalse(rc.next());
+		}
+		assertNull(m.exactRef(R_HEADS + "a"));
+		assertEquals(id(3), m.exactRef(R_HEADS + "c").getObjectId());
+
+		m.setIncludeDeletes(true);
+		try (RefCursor rc = m.seekRef(R_HEADS + "a")) {
+			assertTrue(rc.next());
+			assertTrue(rc.wasDeleted());
+			assertFalse(rc.next());
+		}
+	}
+
+	private static Ref ref(String name, int id) {
+		return new ObjectIdRef.PeeledNonTag(PACKED, name, id(id));
+	}
+
+	private static ObjectId id(int i) {
+		byte[] buf = new byte[OBJECT_ID_LENGTH];
+		buf[0] = (byte) (i & 0xff);
+		buf[1] = (byte) ((i >>> 8) & 0xff);
+		buf[2] = (byte) ((i >>> 16) & 0xff);
+		buf[3] = (byte) (i >>> 24);
+		return ObjectId.fromRaw(buf);
+	}
+
+	private static byte[] write(List<Ref> refs) {
+		return write(refs, 4096);
+	}
+
+	private static byte[] write(List<Ref> refs, int blockSize) {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		try {
+			new ReftableWriter().setBlockSize(blockSize).begin(out)
+					.sortAndWriteRefs(refs).finish();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		return out.toByteArray();
+	}
+
+	private static ReftableReader read(byte[] table) throws IOException {
+		return new ReftableReader(ByteBuffer.wrap(table));
+	}
+}
@@ -75,6 +75,7 @@
 import org.eclipse.jgit.junit.RepositoryTestCase;
 import org.eclipse.jgit.junit.TestRepository;
 import org.eclipse.jgit.junit.TestRepository.BranchBuilder;
+import org.eclipse.jgit.junit.TestRepository.CommitBuilder;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.treewalk.FileTreeIterator;
 import org.eclipse.jgit.treewalk.TreeWalk;
@@ -237,6 +238,60 @@ public void testInitialCheckout() throws Exception {
 		}
 	}
 
+	@Test
+	public void testParallelCheckout() throws Exception {
+		StoredConfig config = db.getConfig();
+		config.setInt(ConfigConstants.CONFIG_CHECKOUT_SECTION, null,
+				ConfigConstants.CONFIG_KEY_WORKERS, 4);
+		config.setInt(ConfigConstants.CONFIG_CHECKOUT_SECTION, null,
+				ConfigConstants.CONFIG_KEY_THRESHOLD_FOR_PARALLELISM, 1);
+		config.save();
+
+		TestRepository<Repository> db_t = new TestRepository<>(db);
+		BranchBuilder master = db_t.branch("master");
+		HashMap<String, String> files = new HashMap<>();
+		CommitBuilder first = master.commit().message("m0");
+		for (int d = 0; d < 10; d++) {
+			for (int f = 0; f < 10; f++) {
+				String path = "d" + d + "/s" + (f % 3) + "/f" + f;
+				files.put(path, path + " content");
+				first.add(path, path + " content");
+			}
+		}
+		first.add("top", "top");
+		files.put("top", "top");
+		RevCommit c1 = first.create();
+
+		resetHard(db_t.parseBody(c1));
+		assertWorkDir(files);
+		assertIndex(files);
+		DirCache cache = db.readDirCache();
+		for (int i = 0; i < cache.getEntryCount(); i++) {
+			DirCacheEntry e = cache.getEntry(i);
+			File f = new File(db.getWorkTree(), e.getPathString());
+			assertEquals(f.lastModified(), e.getLastModified());
+			if (!e.isSmudged())
+				assertEquals(f.length(), e.getLength());
+		}
+
+		// Replace a file by a directory and a directory by a file.
+		RevCommit c2 = first.child().rm("top").add("top/x", "x")
+				.rm("d0/s0/f0").rm("d0/s0/f3").rm("d0/s0/f6").rm("d0/s0/f9")
+				.add("d0/s0", "now a file").message("m1").create();
+		DirCacheCheckout dco = new DirCacheCheckout(db, c1.getTree(),
+				db.lockDirCache(), db_t.parseBody(c2).getTree());
+		assertTrue(dco.checkout());
+		files.remove("top");
+		files.put("top/x", "x");
+		files.remove("d0/s0/f0");
+		files.remove("d0/s0/f3");
+		files.remove("d0/s0/f6");
+		files.remove("d0/s0/f9");
+		files.put("d0/s0", "now a file");
+		assertWorkDir(files);
+		assertIndex(files);
+	}
+
 	private DirCacheCheckout resetHard(RevCommit commit)
 			throws NoWorkTreeException,
 			CorruptObjectException, IOException {
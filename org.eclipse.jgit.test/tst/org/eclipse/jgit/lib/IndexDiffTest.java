@@ -725,6 +725,80 @@ public void testAutoCRLFInput() throws Exception {
 		}
 	}
 
+	@Test
+	public void testContentCheckOfTouchedFiles() throws Exception {
+		verifyContentCheckOfTouchedFiles(true);
+	}
+
+	@Test
+	public void testContentCheckOfTouchedFilesWithoutPreload()
+			throws Exception {
+		verifyContentCheckOfTouchedFiles(false);
+	}
+
+	private void verifyContentCheckOfTouchedFiles(boolean preload)
+			throws Exception {
+		FileBasedConfig config = db.getConfig();
+		config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_PRELOAD_INDEX, preload);
+		config.save();
+		try (Git git = new Git(db)) {
+			for (int i = 0; i < 20; i++)
+				writeTrashFile("dir/file" + i, "content " + i);
+			writeTrashFile("same", "same");
+			git.add().addFilepattern(".").call();
+			git.commit().setMessage("initial").call();
+		}
+		long past = System.currentTimeMillis() - 3600 * 1000;
+		for (int i = 0; i < 20; i++)
+			new File(trash, "dir/file" + i).setLastModified(past);
+		writeTrashFile("dir/file7", "changed 7");
+		new File(trash, "dir/file7").setLastModified(past);
+
+		IndexDiff diff = new IndexDiff(db, Constants.HEAD,
+				new FileTreeIterator(db));
+		assertTrue(diff.diff());
+		assertEquals(Collections.singleton("dir/file7"), diff.getModified());
+		assertEquals(Collections.EMPTY_SET, diff.getChanged());
+		assertTrue(diff.getPathsWithIndexMode(FileMode.REGULAR_FILE)
+				.contains("dir/file7"));
+		assertFalse(diff.getPathsWithIndexMode(FileMode.REGULAR_FILE)
+				.contains("dir/file3"));
+
+		// Only the background checks store the refreshed stat data
+		long indexed = db.readDirCache().getEntry("dir/file3")
+				.getLastModified();
+		long actual = db.getFS().lastModified(new File(trash, "dir/file3"));
+		assertEquals(Boolean.valueOf(preload),
+				Boolean.valueOf(indexed == actual));
+	}
+
+	@Test
+	public void testContentCheckWithAutoCrLf() throws Exception {
+		FileBasedConfig config = db.getConfig();
+		config.setEnum(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_AUTOCRLF, AutoCRLF.TRUE);
+		config.save();
+		try (Git git = new Git(db)) {
+			writeTrashFile("crlf", "a\r\nb\r\n");
+			git.add().addFilepattern("crlf").call();
+			git.commit().setMessage("initial").call();
+		}
+		new File(trash, "crlf")
+				.setLastModified(System.currentTimeMillis() - 3600 * 1000);
+
+		IndexDiff diff = new IndexDiff(db, Constants.HEAD,
+				new FileTreeIterator(db));
+		assertFalse(diff.diff());
+
+		writeTrashFile("crlf", "a\r\nc\r\n");
+		new File(trash, "crlf")
+				.setLastModified(System.currentTimeMillis() - 7200 * 1000);
+		diff = new IndexDiff(db, Constants.HEAD, new FileTreeIterator(db));
+		assertTrue(diff.diff());
+		assertEquals(Collections.singleton("crlf"), diff.getModified());
+	}
+
 	private void verifyStageState(StageState expected, int... stages)
 			throws IOException {
 		DirCacheBuilder builder = db.lockDirCache().builder();
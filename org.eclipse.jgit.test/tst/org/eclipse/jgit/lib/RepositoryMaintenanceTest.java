@@ -0,0 +1,362 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.PackFile;
+import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.RepositoryMaintenance.Task;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.PackParser;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.transport.ReceivePack;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RepositoryMaintenanceTest extends RepositoryTestCase {
+	private TestRepository<FileRepository> tr;
+
+	private RepositoryMaintenance maintenance;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		tr = new TestRepository<>(db);
+		maintenance = new RepositoryMaintenance();
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		maintenance.shutdown();
+		tr.getRevWalk().close();
+		super.tearDown();
+	}
+
+	@Test
+	public void testNothingNeeded() throws Exception {
+		tr.branch("master").commit().add("A", "A").create();
+		assertTrue(maintenance.getNeededTasks(db).isEmpty());
+
+		maintenance.onReceive(db);
+		assertTrue(maintenance.awaitIdle(0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testLooseObjectsNeedPacking() throws Exception {
+		maintenance.setLooseObjectLimit(0);
+		// Loose objects are estimated from a single fan-out directory.
+		int i = 0;
+		RevBlob b;
+		do {
+			b = tr.blob("blob " + i++);
+		} while (!b.name().startsWith("17"));
+		assertEquals(EnumSet.of(Task.PACK_LOOSE_OBJECTS),
+				maintenance.getNeededTasks(db));
+	}
+
+	@Test
+	public void testPacksAndRefsNeedMaintenance() throws Exception {
+		maintenance.setPackLimit(1).setBitmapPackLimit(1).setLooseRefLimit(1);
+		RevCommit a = tr.branch("a").commit().add("A", "A").create();
+		tr.packAndPrune();
+		RevCommit b = tr.branch("b").commit().parent(a).add("B", "B")
+				.create();
+		packNewObjects(b, a);
+		// No pack has a bitmap index to layer on.
+		assertEquals(EnumSet.of(Task.COMPACT_PACKS, Task.PACK_REFS,
+				Task.FULL_REPACK), maintenance.getNeededTasks(db));
+	}
+
+	@Test
+	public void testLooseRefsCountedFromFiles() throws Exception {
+		maintenance.setLooseRefLimit(2);
+		RevCommit a = tr.branch("a").commit().add("A", "A").create();
+		tr.branch("nested/b").update(a);
+		write(new File(db.getDirectory(), "refs/heads/c.lock"),
+				a.name() + "\n");
+		assertTrue(maintenance.getNeededTasks(db).isEmpty());
+
+		tr.lightweightTag("t", a);
+		assertEquals(EnumSet.of(Task.PACK_REFS),
+				maintenance.getNeededTasks(db));
+	}
+
+	@Test
+	public void testShutdownStopsWorkers() throws Exception {
+		maintenance.setLooseRefLimit(0);
+		tr.branch("a").commit().add("A", "A").create();
+		maintenance.onReceive(db);
+		maintenance.shutdown();
+		assertTrue(maintenance.awaitTermination(30, TimeUnit.SECONDS));
+
+		tr.branch("b").commit().add("B", "B").create();
+		maintenance.onReceive(db);
+		assertTrue(maintenance.awaitIdle(0, TimeUnit.MILLISECONDS));
+	}
+
+	@Test
+	public void testBitmapsAreLayered() throws Exception {
+		maintenance.setBitmapPackLimit(1);
+		TestRepository<FileRepository>.CommitBuilder cb = tr.branch("a")
+				.commit();
+		// Large enough for the received packs to be rolled up on top of it.
+		for (int i = 0; i < 200; i++)
+			cb.add("dir/file" + i, "content of file " + i);
+		RevCommit a = cb.create();
+		new GC(db).repack();
+		PackFile base = db.getObjectDatabase().getPacks().iterator().next();
+		assertTrue(extFile(base, "bitmap").exists());
+
+		RevCommit b = tr.branch("b").commit().parent(a).add("B", "B")
+				.create();
+		packNewObjects(b, a);
+		RevCommit c = tr.branch("c").commit().parent(b).add("C", "C")
+				.create();
+		packNewObjects(c, b);
+		assertEquals(EnumSet.of(Task.REBUILD_BITMAPS),
+				maintenance.getNeededTasks(db));
+
+		Collection<PackFile> before = db.getObjectDatabase().getPacks();
+		// Received packs are only rolled up once gc.prunePackExpire passed.
+		long expired = mockSystemReader.getCurrentTime() - 2 * 60 * 60 * 1000;
+		for (PackFile p : before)
+			assertTrue(p.getPackFile().setLastModified(expired));
+		maintenance.onReceive(db);
+		assertTrue(maintenance.awaitIdle(30, TimeUnit.SECONDS));
+		// Only the received packs were rewritten, on top of the base.
+		PackFile layer = newPack(before);
+		assertTrue(extFile(base, "bitmap").exists());
+		assertTrue(extFile(layer, "lbitmap").exists());
+		assertFalse(extFile(layer, "bitmap").exists());
+		assertTrue(layer.hasObject(c));
+		assertFalse(layer.hasObject(a));
+	}
+
+	@Test
+	public void testFullRepackScheduled() throws Exception {
+		RevCommit a = tr.branch("a").commit().add("A", "A").create();
+		new GC(db).repack();
+		RevCommit b = tr.branch("b").commit().parent(a).add("B", "B")
+				.create();
+		packNewObjects(b, a);
+		assertTrue(maintenance.getNeededTasks(db).isEmpty());
+
+		Collection<PackFile> before = db.getObjectDatabase().getPacks();
+		maintenance.schedule(db, EnumSet.of(Task.FULL_REPACK));
+		assertTrue(maintenance.awaitIdle(30, TimeUnit.SECONDS));
+		PackFile full = newPack(before);
+		assertTrue(extFile(full, "bitmap").exists());
+		assertTrue(full.hasObject(a));
+		assertTrue(full.hasObject(b));
+	}
+
+	private PackFile newPack(Collection<PackFile> before) throws Exception {
+		Set<String> old = new HashSet<>();
+		for (PackFile p : before)
+			old.add(p.getPackName());
+		PackFile found = null;
+		// A new instance scans the packs written by maintenance.
+		try (FileRepository r = new FileRepository(db.getDirectory())) {
+			for (PackFile p : r.getObjectDatabase().getPacks()) {
+				if (!old.contains(p.getPackName())) {
+					assertNull(found);
+					found = p;
+				}
+			}
+		}
+		assertNotNull(found);
+		return found;
+	}
+
+	private static File extFile(PackFile pack, String ext) {
+		String name = pack.getPackFile().getName();
+		return new File(pack.getPackFile().getParentFile(),
+				name.substring(0, name.length() - "pack".length()) + ext);
+	}
+
+	private void packNewObjects(RevCommit want, RevCommit have)
+			throws Exception {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		try (PackWriter pw = new PackWriter(db)) {
+			pw.preparePack(NullProgressMonitor.INSTANCE,
+					Collections.<ObjectId> singleton(want),
+					Collections.<ObjectId> singleton(have));
+			pw.writePack(NullProgressMonitor.INSTANCE,
+					NullProgressMonitor.INSTANCE, buf);
+		}
+		try (ObjectInserter ins = db.newObjectInserter()) {
+			PackParser p = ins.newPackParser(
+					new ByteArrayInputStream(buf.toByteArray()));
+			p.parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+		}
+	}
+
+	@Test
+	public void testMaintenanceRuns() throws Exception {
+		maintenance.setLooseObjectLimit(0).setPackLimit(1)
+				.setBitmapPackLimit(0).setLooseRefLimit(0);
+		RevCommit a = tr.branch("a").commit().add("A", "A").create();
+		tr.packAndPrune();
+		tr.branch("b").commit().parent(a).add("B", "B").create();
+		tr.branch("c").commit().parent(a).add("C", "C").create();
+		assertFalse(maintenance.getNeededTasks(db).isEmpty());
+
+		maintenance.onReceive(db);
+		assertTrue(maintenance.awaitIdle(30, TimeUnit.SECONDS));
+
+		// A new instance scans the packs written by maintenance.
+		try (FileRepository r = new FileRepository(db.getDirectory())) {
+			GC.RepoStatistics stats = new GC(r).getStatistics();
+			assertEquals(0, stats.numberOfLooseObjects);
+			assertEquals(0, stats.numberOfLooseRefs);
+			assertTrue(stats.numberOfBitmaps > 0);
+		}
+	}
+
+	@Test
+	public void testMultiPackIndexUpdated() throws Exception {
+		maintenance.setMultiPackIndexPackLimit(0)
+				.setBitmapPackLimit(Integer.MAX_VALUE);
+		RevCommit a = tr.branch("a").commit().add("A", "A").create();
+		tr.packAndPrune();
+		assertTrue(maintenance.getNeededTasks(db).isEmpty());
+
+		// Received packs are only appended to the index while it is enabled.
+		RevCommit b = tr.branch("b").commit().parent(a).add("B", "B")
+				.create();
+		packNewObjects(b, a);
+		StoredConfig config = db.getConfig();
+		config.setBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, true);
+		config.save();
+		assertEquals(EnumSet.of(Task.UPDATE_MULTI_PACK_INDEX),
+				maintenance.getNeededTasks(db));
+
+		maintenance.onReceive(db);
+		assertTrue(maintenance.awaitIdle(30, TimeUnit.SECONDS));
+		assertEquals(0, db.getObjectDatabase().getPacksNotInMultiPackIndex());
+		assertTrue(db.getObjectDatabase().getMultiPackIndexFile().exists());
+	}
+
+	@Test
+	public void testPostReceiveHook() throws Exception {
+		maintenance.setLooseRefLimit(0);
+		RevCommit a = tr.branch("a").commit().add("A", "A").create();
+		ReceiveCommand cmd = new ReceiveCommand(ObjectId.zeroId(), a,
+				"refs/heads/a");
+		cmd.setResult(ReceiveCommand.Result.REJECTED_OTHER_REASON);
+		maintenance.newPostReceiveHook().onPostReceive(new ReceivePack(db),
+				Collections.singleton(cmd));
+		assertTrue(maintenance.awaitIdle(0, TimeUnit.MILLISECONDS));
+		assertEquals(1, new GC(db).getStatistics().numberOfLooseRefs);
+
+		cmd.setResult(ReceiveCommand.Result.OK);
+		maintenance.newPostReceiveHook().onPostReceive(new ReceivePack(db),
+				Collections.singleton(cmd));
+		assertTrue(maintenance.awaitIdle(30, TimeUnit.SECONDS));
+		assertEquals(0, new GC(db).getStatistics().numberOfLooseRefs);
+	}
+
+	@Test
+	public void testMinInterval() throws Exception {
+		maintenance.setLooseRefLimit(0).setMinInterval(1, TimeUnit.HOURS);
+		tr.branch("a").commit().add("A", "A").create();
+		maintenance.onReceive(db);
+		assertTrue(maintenance.awaitIdle(30, TimeUnit.SECONDS));
+
+		tr.branch("b").commit().add("B", "B").create();
+		maintenance.onReceive(db);
+		assertFalse(maintenance.awaitIdle(100, TimeUnit.MILLISECONDS));
+		assertEquals(1, new GC(db).getStatistics().numberOfLooseRefs);
+	}
+
+	@Test
+	public void testDfsCompaction() throws Exception {
+		maintenance.setPackLimit(1).setBitmapPackLimit(Integer.MAX_VALUE);
+		InMemoryRepository repo = new InMemoryRepository(
+				new DfsRepositoryDescription("test"));
+		TestRepository<InMemoryRepository> dfs = new TestRepository<>(repo);
+		try {
+			dfs.branch("a").commit().add("A", "A").create();
+			dfs.branch("b").commit().add("B", "B").create();
+			int before = repo.getObjectDatabase().getPacks().length;
+			assertTrue(before > 1);
+
+			maintenance.onReceive(repo);
+			assertTrue(maintenance.awaitIdle(30, TimeUnit.SECONDS));
+			repo.scanForRepoChanges();
+			assertTrue(
+					repo.getObjectDatabase().getPacks().length < before);
+		} finally {
+			dfs.getRevWalk().close();
+			repo.close();
+		}
+	}
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.eclipse.jgit.errors.PackProtocolException;
+import org.junit.Test;
+
+public class FilterSpecTest {
+	@Test
+	public void testNoFilter() {
+		assertTrue(FilterSpec.NO_FILTER.isNoOp());
+		assertNull(FilterSpec.NO_FILTER.filterLine());
+	}
+
+	@Test
+	public void testBlobNone() throws Exception {
+		FilterSpec f = FilterSpec.fromFilterLine("blob:none");
+		assertFalse(f.isNoOp());
+		assertEquals(0, f.getBlobLimit());
+		assertEquals(-1, f.getTreeDepthLimit());
+		assertEquals("blob:none", f.filterLine());
+		assertEquals(FilterSpec.withBlobLimit(0), f);
+	}
+
+	@Test
+	public void testBlobLimit() throws Exception {
+		assertEquals(100, FilterSpec.fromFilterLine("blob:limit=100")
+				.getBlobLimit());
+		assertEquals(2048, FilterSpec.fromFilterLine("blob:limit=2k")
+				.getBlobLimit());
+		assertEquals(3 * 1024 * 1024, FilterSpec.fromFilterLine("blob:limit=3m")
+				.getBlobLimit());
+		assertEquals("blob:limit=2048",
+				FilterSpec.fromFilterLine("blob:limit=2k").filterLine());
+	}
+
+	@Test
+	public void testTreeDepth() throws Exception {
+		FilterSpec f = FilterSpec.fromFilterLine("tree:1");
+		assertEquals(-1, f.getBlobLimit());
+		assertEquals(1, f.getTreeDepthLimit());
+		assertEquals("tree:1", f.filterLine());
+	}
+
+	@Test
+	public void testInvalid() {
+		for (String spec : new String[] { "", "blob:", "blob:limit=",
+				"blob:limit=-1", "blob:limit=1x", "tree:", "tree:-1",
+				"sparse:oid=abc" }) {
+			try {
+				FilterSpec.fromFilterLine(spec);
+				fail("accepted " + spec);
+			} catch (PackProtocolException e) {
+				// Expected.
+			}
+		}
+	}
+}
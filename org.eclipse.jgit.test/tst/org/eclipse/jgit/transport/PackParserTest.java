@@ -58,10 +58,14 @@
 import java.io.InputStream;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.zip.Deflater;
 
 import org.eclipse.jgit.errors.TooLargeObjectInPackException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.internal.storage.file.ObjectDirectoryPackParser;
 import org.eclipse.jgit.internal.storage.file.PackFile;
 import org.eclipse.jgit.junit.JGitTestUtil;
@@ -146,6 +150,39 @@ public void test2() throws  IOException {
 		}
 	}
 
+	@Test
+	public void testParallelDeltaResolution() throws IOException {
+		for (String name : new String[] {
+				"pack-34be9032ac282b11fa9babdc2b2a93ca996c9c2f.pack",
+				"pack-df2982f284bbabb6bdb59ee3fcc6eb0983e20371.pack" }) {
+			List<String> serial = index(name, 1, false);
+			assertEquals(serial, index(name, 4, false));
+			assertEquals(serial, index(name, 1, true));
+			assertEquals(serial, index(name, 4, true));
+		}
+	}
+
+	private List<String> index(String packName, int threads,
+			boolean dfs) throws IOException {
+		Repository repo = dfs
+				? new InMemoryRepository(new DfsRepositoryDescription("test"))
+				: createBareRepository();
+		try (ObjectInserter ins = repo.newObjectInserter();
+				InputStream is = new FileInputStream(
+						JGitTestUtil.getTestResourceFile(packName))) {
+			PackParser p = ins.newPackParser(is);
+			p.setThreads(threads);
+			p.parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+
+			List<String> objects = new ArrayList<>();
+			for (PackedObjectInfo oe : p.getSortedObjectList(null))
+				objects.add(oe.name() + " " + oe.getOffset() + " "
+						+ oe.getCRC());
+			return objects;
+		}
+	}
+
 	@Test
 	public void testTinyThinPack() throws Exception {
 		TestRepository d = new TestRepository<Repository>(db);
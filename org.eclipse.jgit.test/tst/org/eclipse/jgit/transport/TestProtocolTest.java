@@ -44,10 +44,15 @@
 package org.eclipse.jgit.transport;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -58,8 +63,14 @@
 import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
 import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
 import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTree;
 import org.eclipse.jgit.transport.resolver.ReceivePackFactory;
 import org.eclipse.jgit.transport.resolver.ServiceNotAuthorizedException;
 import org.eclipse.jgit.transport.resolver.UploadPackFactory;
@@ -129,6 +140,126 @@ public void testFetch() throws Exception {
 		}
 	}
 
+	@Test
+	public void testFetchProtocolV2() throws Exception {
+		RevCommit master = remote.branch("master").commit().create();
+		remote.update("refs/changes/01/1/1", remote.commit().create());
+		remote.lightweightTag("v1", master);
+		remote.getRepository().updateRef(Constants.HEAD)
+				.link("refs/heads/master");
+		StoredConfig cfg = local.getRepository().getConfig();
+		cfg.setInt("protocol", null, "version", 2);
+
+		TestProtocol<User> proto = registerDefault();
+		URIish uri = proto.register(new User("user"), remote.getRepository());
+
+		try (Transport tn = Transport.open(local.getRepository(), uri);
+				FetchConnection c = tn.openFetch(
+						Collections.singleton(HEADS), Constants.HEAD)) {
+			assertEquals(master, c.getRef("refs/heads/master").getObjectId());
+			assertNotNull(c.getRef(Constants.HEAD));
+			assertNull(c.getRef("refs/changes/01/1/1"));
+			assertNull(c.getRef("refs/tags/v1"));
+		}
+
+		try (Git git = new Git(local.getRepository())) {
+			git.fetch()
+					.setRemote(uri.toString())
+					.setRefSpecs(HEADS)
+					.setTagOpt(TagOpt.AUTO_FOLLOW)
+					.call();
+			assertEquals(master,
+					local.getRepository().exactRef("refs/heads/master").getObjectId());
+			assertEquals(master,
+					local.getRepository().exactRef("refs/tags/v1").getObjectId());
+			assertNull(local.getRepository().exactRef("refs/changes/01/1/1"));
+
+			// Fetch again, negotiating from the commit fetched above.
+			RevCommit next = remote.branch("master").commit().parent(master)
+					.create();
+			git.fetch()
+					.setRemote(uri.toString())
+					.setRefSpecs(HEADS)
+					.call();
+			assertEquals(next,
+					local.getRepository().exactRef("refs/heads/master").getObjectId());
+		}
+	}
+
+	@Test
+	public void testFetchWithFilter() throws Exception {
+		RevCommit master = remote.branch("master").commit()
+				.add("a", "a").add("d/b", "b").create();
+		RevTree tree = remote.getRevWalk().parseCommit(master).getTree();
+		RevObject blob = remote.get(tree, "a");
+		RevObject subtree = remote.get(tree, "d");
+		StoredConfig cfg = remote.getRepository().getConfig();
+		cfg.setBoolean("uploadpack", null, "allowfilter", true);
+		cfg.setBoolean("uploadpack", null, "allowanysha1inwant", true);
+
+		TestProtocol<User> proto = registerDefault();
+		URIish uri = proto.register(new User("user"), remote.getRepository());
+		Repository db = local.getRepository();
+
+		try (Transport tn = Transport.open(db, uri)) {
+			tn.setFilterSpec(FilterSpec.withTreeDepthLimit(1));
+			tn.fetch(NullProgressMonitor.INSTANCE,
+					Collections.singleton(HEADS));
+			assertEquals(master, db.exactRef("refs/heads/master").getObjectId());
+			assertTrue(db.hasObject(tree));
+			assertFalse(db.hasObject(subtree));
+			assertFalse(db.hasObject(blob));
+
+			tn.fetchPromisedObjects(NullProgressMonitor.INSTANCE,
+					Arrays.asList(blob, subtree));
+			assertTrue(db.hasObject(blob));
+			assertTrue(db.hasObject(subtree));
+			assertTrue(db.hasObject(remote.get(tree, "d/b")));
+		}
+	}
+
+	@Test
+	public void testFetchWithTreeDepthZero() throws Exception {
+		RevCommit master = remote.branch("master").commit()
+				.add("a", "a").create();
+		RevTree tree = remote.getRevWalk().parseCommit(master).getTree();
+		remote.getRepository().getConfig().setBoolean("uploadpack", null,
+				"allowfilter", true);
+
+		TestProtocol<User> proto = registerDefault();
+		URIish uri = proto.register(new User("user"), remote.getRepository());
+
+		try (Git git = new Git(local.getRepository())) {
+			git.fetch()
+					.setRemote(uri.toString())
+					.setRefSpecs(HEADS)
+					.setFilterSpec(FilterSpec.withTreeDepthLimit(0))
+					.call();
+			assertTrue(local.getRepository().hasObject(master));
+			assertFalse(local.getRepository().hasObject(tree));
+		}
+	}
+
+	@Test
+	public void testFetchWithFilterNotAllowed() throws Exception {
+		remote.branch("master").commit().add("a", "a").create();
+
+		TestProtocol<User> proto = registerDefault();
+		URIish uri = proto.register(new User("user"), remote.getRepository());
+
+		try (Git git = new Git(local.getRepository())) {
+			git.fetch()
+					.setRemote(uri.toString())
+					.setRefSpecs(HEADS)
+					.setFilterSpec(FilterSpec.withBlobLimit(0))
+					.call();
+			fail("fetch succeeded without the filter capability");
+		} catch (TransportException e) {
+			assertTrue(e.getMessage().contains(
+					JGitText.get().filterRequiresCapability));
+		}
+	}
+
 	@Test
 	public void testPush() throws Exception {
 		ObjectId master = local.branch("master").commit().create();
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepositoryDescription;
+import org.eclipse.jgit.internal.storage.dfs.InMemoryRepository;
+import org.eclipse.jgit.junit.TestRepository;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevBlob;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.transport.UploadPack.RequestPolicy;
+import org.eclipse.jgit.transport.resolver.ReceivePackFactory;
+import org.eclipse.jgit.transport.resolver.UploadPackFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests for the checks UploadPack applies to wants that were not advertised.
+ */
+public class UploadPackTest {
+	private TestProtocol<Object> proto;
+
+	private URIish uri;
+
+	private TestRepository<InMemoryRepository> remote;
+
+	private InMemoryRepository client;
+
+	@Before
+	public void setUp() throws Exception {
+		remote = new TestRepository<>(
+				new InMemoryRepository(new DfsRepositoryDescription("remote")));
+		client = new InMemoryRepository(new DfsRepositoryDescription("client"));
+		proto = new TestProtocol<>(new UploadPackFactory<Object>() {
+			@Override
+			public UploadPack create(Object req, Repository db) {
+				UploadPack up = new UploadPack(db);
+				up.setRequestPolicy(RequestPolicy.REACHABLE_COMMIT);
+				return up;
+			}
+		}, new ReceivePackFactory<Object>() {
+			@Override
+			public ReceivePack create(Object req, Repository db) {
+				return new ReceivePack(db);
+			}
+		});
+		Transport.register(proto);
+		uri = proto.register(new Object(), remote.getRepository());
+	}
+
+	@After
+	public void tearDown() {
+		Transport.unregister(proto);
+	}
+
+	@Test
+	public void testFetchReachableCommitWithoutBitmap() throws Exception {
+		RevCommit first = remote.commit().create();
+		remote.update("master", remote.commit().parent(first).create());
+
+		fetch(first);
+		assertTrue(client.hasObject(first));
+	}
+
+	@Test
+	public void testFetchUnreachableCommitWithoutBitmap() throws Exception {
+		RevCommit first = remote.commit().create();
+		RevCommit unreachable = remote.commit().message("x").create();
+		remote.update("master", remote.commit().parent(first).create());
+
+		assertNotFetchable(unreachable);
+	}
+
+	@Test
+	public void testFetchReachableBlobWithoutBitmap() throws Exception {
+		RevBlob blob = remote.blob("foo");
+		remote.update("master", remote.commit().add("foo", blob).create());
+
+		// Without a bitmap only commits are checked for reachability.
+		assertNotFetchable(blob);
+	}
+
+	@Test
+	public void testFetchUnreachableBlobWithoutBitmap() throws Exception {
+		RevBlob blob = remote.blob("foo");
+		remote.update("master", remote.commit().add("bar", "bar").create());
+
+		assertNotFetchable(blob);
+	}
+
+	@Test
+	public void testFetchReachableCommitWithBitmap() throws Exception {
+		RevCommit first = remote.commit().create();
+		remote.update("master", remote.commit().parent(first).create());
+		generateBitmaps();
+
+		fetch(first);
+		assertTrue(client.hasObject(first));
+	}
+
+	@Test
+	public void testFetchReachableBlobWithBitmap() throws Exception {
+		RevBlob blob = remote.blob("foo");
+		remote.update("master", remote.commit().add("foo", blob).create());
+		generateBitmaps();
+
+		fetch(blob);
+		assertTrue(client.hasObject(blob));
+	}
+
+	@Test
+	public void testFetchUnreachableBlobWithBitmap() throws Exception {
+		RevBlob blob = remote.blob("foo");
+		remote.update("master", remote.commit().add("bar", "bar").create());
+		generateBitmaps();
+
+		assertNotFetchable(blob);
+	}
+
+	@Test
+	public void testFetchCommitNewerThanBitmap() throws Exception {
+		RevCommit first = remote.commit().create();
+		remote.update("master", first);
+		generateBitmaps();
+
+		RevCommit second = remote.commit().parent(first).create();
+		RevCommit third = remote.commit().parent(second).create();
+		remote.update("master", third);
+
+		fetch(second);
+		assertTrue(client.hasObject(second));
+	}
+
+	@Test
+	public void testFetchUnreachableCommitWithBitmap() throws Exception {
+		RevCommit first = remote.commit().create();
+		remote.update("master", first);
+		generateBitmaps();
+
+		RevCommit unreachable = remote.commit().parent(first).create();
+		remote.update("master", remote.commit().parent(first).message("x")
+				.create());
+
+		assertNotFetchable(unreachable);
+	}
+
+	@Test
+	public void testV2FetchesOnOneConnectionAreIndependent()
+			throws Exception {
+		RevCommit first = remote.commit().add("a", "a").create();
+		RevCommit second = remote.commit().parent(first).add("b", "b")
+				.create();
+		remote.update("master", second);
+
+		ByteArrayOutputStream req = new ByteArrayOutputStream();
+		PacketLineOut pckOut = new PacketLineOut(req);
+		pckOut.writeString("command=fetch\n");
+		pckOut.writeDelim();
+		pckOut.writeString("want " + second.name() + "\n");
+		pckOut.writeString("deepen 1\n");
+		pckOut.writeString("no-progress\n");
+		pckOut.writeString("done\n");
+		pckOut.end();
+		pckOut.writeString("command=fetch\n");
+		pckOut.writeDelim();
+		pckOut.writeString("want " + second.name() + "\n");
+		pckOut.writeString("no-progress\n");
+		pckOut.writeString("done\n");
+		pckOut.end();
+
+		UploadPack up = new UploadPack(remote.getRepository());
+		up.setExtraParameters(Collections.singleton("version=2"));
+		ByteArrayOutputStream res = new ByteArrayOutputStream();
+		up.upload(new ByteArrayInputStream(req.toByteArray()), res, null);
+
+		InputStream resIn = new ByteArrayInputStream(res.toByteArray());
+		PacketLineIn pckIn = new PacketLineIn(resIn);
+		// Capability advertisement.
+		while (pckIn.readString() != PacketLineIn.END) {
+			// Skip.
+		}
+
+		InMemoryRepository shallow = new InMemoryRepository(
+				new DfsRepositoryDescription("shallow"));
+		assertEquals(Arrays.asList("shallow-info", "shallow " + second.name()),
+				readFetchResponse(resIn, shallow));
+		assertTrue(shallow.hasObject(second));
+		assertFalse(shallow.hasObject(first));
+
+		// The depth of the first fetch does not leak into the second.
+		assertEquals(Collections.emptyList(), readFetchResponse(resIn, client));
+		assertTrue(client.hasObject(second));
+		assertTrue(client.hasObject(first));
+	}
+
+	/**
+	 * Read a protocol v2 fetch response, parsing its pack into a repository.
+	 *
+	 * @return the lines of the sections preceding the pack.
+	 */
+	private static List<String> readFetchResponse(InputStream res,
+			Repository dst) throws Exception {
+		PacketLineIn pckIn = new PacketLineIn(res);
+		List<String> lines = new ArrayList<>();
+		String line;
+		while (!(line = pckIn.readString()).equals("packfile")) {
+			if (line != PacketLineIn.DELIM)
+				lines.add(line);
+		}
+		SideBandInputStream in = new SideBandInputStream(res,
+				NullProgressMonitor.INSTANCE, new StringWriter(), null);
+		try (ObjectInserter ins = dst.newObjectInserter()) {
+			PackParser parser = ins.newPackParser(in);
+			parser.setAllowThin(false);
+			parser.parse(NullProgressMonitor.INSTANCE);
+			ins.flush();
+		}
+		assertEquals(-1, in.read());
+		return lines;
+	}
+
+	private void generateBitmaps() throws Exception {
+		new DfsGarbageCollector(remote.getRepository())
+				.pack(NullProgressMonitor.INSTANCE);
+		remote.getRepository().scanForRepoChanges();
+		try (ObjectReader reader = remote.getRepository().newObjectReader()) {
+			assertNotNull(reader.getBitmapIndex());
+		}
+	}
+
+	private void fetch(ObjectId id) throws Exception {
+		try (Transport tn = Transport.open(client, uri)) {
+			tn.fetchPromisedObjects(NullProgressMonitor.INSTANCE,
+					Collections.singleton(id));
+		}
+	}
+
+	private void assertNotFetchable(ObjectId id) throws Exception {
+		try {
+			fetch(id);
+			fail("fetched " + id.name() + " which is not reachable");
+		} catch (TransportException e) {
+			assertTrue(e.getMessage().contains(
+					"want " + id.name() + " not valid"));
+		}
+		assertFalse(client.hasObject(id));
+	}
+}
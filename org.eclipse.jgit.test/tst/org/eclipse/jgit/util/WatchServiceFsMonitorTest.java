@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.eclipse.jgit.junit.RepositoryTestCase;
+import org.eclipse.jgit.util.FsMonitor.Changes;
+import org.junit.Test;
+
+public class WatchServiceFsMonitorTest extends RepositoryTestCase {
+	@Test
+	public void testChanges() throws Exception {
+		writeTrashFile("a", "a");
+		writeTrashFile("d/b", "b");
+		try (WatchServiceFsMonitor monitor = new WatchServiceFsMonitor(db)) {
+			Changes c = monitor.getChangesSince(null);
+			assertNull(c.getPaths());
+
+			c = monitor.getChangesSince(c.getToken());
+			assertEquals(Collections.emptySet(), c.getPaths());
+
+			writeTrashFile("d/b", "B");
+			c = monitor.getChangesSince(c.getToken());
+			assertEquals(Collections.singleton("d/b"), c.getPaths());
+
+			writeTrashFile("e/f/g", "g");
+			c = monitor.getChangesSince(c.getToken());
+			assertTrue(c.getPaths().contains("e"));
+
+			writeTrashFile("e/f/h", "h");
+			c = monitor.getChangesSince(c.getToken());
+			assertEquals(Collections.singleton("e/f/h"), c.getPaths());
+
+			assertNull(monitor.getChangesSince("unknown:0").getPaths());
+		}
+	}
+}
@@ -152,6 +152,8 @@ public DirCache call() throws GitAPIException, NoFilepatternException {
 			tw.addTree(new DirCacheBuildIterator(builder));
 			if (workingTreeIterator == null)
 				workingTreeIterator = new FileTreeIterator(repo);
+			if (workingTreeIterator instanceof FileTreeIterator)
+				((FileTreeIterator) workingTreeIterator).setFsMonitorIndex(dc);
 			workingTreeIterator.setDirCacheIterator(tw, 0);
 			tw.addTree(workingTreeIterator);
 			if (!addAll)
@@ -203,6 +205,13 @@ public DirCache call() throws GitAPIException, NoFilepatternException {
 					continue;
 				}
 
+				if (entry != null && entry.isFsMonitorValid()) {
+					// The file system monitor saw no change since the entry
+					// was found to match the file.
+					builder.add(entry);
+					continue;
+				}
+
 				if ((f.getEntryRawMode() == TYPE_TREE
 						&& f.getIndexFileMode(c) != FileMode.GITLINK) ||
 						(f.getEntryRawMode() == TYPE_GITLINK
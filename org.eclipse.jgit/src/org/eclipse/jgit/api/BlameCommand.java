@@ -53,6 +53,7 @@
 
 import org.eclipse.jgit.api.errors.GitAPIException;
 import org.eclipse.jgit.api.errors.JGitInternalException;
+import org.eclipse.jgit.blame.BlameCache;
 import org.eclipse.jgit.blame.BlameGenerator;
 import org.eclipse.jgit.blame.BlameResult;
 import org.eclipse.jgit.diff.DiffAlgorithm;
@@ -85,6 +86,8 @@ public class BlameCommand extends GitCommand<BlameResult> {
 
 	private Boolean followFileRenames;
 
+	private BlameCache blameCache;
+
 	/**
 	 * @param repo
 	 */
@@ -154,6 +157,23 @@ public BlameCommand setFollowFileRenames(boolean follow) {
 		return this;
 	}
 
+	/**
+	 * Use a cache of earlier blame results.
+	 * <p>
+	 * The cache must only be shared by commands using the same diff
+	 * algorithm, text comparator and rename following settings.
+	 *
+	 * @param cache
+	 *            the cache, or null to disable caching.
+	 * @return {@code this}
+	 * @see BlameGenerator#setBlameCache(BlameCache)
+	 * @since 4.8
+	 */
+	public BlameCommand setBlameCache(BlameCache cache) {
+		blameCache = cache;
+		return this;
+	}
+
 	/**
 	 * Configure the command to compute reverse blame (history of deletes).
 	 *
@@ -208,6 +228,7 @@ public BlameResult call() throws GitAPIException {
 				gen.setTextComparator(textComparator);
 			if (followFileRenames != null)
 				gen.setFollowFileRenames(followFileRenames.booleanValue());
+			gen.setBlameCache(blameCache);
 
 			if (reverseEndCommits != null)
 				gen.reverse(startCommit, reverseEndCommits);
@@ -57,12 +57,16 @@
 import org.eclipse.jgit.dircache.DirCacheCheckout;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.BranchConfig.BranchRebaseMode;
 import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.RefUpdate;
@@ -71,10 +75,13 @@
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.submodule.SubmoduleWalk;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.FilterSpec;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.RemoteConfig;
 import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
 import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.CanonicalTreeParser;
 
 /**
  * Clone a repository into a new working directory
@@ -106,6 +113,8 @@ public class CloneCommand extends TransportCommand<CloneCommand, Git> {
 
 	private Collection<String> branchesToClone;
 
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
 	/**
 	 * Create clone command with no repository set
 	 */
@@ -200,6 +209,23 @@ private FetchResult fetch(Repository clonedRepo, URIish u)
 
 		config.addFetchRefSpec(refSpec);
 		config.update(clonedRepo.getConfig());
+		if (!filterSpec.isNoOp()) {
+			// Like git clone --filter, tell other implementations that
+			// missing objects are to be found at the promisor remote.
+			clonedRepo.getConfig().setLong(
+					ConfigConstants.CONFIG_CORE_SECTION, null,
+					ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 1);
+			clonedRepo.getConfig().setString(
+					ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+					ConfigConstants.CONFIG_KEY_PARTIAL_CLONE, remote);
+			clonedRepo.getConfig().setBoolean(
+					ConfigConstants.CONFIG_REMOTE_SECTION, remote,
+					ConfigConstants.CONFIG_KEY_PROMISOR, true);
+			clonedRepo.getConfig().setString(
+					ConfigConstants.CONFIG_REMOTE_SECTION, remote,
+					ConfigConstants.CONFIG_KEY_PARTIAL_CLONE_FILTER,
+					filterSpec.filterLine());
+		}
 
 		clonedRepo.getConfig().save();
 
@@ -208,6 +234,7 @@ private FetchResult fetch(Repository clonedRepo, URIish u)
 		command.setRemote(remote);
 		command.setProgressMonitor(monitor);
 		command.setTagOpt(TagOpt.FETCH_TAGS);
+		command.setFilterSpec(filterSpec);
 		configure(command);
 
 		List<RefSpec> specs = calculateRefSpecs(dst);
@@ -268,6 +295,8 @@ private void checkout(Repository clonedRepo, FetchResult result)
 		u.forceUpdate();
 
 		if (!bare) {
+			if (!filterSpec.isNoOp())
+				fetchPromisedObjects(clonedRepo, commit);
 			DirCache dc = clonedRepo.lockDirCache();
 			DirCacheCheckout co = new DirCacheCheckout(clonedRepo, dc,
 					commit.getTree());
@@ -277,6 +306,45 @@ private void checkout(Repository clonedRepo, FetchResult result)
 		}
 	}
 
+	private void fetchPromisedObjects(Repository clonedRepo, RevCommit commit)
+			throws IOException, GitAPIException {
+		List<ObjectId> missing = new ArrayList<>();
+		try (ObjectReader reader = clonedRepo.newObjectReader()) {
+			findMissingObjects(reader, commit.getTree(), missing);
+		}
+		if (missing.isEmpty())
+			return;
+
+		try (Transport transport = Transport.open(clonedRepo, remote)) {
+			configure(transport);
+			transport.fetchPromisedObjects(monitor, missing);
+		} catch (URISyntaxException e) {
+			throw new InvalidRemoteException(MessageFormat.format(
+					JGitText.get().invalidRemote, remote));
+		} catch (TransportException e) {
+			throw new org.eclipse.jgit.api.errors.TransportException(
+					e.getMessage(), e);
+		}
+	}
+
+	private static void findMissingObjects(ObjectReader reader,
+			AnyObjectId treeId, List<ObjectId> missing) throws IOException {
+		if (!reader.has(treeId, Constants.OBJ_TREE)) {
+			// The whole tree is fetched with everything it references.
+			missing.add(treeId.copy());
+			return;
+		}
+		CanonicalTreeParser p = new CanonicalTreeParser(null, reader, treeId);
+		for (; !p.eof(); p.next(1)) {
+			FileMode mode = p.getEntryFileMode();
+			if (mode == FileMode.TREE)
+				findMissingObjects(reader, p.getEntryObjectId(), missing);
+			else if (mode != FileMode.GITLINK
+					&& !reader.has(p.getEntryObjectId(), Constants.OBJ_BLOB))
+				missing.add(p.getEntryObjectId());
+		}
+	}
+
 	private void cloneSubmodules(Repository clonedRepo) throws IOException,
 			GitAPIException {
 		SubmoduleInitCommand init = new SubmoduleInitCommand(clonedRepo);
@@ -523,6 +591,25 @@ public CloneCommand setNoCheckout(boolean noCheckout) {
 		return this;
 	}
 
+	/**
+	 * Make a partial clone, leaving objects matching the filter on the remote.
+	 * <p>
+	 * The remote is recorded as a promisor with the filter as its
+	 * {@code partialclonefilter}, so later fetches apply it too. Objects
+	 * needed to check out the branch are fetched before the checkout, which
+	 * requires the remote to allow requests for unadvertised objects.
+	 *
+	 * @param filterSpec
+	 *            the filter; {@link FilterSpec#NO_FILTER} for a full clone.
+	 * @return {@code this}
+	 * @since 4.8
+	 */
+	public CloneCommand setFilterSpec(FilterSpec filterSpec) {
+		this.filterSpec = filterSpec != null ? filterSpec
+				: FilterSpec.NO_FILTER;
+		return this;
+	}
+
 	private static void validateDirs(File directory, File gitDir, boolean bare)
 			throws IllegalStateException {
 		if (directory != null) {
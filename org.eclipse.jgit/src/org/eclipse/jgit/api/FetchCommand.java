@@ -55,6 +55,7 @@
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.errors.NoRemoteRepositoryException;
 import org.eclipse.jgit.errors.NotSupportedException;
+import org.eclipse.jgit.errors.PackProtocolException;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.ConfigConstants;
@@ -68,6 +69,7 @@
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.submodule.SubmoduleWalk;
 import org.eclipse.jgit.transport.FetchResult;
+import org.eclipse.jgit.transport.FilterSpec;
 import org.eclipse.jgit.transport.RefSpec;
 import org.eclipse.jgit.transport.TagOpt;
 import org.eclipse.jgit.transport.Transport;
@@ -99,6 +101,8 @@ public class FetchCommand extends TransportCommand<FetchCommand, FetchResult> {
 
 	private FetchRecurseSubmodulesMode submoduleRecurseMode = null;
 
+	private FilterSpec filterSpec;
+
 	/**
 	 * @param repo
 	 */
@@ -208,6 +212,7 @@ public FetchResult call() throws GitAPIException, InvalidRemoteException,
 			if (tagOption != null)
 				transport.setTagOpt(tagOption);
 			transport.setFetchThin(thin);
+			transport.setFilterSpec(getEffectiveFilterSpec());
 			configure(transport);
 
 			FetchResult result = transport.fetch(monitor, refSpecs);
@@ -423,6 +428,44 @@ public FetchCommand setThin(boolean thin) {
 		return this;
 	}
 
+	/**
+	 * @return the filter set with {@link #setFilterSpec(FilterSpec)}, or null
+	 *         to use the remote's {@code partialclonefilter}.
+	 * @since 4.8
+	 */
+	public FilterSpec getFilterSpec() {
+		return filterSpec;
+	}
+
+	/**
+	 * Ask the remote to leave some objects out of the fetched pack.
+	 * <p>
+	 * By default the filter recorded in
+	 * {@code remote.<name>.partialclonefilter} is used, so fetches into a
+	 * partial clone stay partial.
+	 *
+	 * @param filterSpec
+	 *            the filter; {@link FilterSpec#NO_FILTER} to fetch all objects,
+	 *            null to use the remote's configuration.
+	 * @return {@code this}
+	 * @since 4.8
+	 */
+	public FetchCommand setFilterSpec(FilterSpec filterSpec) {
+		checkCallable();
+		this.filterSpec = filterSpec;
+		return this;
+	}
+
+	private FilterSpec getEffectiveFilterSpec() throws PackProtocolException {
+		if (filterSpec != null)
+			return filterSpec;
+		String line = repo.getConfig().getString(
+				ConfigConstants.CONFIG_REMOTE_SECTION, remote,
+				ConfigConstants.CONFIG_KEY_PARTIAL_CLONE_FILTER);
+		return line != null ? FilterSpec.fromFilterLine(line)
+				: FilterSpec.NO_FILTER;
+	}
+
 	/**
 	 * Sets the specification of annotated tag behavior during fetch
 	 *
@@ -0,0 +1,311 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.blame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jgit.annotations.Nullable;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * Storage for blame already computed by a {@link BlameGenerator}.
+ * <p>
+ * An entry records, for every line of a file in one commit, the commit, path
+ * and line the line was blamed on. When a generator with a cache reaches a
+ * commit with an entry for the path it is following, it assigns the blame for
+ * the remaining lines from the entry instead of walking further back in
+ * history. Blaming a descendant of a cached commit therefore only needs to
+ * process the commits made since then.
+ * <p>
+ * Entries depend on the diff algorithm, text comparator and rename detection
+ * used to compute them. Generators using different settings should not share
+ * a cache.
+ * <p>
+ * Implementations must be safe for use by multiple threads.
+ *
+ * @since 4.8
+ */
+public abstract class BlameCache {
+	private static final int VERSION = 1;
+
+	/**
+	 * Look up the blame of a file.
+	 *
+	 * @param commit
+	 *            commit the file was blamed in.
+	 * @param path
+	 *            path of the file in {@code commit}.
+	 * @return the stored entry, or null if none is available.
+	 * @throws IOException
+	 *             the cache cannot be read.
+	 */
+	@Nullable
+	public abstract Entry get(AnyObjectId commit, String path)
+			throws IOException;
+
+	/**
+	 * Store the blame of a file.
+	 *
+	 * @param commit
+	 *            commit the file was blamed in.
+	 * @param path
+	 *            path of the file in {@code commit}.
+	 * @param entry
+	 *            blame of every line of the file.
+	 * @throws IOException
+	 *             the cache cannot be written.
+	 */
+	public abstract void put(AnyObjectId commit, String path, Entry entry)
+			throws IOException;
+
+	/** Blame of every line of one file. */
+	public static class Entry {
+		private final List<Segment> segments;
+
+		private final int lineCount;
+
+		/**
+		 * @param segments
+		 *            segments covering every line of the file exactly once,
+		 *            in any order.
+		 * @throws IllegalArgumentException
+		 *             the segments overlap or leave a line uncovered.
+		 */
+		public Entry(List<Segment> segments) {
+			List<Segment> sorted = new ArrayList<>(segments);
+			Collections.sort(sorted, new Comparator<Segment>() {
+				@Override
+				public int compare(Segment a, Segment b) {
+					return Integer.compare(a.resultStart, b.resultStart);
+				}
+			});
+			int line = 0;
+			for (Segment s : sorted) {
+				if (s.resultStart != line)
+					throw new IllegalArgumentException(
+							JGitText.get().blameCacheSegmentsNotContiguous);
+				line += s.length;
+			}
+			this.segments = Collections.unmodifiableList(sorted);
+			this.lineCount = line;
+		}
+
+		/** @return segments of the file, sorted by line. */
+		public List<Segment> getSegments() {
+			return segments;
+		}
+
+		/** @return number of lines in the file. */
+		public int getLineCount() {
+			return lineCount;
+		}
+
+		/**
+		 * Find the segment containing a line.
+		 *
+		 * @param line
+		 *            line number, 0 based.
+		 * @return index of the segment in {@link #getSegments()}.
+		 */
+		int find(int line) {
+			int low = 0;
+			int high = segments.size() - 1;
+			while (low < high) {
+				int mid = (low + high + 1) >>> 1;
+				if (segments.get(mid).resultStart <= line)
+					low = mid;
+				else
+					high = mid - 1;
+			}
+			return low;
+		}
+
+		/**
+		 * @return the entry encoded for storage. The encoding can be read back
+		 *         with {@link #fromByteArray(byte[])}.
+		 */
+		public byte[] toByteArray() {
+			ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			try (DataOutputStream out = new DataOutputStream(buf)) {
+				out.writeInt(VERSION);
+				out.writeInt(segments.size());
+				byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+				for (Segment s : segments) {
+					out.writeInt(s.resultStart);
+					out.writeInt(s.length);
+					out.writeInt(s.sourceStart);
+					s.sourceCommit.copyRawTo(raw, 0);
+					out.write(raw);
+					s.sourceBlob.copyRawTo(raw, 0);
+					out.write(raw);
+					out.writeUTF(s.sourcePath);
+				}
+			} catch (IOException e) {
+				// Cannot happen writing to memory.
+				throw new IllegalStateException(e);
+			}
+			return buf.toByteArray();
+		}
+
+		/**
+		 * Decode an entry written by {@link #toByteArray()}.
+		 *
+		 * @param data
+		 *            encoded entry.
+		 * @return the entry.
+		 * @throws IOException
+		 *             the data is not a valid entry.
+		 */
+		public static Entry fromByteArray(byte[] data) throws IOException {
+			try (DataInputStream in = new DataInputStream(
+					new ByteArrayInputStream(data))) {
+				if (in.readInt() != VERSION)
+					throw new IOException(JGitText.get().blameCacheCorrupt);
+				int cnt = in.readInt();
+				if (cnt < 0)
+					throw new IOException(JGitText.get().blameCacheCorrupt);
+				List<Segment> segments = new ArrayList<>(Math.min(cnt, 1024));
+				byte[] raw = new byte[Constants.OBJECT_ID_LENGTH];
+				for (int i = 0; i < cnt; i++) {
+					int resultStart = in.readInt();
+					int length = in.readInt();
+					int sourceStart = in.readInt();
+					in.readFully(raw);
+					ObjectId commit = ObjectId.fromRaw(raw);
+					in.readFully(raw);
+					ObjectId blob = ObjectId.fromRaw(raw);
+					String path = in.readUTF();
+					if (length <= 0 || sourceStart < 0)
+						throw new IOException(
+								JGitText.get().blameCacheCorrupt);
+					segments.add(new Segment(resultStart, length, commit,
+							path, blob, sourceStart));
+				}
+				return new Entry(segments);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(JGitText.get().blameCacheCorrupt, e);
+			}
+		}
+	}
+
+	/** Consecutive lines of a file blamed on the same source. */
+	public static class Segment {
+		final int resultStart;
+
+		final int length;
+
+		final ObjectId sourceCommit;
+
+		final String sourcePath;
+
+		final ObjectId sourceBlob;
+
+		final int sourceStart;
+
+		/**
+		 * @param resultStart
+		 *            first line of the segment in the cached file, 0 based.
+		 * @param length
+		 *            number of lines in the segment, at least 1.
+		 * @param sourceCommit
+		 *            commit the lines are blamed on.
+		 * @param sourcePath
+		 *            path of the file in {@code sourceCommit}.
+		 * @param sourceBlob
+		 *            blob of the file in {@code sourceCommit}.
+		 * @param sourceStart
+		 *            first line of the segment in the source file, 0 based.
+		 */
+		public Segment(int resultStart, int length, AnyObjectId sourceCommit,
+				String sourcePath, AnyObjectId sourceBlob, int sourceStart) {
+			this.resultStart = resultStart;
+			this.length = length;
+			this.sourceCommit = sourceCommit.copy();
+			this.sourcePath = sourcePath;
+			this.sourceBlob = sourceBlob.copy();
+			this.sourceStart = sourceStart;
+		}
+
+		/** @return first line of the segment in the cached file. */
+		public int getResultStart() {
+			return resultStart;
+		}
+
+		/** @return number of lines in the segment. */
+		public int getLength() {
+			return length;
+		}
+
+		/** @return commit the lines are blamed on. */
+		public ObjectId getSourceCommit() {
+			return sourceCommit;
+		}
+
+		/** @return path of the file in {@link #getSourceCommit()}. */
+		public String getSourcePath() {
+			return sourcePath;
+		}
+
+		/** @return blob of the file in {@link #getSourceCommit()}. */
+		public ObjectId getSourceBlob() {
+			return sourceBlob;
+		}
+
+		/** @return first line of the segment in the source file. */
+		public int getSourceStart() {
+			return sourceStart;
+		}
+	}
+}
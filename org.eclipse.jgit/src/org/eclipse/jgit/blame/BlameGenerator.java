@@ -48,8 +48,12 @@
 import static org.eclipse.jgit.lib.FileMode.TYPE_MASK;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.blame.Candidate.BlobCandidate;
@@ -63,6 +67,7 @@
 import org.eclipse.jgit.diff.RawText;
 import org.eclipse.jgit.diff.RawTextComparator;
 import org.eclipse.jgit.diff.RenameDetector;
+import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.MutableObjectId;
@@ -147,6 +152,15 @@ public class BlameGenerator implements AutoCloseable {
 	private Candidate outCandidate;
 	private Region outRegion;
 
+	/** Cache of earlier results, or null. */
+	private BlameCache blameCache;
+
+	/** Commit whose result will be stored in {@link #blameCache}, or null. */
+	private RevCommit cacheCommit;
+
+	/** Regions produced so far for {@link #cacheCommit}. */
+	private List<BlameCache.Segment> cacheSegments;
+
 	/**
 	 * Create a blame generator for the repository and path (relative to
 	 * repository)
@@ -250,6 +264,28 @@ public RenameDetector getRenameDetector() {
 		return renameDetector;
 	}
 
+	/**
+	 * Use a cache of earlier blame results.
+	 * <p>
+	 * When the traversal reaches a commit the cache holds the file for, the
+	 * remaining lines are blamed as recorded in the cache instead of walking
+	 * further back in history. If a single commit was pushed and the result
+	 * was consumed entirely, the result is added to the cache. Reverse blame
+	 * does not use the cache.
+	 * <p>
+	 * The cache must only be shared by generators using the same diff
+	 * algorithm, text comparator and rename detection settings.
+	 *
+	 * @param cache
+	 *            the cache, or null to disable caching.
+	 * @return {@code this}
+	 * @since 4.8
+	 */
+	public BlameGenerator setBlameCache(@Nullable BlameCache cache) {
+		blameCache = cache;
+		return this;
+	}
+
 	/**
 	 * Push a candidate blob onto the generator's traversal stack.
 	 * <p>
@@ -339,6 +375,11 @@ public BlameGenerator push(String description, AnyObjectId id)
 		c.loadText(reader);
 		c.regionList = new Region(0, 0, c.sourceText.size());
 		remaining = c.sourceText.size();
+		if (queue == null && blameCache != null
+				&& !(revPool instanceof ReverseWalk)) {
+			cacheCommit = commit;
+			cacheSegments = new ArrayList<>();
+		}
 		push(c);
 		return this;
 	}
@@ -494,6 +535,12 @@ public boolean next() throws IOException {
 			if (n == null)
 				return done();
 
+			if (blameCache != null) {
+				Candidate cached = fromCache(n);
+				if (cached != null)
+					return result(cached);
+			}
+
 			int pCnt = n.getParentCount();
 			if (pCnt == 1) {
 				if (processOne(n))
@@ -516,17 +563,130 @@ public boolean next() throws IOException {
 	}
 
 	private boolean done() {
+		if (cacheCommit != null && remaining == 0)
+			storeInCache();
 		close();
 		return false;
 	}
 
 	private boolean result(Candidate n) throws IOException {
 		n.beginResult(revPool);
+		if (n.sourceText == null)
+			n.loadText(reader);
+		if (cacheSegments != null)
+			recordForCache(n);
 		outCandidate = n;
 		outRegion = n.regionList;
 		return true;
 	}
 
+	/**
+	 * Blame the regions of a candidate using the cache.
+	 *
+	 * @param n
+	 *            candidate popped from the queue.
+	 * @return chain of candidates, linked through {@link Candidate#queueNext},
+	 *         holding the blame of all regions of {@code n}; or null if the
+	 *         cache has no usable entry.
+	 * @throws IOException
+	 *             the cache or the repository cannot be read.
+	 */
+	private Candidate fromCache(Candidate n) throws IOException {
+		if (n instanceof BlobCandidate || n instanceof ReverseCandidate
+				|| n.sourceCommit == null || n.regionList == null)
+			return null;
+
+		String path = n.sourcePath.getPath();
+		BlameCache.Entry e = blameCache.get(n.sourceCommit, path);
+		if (e == null || n.sourceText == null
+				|| e.getLineCount() != n.sourceText.size())
+			return null;
+
+		Map<String, Candidate> bySource = new LinkedHashMap<>();
+		Map<Candidate, Region> tails = new LinkedHashMap<>();
+		List<BlameCache.Segment> segments = e.getSegments();
+		try {
+			for (Region r = n.regionList; r != null; r = r.next) {
+				int line = r.sourceStart;
+				int end = r.sourceStart + r.length;
+				for (int i = e.find(line); line < end; i++) {
+					BlameCache.Segment s = segments.get(i);
+					int len = Math.min(end, s.resultStart + s.length) - line;
+					int resultStart = r.resultStart + (line - r.sourceStart);
+					int sourceStart = s.sourceStart + (line - s.resultStart);
+
+					String key = s.sourceCommit.name() + ' ' + s.sourcePath;
+					Candidate c = bySource.get(key);
+					if (c == null) {
+						c = new Candidate(revPool.parseCommit(s.sourceCommit),
+								PathFilter.create(s.sourcePath));
+						c.sourceBlob = s.sourceBlob;
+						bySource.put(key, c);
+					}
+					Region tail = tails.get(c);
+					if (tail != null
+							&& tail.resultStart + tail.length == resultStart
+							&& tail.sourceStart + tail.length == sourceStart) {
+						tail.length += len;
+					} else {
+						Region q = new Region(resultStart, sourceStart, len);
+						if (tail == null)
+							c.regionList = q;
+						else
+							tail.next = q;
+						tails.put(c, q);
+					}
+					line += len;
+				}
+			}
+		} catch (MissingObjectException notInRepository) {
+			// The entry names commits this repository does not have.
+			return null;
+		}
+
+		if (n.sourceCommit == cacheCommit && path.equals(getResultPath())) {
+			// The result itself comes from the cache.
+			cacheCommit = null;
+			cacheSegments = null;
+		}
+		n.regionList = null;
+
+		Candidate head = null;
+		Candidate prev = null;
+		for (Candidate c : bySource.values()) {
+			if (prev == null)
+				head = c;
+			else
+				prev.queueNext = c;
+			prev = c;
+		}
+		return head;
+	}
+
+	private void recordForCache(Candidate n) {
+		if (n.sourceCommit == null || n.sourceBlob == null) {
+			cacheCommit = null;
+			cacheSegments = null;
+			return;
+		}
+		for (Region r = n.regionList; r != null; r = r.next)
+			cacheSegments.add(new BlameCache.Segment(r.resultStart, r.length,
+					n.sourceCommit, n.sourcePath.getPath(), n.sourceBlob,
+					r.sourceStart));
+	}
+
+	private void storeInCache() {
+		try {
+			blameCache.put(cacheCommit, resultPath.getPath(),
+					new BlameCache.Entry(cacheSegments));
+		} catch (IOException | IllegalArgumentException err) {
+			// The cache is only an optimization; the result is still valid.
+		} finally {
+			cacheCommit = null;
+			cacheSegments = null;
+		}
+	}
+
 	private boolean reverseResult(Candidate parent, Candidate source)
 			throws IOException {
 		// On a reverse blame present the application the parent
@@ -547,6 +707,10 @@ private Candidate pop() {
 	}
 
 	private void push(BlobCandidate toInsert) {
+		// The result no longer describes a commit.
+		cacheCommit = null;
+		cacheSegments = null;
+
 		Candidate c = queue;
 		if (c != null) {
 			c.remove(SEEN); // will be pushed by toInsert
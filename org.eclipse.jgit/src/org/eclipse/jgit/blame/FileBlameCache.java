@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.blame;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.jgit.internal.storage.file.LockFile;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.IO;
+
+/**
+ * Blame cache storing one file per entry in a directory.
+ * <p>
+ * Entries are spread over 256 subdirectories by their commit, like loose
+ * objects, and named by the rest of the commit and the SHA-1 of the path.
+ * Every entry stays valid for as long as its commit exists, so the directory
+ * may be deleted at any time to reclaim space.
+ * <p>
+ * Reading an entry marks it as used. {@link #prune(ObjectReader)}, run by
+ * garbage collection, removes the entries of commits that no longer exist and
+ * then the least recently used entries until the cache fits in
+ * {@link #getMaxSize()}.
+ *
+ * @since 4.8
+ */
+public class FileBlameCache extends BlameCache {
+	/** Default limit for the total size of the entries, 64 MiB. */
+	public static final long DEFAULT_MAX_SIZE = 64 << 20;
+
+	private static final int NAME_LENGTH = 2 * Constants.OBJECT_ID_STRING_LENGTH
+			- 1;
+
+	private final File directory;
+
+	private long maxSize = DEFAULT_MAX_SIZE;
+
+	/**
+	 * Create a cache in the {@code blame-cache} directory of a repository.
+	 *
+	 * @param repo
+	 *            the repository.
+	 */
+	public FileBlameCache(Repository repo) {
+		this(new File(repo.getDirectory(), Constants.BLAME_CACHE));
+	}
+
+	/**
+	 * Create a cache in a directory.
+	 *
+	 * @param directory
+	 *            directory to store entries in. It is created when the first
+	 *            entry is stored.
+	 */
+	public FileBlameCache(File directory) {
+		this.directory = directory;
+	}
+
+	/** @return directory holding the entries. */
+	public File getDirectory() {
+		return directory;
+	}
+
+	/** @return limit for the total size of the entries, in bytes. */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @param maxSize
+	 *            limit for the total size of the entries, in bytes, enforced
+	 *            by {@link #prune(ObjectReader)}.
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	@Override
+	public Entry get(AnyObjectId commit, String path) throws IOException {
+		File f = fileFor(commit, path);
+		byte[] data;
+		try {
+			data = IO.readFully(f);
+		} catch (FileNotFoundException notFound) {
+			return null;
+		}
+		// Keep the entry from being evicted as least recently used.
+		f.setLastModified(System.currentTimeMillis());
+		try {
+			return Entry.fromByteArray(data);
+		} catch (IOException corrupt) {
+			// Drop the damaged entry; it will be computed and stored again.
+			FileUtils.delete(f, FileUtils.SKIP_MISSING);
+			return null;
+		}
+	}
+
+	@Override
+	public void put(AnyObjectId commit, String path, Entry entry)
+			throws IOException {
+		File f = fileFor(commit, path);
+		FileUtils.mkdirs(f.getParentFile(), true);
+		LockFile lck = new LockFile(f);
+		if (!lck.lock()) {
+			// Another writer is storing the same entry.
+			return;
+		}
+		try {
+			lck.write(entry.toByteArray());
+			lck.commit();
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	/**
+	 * Remove entries that are no longer useful.
+	 * <p>
+	 * Entries whose commit is missing from the repository are removed first.
+	 * Files not named like an entry are left alone.
+	 * As an existing commit keeps its history, the commits and blobs the
+	 * remaining entries refer to exist too. If the remaining entries are
+	 * larger than {@link #getMaxSize()} the least recently used ones are
+	 * removed until they fit.
+	 *
+	 * @param reader
+	 *            reader of the repository the entries were computed in.
+	 * @throws IOException
+	 *             the cache directory cannot be read, or an entry cannot be
+	 *             removed.
+	 */
+	public void prune(ObjectReader reader) throws IOException {
+		File[] dirs = directory.listFiles();
+		if (dirs == null)
+			return;
+		List<File> kept = new ArrayList<>();
+		long size = 0;
+		for (File dir : dirs) {
+			File[] files = dir.listFiles();
+			if (files == null)
+				continue;
+			for (File f : files) {
+				String name = f.getName();
+				if (name.endsWith(".lock")) //$NON-NLS-1$
+					continue; // Being written.
+				ObjectId commit = commitOf(dir.getName(), name);
+				if (commit == null)
+					continue; // Not an entry.
+				if (!reader.has(commit)) {
+					FileUtils.delete(f, FileUtils.SKIP_MISSING);
+					continue;
+				}
+				kept.add(f);
+				size += f.length();
+			}
+			FileUtils.delete(dir,
+					FileUtils.SKIP_MISSING | FileUtils.IGNORE_ERRORS);
+		}
+		if (size <= maxSize)
+			return;
+
+		final long[] used = new long[kept.size()];
+		for (int i = 0; i < used.length; i++)
+			used[i] = kept.get(i).lastModified();
+		List<Integer> order = new ArrayList<>(used.length);
+		for (int i = 0; i < used.length; i++)
+			order.add(Integer.valueOf(i));
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(used[a.intValue()], used[b.intValue()]);
+			}
+		});
+		for (Integer i : order) {
+			if (size <= maxSize)
+				break;
+			File f = kept.get(i.intValue());
+			size -= f.length();
+			FileUtils.delete(f, FileUtils.SKIP_MISSING);
+		}
+	}
+
+	private static ObjectId commitOf(String dir, String name) {
+		int sep = Constants.OBJECT_ID_STRING_LENGTH - 2;
+		if (dir.length() != 2 || name.length() != NAME_LENGTH
+				|| name.charAt(sep) != '-')
+			return null;
+		String id = dir + name.substring(0, sep);
+		return ObjectId.isId(id) ? ObjectId.fromString(id) : null;
+	}
+
+	private File fileFor(AnyObjectId commit, String path) {
+		String c = commit.name();
+		String p = ObjectId.fromRaw(Constants.newMessageDigest()
+				.digest(Constants.encode(path))).name();
+		return new File(new File(directory, c.substring(0, 2)),
+				c.substring(2) + '-' + p);
+	}
+}
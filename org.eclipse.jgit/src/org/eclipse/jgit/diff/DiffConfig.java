@@ -79,6 +79,8 @@ public static enum RenameDetectionType {
 
 	private final int renameLimit;
 
+	private final boolean approximateRenames;
+
 	private DiffConfig(final Config rc) {
 		noPrefix = rc.getBoolean(ConfigConstants.CONFIG_DIFF_SECTION,
 				ConfigConstants.CONFIG_KEY_NOPREFIX, false);
@@ -86,6 +88,8 @@ private DiffConfig(final Config rc) {
 				ConfigConstants.CONFIG_DIFF_SECTION, null, ConfigConstants.CONFIG_KEY_RENAMES));
 		renameLimit = rc.getInt(ConfigConstants.CONFIG_DIFF_SECTION,
 				ConfigConstants.CONFIG_KEY_RENAMELIMIT, 200);
+		approximateRenames = rc.getBoolean(ConfigConstants.CONFIG_DIFF_SECTION,
+				ConfigConstants.CONFIG_KEY_APPROXIMATE_RENAMES, false);
 	}
 
 	/** @return true if the prefix "a/" and "b/" should be suppressed. */
@@ -108,6 +112,15 @@ public int getRenameLimit() {
 		return renameLimit;
 	}
 
+	/**
+	 * @return true if inexact rename detection over the rename limit should
+	 *         only score likely similar pairs instead of being skipped.
+	 * @since 4.8
+	 */
+	public boolean isApproximateRenames() {
+		return approximateRenames;
+	}
+
 	private static RenameDetectionType parseRenameDetectionType(
 			final String renameString) {
 		if (renameString == null)
@@ -130,6 +130,9 @@ private int sortOf(ChangeType changeType) {
 	/** Set if the number of adds or deletes was over the limit. */
 	private boolean overRenameLimit;
 
+	/** Score likely pairs instead of giving up over the rename limit. */
+	private boolean approximateRenames;
+
 	/**
 	 * Create a new rename detector for the given repository
 	 *
@@ -152,6 +155,7 @@ public RenameDetector(Repository repo) {
 	public RenameDetector(ObjectReader reader, DiffConfig cfg) {
 		objectReader = reader.newReader();
 		renameLimit = cfg.getRenameLimit();
+		approximateRenames = cfg.isApproximateRenames();
 		reset();
 	}
 
@@ -226,6 +230,33 @@ public void setRenameLimit(int limit) {
 		renameLimit = limit;
 	}
 
+	/**
+	 * @return true if inexact rename detection continues over the rename limit
+	 *         by scoring only likely similar pairs.
+	 * @since 4.8
+	 */
+	public boolean isApproximateRenames() {
+		return approximateRenames;
+	}
+
+	/**
+	 * Enable approximate rename detection over the rename limit.
+	 * <p>
+	 * When enabled and more files than the rename limit were added or
+	 * deleted, a MinHash signature is computed for every file and pairs are
+	 * only scored if their signatures suggest they share a significant part
+	 * of their content. Scoring is spread over multiple threads. This scales
+	 * to many thousands of paths, but may miss renames of files which were
+	 * modified heavily. Below the rename limit every pair is still scored.
+	 *
+	 * @param approximate
+	 *            true to use approximate detection over the rename limit.
+	 * @since 4.8
+	 */
+	public void setApproximateRenames(boolean approximate) {
+		approximateRenames = approximate;
+	}
+
 	/**
 	 * Check if the detector is over the rename limit.
 	 * <p>
@@ -240,7 +271,8 @@ public boolean isOverRenameLimit() {
 		if (done)
 			return overRenameLimit;
 		int cnt = Math.max(added.size(), deleted.size());
-		return getRenameLimit() != 0 && getRenameLimit() < cnt;
+		return !approximateRenames && getRenameLimit() != 0
+				&& getRenameLimit() < cnt;
 	}
 
 	/**
@@ -484,11 +516,13 @@ private void findContentRenames(ContentSource.Pair reader,
 			ProgressMonitor pm)
 			throws IOException {
 		int cnt = Math.max(added.size(), deleted.size());
-		if (getRenameLimit() == 0 || cnt <= getRenameLimit()) {
+		boolean overLimit = getRenameLimit() != 0 && getRenameLimit() < cnt;
+		if (!overLimit || approximateRenames) {
 			SimilarityRenameDetector d;
 
 			d = new SimilarityRenameDetector(reader, deleted, added);
 			d.setRenameScore(getRenameScore());
+			d.setUseCandidateIndex(overLimit);
 			d.compute(pm);
 			overRenameLimit |= d.isTableOverflow();
 			deleted = d.getLeftOverSources();
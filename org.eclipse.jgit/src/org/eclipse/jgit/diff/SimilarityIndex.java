@@ -313,6 +313,43 @@ private static long common(long[] srcHash, int srcIdx, //
 		return common;
 	}
 
+	/**
+	 * Compute a MinHash signature of the distinct regions in this index.
+	 * <p>
+	 * Each element of the signature is the minimum of one hash function over
+	 * all keys in the index. The chance that two signatures agree at a given
+	 * position equals the Jaccard similarity of the two sets of regions,
+	 * allowing likely similar files to be found without scoring every pair.
+	 * The index must be sorted.
+	 *
+	 * @param n
+	 *            number of hash functions to apply.
+	 * @return the signature, {@code n} values long.
+	 */
+	int[] minHash(int n) {
+		int[] sig = new int[n];
+		Arrays.fill(sig, Integer.MAX_VALUE);
+		for (int i = packedIndex(0); i < idHash.length; i++) {
+			int key = keyOf(idHash[i]);
+			for (int j = 0; j < n; j++) {
+				int h = mix(key ^ (j * 0x9e3779b9));
+				if (h < sig[j])
+					sig[j] = h;
+			}
+		}
+		return sig;
+	}
+
+	private static int mix(int h) {
+		// Finalizer of MurmurHash3, spreading every input bit.
+		h ^= h >>> 16;
+		h *= 0x85ebca6b;
+		h ^= h >>> 13;
+		h *= 0xc2b2ae35;
+		h ^= h >>> 16;
+		return h;
+	}
+
 	// Testing only
 	int size() {
 		return idSize;
@@ -47,17 +47,29 @@
 import static org.eclipse.jgit.diff.DiffEntry.Side.OLD;
 
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.eclipse.jgit.diff.DiffEntry.ChangeType;
 import org.eclipse.jgit.diff.SimilarityIndex.TableFullException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.WorkerPool;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.LongList;
 
 class SimilarityRenameDetector {
 	/**
@@ -74,6 +86,20 @@ class SimilarityRenameDetector {
 
 	private static final int SCORE_SHIFT = 2 * BITS_PER_INDEX;
 
+	/**
+	 * Number of bands in the locality sensitive hashing candidate index.
+	 * <p>
+	 * Two files become candidates if their MinHash signatures agree on all
+	 * rows of at least one band. With 32 bands of 2 rows a pair sharing 43%
+	 * of their distinct lines (a typical 60% similar pair) is found with a
+	 * probability over 99.8%, while a pair sharing 10% of their lines is
+	 * scored with a probability of only 28%.
+	 */
+	private static final int LSH_BANDS = 32;
+
+	/** Number of MinHash values combined into one band. */
+	private static final int LSH_ROWS = 2;
+
 	private ContentSource.Pair reader;
 
 	/**
@@ -115,6 +141,12 @@ class SimilarityRenameDetector {
 	/** Set if any {@link SimilarityIndex.TableFullException} occurs. */
 	private boolean tableOverflow;
 
+	/** Only score pairs found through the MinHash candidate index. */
+	private boolean useCandidateIndex;
+
+	/** Number of threads scoring candidate pairs. */
+	private int threads = Runtime.getRuntime().availableProcessors();
+
 	private List<DiffEntry> out;
 
 	SimilarityRenameDetector(ContentSource.Pair reader, List<DiffEntry> srcs,
@@ -128,14 +160,28 @@ void setRenameScore(int score) {
 		renameScore = score;
 	}
 
+	void setUseCandidateIndex(boolean use) {
+		useCandidateIndex = use;
+	}
+
+	void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 	void compute(ProgressMonitor pm) throws IOException {
 		if (pm == null)
 			pm = NullProgressMonitor.INSTANCE;
 
-		pm.beginTask(JGitText.get().renamesFindingByContent, //
-				2 * srcs.size() * dsts.size());
-
-		int mNext = buildMatrix(pm);
+		int mNext;
+		if (useCandidateIndex) {
+			pm.beginTask(JGitText.get().renamesFindingByContent,
+					ProgressMonitor.UNKNOWN);
+			mNext = buildCandidateMatrix(pm);
+		} else {
+			pm.beginTask(JGitText.get().renamesFindingByContent, //
+					2 * srcs.size() * dsts.size());
+			mNext = buildMatrix(pm);
+		}
 		out = new ArrayList<>(Math.min(mNext, dsts.size()));
 
 		// Match rename pairs on a first come, first serve basis until
@@ -292,15 +338,7 @@ private int buildMatrix(ProgressMonitor pm) throws IOException {
 					continue;
 				}
 
-				int contentScore = s.score(d, 10000);
-
-				// nameScore returns a value between 0 and 100, but we want it
-				// to be in the same range as the content score. This allows it
-				// to be dropped into the pretty formula for the final score.
-				int nameScore = nameScore(srcEnt.oldPath, dstEnt.newPath) * 100;
-
-				int score = (contentScore * 99 + nameScore * 1) / 10000;
-
+				int score = pairScore(s, d, srcEnt, dstEnt);
 				if (score < renameScore) {
 					pm.update(1);
 					continue;
@@ -319,6 +357,199 @@ private int buildMatrix(ProgressMonitor pm) throws IOException {
 		return mNext;
 	}
 
+	/**
+	 * Fill the matrix with pairs found through a MinHash candidate index.
+	 * <p>
+	 * Every file is hashed exactly once by the calling thread, as the content
+	 * source may not be used concurrently. Sources are added to a locality
+	 * sensitive hash table keyed by bands of their signature; each
+	 * destination is then only scored against the sources sharing a band.
+	 * Scoring runs on the shared {@link WorkerPool} while the next destination
+	 * is hashed. At most two scoring tasks per thread are queued, so only as
+	 * many destination indexes are kept alive at once.
+	 *
+	 * @param pm
+	 *            progress monitor, updated once per file.
+	 * @return number of populated entries at the start of {@link #matrix}.
+	 * @throws IOException
+	 *             a file could not be read.
+	 */
+	private int buildCandidateMatrix(ProgressMonitor pm) throws IOException {
+		SimilarityIndex[] srcIdx = new SimilarityIndex[srcs.size()];
+		long[] srcSizes = new long[srcs.size()];
+		List<HashMap<Long, IntList>> bands = new ArrayList<>(LSH_BANDS);
+		for (int b = 0; b < LSH_BANDS; b++)
+			bands.add(new HashMap<Long, IntList>());
+
+		for (int i = 0; i < srcs.size(); i++) {
+			DiffEntry srcEnt = srcs.get(i);
+			pm.update(1);
+			if (!isFile(srcEnt.oldMode))
+				continue;
+			SimilarityIndex s;
+			try {
+				s = hash(OLD, srcEnt);
+			} catch (TableFullException tableFull) {
+				tableOverflow = true;
+				continue;
+			}
+			srcIdx[i] = s;
+			srcSizes[i] = size(OLD, srcEnt) + 1;
+			int[] sig = s.minHash(LSH_BANDS * LSH_ROWS);
+			for (int b = 0; b < LSH_BANDS; b++) {
+				Long key = Long.valueOf(bandKey(sig, b));
+				IntList list = bands.get(b).get(key);
+				if (list == null) {
+					list = new IntList(4);
+					bands.get(b).put(key, list);
+				}
+				list.add(i);
+			}
+		}
+
+		ExecutorService pool = threads > 1 ? WorkerPool.get() : null;
+		int maxPending = 2 * threads;
+		Deque<Future<LongList>> futures = new ArrayDeque<>(maxPending);
+		try {
+			List<LongList> results = new ArrayList<>();
+			int[] seen = new int[srcs.size()];
+			Arrays.fill(seen, -1);
+			for (int dstIdx = 0; dstIdx < dsts.size(); dstIdx++) {
+				DiffEntry dstEnt = dsts.get(dstIdx);
+				pm.update(1);
+				if (!isFile(dstEnt.newMode))
+					continue;
+				SimilarityIndex d;
+				try {
+					d = hash(NEW, dstEnt);
+				} catch (TableFullException tableFull) {
+					tableOverflow = true;
+					continue;
+				}
+				long dstSize = size(NEW, dstEnt) + 1;
+
+				int[] sig = d.minHash(LSH_BANDS * LSH_ROWS);
+				IntList candidates = new IntList();
+				for (int b = 0; b < LSH_BANDS; b++) {
+					IntList list = bands.get(b)
+							.get(Long.valueOf(bandKey(sig, b)));
+					if (list == null)
+						continue;
+					for (int j = 0; j < list.size(); j++) {
+						int si = list.get(j);
+						if (seen[si] == dstIdx)
+							continue;
+						seen[si] = dstIdx;
+
+						DiffEntry srcEnt = srcs.get(si);
+						if (!RenameDetector.sameType(srcEnt.oldMode,
+								dstEnt.newMode))
+							continue;
+						long srcSize = srcSizes[si];
+						long max = Math.max(srcSize, dstSize);
+						long min = Math.min(srcSize, dstSize);
+						if (min * 100 / max < renameScore)
+							continue;
+						candidates.add(si);
+					}
+				}
+				if (candidates.size() == 0)
+					continue;
+
+				ScoreTask task = new ScoreTask(srcIdx, d, candidates, dstIdx);
+				if (pool != null) {
+					if (futures.size() == maxPending)
+						results.add(get(futures.removeFirst()));
+					futures.addLast(pool.submit(task));
+				} else
+					results.add(task.call());
+			}
+
+			while (!futures.isEmpty())
+				results.add(get(futures.removeFirst()));
+
+			int cnt = 0;
+			for (LongList r : results)
+				cnt += r.size();
+			matrix = new long[cnt];
+			int mNext = 0;
+			for (LongList r : results)
+				for (int i = 0; i < r.size(); i++)
+					matrix[mNext++] = r.get(i);
+			Arrays.sort(matrix, 0, mNext);
+			return mNext;
+		} finally {
+			for (Future<LongList> f : futures)
+				f.cancel(true);
+		}
+	}
+
+	private static long bandKey(int[] sig, int band) {
+		int i = band * LSH_ROWS;
+		return (((long) sig[i]) << 32) | (sig[i + 1] & 0xffffffffL);
+	}
+
+	private static LongList get(Future<LongList> f) throws IOException {
+		try {
+			return f.get();
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException(MessageFormat.format(
+					JGitText.get().operationCanceled,
+					JGitText.get().renamesFindingByContent));
+		} catch (ExecutionException failed) {
+			Throwable err = failed.getCause();
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			throw new IOException(err.getMessage(), err);
+		}
+	}
+
+	/** Scores one destination against its candidate sources. */
+	private class ScoreTask implements Callable<LongList> {
+		private final SimilarityIndex[] srcIdx;
+
+		private final SimilarityIndex dst;
+
+		private final IntList candidates;
+
+		private final int dstIdx;
+
+		ScoreTask(SimilarityIndex[] srcIdx, SimilarityIndex dst,
+				IntList candidates, int dstIdx) {
+			this.srcIdx = srcIdx;
+			this.dst = dst;
+			this.candidates = candidates;
+			this.dstIdx = dstIdx;
+		}
+
+		@Override
+		public LongList call() {
+			DiffEntry dstEnt = dsts.get(dstIdx);
+			LongList r = new LongList(candidates.size());
+			for (int i = 0; i < candidates.size(); i++) {
+				int s = candidates.get(i);
+				int score = pairScore(srcIdx[s], dst, srcs.get(s), dstEnt);
+				if (renameScore <= score)
+					r.add(encode(score, s, dstIdx));
+			}
+			return r;
+		}
+	}
+
+	private static int pairScore(SimilarityIndex s, SimilarityIndex d,
+			DiffEntry srcEnt, DiffEntry dstEnt) {
+		int contentScore = s.score(d, 10000);
+
+		// nameScore returns a value between 0 and 100, but we want it
+		// to be in the same range as the content score. This allows it
+		// to be dropped into the pretty formula for the final score.
+		int nameScore = nameScore(srcEnt.oldPath, dstEnt.newPath) * 100;
+
+		return (contentScore * 99 + nameScore * 1) / 10000;
+	}
+
 	static int nameScore(String a, String b) {
 	    int aDirLen = a.lastIndexOf("/") + 1; //$NON-NLS-1$
 	    int bDirLen = b.lastIndexOf("/") + 1; //$NON-NLS-1$
@@ -45,22 +45,31 @@
 
 package org.eclipse.jgit.dircache;
 
-import java.io.BufferedInputStream;
 import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.text.MessageFormat;
+import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
 
 import org.eclipse.jgit.errors.CorruptObjectException;
@@ -73,7 +82,10 @@
 import org.eclipse.jgit.internal.storage.file.FileSnapshot;
 import org.eclipse.jgit.internal.storage.file.LockFile;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Config;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ObjectReader;
@@ -83,11 +95,17 @@
 import org.eclipse.jgit.treewalk.TreeWalk.OperationType;
 import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
 import org.eclipse.jgit.util.FS;
-import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.FsMonitor;
+import org.eclipse.jgit.util.GitDateParser;
 import org.eclipse.jgit.util.MutableInteger;
 import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.jgit.util.SystemReader;
 import org.eclipse.jgit.util.TemporaryBuffer;
 
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
 /**
  * Support for the Git dircache (aka index file).
  * <p>
@@ -106,10 +124,66 @@ public class DirCache {
 
 	private static final int EXT_TREE = 0x54524545 /* 'TREE' */;
 
+	private static final int EXT_LINK = 0x6c696e6b /* 'link' */;
+
+	private static final int EXT_UNTR = 0x554e5452 /* 'UNTR' */;
+
+	private static final int EXT_FSMN = 0x46534d4e /* 'FSMN' */;
+
+	private static final int DEFAULT_MAX_PERCENT_CHANGE = 20;
+
+	private static final String DEFAULT_SHARED_INDEX_EXPIRE = "2.weeks.ago"; //$NON-NLS-1$
+
 	private static final DirCacheEntry[] NO_ENTRIES = {};
 
 	private static final byte[] NO_CHECKSUM = {};
 
+	/**
+	 * On-disk format version of the index file.
+	 *
+	 * @since 4.8
+	 */
+	public enum DirCacheVersion {
+		/** Minimum index version; entries cannot carry extended flags. */
+		DIRC_VERSION_MINIMUM(2),
+
+		/** Version 3 adds extended flags to entries that need them. */
+		DIRC_VERSION_EXTENDED(3),
+
+		/**
+		 * Version 4 stores each path relative to the path of the previous
+		 * entry and drops the record padding of earlier versions.
+		 */
+		DIRC_VERSION_PATHCOMPRESS(4);
+
+		private final int version;
+
+		private DirCacheVersion(int version) {
+			this.version = version;
+		}
+
+		/** @return the version number recorded in the index file header. */
+		public int getVersionCode() {
+			return version;
+		}
+
+		/**
+		 * Look up the version for a header version number.
+		 *
+		 * @param val
+		 *            version number from an index file header or from the
+		 *            {@code index.version} configuration.
+		 * @return the version; null if {@code val} is not a known version.
+		 */
+		public static DirCacheVersion fromInt(int val) {
+			for (DirCacheVersion v : values()) {
+				if (v.version == val)
+					return v;
+			}
+			return null;
+		}
+	}
+
 	static final Comparator<DirCacheEntry> ENT_CMP = new Comparator<DirCacheEntry>() {
 		@Override
 		public int compare(final DirCacheEntry o1, final DirCacheEntry o2) {
@@ -192,6 +266,7 @@ public static DirCache read(final Repository repository)
 			throws CorruptObjectException, IOException {
 		final DirCache c = read(repository.getIndexFile(), repository.getFS());
 		c.repository = repository;
+		c.refreshFsMonitor();
 		return c;
 	}
 
@@ -294,6 +369,12 @@ public static DirCache lock(final Repository repository,
 		DirCache c = lock(repository.getIndexFile(), repository.getFS(),
 				indexChangedListener);
 		c.repository = repository;
+		try {
+			c.refreshFsMonitor();
+		} catch (IOException e) {
+			c.unlock();
+			throw e;
+		}
 		return c;
 	}
 
@@ -360,6 +441,21 @@ public static DirCache lock(final File indexLocation, final FS fs,
 	/** Repository containing this index */
 	private Repository repository;
 
+	/** Format version read from disk or requested by the application. */
+	private DirCacheVersion version;
+
+	/** Shared base of this index; null if the index is not split. */
+	private SplitIndex splitIndex;
+
+	/** Untracked cache recorded by JGit; null if there is none. */
+	private UntrackedCache untrackedCache;
+
+	/** Token of the last file system monitor query; null if not monitored. */
+	private String fsMonitorToken;
+
+	/** Entries read from disk which are not trusted by the monitor. */
+	private EWAHCompressedBitmap fsMonitorDirty;
+
 	/**
 	 * Create a new in-core index representation.
 	 * <p>
@@ -427,18 +523,11 @@ public void read() throws IOException, CorruptObjectException {
 		if (!liveFile.exists())
 			clear();
 		else if (snapshot == null || snapshot.isModified(liveFile)) {
-			try {
-				final FileInputStream inStream = new FileInputStream(liveFile);
-				try {
-					clear();
-					readFrom(inStream);
-				} finally {
-					try {
-						inStream.close();
-					} catch (IOException err2) {
-						// Ignore any close failures.
-					}
-				}
+			try (FileInputStream inStream = new FileInputStream(liveFile);
+					FileChannel channel = inStream.getChannel()) {
+				clear();
+				readFrom(map(channel));
+				smudgeRacilyClean();
 			} catch (FileNotFoundException fnfe) {
 				if (liveFile.exists()) {
 					// Panic: the index file exists but we can't read it
@@ -453,6 +542,81 @@ else if (snapshot == null || snapshot.isModified(liveFile)) {
 			}
 			snapshot = FileSnapshot.save(liveFile);
 		}
+		if (repository != null)
+			refreshFsMonitor();
+	}
+
+	/**
+	 * Ask the repository's file system monitor which paths changed since the
+	 * last query, and update which entries can be trusted without looking at
+	 * the working tree.
+	 */
+	private void refreshFsMonitor() throws IOException {
+		final FsMonitor monitor = repository.getFsMonitor();
+		final String token = fsMonitorToken;
+		final EWAHCompressedBitmap dirty = fsMonitorDirty;
+		fsMonitorToken = null;
+		fsMonitorDirty = null;
+		if (monitor == null) {
+			// Without a monitor nothing tells us when entries go stale.
+			for (int i = 0; i < entryCnt; i++)
+				sortedEntries[i].setFsMonitorValid(false);
+			return;
+		}
+
+		final FsMonitor.Changes changes = monitor.getChangesSince(token);
+		if (token == null || changes.getPaths() == null) {
+			for (int i = 0; i < entryCnt; i++)
+				sortedEntries[i].setFsMonitorValid(false);
+		} else {
+			if (dirty != null) {
+				for (int i = 0; i < entryCnt; i++) {
+					final DirCacheEntry e = sortedEntries[i];
+					e.setFsMonitorValid(!dirty.get(i) && isMonitored(e));
+				}
+			}
+			for (String path : changes.getPaths())
+				invalidateFsMonitor(path);
+		}
+		fsMonitorToken = changes.getToken();
+	}
+
+	private static boolean isMonitored(DirCacheEntry e) {
+		if (e.getStage() != 0)
+			return false;
+		final int mode = e.getRawMode();
+		return FileMode.REGULAR_FILE.equals(mode)
+				|| FileMode.EXECUTABLE_FILE.equals(mode)
+				|| FileMode.SYMLINK.equals(mode);
+	}
+
+	private void invalidateFsMonitor(String path) {
+		if (path.length() == 0) {
+			for (int i = 0; i < entryCnt; i++)
+				sortedEntries[i].setFsMonitorValid(false);
+			return;
+		}
+		final byte[] file = Constants.encode(path);
+		int i = findEntry(file, file.length);
+		for (i = i < 0 ? -(i + 1) : i; i < entryCnt
+				&& Arrays.equals(file, sortedEntries[i].path); i++)
+			sortedEntries[i].setFsMonitorValid(false);
+
+		final byte[] dir = Constants.encode(path + '/');
+		i = findEntry(dir, dir.length);
+		for (i = i < 0 ? -(i + 1) : i; i < entryCnt
+				&& isPrefix(dir, sortedEntries[i].path); i++)
+			sortedEntries[i].setFsMonitorValid(false);
+	}
+
+	private static boolean isPrefix(byte[] prefix, byte[] path) {
+		if (path.length < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++) {
+			if (prefix[i] != path[i])
+				return false;
+		}
+		return true;
 	}
 
 	/**
@@ -471,61 +635,105 @@ public void clear() {
 		sortedEntries = NO_ENTRIES;
 		entryCnt = 0;
 		tree = null;
+		splitIndex = null;
+		untrackedCache = null;
+		fsMonitorToken = null;
+		fsMonitorDirty = null;
 		readIndexChecksum = NO_CHECKSUM;
 	}
 
-	private void readFrom(final InputStream inStream) throws IOException,
+	private void smudgeRacilyClean() {
+		int smudge_s = (int) (snapshot.lastModified() / 1000);
+		int smudge_ns = ((int) (snapshot.lastModified() % 1000)) * 1000000;
+		for (int i = 0; i < entryCnt; i++) {
+			final DirCacheEntry e = sortedEntries[i];
+			if (e.mightBeRacilyClean(smudge_s, smudge_ns))
+				e.smudgeRacilyClean();
+		}
+	}
+
+	private static ByteBuffer map(FileChannel channel) throws IOException {
+		final long size = channel.size();
+		if (Integer.MAX_VALUE < size)
+			throw new CorruptObjectException(
+					JGitText.get().DIRCHasTooManyEntries);
+		if (SystemReader.getInstance().isWindows()) {
+			// Windows refuses to replace a file while a mapping of it is
+			// alive, and mappings are only released by the garbage
+			// collector. Read the index into the heap instead so that
+			// LockFile.commit() can always rename over it.
+			//
+			final ByteBuffer buf = ByteBuffer.allocate((int) size);
+			while (buf.hasRemaining()) {
+				if (channel.read(buf) < 0)
+					throw new EOFException(JGitText.get().shortReadOfBlock);
+			}
+			buf.flip();
+			return buf;
+		}
+		return channel.map(MapMode.READ_ONLY, 0, size);
+	}
+
+	private void readFrom(final ByteBuffer buf) throws IOException,
 			CorruptObjectException {
-		final BufferedInputStream in = new BufferedInputStream(inStream);
-		final MessageDigest md = Constants.newMessageDigest();
+		try {
+			readIndex(buf);
+		} catch (BufferUnderflowException | IllegalArgumentException
+				| IndexOutOfBoundsException e) {
+			// The buffer is shorter than the header or entries claimed.
+			final EOFException eof = new EOFException(
+					JGitText.get().shortReadOfBlock);
+			eof.initCause(e);
+			throw eof;
+		}
+	}
+
+	private void readIndex(final ByteBuffer buf) throws IOException,
+			CorruptObjectException {
+		// The trailing SHA-1 covers everything before it. Parse up to it
+		// directly from the buffer and hash the whole range in one pass.
+		//
+		final int end = buf.limit() - 20;
+		if (end < 12)
+			throw new EOFException(JGitText.get().shortReadOfBlock);
 
 		// Read the index header and verify we understand it.
 		//
 		final byte[] hdr = new byte[20];
-		IO.readFully(in, hdr, 0, 12);
-		md.update(hdr, 0, 12);
+		buf.get(hdr, 0, 12);
 		if (!is_DIRC(hdr))
 			throw new CorruptObjectException(JGitText.get().notADIRCFile);
 		final int ver = NB.decodeInt32(hdr, 4);
-		boolean extended = false;
-		if (ver == 3)
-			extended = true;
-		else if (ver != 2)
+		final DirCacheVersion fileVersion = DirCacheVersion.fromInt(ver);
+		if (fileVersion == null)
 			throw new CorruptObjectException(MessageFormat.format(
 					JGitText.get().unknownDIRCVersion, Integer.valueOf(ver)));
+		final boolean extended = fileVersion != DirCacheVersion.DIRC_VERSION_MINIMUM;
 		entryCnt = NB.decodeInt32(hdr, 8);
 		if (entryCnt < 0)
 			throw new CorruptObjectException(JGitText.get().DIRCHasTooManyEntries);
 
 		snapshot = FileSnapshot.save(liveFile);
-		int smudge_s = (int) (snapshot.lastModified() / 1000);
-		int smudge_ns = ((int) (snapshot.lastModified() % 1000)) * 1000000;
 
 		// Load the individual file entries.
 		//
 		final int infoLength = DirCacheEntry.getMaximumInfoLength(extended);
 		final byte[] infos = new byte[infoLength * entryCnt];
 		sortedEntries = new DirCacheEntry[entryCnt];
+		buf.limit(end);
 
 		final MutableInteger infoAt = new MutableInteger();
-		for (int i = 0; i < entryCnt; i++)
-			sortedEntries[i] = new DirCacheEntry(infos, infoAt, in, md, smudge_s, smudge_ns);
+		DirCacheEntry prev = null;
+		for (int i = 0; i < entryCnt; i++) {
+			prev = new DirCacheEntry(infos, infoAt, buf, fileVersion, prev);
+			sortedEntries[i] = prev;
+		}
 
 		// After the file entries are index extensions, and then a footer.
 		//
-		for (;;) {
-			in.mark(21);
-			IO.readFully(in, hdr, 0, 20);
-			if (in.read() < 0) {
-				// No extensions present; the file ended where we expected.
-				//
-				break;
-			}
-
-			in.reset();
-			md.update(hdr, 0, 8);
-			IO.skipFully(in, 8);
-
+		byte[] link = null;
+		while (buf.hasRemaining()) {
+			buf.get(hdr, 0, 8);
 			long sz = NB.decodeUInt32(hdr, 4);
 			switch (NB.decodeInt32(hdr, 0)) {
 			case EXT_TREE: {
@@ -535,19 +743,46 @@ else if (ver != 2)
 							formatExtensionName(hdr), Long.valueOf(sz)));
 				}
 				final byte[] raw = new byte[(int) sz];
-				IO.readFully(in, raw, 0, raw.length);
-				md.update(raw, 0, raw.length);
+				buf.get(raw, 0, raw.length);
 				tree = new DirCacheTree(raw, new MutableInteger(), null);
 				break;
 			}
+			case EXT_LINK: {
+				if (buf.remaining() < sz)
+					throw new EOFException(JGitText.get().shortReadOfBlock);
+				link = new byte[(int) sz];
+				buf.get(link, 0, link.length);
+				break;
+			}
+			case EXT_UNTR: {
+				if (buf.remaining() < sz)
+					throw new EOFException(JGitText.get().shortReadOfBlock);
+				final byte[] raw = new byte[(int) sz];
+				buf.get(raw, 0, raw.length);
+				untrackedCache = UntrackedCache.parse(raw);
+				break;
+			}
+			case EXT_FSMN: {
+				if (buf.remaining() < sz)
+					throw new EOFException(JGitText.get().shortReadOfBlock);
+				final byte[] raw = new byte[(int) sz];
+				buf.get(raw, 0, raw.length);
+				readFsMonitor(raw);
+				break;
+			}
 			default:
 				if (hdr[0] >= 'A' && hdr[0] <= 'Z') {
 					// The extension is optional and is here only as
 					// a performance optimization. Since we do not
-					// understand it, we can safely skip past it, after
-					// we include its data in our checksum.
+					// understand it, we can safely skip past it. Its
+					// data is covered by the checksum of the buffer.
 					//
-					skipOptionalExtension(in, md, hdr, sz);
+					if (buf.remaining() < sz) {
+						throw new EOFException(MessageFormat.format(
+								JGitText.get().shortReadOfOptionalDIRCExtensionExpectedAnotherBytes,
+								formatExtensionName(hdr), Long.valueOf(sz)));
+					}
+					buf.position(buf.position() + (int) sz);
 				} else {
 					// The extension is not an optimization and is
 					// _required_ to understand this index format.
@@ -559,29 +794,74 @@ else if (ver != 2)
 			}
 		}
 
+		buf.limit(end + 20);
+		buf.get(hdr, 0, 20);
+
+		final ByteBuffer content = buf.duplicate();
+		content.position(0);
+		content.limit(end);
+		final MessageDigest md = Constants.newMessageDigest();
+		md.update(content);
 		readIndexChecksum = md.digest();
 		if (!Arrays.equals(readIndexChecksum, hdr)) {
 			throw new CorruptObjectException(JGitText.get().DIRCChecksumMismatch);
 		}
-	}
+		version = fileVersion;
 
-	private void skipOptionalExtension(final InputStream in,
-			final MessageDigest md, final byte[] hdr, long sz)
-			throws IOException {
-		final byte[] b = new byte[4096];
-		while (0 < sz) {
-			int n = in.read(b, 0, (int) Math.min(b.length, sz));
-			if (n < 0) {
-				throw new EOFException(
-						MessageFormat.format(
-								JGitText.get().shortReadOfOptionalDIRCExtensionExpectedAnotherBytes,
-								formatExtensionName(hdr), Long.valueOf(sz)));
+		if (link != null) {
+			splitIndex = readSharedIndex(SplitIndex.parseSharedId(link));
+			sortedEntries = splitIndex.merge(link, sortedEntries, entryCnt);
+			entryCnt = sortedEntries.length;
+		} else {
+			for (int i = 0; i < entryCnt; i++) {
+				if (sortedEntries[i].path.length == 0)
+					DirCacheEntry.checkEntryPath(sortedEntries[i].path);
 			}
-			md.update(b, 0, n);
-			sz -= n;
 		}
 	}
 
+	private void readFsMonitor(byte[] raw) throws IOException {
+		final int ptr;
+		switch (NB.decodeInt32(raw, 0)) {
+		case 1:
+			// Version 1 tokens are timestamps in nanoseconds.
+			fsMonitorToken = Long.toString(NB.decodeInt64(raw, 4));
+			ptr = 12;
+			break;
+		case 2:
+			final int end = RawParseUtils.next(raw, 4, (char) 0) - 1;
+			fsMonitorToken = RawParseUtils.decode(raw, 4, end);
+			ptr = end + 1;
+			break;
+		default:
+			// Unknown versions are optional data we can ignore.
+			return;
+		}
+		fsMonitorDirty = new EWAHCompressedBitmap();
+		fsMonitorDirty.deserialize(new DataInputStream(new ByteArrayInputStream(
+				raw, ptr + 4, raw.length - ptr - 4)));
+	}
+
+	private SplitIndex readSharedIndex(ObjectId id) throws IOException {
+		if (ObjectId.zeroId().equals(id))
+			return new SplitIndex(id, NO_ENTRIES);
+
+		final File file = SplitIndex.sharedFile(liveFile.getParentFile(), id);
+		final DirCache shared = new DirCache(file, null);
+		try (FileInputStream inStream = new FileInputStream(file);
+				FileChannel channel = inStream.getChannel()) {
+			shared.readFrom(map(channel));
+		} catch (FileNotFoundException notFound) {
+			throw new IndexReadException(MessageFormat.format(
+					JGitText.get().missingSharedIndex, file), notFound);
+		}
+		if (shared.splitIndex != null
+				|| !id.equals(ObjectId.fromRaw(shared.readIndexChecksum)))
+			throw new CorruptObjectException(MessageFormat.format(
+					JGitText.get().DIRCLinkDoesNotMatchSharedIndex, id.name()));
+		return new SplitIndex(id, shared.sortedEntries);
+	}
+
 	private static String formatExtensionName(final byte[] hdr)
 			throws UnsupportedEncodingException {
 		return "'" + new String(hdr, 0, 4, "ISO-8859-1") + "'"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
@@ -596,6 +876,48 @@ private static boolean is_DIRC(final byte[] hdr) {
 		return true;
 	}
 
+	/**
+	 * Get the format version of this index.
+	 *
+	 * @return the version last read from disk or set by
+	 *         {@link #setVersion(DirCacheVersion)}; null if neither happened
+	 *         and {@link #write()} will choose based on the repository's
+	 *         {@code index.version} setting.
+	 * @since 4.8
+	 */
+	public DirCacheVersion getVersion() {
+		return version;
+	}
+
+	/**
+	 * Set the format version used the next time this index is written.
+	 * <p>
+	 * Versions 2 and 3 are interchangeable: whichever of the two is
+	 * requested, the index is written as version 3 only if an entry carries
+	 * extended flags. Version 4 is always honored.
+	 *
+	 * @param version
+	 *            the version to write; null to fall back to the repository's
+	 *            {@code index.version} setting.
+	 * @since 4.8
+	 */
+	public void setVersion(DirCacheVersion version) {
+		this.version = version;
+	}
+
+	private DirCacheVersion getWriteVersion(boolean extended) {
+		DirCacheVersion v = version;
+		if (v == null && repository != null) {
+			v = DirCacheVersion.fromInt(repository.getConfig().getInt(
+					ConfigConstants.CONFIG_INDEX_SECTION,
+					ConfigConstants.CONFIG_KEY_VERSION, 0));
+		}
+		if (v == DirCacheVersion.DIRC_VERSION_PATHCOMPRESS)
+			return v;
+		return extended ? DirCacheVersion.DIRC_VERSION_EXTENDED
+				: DirCacheVersion.DIRC_VERSION_MINIMUM;
+	}
+
 	/**
 	 * Try to establish an update lock on the cache file.
 	 *
@@ -651,23 +973,6 @@ public void write() throws IOException {
 	}
 
 	void writeTo(File dir, final OutputStream os) throws IOException {
-		final MessageDigest foot = Constants.newMessageDigest();
-		final DigestOutputStream dos = new DigestOutputStream(os, foot);
-
-		boolean extended = false;
-		for (int i = 0; i < entryCnt; i++)
-			extended |= sortedEntries[i].isExtended();
-
-		// Write the header.
-		//
-		final byte[] tmp = new byte[128];
-		System.arraycopy(SIG_DIRC, 0, tmp, 0, SIG_DIRC.length);
-		NB.encodeInt32(tmp, 4, extended ? 3 : 2);
-		NB.encodeInt32(tmp, 8, entryCnt);
-		dos.write(tmp, 0, 12);
-
-		// Write the individual file entries.
-
 		final int smudge_s;
 		final int smudge_ns;
 		if (myLock != null) {
@@ -696,7 +1001,66 @@ void writeTo(File dir, final OutputStream os) throws IOException {
 			final DirCacheEntry e = sortedEntries[i];
 			if (e.mightBeRacilyClean(smudge_s, smudge_ns))
 				e.smudgeRacilyClean();
-			e.write(dos);
+		}
+
+		DirCacheEntry[] ents = sortedEntries;
+		int cnt = entryCnt;
+		byte[] link = null;
+		if (dir != null) {
+			if (useSplitIndex()) {
+				// Only the entries differing from the shared index are
+				// written. Once too many of them accumulate, the current
+				// entries become the new shared index.
+				SplitIndex.Delta d = null;
+				if (splitIndex != null) {
+					d = splitIndex.diff(sortedEntries, entryCnt);
+					if (tooManyChanges(d))
+						d = null;
+					else
+						freshenSharedIndex(dir);
+				}
+				if (d == null) {
+					splitIndex = writeSharedIndex(dir);
+					d = splitIndex.diff(sortedEntries, entryCnt);
+				}
+				ents = d.entries;
+				cnt = ents.length;
+				link = d.formatLink();
+			} else
+				splitIndex = null;
+		}
+
+		writeIndexChecksum = writeIndex(dir, os, ents, cnt, writeTree, link,
+				untrackedCache, formatFsMonitor());
+		os.close();
+	}
+
+	private byte[] writeIndex(File dir, OutputStream os, DirCacheEntry[] ents,
+			int cnt, boolean writeTree, byte[] link, UntrackedCache untracked,
+			byte[] fsMonitor) throws IOException {
+		final MessageDigest foot = Constants.newMessageDigest();
+		final DigestOutputStream dos = new DigestOutputStream(os, foot);
+
+		boolean extended = false;
+		for (int i = 0; i < cnt; i++)
+			extended |= ents[i].isExtended();
+
+		// Write the header.
+		//
+		final DirCacheVersion writeVersion = getWriteVersion(extended);
+		final byte[] tmp = new byte[128];
+		System.arraycopy(SIG_DIRC, 0, tmp, 0, SIG_DIRC.length);
+		NB.encodeInt32(tmp, 4, writeVersion.getVersionCode());
+		NB.encodeInt32(tmp, 8, cnt);
+		dos.write(tmp, 0, 12);
+
+		// Write the individual file entries.
+		//
+		DirCacheEntry prev = null;
+		for (int i = 0; i < cnt; i++) {
+			final DirCacheEntry e = ents[i];
+			e.write(dos, writeVersion, prev);
+			prev = e;
 		}
 
 		if (writeTree) {
@@ -713,9 +1077,141 @@ void writeTo(File dir, final OutputStream os) throws IOException {
 				bb.destroy();
 			}
 		}
-		writeIndexChecksum = foot.digest();
-		os.write(writeIndexChecksum);
-		os.close();
+		if (link != null) {
+			NB.encodeInt32(tmp, 0, EXT_LINK);
+			NB.encodeInt32(tmp, 4, link.length);
+			dos.write(tmp, 0, 8);
+			dos.write(link);
+		}
+		if (untracked != null) {
+			final byte[] raw = untracked.format();
+			NB.encodeInt32(tmp, 0, EXT_UNTR);
+			NB.encodeInt32(tmp, 4, raw.length);
+			dos.write(tmp, 0, 8);
+			dos.write(raw);
+		}
+		if (fsMonitor != null) {
+			NB.encodeInt32(tmp, 0, EXT_FSMN);
+			NB.encodeInt32(tmp, 4, fsMonitor.length);
+			dos.write(tmp, 0, 8);
+			dos.write(fsMonitor);
+		}
+		final byte[] checksum = foot.digest();
+		os.write(checksum);
+		return checksum;
+	}
+
+	/**
+	 * Format the {@code FSMN} extension, version 2. The bitmap marks the
+	 * entries which are not trusted, numbered as in the complete index.
+	 */
+	private byte[] formatFsMonitor() throws IOException {
+		if (fsMonitorToken == null)
+			return null;
+		final EWAHCompressedBitmap dirty = new EWAHCompressedBitmap();
+		for (int i = 0; i < entryCnt; i++) {
+			if (!sortedEntries[i].isFsMonitorValid())
+				dirty.set(i);
+		}
+		final ByteArrayOutputStream bitmap = new ByteArrayOutputStream();
+		dirty.serialize(new DataOutputStream(bitmap));
+
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		final byte[] tmp = new byte[4];
+		NB.encodeInt32(tmp, 0, 2);
+		out.write(tmp);
+		out.write(Constants.encode(fsMonitorToken));
+		out.write(0);
+		NB.encodeInt32(tmp, 0, bitmap.size());
+		out.write(tmp);
+		bitmap.writeTo(out);
+		return out.toByteArray();
+	}
+
+	private boolean useSplitIndex() {
+		if (repository != null) {
+			final Config cfg = repository.getConfig();
+			if (cfg.getString(ConfigConstants.CONFIG_CORE_SECTION, null,
+					ConfigConstants.CONFIG_KEY_SPLIT_INDEX) != null)
+				return cfg.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+						ConfigConstants.CONFIG_KEY_SPLIT_INDEX, false);
+		}
+		return splitIndex != null;
+	}
+
+	private boolean tooManyChanges(SplitIndex.Delta d) {
+		int maxPercent = DEFAULT_MAX_PERCENT_CHANGE;
+		if (repository != null)
+			maxPercent = repository.getConfig().getInt(
+					ConfigConstants.CONFIG_SPLIT_INDEX_SECTION,
+					ConfigConstants.CONFIG_KEY_MAX_PERCENT_CHANGE,
+					DEFAULT_MAX_PERCENT_CHANGE);
+		if (maxPercent >= 100)
+			return false;
+		return (long) d.changed * 100 > (long) maxPercent
+				* splitIndex.getSharedCount();
+	}
+
+	private SplitIndex writeSharedIndex(File dir) throws IOException {
+		final File tmp = File.createTempFile("sharedindex_", null, dir); //$NON-NLS-1$
+		try {
+			final ObjectId id;
+			try (OutputStream o = new FileOutputStream(tmp);
+					OutputStream bo = new BufferedOutputStream(o)) {
+				id = ObjectId.fromRaw(
+						writeIndex(dir, bo, sortedEntries, entryCnt, false, null,
+								null, null));
+			}
+			final File file = SplitIndex.sharedFile(dir, id);
+			if (file.exists())
+				file.setLastModified(System.currentTimeMillis());
+			else
+				FileUtils.rename(tmp, file);
+			pruneSharedIndexes(dir, file);
+
+			final DirCacheEntry[] shared = new DirCacheEntry[entryCnt];
+			for (int i = 0; i < entryCnt; i++)
+				shared[i] = new DirCacheEntry(sortedEntries[i],
+						sortedEntries[i].path);
+			return new SplitIndex(id, shared);
+		} finally {
+			FileUtils.delete(tmp, FileUtils.SKIP_MISSING);
+		}
+	}
+
+	private void freshenSharedIndex(File dir) {
+		// Keep the shared index in use from being pruned as expired.
+		SplitIndex.sharedFile(dir, splitIndex.getSharedId())
+				.setLastModified(System.currentTimeMillis());
+	}
+
+	private void pruneSharedIndexes(File dir, File keep) throws IOException {
+		String expire = null;
+		if (repository != null)
+			expire = repository.getConfig().getString(
+					ConfigConstants.CONFIG_SPLIT_INDEX_SECTION, null,
+					ConfigConstants.CONFIG_KEY_SHARED_INDEX_EXPIRE);
+		if (expire == null)
+			expire = DEFAULT_SHARED_INDEX_EXPIRE;
+		final Date expireDate;
+		try {
+			expireDate = GitDateParser.parse(expire, null,
+					SystemReader.getInstance().getLocale());
+		} catch (ParseException e) {
+			throw new IOException(e.getMessage(), e);
+		}
+		if (expireDate == GitDateParser.NEVER)
+			return;
+
+		final File[] files = dir.listFiles();
+		if (files == null)
+			return;
+		for (File f : files) {
+			if (f.getName().startsWith(SplitIndex.SHARED_INDEX_PREFIX)
+					&& !f.equals(keep)
+					&& f.lastModified() < expireDate.getTime())
+				FileUtils.delete(f, FileUtils.SKIP_MISSING);
+		}
 	}
 
 	/**
@@ -924,6 +1420,75 @@ void toArray(final int i, final DirCacheEntry[] dst, final int off,
 		System.arraycopy(sortedEntries, i, dst, off, cnt);
 	}
 
+	/**
+	 * Get the untracked cache recorded in this index.
+	 *
+	 * @return the untracked cache; null if the index has none, or its cache
+	 *         was not written by JGit.
+	 * @since 4.8
+	 */
+	public UntrackedCache getUntrackedCache() {
+		return untrackedCache;
+	}
+
+	/**
+	 * Set the untracked cache to record in this index.
+	 *
+	 * @param cache
+	 *            the new cache; null to remove the extension on the next
+	 *            write.
+	 * @since 4.8
+	 */
+	public void setUntrackedCache(UntrackedCache cache) {
+		untrackedCache = cache;
+	}
+
+	/**
+	 * Get the token of the last file system monitor query.
+	 *
+	 * @return the token; null if the repository has no
+	 *         {@link org.eclipse.jgit.lib.Repository#getFsMonitor() monitor}
+	 *         or the index was not read through the repository.
+	 * @since 4.8
+	 */
+	public String getFsMonitorToken() {
+		return fsMonitorToken;
+	}
+
+	/**
+	 * Take over the file system monitor state of another copy of this index.
+	 * <p>
+	 * Entries are only trusted if the other copy trusts them and records the
+	 * same mode and object id for them. This allows to store entries
+	 * found clean in a copy read earlier into a freshly locked index.
+	 *
+	 * @param src
+	 *            the other copy.
+	 * @since 4.8
+	 */
+	public void copyFsMonitorState(DirCache src) {
+		fsMonitorToken = src.fsMonitorToken;
+		fsMonitorDirty = null;
+		for (int i = 0; i < entryCnt; i++) {
+			final DirCacheEntry e = sortedEntries[i];
+			final int j = src.findEntry(e.path, e.path.length);
+			boolean valid = false;
+			if (fsMonitorToken != null && j >= 0) {
+				for (int k = j; k < src.entryCnt
+						&& Arrays.equals(e.path, src.sortedEntries[k].path); k++) {
+					final DirCacheEntry s = src.sortedEntries[k];
+					if (s.getStage() == e.getStage()) {
+						valid = s.isFsMonitorValid()
+								&& s.getRawMode() == e.getRawMode()
+								&& s.getObjectId().equals(e.getObjectId());
+						break;
+					}
+				}
+			}
+			e.setFsMonitorValid(valid);
+		}
+	}
+
 	/**
 	 * Obtain (or build) the current cache tree structure.
 	 * <p>
@@ -1018,8 +1583,11 @@ private void updateSmudgedEntries() throws IOException {
 					continue;
 				DirCacheEntry entry = iIter.getDirCacheEntry();
 				if (entry.isSmudged() && iIter.idEqual(fIter)) {
+					// The content is unchanged, so the monitor's view is too.
+					final boolean valid = entry.isFsMonitorValid();
 					entry.setLength(fIter.getEntryLength());
 					entry.setLastModified(fIter.getEntryLastModified());
+					entry.setFsMonitorValid(valid);
 				}
 			}
 		}
@@ -45,13 +45,22 @@
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.eclipse.jgit.api.errors.FilterFailedException;
 import org.eclipse.jgit.attributes.FilterCommand;
@@ -62,6 +71,7 @@
 import org.eclipse.jgit.errors.IndexWriteException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.WorkerPool;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.CoreConfig.AutoCRLF;
 import org.eclipse.jgit.lib.CoreConfig.EolStreamType;
@@ -210,6 +220,8 @@ public DirCacheCheckout(Repository repo, ObjectId headCommitTree, DirCache dc,
 		this.mergeCommitTree = mergeCommitTree;
 		this.workingTree = workingTree;
 		this.emptyDirCache = (dc == null) || (dc.getEntryCount() == 0);
+		if (dc != null && workingTree instanceof FileTreeIterator)
+			((FileTreeIterator) workingTree).setFsMonitorIndex(dc);
 	}
 
 	/**
@@ -497,12 +509,22 @@ private boolean doCheckout() throws CorruptObjectException, IOException,
 			if (file != null)
 				removeEmptyParents(file);
 
-			for (Map.Entry<String, CheckoutMetadata> e : updated.entrySet()) {
-				String path = e.getKey();
-				CheckoutMetadata meta = e.getValue();
+			List<DirCacheEntry> toCheckout = new ArrayList<>(updated.size());
+			for (String path : updated.keySet()) {
 				DirCacheEntry entry = dc.getEntry(path);
 				if (!FileMode.GITLINK.equals(entry.getRawMode()))
-					checkoutEntry(repo, entry, objectReader, false, meta);
+					toCheckout.add(entry);
+			}
+			WorkingTreeOptions opt = repo.getConfig()
+					.get(WorkingTreeOptions.KEY);
+			if (opt.getCheckoutWorkers() > 1
+					&& toCheckout.size() >= opt.getCheckoutThreshold()) {
+				checkoutParallel(toCheckout, objectReader,
+						opt.getCheckoutWorkers());
+			} else {
+				for (DirCacheEntry entry : toCheckout)
+					checkoutEntry(repo, entry, objectReader, false,
+							updated.get(entry.getPathString()));
 			}
 
 			// commit the index builder - a new index is persisted
@@ -512,6 +534,126 @@ private boolean doCheckout() throws CorruptObjectException, IOException,
 		return toBeDeleted.size() == 0;
 	}
 
+	/**
+	 * Write entries to the working tree using the shared {@link WorkerPool}.
+	 * <p>
+	 * Entries are grouped by their parent directory and each group is written
+	 * by one task, so two files which may collide on a case insensitive file
+	 * system are never written concurrently. All directories are created
+	 * before the first file is written. Entries using a smudge filter are
+	 * written by the calling thread, as filters may not expect to be run
+	 * concurrently.
+	 *
+	 * @param entries
+	 *            entries to write.
+	 * @param reader
+	 *            reader used for entries written by the calling thread.
+	 * @param workers
+	 *            maximum number of threads to use.
+	 * @throws IOException
+	 *             the first failure reported by any task. Tasks not yet
+	 *             started are cancelled, running ones are waited for.
+	 */
+	private void checkoutParallel(List<DirCacheEntry> entries,
+			ObjectReader reader, int workers) throws IOException {
+		boolean caseSensitive = repo.getFS().isCaseSensitive();
+		Map<String, List<DirCacheEntry>> byDir = new TreeMap<>();
+		List<DirCacheEntry> filtered = new ArrayList<>();
+		for (DirCacheEntry e : entries) {
+			String path = e.getPathString();
+			if (updated.get(path).smudgeFilterCommand != null) {
+				filtered.add(e);
+				continue;
+			}
+			String dir = path.substring(0, path.lastIndexOf('/') + 1);
+			if (!caseSensitive)
+				dir = dir.toLowerCase(Locale.ROOT);
+			List<DirCacheEntry> group = byDir.get(dir);
+			if (group == null) {
+				group = new ArrayList<>();
+				byDir.put(dir, group);
+			}
+			group.add(e);
+		}
+
+		// Parents sort before their children, so each mkdirs call only
+		// creates the last directory of the path.
+		for (List<DirCacheEntry> group : byDir.values()) {
+			File f = new File(repo.getWorkTree(), group.get(0).getPathString());
+			FileUtils.mkdirs(f.getParentFile(), true);
+		}
+
+		if (byDir.isEmpty()) {
+			for (DirCacheEntry e : filtered)
+				checkoutEntry(repo, e, reader, false,
+						updated.get(e.getPathString()));
+			return;
+		}
+
+		// Bound the tasks in flight, so no more than the requested number of
+		// threads are busy writing and groups are not all queued at once.
+		ExecutorService pool = WorkerPool.get();
+		int maxPending = Math.min(workers, WorkerPool.getThreadCount());
+		Deque<Future<Void>> futures = new ArrayDeque<>(maxPending);
+		try {
+			for (final List<DirCacheEntry> group : byDir.values()) {
+				if (futures.size() == maxPending)
+					get(futures.removeFirst());
+				futures.addLast(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws IOException {
+						try (ObjectReader or = repo.newObjectReader()) {
+							for (DirCacheEntry e : group)
+								checkoutEntry(repo, e, or, false,
+										updated.get(e.getPathString()));
+						}
+						return null;
+					}
+				}));
+			}
+			for (DirCacheEntry e : filtered)
+				checkoutEntry(repo, e, reader, false,
+						updated.get(e.getPathString()));
+			while (!futures.isEmpty())
+				get(futures.removeFirst());
+		} finally {
+			// On failure, do not return while a started task may still be
+			// writing to the working tree.
+			for (Future<Void> f : futures) {
+				if (f.cancel(false))
+					continue;
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				} catch (ExecutionException e) {
+					// Only the first failure is reported.
+				}
+			}
+		}
+	}
+
+	private static void get(Future<Void> f) throws IOException {
+		try {
+			f.get();
+		} catch (InterruptedException ie) {
+			throw new InterruptedIOException(
+					JGitText.get().checkoutInterrupted);
+		} catch (ExecutionException failed) {
+			// Report the failure as though the entry was written by this
+			// thread.
+			Throwable err = failed.getCause();
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			if (err instanceof IOException)
+				throw (IOException) err;
+			throw new IOException(err.getMessage(), err);
+		}
+	}
+
 	private static boolean isSamePrefix(String a, String b) {
 		int as = a.lastIndexOf('/');
 		int bs = b.lastIndexOf('/');
@@ -1138,6 +1280,7 @@ private boolean isModifiedSubtree_IndexWorkingtree(String path)
 		try (NameConflictTreeWalk tw = new NameConflictTreeWalk(repo)) {
 			int dciPos = tw.addTree(new DirCacheIterator(dc));
 			FileTreeIterator fti = new FileTreeIterator(repo);
+			fti.setFsMonitorIndex(dc);
 			tw.addTree(fti);
 			fti.setDirCacheIterator(tw, dciPos);
 			tw.setRecursive(true);
@@ -46,23 +46,20 @@
 
 package org.eclipse.jgit.dircache;
 
-import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
-import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.Arrays;
 
+import org.eclipse.jgit.dircache.DirCache.DirCacheVersion;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectId;
-import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.MutableInteger;
 import org.eclipse.jgit.util.NB;
 import org.eclipse.jgit.util.SystemReader;
@@ -129,6 +126,9 @@ public class DirCacheEntry {
 	/** In-core flag signaling that the entry should be considered as modified. */
 	private static final int UPDATE_NEEDED = 0x1;
 
+	/** In-core flag signaling the file system monitor saw no change. */
+	private static final int FSMONITOR_VALID = 0x2;
+
 	/** (Possibly shared) header information storage. */
 	private final byte[] info;
 
@@ -141,18 +141,18 @@ public class DirCacheEntry {
 	/** Flags which are never stored to disk. */
 	private byte inCoreFlags;
 
-	DirCacheEntry(final byte[] sharedInfo, final MutableInteger infoAt,
-			final InputStream in, final MessageDigest md, final int smudge_s,
-			final int smudge_ns) throws IOException {
+	DirCacheEntry(byte[] sharedInfo, MutableInteger infoAt, ByteBuffer in,
+			DirCacheVersion version, DirCacheEntry previous)
+			throws IOException {
 		info = sharedInfo;
 		infoOffset = infoAt.value;
 
-		IO.readFully(in, info, infoOffset, INFO_LEN);
+		in.get(info, infoOffset, INFO_LEN);
 
 		final int len;
 		if (isExtended()) {
 			len = INFO_LEN_EXTENDED;
-			IO.readFully(in, info, infoOffset + INFO_LEN, INFO_LEN_EXTENDED - INFO_LEN);
+			in.get(info, infoOffset + INFO_LEN, INFO_LEN_EXTENDED - INFO_LEN);
 
 			if ((getExtendedFlags() & ~EXTENDED_FLAGS) != 0)
 				throw new IOException(MessageFormat.format(JGitText.get()
@@ -161,36 +161,88 @@ public class DirCacheEntry {
 			len = INFO_LEN;
 
 		infoAt.value += len;
-		md.update(info, infoOffset, len);
-
-		int pathLen = NB.decodeUInt16(info, infoOffset + P_FLAGS) & NAME_MASK;
-		int skipped = 0;
-		if (pathLen < NAME_MASK) {
-			path = new byte[pathLen];
-			IO.readFully(in, path, 0, pathLen);
-			md.update(path, 0, pathLen);
+
+		if (version == DirCacheVersion.DIRC_VERSION_PATHCOMPRESS) {
+			// Version 4 stores only the suffix which differs from the
+			// previous entry's path, and does not pad the record.
+			//
+			final int prevLen = previous != null ? previous.path.length : 0;
+			final int strip = decodeVarint(in);
+			if (strip < 0 || prevLen < strip)
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().DIRCCorruptPrefixLength,
+						Integer.valueOf(strip), Integer.valueOf(prevLen)));
+			final int keep = prevLen - strip;
+			final int suffixLen = findNul(in, in.position()) - in.position();
+			path = new byte[keep + suffixLen];
+			if (keep > 0)
+				System.arraycopy(previous.path, 0, path, 0, keep);
+			in.get(path, keep, suffixLen);
+			in.get(); // the '\0' terminating the path.
 		} else {
-			final ByteArrayOutputStream tmp = new ByteArrayOutputStream();
-			{
-				final byte[] buf = new byte[NAME_MASK];
-				IO.readFully(in, buf, 0, NAME_MASK);
-				tmp.write(buf);
+			int pathLen = NB.decodeUInt16(info, infoOffset + P_FLAGS) & NAME_MASK;
+			int skipped = 0;
+			if (pathLen < NAME_MASK) {
+				path = new byte[pathLen];
+				in.get(path, 0, pathLen);
+			} else {
+				pathLen = findNul(in, in.position() + NAME_MASK)
+						- in.position();
+				path = new byte[pathLen];
+				in.get(path, 0, pathLen);
+				in.get();
+				skipped = 1; // we already skipped 1 '\0' above.
 			}
-			for (;;) {
-				final int c = in.read();
-				if (c < 0)
-					throw new EOFException(JGitText.get().shortReadOfBlock);
-				if (c == 0)
-					break;
-				tmp.write(c);
-			}
-			path = tmp.toByteArray();
-			pathLen = path.length;
-			skipped = 1; // we already skipped 1 '\0' above to break the loop.
-			md.update(path, 0, pathLen);
-			md.update((byte) 0);
+
+			// Index records are padded out to the next 8 byte alignment
+			// for historical reasons related to how C Git read the files.
+			//
+			final int actLen = len + pathLen;
+			final int expLen = (actLen + 8) & ~7;
+			final int padLen = expLen - actLen - skipped;
+			if (padLen > 0)
+				in.position(in.position() + padLen);
 		}
 
+		// A split index strips the path of entries replacing one in the
+		// shared index; DirCache restores the name before it is used.
+		if (path.length > 0)
+			checkEntryPath(path);
+	}
+
+	private static int findNul(ByteBuffer in, int from) throws EOFException {
+		for (int p = from; p < in.limit(); p++) {
+			if (in.get(p) == 0)
+				return p;
+		}
+		throw new EOFException(JGitText.get().shortReadOfBlock);
+	}
+
+	static int decodeVarint(ByteBuffer in) {
+		int c = in.get();
+		int val = c & 0x7f;
+		while ((c & 0x80) != 0) {
+			val++;
+			if ((val & 0xfe000000) != 0)
+				return -1;
+			c = in.get();
+			val = (val << 7) + (c & 0x7f);
+		}
+		return val;
+	}
+
+	static void writeVarint(OutputStream os, int value)
+			throws IOException {
+		final byte[] buf = new byte[5];
+		int pos = buf.length - 1;
+		buf[pos] = (byte) (value & 0x7f);
+		while ((value >>>= 7) != 0)
+			buf[--pos] = (byte) (0x80 | (--value & 0x7f));
+		os.write(buf, pos, buf.length - pos);
+	}
+
+	static void checkEntryPath(byte[] path)
+			throws CorruptObjectException {
 		try {
 			checkPath(path);
 		} catch (InvalidPathException e) {
@@ -200,20 +252,6 @@ public class DirCacheEntry {
 				p.initCause(e.getCause());
 			throw p;
 		}
-
-		// Index records are padded out to the next 8 byte alignment
-		// for historical reasons related to how C Git read the files.
-		//
-		final int actLen = len + pathLen;
-		final int expLen = (actLen + 8) & ~7;
-		final int padLen = expLen - actLen - skipped;
-		if (padLen > 0) {
-			IO.skipFully(in, padLen);
-			md.update(nullpad, 0, padLen);
-		}
-
-		if (mightBeRacilyClean(smudge_s, smudge_ns))
-			smudgeRacilyClean();
 	}
 
 	/**
@@ -311,10 +349,65 @@ public DirCacheEntry(DirCacheEntry src) {
 		System.arraycopy(src.info, src.infoOffset, info, 0, INFO_LEN);
 	}
 
-	void write(final OutputStream os) throws IOException {
+	/**
+	 * Copy an entry, including its extended flags, under another path.
+	 *
+	 * @param src
+	 *            entry to copy the stat data and object id from.
+	 * @param newPath
+	 *            path of the copy; may be empty for a split index entry
+	 *            whose name is stored in the shared index.
+	 */
+	DirCacheEntry(DirCacheEntry src, byte[] newPath) {
+		final int len = src.isExtended() ? INFO_LEN_EXTENDED : INFO_LEN;
+		info = new byte[len];
+		infoOffset = 0;
+		path = newPath;
+		System.arraycopy(src.info, src.infoOffset, info, 0, len);
+
+		int flags = NB.decodeUInt16(info, P_FLAGS) & ~NAME_MASK;
+		flags |= Math.min(newPath.length, NAME_MASK);
+		NB.encodeInt16(info, P_FLAGS, flags);
+	}
+
+	/**
+	 * Compare the on-disk record of two entries, ignoring their paths.
+	 *
+	 * @param other
+	 *            entry to compare against.
+	 * @return true if both entries would write the same stat data, object
+	 *         id, mode and flags.
+	 */
+	boolean isSameRecord(DirCacheEntry other) {
+		final int len = isExtended() ? INFO_LEN_EXTENDED : INFO_LEN;
+		if (other.isExtended() != isExtended())
+			return false;
+		for (int i = 0; i < len; i++) {
+			if (info[infoOffset + i] != other.info[other.infoOffset + i])
+				return false;
+		}
+		return true;
+	}
+
+	void write(OutputStream os, DirCacheVersion version,
+			DirCacheEntry previous) throws IOException {
 		final int len = isExtended() ? INFO_LEN_EXTENDED : INFO_LEN;
 		final int pathLen = path.length;
 		os.write(info, infoOffset, len);
+
+		if (version == DirCacheVersion.DIRC_VERSION_PATHCOMPRESS) {
+			final byte[] prev = previous != null ? previous.path : nullpad;
+			final int prevLen = previous != null ? prev.length : 0;
+			int common = 0;
+			while (common < prevLen && common < pathLen
+					&& prev[common] == path[common])
+				common++;
+			writeVarint(os, prevLen - common);
+			os.write(path, common, pathLen - common);
+			os.write(0);
+			return;
+		}
+
 		os.write(path, 0, pathLen);
 
 		// Index records are padded out to the next 8 byte alignment
@@ -444,6 +537,37 @@ public void setUpdateNeeded(boolean updateNeeded) {
 			inCoreFlags &= ~UPDATE_NEEDED;
 	}
 
+	/**
+	 * Whether the file system monitor reported no change of this entry's
+	 * working tree file since the entry was last found to be clean.
+	 * <p>
+	 * Such entries can be assumed unmodified without looking at the file.
+	 * The flag is cleared whenever the entry's stat data, mode or object id
+	 * is set. Smudging a racily clean entry keeps it, as the monitor does not
+	 * depend on timestamps.
+	 *
+	 * @return true if the working tree file is known to be unmodified.
+	 * @since 4.8
+	 */
+	public boolean isFsMonitorValid() {
+		return (inCoreFlags & FSMONITOR_VALID) != 0;
+	}
+
+	/**
+	 * Set whether the working tree file is known to be unmodified.
+	 *
+	 * @param valid
+	 *            true if the entry matches its working tree file and the file
+	 *            system monitor will report any later change to it.
+	 * @since 4.8
+	 */
+	public void setFsMonitorValid(boolean valid) {
+		if (valid)
+			inCoreFlags |= FSMONITOR_VALID;
+		else
+			inCoreFlags &= ~FSMONITOR_VALID;
+	}
+
 	/**
 	 * Get the stage of this entry.
 	 * <p>
@@ -520,10 +644,12 @@ public void setFileMode(final FileMode mode) {
 					JGitText.get().invalidModeForPath, mode, getPathString()));
 		}
 		NB.encodeInt32(info, infoOffset + P_MODE, mode.getBits());
+		inCoreFlags &= ~FSMONITOR_VALID;
 	}
 
 	void setFileMode(int mode) {
 		NB.encodeInt32(info, infoOffset + P_MODE, mode);
+		inCoreFlags &= ~FSMONITOR_VALID;
 	}
 
 	/**
@@ -568,6 +694,7 @@ public long getLastModified() {
 	 */
 	public void setLastModified(final long when) {
 		encodeTS(P_MTIME, when);
+		inCoreFlags &= ~FSMONITOR_VALID;
 	}
 
 	/**
@@ -600,6 +727,7 @@ public int getLength() {
 	 */
 	public void setLength(final int sz) {
 		NB.encodeInt32(info, infoOffset + P_SIZE, sz);
+		inCoreFlags &= ~FSMONITOR_VALID;
 	}
 
 	/**
@@ -633,6 +761,7 @@ public ObjectId getObjectId() {
 	 */
 	public void setObjectId(final AnyObjectId id) {
 		id.copyRawTo(idBuffer(), idOffset());
+		inCoreFlags &= ~FSMONITOR_VALID;
 	}
 
 	/**
@@ -647,6 +776,7 @@ public void setObjectId(final AnyObjectId id) {
 	public void setObjectIdFromRaw(final byte[] bs, final int p) {
 		final int n = Constants.OBJECT_ID_LENGTH;
 		System.arraycopy(bs, p, idBuffer(), idOffset(), n);
+		inCoreFlags &= ~FSMONITOR_VALID;
 	}
 
 	/**
@@ -723,6 +853,7 @@ void copyMetaData(final DirCacheEntry src, boolean keepStage) {
 			pStageShifted = newflags & SHIFTED_STAGE_MASK;
 		NB.encodeInt16(info, infoOffset + P_FLAGS, pStageShifted | pLen
 				| (newflags & ~NAME_MASK & ~SHIFTED_STAGE_MASK));
+		inCoreFlags &= ~FSMONITOR_VALID;
 	}
 
 	/**
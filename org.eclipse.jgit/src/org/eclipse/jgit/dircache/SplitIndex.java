@@ -0,0 +1,264 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
+
+/**
+ * Shared base of a split index.
+ * <p>
+ * A split index keeps most of its entries in {@code sharedindex.<SHA-1>}, a
+ * regular index file named after its own checksum. The main index file only
+ * records entries which were replaced, deleted or added since the shared
+ * index was written, and names its base in the {@code link} extension. Small
+ * updates of a large index therefore only rewrite and hash the changes.
+ */
+final class SplitIndex {
+	static final String SHARED_INDEX_PREFIX = "sharedindex."; //$NON-NLS-1$
+
+	private static final byte[] NO_PATH = {};
+
+	private final ObjectId sharedId;
+
+	/** Entries exactly as they are recorded in the shared index file. */
+	private final DirCacheEntry[] shared;
+
+	SplitIndex(ObjectId sharedId, DirCacheEntry[] shared) {
+		this.sharedId = sharedId;
+		this.shared = shared;
+	}
+
+	ObjectId getSharedId() {
+		return sharedId;
+	}
+
+	int getSharedCount() {
+		return shared.length;
+	}
+
+	static File sharedFile(File dir, AnyObjectId id) {
+		return new File(dir, SHARED_INDEX_PREFIX + id.name());
+	}
+
+	static ObjectId parseSharedId(byte[] link) throws CorruptObjectException {
+		if (link.length < OBJECT_ID_LENGTH)
+			throw new CorruptObjectException(
+					JGitText.get().DIRCCorruptLinkExtension);
+		return ObjectId.fromRaw(link, 0);
+	}
+
+	/**
+	 * Apply the {@code link} extension of a main index to the shared entries.
+	 *
+	 * @param link
+	 *            content of the link extension.
+	 * @param delta
+	 *            entries read from the main index.
+	 * @param deltaCnt
+	 *            number of valid entries in {@code delta}.
+	 * @return the complete, sorted entry list of the index.
+	 * @throws IOException
+	 *             the link extension does not fit the shared index.
+	 */
+	DirCacheEntry[] merge(byte[] link, DirCacheEntry[] delta, int deltaCnt)
+			throws IOException {
+		final EWAHCompressedBitmap delete = new EWAHCompressedBitmap();
+		final EWAHCompressedBitmap replace = new EWAHCompressedBitmap();
+		if (link.length > OBJECT_ID_LENGTH) {
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(
+					link, OBJECT_ID_LENGTH, link.length - OBJECT_ID_LENGTH));
+			delete.deserialize(in);
+			replace.deserialize(in);
+		}
+
+		final DirCacheEntry[] replacement = new DirCacheEntry[shared.length];
+		final boolean[] removed = new boolean[shared.length];
+		int used = 0;
+		for (IntIterator i = replace.intIterator(); i.hasNext();) {
+			final int pos = i.next();
+			if (pos >= shared.length || used >= deltaCnt
+					|| delta[used].path.length != 0)
+				throw corruptLink();
+			replacement[pos] = new DirCacheEntry(delta[used++],
+					shared[pos].path);
+		}
+		for (IntIterator i = delete.intIterator(); i.hasNext();) {
+			final int pos = i.next();
+			if (pos >= shared.length)
+				throw corruptLink();
+			removed[pos] = true;
+		}
+
+		final DirCacheEntry[] r = new DirCacheEntry[shared.length + deltaCnt
+				- used];
+		int n = 0;
+		for (int k = 0; k < shared.length; k++) {
+			if (removed[k])
+				continue;
+			if (replacement[k] != null)
+				r[n++] = replacement[k];
+			else
+				r[n++] = new DirCacheEntry(shared[k], shared[k].path);
+		}
+		if (used == deltaCnt)
+			return n == r.length ? r : Arrays.copyOf(r, n);
+
+		for (int i = used; i < deltaCnt; i++) {
+			DirCacheEntry.checkEntryPath(delta[i].path);
+			r[n++] = delta[i];
+		}
+
+		// Added entries win over a shared entry for the same path and
+		// stage. The sort is stable, so they follow it in the result.
+		Arrays.sort(r, 0, n, DirCache.ENT_CMP);
+		int w = 0;
+		for (int i = 0; i < n; i++) {
+			if (w > 0 && DirCache.ENT_CMP.compare(r[w - 1], r[i]) == 0)
+				r[w - 1] = r[i];
+			else
+				r[w++] = r[i];
+		}
+		return w == r.length ? r : Arrays.copyOf(r, w);
+	}
+
+	private CorruptObjectException corruptLink() {
+		return new CorruptObjectException(MessageFormat.format(
+				JGitText.get().DIRCLinkDoesNotMatchSharedIndex,
+				sharedId.name()));
+	}
+
+	/**
+	 * Compute the changes of an index relative to the shared entries.
+	 *
+	 * @param ents
+	 *            sorted entries of the index to write.
+	 * @param cnt
+	 *            number of valid entries in {@code ents}.
+	 * @return entries and link extension for the main index file.
+	 */
+	Delta diff(DirCacheEntry[] ents, int cnt) {
+		final EWAHCompressedBitmap delete = new EWAHCompressedBitmap();
+		final EWAHCompressedBitmap replace = new EWAHCompressedBitmap();
+		final DirCacheEntry[] replaced = new DirCacheEntry[Math.min(cnt,
+				shared.length)];
+		final DirCacheEntry[] added = new DirCacheEntry[cnt];
+		int nReplaced = 0;
+		int nAdded = 0;
+		int nDeleted = 0;
+
+		int k = 0;
+		for (int i = 0; i < cnt; i++) {
+			final DirCacheEntry e = ents[i];
+			while (k < shared.length
+					&& DirCache.ENT_CMP.compare(shared[k], e) < 0) {
+				delete.set(k++);
+				nDeleted++;
+			}
+			if (k < shared.length
+					&& DirCache.ENT_CMP.compare(shared[k], e) == 0) {
+				if (!e.isSameRecord(shared[k])) {
+					replace.set(k);
+					replaced[nReplaced++] = new DirCacheEntry(e, NO_PATH);
+				}
+				k++;
+			} else
+				added[nAdded++] = e;
+		}
+		while (k < shared.length) {
+			delete.set(k++);
+			nDeleted++;
+		}
+
+		final DirCacheEntry[] out = new DirCacheEntry[nReplaced + nAdded];
+		System.arraycopy(replaced, 0, out, 0, nReplaced);
+		System.arraycopy(added, 0, out, nReplaced, nAdded);
+		return new Delta(out, nReplaced + nAdded + nDeleted, delete, replace);
+	}
+
+	/** Entries and link extension of a main index. */
+	final class Delta {
+		final DirCacheEntry[] entries;
+
+		final int changed;
+
+		private final EWAHCompressedBitmap delete;
+
+		private final EWAHCompressedBitmap replace;
+
+		Delta(DirCacheEntry[] entries, int changed,
+				EWAHCompressedBitmap delete, EWAHCompressedBitmap replace) {
+			this.entries = entries;
+			this.changed = changed;
+			this.delete = delete;
+			this.replace = replace;
+		}
+
+		byte[] formatLink() throws IOException {
+			final ByteArrayOutputStream buf = new ByteArrayOutputStream();
+			final DataOutputStream out = new DataOutputStream(buf);
+			sharedId.copyRawTo(out);
+			delete.serialize(out);
+			replace.serialize(out);
+			out.flush();
+			return buf.toByteArray();
+		}
+	}
+}
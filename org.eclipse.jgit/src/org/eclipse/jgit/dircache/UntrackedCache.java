@@ -0,0 +1,614 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.dircache;
+
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectInserter;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+import com.googlecode.javaewah.IntIterator;
+
+/**
+ * Untracked cache stored in the {@code UNTR} extension of the index.
+ * <p>
+ * The cache remembers, for directories of the working tree which are not
+ * tracked by the index, the untracked files and directories they contain.
+ * Each record is keyed on the stat data of the directory and on the blob id
+ * of its {@code .gitignore} file. As long as neither of them changed, and the
+ * {@code .gitignore} files of the parent directories did not change either,
+ * the directory does not have to be listed again.
+ * <p>
+ * The extension uses the on-disk layout of C Git, but is tagged with an
+ * identity naming JGit. C Git therefore never trusts a cache written by JGit,
+ * and JGit drops caches written by other implementations when it reads the
+ * index.
+ *
+ * @since 4.8
+ */
+public class UntrackedCache {
+	private static final String SYSTEM = ", system JGit"; //$NON-NLS-1$
+
+	private static final int STAT_LENGTH = 36;
+
+	private static final int DIR_FLAGS = 0;
+
+	private final String ident;
+
+	private ObjectId infoExcludeId;
+
+	private ObjectId excludesFileId;
+
+	private final Map<String, Directory> directories = new TreeMap<>();
+
+	/**
+	 * Create an empty cache.
+	 *
+	 * @param ident
+	 *            identity of the working tree the cache describes, see
+	 *            {@link #ident(File)}.
+	 */
+	public UntrackedCache(String ident) {
+		this.ident = ident;
+	}
+
+	/**
+	 * Compute the identity of a cache for a working tree.
+	 * <p>
+	 * A cache is only valid for the working tree it was recorded in; moving
+	 * the working tree invalidates it.
+	 *
+	 * @param workTree
+	 *            root of the working tree.
+	 * @return the identity of caches recorded for {@code workTree}.
+	 */
+	public static String ident(File workTree) {
+		return "Location " + workTree.getAbsolutePath() + SYSTEM; //$NON-NLS-1$
+	}
+
+	/**
+	 * Compute the id a global or per directory exclude file is recorded by.
+	 *
+	 * @param file
+	 *            the exclude file.
+	 * @return blob id of the file's content; {@link ObjectId#zeroId()} if the
+	 *         file does not exist.
+	 * @throws IOException
+	 *             the file exists but cannot be read.
+	 */
+	public static ObjectId excludeId(File file) throws IOException {
+		byte[] content;
+		try {
+			content = IO.readFully(file);
+		} catch (FileNotFoundException e) {
+			return ObjectId.zeroId();
+		}
+		return new ObjectInserter.Formatter().idFor(Constants.OBJ_BLOB,
+				content);
+	}
+
+	/** @return identity of the working tree this cache was recorded in. */
+	public String getIdent() {
+		return ident;
+	}
+
+	/**
+	 * @return id of {@code $GIT_DIR/info/exclude} when the cache was recorded;
+	 *         null if unknown.
+	 */
+	public ObjectId getInfoExcludeId() {
+		return infoExcludeId;
+	}
+
+	/**
+	 * @param id
+	 *            id of {@code $GIT_DIR/info/exclude}, see
+	 *            {@link #excludeId(File)}.
+	 */
+	public void setInfoExcludeId(ObjectId id) {
+		infoExcludeId = id;
+	}
+
+	/**
+	 * @return id of the file named by {@code core.excludesFile} when the
+	 *         cache was recorded; null if unknown.
+	 */
+	public ObjectId getExcludesFileId() {
+		return excludesFileId;
+	}
+
+	/**
+	 * @param id
+	 *            id of the file named by {@code core.excludesFile}, see
+	 *            {@link #excludeId(File)}.
+	 */
+	public void setExcludesFileId(ObjectId id) {
+		excludesFileId = id;
+	}
+
+	/**
+	 * Get the record of a directory.
+	 *
+	 * @param path
+	 *            path of the directory relative to the working tree, without
+	 *            trailing slash; the empty string for the root.
+	 * @return the record; null if the directory is not cached.
+	 */
+	public Directory getDirectory(String path) {
+		return directories.get(path);
+	}
+
+	/**
+	 * Add or replace the record of a directory.
+	 *
+	 * @param dir
+	 *            the record.
+	 */
+	public void addDirectory(Directory dir) {
+		directories.put(dir.getPath(), dir);
+	}
+
+	/** @return all directory records, sorted by path. */
+	public Collection<Directory> getDirectories() {
+		return Collections.unmodifiableCollection(directories.values());
+	}
+
+	@Override
+	public int hashCode() {
+		return ident.hashCode() * 31 + directories.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof UntrackedCache))
+			return false;
+		UntrackedCache c = (UntrackedCache) o;
+		return ident.equals(c.ident) && equals(infoExcludeId, c.infoExcludeId)
+				&& equals(excludesFileId, c.excludesFileId)
+				&& directories.equals(c.directories);
+	}
+
+	private static boolean equals(Object a, Object b) {
+		return a == null ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Parse the content of an {@code UNTR} extension.
+	 *
+	 * @param raw
+	 *            content of the extension.
+	 * @return the cache; null if it was not written by JGit or cannot be
+	 *         parsed. The extension is only an optimization, so a damaged
+	 *         cache is simply dropped.
+	 */
+	static UntrackedCache parse(byte[] raw) {
+		try {
+			return parse(ByteBuffer.wrap(raw));
+		} catch (BufferUnderflowException | IndexOutOfBoundsException
+				| IllegalArgumentException | IOException e) {
+			return null;
+		}
+	}
+
+	private static UntrackedCache parse(ByteBuffer in) throws IOException {
+		int identLen = DirCacheEntry.decodeVarint(in);
+		if (identLen <= 0)
+			return null;
+		byte[] identRaw = new byte[identLen];
+		in.get(identRaw);
+		String ident = RawParseUtils.decode(Constants.CHARSET, identRaw, 0,
+				identLen - 1);
+		if (!ident.endsWith(SYSTEM))
+			return null;
+
+		UntrackedCache c = new UntrackedCache(ident);
+		in.position(in.position() + 2 * STAT_LENGTH + 4);
+		c.infoExcludeId = readId(in);
+		c.excludesFileId = readId(in);
+		skipString(in);
+
+		int cnt = DirCacheEntry.decodeVarint(in);
+		if (cnt <= 0)
+			return c;
+		List<Directory> dirs = new ArrayList<>(cnt);
+		readDirectory(in, "", dirs); //$NON-NLS-1$
+		if (dirs.size() != cnt)
+			return null;
+
+		byte[] rest = new byte[in.remaining()];
+		in.get(rest);
+		DataInputStream data = new DataInputStream(
+				new ByteArrayInputStream(rest));
+		EWAHCompressedBitmap valid = new EWAHCompressedBitmap();
+		EWAHCompressedBitmap checkOnly = new EWAHCompressedBitmap();
+		EWAHCompressedBitmap idValid = new EWAHCompressedBitmap();
+		valid.deserialize(data);
+		checkOnly.deserialize(data);
+		idValid.deserialize(data);
+
+		byte[] stat = new byte[STAT_LENGTH];
+		for (IntIterator i = valid.intIterator(); i.hasNext();) {
+			Directory d = dirs.get(i.next());
+			data.readFully(stat);
+			d.valid = true;
+			d.lastModified = NB.decodeUInt32(stat, 8) * 1000
+					+ NB.decodeInt32(stat, 12) / 1000000;
+			d.length = NB.decodeUInt32(stat, 32);
+		}
+		// check_only marks directories C Git only scanned to decide whether
+		// they are empty. JGit always lists them completely.
+		for (IntIterator i = checkOnly.intIterator(); i.hasNext();)
+			dirs.get(i.next()).valid = false;
+		byte[] id = new byte[OBJECT_ID_LENGTH];
+		for (IntIterator i = idValid.intIterator(); i.hasNext();) {
+			Directory d = dirs.get(i.next());
+			data.readFully(id);
+			d.excludeId = ObjectId.fromRaw(id);
+		}
+
+		for (Directory d : dirs)
+			c.addDirectory(d);
+		return c;
+	}
+
+	private static void readDirectory(ByteBuffer in, String path,
+			List<Directory> dirs) throws IOException {
+		int untrackedCnt = DirCacheEntry.decodeVarint(in);
+		int dirCnt = DirCacheEntry.decodeVarint(in);
+		if (untrackedCnt < 0 || dirCnt < 0)
+			throw new IllegalArgumentException();
+		String name = readString(in);
+		if (dirs.isEmpty()) {
+			if (!name.isEmpty())
+				throw new IllegalArgumentException();
+		} else
+			path = path.isEmpty() ? name : path + '/' + name;
+
+		Directory d = new Directory(path);
+		dirs.add(d);
+		for (int i = 0; i < untrackedCnt; i++)
+			d.untracked.add(readString(in));
+		for (int i = 0; i < dirCnt; i++)
+			readDirectory(in, path, dirs);
+	}
+
+	private static ObjectId readId(ByteBuffer in) {
+		byte[] id = new byte[OBJECT_ID_LENGTH];
+		in.get(id);
+		return ObjectId.fromRaw(id);
+	}
+
+	private static String readString(ByteBuffer in) {
+		int start = in.position();
+		int end = start;
+		while (in.get(end) != 0)
+			end++;
+		byte[] raw = new byte[end - start];
+		in.get(raw);
+		in.get();
+		return RawParseUtils.decode(Constants.CHARSET, raw, 0, raw.length);
+	}
+
+	private static void skipString(ByteBuffer in) {
+		while (in.get() != 0) {
+			// Skip to the terminating NUL.
+		}
+	}
+
+	/**
+	 * Format the content of an {@code UNTR} extension.
+	 *
+	 * @return the extension content.
+	 * @throws IOException
+	 *             the buffer cannot be written.
+	 */
+	byte[] format() throws IOException {
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		byte[] identRaw = Constants.encode(ident);
+		DirCacheEntry.writeVarint(buf, identRaw.length + 1);
+		buf.write(identRaw);
+		buf.write(0);
+
+		byte[] hdr = new byte[2 * STAT_LENGTH + 4];
+		NB.encodeInt32(hdr, 2 * STAT_LENGTH, DIR_FLAGS);
+		buf.write(hdr);
+		writeId(buf, infoExcludeId);
+		writeId(buf, excludesFileId);
+		writeString(buf, Constants.DOT_GIT_IGNORE);
+
+		if (directories.isEmpty()) {
+			DirCacheEntry.writeVarint(buf, 0);
+			buf.write(0);
+			return buf.toByteArray();
+		}
+
+		Node root = buildTree();
+		List<Directory> dirs = new ArrayList<>(directories.size());
+		root.collect(dirs);
+		DirCacheEntry.writeVarint(buf, dirs.size());
+		root.write(buf);
+
+		EWAHCompressedBitmap valid = new EWAHCompressedBitmap();
+		EWAHCompressedBitmap idValid = new EWAHCompressedBitmap();
+		ByteArrayOutputStream stats = new ByteArrayOutputStream();
+		ByteArrayOutputStream ids = new ByteArrayOutputStream();
+		byte[] stat = new byte[STAT_LENGTH];
+		for (int i = 0; i < dirs.size(); i++) {
+			Directory d = dirs.get(i);
+			if (d.valid) {
+				valid.set(i);
+				NB.encodeInt32(stat, 8, (int) (d.lastModified / 1000));
+				NB.encodeInt32(stat, 12,
+						(int) (d.lastModified % 1000) * 1000000);
+				NB.encodeInt32(stat, 32, (int) d.length);
+				stats.write(stat);
+			}
+			if (d.excludeId != null) {
+				idValid.set(i);
+				d.excludeId.copyRawTo(ids);
+			}
+		}
+		DataOutputStream out = new DataOutputStream(buf);
+		valid.serialize(out);
+		new EWAHCompressedBitmap().serialize(out);
+		idValid.serialize(out);
+		out.flush();
+		stats.writeTo(buf);
+		ids.writeTo(buf);
+		buf.write(0);
+		return buf.toByteArray();
+	}
+
+	/**
+	 * Arrange the records as the directory tree the extension is made of.
+	 * Directories without a record of their own, but with recorded
+	 * subdirectories, are written without stat data and exclude id, and are
+	 * therefore never trusted.
+	 */
+	private Node buildTree() {
+		Map<String, Node> nodes = new TreeMap<>();
+		Node root = new Node(""); //$NON-NLS-1$
+		nodes.put("", root); //$NON-NLS-1$
+		for (Directory d : directories.values())
+			node(nodes, d.getPath()).dir = d;
+		return root;
+	}
+
+	private static Node node(Map<String, Node> nodes, String path) {
+		Node n = nodes.get(path);
+		if (n == null) {
+			n = new Node(path);
+			nodes.put(path, n);
+			int s = path.lastIndexOf('/');
+			node(nodes, s < 0 ? "" : path.substring(0, s)).children.add(n); //$NON-NLS-1$
+		}
+		return n;
+	}
+
+	private static void writeId(ByteArrayOutputStream buf, ObjectId id)
+			throws IOException {
+		(id != null ? id : ObjectId.zeroId()).copyRawTo(buf);
+	}
+
+	private static void writeString(ByteArrayOutputStream buf, String s)
+			throws IOException {
+		buf.write(Constants.encode(s));
+		buf.write(0);
+	}
+
+	private static class Node {
+		final String name;
+
+		Directory dir;
+
+		final List<Node> children = new ArrayList<>();
+
+		Node(String path) {
+			name = path.substring(path.lastIndexOf('/') + 1);
+			dir = new Directory(path);
+		}
+
+		void collect(List<Directory> dirs) {
+			dirs.add(dir);
+			for (Node c : children)
+				c.collect(dirs);
+		}
+
+		void write(ByteArrayOutputStream buf) throws IOException {
+			DirCacheEntry.writeVarint(buf, dir.untracked.size());
+			DirCacheEntry.writeVarint(buf, children.size());
+			writeString(buf, name);
+			for (String u : dir.untracked)
+				writeString(buf, u);
+			for (Node c : children)
+				c.write(buf);
+		}
+	}
+
+	/** Cached state of one directory of the working tree. */
+	public static class Directory {
+		private final String path;
+
+		private boolean valid;
+
+		private long lastModified;
+
+		private long length;
+
+		private ObjectId excludeId;
+
+		private final List<String> untracked = new ArrayList<>();
+
+		/**
+		 * Create an empty, invalid record.
+		 *
+		 * @param path
+		 *            path of the directory relative to the working tree,
+		 *            without trailing slash; the empty string for the root.
+		 */
+		public Directory(String path) {
+			this.path = path;
+		}
+
+		/** @return path of the directory relative to the working tree. */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return true if {@link #getUntracked()} completely describes the
+		 *         directory as long as its stat data is unchanged.
+		 */
+		public boolean isValid() {
+			return valid;
+		}
+
+		/**
+		 * @param valid
+		 *            whether the untracked list can be trusted.
+		 */
+		public void setValid(boolean valid) {
+			this.valid = valid;
+		}
+
+		/** @return last modification time of the directory, in milliseconds. */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @param lastModified
+		 *            last modification time of the directory, in
+		 *            milliseconds.
+		 */
+		public void setLastModified(long lastModified) {
+			this.lastModified = lastModified;
+		}
+
+		/**
+		 * @return size of the directory as reported by the file system,
+		 *         truncated to 32 bits.
+		 */
+		public long getLength() {
+			return length;
+		}
+
+		/**
+		 * @param length
+		 *            size of the directory as reported by the file system.
+		 */
+		public void setLength(long length) {
+			this.length = length & 0xffffffffL;
+		}
+
+		/**
+		 * @return id of the directory's {@code .gitignore},
+		 *         {@link ObjectId#zeroId()} if there is none; null if unknown.
+		 */
+		public ObjectId getExcludeId() {
+			return excludeId;
+		}
+
+		/**
+		 * @param id
+		 *            id of the directory's {@code .gitignore}, see
+		 *            {@link UntrackedCache#excludeId(File)}.
+		 */
+		public void setExcludeId(ObjectId id) {
+			excludeId = id;
+		}
+
+		/**
+		 * @return names of the untracked files and directories inside this
+		 *         directory. Names of directories end with a slash. The list
+		 *         is modifiable.
+		 */
+		public List<String> getUntracked() {
+			return untracked;
+		}
+
+		@Override
+		public int hashCode() {
+			return path.hashCode() * 31 + untracked.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Directory))
+				return false;
+			Directory d = (Directory) o;
+			return path.equals(d.path) && valid == d.valid
+					&& (!valid || (lastModified == d.lastModified
+							&& length == d.length))
+					&& UntrackedCache.equals(excludeId, d.excludeId)
+					&& untracked.equals(d.untracked);
+		}
+
+		@Override
+		public String toString() {
+			return "Directory[" + path + ", " + untracked + "]"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		}
+	}
+}
@@ -94,8 +94,11 @@ public static JGitText get() {
 	/***/ public String bareRepositoryNoWorkdirAndIndex;
 	/***/ public String base64InputNotProperlyPadded;
 	/***/ public String baseLengthIncorrect;
+	/***/ public String bitmapLayerMismatch;
 	/***/ public String bitmapMissingObject;
 	/***/ public String bitmapsMustBePrepared;
+	/***/ public String blameCacheCorrupt;
+	/***/ public String blameCacheSegmentsNotContiguous;
 	/***/ public String blameNotCommittedYet;
 	/***/ public String blobNotFound;
 	/***/ public String blobNotFoundForPath;
@@ -166,6 +169,7 @@ public static JGitText get() {
 	/***/ public String cannotWriteObjectsPath;
 	/***/ public String canOnlyCherryPickCommitsWithOneParent;
 	/***/ public String canOnlyRevertCommitsWithOneParent;
+	/***/ public String checkoutInterrupted;
 	/***/ public String commitDoesNotHaveGivenParent;
 	/***/ public String cantFindObjectInReversePackIndexForTheSpecifiedOffset;
 	/***/ public String cantPassMeATree;
@@ -181,10 +185,16 @@ public static JGitText get() {
 	/***/ public String commandRejectedByHook;
 	/***/ public String commandWasCalledInTheWrongState;
 	/***/ public String commitAlreadyExists;
+	/***/ public String commitGraphChainNotSupported;
+	/***/ public String commitGraphChunkNeeded;
+	/***/ public String commitGraphChunkRepeated;
+	/***/ public String commitGraphCorrupt;
+	/***/ public String commitGraphFileIsTooLargeForJgit;
 	/***/ public String commitMessageNotSpecified;
 	/***/ public String commitOnRepoWithoutHEADCurrentlyNotSupported;
 	/***/ public String commitAmendOnInitialNotPossible;
 	/***/ public String compressingObjects;
+	/***/ public String computingCommitGeneration;
 	/***/ public String connectionFailed;
 	/***/ public String connectionTimeOut;
 	/***/ public String contextMustBeNonNegative;
@@ -281,9 +291,12 @@ public static JGitText get() {
 	/***/ public String dirCacheFileIsNotLocked;
 	/***/ public String dirCacheIsNotLocked;
 	/***/ public String DIRCChecksumMismatch;
+	/***/ public String DIRCCorruptLinkExtension;
+	/***/ public String DIRCCorruptPrefixLength;
 	/***/ public String DIRCExtensionIsTooLargeAt;
 	/***/ public String DIRCExtensionNotSupportedByThisVersion;
 	/***/ public String DIRCHasTooManyEntries;
+	/***/ public String DIRCLinkDoesNotMatchSharedIndex;
 	/***/ public String DIRCUnrecognizedExtendedFlags;
 	/***/ public String dirtyFilesExist;
 	/***/ public String doesNotHandleMode;
@@ -352,6 +365,9 @@ public static JGitText get() {
 	/***/ public String fileModeNotSetForPath;
 	/***/ public String filterExecutionFailed;
 	/***/ public String filterExecutionFailedRc;
+	/***/ public String filterNotAllowed;
+	/***/ public String filterRequiresCapability;
+	/***/ public String findingCommitsForCommitGraph;
 	/***/ public String findingGarbage;
 	/***/ public String flagIsDisposed;
 	/***/ public String flagNotFromThis;
@@ -359,6 +375,7 @@ public static JGitText get() {
 	/***/ public String funnyRefname;
 	/***/ public String gcFailed;
 	/***/ public String gitmodulesNotFound;
+	/***/ public String hashingObjects;
 	/***/ public String headRequiredToStash;
 	/***/ public String hoursAgo;
 	/***/ public String hugeIndexesAreNotSupportedByJgitYet;
@@ -399,6 +416,7 @@ public static JGitText get() {
 	/***/ public String invalidDepth;
 	/***/ public String invalidEncryption;
 	/***/ public String invalidExpandWildcard;
+	/***/ public String invalidFilter;
 	/***/ public String invalidGitdirRef;
 	/***/ public String invalidGitType;
 	/***/ public String invalidId;
@@ -421,6 +439,8 @@ public static JGitText get() {
 	/***/ public String invalidPathReservedOnWindows;
 	/***/ public String invalidReflogRevision;
 	/***/ public String invalidRefName;
+	/***/ public String invalidReftableBlock;
+	/***/ public String invalidReftableFile;
 	/***/ public String invalidRemote;
 	/***/ public String invalidShallowObject;
 	/***/ public String invalidStageForPath;
@@ -471,12 +491,18 @@ public static JGitText get() {
 	/***/ public String missingPrerequisiteCommits;
 	/***/ public String missingRequiredParameter;
 	/***/ public String missingSecretkey;
+	/***/ public String missingSharedIndex;
 	/***/ public String mixedStagesNotAllowed;
 	/***/ public String mkDirFailed;
 	/***/ public String mkDirsFailed;
 	/***/ public String month;
 	/***/ public String months;
 	/***/ public String monthsAgo;
+	/***/ public String multiPackIndexChainNotSupported;
+	/***/ public String multiPackIndexChunkNeeded;
+	/***/ public String multiPackIndexChunkRepeated;
+	/***/ public String multiPackIndexCorrupt;
+	/***/ public String multiPackIndexFileIsTooLargeForJgit;
 	/***/ public String multipleMergeBasesFor;
 	/***/ public String need2Arguments;
 	/***/ public String needPackOut;
@@ -494,8 +520,10 @@ public static JGitText get() {
 	/***/ public String noSuchRef;
 	/***/ public String notABoolean;
 	/***/ public String notABundle;
+	/***/ public String notACommitGraph;
 	/***/ public String notADIRCFile;
 	/***/ public String notAGitDirectory;
+	/***/ public String notAMultiPackIndex;
 	/***/ public String notAPACKFile;
 	/***/ public String notARef;
 	/***/ public String notASCIIString;
@@ -581,6 +609,8 @@ public static JGitText get() {
 	/***/ public String refAlreadyExists1;
 	/***/ public String reflogEntryNotFound;
 	/***/ public String refNotResolved;
+	/***/ public String reftableRecordsMustIncrease;
+	/***/ public String reftableTooLarge;
 	/***/ public String refUpdateReturnCodeWas;
 	/***/ public String remoteConfigHasNoURIAssociated;
 	/***/ public String remoteDoesNotHaveSpec;
@@ -599,6 +629,7 @@ public static JGitText get() {
 	/***/ public String repositoryAlreadyExists;
 	/***/ public String repositoryConfigFileInvalid;
 	/***/ public String repositoryIsRequired;
+	/***/ public String repositoryMaintenanceFailed;
 	/***/ public String repositoryNotFound;
 	/***/ public String repositoryState_applyMailbox;
 	/***/ public String repositoryState_bare;
@@ -711,6 +742,7 @@ public static JGitText get() {
 	/***/ public String unexpectedEndOfInput;
 	/***/ public String unexpectedHunkTrailer;
 	/***/ public String unexpectedOddResult;
+	/***/ public String unexpectedProtocolV2Argument;
 	/***/ public String unexpectedRefReport;
 	/***/ public String unexpectedReportLine;
 	/***/ public String unexpectedReportLine2;
@@ -721,25 +753,34 @@ public static JGitText get() {
 	/***/ public String unknownObject;
 	/***/ public String unknownObjectType;
 	/***/ public String unknownObjectType2;
+	/***/ public String unknownProtocolV2Command;
 	/***/ public String unknownRepositoryFormat;
 	/***/ public String unknownRepositoryFormat2;
 	/***/ public String unknownZlibError;
 	/***/ public String unmergedPath;
 	/***/ public String unmergedPaths;
 	/***/ public String unpackException;
+	/***/ public String unreadableCommitGraph;
+	/***/ public String unreadableMultiPackIndex;
 	/***/ public String unreadablePackIndex;
+	/***/ public String unreadableReftable;
 	/***/ public String unrecognizedRef;
 	/***/ public String unsetMark;
 	/***/ public String unsupportedAlternates;
 	/***/ public String unsupportedArchiveFormat;
 	/***/ public String unsupportedCommand0;
+	/***/ public String unsupportedCommitGraphHashVersion;
+	/***/ public String unsupportedCommitGraphVersion;
 	/***/ public String unsupportedEncryptionAlgorithm;
 	/***/ public String unsupportedEncryptionVersion;
 	/***/ public String unsupportedGC;
 	/***/ public String unsupportedMark;
+	/***/ public String unsupportedMultiPackIndexHashVersion;
+	/***/ public String unsupportedMultiPackIndexVersion;
 	/***/ public String unsupportedOperationNotAddAtEnd;
 	/***/ public String unsupportedPackIndexVersion;
 	/***/ public String unsupportedPackVersion;
+	/***/ public String unsupportedReftableVersion;
 	/***/ public String unsupportedRepositoryDescription;
 	/***/ public String updatingHeadFailed;
 	/***/ public String updatingReferences;
@@ -760,6 +801,8 @@ public static JGitText get() {
 	/***/ public String writingNotPermitted;
 	/***/ public String writingNotSupported;
 	/***/ public String writingObjects;
+	/***/ public String writingOutCommitGraph;
+	/***/ public String writingOutMultiPackIndex;
 	/***/ public String wrongDecompressedLength;
 	/***/ public String wrongRepositoryState;
 	/***/ public String year;
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Shared pool of threads for CPU or I/O bound work split across tasks.
+ * <p>
+ * The pool is created on first use and has one daemon thread per processor,
+ * at least two. Idle threads exit after a minute, so the pool costs nothing
+ * while it is not used.
+ * <p>
+ * Callers must not shut the pool down. Tasks must not wait for other tasks
+ * submitted to the pool, as all threads may be busy with the waiting tasks.
+ * Code that may run as such a task can check {@link #isWorkerThread()} and
+ * do the work itself instead.
+ */
+public final class WorkerPool {
+	private static final ThreadLocal<Boolean> WORKER = new ThreadLocal<>();
+
+	/** @return the shared executor. */
+	public static ExecutorService get() {
+		return Holder.POOL;
+	}
+
+	/** @return number of threads of the shared executor. */
+	public static int getThreadCount() {
+		return Holder.THREADS;
+	}
+
+	/** @return true if the current thread belongs to the shared executor. */
+	public static boolean isWorkerThread() {
+		return WORKER.get() != null;
+	}
+
+	private static class Holder {
+		static final int THREADS = Math.max(
+				Runtime.getRuntime().availableProcessors(), 2);
+
+		static final ThreadPoolExecutor POOL;
+
+		static {
+			POOL = new ThreadPoolExecutor(THREADS, THREADS, 60,
+					TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+					new ThreadFactory() {
+						private final ThreadFactory baseFactory = Executors
+								.defaultThreadFactory();
+
+						private final AtomicInteger next = new AtomicInteger();
+
+						@Override
+						public Thread newThread(final Runnable taskBody) {
+							Thread thr = baseFactory.newThread(new Runnable() {
+								@Override
+								public void run() {
+									WORKER.set(Boolean.TRUE);
+									taskBody.run();
+								}
+							});
+							thr.setName("JGit-Worker-" //$NON-NLS-1$
+									+ next.incrementAndGet());
+							thr.setDaemon(true);
+							return thr;
+						}
+					});
+			POOL.allowCoreThreadTimeOut(true);
+		}
+	}
+
+	private WorkerPool() {
+		// Static utility methods only.
+	}
+}
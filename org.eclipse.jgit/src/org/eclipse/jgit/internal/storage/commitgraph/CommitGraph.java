@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The commit-graph stores the parent, tree and generation information of a
+ * set of commits, allowing a walk to traverse history without inflating and
+ * parsing each commit object.
+ * <p>
+ * Commits are identified by their position in the graph, which is the index
+ * of their ObjectId in the sorted list of commits covered by the graph. The
+ * graph is closed under reachability: every parent of a commit in the graph
+ * is also in the graph.
+ * <p>
+ * Implementations of this interface must be safe for concurrent use by
+ * multiple threads.
+ */
+public interface CommitGraph {
+	/** Generation number of a commit not covered by a commit-graph. */
+	int GENERATION_UNKNOWN = Integer.MAX_VALUE;
+
+	/** Generation number of a commit stored by a graph that predates them. */
+	int GENERATION_NOT_COMPUTED = 0;
+
+	/**
+	 * Find the position of a commit in the commit-graph.
+	 *
+	 * @param commit
+	 *            the commit to look for.
+	 * @return position of the commit in the graph, or -1 if the commit is not
+	 *         covered by this commit-graph.
+	 */
+	int findGraphPosition(AnyObjectId commit);
+
+	/**
+	 * Get the object at the commit-graph position.
+	 *
+	 * @param graphPos
+	 *            position of the commit, as returned by
+	 *            {@link #findGraphPosition(AnyObjectId)}.
+	 * @return the ObjectId of the commit at that position.
+	 */
+	ObjectId getObjectId(int graphPos);
+
+	/**
+	 * Get the metadata of a commit.
+	 *
+	 * @param graphPos
+	 *            position of the commit, as returned by
+	 *            {@link #findGraphPosition(AnyObjectId)}.
+	 * @return the metadata of the commit.
+	 */
+	CommitData getCommitData(int graphPos);
+
+	/**
+	 * Get the generation number of a commit.
+	 * <p>
+	 * Equivalent to {@code getCommitData(graphPos).getGeneration()}, without
+	 * allocating the metadata object.
+	 *
+	 * @param graphPos
+	 *            position of the commit, as returned by
+	 *            {@link #findGraphPosition(AnyObjectId)}.
+	 * @return the generation number of the commit.
+	 */
+	int getGeneration(int graphPos);
+
+	/** @return number of commits covered by this commit-graph. */
+	int getCommitCount();
+
+	/** Metadata of a commit stored in the commit-graph. */
+	interface CommitData {
+		/** @return the root tree of the commit. */
+		ObjectId getTree();
+
+		/**
+		 * @return graph positions of the parents of the commit, in the order
+		 *         they appear in the commit. Empty for a root commit.
+		 */
+		int[] getParents();
+
+		/** @return committer time of the commit, in seconds since the epoch. */
+		long getCommitTime();
+
+		/**
+		 * Get the generation number (topological level) of the commit.
+		 * <p>
+		 * A root commit has generation 1; every other commit has generation
+		 * one more than the maximum generation of its parents. Therefore if
+		 * commit A can reach commit B, the generation of A is strictly
+		 * greater than the generation of B.
+		 *
+		 * @return the generation number of the commit, or
+		 *         {@link CommitGraph#GENERATION_NOT_COMPUTED}.
+		 */
+		int getGeneration();
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+/** Constants of the commit-graph file format. */
+class CommitGraphConstants {
+	/** Signature at the start of the file, {@code "CGPH"}. */
+	static final int COMMIT_GRAPH_MAGIC = 0x43475048;
+
+	/** Version of the file format written by this implementation. */
+	static final int COMMIT_GRAPH_VERSION = 1;
+
+	/** Hash version identifying SHA-1 object names. */
+	static final int OID_HASH_VERSION = 1;
+
+	/** Size of the header preceding the chunk lookup table. */
+	static final int COMMIT_GRAPH_HEADER_SIZE = 8;
+
+	/** Size of each entry of the chunk lookup table. */
+	static final int CHUNK_LOOKUP_WIDTH = 12;
+
+	/** Chunk with the 256 entry fanout table, {@code "OIDF"}. */
+	static final int CHUNK_ID_OID_FANOUT = 0x4f494446;
+
+	/** Chunk with the sorted commit names, {@code "OIDL"}. */
+	static final int CHUNK_ID_OID_LOOKUP = 0x4f49444c;
+
+	/** Chunk with the per-commit metadata, {@code "CDAT"}. */
+	static final int CHUNK_ID_COMMIT_DATA = 0x43444154;
+
+	/** Chunk with the parents of octopus merges, {@code "EDGE"}. */
+	static final int CHUNK_ID_EXTRA_EDGE_LIST = 0x45444745;
+
+	/** Number of entries in the fanout table. */
+	static final int GRAPH_FANOUT_SIZE = 256;
+
+	/** Width of a single commit in the commit data chunk. */
+	static final int COMMIT_DATA_WIDTH = 36;
+
+	/** Parent position meaning the commit does not have this parent. */
+	static final int GRAPH_NO_PARENT = 0x70000000;
+
+	/** Second parent flag redirecting to the extra edge list. */
+	static final int GRAPH_EXTRA_EDGES_NEEDED = 0x80000000;
+
+	/** Flag marking the last parent of an extra edge list run. */
+	static final int GRAPH_LAST_EDGE = 0x80000000;
+
+	/** Maximum generation number that fits into the file format. */
+	static final int GENERATION_NUMBER_MAX = 0x3FFFFFFF;
+
+	private CommitGraphConstants() {
+	}
+}
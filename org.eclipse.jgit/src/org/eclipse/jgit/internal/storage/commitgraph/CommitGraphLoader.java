@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_COMMIT_DATA;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_EXTRA_EDGE_LIST;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_DATA_WIDTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_HEADER_SIZE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_MAGIC;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_VERSION;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_FANOUT_SIZE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.OID_HASH_VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * The loader returns the representation of the commit-graph file content.
+ */
+public class CommitGraphLoader {
+	/**
+	 * Open an existing commit-graph file for reading.
+	 * <p>
+	 * The format of the file is detected and a proper reader implementation
+	 * is created and returned to the caller. The file content is loaded into
+	 * memory, the file is closed before this method returns.
+	 *
+	 * @param graphFile
+	 *            existing commit-graph to read.
+	 * @return a copy of the commit-graph file in memory.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read due to security
+	 *             errors, unrecognized data version, or unexpected data
+	 *             corruption.
+	 */
+	public static CommitGraph open(File graphFile)
+			throws FileNotFoundException, IOException {
+		try (InputStream fd = new BufferedInputStream(
+				new FileInputStream(graphFile))) {
+			return read(fd);
+		} catch (IOException ioe) {
+			if (ioe instanceof FileNotFoundException)
+				throw ioe;
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unreadableCommitGraph,
+					graphFile.getAbsolutePath()), ioe);
+		}
+	}
+
+	/**
+	 * Read an existing commit-graph file from a buffered stream.
+	 * <p>
+	 * The format of the file is detected and a proper reader implementation
+	 * is created and returned to the caller. The stream's position is left at
+	 * the start of the trailing checksum, which is not verified.
+	 *
+	 * @param fd
+	 *            stream to read the commit-graph file from. The stream must
+	 *            be buffered as some small IOs are performed against the
+	 *            stream. The caller is responsible for closing the stream.
+	 * @return a copy of the commit-graph file in memory.
+	 * @throws IOException
+	 *             the stream cannot be read, or it contains an unsupported
+	 *             version or corrupt data.
+	 */
+	public static CommitGraph read(InputStream fd) throws IOException {
+		byte[] hdr = new byte[COMMIT_GRAPH_HEADER_SIZE];
+		IO.readFully(fd, hdr, 0, hdr.length);
+
+		int magic = NB.decodeInt32(hdr, 0);
+		if (magic != COMMIT_GRAPH_MAGIC)
+			throw new IOException(JGitText.get().notACommitGraph);
+
+		int v = hdr[4];
+		if (v != COMMIT_GRAPH_VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphVersion,
+					Integer.valueOf(v)));
+
+		int hashVersion = hdr[5];
+		if (hashVersion != OID_HASH_VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedCommitGraphHashVersion,
+					Integer.valueOf(hashVersion)));
+
+		int numberOfChunks = hdr[6] & 0xff;
+		int baseGraphs = hdr[7] & 0xff;
+		if (baseGraphs != 0)
+			throw new IOException(JGitText.get().commitGraphChainNotSupported);
+
+		byte[] lookupBuffer = new byte[CHUNK_LOOKUP_WIDTH
+				* (numberOfChunks + 1)];
+		IO.readFully(fd, lookupBuffer, 0, lookupBuffer.length);
+
+		int[] fanout = null;
+		byte[] oidLookup = null;
+		byte[] commitData = null;
+		byte[] extraEdgeList = null;
+
+		long pos = hdr.length + lookupBuffer.length;
+		for (int i = 0; i < numberOfChunks; i++) {
+			int id = NB.decodeInt32(lookupBuffer, i * CHUNK_LOOKUP_WIDTH);
+			long start = NB.decodeInt64(lookupBuffer,
+					i * CHUNK_LOOKUP_WIDTH + 4);
+			long end = NB.decodeInt64(lookupBuffer,
+					(i + 1) * CHUNK_LOOKUP_WIDTH + 4);
+			if (start < pos || end < start)
+				throw new IOException(JGitText.get().commitGraphCorrupt);
+			if (end - start > Integer.MAX_VALUE)
+				throw new IOException(
+						JGitText.get().commitGraphFileIsTooLargeForJgit);
+			IO.skipFully(fd, start - pos);
+			byte[] buffer = new byte[(int) (end - start)];
+			IO.readFully(fd, buffer, 0, buffer.length);
+			pos = end;
+
+			switch (id) {
+			case CHUNK_ID_OID_FANOUT:
+				checkChunkNotRepeated(fanout == null, id);
+				fanout = readFanout(buffer);
+				break;
+			case CHUNK_ID_OID_LOOKUP:
+				checkChunkNotRepeated(oidLookup == null, id);
+				oidLookup = buffer;
+				break;
+			case CHUNK_ID_COMMIT_DATA:
+				checkChunkNotRepeated(commitData == null, id);
+				commitData = buffer;
+				break;
+			case CHUNK_ID_EXTRA_EDGE_LIST:
+				checkChunkNotRepeated(extraEdgeList == null, id);
+				extraEdgeList = buffer;
+				break;
+			default:
+				// Unknown chunks are optional and can be ignored.
+				break;
+			}
+		}
+
+		if (fanout == null)
+			throw chunkMissing(CHUNK_ID_OID_FANOUT);
+		if (oidLookup == null)
+			throw chunkMissing(CHUNK_ID_OID_LOOKUP);
+		if (commitData == null)
+			throw chunkMissing(CHUNK_ID_COMMIT_DATA);
+
+		long commitCnt = fanout[GRAPH_FANOUT_SIZE - 1] & 0xffffffffL;
+		if (oidLookup.length != commitCnt * Constants.OBJECT_ID_LENGTH
+				|| commitData.length != commitCnt * COMMIT_DATA_WIDTH)
+			throw new IOException(JGitText.get().commitGraphCorrupt);
+		return new CommitGraphV1(fanout, oidLookup, commitData,
+				extraEdgeList != null ? extraEdgeList : new byte[0]);
+	}
+
+	private static int[] readFanout(byte[] buffer) throws IOException {
+		if (buffer.length != GRAPH_FANOUT_SIZE * 4)
+			throw new IOException(JGitText.get().commitGraphCorrupt);
+		int[] fanout = new int[GRAPH_FANOUT_SIZE];
+		for (int k = 0; k < fanout.length; k++) {
+			fanout[k] = NB.decodeInt32(buffer, k * 4);
+			if (fanout[k] < 0 || (k > 0 && fanout[k] < fanout[k - 1]))
+				throw new IOException(JGitText.get().commitGraphCorrupt);
+		}
+		return fanout;
+	}
+
+	private static void checkChunkNotRepeated(boolean first, int id)
+			throws IOException {
+		if (!first)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().commitGraphChunkRepeated, chunkName(id)));
+	}
+
+	private static IOException chunkMissing(int id) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().commitGraphChunkNeeded, chunkName(id)));
+	}
+
+	private static String chunkName(int id) {
+		byte[] b = new byte[4];
+		NB.encodeInt32(b, 0, id);
+		return new String(b, 0, 4, Constants.CHARSET);
+	}
+
+	private CommitGraphLoader() {
+	}
+}
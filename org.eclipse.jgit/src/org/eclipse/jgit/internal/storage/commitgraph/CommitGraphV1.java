@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_DATA_WIDTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_EXTRA_EDGES_NEEDED;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_LAST_EDGE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_NO_PARENT;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Support for the commit-graph v1 format.
+ *
+ * @see CommitGraph
+ */
+class CommitGraphV1 implements CommitGraph {
+	private static final int[] NO_PARENTS = {};
+
+	private final int[] fanoutTable;
+
+	private final byte[] oidLookup;
+
+	private final byte[] commitData;
+
+	private final byte[] extraEdgeList;
+
+	private final int commitCnt;
+
+	CommitGraphV1(int[] fanoutTable, byte[] oidLookup, byte[] commitData,
+			byte[] extraEdgeList) {
+		this.fanoutTable = fanoutTable;
+		this.oidLookup = oidLookup;
+		this.commitData = commitData;
+		this.extraEdgeList = extraEdgeList;
+		this.commitCnt = fanoutTable[fanoutTable.length - 1];
+	}
+
+	@Override
+	public int findGraphPosition(AnyObjectId commit) {
+		int levelOne = commit.getFirstByte();
+		int low = levelOne == 0 ? 0 : fanoutTable[levelOne - 1];
+		int high = fanoutTable[levelOne];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = commit.compareTo(oidLookup,
+					mid * Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	@Override
+	public ObjectId getObjectId(int graphPos) {
+		if (graphPos < 0 || graphPos >= commitCnt)
+			return null;
+		return ObjectId.fromRaw(oidLookup,
+				graphPos * Constants.OBJECT_ID_LENGTH);
+	}
+
+	@Override
+	public CommitData getCommitData(int graphPos) {
+		if (graphPos < 0 || graphPos >= commitCnt)
+			return null;
+		int p = graphPos * COMMIT_DATA_WIDTH;
+		ObjectId tree = ObjectId.fromRaw(commitData, p);
+		int[] parents = findParents(
+				NB.decodeInt32(commitData, p + 20),
+				NB.decodeInt32(commitData, p + 24));
+		long genAndTime = NB.decodeInt64(commitData, p + 28);
+		return new GraphCommitData(tree, parents,
+				genAndTime & 0x3FFFFFFFFL, (int) (genAndTime >>> 34));
+	}
+
+	@Override
+	public int getGeneration(int graphPos) {
+		return NB.decodeInt32(commitData, graphPos * COMMIT_DATA_WIDTH + 28)
+				>>> 2;
+	}
+
+	@Override
+	public int getCommitCount() {
+		return commitCnt;
+	}
+
+	private int[] findParents(int parent1, int parent2) {
+		if (parent1 == GRAPH_NO_PARENT)
+			return NO_PARENTS;
+		if (parent2 == GRAPH_NO_PARENT)
+			return new int[] { parent1 };
+		if ((parent2 & GRAPH_EXTRA_EDGES_NEEDED) == 0)
+			return new int[] { parent1, parent2 };
+
+		int start = (parent2 & ~GRAPH_EXTRA_EDGES_NEEDED) * 4;
+		int cnt = 1;
+		while ((NB.decodeInt32(extraEdgeList, start + (cnt - 1) * 4)
+				& GRAPH_LAST_EDGE) == 0)
+			cnt++;
+		int[] parents = new int[cnt + 1];
+		parents[0] = parent1;
+		for (int i = 0; i < cnt; i++)
+			parents[i + 1] = NB.decodeInt32(extraEdgeList, start + i * 4)
+					& ~GRAPH_LAST_EDGE;
+		return parents;
+	}
+
+	private static class GraphCommitData implements CommitData {
+		private final ObjectId tree;
+
+		private final int[] parents;
+
+		private final long commitTime;
+
+		private final int generation;
+
+		GraphCommitData(ObjectId tree, int[] parents, long commitTime,
+				int generation) {
+			this.tree = tree;
+			this.parents = parents;
+			this.commitTime = commitTime;
+			this.generation = generation;
+		}
+
+		@Override
+		public ObjectId getTree() {
+			return tree;
+		}
+
+		@Override
+		public int[] getParents() {
+			return parents;
+		}
+
+		@Override
+		public long getCommitTime() {
+			return commitTime;
+		}
+
+		@Override
+		public int getGeneration() {
+			return generation;
+		}
+	}
+}
@@ -0,0 +1,345 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.commitgraph;
+
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_COMMIT_DATA;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_EXTRA_EDGE_LIST;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_ID_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_DATA_WIDTH;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_HEADER_SIZE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_MAGIC;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.COMMIT_GRAPH_VERSION;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GENERATION_NUMBER_MAX;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_EXTRA_EDGES_NEEDED;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_FANOUT_SIZE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_LAST_EDGE;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.GRAPH_NO_PARENT;
+import static org.eclipse.jgit.internal.storage.commitgraph.CommitGraphConstants.OID_HASH_VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes a commit-graph file covering all commits reachable from a set of
+ * starting points.
+ * <p>
+ * The output is compatible with the commit-graph file of C git, and is read
+ * back by {@link CommitGraphLoader}.
+ */
+public class CommitGraphWriter {
+	private final ObjectReader reader;
+
+	private int commitCnt;
+
+	/**
+	 * Create a writer for a commit-graph.
+	 *
+	 * @param reader
+	 *            reader used to parse the commits that are written. The
+	 *            reader is not closed by the writer.
+	 */
+	public CommitGraphWriter(ObjectReader reader) {
+		this.reader = reader;
+	}
+
+	/**
+	 * @return number of commits written by the last
+	 *         {@link #write(ProgressMonitor, OutputStream, Set)}.
+	 */
+	public int getCommitCount() {
+		return commitCnt;
+	}
+
+	/**
+	 * Write a commit-graph for all commits reachable from {@code wants}.
+	 * <p>
+	 * Objects in {@code wants} which do not peel to a commit, or which are
+	 * missing from the repository, are silently skipped.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of commits processed.
+	 * @param graphStream
+	 *            stream to write the commit-graph to. The stream is not
+	 *            closed by this method.
+	 * @param wants
+	 *            starting points of the history covered by the graph.
+	 * @throws IOException
+	 *             a commit could not be read, or the stream failed.
+	 */
+	public void write(ProgressMonitor pm, OutputStream graphStream,
+			Set<? extends ObjectId> wants) throws IOException {
+		List<GraphCommit> commits = findCommits(pm, wants);
+		commitCnt = commits.size();
+		computeGenerations(pm, commits);
+
+		pm.beginTask(JGitText.get().writingOutCommitGraph, commitCnt);
+		DigestOutputStream out = new DigestOutputStream(
+				graphStream instanceof BufferedOutputStream ? graphStream
+						: new BufferedOutputStream(graphStream),
+				Constants.newMessageDigest());
+		byte[] edges = buildExtraEdges(commits);
+
+		int chunkCnt = edges.length > 0 ? 4 : 3;
+		int[] ids = new int[chunkCnt];
+		long[] sizes = new long[chunkCnt];
+		ids[0] = CHUNK_ID_OID_FANOUT;
+		sizes[0] = GRAPH_FANOUT_SIZE * 4;
+		ids[1] = CHUNK_ID_OID_LOOKUP;
+		sizes[1] = (long) commitCnt * Constants.OBJECT_ID_LENGTH;
+		ids[2] = CHUNK_ID_COMMIT_DATA;
+		sizes[2] = (long) commitCnt * COMMIT_DATA_WIDTH;
+		if (chunkCnt == 4) {
+			ids[3] = CHUNK_ID_EXTRA_EDGE_LIST;
+			sizes[3] = edges.length;
+		}
+
+		byte[] hdr = new byte[COMMIT_GRAPH_HEADER_SIZE];
+		NB.encodeInt32(hdr, 0, COMMIT_GRAPH_MAGIC);
+		hdr[4] = COMMIT_GRAPH_VERSION;
+		hdr[5] = OID_HASH_VERSION;
+		hdr[6] = (byte) chunkCnt;
+		hdr[7] = 0;
+		out.write(hdr);
+
+		byte[] lookup = new byte[CHUNK_LOOKUP_WIDTH * (chunkCnt + 1)];
+		long offset = hdr.length + lookup.length;
+		for (int i = 0; i < chunkCnt; i++) {
+			NB.encodeInt32(lookup, i * CHUNK_LOOKUP_WIDTH, ids[i]);
+			NB.encodeInt64(lookup, i * CHUNK_LOOKUP_WIDTH + 4, offset);
+			offset += sizes[i];
+		}
+		NB.encodeInt64(lookup, chunkCnt * CHUNK_LOOKUP_WIDTH + 4, offset);
+		out.write(lookup);
+
+		writeFanout(out, commits);
+		byte[] tmp = new byte[COMMIT_DATA_WIDTH];
+		for (GraphCommit c : commits) {
+			c.copyRawTo(tmp, 0);
+			out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+		}
+		writeCommitData(pm, out, commits, tmp);
+		out.write(edges);
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+		pm.endTask();
+	}
+
+	private List<GraphCommit> findCommits(ProgressMonitor pm,
+			Set<? extends ObjectId> wants) throws IOException {
+		pm.beginTask(JGitText.get().findingCommitsForCommitGraph,
+				ProgressMonitor.UNKNOWN);
+		try (RevWalk walk = new GraphWalk(reader)) {
+			walk.setRetainBody(false);
+			for (ObjectId id : wants) {
+				RevObject o = peel(walk, id);
+				if (o instanceof RevCommit)
+					walk.markStart((RevCommit) o);
+			}
+
+			List<GraphCommit> commits = new ArrayList<>();
+			RevCommit c;
+			while ((c = walk.next()) != null) {
+				commits.add((GraphCommit) c);
+				pm.update(1);
+			}
+			Collections.sort(commits);
+			for (int i = 0; i < commits.size(); i++)
+				commits.get(i).graphPos = i;
+			return commits;
+		} finally {
+			pm.endTask();
+		}
+	}
+
+	private static RevObject peel(RevWalk walk, ObjectId id)
+			throws IOException {
+		try {
+			return walk.peel(walk.parseAny(id));
+		} catch (MissingObjectException | IncorrectObjectTypeException e) {
+			return null;
+		}
+	}
+
+	private static void computeGenerations(ProgressMonitor pm,
+			List<GraphCommit> commits) {
+		pm.beginTask(JGitText.get().computingCommitGeneration,
+				commits.size());
+		Deque<GraphCommit> stack = new ArrayDeque<>();
+		for (GraphCommit cmit : commits) {
+			if (cmit.generation == 0)
+				stack.push(cmit);
+			while (!stack.isEmpty()) {
+				GraphCommit c = stack.peek();
+				int max = 0;
+				boolean ready = true;
+				for (int i = 0; i < c.getParentCount(); i++) {
+					GraphCommit p = (GraphCommit) c.getParent(i);
+					if (p.generation == 0) {
+						stack.push(p);
+						ready = false;
+					} else if (p.generation > max)
+						max = p.generation;
+				}
+				if (ready) {
+					stack.pop();
+					if (c.generation == 0) {
+						c.generation = Math.min(max + 1,
+								GENERATION_NUMBER_MAX);
+						pm.update(1);
+					}
+				}
+			}
+		}
+		pm.endTask();
+	}
+
+	private static byte[] buildExtraEdges(List<GraphCommit> commits) {
+		int cnt = 0;
+		for (GraphCommit c : commits)
+			if (c.getParentCount() > 2)
+				cnt += c.getParentCount() - 1;
+		byte[] edges = new byte[cnt * 4];
+		int ptr = 0;
+		for (GraphCommit c : commits) {
+			int n = c.getParentCount();
+			if (n <= 2)
+				continue;
+			c.extraEdgePos = ptr / 4;
+			for (int i = 1; i < n; i++) {
+				int pos = ((GraphCommit) c.getParent(i)).graphPos;
+				if (i == n - 1)
+					pos |= GRAPH_LAST_EDGE;
+				NB.encodeInt32(edges, ptr, pos);
+				ptr += 4;
+			}
+		}
+		return edges;
+	}
+
+	private static void writeFanout(OutputStream out, List<GraphCommit> commits)
+			throws IOException {
+		int[] fanout = new int[GRAPH_FANOUT_SIZE];
+		for (GraphCommit c : commits)
+			fanout[c.getFirstByte()]++;
+		byte[] tmp = new byte[4];
+		int total = 0;
+		for (int i = 0; i < fanout.length; i++) {
+			total += fanout[i];
+			NB.encodeInt32(tmp, 0, total);
+			out.write(tmp);
+		}
+	}
+
+	private static void writeCommitData(ProgressMonitor pm, OutputStream out,
+			List<GraphCommit> commits, byte[] tmp) throws IOException {
+		for (GraphCommit c : commits) {
+			c.getTree().copyRawTo(tmp, 0);
+
+			int n = c.getParentCount();
+			int parent1 = n > 0 ? ((GraphCommit) c.getParent(0)).graphPos
+					: GRAPH_NO_PARENT;
+			int parent2;
+			if (n == 0 || n == 1)
+				parent2 = GRAPH_NO_PARENT;
+			else if (n == 2)
+				parent2 = ((GraphCommit) c.getParent(1)).graphPos;
+			else
+				parent2 = GRAPH_EXTRA_EDGES_NEEDED | c.extraEdgePos;
+			NB.encodeInt32(tmp, 20, parent1);
+			NB.encodeInt32(tmp, 24, parent2);
+
+			long time = c.getCommitTime() & 0xFFFFFFFFL;
+			NB.encodeInt64(tmp, 28, ((long) c.generation << 34) | time);
+			out.write(tmp, 0, COMMIT_DATA_WIDTH);
+			pm.update(1);
+		}
+	}
+
+	private static class GraphWalk extends RevWalk {
+		GraphWalk(ObjectReader reader) {
+			super(reader);
+		}
+
+		@Override
+		protected RevCommit createCommit(AnyObjectId id) {
+			return new GraphCommit(id);
+		}
+	}
+
+	private static class GraphCommit extends RevCommit {
+		int graphPos;
+
+		int generation;
+
+		int extraEdgePos;
+
+		GraphCommit(AnyObjectId id) {
+			super(id);
+		}
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Commit-graph file storing commit metadata for fast history traversal.
+ */
+package org.eclipse.jgit.internal.storage.commitgraph;
@@ -44,16 +44,19 @@
 
 package org.eclipse.jgit.internal.storage.dfs;
 
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+
 import java.io.IOException;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.ReentrantLock;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 
 /**
  * Caches slices of a {@link DfsPackFile} in memory for faster read access.
@@ -72,7 +75,14 @@
  * typically doesn't yield a corresponding benefit to the application. This
  * cache implements a clock replacement algorithm, giving each block one chance
  * to have been accessed during a sweep of the cache to save itself from
- * eviction.
+ * eviction. Entries of a {@link PackExt} configured with a higher hot count
+ * (see {@link DfsBlockCacheConfig#setCacheHotMap(Map)}) can survive that many
+ * sweeps, keeping indexes resident while pack data streams through the cache.
+ * <p>
+ * The clock may be split into several shards (see
+ * {@link DfsBlockCacheConfig#setShardCount(int)}), each owning an equal share
+ * of the cache's memory and its own lock, so concurrent misses on different
+ * blocks rarely contend with each other.
  * <p>
  * Entities created by the cache are held under hard references, preventing the
  * Java VM from clearing anything. Blocks are discarded by the replacement
@@ -89,6 +99,9 @@
  * invocations is also fixed in size.
  */
 public final class DfsBlockCache {
+	/** Upper bound of {@link PackExt#getPosition()}. */
+	private static final int MAX_PACK_EXT = 32;
+
 	private static volatile DfsBlockCache cache;
 
 	static {
@@ -159,23 +172,26 @@ public static DfsBlockCache getInstance() {
 	/** View of pack files in the pack cache. */
 	private final Collection<DfsPackFile> packFiles;
 
-	/** Number of times a block was found in the cache. */
-	private final AtomicLong statHit;
+	/** Number of times an entry was found in the cache, by PackExt. */
+	private final LongAdder[] statHit;
 
-	/** Number of times a block was not found, and had to be loaded. */
-	private final AtomicLong statMiss;
+	/** Number of times an entry was not found, and had to be loaded. */
+	private final LongAdder[] statMiss;
 
-	/** Number of blocks evicted due to cache being full. */
-	private volatile long statEvict;
+	/** Number of entries evicted due to cache being full, by PackExt. */
+	private final LongAdder[] statEvict;
 
-	/** Protects the clock and its related data. */
-	private final ReentrantLock clockLock;
+	/** Nanoseconds spent loading entries after a miss, by PackExt. */
+	private final LongAdder[] statLoadTime;
 
-	/** Current position of the clock. */
-	private Ref clockHand;
+	/** Number of bytes held by live entries, by PackExt. */
+	private final LongAdder[] statLiveBytes;
 
-	/** Number of bytes currently loaded in the cache. */
-	private volatile long liveBytes;
+	/** Maximum hot count of an entry, by PackExt. */
+	private final int[] hotLimits;
+
+	/** Independently locked replacement clocks sharing {@link #maxBytes}. */
+	private final Clock[] clocks;
 
 	@SuppressWarnings("unchecked")
 	private DfsBlockCache(final DfsBlockCacheConfig cfg) {
@@ -193,16 +209,47 @@ private DfsBlockCache(final DfsBlockCacheConfig cfg) {
 		blockSize = cfg.getBlockSize();
 		blockSizeShift = Integer.numberOfTrailingZeros(blockSize);
 
-		clockLock = new ReentrantLock(true /* fair */);
-		clockHand = new Ref<>(new DfsPackKey(), -1, 0, null);
-		clockHand.next = clockHand;
+		// Every shard must be able to hold at least one block.
+		int shards = (int) Math.max(1, Math.min(cfg.getShardCount(),
+				maxBytes / blockSize));
+		clocks = new Clock[shards];
+		for (int i = 0; i < shards; i++) {
+			long limit = maxBytes / shards;
+			if (i < maxBytes % shards)
+				limit++;
+			clocks[i] = new Clock(limit);
+		}
 
 		packCache = new ConcurrentHashMap<>(
 				16, 0.75f, 1);
 		packFiles = Collections.unmodifiableCollection(packCache.values());
 
-		statHit = new AtomicLong();
-		statMiss = new AtomicLong();
+		statHit = newCounters();
+		statMiss = newCounters();
+		statEvict = newCounters();
+		statLoadTime = newCounters();
+		statLiveBytes = newCounters();
+
+		hotLimits = new int[MAX_PACK_EXT];
+		for (int i = 0; i < hotLimits.length; i++)
+			hotLimits[i] = DfsBlockCacheConfig.DEFAULT_CACHE_HOT_MAX;
+		for (Map.Entry<PackExt, Integer> e : cfg.getCacheHotMap().entrySet())
+			hotLimits[e.getKey().getPosition()] = Math.max(1,
+					e.getValue().intValue());
+	}
+
+	private static LongAdder[] newCounters() {
+		LongAdder[] r = new LongAdder[MAX_PACK_EXT];
+		for (int i = 0; i < r.length; i++)
+			r[i] = new LongAdder();
+		return r;
+	}
+
+	private static long sum(LongAdder[] counters) {
+		long r = 0;
+		for (LongAdder c : counters)
+			r += c.sum();
+		return r;
 	}
 
 	boolean shouldCopyThroughCache(long length) {
@@ -211,7 +258,22 @@ boolean shouldCopyThroughCache(long length) {
 
 	/** @return total number of bytes in the cache. */
 	public long getCurrentSize() {
-		return liveBytes;
+		long live = 0;
+		for (Clock c : clocks)
+			live += c.liveBytes;
+		return live;
+	}
+
+	/**
+	 * Get the number of bytes held by entries of one file extension.
+	 *
+	 * @param ext
+	 *            the file extension.
+	 * @return number of bytes held in the cache for {@code ext}.
+	 * @since 4.8
+	 */
+	public long getCurrentSize(PackExt ext) {
+		return statLiveBytes[ext.getPosition()].sum();
 	}
 
 	/** @return 0..100, defining how full the cache is. */
@@ -221,12 +283,38 @@ public long getFillPercentage() {
 
 	/** @return number of requests for items in the cache. */
 	public long getHitCount() {
-		return statHit.get();
+		return sum(statHit);
+	}
+
+	/**
+	 * Get the number of requests for entries of one file extension that were
+	 * found in the cache.
+	 *
+	 * @param ext
+	 *            the file extension.
+	 * @return number of cache hits for {@code ext}.
+	 * @since 4.8
+	 */
+	public long getHitCount(PackExt ext) {
+		return statHit[ext.getPosition()].sum();
 	}
 
 	/** @return number of requests for items not in the cache. */
 	public long getMissCount() {
-		return statMiss.get();
+		return sum(statMiss);
+	}
+
+	/**
+	 * Get the number of requests for entries of one file extension that were
+	 * not found in the cache.
+	 *
+	 * @param ext
+	 *            the file extension.
+	 * @return number of cache misses for {@code ext}.
+	 * @since 4.8
+	 */
+	public long getMissCount(PackExt ext) {
+		return statMiss[ext.getPosition()].sum();
 	}
 
 	/** @return total number of requests (hit + miss). */
@@ -236,8 +324,8 @@ public long getTotalRequestCount() {
 
 	/** @return 0..100, defining number of cache hits. */
 	public long getHitRatio() {
-		long hits = statHit.get();
-		long miss = statMiss.get();
+		long hits = getHitCount();
+		long miss = getMissCount();
 		long total = hits + miss;
 		if (total == 0)
 			return 0;
@@ -246,7 +334,32 @@ public long getHitRatio() {
 
 	/** @return number of evictions performed due to cache being full. */
 	public long getEvictions() {
-		return statEvict;
+		return sum(statEvict);
+	}
+
+	/**
+	 * Get the number of entries of one file extension evicted due to the cache
+	 * being full.
+	 *
+	 * @param ext
+	 *            the file extension.
+	 * @return number of evictions for {@code ext}.
+	 * @since 4.8
+	 */
+	public long getEvictions(PackExt ext) {
+		return statEvict[ext.getPosition()].sum();
+	}
+
+	/**
+	 * Get the time spent loading entries of one file extension after a miss.
+	 *
+	 * @param ext
+	 *            the file extension.
+	 * @return total load time for {@code ext}, in nanoseconds.
+	 * @since 4.8
+	 */
+	public long getTotalLoadTime(PackExt ext) {
+		return statLoadTime[ext.getPosition()].sum();
 	}
 
 	/**
@@ -322,11 +435,12 @@ DfsBlock getOrLoad(DfsPackFile pack, long position, DfsReader ctx)
 		HashEntry e1 = table.get(slot);
 		DfsBlock v = scan(e1, key, position);
 		if (v != null) {
-			statHit.incrementAndGet();
+			statHit[PACK.getPosition()].increment();
 			return v;
 		}
 
-		reserveSpace(blockSize);
+		Clock clock = clockFor(key, position);
+		clock.reserveSpace(blockSize);
 		ReentrantLock regionLock = lockFor(key, position);
 		regionLock.lock();
 		try {
@@ -334,20 +448,21 @@ DfsBlock getOrLoad(DfsPackFile pack, long position, DfsReader ctx)
 			if (e2 != e1) {
 				v = scan(e2, key, position);
 				if (v != null) {
-					statHit.incrementAndGet();
-					creditSpace(blockSize);
+					statHit[PACK.getPosition()].increment();
+					clock.creditSpace(blockSize);
 					return v;
 				}
 			}
 
-			statMiss.incrementAndGet();
 			boolean credit = true;
+			long start = System.nanoTime();
 			try {
 				v = pack.readOneBlock(position, ctx);
 				credit = false;
 			} finally {
+				recordLoad(PACK, System.nanoTime() - start);
 				if (credit)
-					creditSpace(blockSize);
+					clock.creditSpace(blockSize);
 			}
 			if (position != v.start) {
 				// The file discovered its blockSize and adjusted.
@@ -357,15 +472,14 @@ DfsBlock getOrLoad(DfsPackFile pack, long position, DfsReader ctx)
 			}
 
 			key.cachedSize.addAndGet(v.size());
-			Ref<DfsBlock> ref = new Ref<>(key, position, v.size(), v);
-			ref.hot = true;
+			Ref<DfsBlock> ref = newRef(key, PACK, position, v.size(), v);
 			for (;;) {
 				HashEntry n = new HashEntry(clean(e2), ref);
 				if (table.compareAndSet(slot, e2, n))
 					break;
 				e2 = table.get(slot);
 			}
-			addToClock(ref, blockSize - v.size());
+			clock.addToClock(ref, blockSize - v.size());
 		} finally {
 			regionLock.unlock();
 		}
@@ -377,77 +491,42 @@ DfsBlock getOrLoad(DfsPackFile pack, long position, DfsReader ctx)
 		return getOrLoad(pack, requestedPosition, ctx);
 	}
 
-	@SuppressWarnings("unchecked")
-	private void reserveSpace(int reserve) {
-		clockLock.lock();
-		try {
-			long live = liveBytes + reserve;
-			if (maxBytes < live) {
-				Ref prev = clockHand;
-				Ref hand = clockHand.next;
-				do {
-					if (hand.hot) {
-						// Value was recently touched. Clear
-						// hot and give it another chance.
-						hand.hot = false;
-						prev = hand;
-						hand = hand.next;
-						continue;
-					} else if (prev == hand)
-						break;
-
-					// No recent access since last scan, kill
-					// value and remove from clock.
-					Ref dead = hand;
-					hand = hand.next;
-					prev.next = hand;
-					dead.next = null;
-					dead.value = null;
-					live -= dead.size;
-					dead.pack.cachedSize.addAndGet(-dead.size);
-					statEvict++;
-				} while (maxBytes < live);
-				clockHand = prev;
-			}
-			liveBytes = live;
-		} finally {
-			clockLock.unlock();
-		}
-	}
-
-	private void creditSpace(int credit) {
-		clockLock.lock();
-		liveBytes -= credit;
-		clockLock.unlock();
+	/**
+	 * Record a request for an entry that was served by a cached reference.
+	 *
+	 * @param ext
+	 *            file extension of the entry.
+	 */
+	void recordHit(PackExt ext) {
+		statHit[ext.getPosition()].increment();
 	}
 
-	@SuppressWarnings("unchecked")
-	private void addToClock(Ref ref, int credit) {
-		clockLock.lock();
-		try {
-			if (credit != 0)
-				liveBytes -= credit;
-			Ref ptr = clockHand;
-			ref.next = ptr.next;
-			ptr.next = ref;
-			clockHand = ref;
-		} finally {
-			clockLock.unlock();
-		}
+	/**
+	 * Record a request for an entry that had to be loaded.
+	 *
+	 * @param ext
+	 *            file extension of the entry.
+	 * @param nanos
+	 *            time spent loading the entry.
+	 */
+	void recordLoad(PackExt ext, long nanos) {
+		statMiss[ext.getPosition()].increment();
+		statLoadTime[ext.getPosition()].add(nanos);
 	}
 
 	void put(DfsBlock v) {
-		put(v.pack, v.start, v.size(), v);
+		put(v.pack, PACK, v.start, v.size(), v);
 	}
 
-	<T> Ref<T> put(DfsPackKey key, long pos, int size, T v) {
+	<T> Ref<T> put(DfsPackKey key, PackExt ext, long pos, int size, T v) {
 		int slot = slot(key, pos);
 		HashEntry e1 = table.get(slot);
 		Ref<T> ref = scanRef(e1, key, pos);
 		if (ref != null)
 			return ref;
 
-		reserveSpace(size);
+		Clock clock = clockFor(key, pos);
+		clock.reserveSpace(size);
 		ReentrantLock regionLock = lockFor(key, pos);
 		regionLock.lock();
 		try {
@@ -455,27 +534,35 @@ <T> Ref<T> put(DfsPackKey key, long pos, int size, T v) {
 			if (e2 != e1) {
 				ref = scanRef(e2, key, pos);
 				if (ref != null) {
-					creditSpace(size);
+					clock.creditSpace(size);
 					return ref;
 				}
 			}
 
 			key.cachedSize.addAndGet(size);
-			ref = new Ref<>(key, pos, size, v);
-			ref.hot = true;
+			ref = newRef(key, ext, pos, size, v);
 			for (;;) {
 				HashEntry n = new HashEntry(clean(e2), ref);
 				if (table.compareAndSet(slot, e2, n))
 					break;
 				e2 = table.get(slot);
 			}
-			addToClock(ref, 0);
+			clock.addToClock(ref, 0);
 		} finally {
 			regionLock.unlock();
 		}
 		return ref;
 	}
 
+	private <T> Ref<T> newRef(DfsPackKey key, PackExt ext, long pos, int size,
+			T v) {
+		Ref<T> ref = new Ref<>(key, ext, pos, size, v,
+				hotLimits[ext.getPosition()]);
+		ref.hotCount = 1;
+		statLiveBytes[ext.getPosition()].add(size);
+		return ref;
+	}
+
 	boolean contains(DfsPackKey key, long position) {
 		return scan(table.get(slot(key, position)), key, position) != null;
 	}
@@ -484,9 +571,9 @@ boolean contains(DfsPackKey key, long position) {
 	<T> T get(DfsPackKey key, long position) {
 		T val = (T) scan(table.get(slot(key, position)), key, position);
 		if (val == null)
-			statMiss.incrementAndGet();
+			statMiss[PACK.getPosition()].increment();
 		else
-			statHit.incrementAndGet();
+			statHit[PACK.getPosition()].increment();
 		return val;
 	}
 
@@ -517,6 +604,12 @@ private ReentrantLock lockFor(DfsPackKey pack, long position) {
 		return loadLocks[(hash(pack.hash, position) >>> 1) % loadLocks.length];
 	}
 
+	private Clock clockFor(DfsPackKey pack, long position) {
+		if (clocks.length == 1)
+			return clocks[0];
+		return clocks[(hash(pack.hash, position) >>> 1) % clocks.length];
+	}
+
 	private static HashEntry clean(HashEntry top) {
 		while (top != null && top.ref.next == null)
 			top = top.next;
@@ -526,6 +619,89 @@ private static HashEntry clean(HashEntry top) {
 		return n == top.next ? top : new HashEntry(n, top.ref);
 	}
 
+	/** One shard of the cache's memory, managed by a clock sweep. */
+	private final class Clock {
+		/** Maximum number of bytes this shard should hold. */
+		private final long maxBytes;
+
+		/** Protects the clock and its related data. */
+		private final ReentrantLock clockLock;
+
+		/** Current position of the clock. */
+		private Ref clockHand;
+
+		/** Number of bytes currently loaded in this shard. */
+		volatile long liveBytes;
+
+		Clock(long maxBytes) {
+			this.maxBytes = maxBytes;
+			clockLock = new ReentrantLock(true /* fair */);
+			clockHand = new Ref<>(new DfsPackKey(), PACK, -1, 0, null, 0);
+			clockHand.next = clockHand;
+		}
+
+		@SuppressWarnings("unchecked")
+		void reserveSpace(int reserve) {
+			clockLock.lock();
+			try {
+				long live = liveBytes + reserve;
+				if (maxBytes < live) {
+					Ref prev = clockHand;
+					Ref hand = clockHand.next;
+					do {
+						if (hand.hotCount > 0) {
+							// Value was recently touched. Cool it
+							// and give it another chance.
+							hand.hotCount--;
+							prev = hand;
+							hand = hand.next;
+							continue;
+						} else if (prev == hand)
+							break;
+
+						// No recent access since last scan, kill
+						// value and remove from clock.
+						Ref dead = hand;
+						hand = hand.next;
+						prev.next = hand;
+						dead.next = null;
+						dead.value = null;
+						live -= dead.size;
+						dead.pack.cachedSize.addAndGet(-dead.size);
+						int ext = dead.ext.getPosition();
+						statLiveBytes[ext].add(-dead.size);
+						statEvict[ext].increment();
+					} while (maxBytes < live);
+					clockHand = prev;
+				}
+				liveBytes = live;
+			} finally {
+				clockLock.unlock();
+			}
+		}
+
+		void creditSpace(int credit) {
+			clockLock.lock();
+			liveBytes -= credit;
+			clockLock.unlock();
+		}
+
+		@SuppressWarnings("unchecked")
+		void addToClock(Ref ref, int credit) {
+			clockLock.lock();
+			try {
+				if (credit != 0)
+					liveBytes -= credit;
+				Ref ptr = clockHand;
+				ref.next = ptr.next;
+				ptr.next = ref;
+				clockHand = ref;
+			} finally {
+				clockLock.unlock();
+			}
+		}
+	}
+
 	private static final class HashEntry {
 		/** Next entry in the hash table's chain list. */
 		final HashEntry next;
@@ -541,23 +717,31 @@ private static final class HashEntry {
 
 	static final class Ref<T> {
 		final DfsPackKey pack;
+		final PackExt ext;
 		final long position;
 		final int size;
+		final int hotLimit;
 		volatile T value;
 		Ref next;
-		volatile boolean hot;
+		volatile int hotCount;
 
-		Ref(DfsPackKey pack, long position, int size, T v) {
+		Ref(DfsPackKey pack, PackExt ext, long position, int size, T v,
+				int hotLimit) {
 			this.pack = pack;
+			this.ext = ext;
 			this.position = position;
 			this.size = size;
 			this.value = v;
+			this.hotLimit = hotLimit;
 		}
 
 		T get() {
 			T v = value;
-			if (v != null)
-				hot = true;
+			if (v != null) {
+				int c = hotCount;
+				if (c < hotLimit)
+					hotCount = c + 1;
+			}
 			return v;
 		}
 
@@ -48,11 +48,16 @@
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_LIMIT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_BLOCK_SIZE;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_CONCURRENCY_LEVEL;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_SHARD_COUNT;
 import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_STREAM_RATIO;
 
 import java.text.MessageFormat;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.lib.Config;
 
 /** Configuration parameters for {@link DfsBlockCache}. */
@@ -63,10 +68,20 @@ public class DfsBlockCacheConfig {
 	/** 1024 {@link #KB} (number of bytes in one mebibyte/megabyte) */
 	public static final int MB = 1024 * KB;
 
+	/**
+	 * Default number of sweeps of the replacement clock an entry survives
+	 * after being accessed.
+	 *
+	 * @since 4.8
+	 */
+	public static final int DEFAULT_CACHE_HOT_MAX = 1;
+
 	private long blockLimit;
 	private int blockSize;
 	private double streamRatio;
 	private int concurrencyLevel;
+	private int shardCount;
+	private Map<PackExt, Integer> cacheHotMap;
 
 	/** Create a default configuration. */
 	public DfsBlockCacheConfig() {
@@ -74,6 +89,8 @@ public DfsBlockCacheConfig() {
 		setBlockSize(64 * KB);
 		setStreamRatio(0.30);
 		setConcurrencyLevel(32);
+		setShardCount(1);
+		cacheHotMap = Collections.emptyMap();
 	}
 
 	/**
@@ -139,6 +156,66 @@ public DfsBlockCacheConfig setConcurrencyLevel(
 		return this;
 	}
 
+	/**
+	 * @return number of independently locked shards the cache's replacement
+	 *         clock is split into. <b>Default is 1.</b>
+	 * @since 4.8
+	 */
+	public int getShardCount() {
+		return shardCount;
+	}
+
+	/**
+	 * Split the cache into shards to reduce lock contention.
+	 * <p>
+	 * Each shard owns an equal part of {@link #getBlockLimit()} and runs its
+	 * own clock replacement under its own lock. Servers with many threads
+	 * missing the cache concurrently benefit from several shards; the cost is
+	 * that eviction is only approximately global. The count is reduced if a
+	 * shard could not hold at least one block.
+	 *
+	 * @param newShardCount
+	 *            number of shards, at least 1.
+	 * @return {@code this}
+	 * @since 4.8
+	 */
+	public DfsBlockCacheConfig setShardCount(final int newShardCount) {
+		shardCount = Math.max(1, newShardCount);
+		return this;
+	}
+
+	/**
+	 * @return map of hot count by pack extension. Extensions not in the map
+	 *         use {@link #DEFAULT_CACHE_HOT_MAX}.
+	 * @since 4.8
+	 */
+	public Map<PackExt, Integer> getCacheHotMap() {
+		return cacheHotMap;
+	}
+
+	/**
+	 * Set the priority of cached entries by pack extension.
+	 * <p>
+	 * Each access to a cached entry raises its hot count, up to the limit
+	 * configured for its extension, and every sweep of the replacement clock
+	 * lowers it by one. An entry is only evicted once its count has reached
+	 * zero, so giving {@link PackExt#INDEX} and {@link PackExt#BITMAP_INDEX} a
+	 * higher limit than {@link PackExt#PACK} keeps indexes resident while pack
+	 * data streams through the cache.
+	 *
+	 * @param cacheHotMap
+	 *            map of hot count limits by pack extension. Limits below 1
+	 *            are raised to 1.
+	 * @return {@code this}
+	 * @since 4.8
+	 */
+	public DfsBlockCacheConfig setCacheHotMap(
+			Map<PackExt, Integer> cacheHotMap) {
+		this.cacheHotMap = Collections
+				.unmodifiableMap(new HashMap<>(cacheHotMap));
+		return this;
+	}
+
 	/**
 	 * @return highest percentage of {@link #getBlockLimit()} a single pack can
 	 *         occupy while being copied by the pack reuse strategy. <b>Default
@@ -187,6 +264,12 @@ public DfsBlockCacheConfig fromConfig(final Config rc) {
 				CONFIG_KEY_CONCURRENCY_LEVEL,
 				getConcurrencyLevel()));
 
+		setShardCount(rc.getInt(
+				CONFIG_CORE_SECTION,
+				CONFIG_DFS_SECTION,
+				CONFIG_KEY_SHARD_COUNT,
+				getShardCount()));
+
 		String v = rc.getString(
 				CONFIG_CORE_SECTION,
 				CONFIG_DFS_SECTION,
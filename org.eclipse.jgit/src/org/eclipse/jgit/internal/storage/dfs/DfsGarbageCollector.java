@@ -51,6 +51,7 @@
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.RECEIVE;
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.COMMIT_GRAPH;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 
@@ -66,6 +67,7 @@
 import java.util.concurrent.TimeUnit;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
@@ -73,6 +75,7 @@
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.internal.storage.reftree.RefTreeNames;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
@@ -104,6 +107,10 @@ public class DfsGarbageCollector {
 
 	// See packIsCoalesceableGarbage(), below, for how these two variables
 	// interact.
+	private boolean writeCommitGraph;
+
+	private boolean writeMultiPackIndex;
+
 	private long coalesceGarbageLimit = 50 << 20;
 	private long garbageTtlMillis = TimeUnit.DAYS.toMillis(1);
 
@@ -132,6 +139,12 @@ public DfsGarbageCollector(DfsRepository repository) {
 
 		packConfig = new PackConfig(repo);
 		packConfig.setIndexVersion(2);
+		writeCommitGraph = repo.getConfig().getBoolean(
+				ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, false);
+		writeMultiPackIndex = repo.getConfig().getBoolean(
+				ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, false);
 	}
 
 	/** @return configuration used to generate the new pack file. */
@@ -149,6 +162,57 @@ public DfsGarbageCollector setPackConfig(PackConfig newConfig) {
 		return this;
 	}
 
+	/**
+	 * @return true if a commit-graph is written alongside the GC pack.
+	 * @since 4.8
+	 */
+	public boolean isWriteCommitGraph() {
+		return writeCommitGraph;
+	}
+
+	/**
+	 * Set whether a commit-graph is written alongside the GC pack.
+	 * <p>
+	 * The graph covers all commits reachable from the references of the
+	 * repository and lets readers walk history without inflating commits.
+	 * Defaults to the {@code gc.writeCommitGraph} configuration setting.
+	 *
+	 * @param write
+	 *            true to write a commit-graph.
+	 * @return {@code this}
+	 * @since 4.8
+	 */
+	public DfsGarbageCollector setWriteCommitGraph(boolean write) {
+		writeCommitGraph = write;
+		return this;
+	}
+
+	/**
+	 * @return true if a multi-pack-index is written alongside the GC pack.
+	 * @since 4.8
+	 */
+	public boolean isWriteMultiPackIndex() {
+		return writeMultiPackIndex;
+	}
+
+	/**
+	 * Set whether a multi-pack-index is written alongside the GC pack.
+	 * <p>
+	 * The index covers the packs written by the collection and the garbage
+	 * packs it keeps, so readers find an object with a single lookup rather
+	 * than by searching each pack. Defaults to the {@code core.multiPackIndex}
+	 * configuration setting.
+	 *
+	 * @param write
+	 *            true to write a multi-pack-index.
+	 * @return {@code this}
+	 * @since 4.8
+	 */
+	public DfsGarbageCollector setWriteMultiPackIndex(boolean write) {
+		writeMultiPackIndex = write;
+		return this;
+	}
+
 	/** @return garbage packs smaller than this size will be repacked. */
 	public long getCoalesceGarbageLimit() {
 		return coalesceGarbageLimit;
@@ -265,6 +329,8 @@ else if (RefTreeNames.isRefTree(refdb, ref.getName()))
 				packRest(pm);
 				packRefTreeGraph(pm);
 				packGarbage(pm);
+				writeCommitGraph(pm);
+				writeMultiPackIndex(pm);
 				objdb.commitPack(newPackDesc, toPrune());
 				rollback = false;
 				return true;
@@ -490,6 +556,54 @@ private void packGarbage(ProgressMonitor pm) throws IOException {
 		}
 	}
 
+	private void writeCommitGraph(ProgressMonitor pm) throws IOException {
+		if (!writeCommitGraph)
+			return;
+
+		DfsPackDescription gcPack = null;
+		for (DfsPackDescription d : newPackDesc) {
+			if (d.getPackSource() == GC) {
+				gcPack = d;
+				break;
+			}
+		}
+		if (gcPack == null)
+			return;
+
+		Set<ObjectId> tips = new HashSet<>(allHeads);
+		tips.addAll(nonHeads);
+		tips.addAll(txnHeads);
+		CommitGraphWriter writer = new CommitGraphWriter(ctx);
+		try (CountingOutputStream cnt = new CountingOutputStream(
+				objdb.writeFile(gcPack, COMMIT_GRAPH))) {
+			writer.write(pm, cnt, tips);
+			gcPack.addFileExt(COMMIT_GRAPH);
+			gcPack.setFileSize(COMMIT_GRAPH, cnt.getCount());
+		}
+	}
+
+	private void writeMultiPackIndex(ProgressMonitor pm) throws IOException {
+		if (!writeMultiPackIndex || newPackDesc.isEmpty())
+			return;
+
+		DfsPackDescription dst = newPackDesc.get(0);
+		for (DfsPackDescription d : newPackDesc) {
+			if (d.getPackSource() == GC) {
+				dst = d;
+				break;
+			}
+		}
+
+		// Cover the new packs and the garbage packs left in place.
+		List<DfsPackDescription> packs = new ArrayList<>(newPackDesc);
+		Set<DfsPackDescription> pruned = new HashSet<>(toPrune());
+		for (DfsPackFile p : objdb.getPacks()) {
+			if (!pruned.contains(p.getPackDescription()))
+				packs.add(p.getPackDescription());
+		}
+		DfsMultiPackIndex.write(ctx, dst, packs, pm);
+	}
+
 	private boolean anyPackHas(AnyObjectId id) {
 		for (ObjectIdSet packedObjs : newPackObj)
 			if (packedObjs.contains(id))
@@ -146,7 +146,12 @@ public ObjectReader newReader() {
 	@Override
 	public ObjectId insert(int type, byte[] data, int off, int len)
 			throws IOException {
-		ObjectId id = idFor(type, data, off, len);
+		return insert(idFor(type, data, off, len), type, data, off, len);
+	}
+
+	@Override
+	protected ObjectId insert(ObjectId id, int type, byte[] data, int off,
+			int len) throws IOException {
 		if (objectMap != null && objectMap.contains(id))
 			return id;
 		// Ignore unreachable (garbage) objects here.
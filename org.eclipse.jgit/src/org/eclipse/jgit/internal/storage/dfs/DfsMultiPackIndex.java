@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+
+package org.eclipse.jgit.internal.storage.dfs;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.MULTI_PACK_INDEX;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndex;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndexWriter;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.util.io.CountingOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A multi-pack-index resolved against the packs of one
+ * {@link DfsObjDatabase.PackList}.
+ * <p>
+ * The index is stored alongside a pack written by garbage collection or
+ * compaction, and covers the packs the repository had once that pack was
+ * committed. Packs created later are not covered and are searched one by
+ * one, as are all packs if the index names a pack that no longer exists.
+ * <p>
+ * Packs written by {@link DfsInserter} or received through
+ * {@link DfsPackParser} do not extend the index: it can only be stored with
+ * a new pack, so covering them means rewriting it whole. They are covered
+ * once {@link DfsPackCompactor} or {@link DfsGarbageCollector} runs again.
+ */
+final class DfsMultiPackIndex {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(DfsMultiPackIndex.class);
+
+	/** Marks a pack list without a usable multi-pack-index. */
+	static final DfsMultiPackIndex NONE = new DfsMultiPackIndex(null,
+			new DfsPackFile[0]);
+
+	/**
+	 * Load the most recent multi-pack-index stored with a list of packs.
+	 *
+	 * @param ctx
+	 *            reader to load the index with.
+	 * @param packs
+	 *            the packs of the repository.
+	 * @return the index resolved against {@code packs}; {@link #NONE} if no
+	 *         pack carries a readable index.
+	 */
+	static DfsMultiPackIndex load(DfsReader ctx, DfsPackFile[] packs) {
+		DfsPackFile src = null;
+		for (DfsPackFile p : packs) {
+			DfsPackDescription d = p.getPackDescription();
+			if (d.hasFileExt(MULTI_PACK_INDEX) && (src == null
+					|| src.getPackDescription().getLastModified() < d
+							.getLastModified()))
+				src = p;
+		}
+		if (src == null)
+			return NONE;
+		try {
+			MultiPackIndex index = src.getMultiPackIndex(ctx);
+			return index != null ? new DfsMultiPackIndex(index, packs) : NONE;
+		} catch (IOException e) {
+			// Lookups still work by searching every pack.
+			LOG.warn(e.getMessage(), e);
+			return NONE;
+		}
+	}
+
+	/**
+	 * Write a multi-pack-index covering a set of packs.
+	 *
+	 * @param ctx
+	 *            reader to read the pack indexes with.
+	 * @param dst
+	 *            pack to store the multi-pack-index with. The pack must not
+	 *            be committed yet.
+	 * @param packs
+	 *            packs covered by the index, which should include {@code dst}.
+	 * @param pm
+	 *            progress monitor to report the number of objects written.
+	 * @throws IOException
+	 *             a pack index could not be read, or the multi-pack-index
+	 *             could not be written.
+	 */
+	static void write(DfsReader ctx, DfsPackDescription dst,
+			Collection<DfsPackDescription> packs, ProgressMonitor pm)
+			throws IOException {
+		// Objects stored in several packs are recorded for the pack
+		// readers would have searched first.
+		List<DfsPackDescription> sorted = new ArrayList<>(packs);
+		Collections.sort(sorted);
+
+		DfsBlockCache cache = DfsBlockCache.getInstance();
+		MultiPackIndexWriter writer = new MultiPackIndexWriter();
+		for (DfsPackDescription d : sorted)
+			writer.addPack(d.getFileName(INDEX),
+					cache.getOrCreate(d, null).getPackIndex(ctx));
+		try (CountingOutputStream cnt = new CountingOutputStream(
+				ctx.db.writeFile(dst, MULTI_PACK_INDEX))) {
+			writer.write(pm, cnt);
+			dst.addFileExt(MULTI_PACK_INDEX);
+			dst.setFileSize(MULTI_PACK_INDEX, cnt.getCount());
+		}
+	}
+
+	/** The multi-pack-index, null for {@link #NONE}. */
+	final MultiPackIndex index;
+
+	/** Position in the pack list of each pack of the index; -1 if gone. */
+	private final int[] listPosition;
+
+	/** Whether the pack at each position of the pack list is covered. */
+	private final boolean[] covered;
+
+	private DfsMultiPackIndex(MultiPackIndex index, DfsPackFile[] packs) {
+		this.index = index;
+		covered = new boolean[packs.length];
+		if (index == null) {
+			listPosition = new int[0];
+			return;
+		}
+
+		String[] names = index.getPackNames();
+		Map<String, Integer> ids = new HashMap<>();
+		for (int i = 0; i < names.length; i++)
+			ids.put(names[i], Integer.valueOf(i));
+		listPosition = new int[names.length];
+		Arrays.fill(listPosition, -1);
+		for (int i = 0; i < packs.length; i++) {
+			Integer id = ids.get(
+					packs[i].getPackDescription().getFileName(INDEX));
+			if (id != null) {
+				listPosition[id.intValue()] = i;
+				covered[i] = true;
+			}
+		}
+	}
+
+	/**
+	 * @param position
+	 *            position of an object in the index, or -1.
+	 * @return position in the pack list of the pack holding the object; -1 if
+	 *         the object is not covered by the index or its pack is gone.
+	 */
+	int getPack(int position) {
+		return position < 0 ? -1 : listPosition[index.getPackId(position)];
+	}
+
+	/**
+	 * @param position
+	 *            position of an object in the index, or -1.
+	 * @param pack
+	 *            position of a pack in the pack list.
+	 * @return true if the pack need not be searched for the object, because
+	 *         the index covers the pack and does not know the object.
+	 */
+	boolean skip(int position, int pack) {
+		return position < 0 && covered[pack];
+	}
+}
@@ -530,10 +530,27 @@ public static abstract class PackList {
 
 		private long lastModified = -1;
 
+		private volatile DfsMultiPackIndex multiPackIndex;
+
 		PackList(DfsPackFile[] packs) {
 			this.packs = packs;
 		}
 
+		/**
+		 * @param ctx
+		 *            reader to load the index with.
+		 * @return the multi-pack-index resolved against {@link #packs}, or
+		 *         null if there is none.
+		 */
+		DfsMultiPackIndex getMultiPackIndex(DfsReader ctx) {
+			DfsMultiPackIndex midx = multiPackIndex;
+			if (midx == null) {
+				midx = DfsMultiPackIndex.load(ctx, packs);
+				multiPackIndex = midx;
+			}
+			return midx != DfsMultiPackIndex.NONE ? midx : null;
+		}
+
 		/** @return last modified time of all packs, in milliseconds. */
 		public long getLastModified() {
 			if (lastModified < 0) {
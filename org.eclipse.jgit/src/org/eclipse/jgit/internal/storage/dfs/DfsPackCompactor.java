@@ -45,25 +45,34 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.COMPACT;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.LAYERED_BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 import static org.eclipse.jgit.internal.storage.pack.StoredObjectRepresentation.PACK_DELTA;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
+import org.eclipse.jgit.internal.storage.pack.GeometricProgression;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdSet;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevWalk;
@@ -86,6 +95,13 @@
  * receiving a number of small fetch or push operations into a repository,
  * allowing the system to maintain reasonable read performance without expending
  * a lot of time repacking the entire repository.
+ * <p>
+ * If a pack left out of the compaction has a bitmap index, the new pack gets
+ * bitmaps for the references it holds, layered on that index, so bitmap
+ * coverage keeps up with the branch tips between garbage collections.
+ * <p>
+ * If {@code core.multiPackIndex} is enabled, the new pack also carries a
+ * multi-pack-index covering it and the packs left out of the compaction.
  */
 public class DfsPackCompactor {
 	private final DfsRepository repo;
@@ -100,6 +116,8 @@ public class DfsPackCompactor {
 
 	private int autoAddSize;
 
+	private int geometricFactor;
+
 	private RevWalk rw;
 	private RevFlag added;
 	private RevFlag isBase;
@@ -136,11 +154,29 @@ public DfsPackCompactor add(DfsPackFile pack) {
 		return this;
 	}
 
+	/**
+	 * Select packs by geometric progression in {@link #autoAdd()}.
+	 *
+	 * @param factor
+	 *            growth factor between consecutive packs, at least 2; 0 to
+	 *            select packs by a fixed size limit instead.
+	 * @return {@code this}
+	 * @since 4.8
+	 */
+	public DfsPackCompactor setGeometricFactor(int factor) {
+		if (factor != 0 && factor < 2)
+			throw new IllegalArgumentException();
+		geometricFactor = factor;
+		return this;
+	}
+
 	/**
 	 * Automatically select packs to be included, and add them.
 	 * <p>
 	 * Packs are selected based on size, smaller packs get included while bigger
-	 * ones are omitted.
+	 * ones are omitted. If a geometric factor is set, the smallest packs are
+	 * selected such that each remaining pack is at least that factor larger
+	 * than all smaller packs together, including the compacted one.
 	 *
 	 * @return {@code this}
 	 * @throws IOException
@@ -148,6 +184,10 @@ public DfsPackCompactor add(DfsPackFile pack) {
 	 */
 	public DfsPackCompactor autoAdd() throws IOException {
 		DfsObjDatabase objdb = repo.getObjectDatabase();
+		if (geometricFactor > 1) {
+			autoAddGeometric(objdb.getPacks());
+			return this;
+		}
 		for (DfsPackFile pack : objdb.getPacks()) {
 			DfsPackDescription d = pack.getPackDescription();
 			if (d.getFileSize(PACK) < autoAddSize)
@@ -158,6 +198,31 @@ public DfsPackCompactor autoAdd() throws IOException {
 		return this;
 	}
 
+	private void autoAddGeometric(DfsPackFile[] packs) throws IOException {
+		packs = packs.clone();
+		Arrays.sort(packs, new Comparator<DfsPackFile>() {
+			@Override
+			public int compare(DfsPackFile a, DfsPackFile b) {
+				return Long.compare(size(a), size(b));
+			}
+		});
+		long[] sizes = new long[packs.length];
+		for (int i = 0; i < packs.length; i++)
+			sizes[i] = size(packs[i]);
+
+		int n = GeometricProgression.rollUpCount(sizes, 0, geometricFactor);
+		for (int i = 0; i < packs.length; i++) {
+			if (i < n)
+				add(packs[i]);
+			else
+				exclude(packs[i]);
+		}
+	}
+
+	private static long size(DfsPackFile pack) {
+		return pack.getPackDescription().getFileSize(PACK);
+	}
+
 	/**
 	 * Exclude objects from the compacted pack.
 	 *
@@ -229,6 +294,8 @@ public void compact(ProgressMonitor pm) throws IOException {
 				try {
 					writePack(objdb, pack, pw, pm);
 					writeIndex(objdb, pack, pw);
+					writeBitmapIndex(objdb, pack, pw, ctx, pm);
+					writeMultiPackIndex(objdb, pack, ctx, pm);
 
 					PackStatistics stats = pw.getStatistics();
 					pw.close();
@@ -394,6 +461,57 @@ private static void writeIndex(DfsObjDatabase objdb,
 		}
 	}
 
+	private void writeMultiPackIndex(DfsObjDatabase objdb,
+			DfsPackDescription pack, DfsReader ctx, ProgressMonitor pm)
+			throws IOException {
+		if (!repo.getConfig().getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, false))
+			return;
+
+		// Cover the new pack and the packs left out of the compaction.
+		List<DfsPackDescription> packs = new ArrayList<>();
+		packs.add(pack);
+		for (DfsPackFile p : objdb.getPacks()) {
+			if (!srcPacks.contains(p))
+				packs.add(p.getPackDescription());
+		}
+		DfsMultiPackIndex.write(ctx, pack, packs, pm);
+	}
+
+	private void writeBitmapIndex(DfsObjDatabase objdb,
+			DfsPackDescription pack, PackWriter pw, DfsReader ctx,
+			ProgressMonitor pm) throws IOException {
+		// The compacted pack lacks the objects of the packs left in place, so
+		// its bitmaps can only be layered on the bitmaps of those packs.
+		List<DfsPackFile> remaining = new ArrayList<>();
+		for (DfsPackFile p : objdb.getPacks()) {
+			if (!srcPacks.contains(p))
+				remaining.add(p);
+		}
+		PackBitmapIndex base = DfsPackFile.findBitmapIndex(ctx, remaining);
+		if (base == null || !pw.prepareBitmapIndex(pm, base, getTips()))
+			return;
+
+		try (CountingOutputStream cnt = new CountingOutputStream(
+				objdb.writeFile(pack, LAYERED_BITMAP_INDEX))) {
+			pw.writeBitmapIndex(cnt);
+			pack.addFileExt(LAYERED_BITMAP_INDEX);
+			pack.setFileSize(LAYERED_BITMAP_INDEX, cnt.getCount());
+		}
+	}
+
+	private Set<ObjectId> getTips() throws IOException {
+		Set<ObjectId> tips = new HashSet<>();
+		for (Ref ref : repo.getRefDatabase().getRefs(RefDatabase.ALL)
+				.values()) {
+			if (ref.getObjectId() != null)
+				tips.add(ref.getObjectId());
+			if (ref.getPeeledObjectId() != null)
+				tips.add(ref.getPeeledObjectId());
+		}
+		return tips;
+	}
+
 	private static class ObjectIdWithOffset extends ObjectId {
 		final long offset;
 
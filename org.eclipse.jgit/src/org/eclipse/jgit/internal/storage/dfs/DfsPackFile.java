@@ -47,7 +47,10 @@
 
 import static org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource.UNREACHABLE_GARBAGE;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.COMMIT_GRAPH;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.LAYERED_BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.MULTI_PACK_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
 
 import java.io.BufferedInputStream;
@@ -57,6 +60,9 @@
 import java.nio.ByteBuffer;
 import java.nio.channels.Channels;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
 import java.util.Set;
 import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
@@ -68,9 +74,14 @@
 import org.eclipse.jgit.errors.PackInvalidException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphLoader;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
+import org.eclipse.jgit.internal.storage.file.PackBitmapIndexLayered;
 import org.eclipse.jgit.internal.storage.file.PackIndex;
 import org.eclipse.jgit.internal.storage.file.PackReverseIndex;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndex;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndexLoader;
 import org.eclipse.jgit.internal.storage.pack.BinaryDelta;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.internal.storage.pack.PackOutputStream;
@@ -106,6 +117,12 @@ public final class DfsPackFile {
 	/** Offset used to cache {@link #bitmapIndex}. See {@link #POS_INDEX}. */
 	private static final long POS_BITMAP_INDEX = -3;
 
+	/** Offset used to cache {@link #commitGraph}. See {@link #POS_INDEX}. */
+	private static final long POS_COMMIT_GRAPH = -4;
+
+	/** Offset used to cache {@link #multiPackIndex}. See {@link #POS_INDEX}. */
+	private static final long POS_MULTI_PACK_INDEX = -5;
+
 	/** Cache that owns this pack file and its data. */
 	private final DfsBlockCache cache;
 
@@ -151,6 +168,12 @@ public final class DfsPackFile {
 	/** Index of compressed bitmap mapping entire object graph. */
 	private volatile DfsBlockCache.Ref<PackBitmapIndex> bitmapIndex;
 
+	/** Commit-graph stored alongside this pack, if any. */
+	private volatile DfsBlockCache.Ref<CommitGraph> commitGraph;
+
+	/** Multi-pack-index stored alongside this pack, if any. */
+	private volatile DfsBlockCache.Ref<MultiPackIndex> multiPackIndex;
+
 	/**
 	 * Objects we have tried to read, and discovered to be corrupt.
 	 * <p>
@@ -210,7 +233,7 @@ void setPackIndex(PackIndex idx) {
 		long objCnt = idx.getObjectCount();
 		int recSize = Constants.OBJECT_ID_LENGTH + 8;
 		int sz = (int) Math.min(objCnt * recSize, Integer.MAX_VALUE);
-		index = cache.put(key, POS_INDEX, sz, idx);
+		index = cache.put(key, INDEX, POS_INDEX, sz, idx);
 	}
 
 	/**
@@ -231,8 +254,10 @@ private PackIndex idx(DfsReader ctx) throws IOException {
 		DfsBlockCache.Ref<PackIndex> idxref = index;
 		if (idxref != null) {
 			PackIndex idx = idxref.get();
-			if (idx != null)
+			if (idx != null) {
+				cache.recordHit(INDEX);
 				return idx;
+			}
 		}
 
 		if (invalid)
@@ -250,6 +275,7 @@ private PackIndex idx(DfsReader ctx) throws IOException {
 			}
 
 			PackIndex idx;
+			long start = System.nanoTime();
 			try {
 				ReadableChannel rc = ctx.db.openFile(packDesc, INDEX);
 				try {
@@ -279,6 +305,8 @@ else if (bs <= 0)
 						packDesc.getFileName(INDEX)));
 				e2.initCause(e);
 				throw e2;
+			} finally {
+				cache.recordLoad(INDEX, System.nanoTime() - start);
 			}
 
 			setPackIndex(idx);
@@ -290,19 +318,200 @@ final boolean isGarbage() {
 		return packDesc.getPackSource() == UNREACHABLE_GARBAGE;
 	}
 
+	/**
+	 * Get the commit-graph stored with this pack.
+	 *
+	 * @param ctx
+	 *            reader context to support reading from the backing store if
+	 *            the commit-graph is not already loaded in memory.
+	 * @return the commit-graph, or null if the pack does not carry one.
+	 * @throws IOException
+	 *             the commit-graph is not available, or is corrupt.
+	 */
+	CommitGraph getCommitGraph(DfsReader ctx) throws IOException {
+		if (invalid || isGarbage())
+			return null;
+		DfsBlockCache.Ref<CommitGraph> cgref = commitGraph;
+		if (cgref != null) {
+			CommitGraph cg = cgref.get();
+			if (cg != null) {
+				cache.recordHit(COMMIT_GRAPH);
+				return cg;
+			}
+		}
+
+		if (!packDesc.hasFileExt(COMMIT_GRAPH))
+			return null;
+
+		synchronized (initLock) {
+			cgref = commitGraph;
+			if (cgref != null) {
+				CommitGraph cg = cgref.get();
+				if (cg != null)
+					return cg;
+			}
+
+			long size;
+			CommitGraph cg;
+			long start = System.nanoTime();
+			try {
+				ReadableChannel rc = ctx.db.openFile(packDesc, COMMIT_GRAPH);
+				try {
+					InputStream in = Channels.newInputStream(rc);
+					int wantSize = 8192;
+					int bs = rc.blockSize();
+					if (0 < bs && bs < wantSize)
+						bs = (wantSize / bs) * bs;
+					else if (bs <= 0)
+						bs = wantSize;
+					cg = CommitGraphLoader.read(
+							new BufferedInputStream(in, bs));
+				} finally {
+					size = rc.position();
+					rc.close();
+				}
+			} catch (EOFException e) {
+				IOException e2 = new IOException(MessageFormat.format(
+						DfsText.get().shortReadOfIndex,
+						packDesc.getFileName(COMMIT_GRAPH)));
+				e2.initCause(e);
+				throw e2;
+			} catch (IOException e) {
+				IOException e2 = new IOException(MessageFormat.format(
+						DfsText.get().cannotReadIndex,
+						packDesc.getFileName(COMMIT_GRAPH)));
+				e2.initCause(e);
+				throw e2;
+			} finally {
+				cache.recordLoad(COMMIT_GRAPH, System.nanoTime() - start);
+			}
+
+			commitGraph = cache.put(key, COMMIT_GRAPH, POS_COMMIT_GRAPH,
+					(int) Math.min(size, Integer.MAX_VALUE), cg);
+			return cg;
+		}
+	}
+
+	/**
+	 * Get the multi-pack-index stored with this pack.
+	 *
+	 * @param ctx
+	 *            reader context to support reading from the backing store if
+	 *            the multi-pack-index is not already loaded in memory.
+	 * @return the multi-pack-index, or null if the pack does not carry one.
+	 * @throws IOException
+	 *             the multi-pack-index is not available, or is corrupt.
+	 */
+	MultiPackIndex getMultiPackIndex(DfsReader ctx) throws IOException {
+		if (invalid || isGarbage())
+			return null;
+		DfsBlockCache.Ref<MultiPackIndex> midxref = multiPackIndex;
+		if (midxref != null) {
+			MultiPackIndex midx = midxref.get();
+			if (midx != null) {
+				cache.recordHit(MULTI_PACK_INDEX);
+				return midx;
+			}
+		}
+
+		if (!packDesc.hasFileExt(MULTI_PACK_INDEX))
+			return null;
+
+		synchronized (initLock) {
+			midxref = multiPackIndex;
+			if (midxref != null) {
+				MultiPackIndex midx = midxref.get();
+				if (midx != null)
+					return midx;
+			}
+
+			long size;
+			MultiPackIndex midx;
+			long start = System.nanoTime();
+			try {
+				ReadableChannel rc = ctx.db.openFile(packDesc,
+						MULTI_PACK_INDEX);
+				try {
+					InputStream in = Channels.newInputStream(rc);
+					int wantSize = 8192;
+					int bs = rc.blockSize();
+					if (0 < bs && bs < wantSize)
+						bs = (wantSize / bs) * bs;
+					else if (bs <= 0)
+						bs = wantSize;
+					midx = MultiPackIndexLoader.read(
+							new BufferedInputStream(in, bs));
+				} finally {
+					size = rc.position();
+					rc.close();
+				}
+			} catch (EOFException e) {
+				IOException e2 = new IOException(MessageFormat.format(
+						DfsText.get().shortReadOfIndex,
+						packDesc.getFileName(MULTI_PACK_INDEX)));
+				e2.initCause(e);
+				throw e2;
+			} catch (IOException e) {
+				IOException e2 = new IOException(MessageFormat.format(
+						DfsText.get().cannotReadIndex,
+						packDesc.getFileName(MULTI_PACK_INDEX)));
+				e2.initCause(e);
+				throw e2;
+			} finally {
+				cache.recordLoad(MULTI_PACK_INDEX, System.nanoTime() - start);
+			}
+
+			multiPackIndex = cache.put(key, MULTI_PACK_INDEX,
+					POS_MULTI_PACK_INDEX,
+					(int) Math.min(size, Integer.MAX_VALUE), midx);
+			return midx;
+		}
+	}
+
+	/**
+	 * Find the bitmap index to use for a list of packs.
+	 *
+	 * @param ctx
+	 *            reader to load the indexes with.
+	 * @param packs
+	 *            packs to search, in order of preference.
+	 * @return the bitmap index, joined with its bases if it is a layer; null
+	 *         if no pack has a usable one.
+	 * @throws IOException
+	 *             a bitmap index cannot be read.
+	 * @see PackBitmapIndexLayered#select(List)
+	 */
+	static PackBitmapIndex findBitmapIndex(DfsReader ctx,
+			Collection<DfsPackFile> packs) throws IOException {
+		List<PackBitmapIndex> all = new ArrayList<>(2);
+		for (DfsPackFile pack : packs) {
+			PackBitmapIndex index = pack.getBitmapIndex(ctx);
+			if (index != null)
+				all.add(index);
+		}
+		return PackBitmapIndexLayered.select(all);
+	}
+
 	PackBitmapIndex getBitmapIndex(DfsReader ctx) throws IOException {
 		if (invalid || isGarbage())
 			return null;
+		PackExt ext;
+		if (packDesc.hasFileExt(BITMAP_INDEX))
+			ext = BITMAP_INDEX;
+		else if (packDesc.hasFileExt(LAYERED_BITMAP_INDEX))
+			ext = LAYERED_BITMAP_INDEX;
+		else
+			return null;
+
 		DfsBlockCache.Ref<PackBitmapIndex> idxref = bitmapIndex;
 		if (idxref != null) {
 			PackBitmapIndex idx = idxref.get();
-			if (idx != null)
+			if (idx != null) {
+				cache.recordHit(ext);
 				return idx;
+			}
 		}
 
-		if (!packDesc.hasFileExt(PackExt.BITMAP_INDEX))
-			return null;
-
 		synchronized (initLock) {
 			idxref = bitmapIndex;
 			if (idxref != null) {
@@ -313,8 +522,9 @@ PackBitmapIndex getBitmapIndex(DfsReader ctx) throws IOException {
 
 			long size;
 			PackBitmapIndex idx;
+			long start = System.nanoTime();
 			try {
-				ReadableChannel rc = ctx.db.openFile(packDesc, BITMAP_INDEX);
+				ReadableChannel rc = ctx.db.openFile(packDesc, ext);
 				try {
 					InputStream in = Channels.newInputStream(rc);
 					int wantSize = 8192;
@@ -326,6 +536,11 @@ else if (bs <= 0)
 					in = new BufferedInputStream(in, bs);
 					idx = PackBitmapIndex.read(
 							in, idx(ctx), getReverseIdx(ctx));
+					if (idx.isLayer() != (ext == LAYERED_BITMAP_INDEX))
+						throw new IOException(MessageFormat.format(
+								JGitText.get().bitmapLayerMismatch,
+								packDesc.getFileName(ext),
+								LAYERED_BITMAP_INDEX.getExtension()));
 				} finally {
 					size = rc.position();
 					rc.close();
@@ -333,18 +548,20 @@ else if (bs <= 0)
 			} catch (EOFException e) {
 				IOException e2 = new IOException(MessageFormat.format(
 						DfsText.get().shortReadOfIndex,
-						packDesc.getFileName(BITMAP_INDEX)));
+						packDesc.getFileName(ext)));
 				e2.initCause(e);
 				throw e2;
 			} catch (IOException e) {
 				IOException e2 = new IOException(MessageFormat.format(
 						DfsText.get().cannotReadIndex,
-						packDesc.getFileName(BITMAP_INDEX)));
+						packDesc.getFileName(ext)));
 				e2.initCause(e);
 				throw e2;
+			} finally {
+				cache.recordLoad(ext, System.nanoTime() - start);
 			}
 
-			bitmapIndex = cache.put(key, POS_BITMAP_INDEX,
+			bitmapIndex = cache.put(key, ext, POS_BITMAP_INDEX,
 					(int) Math.min(size, Integer.MAX_VALUE), idx);
 			return idx;
 		}
@@ -370,7 +587,8 @@ PackReverseIndex getReverseIdx(DfsReader ctx) throws IOException {
 			PackReverseIndex revidx = new PackReverseIndex(idx);
 			int sz = (int) Math.min(
 					idx.getObjectCount() * 8, Integer.MAX_VALUE);
-			reverseIndex = cache.put(key, POS_REVERSE_INDEX, sz, revidx);
+			reverseIndex = cache.put(key, INDEX, POS_REVERSE_INDEX, sz,
+					revidx);
 			return revidx;
 		}
 	}
@@ -353,37 +353,71 @@ protected int readDatabase(byte[] dst, int pos, int cnt) throws IOException {
 			return n;
 		}
 
-		if (readBlock == null || !readBlock.contains(packKey, readPos)) {
-			long start = toBlockStart(readPos);
-			readBlock = blockCache.get(packKey, start);
-			if (readBlock == null) {
-				int size = (int) Math.min(blockSize, packEnd - start);
-				byte[] buf = new byte[size];
-				if (read(start, buf, 0, size) != size)
-					throw new EOFException();
-				readBlock = new DfsBlock(packKey, start, buf);
-				blockCache.put(readBlock);
-			}
-		}
+		if (readBlock == null || !readBlock.contains(packKey, readPos))
+			readBlock = getBlock(readPos);
 
 		int n = readBlock.copy(readPos, dst, pos, cnt);
 		readPos += n;
 		return n;
 	}
 
+	@Override
+	protected DatabaseReader newDatabaseReader() {
+		return new DatabaseReader() {
+			private DfsBlock block;
+
+			@Override
+			public int read(long pos, byte[] dst, int off, int cnt)
+					throws IOException {
+				if (cnt == 0)
+					return 0;
+
+				if (currPos <= pos) {
+					// Requested read is still buffered. Copy direct from buffer.
+					int p = (int) (pos - currPos);
+					int n = Math.min(cnt, currEnd - p);
+					if (n <= 0)
+						return -1;
+					System.arraycopy(currBuf, p, dst, off, n);
+					return n;
+				}
+
+				if (block == null || !block.contains(packKey, pos))
+					block = getBlock(pos);
+				return block.copy(pos, dst, off, cnt);
+			}
+		};
+	}
+
+	private DfsBlock getBlock(long pos) throws IOException {
+		long start = toBlockStart(pos);
+		DfsBlock b = blockCache.get(packKey, start);
+		if (b == null) {
+			int size = (int) Math.min(blockSize, packEnd - start);
+			byte[] buf = new byte[size];
+			if (read(start, buf, 0, size) != size)
+				throw new EOFException();
+			b = new DfsBlock(packKey, start, buf);
+			blockCache.put(b);
+		}
+		return b;
+	}
+
 	private int read(long pos, byte[] dst, int off, int len) throws IOException {
 		if (len == 0)
 			return 0;
 
 		int cnt = 0;
-		while (0 < len) {
-			int r = out.read(pos, ByteBuffer.wrap(dst, off, len));
-			if (r <= 0)
-				break;
-			pos += r;
-			off += r;
-			len -= r;
-			cnt += r;
+		synchronized (out) {
+			while (0 < len) {
+				int r = out.read(pos, ByteBuffer.wrap(dst, off, len));
+				if (r <= 0)
+					break;
+				pos += r;
+				off += r;
+				len -= r;
+				cnt += r;
+			}
 		}
 		return cnt != 0 ? cnt : -1;
 	}
@@ -65,6 +65,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackList;
 import org.eclipse.jgit.internal.storage.dfs.DfsObjDatabase.PackSource;
 import org.eclipse.jgit.internal.storage.file.BitmapIndexImpl;
@@ -141,10 +142,17 @@ public void setAvoidUnreachableObjects(boolean avoid) {
 
 	@Override
 	public BitmapIndex getBitmapIndex() throws IOException {
+		PackBitmapIndex bitmapIndex = DfsPackFile.findBitmapIndex(this,
+				Arrays.asList(db.getPacks()));
+		return bitmapIndex != null ? new BitmapIndexImpl(bitmapIndex) : null;
+	}
+
+	@Override
+	public CommitGraph getCommitGraph() throws IOException {
 		for (DfsPackFile pack : db.getPacks()) {
-			PackBitmapIndex bitmapIndex = pack.getBitmapIndex(this);
-			if (bitmapIndex != null)
-				return new BitmapIndexImpl(bitmapIndex);
+			CommitGraph graph = pack.getCommitGraph(this);
+			if (graph != null)
+				return graph;
 		}
 		return null;
 	}
@@ -205,8 +213,22 @@ public boolean has(AnyObjectId objectId) throws IOException {
 
 	private boolean hasImpl(PackList packList, AnyObjectId objectId)
 			throws IOException {
-		for (DfsPackFile pack : packList.packs) {
-			if (pack == last || skipGarbagePack(pack))
+		DfsPackFile[] packs = packList.packs;
+		DfsMultiPackIndex midx = packList.getMultiPackIndex(this);
+		int pos = -1;
+		if (midx != null) {
+			pos = midx.index.findPosition(objectId);
+			int i = midx.getPack(pos);
+			if (0 <= i && !skipGarbagePack(packs[i])
+					&& !packs[i].isCorrupt(midx.index.getOffset(pos))) {
+				last = packs[i];
+				return true;
+			}
+		}
+		for (int i = 0; i < packs.length; i++) {
+			DfsPackFile pack = packs[i];
+			if (pack == last || skipGarbagePack(pack)
+					|| (midx != null && midx.skip(pos, i)))
 				continue;
 			if (pack.hasObject(this, objectId)) {
 				last = pack;
@@ -256,8 +278,24 @@ private static ObjectLoader checkType(ObjectLoader ldr, AnyObjectId id,
 
 	private ObjectLoader openImpl(PackList packList, AnyObjectId objectId)
 			throws IOException {
-		for (DfsPackFile pack : packList.packs) {
-			if (pack == last || skipGarbagePack(pack)) {
+		DfsPackFile[] packs = packList.packs;
+		DfsMultiPackIndex midx = packList.getMultiPackIndex(this);
+		int pos = -1;
+		if (midx != null) {
+			pos = midx.index.findPosition(objectId);
+			int i = midx.getPack(pos);
+			if (0 <= i && !skipGarbagePack(packs[i])) {
+				long offset = midx.index.getOffset(pos);
+				if (!packs[i].isCorrupt(offset)) {
+					last = packs[i];
+					return packs[i].load(this, offset);
+				}
+			}
+		}
+		for (int i = 0; i < packs.length; i++) {
+			DfsPackFile pack = packs[i];
+			if (pack == last || skipGarbagePack(pack)
+					|| (midx != null && midx.skip(pos, i))) {
 				continue;
 			}
 			ObjectLoader ldr = pack.get(this, objectId);
@@ -331,6 +369,7 @@ private <T extends ObjectId> void findAllImpl(PackList packList,
 		if (packs.length == 0) {
 			return;
 		}
+		DfsMultiPackIndex midx = packList.getMultiPackIndex(this);
 		int lastIdx = 0;
 		DfsPackFile lastPack = packs[lastIdx];
 
@@ -349,8 +388,22 @@ private <T extends ObjectId> void findAllImpl(PackList packList,
 				}
 			}
 
+			int pos = -1;
+			if (midx != null) {
+				pos = midx.index.findPosition(t);
+				int i = midx.getPack(pos);
+				if (0 <= i && i != lastIdx && !skipGarbagePack(packs[i])) {
+					r.add(new FoundObject<>(t, i, packs[i],
+							midx.index.getOffset(pos)));
+					it.remove();
+					lastIdx = i;
+					lastPack = packs[i];
+					continue;
+				}
+			}
+
 			for (int i = 0; i < packs.length; i++) {
-				if (i == lastIdx)
+				if (i == lastIdx || (midx != null && midx.skip(pos, i)))
 					continue;
 				DfsPackFile pack = packs[i];
 				if (skipGarbagePack(pack))
@@ -530,8 +583,21 @@ public long getObjectSize(AnyObjectId objectId, int typeHint)
 
 	private long getObjectSizeImpl(PackList packList, AnyObjectId objectId)
 			throws IOException {
-		for (DfsPackFile pack : packList.packs) {
-			if (pack == last || skipGarbagePack(pack)) {
+		DfsPackFile[] packs = packList.packs;
+		DfsMultiPackIndex midx = packList.getMultiPackIndex(this);
+		int pos = -1;
+		if (midx != null) {
+			pos = midx.index.findPosition(objectId);
+			int i = midx.getPack(pos);
+			if (0 <= i && !skipGarbagePack(packs[i])) {
+				last = packs[i];
+				return packs[i].getObjectSize(this, midx.index.getOffset(pos));
+			}
+		}
+		for (int i = 0; i < packs.length; i++) {
+			DfsPackFile pack = packs[i];
+			if (pack == last || skipGarbagePack(pack)
+					|| (midx != null && midx.skip(pos, i))) {
 				continue;
 			}
 			long sz = pack.getObjectSize(this, objectId);
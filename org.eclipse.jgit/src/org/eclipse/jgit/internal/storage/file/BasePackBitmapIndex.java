@@ -43,6 +43,10 @@
 
 package org.eclipse.jgit.internal.storage.file;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.ObjectIdOwnerMap;
 
@@ -85,6 +89,29 @@ static final class StoredBitmap extends ObjectIdOwnerMap.Entry {
 			this.flags = flags;
 		}
 
+		/**
+		 * Create a bitmap which is decoded from its serialized form on the
+		 * first call to {@link #getBitmap()}.
+		 *
+		 * @param objectId
+		 *            the commit the bitmap is stored for.
+		 * @param buf
+		 *            buffer holding the serialized bitmap.
+		 * @param position
+		 *            offset of the serialized bitmap within {@code buf}.
+		 * @param xorBitmap
+		 *            bitmap to xor with the decoded result, or null.
+		 * @param flags
+		 *            the flags associated with the bitmap.
+		 */
+		StoredBitmap(AnyObjectId objectId, ByteBuffer buf, int position,
+				StoredBitmap xorBitmap, int flags) {
+			super(objectId);
+			this.bitmapContainer = new SerializedBitmap(buf, position,
+					xorBitmap);
+			this.flags = flags;
+		}
+
 		/**
 		 * Computes and returns the full bitmap.
 		 *
@@ -92,7 +119,7 @@ static final class StoredBitmap extends ObjectIdOwnerMap.Entry {
 		 */
 		EWAHCompressedBitmap getBitmap() {
 			// Fast path to immediately return the expanded result.
-			Object r = bitmapContainer;
+			Object r = getContainer();
 			if (r instanceof EWAHCompressedBitmap)
 				return (EWAHCompressedBitmap) r;
 
@@ -100,7 +127,7 @@ EWAHCompressedBitmap getBitmap() {
 			XorCompressedBitmap xb = (XorCompressedBitmap) r;
 			EWAHCompressedBitmap out = xb.bitmap;
 			for (;;) {
-				r = xb.xorBitmap.bitmapContainer;
+				r = xb.xorBitmap.getContainer();
 				if (r instanceof EWAHCompressedBitmap) {
 					out = out.xor((EWAHCompressedBitmap) r);
 					bitmapContainer = out;
@@ -111,6 +138,20 @@ EWAHCompressedBitmap getBitmap() {
 			}
 		}
 
+		private Object getContainer() {
+			Object r = bitmapContainer;
+			if (r instanceof SerializedBitmap) {
+				// Racing threads decode the same bytes; either result is fine.
+				SerializedBitmap sb = (SerializedBitmap) r;
+				EWAHCompressedBitmap b = sb.decode();
+				r = sb.xorBitmap == null
+						? b
+						: new XorCompressedBitmap(b, sb.xorBitmap);
+				bitmapContainer = r;
+			}
+			return r;
+		}
+
 		/** @return the flags associated with the bitmap */
 		int getFlags() {
 			return flags;
@@ -126,4 +167,69 @@ private static final class XorCompressedBitmap {
 			xorBitmap = xb;
 		}
 	}
+
+	private static final class SerializedBitmap {
+		final ByteBuffer buf;
+		final int position;
+		final StoredBitmap xorBitmap;
+
+		SerializedBitmap(ByteBuffer buf, int position, StoredBitmap xb) {
+			this.buf = buf;
+			this.position = position;
+			this.xorBitmap = xb;
+		}
+
+		EWAHCompressedBitmap decode() {
+			return decodeBitmap(buf, position);
+		}
+	}
+
+	/**
+	 * Decode a serialized {@link EWAHCompressedBitmap}.
+	 *
+	 * @param buf
+	 *            buffer holding the serialized bitmap.
+	 * @param position
+	 *            offset of the bitmap within {@code buf}, which must have been
+	 *            validated by {@link #serializedSize(ByteBuffer, int)}.
+	 * @return the decoded bitmap.
+	 */
+	static EWAHCompressedBitmap decodeBitmap(ByteBuffer buf, int position) {
+		ByteBuffer b = buf.duplicate();
+		b.position(position);
+		byte[] raw = new byte[serializedSize(buf, position)];
+		b.get(raw);
+
+		EWAHCompressedBitmap bitmap = new EWAHCompressedBitmap();
+		try {
+			bitmap.deserialize(new SimpleDataInput(
+					new ByteArrayInputStream(raw)));
+		} catch (IOException e) {
+			// Not possible, the extent was checked when the index was
+			// opened and the bytes are already in memory.
+			throw new IllegalStateException(e);
+		}
+		return bitmap;
+	}
+
+	/**
+	 * Compute the length of a serialized {@link EWAHCompressedBitmap}.
+	 *
+	 * @param buf
+	 *            buffer holding the serialized bitmap.
+	 * @param position
+	 *            offset of the bitmap within {@code buf}.
+	 * @return number of bytes used by the bitmap; -1 if the bitmap header is
+	 *         invalid or extends past the end of {@code buf}.
+	 */
+	static int serializedSize(ByteBuffer buf, int position) {
+		// int32 bit count, int32 word count, the words, int32 RLW position.
+		if (position < 0 || buf.limit() - position < 12)
+			return -1;
+		long words = buf.getInt(position + 4);
+		long size = 12 + 8 * words;
+		if (words < 0 || buf.limit() - position < size)
+			return -1;
+		return (int) size;
+	}
 }
@@ -279,14 +279,19 @@ public int cardinality() {
 
 		@Override
 		public boolean removeAllOrNone(PackBitmapIndex index) {
-			if (!bitmapIndex.packIndex.equals(index))
+			// The full index below layers takes their first positions.
+			PackBitmapIndex packIndex = bitmapIndex.packIndex;
+			if (!packIndex.equals(index)
+					&& !(packIndex instanceof PackBitmapIndexLayered
+							&& ((PackBitmapIndexLayered) packIndex)
+									.getFullIndex().equals(index)))
 				return false;
 
-			EWAHCompressedBitmap curr = bitset.combine()
-					.xor(ones(bitmapIndex.indexObjectCount));
+			int count = index.getObjectCount();
+			EWAHCompressedBitmap curr = bitset.combine().xor(ones(count));
 
 			IntIterator ii = curr.intIterator();
-			if (ii.hasNext() && ii.next() < bitmapIndex.indexObjectCount)
+			if (ii.hasNext() && ii.next() < count)
 				return false;
 			bitset = new ComboBitset(curr);
 			return true;
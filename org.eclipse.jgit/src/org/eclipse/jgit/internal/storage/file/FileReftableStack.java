@@ -0,0 +1,427 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.CHARSET;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.eclipse.jgit.errors.LockFailedException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.reftable.MergedReftable;
+import org.eclipse.jgit.internal.storage.reftable.RefCursor;
+import org.eclipse.jgit.internal.storage.reftable.Reftable;
+import org.eclipse.jgit.internal.storage.reftable.ReftableReader;
+import org.eclipse.jgit.internal.storage.reftable.ReftableWriter;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * A stack of reftable files holding the packed references of a repository.
+ * <p>
+ * The stack lives in {@code $GIT_DIR/reftable}. The file {@code tables.list}
+ * names the tables from the base of the stack to its top, one per line; each
+ * table only records the references changed since the tables below it.
+ * Appending a table and rewriting the list under a {@link LockFile} makes an
+ * update of any number of references atomic, at a cost proportional to the
+ * size of the update rather than the number of references.
+ * <p>
+ * To keep lookups cheap, each append merges the newest tables while the
+ * table on top is at least half the size of the one below it, so the stack
+ * holds a logarithmic number of tables. {@link #compact()} merges the whole
+ * stack into a single table.
+ */
+class FileReftableStack {
+	/** Name of the file listing the tables of the stack. */
+	static final String TABLES_LIST = "tables.list"; //$NON-NLS-1$
+
+	private static final String TABLE_SUFFIX = ".ref"; //$NON-NLS-1$
+
+	private final File stackDir;
+
+	private final File listFile;
+
+	private final AtomicReference<Stack> current;
+
+	FileReftableStack(File stackDir) {
+		this.stackDir = stackDir;
+		this.listFile = new File(stackDir, TABLES_LIST);
+		this.current = new AtomicReference<>(Stack.EMPTY);
+	}
+
+	/** @return the file listing the tables of the stack. */
+	File getListFile() {
+		return listFile;
+	}
+
+	/** @return true if the stack has been created. */
+	boolean exists() {
+		return listFile.exists();
+	}
+
+	/**
+	 * @return the current tables of the stack, reloaded if the list file
+	 *         has been modified since it was last read.
+	 * @throws IOException
+	 *             the stack cannot be read.
+	 */
+	Stack getStack() throws IOException {
+		return read(false);
+	}
+
+	/**
+	 * @return the current tables, merged into a single view.
+	 * @throws IOException
+	 *             the stack cannot be read.
+	 */
+	MergedReftable getMergedReftable() throws IOException {
+		return getStack().merged;
+	}
+
+	/** @return number of tables in the current stack. */
+	int getTableCount() throws IOException {
+		return getStack().names.size();
+	}
+
+	private Stack read(boolean force) throws IOException {
+		Stack cur = current.get();
+		if (!force && !cur.snapshot.isModified(listFile))
+			return cur;
+
+		int retries = 0;
+		for (;;) {
+			FileSnapshot snapshot = FileSnapshot.save(listFile);
+			List<String> names;
+			try {
+				names = parseList(IO.readFully(listFile));
+			} catch (FileNotFoundException noStack) {
+				names = Collections.emptyList();
+			}
+			try {
+				Stack n = open(snapshot, names, cur);
+				current.compareAndSet(cur, n);
+				return n;
+			} catch (FileNotFoundException e) {
+				// A concurrent compaction removed a table after we read
+				// the list; the list on disk has changed, read it again.
+				if (++retries > 5)
+					throw e;
+			}
+		}
+	}
+
+	/**
+	 * Create the stack, if it does not exist yet.
+	 *
+	 * @param base
+	 *            references the new stack should start with.
+	 * @throws IOException
+	 *             the stack cannot be created.
+	 */
+	void create(Collection<Ref> base) throws IOException {
+		FileUtils.mkdirs(stackDir, true);
+		LockFile lck = lockList();
+		try {
+			if (exists())
+				return;
+			List<String> names = new ArrayList<>(1);
+			names.add(writeTable(base, 1));
+			commitList(lck, names, Stack.EMPTY);
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	/**
+	 * Atomically apply a set of reference changes.
+	 *
+	 * @param changes
+	 *            references to store; a non-symbolic reference without an
+	 *            object id deletes the name. Non-symbolic references should
+	 *            be peeled.
+	 * @throws IOException
+	 *             the stack is locked or cannot be written.
+	 */
+	void add(Collection<Ref> changes) throws IOException {
+		FileUtils.mkdirs(stackDir, true);
+		LockFile lck = lockList();
+		try {
+			Stack cur = readLocked();
+			List<String> names = new ArrayList<>(cur.names);
+			List<ReftableReader> tables = new ArrayList<>(cur.tables);
+			String name = writeTable(changes, nextSequence(cur.names));
+			names.add(name);
+			tables.add(openTable(name));
+			List<String> obsolete = autoCompact(names, tables);
+			commitList(lck, names, cur);
+			deleteTables(obsolete);
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	/**
+	 * Merge the entire stack into a single table, dropping deletions.
+	 *
+	 * @throws IOException
+	 *             the stack is locked or cannot be written.
+	 */
+	void compact() throws IOException {
+		if (!exists())
+			return;
+		LockFile lck = lockList();
+		try {
+			Stack cur = readLocked();
+			if (cur.names.size() <= 1)
+				return;
+			List<String> names = new ArrayList<>(1);
+			names.add(writeCompacted(cur.tables, false,
+					nextSequence(cur.names)));
+			commitList(lck, names, cur);
+			deleteTables(cur.names);
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	private List<String> autoCompact(List<String> names,
+			List<ReftableReader> tables) throws IOException {
+		int n = tables.size();
+		int start = n - 1;
+		long sum = tables.get(start).size();
+		while (start > 0 && 2 * sum >= tables.get(start - 1).size()) {
+			start--;
+			sum += tables.get(start).size();
+		}
+		if (start == n - 1)
+			return Collections.emptyList();
+
+		// Deletions only matter while older tables remain below.
+		List<ReftableReader> merge = tables.subList(start, n);
+		String name = writeCompacted(merge, start > 0, nextSequence(names));
+		List<String> obsolete = new ArrayList<>(names.subList(start, n));
+		names.subList(start, n).clear();
+		names.add(name);
+		return obsolete;
+	}
+
+	private LockFile lockList() throws IOException {
+		LockFile lck = new LockFile(listFile);
+		if (!lck.lock())
+			throw new LockFailedException(listFile);
+		return lck;
+	}
+
+	private Stack readLocked() throws IOException {
+		// With the list locked the stack cannot change; make sure the
+		// cached copy is the one on disk, even if its snapshot is racy.
+		return read(true);
+	}
+
+	private void commitList(LockFile lck, List<String> names, Stack old)
+			throws IOException {
+		StringBuilder b = new StringBuilder();
+		for (String n : names)
+			b.append(n).append('\n');
+		lck.setFSync(true);
+		lck.setNeedSnapshot(true);
+		lck.write(b.toString().getBytes(CHARSET));
+		if (!lck.commit())
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unableToWrite, listFile));
+		current.set(open(lck.getCommitSnapshot(), names, old));
+	}
+
+	private String writeTable(Collection<Ref> refs, long seq)
+			throws IOException {
+		String name = tableName(seq);
+		File tmp = File.createTempFile("table_", ".tmp", stackDir); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			try (FileOutputStream fos = new FileOutputStream(tmp)) {
+				OutputStream out = new BufferedOutputStream(fos);
+				new ReftableWriter().begin(out).sortAndWriteRefs(refs)
+						.finish();
+				fos.getChannel().force(true);
+			}
+			FileUtils.rename(tmp, new File(stackDir, name));
+		} finally {
+			FileUtils.delete(tmp, FileUtils.SKIP_MISSING);
+		}
+		return name;
+	}
+
+	private String writeCompacted(List<ReftableReader> tables,
+			boolean includeDeletes, long seq) throws IOException {
+		String name = tableName(seq);
+		File tmp = File.createTempFile("table_", ".tmp", stackDir); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			MergedReftable merged = new MergedReftable(
+					new ArrayList<Reftable>(tables));
+			merged.setIncludeDeletes(includeDeletes);
+			try (FileOutputStream fos = new FileOutputStream(tmp);
+					RefCursor rc = merged.allRefs()) {
+				OutputStream out = new BufferedOutputStream(fos);
+				ReftableWriter w = new ReftableWriter().begin(out);
+				while (rc.next())
+					w.writeRef(rc.getRef());
+				w.finish();
+				fos.getChannel().force(true);
+			}
+			FileUtils.rename(tmp, new File(stackDir, name));
+		} finally {
+			FileUtils.delete(tmp, FileUtils.SKIP_MISSING);
+		}
+		return name;
+	}
+
+	private void deleteTables(List<String> names) {
+		for (String n : names) {
+			// Readers may still have the table mapped; on platforms that
+			// refuse to delete such files leave it for a later compaction.
+			new File(stackDir, n).delete();
+		}
+	}
+
+	private Stack open(FileSnapshot snapshot, List<String> names, Stack old)
+			throws IOException {
+		Map<String, ReftableReader> reuse = new HashMap<>();
+		for (int i = 0; i < old.names.size(); i++)
+			reuse.put(old.names.get(i), old.tables.get(i));
+
+		List<ReftableReader> tables = new ArrayList<>(names.size());
+		for (String n : names) {
+			ReftableReader r = reuse.get(n);
+			tables.add(r != null ? r : openTable(n));
+		}
+		return new Stack(snapshot, names, tables);
+	}
+
+	private ReftableReader openTable(String name) throws IOException {
+		File f = new File(stackDir, name);
+		ByteBuffer buf = PackIndex.map(f);
+		if (buf == null)
+			throw new IOException(JGitText.get().reftableTooLarge);
+		try {
+			return new ReftableReader(buf);
+		} catch (IOException e) {
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unreadableReftable, f), e);
+		}
+	}
+
+	private static List<String> parseList(byte[] raw) {
+		List<String> names = new ArrayList<>();
+		int p = 0;
+		while (p < raw.length) {
+			int lf = RawParseUtils.nextLF(raw, p);
+			int end = raw[lf - 1] == '\n' ? lf - 1 : lf;
+			if (p < end)
+				names.add(RawParseUtils.decode(raw, p, end));
+			p = lf;
+		}
+		return names;
+	}
+
+	private static long nextSequence(List<String> names) {
+		if (names.isEmpty())
+			return 1;
+		String last = names.get(names.size() - 1);
+		return Long.parseLong(last.substring(0,
+				last.length() - TABLE_SUFFIX.length()), 16) + 1;
+	}
+
+	private static String tableName(long seq) {
+		return String.format("%016x", Long.valueOf(seq)) + TABLE_SUFFIX; //$NON-NLS-1$
+	}
+
+	/** Immutable state of the stack as read from one version of the list. */
+	static class Stack {
+		static final Stack EMPTY = new Stack(FileSnapshot.MISSING_FILE,
+				Collections.<String> emptyList(),
+				Collections.<ReftableReader> emptyList());
+
+		final FileSnapshot snapshot;
+
+		final List<String> names;
+
+		final List<ReftableReader> tables;
+
+		final MergedReftable merged;
+
+		/** Identifies this version of the stack, like the id of packed-refs. */
+		final ObjectId id;
+
+		Stack(FileSnapshot snapshot, List<String> names,
+				List<ReftableReader> tables) {
+			this.snapshot = snapshot;
+			this.names = Collections.unmodifiableList(names);
+			this.tables = Collections.unmodifiableList(tables);
+			this.merged = new MergedReftable(new ArrayList<Reftable>(tables));
+
+			MessageDigest md = Constants.newMessageDigest();
+			for (String n : names)
+				md.update(Constants.encode(n + '\n'));
+			this.id = ObjectId.fromRaw(md.digest());
+		}
+	}
+}
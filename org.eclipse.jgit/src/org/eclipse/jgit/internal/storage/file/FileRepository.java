@@ -216,10 +216,14 @@ public void onConfigChanged(ConfigChangedEvent event) {
 				ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION, 0);
 
 		String reftype = repoConfig.getString(
-				"extensions", null, "refsStorage"); //$NON-NLS-1$ //$NON-NLS-2$
+				ConfigConstants.CONFIG_EXTENSIONS_SECTION, null,
+				ConfigConstants.CONFIG_KEY_REFS_STORAGE);
 		if (repositoryFormatVersion >= 1 && reftype != null) {
 			if (StringUtils.equalsIgnoreCase(reftype, "reftree")) { //$NON-NLS-1$
 				refs = new RefTreeDatabase(this, new RefDirectory(this));
+			} else if (StringUtils.equalsIgnoreCase(reftype,
+					Constants.REFTABLE)) {
+				refs = new RefDirectory(this);
 			} else {
 				throw new IOException(JGitText.get().unknownRepositoryFormat);
 			}
@@ -45,10 +45,12 @@
 
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.LAYERED_BITMAP_INDEX;
 
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.io.OutputStream;
 import java.nio.channels.Channels;
 import java.nio.channels.FileChannel;
@@ -59,11 +61,13 @@
 import java.nio.file.StandardCopyOption;
 import java.text.MessageFormat;
 import java.text.ParseException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
+import java.util.Deque;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -73,18 +77,28 @@
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 import org.eclipse.jgit.annotations.NonNull;
+import org.eclipse.jgit.blame.FileBlameCache;
 import org.eclipse.jgit.dircache.DirCacheIterator;
 import org.eclipse.jgit.errors.CancelledException;
 import org.eclipse.jgit.errors.CorruptObjectException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
+import org.eclipse.jgit.errors.LockFailedException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.NoWorkTreeException;
+import org.eclipse.jgit.errors.ObjectWritingException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.WorkerPool;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphWriter;
+import org.eclipse.jgit.internal.storage.pack.GeometricProgression;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
 import org.eclipse.jgit.internal.storage.reftree.RefTreeNames;
@@ -137,6 +151,9 @@ public class GC {
 	private static final String BITMAP_EXT = "." //$NON-NLS-1$
 			+ PackExt.BITMAP_INDEX.getExtension();
 
+	private static final String LAYERED_BITMAP_EXT = "." //$NON-NLS-1$
+			+ PackExt.LAYERED_BITMAP_INDEX.getExtension();
+
 	private static final String INDEX_EXT = "." + PackExt.INDEX.getExtension(); //$NON-NLS-1$
 
 	private static final int DEFAULT_AUTOPACKLIMIT = 50;
@@ -194,7 +211,8 @@ public GC(FileRepository repo) {
 	 * <ul>
 	 * <li>pack loose references into packed-refs</li>
 	 * <li>repack all reachable objects into new pack files and delete the old
-	 * pack files</li>
+	 * pack files, or only roll small packs together if "gc.geometricFactor"
+	 * is set (see {@link #repackGeometric(int)})</li>
 	 * <li>prune all loose objects which are now reachable by packs</li>
 	 * </ul>
 	 *
@@ -215,8 +233,15 @@ public Collection<PackFile> gc() throws IOException, ParseException {
 		pm.start(6 /* tasks */);
 		packRefs();
 		// TODO: implement reflog_expire(pm, repo);
-		Collection<PackFile> newPacks = repack();
+		int factor = getGeometricFactor();
+		Collection<PackFile> newPacks = factor > 1 ? repackGeometric(factor)
+				: repack();
+		if (shouldWriteMultiPackIndex())
+			writeMultiPackIndex();
+		if (shouldWriteCommitGraph())
+			writeCommitGraph(refTips(lastPackedRefs));
 		prune(Collections.<ObjectId> emptySet());
+		pruneBlameCache();
 		// TODO: implement rerere_gc(pm);
 		return newPacks;
 	}
@@ -386,52 +411,36 @@ private void prunePack(String packName) {
 	 * @throws IOException
 	 */
 	public void prunePacked() throws IOException {
-		ObjectDirectory objdb = repo.getObjectDatabase();
-		Collection<PackFile> packs = objdb.getPacks();
-		File objects = repo.getObjectsDirectory();
-		String[] fanout = objects.list();
-
-		if (fanout != null && fanout.length > 0) {
-			pm.beginTask(JGitText.get().pruneLoosePackedObjects, fanout.length);
-			try {
-				for (String d : fanout) {
-					checkCancelled();
-					pm.update(1);
-					if (d.length() != 2)
-						continue;
-					String[] entries = new File(objects, d).list();
-					if (entries == null)
-						continue;
-					for (String e : entries) {
-						checkCancelled();
-						if (e.length() != Constants.OBJECT_ID_STRING_LENGTH - 2)
-							continue;
-						ObjectId id;
-						try {
-							id = ObjectId.fromString(d + e);
-						} catch (IllegalArgumentException notAnObject) {
-							// ignoring the file that does not represent loose
-							// object
-							continue;
-						}
-						boolean found = false;
-						for (PackFile p : packs) {
+		final ObjectDirectory objdb = repo.getObjectDatabase();
+		final ObjectIdSet packed = objdb.getPackedObjects();
+		visitFanout(JGitText.get().pruneLoosePackedObjects,
+				new FanoutVisitor<Void>() {
+					@Override
+					public Void visit(String d, File dir) throws IOException {
+						String[] entries = dir.list();
+						if (entries == null)
+							return null;
+						for (String e : entries) {
 							checkCancelled();
-							if (p.hasObject(id)) {
-								found = true;
-								break;
+							if (e.length() != Constants.OBJECT_ID_STRING_LENGTH - 2)
+								continue;
+							ObjectId id;
+							try {
+								id = ObjectId.fromString(d + e);
+							} catch (IllegalArgumentException notAnObject) {
+								// ignoring the file that does not represent
+								// loose object
+								continue;
 							}
+							if (packed.contains(id))
+								FileUtils.delete(objdb.fileFor(id),
+										FileUtils.RETRY
+												| FileUtils.SKIP_MISSING
+												| FileUtils.IGNORE_ERRORS);
 						}
-						if (found)
-							FileUtils.delete(objdb.fileFor(id), FileUtils.RETRY
-									| FileUtils.SKIP_MISSING
-									| FileUtils.IGNORE_ERRORS);
+						return null;
 					}
-				}
-			} finally {
-				pm.endTask();
-			}
-		}
+				});
 	}
 
 	/**
@@ -447,55 +456,53 @@ public void prunePacked() throws IOException {
 	 *             If the configuration parameter "gc.pruneexpire" couldn't be
 	 *             parsed
 	 */
-	public void prune(Set<ObjectId> objectsToKeep) throws IOException,
+	public void prune(final Set<ObjectId> objectsToKeep) throws IOException,
 			ParseException {
-		long expireDate = getExpireDate();
+		final long expireDate = getExpireDate();
 
 		// Collect all loose objects which are old enough, not referenced from
 		// the index and not in objectsToKeep
+		List<Map<ObjectId, File>> found = visitFanout(
+				JGitText.get().pruneLooseUnreferencedObjects,
+				new FanoutVisitor<Map<ObjectId, File>>() {
+					@Override
+					public Map<ObjectId, File> visit(String d, File dir)
+							throws IOException {
+						Map<ObjectId, File> candidates = new HashMap<>();
+						File[] entries = dir.listFiles();
+						if (entries == null)
+							return candidates;
+						for (File f : entries) {
+							checkCancelled();
+							String fName = f.getName();
+							if (fName.length() != Constants.OBJECT_ID_STRING_LENGTH - 2)
+								continue;
+							if (repo.getFS().lastModified(f) >= expireDate)
+								continue;
+							try {
+								ObjectId id = ObjectId.fromString(d + fName);
+								if (objectsToKeep.contains(id))
+									continue;
+								candidates.put(id, f);
+							} catch (IllegalArgumentException notAnObject) {
+								// ignoring the file that does not represent
+								// loose object
+								continue;
+							}
+						}
+						return candidates;
+					}
+				});
+
 		Map<ObjectId, File> deletionCandidates = new HashMap<>();
 		Set<ObjectId> indexObjects = null;
-		File objects = repo.getObjectsDirectory();
-		String[] fanout = objects.list();
-		if (fanout == null || fanout.length == 0) {
-			return;
-		}
-		pm.beginTask(JGitText.get().pruneLooseUnreferencedObjects,
-				fanout.length);
-		try {
-			for (String d : fanout) {
-				checkCancelled();
-				pm.update(1);
-				if (d.length() != 2)
-					continue;
-				File[] entries = new File(objects, d).listFiles();
-				if (entries == null)
-					continue;
-				for (File f : entries) {
-					checkCancelled();
-					String fName = f.getName();
-					if (fName.length() != Constants.OBJECT_ID_STRING_LENGTH - 2)
-						continue;
-					if (repo.getFS().lastModified(f) >= expireDate)
-						continue;
-					try {
-						ObjectId id = ObjectId.fromString(d + fName);
-						if (objectsToKeep.contains(id))
-							continue;
-						if (indexObjects == null)
-							indexObjects = listNonHEADIndexObjects();
-						if (indexObjects.contains(id))
-							continue;
-						deletionCandidates.put(id, f);
-					} catch (IllegalArgumentException notAnObject) {
-						// ignoring the file that does not represent loose
-						// object
-						continue;
-					}
-				}
+		for (Map<ObjectId, File> candidates : found) {
+			for (Map.Entry<ObjectId, File> e : candidates.entrySet()) {
+				if (indexObjects == null)
+					indexObjects = listNonHEADIndexObjects();
+				if (!indexObjects.contains(e.getKey()))
+					deletionCandidates.put(e.getKey(), e.getValue());
 			}
-		} finally {
-			pm.endTask();
 		}
 
 		if (deletionCandidates.isEmpty()) {
@@ -597,6 +604,104 @@ public void prune(Set<ObjectId> objectsToKeep) throws IOException,
 		repo.getObjectDatabase().close();
 	}
 
+	private interface FanoutVisitor<T> {
+		T visit(String fanout, File dir) throws IOException;
+	}
+
+	/**
+	 * Visit the fanout directories of the loose objects, on the shared
+	 * {@link WorkerPool} if "gc.pruneThreads" allows for more than one thread.
+	 *
+	 * @param title
+	 *            title of the progress task.
+	 * @param visitor
+	 *            called for each fanout directory. May be called concurrently.
+	 * @return results of the visitor, one per fanout directory.
+	 * @throws IOException
+	 *             the visitor failed, or gc was cancelled.
+	 */
+	private <T> List<T> visitFanout(String title,
+			final FanoutVisitor<T> visitor) throws IOException {
+		final File objects = repo.getObjectsDirectory();
+		String[] fanout = objects.list();
+		if (fanout == null || fanout.length == 0)
+			return Collections.emptyList();
+
+		List<T> result = new ArrayList<>(fanout.length);
+		pm.beginTask(title, fanout.length);
+		try {
+			int threads = Math.min(getPruneThreads(), fanout.length);
+			if (threads <= 1) {
+				for (String d : fanout) {
+					checkCancelled();
+					pm.update(1);
+					if (d.length() == 2)
+						result.add(visitor.visit(d, new File(objects, d)));
+				}
+				return result;
+			}
+
+			// Bound the tasks in flight to the configured number of threads.
+			ExecutorService pool = WorkerPool.get();
+			int maxPending = Math.min(threads, WorkerPool.getThreadCount());
+			Deque<Future<T>> futures = new ArrayDeque<>(maxPending);
+			try {
+				for (final String d : fanout) {
+					if (d.length() != 2) {
+						pm.update(1);
+						continue;
+					}
+					if (futures.size() == maxPending)
+						result.add(getFanout(title, futures.removeFirst()));
+					futures.addLast(pool.submit(new Callable<T>() {
+						@Override
+						public T call() throws IOException {
+							checkCancelled();
+							return visitor.visit(d, new File(objects, d));
+						}
+					}));
+				}
+				while (!futures.isEmpty())
+					result.add(getFanout(title, futures.removeFirst()));
+			} finally {
+				// Drops the directories not yet visited if one has failed.
+				for (Future<T> f : futures)
+					f.cancel(true);
+			}
+			return result;
+		} finally {
+			pm.endTask();
+		}
+	}
+
+	private <T> T getFanout(String title, Future<T> f) throws IOException {
+		try {
+			T r = f.get();
+			pm.update(1);
+			return r;
+		} catch (InterruptedException e) {
+			throw new InterruptedIOException(MessageFormat
+					.format(JGitText.get().operationCanceled, title));
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof Error)
+				throw (Error) cause;
+			if (cause instanceof RuntimeException)
+				throw (RuntimeException) cause;
+			if (cause instanceof IOException)
+				throw (IOException) cause;
+			throw new IOException(cause.getMessage(), cause);
+		}
+	}
+
+	private int getPruneThreads() {
+		int threads = repo.getConfig().getInt(
+				ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_PRUNE_THREADS, 1);
+		return threads > 0 ? threads
+				: Runtime.getRuntime().availableProcessors();
+	}
+
 	private long getExpireDate() throws ParseException {
 		long expireDate = Long.MAX_VALUE;
 
@@ -689,6 +794,9 @@ private static boolean equals(Ref r1, Ref r2) {
 
 	/**
 	 * Packs all non-symbolic, loose refs into packed-refs.
+	 * <p>
+	 * If packed refs are stored in a reftable stack the stack is also merged
+	 * into a single table.
 	 *
 	 * @throws IOException
 	 */
@@ -703,7 +811,9 @@ public void packRefs() throws IOException {
 					refsToBePacked.add(ref.getName());
 				pm.update(1);
 			}
-			((RefDirectory) repo.getRefDatabase()).pack(refsToBePacked);
+			RefDirectory refdb = (RefDirectory) repo.getRefDatabase();
+			refdb.pack(refsToBePacked);
+			refdb.compactReftable();
 		} finally {
 			pm.endTask();
 		}
@@ -724,8 +834,75 @@ public void packRefs() throws IOException {
 	 *             {@link IOException} occurs
 	 */
 	public Collection<PackFile> repack() throws IOException {
-		Collection<PackFile> toBeDeleted = repo.getObjectDatabase().getPacks();
+		return repack(repo.getObjectDatabase().getPacks(),
+				Collections.<PackFile> emptyList());
+	}
+
+	/**
+	 * Packs new objects and rolls small packs together, leaving large packs
+	 * untouched.
+	 * <p>
+	 * The packs are ordered by size and the smallest ones are rewritten, with
+	 * all reachable loose objects, into new pack files such that each
+	 * remaining pack is at least {@code factor} times larger than all smaller
+	 * packs together. The cost of a repack is thus proportional to the data
+	 * added since the previous one, while the number of packs only grows
+	 * logarithmically. Bitmaps of the untouched packs are kept; if not every
+	 * pack was rolled together the new pack of branch heads gets bitmaps
+	 * layered on those of an untouched pack. Packs which have a .keep file are
+	 * never repacked, packs younger than {@code gc.prunePackExpire} are left
+	 * untouched until they expire.
+	 *
+	 * @param factor
+	 *            growth factor of the progression, at least 2.
+	 * @return a collection of the newly created pack files
+	 * @throws IOException
+	 *             when during reading of refs, index, packfiles, objects,
+	 *             reflog-entries or during writing to the packfiles
+	 *             {@link IOException} occurs
+	 * @since 4.8
+	 */
+	public Collection<PackFile> repackGeometric(int factor)
+			throws IOException {
+		long packExpireDate;
+		try {
+			packExpireDate = getPackExpireDate();
+		} catch (ParseException e) {
+			throw new IOException(e);
+		}
+		// Packs younger than gc.prunePackExpire may hold objects of a push
+		// whose refs are not updated yet; leave them for a later roll.
+		List<PackFile> candidates = new ArrayList<>();
+		List<PackFile> young = new ArrayList<>();
+		for (PackFile p : repo.getObjectDatabase().getPacks()) {
+			if (p.shouldBeKept())
+				continue;
+			if (repo.getFS().lastModified(p.getPackFile()) < packExpireDate)
+				candidates.add(p);
+			else
+				young.add(p);
+		}
+		Collections.sort(candidates, new Comparator<PackFile>() {
+			@Override
+			public int compare(PackFile a, PackFile b) {
+				return Long.compare(a.getPackFile().length(),
+						b.getPackFile().length());
+			}
+		});
+		long[] sizes = new long[candidates.size()];
+		for (int i = 0; i < sizes.length; i++)
+			sizes[i] = candidates.get(i).getPackFile().length();
+
+		int n = GeometricProgression.rollUpCount(sizes,
+				getStatistics().sizeOfLooseObjects, factor);
+		List<PackFile> toBeKept = new ArrayList<>(
+				candidates.subList(n, candidates.size()));
+		toBeKept.addAll(young);
+		return repack(candidates.subList(0, n), toBeKept);
+	}
 
+	private Collection<PackFile> repack(Collection<PackFile> toBeDeleted,
+			Collection<PackFile> toBeKept) throws IOException {
 		long time = System.currentTimeMillis();
 		Collection<Ref> refsBefore = getAllRefs();
 
@@ -752,32 +929,53 @@ else if (RefTreeNames.isRefTree(refdb, ref.getName()))
 		}
 
 		List<ObjectIdSet> excluded = new LinkedList<>();
+		List<PackFile> remaining = new ArrayList<>();
 		for (final PackFile f : repo.getObjectDatabase().getPacks()) {
 			checkCancelled();
-			if (f.shouldBeKept())
+			if (f.shouldBeKept()) {
 				excluded.add(f.getIndex());
+				remaining.add(f);
+			}
 		}
+		for (PackFile f : toBeKept) {
+			excluded.add(f.getIndex());
+			remaining.add(f);
+		}
+
+		// Heads packed on top of remaining packs get bitmaps layered on the
+		// remaining packs' bitmaps.
+		PackBitmapIndex bitmapBase = null;
+		if (!remaining.isEmpty())
+			bitmapBase = PackFile.findBitmapIndex(remaining);
 
 		tagTargets.addAll(allHeads);
 		nonHeads.addAll(indexObjects);
 
+		// When packs are left in place, only the objects missing from them
+		// are written. Counting then starts from the bitmaps of the existing
+		// packs rather than walking the entire history again; a full repack
+		// walks all objects to rebuild the bitmaps from scratch.
+		boolean useBitmaps = !toBeKept.isEmpty();
+
 		List<PackFile> ret = new ArrayList<>(2);
 		PackFile heads = null;
 		if (!allHeads.isEmpty()) {
 			heads = writePack(allHeads, Collections.<ObjectId> emptySet(),
-					tagTargets, excluded);
+					tagTargets, excluded, bitmapBase, useBitmaps);
 			if (heads != null) {
 				ret.add(heads);
 				excluded.add(0, heads.getIndex());
 			}
 		}
 		if (!nonHeads.isEmpty()) {
-			PackFile rest = writePack(nonHeads, allHeads, tagTargets, excluded);
+			PackFile rest = writePack(nonHeads, allHeads, tagTargets, excluded,
+					null, useBitmaps);
 			if (rest != null)
 				ret.add(rest);
 		}
 		if (!txnHeads.isEmpty()) {
-			PackFile txn = writePack(txnHeads, PackWriter.NONE, null, excluded);
+			PackFile txn = writePack(txnHeads, PackWriter.NONE, null, excluded,
+					null, useBitmaps);
 			if (txn != null)
 				ret.add(txn);
 		}
@@ -797,6 +995,116 @@ else if (RefTreeNames.isRefTree(refdb, ref.getName()))
 		return ret;
 	}
 
+	/**
+	 * Writes the commit-graph file of the repository.
+	 * <p>
+	 * The commit-graph covers all commits reachable from {@code wants} and
+	 * replaces any existing commit-graph. It is used by
+	 * {@link org.eclipse.jgit.revwalk.RevWalk} when
+	 * {@code core.commitGraph} is enabled. No commit-graph is written for a
+	 * shallow repository, as the parents recorded by the graph would not
+	 * honor the shallow boundary.
+	 *
+	 * @param wants
+	 *            the tips of the history covered by the commit-graph.
+	 * @throws IOException
+	 *             a commit could not be read, or the commit-graph could not
+	 *             be written.
+	 * @since 4.8
+	 */
+	public void writeCommitGraph(@NonNull Set<? extends ObjectId> wants)
+			throws IOException {
+		checkCancelled();
+		ObjectDirectory odb = repo.getObjectDatabase();
+		if (!odb.getShallowCommits().isEmpty())
+			return;
+
+		File graphFile = odb.getCommitGraphFile();
+		LockFile lock = new LockFile(graphFile);
+		if (!lock.lock())
+			throw new LockFailedException(graphFile);
+		try {
+			try (OutputStream out = lock.getOutputStream();
+					ObjectReader reader = repo.newObjectReader()) {
+				new CommitGraphWriter(reader).write(pm, out, wants);
+			}
+			if (!lock.commit())
+				throw new ObjectWritingException(MessageFormat.format(
+						JGitText.get().unableToWrite, graphFile));
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Writes the multi-pack-index of the repository.
+	 * <p>
+	 * The multi-pack-index covers all current packs and replaces any existing
+	 * one. It is used to look up packed objects when
+	 * {@code core.multiPackIndex} is enabled.
+	 *
+	 * @throws IOException
+	 *             a pack index could not be read, or the multi-pack-index
+	 *             could not be written.
+	 * @since 4.8
+	 */
+	public void writeMultiPackIndex() throws IOException {
+		checkCancelled();
+		repo.getObjectDatabase().writeMultiPackIndex(pm);
+	}
+
+	/**
+	 * Prunes the blame cache of the repository.
+	 * <p>
+	 * Entries of commits that no longer exist are removed, then the least
+	 * recently used entries until the cache is not larger than
+	 * {@code gc.blameCacheSize}. Does nothing if the repository has no
+	 * {@code blame-cache} directory.
+	 *
+	 * @throws IOException
+	 *             the blame cache could not be pruned.
+	 * @see FileBlameCache#prune(ObjectReader)
+	 * @since 4.8
+	 */
+	public void pruneBlameCache() throws IOException {
+		checkCancelled();
+		File dir = new File(repo.getDirectory(), Constants.BLAME_CACHE);
+		if (!dir.isDirectory())
+			return;
+		FileBlameCache cache = new FileBlameCache(dir);
+		cache.setMaxSize(repo.getConfig().getLong(
+				ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_BLAME_CACHE_SIZE,
+				FileBlameCache.DEFAULT_MAX_SIZE));
+		try (ObjectReader reader = repo.newObjectReader()) {
+			cache.prune(reader);
+		}
+	}
+
+	private int getGeometricFactor() {
+		return repo.getConfig().getInt(ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_GEOMETRIC_FACTOR, 0);
+	}
+
+	private boolean shouldWriteMultiPackIndex() {
+		return repo.getConfig().getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, false);
+	}
+
+	private boolean shouldWriteCommitGraph() {
+		return repo.getConfig().getBoolean(ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_WRITE_COMMIT_GRAPH, false);
+	}
+
+	private static Set<ObjectId> refTips(Collection<Ref> refs) {
+		Set<ObjectId> tips = new HashSet<>();
+		for (Ref ref : refs) {
+			if (!ref.isSymbolic() && ref.getObjectId() != null)
+				tips.add(ref.getObjectId());
+		}
+		return tips;
+	}
+
 	private static boolean isHead(Ref ref) {
 		return ref.getName().startsWith(Constants.R_HEADS);
 	}
@@ -808,8 +1116,8 @@ private static boolean isTag(Ref ref) {
 	/**
 	 * Deletes orphans
 	 * <p>
-	 * A file is considered an orphan if it is either a "bitmap" or an index
-	 * file, and its corresponding pack file is missing in the list.
+	 * A file is considered an orphan if it is either a "bitmap", "lbitmap" or
+	 * an index file, and its corresponding pack file is missing in the list.
 	 * </p>
 	 */
 	private void deleteOrphans() {
@@ -821,6 +1129,7 @@ private void deleteOrphans() {
 					.filter(name -> {
 						return (name.endsWith(PACK_EXT)
 								|| name.endsWith(BITMAP_EXT)
+								|| name.endsWith(LAYERED_BITMAP_EXT)
 								|| name.endsWith(INDEX_EXT));
 					}).sorted(Collections.reverseOrder())
 					.collect(Collectors.toList());
@@ -962,7 +1271,8 @@ private Set<ObjectId> listNonHEADIndexObjects()
 
 	private PackFile writePack(@NonNull Set<? extends ObjectId> want,
 			@NonNull Set<? extends ObjectId> have, Set<ObjectId> tagTargets,
-			List<ObjectIdSet> excludeObjects) throws IOException {
+			List<ObjectIdSet> excludeObjects, PackBitmapIndex bitmapBase,
+			boolean useBitmaps) throws IOException {
 		checkCancelled();
 		File tmpPack = null;
 		Map<PackExt, File> tmpExts = new TreeMap<>(
@@ -988,6 +1298,7 @@ public int compare(PackExt o1, PackExt o2) {
 			// prepare the PackWriter
 			pw.setDeltaBaseAsOffset(true);
 			pw.setReuseDeltaCommits(false);
+			pw.setUseBitmaps(useBitmaps);
 			if (tagTargets != null)
 				pw.setTagTargets(tagTargets);
 			if (excludeObjects != null)
@@ -1035,9 +1346,16 @@ public int compare(PackExt o1, PackExt o2) {
 				fos.close();
 			}
 
-			if (pw.prepareBitmapIndex(pm)) {
-				File tmpBitmapIdx = new File(packdir, tmpBase + ".bitmap_tmp"); //$NON-NLS-1$
-				tmpExts.put(BITMAP_INDEX, tmpBitmapIdx);
+			PackExt bitmapExt = null;
+			if (pw.prepareBitmapIndex(pm))
+				bitmapExt = BITMAP_INDEX;
+			else if (bitmapBase != null
+					&& pw.prepareBitmapIndex(pm, bitmapBase, want))
+				bitmapExt = LAYERED_BITMAP_INDEX;
+			if (bitmapExt != null) {
+				File tmpBitmapIdx = new File(packdir,
+						tmpBase + "." + bitmapExt.getExtension() + "_tmp"); //$NON-NLS-1$ //$NON-NLS-2$
+				tmpExts.put(bitmapExt, tmpBitmapIdx);
 
 				if (!tmpBitmapIdx.createNewFile())
 					throw new IOException(MessageFormat.format(
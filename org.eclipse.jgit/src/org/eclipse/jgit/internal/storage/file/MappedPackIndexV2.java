@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AbbreviatedObjectId;
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Support for the pack index v2 format, reading directly from a mapped buffer.
+ * <p>
+ * Unlike {@link PackIndexV2} the tables are not copied onto the heap. Lookups
+ * binary search the object name table in place, so opening an index costs
+ * only the mapping and a scan of the fan-out table.
+ */
+class MappedPackIndexV2 extends PackIndex {
+	private static final long IS_O64 = 1L << 31;
+
+	private static final int FANOUT = 256;
+
+	private static final int FANOUT_BASE = 8;
+
+	private static final int NAME_BASE = FANOUT_BASE + 4 * FANOUT;
+
+	private final ByteBuffer buf;
+
+	private final int objectCnt;
+
+	private final int crcBase;
+
+	private final int offset32Base;
+
+	private final int offset64Base;
+
+	private final int offset64Cnt;
+
+	MappedPackIndexV2(ByteBuffer buf) throws IOException {
+		this.buf = buf;
+
+		long last = 0;
+		for (int k = 0; k < FANOUT; k++) {
+			long n = buf.getInt(FANOUT_BASE + 4 * k) & 0xffffffffL;
+			if (n < last)
+				throw new IOException(MessageFormat.format(
+						JGitText.get().indexFileCorruptedNegativeBucketCount,
+						Long.valueOf(n - last)));
+			last = n;
+		}
+
+		// Names, CRC-32 and 32 bit offsets are fixed width tables, leaving
+		// the 64 bit offsets and the two trailing checksums.
+		//
+		long o64 = NAME_BASE + last * (Constants.OBJECT_ID_LENGTH + 8);
+		long o64Len = buf.limit() - 2 * Constants.OBJECT_ID_LENGTH - o64;
+		if (o64Len < 0 || o64Len % 8 != 0)
+			throw new IOException(JGitText.get().unexpectedEndOfInput);
+
+		objectCnt = (int) last;
+		crcBase = NAME_BASE + objectCnt * Constants.OBJECT_ID_LENGTH;
+		offset32Base = crcBase + objectCnt * 4;
+		offset64Base = (int) o64;
+		offset64Cnt = (int) (o64Len / 8);
+
+		packChecksum = new byte[Constants.OBJECT_ID_LENGTH];
+		ByteBuffer b = buf.duplicate();
+		b.position(offset64Base + offset64Cnt * 8);
+		b.get(packChecksum);
+	}
+
+	@Override
+	public long getObjectCount() {
+		return objectCnt;
+	}
+
+	@Override
+	public long getOffset64Count() {
+		return offset64Cnt;
+	}
+
+	@Override
+	public ObjectId getObjectId(long nthPosition) {
+		int[] raw = new int[Constants.OBJECT_ID_LENGTH / 4];
+		readName((int) nthPosition, raw);
+		return ObjectId.fromRaw(raw);
+	}
+
+	@Override
+	public long getOffset(long nthPosition) {
+		return offsetAt((int) nthPosition);
+	}
+
+	@Override
+	public long findOffset(AnyObjectId objId) {
+		int p = findNth(objId);
+		if (p == -1)
+			return -1;
+		return offsetAt(p);
+	}
+
+	@Override
+	public long findCRC32(AnyObjectId objId) throws MissingObjectException {
+		int p = findNth(objId);
+		if (p == -1)
+			throw new MissingObjectException(objId.copy(), "unknown"); //$NON-NLS-1$
+		return buf.getInt(crcBase + 4 * p) & 0xffffffffL;
+	}
+
+	@Override
+	public boolean hasCRC32Support() {
+		return true;
+	}
+
+	@Override
+	public Iterator<MutableEntry> iterator() {
+		return new EntriesIteratorMapped();
+	}
+
+	@Override
+	public void resolve(Set<ObjectId> matches, AbbreviatedObjectId id,
+			int matchLimit) throws IOException {
+		int first = id.getFirstByte();
+		int low = bucketStart(first);
+		int max = bucketEnd(first);
+		int high = max;
+		if (low == high)
+			return;
+		int min = low;
+		int[] raw = new int[Constants.OBJECT_ID_LENGTH / 4];
+		do {
+			int p = (low + high) >>> 1;
+			readName(p, raw);
+			final int cmp = id.prefixCompare(raw, 0);
+			if (cmp < 0)
+				high = p;
+			else if (cmp == 0) {
+				// We may have landed in the middle of the matches.  Move
+				// backwards to the start of matches, then walk forwards.
+				//
+				while (min < p && prefixCompare(id, p - 1, raw) == 0)
+					p--;
+				for (; p < max && prefixCompare(id, p, raw) == 0; p++) {
+					matches.add(ObjectId.fromRaw(raw));
+					if (matches.size() > matchLimit)
+						break;
+				}
+				return;
+			} else
+				low = p + 1;
+		} while (low < high);
+	}
+
+	private int prefixCompare(AbbreviatedObjectId id, int p, int[] raw) {
+		readName(p, raw);
+		return id.prefixCompare(raw, 0);
+	}
+
+	private int bucketStart(int first) {
+		return first == 0 ? 0 : buf.getInt(FANOUT_BASE + 4 * (first - 1));
+	}
+
+	private int bucketEnd(int first) {
+		return buf.getInt(FANOUT_BASE + 4 * first);
+	}
+
+	private int findNth(AnyObjectId objId) {
+		int first = objId.getFirstByte();
+		int low = bucketStart(first);
+		int high = bucketEnd(first);
+		if (low == high)
+			return -1;
+		int[] key = new int[Constants.OBJECT_ID_LENGTH / 4];
+		objId.copyRawTo(key, 0);
+		do {
+			final int mid = (low + high) >>> 1;
+			final int cmp = compareName(key, mid);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		} while (low < high);
+		return -1;
+	}
+
+	private int compareName(int[] key, int nth) {
+		int pos = NAME_BASE + nth * Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < key.length; i++, pos += 4) {
+			int cmp = NB.compareUInt32(key[i], buf.getInt(pos));
+			if (cmp != 0)
+				return cmp;
+		}
+		return 0;
+	}
+
+	private void readName(int nth, int[] raw) {
+		int pos = NAME_BASE + nth * Constants.OBJECT_ID_LENGTH;
+		for (int i = 0; i < raw.length; i++, pos += 4)
+			raw[i] = buf.getInt(pos);
+	}
+
+	private long offsetAt(int nth) {
+		final long p = buf.getInt(offset32Base + 4 * nth) & 0xffffffffL;
+		if ((p & IS_O64) != 0)
+			return buf.getLong(offset64Base + 8 * (int) (p & ~IS_O64));
+		return p;
+	}
+
+	private class EntriesIteratorMapped extends EntriesIterator {
+		private final int[] raw = new int[Constants.OBJECT_ID_LENGTH / 4];
+
+		private int nth;
+
+		@Override
+		protected MutableEntry initEntry() {
+			return new MutableEntry() {
+				@Override
+				protected void ensureId() {
+					readName(nth - 1, raw);
+					idBuffer.fromRaw(raw, 0);
+				}
+			};
+		}
+
+		@Override
+		public MutableEntry next() {
+			if (nth >= objectCnt)
+				throw new NoSuchElementException();
+			entry.offset = offsetAt(nth++);
+			returnedNumber++;
+			return entry;
+		}
+	}
+}
@@ -52,6 +52,7 @@
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.AtomicMoveNotSupportedException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
@@ -69,9 +70,16 @@
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.eclipse.jgit.errors.CorruptObjectException;
+import org.eclipse.jgit.errors.LockFailedException;
+import org.eclipse.jgit.errors.ObjectWritingException;
 import org.eclipse.jgit.errors.PackInvalidException;
 import org.eclipse.jgit.errors.PackMismatchException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraphLoader;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndex;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndexLoader;
+import org.eclipse.jgit.internal.storage.midx.MultiPackIndexWriter;
 import org.eclipse.jgit.internal.storage.pack.ObjectToPack;
 import org.eclipse.jgit.internal.storage.pack.PackExt;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
@@ -82,7 +90,9 @@
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectDatabase;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdSet;
 import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.RepositoryCache;
 import org.eclipse.jgit.lib.RepositoryCache.FileKey;
 import org.eclipse.jgit.util.FS;
@@ -118,6 +128,15 @@ public class ObjectDirectory extends FileObjectDatabase {
 	/** Maximum number of candidates offered as resolutions of abbreviation. */
 	private static final int RESOLVE_ABBREV_LIMIT = 256;
 
+	private static final Config.SectionParser<Boolean> MULTI_PACK_INDEX = new Config.SectionParser<Boolean>() {
+		@Override
+		public Boolean parse(Config cfg) {
+			return Boolean.valueOf(cfg.getBoolean(
+					ConfigConstants.CONFIG_CORE_SECTION,
+					ConfigConstants.CONFIG_KEY_MULTI_PACK_INDEX, false));
+		}
+	};
+
 	private final AlternateHandle handle = new AlternateHandle(this);
 
 	private final Config config;
@@ -146,6 +165,20 @@ public class ObjectDirectory extends FileObjectDatabase {
 
 	private Set<ObjectId> shallowCommitsIds;
 
+	private final File commitGraphFile;
+
+	private volatile LoadedCommitGraph commitGraph = LoadedCommitGraph.NONE;
+
+	private final File multiPackIndexFile;
+
+	private volatile LoadedMultiPackIndex multiPackIndex = LoadedMultiPackIndex.NONE;
+
+	private final File incrementalMultiPackIndexFile;
+
+	private volatile LoadedMultiPackIndex incrementalMultiPackIndex = LoadedMultiPackIndex.NONE;
+
+	private volatile MultiPackIndexView multiPackIndexView;
+
 	/**
 	 * Initialize a reference to an on-disk object directory.
 	 *
@@ -172,6 +205,10 @@ public ObjectDirectory(final Config cfg, final File dir,
 		packDirectory = new File(objects, "pack"); //$NON-NLS-1$
 		preservedDirectory = new File(packDirectory, "preserved"); //$NON-NLS-1$
 		alternatesFile = new File(infoDirectory, "alternates"); //$NON-NLS-1$
+		commitGraphFile = new File(infoDirectory, "commit-graph"); //$NON-NLS-1$
+		multiPackIndexFile = new File(packDirectory, "multi-pack-index"); //$NON-NLS-1$
+		incrementalMultiPackIndexFile = new File(packDirectory,
+				"multi-pack-index-incremental"); //$NON-NLS-1$
 		packList = new AtomicReference<>(NO_PACKS);
 		unpackedObjectCache = new UnpackedObjectCache();
 		this.fs = fs;
@@ -337,21 +374,57 @@ boolean hasPackedObject(AnyObjectId objectId) {
 		PackList pList;
 		do {
 			pList = packList.get();
-			for (PackFile p : pList.packs) {
-				try {
-					if (p.hasObject(objectId))
-						return true;
-				} catch (IOException e) {
-					// The hasObject call should have only touched the index,
-					// so any failure here indicates the index is unreadable
-					// by this process, and the pack is likewise not readable.
-					removePack(p);
-				}
-			}
+			if (hasPackedObject(pList, objectId))
+				return true;
 		} while (searchPacksAgain(pList));
 		return false;
 	}
 
+	/**
+	 * Get the objects of the current packs as one set.
+	 * <p>
+	 * Lookups go through the multi-pack-index when it is enabled. Packs added
+	 * after this call are not searched. The set may be used concurrently by
+	 * several threads.
+	 *
+	 * @return set of the objects in the packs of this directory.
+	 */
+	ObjectIdSet getPackedObjects() {
+		PackList list = packList.get();
+		if (list == NO_PACKS)
+			list = scanPacks(list);
+		final PackList pList = list;
+		return new ObjectIdSet() {
+			@Override
+			public boolean contains(AnyObjectId objectId) {
+				return hasPackedObject(pList, objectId);
+			}
+		};
+	}
+
+	private boolean hasPackedObject(PackList pList, AnyObjectId objectId) {
+		PackFile[] packs = pList.packs;
+		MultiPackIndexView midx = getMultiPackIndexView(pList);
+		if (midx != null) {
+			int pos = midx.index.findPosition(objectId);
+			if (midx.getPack(pos) != null)
+				return true;
+			packs = midx.remaining(pos);
+		}
+		for (PackFile p : packs) {
+			try {
+				if (p.hasObject(objectId))
+					return true;
+			} catch (IOException e) {
+				// The hasObject call should have only touched the index,
+				// so any failure here indicates the index is unreadable
+				// by this process, and the pack is likewise not readable.
+				removePack(p);
+			}
+		}
+		return false;
+	}
+
 	@Override
 	void resolve(Set<ObjectId> matches, AbbreviatedObjectId id)
 			throws IOException {
@@ -466,7 +539,29 @@ ObjectLoader openPackedObject(WindowCursor curs, AnyObjectId objectId) {
 		do {
 			SEARCH: for (;;) {
 				pList = packList.get();
-				for (PackFile p : pList.packs) {
+				PackFile[] packs = pList.packs;
+				MultiPackIndexView midx = getMultiPackIndexView(pList);
+				if (midx != null) {
+					int pos = midx.index.findPosition(objectId);
+					PackFile p = midx.getPack(pos);
+					if (p != null) {
+						try {
+							ObjectLoader ldr = p.get(curs,
+									midx.index.getOffset(pos));
+							p.resetTransientErrorCount();
+							if (ldr != null)
+								return ldr;
+						} catch (PackMismatchException e) {
+							// Pack was modified; refresh the entire pack list.
+							if (searchPacksAgain(pList))
+								continue SEARCH;
+						} catch (IOException e) {
+							handlePackError(e, p);
+						}
+					}
+					packs = midx.remaining(pos);
+				}
+				for (PackFile p : packs) {
 					try {
 						ObjectLoader ldr = p.get(curs, objectId);
 						p.resetTransientErrorCount();
@@ -559,7 +654,29 @@ private long getPackedObjectSize(WindowCursor curs, AnyObjectId id) {
 		do {
 			SEARCH: for (;;) {
 				pList = packList.get();
-				for (PackFile p : pList.packs) {
+				PackFile[] packs = pList.packs;
+				MultiPackIndexView midx = getMultiPackIndexView(pList);
+				if (midx != null) {
+					int pos = midx.index.findPosition(id);
+					PackFile p = midx.getPack(pos);
+					if (p != null) {
+						try {
+							long len = p.getObjectSize(curs,
+									midx.index.getOffset(pos));
+							p.resetTransientErrorCount();
+							if (0 <= len)
+								return len;
+						} catch (PackMismatchException e) {
+							// Pack was modified; refresh the entire pack list.
+							if (searchPacksAgain(pList))
+								continue SEARCH;
+						} catch (IOException e) {
+							handlePackError(e, p);
+						}
+					}
+					packs = midx.remaining(pos);
+				}
+				for (PackFile p : packs) {
 					try {
 						long len = p.getObjectSize(curs, id);
 						p.resetTransientErrorCount();
@@ -604,7 +721,32 @@ private void selectObjectRepresentation(PackWriter packer, ObjectToPack otp,
 			WindowCursor curs, Set<AlternateHandle.Id> skips) throws IOException {
 		PackList pList = packList.get();
 		SEARCH: for (;;) {
-			for (final PackFile p : pList.packs) {
+			PackFile[] packs = pList.packs;
+			MultiPackIndexView midx = getMultiPackIndexView(pList);
+			if (midx != null) {
+				// Offer the pack chosen by the multi-pack-index, and any
+				// pack it does not cover yet.
+				int pos = midx.index.findPosition(otp);
+				PackFile p = midx.getPack(pos);
+				packs = midx.remaining(pos);
+				if (p != null) {
+					try {
+						LocalObjectRepresentation rep = p.representation(curs,
+								midx.index.getOffset(pos));
+						p.resetTransientErrorCount();
+						packer.select(otp, rep);
+						packs = midx.uncovered;
+					} catch (PackMismatchException e) {
+						// Pack was modified; refresh the entire pack list.
+						//
+						pList = scanPacks(pList);
+						continue SEARCH;
+					} catch (IOException e) {
+						handlePackError(e, p);
+					}
+				}
+			}
+			for (final PackFile p : packs) {
 				try {
 					LocalObjectRepresentation rep = p.representation(curs, otp);
 					p.resetTransientErrorCount();
@@ -802,6 +944,279 @@ Set<ObjectId> getShallowCommits() throws IOException {
 		return shallowCommitsIds;
 	}
 
+	/**
+	 * @return the location of the commit-graph file, which may not exist.
+	 */
+	public final File getCommitGraphFile() {
+		return commitGraphFile;
+	}
+
+	@Override
+	CommitGraph getCommitGraph() throws IOException {
+		if (!config.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_COMMIT_GRAPH, false))
+			return null;
+
+		// Parents recorded by the graph do not honor shallow boundaries.
+		if (!getShallowCommits().isEmpty())
+			return null;
+
+		LoadedCommitGraph o = commitGraph;
+		if (!o.snapshot.isModified(commitGraphFile))
+			return o.graph;
+
+		FileSnapshot snapshot = FileSnapshot.save(commitGraphFile);
+		CommitGraph graph;
+		try {
+			graph = CommitGraphLoader.open(commitGraphFile);
+		} catch (FileNotFoundException notFound) {
+			graph = null;
+		}
+		commitGraph = new LoadedCommitGraph(snapshot, graph);
+		return graph;
+	}
+
+	/**
+	 * @return the location of the multi-pack-index file, which may not exist.
+	 */
+	public final File getMultiPackIndexFile() {
+		return multiPackIndexFile;
+	}
+
+	/**
+	 * Write a multi-pack-index covering all packs of this directory.
+	 * <p>
+	 * The multi-pack-index replaces any existing one. It is used to look up
+	 * packed objects when {@code core.multiPackIndex} is enabled.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of objects written.
+	 * @throws IOException
+	 *             a pack index could not be read, or the multi-pack-index
+	 *             could not be written.
+	 * @since 4.8
+	 */
+	public void writeMultiPackIndex(ProgressMonitor pm) throws IOException {
+		writeMultiPackIndex(pm, false);
+	}
+
+	/**
+	 * Extend the multi-pack-index to the packs it does not cover yet.
+	 * <p>
+	 * Entries of the covered packs are copied from the current index rather
+	 * than read again from their pack indexes, but the whole index is still
+	 * rewritten, folding in the incremental index written for received
+	 * packs. Servers should call this in the background, e.g. through
+	 * {@link org.eclipse.jgit.lib.RepositoryMaintenance}, not after every
+	 * received pack. Does nothing unless {@code core.multiPackIndex} is
+	 * enabled.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of objects written.
+	 * @throws IOException
+	 *             a pack index could not be read, or the multi-pack-index
+	 *             could not be written.
+	 * @since 4.8
+	 */
+	public void updateMultiPackIndex(ProgressMonitor pm) throws IOException {
+		if (config.get(MULTI_PACK_INDEX).booleanValue())
+			writeMultiPackIndex(pm, true);
+	}
+
+	/**
+	 * Count the packs not covered by the multi-pack-index.
+	 * <p>
+	 * Lookups of objects not in the multi-pack-index search these packs one
+	 * by one.
+	 *
+	 * @return number of packs not covered by the multi-pack-index; 0 if
+	 *         {@code core.multiPackIndex} is not enabled.
+	 * @since 4.8
+	 */
+	public int getPacksNotInMultiPackIndex() {
+		if (!config.get(MULTI_PACK_INDEX).booleanValue())
+			return 0;
+		PackList pList = scanPacks(packList.get());
+		MultiPackIndexView midx = getMultiPackIndexView(pList);
+		return midx != null ? midx.uncovered.length : pList.packs.length;
+	}
+
+	@Override
+	void appendMultiPackIndex(ProgressMonitor pm) throws IOException {
+		if (!config.get(MULTI_PACK_INDEX).booleanValue())
+			return;
+
+		PackList pList = scanPacks(packList.get());
+		Set<String> live = new HashSet<>();
+		for (PackFile p : pList.packs)
+			live.add(indexName(p));
+		MultiPackIndex base = openMultiPackIndex(multiPackIndexFile);
+		if (base == null || !coversLivePacks(base, live)) {
+			writeMultiPackIndex(pm, true);
+			return;
+		}
+
+		// Received packs go into a small index on top of the base one, so
+		// only the objects received since the base was written are copied.
+		// Once that index grows past half the base, both are merged.
+		LockFile lock = new LockFile(incrementalMultiPackIndexFile);
+		if (!lock.lock())
+			throw new LockFailedException(incrementalMultiPackIndexFile);
+		boolean fold;
+		try {
+			MultiPackIndex top = openMultiPackIndex(
+					incrementalMultiPackIndexFile);
+			if (top != null && !coversLivePacks(top, live))
+				top = null;
+			Set<String> covered = new HashSet<>(
+					Arrays.asList(base.getPackNames()));
+			if (top != null)
+				covered.addAll(Arrays.asList(top.getPackNames()));
+
+			MultiPackIndexWriter writer = new MultiPackIndexWriter();
+			long cnt = top != null ? top.getObjectCount() : 0;
+			for (PackFile p : pList.packs) {
+				String name = indexName(p);
+				if (!covered.contains(name)) {
+					PackIndex idx = p.getIndex();
+					writer.addPack(name, idx);
+					cnt += idx.getObjectCount();
+				}
+			}
+			if (top != null)
+				writer.addMultiPackIndex(top);
+			fold = cnt > base.getObjectCount() / 2;
+			if (!fold) {
+				try (OutputStream out = lock.getOutputStream()) {
+					writer.write(pm, out);
+				}
+				if (!lock.commit())
+					throw new ObjectWritingException(MessageFormat.format(
+							JGitText.get().unableToWrite,
+							incrementalMultiPackIndexFile));
+			}
+		} finally {
+			lock.unlock();
+		}
+		if (fold)
+			writeMultiPackIndex(pm, true);
+		else
+			multiPackIndexView = null;
+	}
+
+	private static boolean coversLivePacks(MultiPackIndex midx,
+			Set<String> live) {
+		return live.containsAll(Arrays.asList(midx.getPackNames()));
+	}
+
+	private void writeMultiPackIndex(ProgressMonitor pm, boolean incremental)
+			throws IOException {
+		LockFile lock = new LockFile(multiPackIndexFile);
+		if (!lock.lock())
+			throw new LockFailedException(multiPackIndexFile);
+		try {
+			PackList pList = scanPacks(packList.get());
+			Set<String> live = new HashSet<>();
+			for (PackFile p : pList.packs)
+				live.add(indexName(p));
+
+			// Packs covered by the current multi-pack-index are merged from
+			// it, without reading their indexes, unless one of them has been
+			// removed since.
+			MultiPackIndex base = null;
+			MultiPackIndex top = null;
+			Set<String> covered = new HashSet<>();
+			if (incremental) {
+				base = openMultiPackIndex(multiPackIndexFile);
+				if (base != null && coversLivePacks(base, live))
+					covered.addAll(Arrays.asList(base.getPackNames()));
+				else
+					base = null;
+				top = openMultiPackIndex(incrementalMultiPackIndexFile);
+				if (top != null && coversLivePacks(top, live))
+					covered.addAll(Arrays.asList(top.getPackNames()));
+				else
+					top = null;
+			}
+
+			MultiPackIndexWriter writer = new MultiPackIndexWriter();
+			for (PackFile p : pList.packs) {
+				String name = indexName(p);
+				if (!covered.contains(name))
+					writer.addPack(name, p.getIndex());
+			}
+			if (top != null)
+				writer.addMultiPackIndex(top);
+			if (base != null)
+				writer.addMultiPackIndex(base);
+			try (OutputStream out = lock.getOutputStream()) {
+				writer.write(pm, out);
+			}
+			if (!lock.commit())
+				throw new ObjectWritingException(MessageFormat.format(
+						JGitText.get().unableToWrite, multiPackIndexFile));
+
+			// The new index covers every pack of the incremental one. Should
+			// a concurrent append still write it, readers only see the same
+			// packs twice.
+			FileUtils.delete(incrementalMultiPackIndexFile,
+					FileUtils.SKIP_MISSING);
+		} finally {
+			lock.unlock();
+		}
+		multiPackIndex = LoadedMultiPackIndex.NONE;
+		multiPackIndexView = null;
+	}
+
+	private static MultiPackIndex openMultiPackIndex(File file) {
+		try {
+			return MultiPackIndexLoader.open(file);
+		} catch (FileNotFoundException notFound) {
+			return null;
+		} catch (IOException e) {
+			LOG.warn(e.getMessage(), e);
+			return null;
+		}
+	}
+
+	private MultiPackIndexView getMultiPackIndexView(PackList pList) {
+		if (!config.get(MULTI_PACK_INDEX).booleanValue())
+			return null;
+
+		MultiPackIndexView v = multiPackIndexView;
+		if (v == null || v.packList != pList) {
+			LoadedMultiPackIndex o = reload(multiPackIndex,
+					multiPackIndexFile);
+			multiPackIndex = o;
+			LoadedMultiPackIndex inc = reload(incrementalMultiPackIndex,
+					incrementalMultiPackIndexFile);
+			incrementalMultiPackIndex = inc;
+
+			MultiPackIndex index = o.index;
+			if (index == null)
+				index = inc.index;
+			else if (inc.index != null)
+				index = new LayeredMultiPackIndex(index, inc.index);
+			v = new MultiPackIndexView(pList, index);
+			multiPackIndexView = v;
+		}
+		return v.index != null ? v : null;
+	}
+
+	private static LoadedMultiPackIndex reload(LoadedMultiPackIndex o,
+			File file) {
+		if (!o.snapshot.isModified(file))
+			return o;
+		FileSnapshot snapshot = FileSnapshot.save(file);
+		return new LoadedMultiPackIndex(snapshot, openMultiPackIndex(file));
+	}
+
+	private static String indexName(PackFile p) {
+		String name = p.getPackFile().getName();
+		return name.substring(0, name.length() - PACK.getExtension().length())
+				+ INDEX.getExtension();
+	}
+
 	private void insertPack(final PackFile pf) {
 		PackList o, n;
 		do {
@@ -1049,6 +1464,161 @@ public File fileFor(AnyObjectId objectId) {
 		return new File(new File(getDirectory(), d), f);
 	}
 
+	private static final class LoadedCommitGraph {
+		static final LoadedCommitGraph NONE = new LoadedCommitGraph(
+				FileSnapshot.DIRTY, null);
+
+		final FileSnapshot snapshot;
+
+		final CommitGraph graph;
+
+		LoadedCommitGraph(FileSnapshot snapshot, CommitGraph graph) {
+			this.snapshot = snapshot;
+			this.graph = graph;
+		}
+	}
+
+	private static final class LoadedMultiPackIndex {
+		static final LoadedMultiPackIndex NONE = new LoadedMultiPackIndex(
+				FileSnapshot.DIRTY, null);
+
+		final FileSnapshot snapshot;
+
+		final MultiPackIndex index;
+
+		LoadedMultiPackIndex(FileSnapshot snapshot, MultiPackIndex index) {
+			this.snapshot = snapshot;
+			this.index = index;
+		}
+	}
+
+	/**
+	 * The base multi-pack-index with the incremental one on top.
+	 * <p>
+	 * Positions of the incremental index follow those of the base, so they
+	 * are not in ObjectId order. It must not be merged by
+	 * {@link MultiPackIndexWriter}.
+	 */
+	private static final class LayeredMultiPackIndex implements MultiPackIndex {
+		private final MultiPackIndex base;
+
+		private final MultiPackIndex top;
+
+		private final String[] packNames;
+
+		LayeredMultiPackIndex(MultiPackIndex base, MultiPackIndex top) {
+			this.base = base;
+			this.top = top;
+			String[] b = base.getPackNames();
+			String[] t = top.getPackNames();
+			packNames = Arrays.copyOf(b, b.length + t.length);
+			System.arraycopy(t, 0, packNames, b.length, t.length);
+		}
+
+		@Override
+		public String[] getPackNames() {
+			return packNames;
+		}
+
+		@Override
+		public int findPosition(AnyObjectId id) {
+			int pos = base.findPosition(id);
+			if (pos >= 0)
+				return pos;
+			pos = top.findPosition(id);
+			return pos >= 0 ? base.getObjectCount() + pos : -1;
+		}
+
+		@Override
+		public ObjectId getObjectId(int position) {
+			int n = base.getObjectCount();
+			return position < n ? base.getObjectId(position)
+					: top.getObjectId(position - n);
+		}
+
+		@Override
+		public int getPackId(int position) {
+			int n = base.getObjectCount();
+			return position < n ? base.getPackId(position)
+					: base.getPackNames().length
+							+ top.getPackId(position - n);
+		}
+
+		@Override
+		public long getOffset(int position) {
+			int n = base.getObjectCount();
+			return position < n ? base.getOffset(position)
+					: top.getOffset(position - n);
+		}
+
+		@Override
+		public int getObjectCount() {
+			return base.getObjectCount() + top.getObjectCount();
+		}
+	}
+
+	/** A multi-pack-index resolved against one {@link PackList}. */
+	private static final class MultiPackIndexView {
+		final PackList packList;
+
+		/** The multi-pack-index, null if there is none. */
+		final MultiPackIndex index;
+
+		/** Packs of the list, by pack id of the index; null if missing. */
+		final PackFile[] packs;
+
+		/** Packs of the list not covered by the index. */
+		final PackFile[] uncovered;
+
+		MultiPackIndexView(PackList packList, MultiPackIndex index) {
+			this.packList = packList;
+			this.index = index;
+			if (index == null) {
+				packs = null;
+				uncovered = null;
+				return;
+			}
+
+			// A pack may be named twice while an incremental index is being
+			// folded into the base one.
+			Map<String, PackFile> byName = new HashMap<>();
+			for (PackFile p : packList.packs)
+				byName.put(indexName(p), p);
+			String[] names = index.getPackNames();
+			packs = new PackFile[names.length];
+			for (int i = 0; i < names.length; i++)
+				packs[i] = byName.get(names[i]);
+			byName.keySet().removeAll(Arrays.asList(names));
+			List<PackFile> rest = new ArrayList<>();
+			for (PackFile p : packList.packs) {
+				if (byName.containsKey(indexName(p)))
+					rest.add(p);
+			}
+			uncovered = rest.toArray(new PackFile[rest.size()]);
+		}
+
+		/**
+		 * @param pos
+		 *            position of an object, or -1.
+		 * @return the pack holding the object, or null if it is not covered
+		 *         by the index or its pack is gone.
+		 */
+		PackFile getPack(int pos) {
+			return pos < 0 ? null : packs[index.getPackId(pos)];
+		}
+
+		/**
+		 * @param pos
+		 *            position of an object, or -1.
+		 * @return packs that must still be searched when the object was not
+		 *         found through the index: only the uncovered packs if the
+		 *         index does not know the object, otherwise all packs.
+		 */
+		PackFile[] remaining(int pos) {
+			return pos < 0 ? uncovered : packList.packs;
+		}
+	}
+
 	private static final class PackList {
 		/** State just before reading the pack directory. */
 		final FileSnapshot snapshot;
@@ -105,7 +105,18 @@ public ObjectId insert(int type, byte[] data, int off, int len)
 	private ObjectId insert(
 			int type, byte[] data, int off, int len, boolean createDuplicate)
 			throws IOException {
-		ObjectId id = idFor(type, data, off, len);
+		return insert(idFor(type, data, off, len), type, data, off, len,
+				createDuplicate);
+	}
+
+	@Override
+	protected ObjectId insert(ObjectId id, int type, byte[] data, int off,
+			int len) throws IOException {
+		return insert(id, type, data, off, len, false);
+	}
+
+	private ObjectId insert(ObjectId id, int type, byte[] data, int off,
+			int len, boolean createDuplicate) throws IOException {
 		if (!createDuplicate && db.has(id)) {
 			return id;
 		} else {
@@ -63,6 +63,7 @@
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.CoreConfig;
+import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectInserter;
 import org.eclipse.jgit.lib.ProgressMonitor;
@@ -70,6 +71,8 @@
 import org.eclipse.jgit.transport.PackedObjectInfo;
 import org.eclipse.jgit.util.FileUtils;
 import org.eclipse.jgit.util.NB;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * Consumes a pack stream and stores as a pack file in {@link ObjectDirectory}.
@@ -78,6 +81,9 @@
  * {@link ObjectInserter#newPackParser(InputStream)}.
  */
 public class ObjectDirectoryPackParser extends PackParser {
+	private final static Logger LOG = LoggerFactory
+			.getLogger(ObjectDirectoryPackParser.class);
+
 	private final FileObjectDatabase db;
 
 	/** CRC-32 computation for objects that are appended onto the pack. */
@@ -306,6 +312,24 @@ protected int readDatabase(byte[] dst, int pos, int cnt) throws IOException {
 		return out.read(dst, pos, cnt);
 	}
 
+	@Override
+	protected DatabaseReader newDatabaseReader() throws IOException {
+		final RandomAccessFile in = new RandomAccessFile(tmpPack, "r"); //$NON-NLS-1$
+		return new DatabaseReader() {
+			@Override
+			public int read(long pos, byte[] dst, int off, int cnt)
+					throws IOException {
+				in.seek(pos);
+				return in.read(dst, off, cnt);
+			}
+
+			@Override
+			public void close() throws IOException {
+				in.close();
+			}
+		};
+	}
+
 	@Override
 	protected boolean checkCRC(int oldCRC) {
 		return oldCRC == (int) crc.getValue();
@@ -443,6 +467,8 @@ private PackLock renameAndOpenPack(final String lockMessage)
 		final File packDir = new File(db.getDirectory(), "pack"); //$NON-NLS-1$
 		final File finalPack = new File(packDir, "pack-" + name + ".pack"); //$NON-NLS-1$ //$NON-NLS-2$
 		final File finalIdx = new File(packDir, "pack-" + name + ".idx"); //$NON-NLS-1$ //$NON-NLS-2$
+		final File finalPromisor = new File(packDir,
+				"pack-" + name + ".promisor"); //$NON-NLS-1$ //$NON-NLS-2$
 		final PackLock keep = new PackLock(finalPack, db.getFS());
 
 		if (!packDir.exists() && !packDir.mkdir() && !packDir.exists()) {
@@ -477,6 +503,19 @@ private PackLock renameAndOpenPack(final String lockMessage)
 			}
 		}
 
+		if (isPromisor() && !finalPromisor.exists()) {
+			// Mark the pack before it becomes visible, so readers never see
+			// a filtered pack that looks complete.
+			//
+			try {
+				FileUtils.createNewFile(finalPromisor);
+			} catch (IOException e) {
+				cleanupTemporaryFiles();
+				keep.unlock();
+				throw e;
+			}
+		}
+
 		try {
 			FileUtils.rename(tmpPack, finalPack,
 					StandardCopyOption.ATOMIC_MOVE);
@@ -509,6 +548,14 @@ private PackLock renameAndOpenPack(final String lockMessage)
 			throw err;
 		}
 
+		try {
+			db.appendMultiPackIndex(NullProgressMonitor.INSTANCE);
+		} catch (IOException e) {
+			// The multi-pack-index is only an optimization. The new pack is
+			// searched on its own until the index next covers it.
+			LOG.warn(e.getMessage(), e);
+		}
+
 		return lockMessage != null ? keep : null;
 	}
 }
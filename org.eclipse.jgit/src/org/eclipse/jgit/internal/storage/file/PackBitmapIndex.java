@@ -47,6 +47,7 @@
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 
 import org.eclipse.jgit.errors.CorruptObjectException;
@@ -112,6 +113,42 @@ public static PackBitmapIndex open(
 		}
 	}
 
+	/**
+	 * Map an existing pack bitmap index file for reading.
+	 * <p>
+	 * Only the type bitmaps and the entry headers are read when the index is
+	 * opened; each commit bitmap is decoded from the mapped file on its first
+	 * lookup. Files too large to be mapped as a single buffer are read as by
+	 * {@link #open(File, PackIndex, PackReverseIndex)}.
+	 *
+	 * @param idxFile
+	 *            existing pack .bitmap to read.
+	 * @param packIndex
+	 *            the pack index for the corresponding pack file.
+	 * @param reverseIndex
+	 *            the pack reverse index for the corresponding pack file.
+	 * @return access implementation for the mapped file.
+	 * @throws IOException
+	 *             the file cannot be read or is not a valid pack bitmap index.
+	 */
+	static PackBitmapIndex mmap(
+			File idxFile, PackIndex packIndex, PackReverseIndex reverseIndex)
+			throws IOException {
+		final ByteBuffer buf = PackIndex.map(idxFile);
+		if (buf == null)
+			return open(idxFile, packIndex, reverseIndex);
+		try {
+			return new PackBitmapIndexV1(buf, packIndex, reverseIndex);
+		} catch (IOException ioe) {
+			final String path = idxFile.getAbsolutePath();
+			final IOException err;
+			err = new IOException(MessageFormat.format(
+					JGitText.get().unreadablePackIndex, path));
+			err.initCause(ioe);
+			throw err;
+		}
+	}
+
 	/**
 	 * Read an existing pack bitmap index file from a buffered stream.
 	 * <p>
@@ -142,6 +179,28 @@ public static PackBitmapIndex read(
 	/** Footer checksum applied on the bottom of the pack file. */
 	byte[] packChecksum;
 
+	/**
+	 * Footer checksum of the pack this index is layered on; null if the index
+	 * covers its own pack alone.
+	 */
+	byte[] baseChecksum;
+
+	/** Number of objects covered by the base of a layered index. */
+	int baseObjectCount;
+
+	/**
+	 * Whether this index is a layer on top of another pack's bitmap index.
+	 * <p>
+	 * Bitmaps of a layer use the positions of the base index for objects of
+	 * the base, followed by the objects of its own pack. A layer can only be
+	 * used through a {@link PackBitmapIndexLayered} joining it with its base.
+	 *
+	 * @return true if the index is a layer.
+	 */
+	public boolean isLayer() {
+		return baseChecksum != null;
+	}
+
 	/**
 	 * Finds the position in the bitmap of the object.
 	 *
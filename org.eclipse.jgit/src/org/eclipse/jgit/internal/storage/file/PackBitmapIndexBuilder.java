@@ -74,6 +74,7 @@ public class PackBitmapIndexBuilder extends BasePackBitmapIndex {
 	private final EWAHCompressedBitmap blobs;
 	private final EWAHCompressedBitmap tags;
 	private final BlockList<PositionEntry> byOffset;
+	private final PackBitmapIndex base;
 	final BlockList<StoredBitmap>
 			byAddOrder = new BlockList<>();
 	final ObjectIdOwnerMap<PositionEntry>
@@ -88,7 +89,32 @@ public class PackBitmapIndexBuilder extends BasePackBitmapIndex {
 	 *            ObjectId (name); it will be resorted in place.
 	 */
 	public PackBitmapIndexBuilder(List<ObjectToPack> objects) {
+		this(objects, null);
+	}
+
+	/**
+	 * Creates a PackBitmapIndex used for building a layer on top of an
+	 * existing index.
+	 * <p>
+	 * The objects of the new pack are positioned after all objects of
+	 * {@code base}, so bitmaps of the base can be used unchanged while
+	 * computing bitmaps of the new pack's commits.
+	 *
+	 * @param objects
+	 *            objects sorted by name. The list must be initially sorted by
+	 *            ObjectId (name); it will be resorted in place.
+	 * @param base
+	 *            index of the packs the new pack is layered on; null to
+	 *            build an index covering the new pack alone.
+	 */
+	public PackBitmapIndexBuilder(List<ObjectToPack> objects,
+			PackBitmapIndex base) {
 		super(new ObjectIdOwnerMap<StoredBitmap>());
+		this.base = base;
+		if (base != null) {
+			baseChecksum = base.packChecksum;
+			baseObjectCount = base.getObjectCount();
+		}
 		byOffset = new BlockList<>(objects.size());
 		sortByOffsetAndIndex(byOffset, positionEntries, objects);
 
@@ -104,16 +130,16 @@ public PackBitmapIndexBuilder(List<ObjectToPack> objects) {
 			int type = objects.get(i).getType();
 			switch (type) {
 			case Constants.OBJ_COMMIT:
-				commits.set(i);
+				commits.set(baseObjectCount + i);
 				break;
 			case Constants.OBJ_TREE:
-				trees.set(i);
+				trees.set(baseObjectCount + i);
 				break;
 			case Constants.OBJ_BLOB:
-				blobs.set(i);
+				blobs.set(baseObjectCount + i);
 				break;
 			case Constants.OBJ_TAG:
-				tags.set(i);
+				tags.set(baseObjectCount + i);
 				break;
 			default:
 				throw new IllegalArgumentException(MessageFormat.format(
@@ -167,16 +193,35 @@ public ObjectIdOwnerMap<ObjectIdOwnerMap.Entry> getObjectSet() {
 	 *            the flags to be stored with the bitmap
 	 */
 	public void addBitmap(AnyObjectId objectId, Bitmap bitmap, int flags) {
+		addBitmap(objectId, compressed(bitmap), flags);
+	}
+
+	/**
+	 * Check whether a bitmap only holds objects of this index.
+	 * <p>
+	 * Walks over a layer may reach objects of packs which are neither the new
+	 * pack nor its base; such bitmaps cannot be stored.
+	 *
+	 * @param bitmap
+	 *            the bitmap
+	 * @return true if every object of the bitmap has a position in this index.
+	 */
+	public boolean covers(Bitmap bitmap) {
+		EWAHCompressedBitmap compressed = compressed(bitmap);
+		int count = getObjectCount();
+		if (compressed.sizeInBits() <= count)
+			return true;
+		return !compressed.andNot(BitmapIndexImpl.ones(count)).intIterator()
+				.hasNext();
+	}
+
+	private static EWAHCompressedBitmap compressed(Bitmap bitmap) {
 		if (bitmap instanceof BitmapBuilder)
 			bitmap = ((BitmapBuilder) bitmap).build();
 
-		EWAHCompressedBitmap compressed;
 		if (bitmap instanceof CompressedBitmap)
-			compressed = ((CompressedBitmap) bitmap).getEwahCompressedBitmap();
-		else
-			throw new IllegalArgumentException(bitmap.getClass().toString());
-
-		addBitmap(objectId, compressed, flags);
+			return ((CompressedBitmap) bitmap).getEwahCompressedBitmap();
+		throw new IllegalArgumentException(bitmap.getClass().toString());
 	}
 
 	/**
@@ -200,30 +245,49 @@ public void addBitmap(
 	@Override
 	public EWAHCompressedBitmap ofObjectType(
 			EWAHCompressedBitmap bitmap, int type) {
+		EWAHCompressedBitmap own;
 		switch (type) {
 		case Constants.OBJ_BLOB:
-			return getBlobs().and(bitmap);
+			own = getBlobs().and(bitmap);
+			break;
 		case Constants.OBJ_TREE:
-			return getTrees().and(bitmap);
+			own = getTrees().and(bitmap);
+			break;
 		case Constants.OBJ_COMMIT:
-			return getCommits().and(bitmap);
+			own = getCommits().and(bitmap);
+			break;
 		case Constants.OBJ_TAG:
-			return getTags().and(bitmap);
+			own = getTags().and(bitmap);
+			break;
+		default:
+			throw new IllegalArgumentException();
 		}
-		throw new IllegalArgumentException();
+		if (base == null)
+			return own;
+		return own.or(base.ofObjectType(bitmap, type));
+	}
+
+	@Override
+	public EWAHCompressedBitmap getBitmap(AnyObjectId objectId) {
+		EWAHCompressedBitmap bitmap = super.getBitmap(objectId);
+		if (bitmap == null && base != null)
+			return base.getBitmap(objectId);
+		return bitmap;
 	}
 
 	@Override
 	public int findPosition(AnyObjectId objectId) {
 		PositionEntry entry = positionEntries.get(objectId);
 		if (entry == null)
-			return -1;
-		return entry.offsetPosition;
+			return base != null ? base.findPosition(objectId) : -1;
+		return baseObjectCount + entry.offsetPosition;
 	}
 
 	@Override
 	public ObjectId getObject(int position) throws IllegalArgumentException {
-		ObjectId objectId = byOffset.get(position);
+		if (position < baseObjectCount)
+			return base.getObject(position);
+		ObjectId objectId = byOffset.get(position - baseObjectCount);
 		if (objectId == null)
 			throw new IllegalArgumentException();
 		return objectId;
@@ -251,7 +315,8 @@ public EWAHCompressedBitmap getTags() {
 
 	/** @return the index storage options. */
 	public int getOptions() {
-		return PackBitmapIndexV1.OPT_FULL;
+		return isLayer() ? PackBitmapIndexV1.OPT_LAYERED
+				: PackBitmapIndexV1.OPT_FULL;
 	}
 
 	@Override
@@ -267,7 +332,7 @@ public void clearBitmaps() {
 
 	@Override
 	public int getObjectCount() {
-		return byOffset.size();
+		return baseObjectCount + byOffset.size();
 	}
 
 	/** @return an iterator over the xor compressed entries. */
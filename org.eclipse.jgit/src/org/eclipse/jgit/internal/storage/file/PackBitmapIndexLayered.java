@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+import com.googlecode.javaewah.EWAHCompressedBitmap;
+
+/**
+ * A PackBitmapIndex joining a layer with the index it was written on top of.
+ * <p>
+ * A layer is written for a pack holding only the objects added since its base
+ * pack was written. Positions below the object count of the base belong to
+ * the base index, positions above it to the layer's own pack, so bitmaps of
+ * either index are valid in the joined index without being remapped.
+ * <p>
+ * Layers are stored in {@code .lbitmap} files
+ * ({@link org.eclipse.jgit.internal.storage.pack.PackExt#LAYERED_BITMAP_INDEX}),
+ * never in the {@code .bitmap} file of their pack: other implementations
+ * would reject the layer option or read it as a complete index.
+ */
+public class PackBitmapIndexLayered extends PackBitmapIndex {
+	private final PackBitmapIndex base;
+
+	private final PackBitmapIndex layer;
+
+	/**
+	 * Select the bitmap index to use for a repository.
+	 * <p>
+	 * Layers are joined with their bases, and a layer is preferred over the
+	 * indexes it is layered on as it covers more objects.
+	 *
+	 * @param indexes
+	 *            bitmap indexes of the packs of the repository, in order of
+	 *            preference.
+	 * @return the first usable index which is not the base of another usable
+	 *         layer; null if no index is usable.
+	 */
+	public static PackBitmapIndex select(List<PackBitmapIndex> indexes) {
+		List<PackBitmapIndex> resolved = new ArrayList<>(indexes.size());
+		for (PackBitmapIndex index : indexes)
+			resolved.add(resolve(index, indexes));
+		CANDIDATES: for (int i = 0; i < indexes.size(); i++) {
+			if (resolved.get(i) == null)
+				continue;
+			for (int j = 0; j < indexes.size(); j++) {
+				if (resolved.get(j) != null && indexes.get(j).isLayer()
+						&& Arrays.equals(indexes.get(j).baseChecksum,
+								indexes.get(i).packChecksum))
+					continue CANDIDATES;
+			}
+			return resolved.get(i);
+		}
+		return null;
+	}
+
+	/**
+	 * Resolve the base of an index.
+	 *
+	 * @param index
+	 *            the index to resolve.
+	 * @param candidates
+	 *            bitmap indexes of the other packs of the repository; their
+	 *            bases are resolved against the same candidates.
+	 * @return {@code index} itself if it is not a layer, the index joined
+	 *         with its bases, or null if a base is not among the candidates.
+	 */
+	public static PackBitmapIndex resolve(PackBitmapIndex index,
+			Iterable<PackBitmapIndex> candidates) {
+		if (!index.isLayer())
+			return index;
+		for (PackBitmapIndex c : candidates) {
+			if (c != index
+					&& Arrays.equals(c.packChecksum, index.baseChecksum)) {
+				PackBitmapIndex base = resolve(c, candidates);
+				if (base == null
+						|| base.getObjectCount() != index.baseObjectCount)
+					return null;
+				return new PackBitmapIndexLayered(base, index);
+			}
+		}
+		return null;
+	}
+
+	private PackBitmapIndexLayered(PackBitmapIndex base,
+			PackBitmapIndex layer) {
+		this.base = base;
+		this.layer = layer;
+		this.packChecksum = layer.packChecksum;
+	}
+
+	/**
+	 * @return the index at the bottom of the layers, covering its own pack
+	 *         alone.
+	 */
+	public PackBitmapIndex getFullIndex() {
+		if (base instanceof PackBitmapIndexLayered)
+			return ((PackBitmapIndexLayered) base).getFullIndex();
+		return base;
+	}
+
+	@Override
+	public int findPosition(AnyObjectId objectId) {
+		int position = layer.findPosition(objectId);
+		if (position < 0)
+			position = base.findPosition(objectId);
+		return position;
+	}
+
+	@Override
+	public ObjectId getObject(int position) throws IllegalArgumentException {
+		if (position < base.getObjectCount())
+			return base.getObject(position);
+		return layer.getObject(position);
+	}
+
+	@Override
+	public EWAHCompressedBitmap ofObjectType(
+			EWAHCompressedBitmap bitmap, int type) {
+		return base.ofObjectType(bitmap, type)
+				.or(layer.ofObjectType(bitmap, type));
+	}
+
+	@Override
+	public EWAHCompressedBitmap getBitmap(AnyObjectId objectId) {
+		EWAHCompressedBitmap bitmap = layer.getBitmap(objectId);
+		if (bitmap == null)
+			bitmap = base.getBitmap(objectId);
+		return bitmap;
+	}
+
+	@Override
+	public int getObjectCount() {
+		return layer.getObjectCount();
+	}
+
+	@Override
+	public int getBitmapCount() {
+		return base.getBitmapCount() + layer.getBitmapCount();
+	}
+}
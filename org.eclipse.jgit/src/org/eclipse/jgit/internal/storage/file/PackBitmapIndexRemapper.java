@@ -88,6 +88,10 @@ public static PackBitmapIndexRemapper newPackBitmapIndex(
 
 		PackBitmapIndex prevIndex = ((BitmapIndexImpl) prevBitmapIndex)
 				.getPackBitmapIndex();
+		if (prevIndex instanceof PackBitmapIndexLayered) {
+			// Only bitmaps of the full index are flagged for reuse.
+			prevIndex = ((PackBitmapIndexLayered) prevIndex).getFullIndex();
+		}
 		if (!(prevIndex instanceof BasePackBitmapIndex))
 			return new PackBitmapIndexRemapper(newIndex);
 
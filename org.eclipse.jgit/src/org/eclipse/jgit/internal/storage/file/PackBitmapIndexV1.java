@@ -46,6 +46,7 @@
 import java.io.DataInput;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.text.MessageFormat;
 import java.util.Arrays;
 
@@ -67,6 +68,10 @@
 class PackBitmapIndexV1 extends BasePackBitmapIndex {
 	static final byte[] MAGIC = { 'B', 'I', 'T', 'M' };
 	static final int OPT_FULL = 1;
+	static final int OPT_LAYERED = 2;
+
+	/** Length of the base pack checksum and object count of a layer. */
+	private static final int LAYER_HEADER_LENGTH = 24;
 
 	private static final int MAX_XOR_OFFSET = 126;
 
@@ -88,7 +93,98 @@ class PackBitmapIndexV1 extends BasePackBitmapIndex {
 
 		final byte[] scratch = new byte[32];
 		IO.readFully(fd, scratch, 0, scratch.length);
+		final int numEntries = readHeader(scratch);
+		if (isLayer()) {
+			IO.readFully(fd, scratch, 0, LAYER_HEADER_LENGTH);
+			readLayerHeader(scratch);
+		}
 
+		// Read the bitmaps for the Git types
+		SimpleDataInput dataInput = new SimpleDataInput(fd);
+		this.commits = readBitmap(dataInput);
+		this.trees = readBitmap(dataInput);
+		this.blobs = readBitmap(dataInput);
+		this.tags = readBitmap(dataInput);
+
+		// An entry is object id, xor offset, flag byte, and a length encoded
+		// bitmap. The object id is an int32 of the nth position sorted by name.
+		// The xor offset is a single byte offset back in the list of entries.
+		StoredBitmap[] recentBitmaps = new StoredBitmap[MAX_XOR_OFFSET];
+		for (int i = 0; i < numEntries; i++) {
+			IO.readFully(fd, scratch, 0, 6);
+			int nthObjectId = NB.decodeInt32(scratch, 0);
+			int xorOffset = scratch[4];
+			int flags = scratch[5];
+			EWAHCompressedBitmap bitmap = readBitmap(dataInput);
+
+			ObjectId objectId = getEntryId(nthObjectId, xorOffset, i);
+			StoredBitmap xorBitmap = getXorBitmap(recentBitmaps, xorOffset, i);
+			StoredBitmap sb = new StoredBitmap(
+					objectId, bitmap, xorBitmap, flags);
+			bitmaps.add(sb);
+			recentBitmaps[i % recentBitmaps.length] = sb;
+		}
+	}
+
+	/**
+	 * Open a bitmap index held in a (typically mapped) buffer.
+	 * <p>
+	 * Only the entry headers are scanned. Each commit bitmap is decoded from
+	 * {@code buf} the first time it is requested.
+	 */
+	PackBitmapIndexV1(final ByteBuffer buf, PackIndex packIndex,
+			PackReverseIndex reverseIndex) throws IOException {
+		super(new ObjectIdOwnerMap<StoredBitmap>());
+		this.packIndex = packIndex;
+		this.reverseIndex = reverseIndex;
+		this.bitmaps = getBitmaps();
+
+		final byte[] scratch = new byte[32];
+		if (buf.limit() < scratch.length)
+			throw new IOException(JGitText.get().unexpectedEndOfInput);
+		buf.duplicate().get(scratch);
+		final int numEntries = readHeader(scratch);
+		int commitsPos = scratch.length;
+		if (isLayer()) {
+			if (buf.limit() - commitsPos < LAYER_HEADER_LENGTH)
+				throw new IOException(JGitText.get().unexpectedEndOfInput);
+			ByteBuffer layer = buf.duplicate();
+			layer.position(commitsPos);
+			layer.get(scratch, 0, LAYER_HEADER_LENGTH);
+			readLayerHeader(scratch);
+			commitsPos += LAYER_HEADER_LENGTH;
+		}
+
+		// The type bitmaps are needed by nearly every walk; decode now.
+		int treesPos = skipBitmap(buf, commitsPos);
+		int blobsPos = skipBitmap(buf, treesPos);
+		int tagsPos = skipBitmap(buf, blobsPos);
+		int pos = skipBitmap(buf, tagsPos);
+		this.commits = decodeBitmap(buf, commitsPos);
+		this.trees = decodeBitmap(buf, treesPos);
+		this.blobs = decodeBitmap(buf, blobsPos);
+		this.tags = decodeBitmap(buf, tagsPos);
+
+		StoredBitmap[] recentBitmaps = new StoredBitmap[MAX_XOR_OFFSET];
+		for (int i = 0; i < numEntries; i++) {
+			if (buf.limit() - pos < 6)
+				throw new IOException(JGitText.get().unexpectedEndOfInput);
+			int nthObjectId = buf.getInt(pos);
+			int xorOffset = buf.get(pos + 4);
+			int flags = buf.get(pos + 5);
+			pos += 6;
+
+			ObjectId objectId = getEntryId(nthObjectId, xorOffset, i);
+			StoredBitmap xorBitmap = getXorBitmap(recentBitmaps, xorOffset, i);
+			StoredBitmap sb = new StoredBitmap(
+					objectId, buf, pos, xorBitmap, flags);
+			pos = skipBitmap(buf, pos);
+			bitmaps.add(sb);
+			recentBitmaps[i % recentBitmaps.length] = sb;
+		}
+	}
+
+	private int readHeader(byte[] scratch) throws IOException {
 		// Check the magic bytes
 		for (int i = 0; i < MAGIC.length; i++) {
 			if (scratch[i] != MAGIC[i]) {
@@ -109,10 +205,13 @@ class PackBitmapIndexV1 extends BasePackBitmapIndex {
 
 		// Read the options (2 bytes)
 		final int opts = NB.decodeUInt16(scratch, 6);
-		if ((opts & OPT_FULL) == 0)
+		final boolean layered = (opts & OPT_LAYERED) != 0;
+		if (((opts & OPT_FULL) != 0) == layered)
 			throw new IOException(MessageFormat.format(
 					JGitText.get().expectedGot, Integer.valueOf(OPT_FULL),
 					Integer.valueOf(opts)));
+		if (layered)
+			baseChecksum = new byte[20];
 
 		// Read the number of entries (1 int32)
 		long numEntries = NB.decodeUInt32(scratch, 8);
@@ -122,57 +221,56 @@ class PackBitmapIndexV1 extends BasePackBitmapIndex {
 		// Checksum applied on the bottom of the corresponding pack file.
 		this.packChecksum = new byte[20];
 		System.arraycopy(scratch, 12, packChecksum, 0, packChecksum.length);
+		return (int) numEntries;
+	}
 
-		// Read the bitmaps for the Git types
-		SimpleDataInput dataInput = new SimpleDataInput(fd);
-		this.commits = readBitmap(dataInput);
-		this.trees = readBitmap(dataInput);
-		this.blobs = readBitmap(dataInput);
-		this.tags = readBitmap(dataInput);
+	private void readLayerHeader(byte[] scratch) throws IOException {
+		// A layer names the pack it extends and the number of positions
+		// taken by that pack and its own bases.
+		System.arraycopy(scratch, 0, baseChecksum, 0, baseChecksum.length);
+		baseObjectCount = NB.decodeInt32(scratch, baseChecksum.length);
+		if (baseObjectCount < 0
+				|| baseObjectCount + packIndex.getObjectCount() > Integer.MAX_VALUE)
+			throw new IOException(JGitText.get().indexFileIsTooLargeForJgit);
+	}
 
-		// An entry is object id, xor offset, flag byte, and a length encoded
-		// bitmap. The object id is an int32 of the nth position sorted by name.
-		// The xor offset is a single byte offset back in the list of entries.
-		StoredBitmap[] recentBitmaps = new StoredBitmap[MAX_XOR_OFFSET];
-		for (int i = 0; i < (int) numEntries; i++) {
-			IO.readFully(fd, scratch, 0, 6);
-			int nthObjectId = NB.decodeInt32(scratch, 0);
-			int xorOffset = scratch[4];
-			int flags = scratch[5];
-			EWAHCompressedBitmap bitmap = readBitmap(dataInput);
+	private ObjectId getEntryId(int nthObjectId, int xorOffset, int i)
+			throws IOException {
+		if (nthObjectId < 0)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().invalidId, String.valueOf(nthObjectId)));
+		if (xorOffset < 0)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().invalidId, String.valueOf(xorOffset)));
+		if (xorOffset > MAX_XOR_OFFSET)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().expectedLessThanGot,
+					String.valueOf(MAX_XOR_OFFSET),
+					String.valueOf(xorOffset)));
+		if (xorOffset > i)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().expectedLessThanGot, String.valueOf(i),
+					String.valueOf(xorOffset)));
+		return packIndex.getObjectId(nthObjectId);
+	}
 
-			if (nthObjectId < 0)
-				throw new IOException(MessageFormat.format(
-						JGitText.get().invalidId, String.valueOf(nthObjectId)));
-			if (xorOffset < 0)
-				throw new IOException(MessageFormat.format(
-						JGitText.get().invalidId, String.valueOf(xorOffset)));
-			if (xorOffset > MAX_XOR_OFFSET)
-				throw new IOException(MessageFormat.format(
-						JGitText.get().expectedLessThanGot,
-						String.valueOf(MAX_XOR_OFFSET),
-						String.valueOf(xorOffset)));
-			if (xorOffset > i)
-				throw new IOException(MessageFormat.format(
-						JGitText.get().expectedLessThanGot, String.valueOf(i),
-						String.valueOf(xorOffset)));
-
-			ObjectId objectId = packIndex.getObjectId(nthObjectId);
-			StoredBitmap xorBitmap = null;
-			if (xorOffset > 0) {
-				int index = (i - xorOffset);
-				xorBitmap = recentBitmaps[index % recentBitmaps.length];
-				if (xorBitmap == null)
-					throw new IOException(MessageFormat.format(
-							JGitText.get().invalidId,
-							String.valueOf(xorOffset)));
-			}
+	private static StoredBitmap getXorBitmap(StoredBitmap[] recentBitmaps,
+			int xorOffset, int i) throws IOException {
+		if (xorOffset == 0)
+			return null;
+		int index = (i - xorOffset);
+		StoredBitmap xorBitmap = recentBitmaps[index % recentBitmaps.length];
+		if (xorBitmap == null)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().invalidId, String.valueOf(xorOffset)));
+		return xorBitmap;
+	}
 
-			StoredBitmap sb = new StoredBitmap(
-					objectId, bitmap, xorBitmap, flags);
-			bitmaps.add(sb);
-			recentBitmaps[i % recentBitmaps.length] = sb;
-		}
+	private static int skipBitmap(ByteBuffer buf, int pos) throws IOException {
+		int size = serializedSize(buf, pos);
+		if (size < 0)
+			throw new IOException(JGitText.get().unexpectedEndOfInput);
+		return pos + size;
 	}
 
 	@Override
@@ -180,12 +278,15 @@ public int findPosition(AnyObjectId objectId) {
 		long offset = packIndex.findOffset(objectId);
 		if (offset == -1)
 			return -1;
-		return reverseIndex.findPostion(offset);
+		return baseObjectCount + reverseIndex.findPostion(offset);
 	}
 
 	@Override
 	public ObjectId getObject(int position) throws IllegalArgumentException {
-		ObjectId objectId = reverseIndex.findObjectByPosition(position);
+		if (position < baseObjectCount)
+			throw new IllegalArgumentException();
+		ObjectId objectId = reverseIndex
+				.findObjectByPosition(position - baseObjectCount);
 		if (objectId == null)
 			throw new IllegalArgumentException();
 		return objectId;
@@ -193,7 +294,7 @@ public ObjectId getObject(int position) throws IllegalArgumentException {
 
 	@Override
 	public int getObjectCount() {
-		return (int) packIndex.getObjectCount();
+		return baseObjectCount + (int) packIndex.getObjectCount();
 	}
 
 	@Override
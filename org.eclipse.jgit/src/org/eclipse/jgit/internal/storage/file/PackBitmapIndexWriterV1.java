@@ -100,6 +100,10 @@ public void write(PackBitmapIndexBuilder bitmaps, byte[] packDataChecksum)
 
 		writeHeader(bitmaps.getOptions(), bitmaps.getBitmapCount(),
 				packDataChecksum);
+		if (bitmaps.isLayer()) {
+			out.write(bitmaps.baseChecksum);
+			dataOutput.writeInt(bitmaps.baseObjectCount);
+		}
 		writeBody(bitmaps);
 		writeFooter();
 
@@ -48,6 +48,8 @@
 import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.INDEX;
 import static org.eclipse.jgit.internal.storage.pack.PackExt.KEEP;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.LAYERED_BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PROMISOR;
 
 import java.io.EOFException;
 import java.io.File;
@@ -60,10 +62,13 @@
 import java.nio.file.AccessDeniedException;
 import java.nio.file.NoSuchFileException;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.zip.CRC32;
@@ -180,7 +185,11 @@ private synchronized PackIndex idx() throws IOException {
 				throw new PackInvalidException(packFile);
 
 			try {
-				final PackIndex idx = PackIndex.open(extFile(INDEX));
+				final PackIndex idx;
+				if (WindowCache.isPackedIndexMMAP())
+					idx = PackIndex.mmap(extFile(INDEX));
+				else
+					idx = PackIndex.open(extFile(INDEX));
 
 				if (packChecksum == null) {
 					packChecksum = idx.packChecksum;
@@ -257,6 +266,19 @@ public boolean shouldBeKept() {
 		return keepFile.exists();
 	}
 
+	/**
+	 * Determines whether a .promisor file exists for this pack file.
+	 * <p>
+	 * Promisor packs were fetched with an object filter; objects they refer
+	 * to may be missing locally and can be fetched again from the remote.
+	 *
+	 * @return true if a .promisor file exists.
+	 * @since 4.8
+	 */
+	public boolean isPromisor() {
+		return extFile(PROMISOR).exists();
+	}
+
 	/**
 	 * Get an object from this pack.
 	 *
@@ -275,6 +297,23 @@ ObjectLoader get(final WindowCursor curs, final AnyObjectId id)
 		return 0 < offset && !isCorrupt(offset) ? load(curs, offset) : null;
 	}
 
+	/**
+	 * Get an object from this pack at an offset already known to the caller,
+	 * such as one found in the multi-pack-index.
+	 *
+	 * @param curs
+	 *            temporary working space associated with the calling thread.
+	 * @param offset
+	 *            position of the object within the pack.
+	 * @return the object loader for the requested object; null if the object
+	 *         is known to be corrupt.
+	 * @throws IOException
+	 *             the pack file could not be read.
+	 */
+	ObjectLoader get(WindowCursor curs, long offset) throws IOException {
+		return !isCorrupt(offset) ? load(curs, offset) : null;
+	}
+
 	void resolve(Set<ObjectId> matches, AbbreviatedObjectId id, int matchLimit)
 			throws IOException {
 		idx().resolve(matches, id, matchLimit);
@@ -1053,7 +1092,11 @@ LocalObjectRepresentation representation(final WindowCursor curs,
 		final long pos = idx().findOffset(objectId);
 		if (pos < 0)
 			return null;
+		return representation(curs, pos);
+	}
 
+	LocalObjectRepresentation representation(WindowCursor curs, long pos)
+			throws IOException {
 		final byte[] ib = curs.tempId;
 		readFully(pos, ib, 0, 20, curs);
 		int c = ib[0] & 0xff;
@@ -1107,12 +1150,26 @@ private long findEndOffset(final long startOffset)
 	synchronized PackBitmapIndex getBitmapIndex() throws IOException {
 		if (invalid || invalidBitmap)
 			return null;
-		if (bitmapIdx == null && hasExt(BITMAP_INDEX)) {
-			final PackBitmapIndex idx = PackBitmapIndex.open(
-					extFile(BITMAP_INDEX), idx(), getReverseIdx());
+		if (bitmapIdx == null) {
+			PackExt ext;
+			if (hasExt(BITMAP_INDEX))
+				ext = BITMAP_INDEX;
+			else if (hasExt(LAYERED_BITMAP_INDEX))
+				ext = LAYERED_BITMAP_INDEX;
+			else
+				return null;
+
+			final PackBitmapIndex idx;
+			if (WindowCache.isPackedIndexMMAP())
+				idx = PackBitmapIndex.mmap(
+						extFile(ext), idx(), getReverseIdx());
+			else
+				idx = PackBitmapIndex.open(
+						extFile(ext), idx(), getReverseIdx());
 
 			// At this point, idx() will have set packChecksum.
-			if (Arrays.equals(packChecksum, idx.packChecksum))
+			if (Arrays.equals(packChecksum, idx.packChecksum)
+					&& idx.isLayer() == (ext == LAYERED_BITMAP_INDEX))
 				bitmapIdx = idx;
 			else
 				invalidBitmap = true;
@@ -1120,6 +1177,28 @@ synchronized PackBitmapIndex getBitmapIndex() throws IOException {
 		return bitmapIdx;
 	}
 
+	/**
+	 * Find the bitmap index to use for a list of packs.
+	 *
+	 * @param packs
+	 *            packs to search, in order of preference.
+	 * @return the bitmap index, joined with its bases if it is a layer; null
+	 *         if no pack has a usable one.
+	 * @throws IOException
+	 *             a bitmap index cannot be read.
+	 * @see PackBitmapIndexLayered#select(List)
+	 */
+	static PackBitmapIndex findBitmapIndex(Collection<PackFile> packs)
+			throws IOException {
+		List<PackBitmapIndex> all = new ArrayList<>(2);
+		for (PackFile pack : packs) {
+			PackBitmapIndex index = pack.getBitmapIndex();
+			if (index != null)
+				all.add(index);
+		}
+		return PackBitmapIndexLayered.select(all);
+	}
+
 	private synchronized PackReverseIndex getReverseIdx() throws IOException {
 		if (reverseIdx == null)
 			reverseIdx = new PackReverseIndex(idx());
@@ -49,6 +49,10 @@
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
 import java.text.MessageFormat;
 import java.util.Iterator;
 import java.util.Set;
@@ -112,6 +116,72 @@ public static PackIndex open(final File idxFile) throws IOException {
 		}
 	}
 
+	/**
+	 * Map an existing pack <code>.idx</code> file for reading.
+	 * <p>
+	 * Version 2 indexes are searched in place within the mapped file, without
+	 * copying the tables onto the heap. Other versions, and files too large to
+	 * be mapped as a single buffer, are read as by {@link #open(File)}.
+	 *
+	 * @param idxFile
+	 *            existing pack .idx to read.
+	 * @return access implementation for the requested file.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read due to security errors,
+	 *             unrecognized data version, or unexpected data corruption.
+	 */
+	static PackIndex mmap(final File idxFile) throws IOException {
+		final ByteBuffer buf = map(idxFile);
+		if (buf == null || buf.limit() < 8)
+			return open(idxFile);
+
+		final byte[] hdr = new byte[8];
+		buf.duplicate().get(hdr);
+		if (!isTOC(hdr) || NB.decodeInt32(hdr, 4) != 2)
+			return open(idxFile);
+
+		try {
+			return new MappedPackIndexV2(buf);
+		} catch (IOException ioe) {
+			final String path = idxFile.getAbsolutePath();
+			final IOException err;
+			err = new IOException(MessageFormat.format(JGitText.get().unreadablePackIndex, path));
+			err.initCause(ioe);
+			throw err;
+		}
+	}
+
+	/**
+	 * Map an entire file read-only.
+	 *
+	 * @param file
+	 *            the file to map.
+	 * @return the mapped file; null if the file is too large to be mapped as a
+	 *         single buffer.
+	 * @throws IOException
+	 *             the file cannot be opened or mapped.
+	 */
+	static MappedByteBuffer map(final File file) throws IOException {
+		try (FileInputStream in = new FileInputStream(file)) {
+			final FileChannel ch = in.getChannel();
+			final long size = ch.size();
+			if (size > Integer.MAX_VALUE)
+				return null;
+			try {
+				return ch.map(MapMode.READ_ONLY, 0, size);
+			} catch (IOException ioe1) {
+				// As with pack windows, the JVM may have run out of virtual
+				// memory. Try to release unreachable mappings and retry once.
+				//
+				System.gc();
+				System.runFinalization();
+				return ch.map(MapMode.READ_ONLY, 0, size);
+			}
+		}
+	}
+
 	/**
 	 * Read an existing pack index file from a buffered stream.
 	 * <p>
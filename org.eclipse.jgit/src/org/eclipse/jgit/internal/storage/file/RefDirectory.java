@@ -46,6 +46,11 @@
 
 package org.eclipse.jgit.internal.storage.file;
 
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_CORE_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_EXTENSIONS_SECTION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_PACKED_REFS_FORMAT;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_REFS_STORAGE;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_REPO_FORMAT_VERSION;
 import static org.eclipse.jgit.lib.Constants.CHARSET;
 import static org.eclipse.jgit.lib.Constants.HEAD;
 import static org.eclipse.jgit.lib.Constants.OBJECT_ID_STRING_LENGTH;
@@ -53,6 +58,7 @@
 import static org.eclipse.jgit.lib.Constants.R_HEADS;
 import static org.eclipse.jgit.lib.Constants.R_REFS;
 import static org.eclipse.jgit.lib.Constants.R_TAGS;
+import static org.eclipse.jgit.lib.Constants.REFTABLE;
 import static org.eclipse.jgit.lib.Ref.Storage.LOOSE;
 import static org.eclipse.jgit.lib.Ref.Storage.NEW;
 import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
@@ -67,6 +73,8 @@
 import java.security.MessageDigest;
 import java.text.MessageFormat;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -80,6 +88,9 @@
 import org.eclipse.jgit.errors.ObjectWritingException;
 import org.eclipse.jgit.events.RefsChangedEvent;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.reftable.RefCursor;
+import org.eclipse.jgit.internal.storage.reftable.Reftable;
+import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
@@ -93,6 +104,7 @@
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.storage.file.FileBasedConfig;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.FileUtils;
 import org.eclipse.jgit.util.IO;
@@ -116,6 +128,16 @@
  * In the packed format, each reference is stored on its own line. This file
  * reduces the number of files needed for large reference spaces, reducing the
  * overall size of a Git repository on disk.
+ * <p>
+ * If {@code core.packedRefsFormat} is set to {@code reftable} packed references
+ * are instead kept in a stack of binary reftable files under
+ * {@code $GIT_DIR/reftable}. Single references are then found without reading
+ * every packed reference, and packing or batch updating a few references only
+ * appends a small table rather than rewriting all of them. Before the first
+ * table is written the repository is marked with
+ * {@code core.repositoryformatversion = 1} and
+ * {@code extensions.refsStorage = reftable}, so implementations that cannot
+ * read the tables refuse to open it instead of missing the references.
  */
 public class RefDirectory extends RefDatabase {
 	private final static Logger LOG = LoggerFactory
@@ -145,6 +167,10 @@ public class RefDirectory extends RefDatabase {
 
 	private final File packedRefsFile;
 
+	private final FileReftableStack reftable;
+
+	private final boolean writeReftable;
+
 	/**
 	 * Immutable sorted list of loose references.
 	 * <p>
@@ -181,6 +207,9 @@ public class RefDirectory extends RefDatabase {
 		logWriter = new ReflogWriter(db);
 		refsDir = fs.resolve(gitDir, R_REFS);
 		packedRefsFile = fs.resolve(gitDir, PACKED_REFS);
+		reftable = new FileReftableStack(fs.resolve(gitDir, REFTABLE));
+		writeReftable = REFTABLE.equalsIgnoreCase(db.getConfig().getString(
+				CONFIG_CORE_SECTION, null, CONFIG_KEY_PACKED_REFS_FORMAT));
 
 		looseRefs.set(RefList.<LooseRef> emptyList());
 		packedRefs.set(PackedRefList.NO_PACKED_REFS);
@@ -194,6 +223,10 @@ ReflogWriter getLogWriter() {
 		return logWriter;
 	}
 
+	FileReftableStack getReftableStack() {
+		return reftable;
+	}
+
 	@Override
 	public void create() throws IOException {
 		FileUtils.mkdir(refsDir);
@@ -220,20 +253,20 @@ public void refresh() {
 
 	@Override
 	public boolean isNameConflicting(String name) throws IOException {
-		RefList<Ref> packed = getPackedRefs();
+		// Cannot be the container of an existing reference.
+		String prefix = name + '/';
+		RefList<Ref> packed = getPackedRefs(prefix);
 		RefList<LooseRef> loose = getLooseRefs();
 
 		// Cannot be nested within an existing reference.
 		int lastSlash = name.lastIndexOf('/');
 		while (0 < lastSlash) {
 			String needle = name.substring(0, lastSlash);
-			if (loose.contains(needle) || packed.contains(needle))
+			if (loose.contains(needle) || packedRef(packed, needle) != null)
 				return true;
 			lastSlash = name.lastIndexOf('/', lastSlash - 1);
 		}
 
-		// Cannot be the container of an existing reference.
-		String prefix = name + '/';
 		int idx;
 
 		idx = -(packed.find(prefix) + 1);
@@ -265,7 +298,7 @@ private RefList<LooseRef> getLooseRefs() {
 
 	@Override
 	public Ref exactRef(String name) throws IOException {
-		RefList<Ref> packed = getPackedRefs();
+		RefList<Ref> packed = getPackedRefs(null);
 		Ref ref;
 		try {
 			ref = readRef(name, packed);
@@ -289,7 +322,7 @@ public Ref exactRef(String name) throws IOException {
 
 	@Override
 	public Ref getRef(final String needle) throws IOException {
-		final RefList<Ref> packed = getPackedRefs();
+		final RefList<Ref> packed = getPackedRefs(null);
 		Ref ref = null;
 		for (String prefix : SEARCH_PATH) {
 			try {
@@ -316,7 +349,7 @@ public Map<String, Ref> getRefs(String prefix) throws IOException {
 		final RefList<LooseRef> oldLoose = looseRefs.get();
 		LooseScanner scan = new LooseScanner(oldLoose);
 		scan.scan(prefix);
-		final RefList<Ref> packed = getPackedRefs();
+		final RefList<Ref> packed = getPackedRefs(prefix);
 
 		RefList<LooseRef> loose;
 		if (scan.newLoose != null) {
@@ -350,6 +383,18 @@ public Map<String, Ref> getRefs(String prefix) throws IOException {
 		return new RefMap(prefix, packed, upcast(loose), symbolic.toRefList());
 	}
 
+	@Override
+	public BatchRefUpdate newBatchUpdate() {
+		if (writesReftable())
+			return new ReftableBatchRefUpdate(this);
+		return super.newBatchUpdate();
+	}
+
+	@Override
+	public boolean performsAtomicTransactions() {
+		return writesReftable();
+	}
+
 	@Override
 	public List<Ref> getAdditionalRefs() throws IOException {
 		List<Ref> ret = new LinkedList<>();
@@ -539,7 +584,7 @@ void storedSymbolicRef(RefDirectoryUpdate u, FileSnapshot snapshot,
 	public RefDirectoryUpdate newUpdate(String name, boolean detach)
 			throws IOException {
 		boolean detachingSymbolicRef = false;
-		final RefList<Ref> packed = getPackedRefs();
+		final RefList<Ref> packed = getPackedRefs(null);
 		Ref ref = readRef(name, packed);
 		if (ref != null)
 			ref = resolve(ref, 0, null, null, packed);
@@ -582,6 +627,31 @@ void delete(RefDirectoryUpdate update) throws IOException {
 		Ref dst = update.getRef();
 		String name = dst.getName();
 
+		if (writesReftable()) {
+			// Hide the packed value, if any, under a deletion record.
+			if (packedRef(getPackedRefs(null), name) != null) {
+				createReftable();
+				reftable.add(Collections.<Ref> singletonList(
+						new ObjectIdRef.Unpeeled(NEW, name, null)));
+			}
+		} else {
+			deletePackedRef(name);
+		}
+
+		removeLooseRef(name);
+
+		int levels = levelsIn(name) - 2;
+		delete(logWriter.logFor(name), levels);
+		if (dst.getStorage().isLoose()) {
+			update.unlock();
+			delete(fileFor(name), levels);
+		}
+
+		modCnt.incrementAndGet();
+		fireRefsChanged();
+	}
+
+	private void deletePackedRef(String name) throws IOException {
 		// Write the packed-refs file using an atomic update. We might
 		// wind up reading it twice, before and after the lock, to ensure
 		// we don't miss an edit made externally.
@@ -599,7 +669,9 @@ void delete(RefDirectoryUpdate update) throws IOException {
 				lck.unlock();
 			}
 		}
+	}
 
+	private void removeLooseRef(String name) {
 		RefList<LooseRef> curLoose, newLoose;
 		do {
 			curLoose = looseRefs.get();
@@ -608,16 +680,6 @@ void delete(RefDirectoryUpdate update) throws IOException {
 				break;
 			newLoose = curLoose.remove(idx);
 		} while (!looseRefs.compareAndSet(curLoose, newLoose));
-
-		int levels = levelsIn(name) - 2;
-		delete(logWriter.logFor(name), levels);
-		if (dst.getStorage().isLoose()) {
-			update.unlock();
-			delete(fileFor(name), levels);
-		}
-
-		modCnt.incrementAndGet();
-		fireRefsChanged();
 	}
 
 	/**
@@ -626,6 +688,9 @@ void delete(RefDirectoryUpdate update) throws IOException {
 	 * updated with the new value. Each loose ref which was added to the
 	 * packed-ref file is deleted. If a given ref can't be locked it will not be
 	 * added to the pack file.
+	 * <p>
+	 * With {@code core.packedRefsFormat = reftable} the refs are appended to
+	 * the reftable stack instead of rewriting the packed-refs file.
 	 *
 	 * @param refs
 	 *            the refs to be added. Must be fully qualified.
@@ -634,7 +699,10 @@ void delete(RefDirectoryUpdate update) throws IOException {
 	public void pack(List<String> refs) throws IOException {
 		if (refs.size() == 0)
 			return;
-		FS fs = parent.getFS();
+		if (writesReftable()) {
+			packToReftable(refs);
+			return;
+		}
 
 		// Lock the packed refs file and read the content
 		LockFile lck = new LockFile(packedRefsFile);
@@ -663,39 +731,139 @@ public void pack(List<String> refs) throws IOException {
 			commitPackedRefs(lck, cur, packed);
 
 			// Now delete the loose refs which are now packed
-			for (String refName : refs) {
-				// Lock the loose ref
-				File refFile = fileFor(refName);
-				if (!fs.exists(refFile))
-					continue;
-				LockFile rLck = new LockFile(refFile);
-				if (!rLck.lock())
+			deleteLooseRefs(refs, cur);
+			// Don't fire refsChanged. The refs have not change, only their
+			// storage.
+		} finally {
+			lck.unlock();
+		}
+	}
+
+	private void packToReftable(List<String> refs) throws IOException {
+		createReftable();
+		RefList<Ref> packed = getPackedRefs(null);
+		RefList.Builder<Ref> changes = new RefList.Builder<>(refs.size());
+		for (String refName : refs) {
+			Ref ref = readRef(refName, packed);
+			if (ref == null || ref.isSymbolic())
+				continue; // can't pack symbolic refs
+			changes.add(peeledPackedRef(ref));
+		}
+		changes.sort();
+		RefList<Ref> cur = changes.toRefList();
+		reftable.add(cur.asList());
+		deleteLooseRefs(refs, cur);
+	}
+
+	private void deleteLooseRefs(List<String> refs, RefList<Ref> packed)
+			throws IOException {
+		FS fs = parent.getFS();
+		for (String refName : refs) {
+			// Lock the loose ref
+			File refFile = fileFor(refName);
+			if (!fs.exists(refFile))
+				continue;
+			LockFile rLck = new LockFile(refFile);
+			if (!rLck.lock())
+				continue;
+			try {
+				LooseRef currentLooseRef = scanRef(null, refName);
+				if (currentLooseRef == null || currentLooseRef.isSymbolic())
 					continue;
-				try {
-					LooseRef currentLooseRef = scanRef(null, refName);
-					if (currentLooseRef == null || currentLooseRef.isSymbolic())
-						continue;
-					Ref packedRef = cur.get(refName);
-					ObjectId clr_oid = currentLooseRef.getObjectId();
-					if (clr_oid != null
-							&& clr_oid.equals(packedRef.getObjectId())) {
-						RefList<LooseRef> curLoose, newLoose;
-						do {
-							curLoose = looseRefs.get();
-							int idx = curLoose.find(refName);
-							if (idx < 0)
-								break;
-							newLoose = curLoose.remove(idx);
-						} while (!looseRefs.compareAndSet(curLoose, newLoose));
-						int levels = levelsIn(refName) - 2;
-						delete(refFile, levels, rLck);
-					}
-				} finally {
-					rLck.unlock();
+				Ref packedRef = packed.get(refName);
+				ObjectId clr_oid = currentLooseRef.getObjectId();
+				if (clr_oid != null && packedRef != null
+						&& clr_oid.equals(packedRef.getObjectId())) {
+					removeLooseRef(refName);
+					int levels = levelsIn(refName) - 2;
+					delete(refFile, levels, rLck);
 				}
+			} finally {
+				rLck.unlock();
 			}
-			// Don't fire refsChanged. The refs have not change, only their
-			// storage.
+		}
+	}
+
+	/**
+	 * Store packed references in the reftable stack and remove the loose
+	 * files they replace.
+	 * <p>
+	 * The caller must hold the locks of the loose references named by
+	 * {@code changes}; they are released by this method.
+	 *
+	 * @param changes
+	 *            peeled references to store, or references without an object
+	 *            id to delete.
+	 * @param locks
+	 *            locks held on the loose references, by name.
+	 * @throws IOException
+	 *             the reftable stack cannot be updated.
+	 */
+	void storeInReftable(Collection<Ref> changes, Map<String, LockFile> locks)
+			throws IOException {
+		createReftable();
+		reftable.add(changes);
+		for (Ref r : changes) {
+			String name = r.getName();
+			int levels = levelsIn(name) - 2;
+			removeLooseRef(name);
+			if (r.getObjectId() == null)
+				delete(logWriter.logFor(name), levels);
+			delete(fileFor(name), levels, locks.remove(name));
+		}
+		modCnt.incrementAndGet();
+		fireRefsChanged();
+	}
+
+	/**
+	 * Merge the reftable stack into a single table, if it exists.
+	 *
+	 * @throws IOException
+	 *             the stack cannot be compacted.
+	 */
+	void compactReftable() throws IOException {
+		reftable.compact();
+	}
+
+	/** @return true if packed references are written to the reftable stack. */
+	boolean writesReftable() {
+		return writeReftable || isReftableFormat(parent.getConfig());
+	}
+
+	private static boolean isReftableFormat(FileBasedConfig cfg) {
+		return cfg.getLong(CONFIG_CORE_SECTION, null,
+				CONFIG_KEY_REPO_FORMAT_VERSION, 0) >= 1
+				&& REFTABLE.equalsIgnoreCase(cfg.getString(
+						CONFIG_EXTENSIONS_SECTION, null,
+						CONFIG_KEY_REFS_STORAGE));
+	}
+
+	private void createReftable() throws IOException {
+		if (reftable.exists())
+			return;
+
+		// Readers that do not know the tables must not open the repository,
+		// they would not see the packed refs and could prune their objects.
+		FileBasedConfig cfg = parent.getConfig();
+		if (!isReftableFormat(cfg)) {
+			cfg.setLong(CONFIG_CORE_SECTION, null,
+					CONFIG_KEY_REPO_FORMAT_VERSION, 1);
+			cfg.setString(CONFIG_EXTENSIONS_SECTION, null,
+					CONFIG_KEY_REFS_STORAGE, REFTABLE);
+			cfg.save();
+		}
+
+		// Move the existing packed-refs into the base of the stack. Holding
+		// the packed-refs lock keeps concurrent writers of the text format
+		// out until the stack takes over.
+		LockFile lck = new LockFile(packedRefsFile);
+		if (!lck.lock())
+			throw new LockFailedException(packedRefsFile);
+		try {
+			PackedRefList cur = readPackedRefs();
+			reftable.create(cur.asList());
+			FileUtils.delete(packedRefsFile, FileUtils.SKIP_MISSING);
+			packedRefs.set(PackedRefList.NO_PACKED_REFS);
 		} finally {
 			lck.unlock();
 		}
@@ -767,6 +935,9 @@ else if (0 <= (idx = packed.find(dst.getName())))
 	}
 
 	private PackedRefList getPackedRefs() throws IOException {
+		if (reftable.exists())
+			return getReftableRefs();
+
 		final PackedRefList curList = packedRefs.get();
 		if (!curList.snapshot.isModified(packedRefsFile))
 			return curList;
@@ -778,6 +949,79 @@ private PackedRefList getPackedRefs() throws IOException {
 		return newList;
 	}
 
+	private PackedRefList getReftableRefs() throws IOException {
+		final PackedRefList curList = packedRefs.get();
+		FileReftableStack.Stack stack = reftable.getStack();
+		if (curList.id.equals(stack.id))
+			return curList;
+
+		final PackedRefList newList = new PackedRefList(
+				scanReftable(stack.merged, ALL), FileSnapshot.DIRTY, stack.id);
+		if (packedRefs.compareAndSet(curList, newList))
+			modCnt.incrementAndGet();
+		return newList;
+	}
+
+	/**
+	 * Get the packed references needed to look up names under a prefix.
+	 * <p>
+	 * With packed-refs this is the complete packed list. With a reftable
+	 * stack only references starting with {@code prefix} are loaded; others
+	 * are searched in the stack on demand through
+	 * {@link #packedRef(RefList, String)}.
+	 *
+	 * @param prefix
+	 *            prefix of the names that will be enumerated; null if the
+	 *            list is only used to look up names.
+	 * @return packed references.
+	 * @throws IOException
+	 *             the packed references cannot be read.
+	 */
+	private RefList<Ref> getPackedRefs(String prefix) throws IOException {
+		if (!reftable.exists())
+			return getPackedRefs();
+		if (ALL.equals(prefix))
+			return getReftableRefs();
+
+		PackedRefList curList = packedRefs.get();
+		FileReftableStack.Stack stack = reftable.getStack();
+		if (curList.id.equals(stack.id))
+			return curList;
+
+		RefList<Ref> refs = prefix != null
+				? scanReftable(stack.merged, prefix)
+				: RefList.<Ref> emptyList();
+		return new ReftableRefList(refs, prefix, stack.merged);
+	}
+
+	private static Ref packedRef(RefList<Ref> packed, String name)
+			throws IOException {
+		if (packed instanceof ReftableRefList)
+			return ((ReftableRefList) packed).lookup(name);
+		return packed.get(name);
+	}
+
+	private static RefList<Ref> scanReftable(Reftable table, String prefix)
+			throws IOException {
+		RefList.Builder<Ref> all = new RefList.Builder<>();
+		Ref last = null;
+		boolean needSort = false;
+		try (RefCursor rc = ALL.equals(prefix) ? table.allRefs()
+				: table.seekRefsWithPrefix(prefix)) {
+			while (rc.next()) {
+				Ref cur = rc.getRef();
+				// Tables are sorted by bytes, lists by UTF-16 code units.
+				if (last != null && RefComparator.compareTo(last, cur) > 0)
+					needSort = true;
+				all.add(cur);
+				last = cur;
+			}
+		}
+		if (needSort)
+			all.sort();
+		return all.toRefList();
+	}
+
 	private PackedRefList readPackedRefs() throws IOException {
 		int maxStaleRetries = 5;
 		int retries = 0;
@@ -913,7 +1157,7 @@ private Ref readRef(String name, RefList<Ref> packed) throws IOException {
 			if (n == null) {
 				if (looseRefs.compareAndSet(curList, curList.remove(idx)))
 					modCnt.incrementAndGet();
-				return packed.get(name);
+				return packedRef(packed, name);
 			}
 
 			if (o == n)
@@ -925,7 +1169,7 @@ private Ref readRef(String name, RefList<Ref> packed) throws IOException {
 
 		final LooseRef n = scanRef(null, name);
 		if (n == null)
-			return packed.get(name);
+			return packedRef(packed, name);
 
 		// check whether the found new ref is the an additional ref. These refs
 		// should not go into looseRefs
@@ -1106,6 +1350,28 @@ private static class PackedRefList extends RefList<Ref> {
 		}
 	}
 
+	/**
+	 * Packed references of a reftable stack, holding only the names under
+	 * {@code prefix}; other names are looked up in the stack.
+	 */
+	private static class ReftableRefList extends RefList<Ref> {
+		private final String prefix;
+
+		private final Reftable table;
+
+		ReftableRefList(RefList<Ref> src, String prefix, Reftable table) {
+			super(src);
+			this.prefix = prefix;
+			this.table = table;
+		}
+
+		Ref lookup(String name) throws IOException {
+			if (prefix != null && name.startsWith(prefix))
+				return get(name);
+			return table.exactRef(name);
+		}
+	}
+
 	private static LooseSymbolicRef newSymbolicRef(FileSnapshot snapshot,
 			String name, String target) {
 		Ref dst = new ObjectIdRef.Unpeeled(NEW, target, null);
@@ -0,0 +1,314 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.file;
+
+import static org.eclipse.jgit.lib.Constants.R_REFS;
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.LOCK_FAILURE;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.NOT_ATTEMPTED;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.OK;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_MISSING_OBJECT;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_NONFASTFORWARD;
+import static org.eclipse.jgit.transport.ReceiveCommand.Result.REJECTED_OTHER_REASON;
+
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.BatchRefUpdate;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.revwalk.RevObject;
+import org.eclipse.jgit.revwalk.RevTag;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.ReceiveCommand;
+
+/**
+ * Batch update storing all commands in one table of the reftable stack.
+ * <p>
+ * The loose files of all references in the batch are locked, the expected
+ * old values are verified, and the new values are appended to the stack as a
+ * single table. The update is therefore atomic, and its cost does not depend
+ * on the number of references in the repository.
+ * <p>
+ * Batches updating symbolic references, or names outside of {@code refs/},
+ * fall back to the sequential implementation of {@link BatchRefUpdate}.
+ */
+class ReftableBatchRefUpdate extends BatchRefUpdate {
+	private static final Duration MAX_WAIT = Duration.ofSeconds(5);
+
+	private final RefDirectory refdb;
+
+	ReftableBatchRefUpdate(RefDirectory refdb) {
+		super(refdb);
+		this.refdb = refdb;
+	}
+
+	@Override
+	public void execute(RevWalk walk, ProgressMonitor monitor,
+			List<String> options) throws IOException {
+		List<ReceiveCommand> pending = ReceiveCommand.filter(getCommands(),
+				NOT_ATTEMPTED);
+		if (pending.isEmpty())
+			return;
+		if (!canStoreInReftable(pending)) {
+			super.execute(walk, monitor, options);
+			return;
+		}
+		if (!blockUntilTimestamps(MAX_WAIT))
+			return;
+
+		monitor.beginTask(JGitText.get().updatingReferences, pending.size());
+		Map<String, LockFile> locks = new HashMap<>();
+		try {
+			lockLooseRefs(pending, locks);
+			List<Ref> changes = prepare(walk, pending);
+			List<ReceiveCommand> accepted = ReceiveCommand.filter(pending,
+					NOT_ATTEMPTED);
+			if (isAtomic() && accepted.size() < pending.size()) {
+				ReceiveCommand.abort(pending);
+				return;
+			}
+			if (changes.isEmpty())
+				return;
+
+			refdb.storeInReftable(changes, locks);
+			for (ReceiveCommand cmd : accepted) {
+				cmd.setResult(OK);
+				monitor.update(1);
+			}
+			writeLog(accepted);
+		} finally {
+			for (LockFile lck : locks.values())
+				lck.unlock();
+			monitor.endTask();
+		}
+	}
+
+	private boolean canStoreInReftable(List<ReceiveCommand> pending)
+			throws IOException {
+		for (ReceiveCommand cmd : pending) {
+			String name = cmd.getRefName();
+			if (!name.startsWith(R_REFS))
+				return false;
+			Ref ref = refdb.exactRef(name);
+			if (ref != null && ref.isSymbolic())
+				return false;
+		}
+		return true;
+	}
+
+	private void lockLooseRefs(List<ReceiveCommand> pending,
+			Map<String, LockFile> locks) throws IOException {
+		for (ReceiveCommand cmd : pending) {
+			String name = cmd.getRefName();
+			LockFile lck = new LockFile(refdb.fileFor(name));
+			if (locks.containsKey(name) || !lck.lock()) {
+				cmd.setResult(LOCK_FAILURE);
+				continue;
+			}
+			locks.put(name, lck);
+		}
+	}
+
+	private List<Ref> prepare(RevWalk walk, List<ReceiveCommand> pending)
+			throws IOException {
+		List<Ref> changes = new ArrayList<>(pending.size());
+		Set<String> deleted = new HashSet<>();
+		Set<String> created = new HashSet<>();
+
+		// Verify deletions first; they may free the name space for some of
+		// the creations.
+		for (ReceiveCommand cmd : pending) {
+			if (cmd.getType() == ReceiveCommand.Type.DELETE
+					&& prepare(walk, cmd, deleted, created, changes))
+				deleted.add(cmd.getRefName());
+		}
+		for (ReceiveCommand cmd : pending) {
+			if (cmd.getType() != ReceiveCommand.Type.DELETE)
+				prepare(walk, cmd, deleted, created, changes);
+		}
+		return changes;
+	}
+
+	private boolean prepare(RevWalk walk, ReceiveCommand cmd,
+			Set<String> deleted, Set<String> created, List<Ref> changes) {
+		if (cmd.getResult() != NOT_ATTEMPTED)
+			return false;
+		try {
+			Ref ref = prepare(walk, cmd, deleted, created);
+			if (ref == null)
+				return false;
+			changes.add(ref);
+			return true;
+		} catch (IOException err) {
+			cmd.setResult(REJECTED_OTHER_REASON, MessageFormat.format(
+					JGitText.get().lockError, err.getMessage()));
+			return false;
+		}
+	}
+
+	private Ref prepare(RevWalk walk, ReceiveCommand cmd, Set<String> deleted,
+			Set<String> created) throws IOException {
+		String name = cmd.getRefName();
+		Ref cur = refdb.exactRef(name);
+		if (cur != null && cur.isSymbolic()) {
+			cmd.setResult(LOCK_FAILURE);
+			return null;
+		}
+		ObjectId curId = cur != null ? cur.getObjectId() : ObjectId.zeroId();
+		if (!curId.equals(cmd.getOldId())) {
+			cmd.setResult(LOCK_FAILURE);
+			return null;
+		}
+		if (cmd.getType() == ReceiveCommand.Type.DELETE)
+			return new ObjectIdRef.Unpeeled(NEW, name, null);
+
+		RevObject obj;
+		try {
+			obj = walk.parseAny(cmd.getNewId());
+			cmd.updateType(walk);
+		} catch (MissingObjectException e) {
+			cmd.setResult(REJECTED_MISSING_OBJECT);
+			return null;
+		}
+		if (cmd.getType() == ReceiveCommand.Type.UPDATE_NONFASTFORWARD
+				&& !isAllowNonFastForwards()) {
+			cmd.setResult(REJECTED_NONFASTFORWARD);
+			return null;
+		}
+		if (cmd.getType() == ReceiveCommand.Type.CREATE) {
+			if (isNameConflicting(name, deleted, created)) {
+				cmd.setResult(LOCK_FAILURE);
+				return null;
+			}
+			created.add(name);
+		}
+
+		ObjectId id = cmd.getNewId().copy();
+		if (obj instanceof RevTag) {
+			ObjectId peeled = walk.peel(obj).copy();
+			return new ObjectIdRef.PeeledTag(PACKED, name, id, peeled);
+		}
+		return new ObjectIdRef.PeeledNonTag(PACKED, name, id);
+	}
+
+	private boolean isNameConflicting(String name, Set<String> deleted,
+			Set<String> created) throws IOException {
+		// Cannot be nested within an existing reference.
+		int lastSlash = name.lastIndexOf('/');
+		while (0 < lastSlash) {
+			String needle = name.substring(0, lastSlash);
+			if (created.contains(needle) || (!deleted.contains(needle)
+					&& refdb.exactRef(needle) != null))
+				return true;
+			lastSlash = name.lastIndexOf('/', lastSlash - 1);
+		}
+
+		// Cannot be the container of an existing reference.
+		String prefix = name + '/';
+		for (String c : created) {
+			if (c.startsWith(prefix))
+				return true;
+		}
+		for (String n : refdb.getRefs(prefix).keySet()) {
+			if (!deleted.contains(prefix + n))
+				return true;
+		}
+		return false;
+	}
+
+	private void writeLog(List<ReceiveCommand> accepted) throws IOException {
+		if (isRefLogDisabled())
+			return;
+		PersonIdent ident = getRefLogIdent();
+		if (ident == null)
+			ident = new PersonIdent(refdb.getRepository());
+		else
+			ident = new PersonIdent(ident);
+
+		ReflogWriter logWriter = refdb.getLogWriter();
+		for (ReceiveCommand cmd : accepted) {
+			if (cmd.getType() == ReceiveCommand.Type.DELETE)
+				continue;
+			logWriter.log(cmd.getRefName(), cmd.getOldId(), cmd.getNewId(),
+					ident, toLogMessage(cmd));
+		}
+	}
+
+	private String toLogMessage(ReceiveCommand cmd) {
+		String msg = getRefLogMessage();
+		if (!isRefLogIncludingResult())
+			return msg;
+		String strResult;
+		switch (cmd.getType()) {
+		case CREATE:
+			strResult = "created"; //$NON-NLS-1$
+			break;
+		case UPDATE:
+			strResult = "fast forward"; //$NON-NLS-1$
+			break;
+		case UPDATE_NONFASTFORWARD:
+			strResult = "forced-update"; //$NON-NLS-1$
+			break;
+		default:
+			return msg;
+		}
+		if (msg.length() > 0)
+			return msg + ": " + strResult; //$NON-NLS-1$
+		return strResult;
+	}
+}
@@ -58,6 +58,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.internal.storage.pack.CachedPack;
 import org.eclipse.jgit.internal.storage.pack.ObjectReuseAsIs;
 import org.eclipse.jgit.internal.storage.pack.ObjectToPack;
@@ -117,12 +118,8 @@ public ObjectReader newReader() {
 
 	@Override
 	public BitmapIndex getBitmapIndex() throws IOException {
-		for (PackFile pack : db.getPacks()) {
-			PackBitmapIndex index = pack.getBitmapIndex();
-			if (index != null)
-				return new BitmapIndexImpl(index);
-		}
-		return null;
+		PackBitmapIndex index = PackFile.findBitmapIndex(db.getPacks());
+		return index != null ? new BitmapIndexImpl(index) : null;
 	}
 
 	@Override
@@ -173,6 +170,11 @@ public Set<ObjectId> getShallowCommits() throws IOException {
 		return db.getShallowCommits();
 	}
 
+	@Override
+	public CommitGraph getCommitGraph() throws IOException {
+		return db.getCommitGraph();
+	}
+
 	@Override
 	public long getObjectSize(AnyObjectId objectId, int typeHint)
 			throws MissingObjectException, IncorrectObjectTypeException,
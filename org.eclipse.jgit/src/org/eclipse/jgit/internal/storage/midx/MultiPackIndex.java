@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.ObjectId;
+
+/**
+ * The multi-pack-index maps every object of a set of packs to the pack
+ * holding it and its offset within that pack, so an object can be found
+ * with a single search instead of probing the index of each pack in turn.
+ * <p>
+ * Objects are identified by their position, the index of their ObjectId in
+ * the sorted list of objects covered by the multi-pack-index. An object
+ * stored in more than one pack is recorded once.
+ * <p>
+ * Implementations of this interface must be safe for concurrent use by
+ * multiple threads.
+ */
+public interface MultiPackIndex {
+	/**
+	 * Get the names of the pack indexes covered by this multi-pack-index.
+	 * <p>
+	 * Names are file names of the form {@code pack-*.idx}, sorted. A pack is
+	 * identified by its position in this array.
+	 *
+	 * @return the names of the covered packs. The returned array is shared
+	 *         with the implementation and must not be modified by the caller.
+	 */
+	String[] getPackNames();
+
+	/**
+	 * Find the position of an object in the multi-pack-index.
+	 *
+	 * @param id
+	 *            the object to look for.
+	 * @return position of the object, or -1 if the object is not in any of
+	 *         the covered packs.
+	 */
+	int findPosition(AnyObjectId id);
+
+	/**
+	 * Get the object at a position.
+	 *
+	 * @param position
+	 *            position of the object, as returned by
+	 *            {@link #findPosition(AnyObjectId)}.
+	 * @return the ObjectId of the object at that position.
+	 */
+	ObjectId getObjectId(int position);
+
+	/**
+	 * Get the pack holding an object.
+	 *
+	 * @param position
+	 *            position of the object, as returned by
+	 *            {@link #findPosition(AnyObjectId)}.
+	 * @return index of the pack in {@link #getPackNames()}.
+	 */
+	int getPackId(int position);
+
+	/**
+	 * Get the offset of an object within its pack.
+	 *
+	 * @param position
+	 *            position of the object, as returned by
+	 *            {@link #findPosition(AnyObjectId)}.
+	 * @return offset of the object in the pack given by
+	 *         {@link #getPackId(int)}.
+	 */
+	long getOffset(int position);
+
+	/** @return number of objects covered by this multi-pack-index. */
+	int getObjectCount();
+}
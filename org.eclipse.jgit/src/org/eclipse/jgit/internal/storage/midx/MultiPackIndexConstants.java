@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+/** Constants of the multi-pack-index file format. */
+class MultiPackIndexConstants {
+	/** Signature at the start of the file, {@code "MIDX"}. */
+	static final int MIDX_MAGIC = 0x4d494458;
+
+	/** Version of the file format written by this implementation. */
+	static final int MIDX_VERSION = 1;
+
+	/** Hash version identifying SHA-1 object names. */
+	static final int OID_HASH_VERSION = 1;
+
+	/** Size of the header preceding the chunk lookup table. */
+	static final int MIDX_HEADER_SIZE = 12;
+
+	/** Size of each entry of the chunk lookup table. */
+	static final int CHUNK_LOOKUP_WIDTH = 12;
+
+	/** Chunk with the NUL terminated names of the packs, {@code "PNAM"}. */
+	static final int CHUNK_ID_PACK_NAMES = 0x504e414d;
+
+	/** Chunk with the 256 entry fanout table, {@code "OIDF"}. */
+	static final int CHUNK_ID_OID_FANOUT = 0x4f494446;
+
+	/** Chunk with the sorted object names, {@code "OIDL"}. */
+	static final int CHUNK_ID_OID_LOOKUP = 0x4f49444c;
+
+	/** Chunk with the pack and offset of each object, {@code "OOFF"}. */
+	static final int CHUNK_ID_OBJECT_OFFSETS = 0x4f4f4646;
+
+	/** Chunk with the offsets that do not fit 31 bits, {@code "LOFF"}. */
+	static final int CHUNK_ID_LARGE_OFFSETS = 0x4c4f4646;
+
+	/** Number of entries in the fanout table. */
+	static final int MIDX_FANOUT_SIZE = 256;
+
+	/** Width of a single object in the object offsets chunk. */
+	static final int OBJECT_OFFSETS_WIDTH = 8;
+
+	/** Offset flag redirecting to the large offsets chunk. */
+	static final int MIDX_LARGE_OFFSET_NEEDED = 0x80000000;
+
+	private MultiPackIndexConstants() {
+	}
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_LARGE_OFFSETS;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OBJECT_OFFSETS;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_PACK_NAMES;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_FANOUT_SIZE;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_HEADER_SIZE;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_LARGE_OFFSET_NEEDED;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_MAGIC;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_VERSION;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OBJECT_OFFSETS_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OID_HASH_VERSION;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.util.IO;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * The loader returns the representation of the multi-pack-index file
+ * content.
+ */
+public class MultiPackIndexLoader {
+	/**
+	 * Open an existing multi-pack-index file for reading.
+	 * <p>
+	 * The format of the file is detected and a proper reader implementation
+	 * is created and returned to the caller. The file content is loaded into
+	 * memory, the file is closed before this method returns.
+	 *
+	 * @param midxFile
+	 *            existing multi-pack-index to read.
+	 * @return a copy of the multi-pack-index file in memory.
+	 * @throws FileNotFoundException
+	 *             the file does not exist.
+	 * @throws IOException
+	 *             the file exists but could not be read due to security
+	 *             errors, unrecognized data version, or unexpected data
+	 *             corruption.
+	 */
+	public static MultiPackIndex open(File midxFile)
+			throws FileNotFoundException, IOException {
+		try (InputStream fd = new BufferedInputStream(
+				new FileInputStream(midxFile))) {
+			return read(fd);
+		} catch (IOException ioe) {
+			if (ioe instanceof FileNotFoundException)
+				throw ioe;
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unreadableMultiPackIndex,
+					midxFile.getAbsolutePath()), ioe);
+		}
+	}
+
+	/**
+	 * Read an existing multi-pack-index file from a buffered stream.
+	 * <p>
+	 * The format of the file is detected and a proper reader implementation
+	 * is created and returned to the caller. The stream's position is left at
+	 * the start of the trailing checksum, which is not verified.
+	 *
+	 * @param fd
+	 *            stream to read the multi-pack-index file from. The stream
+	 *            must be buffered as some small IOs are performed against the
+	 *            stream. The caller is responsible for closing the stream.
+	 * @return a copy of the multi-pack-index file in memory.
+	 * @throws IOException
+	 *             the stream cannot be read, or it contains an unsupported
+	 *             version or corrupt data.
+	 */
+	public static MultiPackIndex read(InputStream fd) throws IOException {
+		byte[] hdr = new byte[MIDX_HEADER_SIZE];
+		IO.readFully(fd, hdr, 0, hdr.length);
+
+		int magic = NB.decodeInt32(hdr, 0);
+		if (magic != MIDX_MAGIC)
+			throw new IOException(JGitText.get().notAMultiPackIndex);
+
+		int v = hdr[4];
+		if (v != MIDX_VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedMultiPackIndexVersion,
+					Integer.valueOf(v)));
+
+		int hashVersion = hdr[5];
+		if (hashVersion != OID_HASH_VERSION)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedMultiPackIndexHashVersion,
+					Integer.valueOf(hashVersion)));
+
+		int numberOfChunks = hdr[6] & 0xff;
+		int baseIndexes = hdr[7] & 0xff;
+		if (baseIndexes != 0)
+			throw new IOException(
+					JGitText.get().multiPackIndexChainNotSupported);
+		int packCnt = NB.decodeInt32(hdr, 8);
+		if (packCnt < 0)
+			throw new IOException(JGitText.get().multiPackIndexCorrupt);
+
+		byte[] lookupBuffer = new byte[CHUNK_LOOKUP_WIDTH
+				* (numberOfChunks + 1)];
+		IO.readFully(fd, lookupBuffer, 0, lookupBuffer.length);
+
+		String[] packNames = null;
+		int[] fanout = null;
+		byte[] oidLookup = null;
+		byte[] objectOffsets = null;
+		byte[] largeOffsets = null;
+
+		long pos = hdr.length + lookupBuffer.length;
+		for (int i = 0; i < numberOfChunks; i++) {
+			int id = NB.decodeInt32(lookupBuffer, i * CHUNK_LOOKUP_WIDTH);
+			long start = NB.decodeInt64(lookupBuffer,
+					i * CHUNK_LOOKUP_WIDTH + 4);
+			long end = NB.decodeInt64(lookupBuffer,
+					(i + 1) * CHUNK_LOOKUP_WIDTH + 4);
+			if (start < pos || end < start)
+				throw new IOException(JGitText.get().multiPackIndexCorrupt);
+			if (end - start > Integer.MAX_VALUE)
+				throw new IOException(
+						JGitText.get().multiPackIndexFileIsTooLargeForJgit);
+			IO.skipFully(fd, start - pos);
+			byte[] buffer = new byte[(int) (end - start)];
+			IO.readFully(fd, buffer, 0, buffer.length);
+			pos = end;
+
+			switch (id) {
+			case CHUNK_ID_PACK_NAMES:
+				checkChunkNotRepeated(packNames == null, id);
+				packNames = readPackNames(buffer, packCnt);
+				break;
+			case CHUNK_ID_OID_FANOUT:
+				checkChunkNotRepeated(fanout == null, id);
+				fanout = readFanout(buffer);
+				break;
+			case CHUNK_ID_OID_LOOKUP:
+				checkChunkNotRepeated(oidLookup == null, id);
+				oidLookup = buffer;
+				break;
+			case CHUNK_ID_OBJECT_OFFSETS:
+				checkChunkNotRepeated(objectOffsets == null, id);
+				objectOffsets = buffer;
+				break;
+			case CHUNK_ID_LARGE_OFFSETS:
+				checkChunkNotRepeated(largeOffsets == null, id);
+				largeOffsets = buffer;
+				break;
+			default:
+				// Unknown chunks are optional and can be ignored.
+				break;
+			}
+		}
+
+		if (packNames == null)
+			throw chunkMissing(CHUNK_ID_PACK_NAMES);
+		if (fanout == null)
+			throw chunkMissing(CHUNK_ID_OID_FANOUT);
+		if (oidLookup == null)
+			throw chunkMissing(CHUNK_ID_OID_LOOKUP);
+		if (objectOffsets == null)
+			throw chunkMissing(CHUNK_ID_OBJECT_OFFSETS);
+		if (largeOffsets == null)
+			largeOffsets = new byte[0];
+
+		long objectCnt = fanout[MIDX_FANOUT_SIZE - 1] & 0xffffffffL;
+		if (oidLookup.length != objectCnt * Constants.OBJECT_ID_LENGTH
+				|| objectOffsets.length != objectCnt * OBJECT_OFFSETS_WIDTH
+				|| largeOffsets.length % 8 != 0)
+			throw new IOException(JGitText.get().multiPackIndexCorrupt);
+		checkObjectOffsets(objectOffsets, packCnt, largeOffsets.length / 8);
+		return new MultiPackIndexV1(packNames, fanout, oidLookup,
+				objectOffsets, largeOffsets);
+	}
+
+	private static String[] readPackNames(byte[] buffer, int packCnt)
+			throws IOException {
+		List<String> names = new ArrayList<>(packCnt);
+		int ptr = 0;
+		while (ptr < buffer.length && buffer[ptr] != 0) {
+			int end = RawParseUtils.next(buffer, ptr, '\0') - 1;
+			if (end >= buffer.length || buffer[end] != 0)
+				throw new IOException(JGitText.get().multiPackIndexCorrupt);
+			names.add(RawParseUtils.decode(Constants.CHARSET, buffer, ptr,
+					end));
+			ptr = end + 1;
+		}
+		if (names.size() != packCnt)
+			throw new IOException(JGitText.get().multiPackIndexCorrupt);
+		return names.toArray(new String[packCnt]);
+	}
+
+	private static int[] readFanout(byte[] buffer) throws IOException {
+		if (buffer.length != MIDX_FANOUT_SIZE * 4)
+			throw new IOException(JGitText.get().multiPackIndexCorrupt);
+		int[] fanout = new int[MIDX_FANOUT_SIZE];
+		for (int k = 0; k < fanout.length; k++) {
+			fanout[k] = NB.decodeInt32(buffer, k * 4);
+			if (fanout[k] < 0 || (k > 0 && fanout[k] < fanout[k - 1]))
+				throw new IOException(JGitText.get().multiPackIndexCorrupt);
+		}
+		return fanout;
+	}
+
+	private static void checkObjectOffsets(byte[] objectOffsets, int packCnt,
+			int largeOffsetCnt) throws IOException {
+		for (int p = 0; p < objectOffsets.length; p += OBJECT_OFFSETS_WIDTH) {
+			int packId = NB.decodeInt32(objectOffsets, p);
+			int offset = NB.decodeInt32(objectOffsets, p + 4);
+			if (packId < 0 || packId >= packCnt
+					|| ((offset & MIDX_LARGE_OFFSET_NEEDED) != 0
+							&& (offset & ~MIDX_LARGE_OFFSET_NEEDED)
+									>= largeOffsetCnt))
+				throw new IOException(JGitText.get().multiPackIndexCorrupt);
+		}
+	}
+
+	private static void checkChunkNotRepeated(boolean first, int id)
+			throws IOException {
+		if (!first)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().multiPackIndexChunkRepeated,
+					chunkName(id)));
+	}
+
+	private static IOException chunkMissing(int id) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().multiPackIndexChunkNeeded, chunkName(id)));
+	}
+
+	private static String chunkName(int id) {
+		byte[] b = new byte[4];
+		NB.encodeInt32(b, 0, id);
+		return new String(b, 0, 4, Constants.CHARSET);
+	}
+
+	private MultiPackIndexLoader() {
+	}
+}
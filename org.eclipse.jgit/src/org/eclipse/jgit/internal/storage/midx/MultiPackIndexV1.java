@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_LARGE_OFFSET_NEEDED;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OBJECT_OFFSETS_WIDTH;
+
+import org.eclipse.jgit.lib.AnyObjectId;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Support for the multi-pack-index v1 format.
+ *
+ * @see MultiPackIndex
+ */
+class MultiPackIndexV1 implements MultiPackIndex {
+	private final String[] packNames;
+
+	private final int[] fanoutTable;
+
+	private final byte[] oidLookup;
+
+	private final byte[] objectOffsets;
+
+	private final byte[] largeOffsets;
+
+	private final int objectCnt;
+
+	MultiPackIndexV1(String[] packNames, int[] fanoutTable, byte[] oidLookup,
+			byte[] objectOffsets, byte[] largeOffsets) {
+		this.packNames = packNames;
+		this.fanoutTable = fanoutTable;
+		this.oidLookup = oidLookup;
+		this.objectOffsets = objectOffsets;
+		this.largeOffsets = largeOffsets;
+		this.objectCnt = fanoutTable[fanoutTable.length - 1];
+	}
+
+	@Override
+	public String[] getPackNames() {
+		return packNames;
+	}
+
+	@Override
+	public int findPosition(AnyObjectId id) {
+		int levelOne = id.getFirstByte();
+		int low = levelOne == 0 ? 0 : fanoutTable[levelOne - 1];
+		int high = fanoutTable[levelOne];
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			int cmp = id.compareTo(oidLookup,
+					mid * Constants.OBJECT_ID_LENGTH);
+			if (cmp < 0)
+				high = mid;
+			else if (cmp == 0)
+				return mid;
+			else
+				low = mid + 1;
+		}
+		return -1;
+	}
+
+	@Override
+	public ObjectId getObjectId(int position) {
+		if (position < 0 || position >= objectCnt)
+			return null;
+		return ObjectId.fromRaw(oidLookup,
+				position * Constants.OBJECT_ID_LENGTH);
+	}
+
+	@Override
+	public int getPackId(int position) {
+		return NB.decodeInt32(objectOffsets, position * OBJECT_OFFSETS_WIDTH);
+	}
+
+	@Override
+	public long getOffset(int position) {
+		int offset = NB.decodeInt32(objectOffsets,
+				position * OBJECT_OFFSETS_WIDTH + 4);
+		if ((offset & MIDX_LARGE_OFFSET_NEEDED) == 0)
+			return offset;
+		return NB.decodeInt64(largeOffsets,
+				(offset & ~MIDX_LARGE_OFFSET_NEEDED) * 8);
+	}
+
+	@Override
+	public int getObjectCount() {
+		return objectCnt;
+	}
+}
@@ -0,0 +1,399 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.midx;
+
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_LARGE_OFFSETS;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OBJECT_OFFSETS;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OID_FANOUT;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_OID_LOOKUP;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_ID_PACK_NAMES;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.CHUNK_LOOKUP_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_FANOUT_SIZE;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_HEADER_SIZE;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_LARGE_OFFSET_NEEDED;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_MAGIC;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.MIDX_VERSION;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OBJECT_OFFSETS_WIDTH;
+import static org.eclipse.jgit.internal.storage.midx.MultiPackIndexConstants.OID_HASH_VERSION;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.DigestOutputStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.file.PackIndex;
+import org.eclipse.jgit.internal.storage.file.PackIndex.MutableEntry;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.util.NB;
+
+/**
+ * Writes a multi-pack-index file covering a set of packs.
+ * <p>
+ * Packs are added in order of preference: an object stored in several packs
+ * is recorded for the pack added first. An existing multi-pack-index can be
+ * added as a source too, so a new pack can be merged into it without reading
+ * the index of every pack it covers.
+ * <p>
+ * The output is compatible with the multi-pack-index file of C git, and is
+ * read back by {@link MultiPackIndexLoader}.
+ */
+public class MultiPackIndexWriter {
+	private static final Comparator<Cursor> ORDER = new Comparator<Cursor>() {
+		@Override
+		public int compare(Cursor a, Cursor b) {
+			int cmp = a.id.compareTo(b.id);
+			if (cmp != 0)
+				return cmp;
+			return a.rank - b.rank;
+		}
+	};
+
+	private final List<Source> sources = new ArrayList<>();
+
+	private int objectCnt;
+
+	/**
+	 * Add a pack to the multi-pack-index.
+	 *
+	 * @param name
+	 *            file name of the pack index, of the form
+	 *            {@code pack-*.idx}.
+	 * @param index
+	 *            index of the pack.
+	 */
+	public void addPack(String name, PackIndex index) {
+		sources.add(new PackSource(sources.size(), name, index));
+	}
+
+	/**
+	 * Add all packs covered by an existing multi-pack-index.
+	 *
+	 * @param midx
+	 *            the multi-pack-index to copy entries from. All of its packs
+	 *            must still exist.
+	 */
+	public void addMultiPackIndex(MultiPackIndex midx) {
+		sources.add(new MidxSource(sources.size(), midx));
+	}
+
+	/**
+	 * @return number of objects written by the last
+	 *         {@link #write(ProgressMonitor, OutputStream)}.
+	 */
+	public int getObjectCount() {
+		return objectCnt;
+	}
+
+	/**
+	 * Write the multi-pack-index of the added packs.
+	 *
+	 * @param pm
+	 *            progress monitor to report the number of objects written.
+	 * @param midxStream
+	 *            stream to write the multi-pack-index to. The stream is not
+	 *            closed by this method.
+	 * @throws IOException
+	 *             a pack index could not be read, or the stream failed.
+	 */
+	public void write(ProgressMonitor pm, OutputStream midxStream)
+			throws IOException {
+		TreeSet<String> sortedNames = new TreeSet<>();
+		for (Source s : sources)
+			s.addNames(sortedNames);
+		Map<String, Integer> packIds = new HashMap<>();
+		ByteArrayOutputStream packNames = new ByteArrayOutputStream();
+		for (String name : sortedNames) {
+			packIds.put(name, Integer.valueOf(packIds.size()));
+			packNames.write(Constants.encode(name));
+			packNames.write(0);
+		}
+		while (packNames.size() % 4 != 0)
+			packNames.write(0);
+
+		final int[] fanout = new int[MIDX_FANOUT_SIZE];
+		final int[] largeCnt = new int[1];
+		objectCnt = 0;
+		merge(packIds, new Visitor() {
+			@Override
+			public void visit(Cursor c) {
+				fanout[c.id.getFirstByte()]++;
+				if (needsLargeOffset(c.offset))
+					largeCnt[0]++;
+				objectCnt++;
+			}
+		});
+
+		pm.beginTask(JGitText.get().writingOutMultiPackIndex, objectCnt);
+		final DigestOutputStream out = new DigestOutputStream(
+				midxStream instanceof BufferedOutputStream ? midxStream
+						: new BufferedOutputStream(midxStream),
+				Constants.newMessageDigest());
+
+		int chunkCnt = largeCnt[0] > 0 ? 5 : 4;
+		int[] ids = new int[chunkCnt];
+		long[] sizes = new long[chunkCnt];
+		ids[0] = CHUNK_ID_PACK_NAMES;
+		sizes[0] = packNames.size();
+		ids[1] = CHUNK_ID_OID_FANOUT;
+		sizes[1] = MIDX_FANOUT_SIZE * 4;
+		ids[2] = CHUNK_ID_OID_LOOKUP;
+		sizes[2] = (long) objectCnt * Constants.OBJECT_ID_LENGTH;
+		ids[3] = CHUNK_ID_OBJECT_OFFSETS;
+		sizes[3] = (long) objectCnt * OBJECT_OFFSETS_WIDTH;
+		if (chunkCnt == 5) {
+			ids[4] = CHUNK_ID_LARGE_OFFSETS;
+			sizes[4] = (long) largeCnt[0] * 8;
+		}
+
+		byte[] hdr = new byte[MIDX_HEADER_SIZE];
+		NB.encodeInt32(hdr, 0, MIDX_MAGIC);
+		hdr[4] = MIDX_VERSION;
+		hdr[5] = OID_HASH_VERSION;
+		hdr[6] = (byte) chunkCnt;
+		hdr[7] = 0;
+		NB.encodeInt32(hdr, 8, packIds.size());
+		out.write(hdr);
+
+		byte[] lookup = new byte[CHUNK_LOOKUP_WIDTH * (chunkCnt + 1)];
+		long offset = hdr.length + lookup.length;
+		for (int i = 0; i < chunkCnt; i++) {
+			NB.encodeInt32(lookup, i * CHUNK_LOOKUP_WIDTH, ids[i]);
+			NB.encodeInt64(lookup, i * CHUNK_LOOKUP_WIDTH + 4, offset);
+			offset += sizes[i];
+		}
+		NB.encodeInt64(lookup, chunkCnt * CHUNK_LOOKUP_WIDTH + 4, offset);
+		out.write(lookup);
+
+		packNames.writeTo(out);
+
+		final byte[] tmp = new byte[Constants.OBJECT_ID_LENGTH];
+		int total = 0;
+		for (int i = 0; i < fanout.length; i++) {
+			total += fanout[i];
+			NB.encodeInt32(tmp, 0, total);
+			out.write(tmp, 0, 4);
+		}
+
+		merge(packIds, new Visitor() {
+			@Override
+			public void visit(Cursor c) throws IOException {
+				c.id.copyRawTo(tmp, 0);
+				out.write(tmp, 0, Constants.OBJECT_ID_LENGTH);
+			}
+		});
+
+		final int[] nextLarge = new int[1];
+		merge(packIds, new Visitor() {
+			@Override
+			public void visit(Cursor c) throws IOException {
+				NB.encodeInt32(tmp, 0, c.packId);
+				if (needsLargeOffset(c.offset))
+					NB.encodeInt32(tmp, 4,
+							MIDX_LARGE_OFFSET_NEEDED | nextLarge[0]++);
+				else
+					NB.encodeInt32(tmp, 4, (int) c.offset);
+				out.write(tmp, 0, OBJECT_OFFSETS_WIDTH);
+				pm.update(1);
+			}
+		});
+
+		if (largeCnt[0] > 0) {
+			merge(packIds, new Visitor() {
+				@Override
+				public void visit(Cursor c) throws IOException {
+					if (needsLargeOffset(c.offset)) {
+						NB.encodeInt64(tmp, 0, c.offset);
+						out.write(tmp, 0, 8);
+					}
+				}
+			});
+		}
+
+		out.on(false);
+		out.write(out.getMessageDigest().digest());
+		out.flush();
+		pm.endTask();
+	}
+
+	private static boolean needsLargeOffset(long offset) {
+		return offset > Integer.MAX_VALUE;
+	}
+
+	private void merge(Map<String, Integer> packIds, Visitor visitor)
+			throws IOException {
+		PriorityQueue<Cursor> queue = new PriorityQueue<>(
+				Math.max(1, sources.size()), ORDER);
+		for (Source s : sources) {
+			Cursor c = s.open(packIds);
+			if (c.next())
+				queue.add(c);
+		}
+
+		ObjectId last = null;
+		Cursor c;
+		while ((c = queue.poll()) != null) {
+			if (last == null || !last.equals(c.id)) {
+				visitor.visit(c);
+				last = c.id;
+			}
+			if (c.next())
+				queue.add(c);
+		}
+	}
+
+	private interface Visitor {
+		void visit(Cursor c) throws IOException;
+	}
+
+	private abstract static class Source {
+		final int rank;
+
+		Source(int rank) {
+			this.rank = rank;
+		}
+
+		abstract void addNames(TreeSet<String> names);
+
+		abstract Cursor open(Map<String, Integer> packIds);
+	}
+
+	private abstract static class Cursor {
+		final int rank;
+
+		ObjectId id;
+
+		int packId;
+
+		long offset;
+
+		Cursor(int rank) {
+			this.rank = rank;
+		}
+
+		abstract boolean next();
+	}
+
+	private static class PackSource extends Source {
+		private final String name;
+
+		private final PackIndex index;
+
+		PackSource(int rank, String name, PackIndex index) {
+			super(rank);
+			this.name = name;
+			this.index = index;
+		}
+
+		@Override
+		void addNames(TreeSet<String> names) {
+			names.add(name);
+		}
+
+		@Override
+		Cursor open(Map<String, Integer> packIds) {
+			final int pack = packIds.get(name).intValue();
+			final Iterator<MutableEntry> itr = index.iterator();
+			return new Cursor(rank) {
+				@Override
+				boolean next() {
+					if (!itr.hasNext())
+						return false;
+					MutableEntry e = itr.next();
+					id = e.toObjectId();
+					offset = e.getOffset();
+					packId = pack;
+					return true;
+				}
+			};
+		}
+	}
+
+	private static class MidxSource extends Source {
+		private final MultiPackIndex midx;
+
+		MidxSource(int rank, MultiPackIndex midx) {
+			super(rank);
+			this.midx = midx;
+		}
+
+		@Override
+		void addNames(TreeSet<String> names) {
+			for (String name : midx.getPackNames())
+				names.add(name);
+		}
+
+		@Override
+		Cursor open(Map<String, Integer> packIds) {
+			String[] names = midx.getPackNames();
+			final int[] remap = new int[names.length];
+			for (int i = 0; i < names.length; i++)
+				remap[i] = packIds.get(names[i]).intValue();
+			return new Cursor(rank) {
+				private int pos = -1;
+
+				@Override
+				boolean next() {
+					if (++pos >= midx.getObjectCount())
+						return false;
+					id = midx.getObjectId(pos);
+					offset = midx.getOffset(pos);
+					packId = remap[midx.getPackId(pos)];
+					return true;
+				}
+			};
+		}
+	}
+}
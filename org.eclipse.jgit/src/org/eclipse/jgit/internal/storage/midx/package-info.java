@@ -0,0 +1,4 @@
+/**
+ * Multi-pack-index file mapping objects to the pack containing them.
+ */
+package org.eclipse.jgit.internal.storage.midx;
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.pack;
+
+/**
+ * Selects packs to roll together so pack sizes keep a geometric progression.
+ * <p>
+ * After a roll up every pack is at least {@code factor} times larger than the
+ * sum of all smaller packs. Large packs stay untouched until enough new data
+ * has accumulated below them, so the amount of data rewritten by a repack is
+ * proportional to the data added since the last one, and the number of packs
+ * stays logarithmic in the size of the repository.
+ */
+public final class GeometricProgression {
+	/**
+	 * Compute how many of the smallest packs should be rolled together.
+	 *
+	 * @param sizes
+	 *            sizes of the candidate packs, sorted ascending.
+	 * @param pending
+	 *            size of data not yet in any pack (e.g. loose objects) that
+	 *            will be written into the rolled up pack.
+	 * @param factor
+	 *            growth factor of the progression; must be at least 2.
+	 * @return number of packs, taken from the start of {@code sizes}, to roll
+	 *         into one new pack. 0 if no pack needs to be rewritten.
+	 */
+	public static int rollUpCount(long[] sizes, long pending, int factor) {
+		if (factor < 2)
+			throw new IllegalArgumentException();
+
+		// A pack breaks the progression if it is less than factor times the
+		// data below it. Everything up to and including the last break is
+		// rolled up; the data below each pack above that break is the same
+		// before and after the roll up, so those packs stay in order.
+		int n = 0;
+		long below = pending;
+		for (int i = 0; i < sizes.length; i++) {
+			if (sizes[i] / factor < below)
+				n = i + 1;
+			below += sizes[i];
+		}
+		return n;
+	}
+
+	private GeometricProgression() {
+	}
+}
@@ -59,6 +59,24 @@ public class PackExt {
 	/** A pack bitmap index file extension. */
 	public static final PackExt BITMAP_INDEX = newPackExt("bitmap"); //$NON-NLS-1$
 
+	/** A promisor pack file extension. */
+	public static final PackExt PROMISOR = newPackExt("promisor"); //$NON-NLS-1$
+
+	/** A commit-graph file extension. */
+	public static final PackExt COMMIT_GRAPH = newPackExt("graph"); //$NON-NLS-1$
+
+	/** A multi-pack-index file extension. */
+	public static final PackExt MULTI_PACK_INDEX = newPackExt("midx"); //$NON-NLS-1$
+
+	/**
+	 * A layered pack bitmap index file extension.
+	 * <p>
+	 * Layers are only readable together with the bitmap index of other packs,
+	 * so they are kept apart from {@link #BITMAP_INDEX}, which readers not
+	 * knowing about layers expect to be complete.
+	 */
+	public static final PackExt LAYERED_BITMAP_INDEX = newPackExt("lbitmap"); //$NON-NLS-1$
+
 	/** @return all of the PackExt values. */
 	public static PackExt[] values() {
 		return VALUES;
@@ -64,10 +64,12 @@
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
@@ -87,6 +89,9 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StoredObjectRepresentationNotAvailableException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.WorkerPool;
+import org.eclipse.jgit.internal.storage.file.BitmapIndexImpl;
+import org.eclipse.jgit.internal.storage.file.PackBitmapIndex;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndexBuilder;
 import org.eclipse.jgit.internal.storage.file.PackBitmapIndexWriterV1;
 import org.eclipse.jgit.internal.storage.file.PackIndexWriter;
@@ -109,14 +114,17 @@
 import org.eclipse.jgit.revwalk.AsyncRevObjectQueue;
 import org.eclipse.jgit.revwalk.DepthWalk;
 import org.eclipse.jgit.revwalk.ObjectWalk;
+import org.eclipse.jgit.revwalk.RevBlob;
 import org.eclipse.jgit.revwalk.RevCommit;
 import org.eclipse.jgit.revwalk.RevFlag;
 import org.eclipse.jgit.revwalk.RevObject;
 import org.eclipse.jgit.revwalk.RevSort;
 import org.eclipse.jgit.revwalk.RevTag;
 import org.eclipse.jgit.revwalk.RevTree;
+import org.eclipse.jgit.revwalk.filter.ObjectFilter;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.storage.pack.PackStatistics;
+import org.eclipse.jgit.transport.FilterSpec;
 import org.eclipse.jgit.transport.ObjectCountCallback;
 import org.eclipse.jgit.transport.WriteAbortedException;
 import org.eclipse.jgit.util.BlockList;
@@ -145,6 +153,7 @@
  * pack is being stored as a file the matching index can be written out after
  * writing the pack by {@link #writeIndex(OutputStream)}. An optional bitmap
  * index can be made by calling {@link #prepareBitmapIndex(ProgressMonitor)}
+ * (or, for a pack layered on others, its variant taking a base index)
  * followed by {@link #writeBitmapIndex(OutputStream)}.
  * </p>
  * <p>
@@ -163,6 +172,9 @@
 public class PackWriter implements AutoCloseable {
 	private static final int PACK_VERSION_GENERATED = 2;
 
+	/** Smallest number of objects given to one representation search task. */
+	private static final int MIN_REUSE_SHARD = 4096;
+
 	/** Empty set of objects for {@code preparePack()}. */
 	public static final Set<ObjectId> NONE = Collections.emptySet();
 
@@ -276,10 +288,12 @@ public static Iterable<PackWriter> getInstances() {
 
 	private boolean ignoreMissingUninteresting = true;
 
-	private boolean pruneCurrentObjectList;
+	private volatile boolean pruneCurrentObjectList;
 
 	private boolean shallowPack;
 
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
 	private boolean canBuildBitmaps;
 
 	private boolean indexDisabled;
@@ -579,6 +593,22 @@ public void setShallowPack(int depth,
 		this.unshallowObjects = unshallow;
 	}
 
+	/**
+	 * Configure this pack for a partial clone or fetch.
+	 * <p>
+	 * Objects omitted by the filter are not written, unless they are named
+	 * directly by a want. Filtering blobs can still use bitmaps, filtering by
+	 * tree depth requires an object walk. A filtered pack never reuses cached
+	 * packs and does not get a bitmap index.
+	 *
+	 * @param filter
+	 *            the filter; {@link FilterSpec#NO_FILTER} to write all objects.
+	 * @since 4.8
+	 */
+	public void setFilterSpec(FilterSpec filter) {
+		filterSpec = filter;
+	}
+
 	/**
 	 * Returns objects number in a pack file that was created by this writer.
 	 *
@@ -1143,11 +1173,57 @@ private void searchForReuse(ProgressMonitor monitor) throws IOException {
 	private void searchForReuse(ProgressMonitor monitor, List<ObjectToPack> list)
 			throws IOException, MissingObjectException {
 		pruneCurrentObjectList = false;
-		reuseSupport.selectObjectRepresentation(this, monitor, list);
+		int threads = config.getThreads();
+		if (threads == 0)
+			threads = Runtime.getRuntime().availableProcessors();
+		if (config.getExecutor() == null)
+			threads = Math.min(threads, WorkerPool.getThreadCount());
+		int shards = Math.min(threads, list.size() / MIN_REUSE_SHARD);
+		// Edges found in cached packs are visible to select() on other
+		// objects, so only split the work when there are none.
+		if (shards <= 1 || !cachedPacks.isEmpty())
+			reuseSupport.selectObjectRepresentation(this, monitor, list);
+		else
+			parallelSearchForReuse(monitor, list, shards);
 		if (pruneCurrentObjectList)
 			pruneEdgesFromObjectList(list);
 	}
 
+	private void parallelSearchForReuse(ProgressMonitor monitor,
+			List<ObjectToPack> list, int shards) throws IOException {
+		// Each shard looks up its objects through its own reader. select()
+		// only modifies the ObjectToPack it is given, so shards are
+		// independent of each other.
+		final ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(
+				monitor);
+		List<Callable<Object>> tasks = new ArrayList<>(shards);
+		int size = list.size();
+		for (int i = 0; i < shards; i++) {
+			int from = (int) ((long) size * i / shards);
+			int to = (int) ((long) size * (i + 1) / shards);
+			final List<ObjectToPack> shard = new ArrayList<>(
+					list.subList(from, to));
+			tasks.add(new Callable<Object>() {
+				@Override
+				public Object call() throws IOException {
+					try (ObjectReader r = reader.newReader()) {
+						((ObjectReuseAsIs) r).selectObjectRepresentation(
+								PackWriter.this, pm, shard);
+					} finally {
+						pm.endWorker();
+					}
+					return null;
+				}
+			});
+		}
+		pm.startWorkers(tasks.size());
+		// Unlike delta search, the shards never outnumber the threads of
+		// the shared pool, see searchForReuse.
+		Executor executor = config.getExecutor();
+		runTasks(executor != null ? executor : WorkerPool.get(), tasks, pm,
+				shards);
+	}
+
 	private void cutDeltaChains(BlockList<ObjectToPack> list)
 			throws IOException {
 		int max = config.getMaxDeltaDepth();
@@ -1373,19 +1449,24 @@ private void parallelDeltaSearch(ProgressMonitor monitor,
 		taskBlock.partitionTasks();
 		beginPhase(PackingPhase.COMPRESSING, monitor, taskBlock.cost());
 		pm.startWorkers(taskBlock.tasks.size());
+		runTasks(config.getExecutor(), taskBlock.tasks, pm, threads);
+		endPhase(monitor);
+	}
 
-		Executor executor = config.getExecutor();
+	private void runTasks(Executor executor,
+			List<? extends Callable<?>> tasks, ThreadSafeProgressMonitor pm,
+			int threads) throws IOException {
 		final List<Throwable> errors =
 				Collections.synchronizedList(new ArrayList<Throwable>(threads));
 		if (executor instanceof ExecutorService) {
 			// Caller supplied us a service, use it directly.
-			runTasks((ExecutorService) executor, pm, taskBlock, errors);
+			runTasks((ExecutorService) executor, pm, tasks, errors);
 		} else if (executor == null) {
 			// Caller didn't give us a way to run the tasks, spawn up a
 			// temporary thread pool and make sure it tears down cleanly.
 			ExecutorService pool = Executors.newFixedThreadPool(threads);
 			try {
-				runTasks(pool, pm, taskBlock, errors);
+				runTasks(pool, pm, tasks, errors);
 			} finally {
 				pool.shutdown();
 				for (;;) {
@@ -1402,7 +1483,7 @@ private void parallelDeltaSearch(ProgressMonitor monitor,
 			// The caller gave us an executor, but it might not do
 			// asynchronous execution.  Wrap everything and hope it
 			// can schedule these for us.
-			for (final DeltaTask task : taskBlock.tasks) {
+			for (final Callable<?> task : tasks) {
 				executor.execute(new Runnable() {
 					@Override
 					public void run() {
@@ -1441,14 +1522,14 @@ public void run() {
 			fail.initCause(err);
 			throw fail;
 		}
-		endPhase(monitor);
 	}
 
 	private static void runTasks(ExecutorService pool,
 			ThreadSafeProgressMonitor pm,
-			DeltaTask.Block tb, List<Throwable> errors) throws IOException {
-		List<Future<?>> futures = new ArrayList<>(tb.tasks.size());
-		for (DeltaTask task : tb.tasks)
+			List<? extends Callable<?>> tasks, List<Throwable> errors)
+			throws IOException {
+		List<Future<?>> futures = new ArrayList<>(tasks.size());
+		for (Callable<?> task : tasks)
 			futures.add(pool.submit(task));
 
 		try {
@@ -1661,9 +1742,10 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 
 		canBuildBitmaps = config.isBuildBitmaps()
 				&& !shallowPack
+				&& filterSpec.isNoOp()
 				&& have.isEmpty()
 				&& (excludeInPacks == null || excludeInPacks.length == 0);
-		if (!shallowPack && useBitmaps) {
+		if (!shallowPack && useBitmaps && filterSpec.getTreeDepthLimit() < 0) {
 			BitmapIndex bitmapIndex = reader.getBitmapIndex();
 			if (bitmapIndex != null) {
 				PackWriterBitmapWalker bitmapWalker = new PackWriterBitmapWalker(
@@ -1684,6 +1766,10 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 		final RevFlag added = walker.newFlag("added"); //$NON-NLS-1$
 
 		walker.carry(include);
+		if (filterSpec.getTreeDepthLimit() >= 0) {
+			walker.setObjectFilter(treeDepthFilter(walker.getObjectFilter(),
+					filterSpec.getTreeDepthLimit()));
+		}
 
 		int haveEst = have.size();
 		if (have.isEmpty()) {
@@ -1841,6 +1927,8 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 					continue;
 				if (exclude(o))
 					continue;
+				if (!o.has(include) && omitByFilter(o))
+					continue;
 
 				int pathHash = walker.getPathHashCode();
 				byte[] pathBuf = walker.getPathBuffer();
@@ -1856,6 +1944,8 @@ private void findObjectsToPack(@NonNull ProgressMonitor countingMonitor,
 					continue;
 				if (exclude(o))
 					continue;
+				if (!o.has(include) && omitByFilter(o))
+					continue;
 				addObject(o, walker.getPathHashCode());
 				countingMonitor.update(1);
 			}
@@ -1880,6 +1970,7 @@ private void findObjectsToPackUsingBitmaps(
 		BitmapBuilder needBitmap = wantBitmap.andNot(haveBitmap);
 
 		if (useCachedPacks && reuseSupport != null && !reuseValidate
+				&& filterSpec.isNoOp()
 				&& (excludeInPacks == null || excludeInPacks.length == 0))
 			cachedPacks.addAll(
 					reuseSupport.getCachedPacksAndUpdate(needBitmap));
@@ -1890,6 +1981,10 @@ private void findObjectsToPackUsingBitmaps(
 				needBitmap.remove(objectId);
 				continue;
 			}
+			// The bitmap knows the type, so blob:none needs no object access.
+			if (obj.getType() == OBJ_BLOB && !want.contains(objectId)
+					&& !includeBlob(objectId))
+				continue;
 			addObject(objectId, obj.getType(), 0);
 		}
 
@@ -1897,6 +1992,40 @@ private void findObjectsToPackUsingBitmaps(
 			haveObjects = haveBitmap;
 	}
 
+	private boolean omitByFilter(RevObject o) throws IOException {
+		if (o instanceof RevBlob)
+			return !includeBlob(o);
+		// With tree:0 the depth filter already skipped all other trees,
+		// so only root trees of commits reach this point.
+		return o instanceof RevTree && filterSpec.getTreeDepthLimit() == 0;
+	}
+
+	private boolean includeBlob(AnyObjectId id) throws IOException {
+		long limit = filterSpec.getBlobLimit();
+		if (limit < 0)
+			return true;
+		if (limit == 0)
+			return false;
+		return reader.getObjectSize(id, OBJ_BLOB) < limit;
+	}
+
+	private static ObjectFilter treeDepthFilter(final ObjectFilter base,
+			final long limit) {
+		return new ObjectFilter() {
+			@Override
+			public boolean include(ObjectWalk walker, AnyObjectId objid)
+					throws IOException {
+				// Entries are one level below the tree being iterated, and
+				// the root tree of a commit is at depth 0. A tree reached
+				// first through a longer path is not entered again through
+				// a shorter one, so a few of its entries may be omitted;
+				// the client treats them like any other omitted object.
+				return walker.getTreeDepth() + 1 < limit
+						&& base.include(walker, objid);
+			}
+		};
+	}
+
 	private static void pruneEdgesFromObjectList(List<ObjectToPack> list) {
 		final int size = list.size();
 		int src = 0;
@@ -2101,6 +2230,76 @@ public boolean prepareBitmapIndex(ProgressMonitor pm) throws IOException {
 		return true;
 	}
 
+	/**
+	 * Prepares bitmaps layered on the bitmap index of other packs.
+	 * <p>
+	 * A pack that leaves out the objects of existing packs, such as the result
+	 * of an incremental repack, cannot have a bitmap index of its own. Bitmaps
+	 * for the tips in this pack are instead computed on top of {@code base},
+	 * reusing its bitmaps, and are written by
+	 * {@link #writeBitmapIndex(OutputStream)} as a layer which readers join
+	 * with the base. Tips reaching objects of any other pack get no bitmap.
+	 * The layer must be stored as {@link PackExt#LAYERED_BITMAP_INDEX}.
+	 * <p>
+	 * Called after {@link #writeIndex(OutputStream)}. Internal state is
+	 * cleared as by {@link #prepareBitmapIndex(ProgressMonitor)}.
+	 *
+	 * @param pm
+	 *            progress monitor to report bitmap building work.
+	 * @param base
+	 *            bitmap index of the packs this pack is layered on.
+	 * @param tips
+	 *            commits to compute bitmaps for, typically the branch tips;
+	 *            those not in this pack are skipped.
+	 * @return whether a bitmap index may be written.
+	 * @throws IOException
+	 *             when some I/O problem occur during reading objects.
+	 * @since 4.8
+	 */
+	public boolean prepareBitmapIndex(ProgressMonitor pm,
+			PackBitmapIndex base, Collection<? extends ObjectId> tips)
+			throws IOException {
+		if (!config.isBuildBitmaps() || shallowPack || !filterSpec.isNoOp()
+				|| !cachedPacks.isEmpty()
+				|| getObjectCount() + base.getObjectCount() > Integer.MAX_VALUE)
+			return false;
+
+		if (pm == null)
+			pm = NullProgressMonitor.INSTANCE;
+
+		List<ObjectToPack> byName = sortByName();
+		sortedByName = null;
+		objectsLists = null;
+		objectsMap = null;
+		writeBitmaps = new PackBitmapIndexBuilder(byName, base);
+		byName = null;
+
+		Set<ObjectId> selected = new LinkedHashSet<>();
+		for (ObjectId tip : tips) {
+			int pos = writeBitmaps.findPosition(tip);
+			if (pos >= base.getObjectCount()
+					&& writeBitmaps.getCommits().get(pos))
+				selected.add(tip);
+		}
+
+		beginPhase(PackingPhase.BUILDING_BITMAPS, pm, selected.size());
+		BitmapIndexImpl bitmapIndex = new BitmapIndexImpl(writeBitmaps);
+		try (ObjectWalk ow = new ObjectWalk(reader)) {
+			PackWriterBitmapWalker walker = new PackWriterBitmapWalker(ow,
+					bitmapIndex, null);
+			for (ObjectId tip : selected) {
+				walker.reset();
+				BitmapBuilder bitmap = walker.findObjects(
+						Collections.singleton(tip), null, false);
+				if (writeBitmaps.covers(bitmap))
+					writeBitmaps.addBitmap(tip, bitmap.build(), 0);
+				pm.update(1);
+			}
+		}
+		endPhase(pm);
+		return writeBitmaps.getBitmapCount() > 0;
+	}
+
 	private boolean reuseDeltaFor(ObjectToPack otp) {
 		int type = otp.getType();
 		if ((type & 2) != 0) // OBJ_TREE(2) or OBJ_BLOB(3)
@@ -63,7 +63,7 @@
 import org.eclipse.jgit.revwalk.filter.RevFilter;
 
 /** Helper class for PackWriter to do ObjectWalks with pack index bitmaps. */
-final class PackWriterBitmapWalker {
+public final class PackWriterBitmapWalker {
 
 	private final ObjectWalk walker;
 
@@ -73,7 +73,17 @@ final class PackWriterBitmapWalker {
 
 	private long countOfBitmapIndexMisses;
 
-	PackWriterBitmapWalker(
+	/**
+	 * Create a walker.
+	 *
+	 * @param walker
+	 *            walk used for history not covered by bitmaps.
+	 * @param bitmapIndex
+	 *            bitmaps of the repository.
+	 * @param pm
+	 *            progress monitor, updated per object walked; may be null.
+	 */
+	public PackWriterBitmapWalker(
 			ObjectWalk walker, BitmapIndex bitmapIndex, ProgressMonitor pm) {
 		this.walker = walker;
 		this.bitmapIndex = bitmapIndex;
@@ -84,7 +94,24 @@ long getCountOfBitmapIndexMisses() {
 		return countOfBitmapIndexMisses;
 	}
 
-	BitmapBuilder findObjects(Iterable<? extends ObjectId> start, BitmapBuilder seen, boolean ignoreMissing)
+	/**
+	 * Find all objects reachable from the start objects.
+	 * <p>
+	 * Bitmaps of the start objects are combined; history not covered by a
+	 * bitmap is walked until it reaches objects that are.
+	 *
+	 * @param start
+	 *            objects to find the reachable objects of.
+	 * @param seen
+	 *            objects already known to be reachable, or null.
+	 * @param ignoreMissing
+	 *            true to skip start objects whose history is incomplete.
+	 * @return bitmap of the reachable objects.
+	 * @throws MissingObjectException
+	 * @throws IncorrectObjectTypeException
+	 * @throws IOException
+	 */
+	public BitmapBuilder findObjects(Iterable<? extends ObjectId> start, BitmapBuilder seen, boolean ignoreMissing)
 			throws MissingObjectException, IncorrectObjectTypeException,
 				   IOException {
 		if (!ignoreMissing) {
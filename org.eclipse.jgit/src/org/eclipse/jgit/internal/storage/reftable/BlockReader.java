@@ -0,0 +1,365 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.reftable;
+
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.BLOCK_HEADER_LEN;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.INDEX_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.REF_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.RESTART_COUNT_WIDTH;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.RESTART_WIDTH;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VALUE_1ID;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VALUE_2ID;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VALUE_NONE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VALUE_SYMREF;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VALUE_TYPE_MASK;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+import static org.eclipse.jgit.lib.Ref.Storage.NEW;
+import static org.eclipse.jgit.lib.Ref.Storage.PACKED;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+import java.util.Arrays;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.SymbolicRef;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Reads records from a single block of a reftable.
+ * <p>
+ * All reads use absolute positions, so a single buffer can be shared by any
+ * number of readers.
+ */
+class BlockReader {
+	private final ByteBuffer buf;
+
+	private byte blockType;
+
+	private int blockStart;
+
+	private int blockEnd;
+
+	private int restartTbl;
+
+	private int restartCnt;
+
+	private int ptr;
+
+	private byte[] nameBuf = new byte[256];
+
+	private int nameLen;
+
+	private int valueType;
+
+	private int valuePtr;
+
+	BlockReader(ByteBuffer buf) {
+		this.buf = buf;
+	}
+
+	/**
+	 * Position this reader at the block starting at {@code pos}.
+	 *
+	 * @param pos
+	 *            position of the block header.
+	 * @param limit
+	 *            end of the region blocks may occupy.
+	 * @throws IOException
+	 *             the block header is invalid.
+	 */
+	void readBlock(int pos, int limit) throws IOException {
+		if (pos < 0 || limit - pos < BLOCK_HEADER_LEN)
+			throw invalidBlock(pos);
+		blockType = buf.get(pos);
+		int len = buf.getInt(pos + 1);
+		if ((blockType != REF_BLOCK_TYPE && blockType != INDEX_BLOCK_TYPE)
+				|| len < BLOCK_HEADER_LEN + RESTART_COUNT_WIDTH
+				|| limit - pos < len)
+			throw invalidBlock(pos);
+
+		blockStart = pos;
+		blockEnd = pos + len;
+		restartCnt = buf.getShort(blockEnd - RESTART_COUNT_WIDTH) & 0xffff;
+		restartTbl = blockEnd - RESTART_COUNT_WIDTH
+				- restartCnt * RESTART_WIDTH;
+		if (restartTbl < pos + BLOCK_HEADER_LEN)
+			throw invalidBlock(pos);
+		ptr = pos + BLOCK_HEADER_LEN;
+		nameLen = 0;
+	}
+
+	byte getBlockType() {
+		return blockType;
+	}
+
+	/** @return position of the block following this one. */
+	int getNextBlockPosition() {
+		return blockEnd;
+	}
+
+	/**
+	 * Decode the next record.
+	 *
+	 * @return true if a record was decoded; false at the end of the block.
+	 * @throws IOException
+	 *             the record is invalid.
+	 */
+	boolean next() throws IOException {
+		if (ptr >= restartTbl)
+			return false;
+
+		int prefixLen = readVarint();
+		int suffix = readVarint();
+		int suffixLen = suffix >>> 3;
+		if (prefixLen > nameLen || restartTbl - ptr < suffixLen)
+			throw invalidBlock(blockStart);
+
+		int len = prefixLen + suffixLen;
+		if (nameBuf.length < len)
+			nameBuf = Arrays.copyOf(nameBuf, Math.max(len, 2 * nameBuf.length));
+		for (int i = 0; i < suffixLen; i++)
+			nameBuf[prefixLen + i] = buf.get(ptr++);
+		nameLen = len;
+
+		valuePtr = ptr;
+		if (blockType == INDEX_BLOCK_TYPE) {
+			valueType = VALUE_NONE;
+			readVarint();
+		} else {
+			valueType = suffix & VALUE_TYPE_MASK;
+			skipValue();
+		}
+		if (ptr > restartTbl)
+			throw invalidBlock(blockStart);
+		return true;
+	}
+
+	/**
+	 * Position at the first record whose name is not less than {@code key}.
+	 *
+	 * @param key
+	 *            name to seek to.
+	 * @return true if such a record was found and decoded; false if every
+	 *         record of this block sorts before {@code key}.
+	 * @throws IOException
+	 *             the block is invalid.
+	 */
+	boolean seekKey(byte[] key) throws IOException {
+		// Binary search for the last restart point not after key. Names at
+		// restart points are stored in full, so they compare in place.
+		int low = 0;
+		int high = restartCnt;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (compareRestart(mid, key) <= 0)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		ptr = low == 0
+				? blockStart + BLOCK_HEADER_LEN
+				: restartOffset(low - 1);
+		nameLen = 0;
+
+		while (next()) {
+			if (compare(nameBuf, nameLen, key, key.length) >= 0)
+				return true;
+		}
+		return false;
+	}
+
+	private int compareRestart(int idx, byte[] key) throws IOException {
+		ptr = restartOffset(idx);
+		if (readVarint() != 0)
+			throw invalidBlock(blockStart);
+		int suffixLen = readVarint() >>> 3;
+		if (restartTbl - ptr < suffixLen)
+			throw invalidBlock(blockStart);
+
+		int n = Math.min(suffixLen, key.length);
+		for (int i = 0; i < n; i++) {
+			int c = (buf.get(ptr + i) & 0xff) - (key[i] & 0xff);
+			if (c != 0)
+				return c;
+		}
+		return suffixLen - key.length;
+	}
+
+	private int restartOffset(int idx) throws IOException {
+		int p = blockStart + buf.getInt(restartTbl + idx * RESTART_WIDTH);
+		if (p < blockStart + BLOCK_HEADER_LEN || p >= restartTbl)
+			throw invalidBlock(blockStart);
+		return p;
+	}
+
+	boolean nameEquals(byte[] key) {
+		return compare(nameBuf, nameLen, key, key.length) == 0;
+	}
+
+	boolean nameStartsWith(byte[] prefix) {
+		if (nameLen < prefix.length)
+			return false;
+		for (int i = 0; i < prefix.length; i++)
+			if (nameBuf[i] != prefix[i])
+				return false;
+		return true;
+	}
+
+	String getName() {
+		return RawParseUtils.decode(nameBuf, 0, nameLen);
+	}
+
+	boolean isDeletion() {
+		return valueType == VALUE_NONE;
+	}
+
+	/** @return the block position referenced by an index record. */
+	int readIndexValue() throws IOException {
+		ptr = valuePtr;
+		return readVarint();
+	}
+
+	Ref getRef() throws IOException {
+		String name = getName();
+		switch (valueType) {
+		case VALUE_NONE:
+			return new ObjectIdRef.Unpeeled(NEW, name, null);
+
+		case VALUE_1ID:
+			return new ObjectIdRef.PeeledNonTag(PACKED, name,
+					readId(valuePtr));
+
+		case VALUE_2ID:
+			return new ObjectIdRef.PeeledTag(PACKED, name, readId(valuePtr),
+					readId(valuePtr + OBJECT_ID_LENGTH));
+
+		case VALUE_SYMREF: {
+			ptr = valuePtr;
+			int len = readVarint();
+			byte[] target = new byte[len];
+			for (int i = 0; i < len; i++)
+				target[i] = buf.get(ptr++);
+			return new SymbolicRef(name, new ObjectIdRef.Unpeeled(NEW,
+					RawParseUtils.decode(target), null));
+		}
+
+		default:
+			throw invalidBlock(blockStart);
+		}
+	}
+
+	private ObjectId readId(int pos) {
+		byte[] raw = new byte[OBJECT_ID_LENGTH];
+		for (int i = 0; i < OBJECT_ID_LENGTH; i++)
+			raw[i] = buf.get(pos + i);
+		return ObjectId.fromRaw(raw);
+	}
+
+	private void skipValue() throws IOException {
+		switch (valueType) {
+		case VALUE_NONE:
+			return;
+		case VALUE_1ID:
+			ptr += OBJECT_ID_LENGTH;
+			return;
+		case VALUE_2ID:
+			ptr += 2 * OBJECT_ID_LENGTH;
+			return;
+		case VALUE_SYMREF:
+			ptr += readVarint();
+			return;
+		default:
+			throw invalidBlock(blockStart);
+		}
+	}
+
+	private int readVarint() throws IOException {
+		int val = 0;
+		for (int shift = 0; shift < 32; shift += 7) {
+			if (ptr >= restartTbl)
+				throw invalidBlock(blockStart);
+			int c = buf.get(ptr++);
+			val |= (c & 0x7f) << shift;
+			if ((c & 0x80) == 0) {
+				if (val < 0)
+					throw invalidBlock(blockStart);
+				return val;
+			}
+		}
+		throw invalidBlock(blockStart);
+	}
+
+	/**
+	 * Compare two names as unsigned bytes.
+	 *
+	 * @param a
+	 *            first name.
+	 * @param alen
+	 *            length of {@code a}.
+	 * @param b
+	 *            second name.
+	 * @param blen
+	 *            length of {@code b}.
+	 * @return negative, zero or positive as {@code a} sorts before, equal to
+	 *         or after {@code b}.
+	 */
+	static int compare(byte[] a, int alen, byte[] b, int blen) {
+		int n = Math.min(alen, blen);
+		for (int i = 0; i < n; i++) {
+			int c = (a[i] & 0xff) - (b[i] & 0xff);
+			if (c != 0)
+				return c;
+		}
+		return alen - blen;
+	}
+
+	private static IOException invalidBlock(int pos) {
+		return new IOException(MessageFormat.format(
+				JGitText.get().invalidReftableBlock, Integer.valueOf(pos)));
+	}
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.reftable;
+
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.BLOCK_HEADER_LEN;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.MAX_RESTARTS;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.RESTART_COUNT_WIDTH;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.RESTART_WIDTH;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.eclipse.jgit.util.IntList;
+import org.eclipse.jgit.util.NB;
+
+/** Formats records into a single reftable block. */
+class BlockWriter {
+	private final byte blockType;
+
+	private final int blockLimit;
+
+	private final int restartInterval;
+
+	private final IntList restarts = new IntList();
+
+	private byte[] buf = new byte[256];
+
+	private int len = BLOCK_HEADER_LEN;
+
+	private byte[] lastKey;
+
+	private int lastKeyLen;
+
+	private int entryCnt;
+
+	private int sinceRestart;
+
+	/**
+	 * @param blockType
+	 *            type byte written into the block header.
+	 * @param blockLimit
+	 *            maximum encoded size of the block, if it has at least two
+	 *            records.
+	 * @param restartInterval
+	 *            number of records between restart points.
+	 */
+	BlockWriter(byte blockType, int blockLimit, int restartInterval) {
+		this.blockType = blockType;
+		this.blockLimit = blockLimit;
+		this.restartInterval = restartInterval;
+	}
+
+	int getEntryCount() {
+		return entryCnt;
+	}
+
+	/** @return the name of the last record added to the block. */
+	byte[] getLastKey() {
+		return Arrays.copyOf(lastKey, lastKeyLen);
+	}
+
+	/**
+	 * Append a record if it fits in the block.
+	 *
+	 * @param key
+	 *            name of the record, sorting after all earlier records.
+	 * @param valueType
+	 *            value type stored in the low bits of the suffix length.
+	 * @param value
+	 *            encoded value of the record.
+	 * @return true if the record was added; false if the block is full.
+	 */
+	boolean add(byte[] key, int valueType, byte[] value) {
+		boolean restart = sinceRestart == 0
+				|| (sinceRestart >= restartInterval
+						&& restarts.size() < MAX_RESTARTS);
+		int prefixLen = restart ? 0 : commonPrefix(key);
+		int suffixLen = key.length - prefixLen;
+		int suffix = (suffixLen << 3) | valueType;
+
+		int recLen = varintLen(prefixLen) + varintLen(suffix) + suffixLen
+				+ value.length;
+		int restartLen = (restarts.size() + (restart ? 1 : 0)) * RESTART_WIDTH;
+		if (entryCnt > 0 && len + recLen + restartLen
+				+ RESTART_COUNT_WIDTH > blockLimit)
+			return false;
+
+		ensure(recLen);
+		if (restart) {
+			restarts.add(len);
+			sinceRestart = 0;
+		}
+		len = writeVarint(len, prefixLen);
+		len = writeVarint(len, suffix);
+		System.arraycopy(key, prefixLen, buf, len, suffixLen);
+		len += suffixLen;
+		System.arraycopy(value, 0, buf, len, value.length);
+		len += value.length;
+
+		lastKey = key;
+		lastKeyLen = key.length;
+		entryCnt++;
+		sinceRestart++;
+		return true;
+	}
+
+	/**
+	 * Write the block, including its header and restart table.
+	 *
+	 * @param os
+	 *            stream to receive the block.
+	 * @return number of bytes written.
+	 * @throws IOException
+	 *             the stream cannot be written to.
+	 */
+	int writeTo(OutputStream os) throws IOException {
+		int restartLen = restarts.size() * RESTART_WIDTH;
+		int total = len + restartLen + RESTART_COUNT_WIDTH;
+		ensure(restartLen + RESTART_COUNT_WIDTH);
+
+		buf[0] = blockType;
+		NB.encodeInt32(buf, 1, total);
+		int p = len;
+		for (int i = 0; i < restarts.size(); i++, p += RESTART_WIDTH)
+			NB.encodeInt32(buf, p, restarts.get(i));
+		NB.encodeInt16(buf, p, restarts.size());
+		os.write(buf, 0, total);
+		return total;
+	}
+
+	private int commonPrefix(byte[] key) {
+		int n = Math.min(lastKeyLen, key.length);
+		int i = 0;
+		while (i < n && lastKey[i] == key[i])
+			i++;
+		return i;
+	}
+
+	private void ensure(int need) {
+		if (buf.length - len < need)
+			buf = Arrays.copyOf(buf, Math.max(len + need, 2 * buf.length));
+	}
+
+	private int writeVarint(int p, int val) {
+		while ((val & ~0x7f) != 0) {
+			buf[p++] = (byte) (0x80 | (val & 0x7f));
+			val >>>= 7;
+		}
+		buf[p++] = (byte) val;
+		return p;
+	}
+
+	static int varintLen(int val) {
+		int n = 1;
+		while ((val & ~0x7f) != 0) {
+			val >>>= 7;
+			n++;
+		}
+		return n;
+	}
+
+	static byte[] encodeVarint(int val) {
+		byte[] r = new byte[varintLen(val)];
+		int p = 0;
+		while ((val & ~0x7f) != 0) {
+			r[p++] = (byte) (0x80 | (val & 0x7f));
+			val >>>= 7;
+		}
+		r[p] = (byte) val;
+		return r;
+	}
+}
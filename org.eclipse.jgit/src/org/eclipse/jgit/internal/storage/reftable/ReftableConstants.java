@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.reftable;
+
+/** Constants of the reftable file format. */
+class ReftableConstants {
+	/** Signature at the start and end of the file, {@code "REFT"}. */
+	static final int FILE_MAGIC = 0x52454654;
+
+	/** Version of the file format written by this implementation. */
+	static final byte VERSION_1 = 1;
+
+	/** Size of the file header: magic, version, 24 bit block size. */
+	static final int FILE_HEADER_LEN = 8;
+
+	/** Size of the file footer: index position, ref count, magic. */
+	static final int FILE_FOOTER_LEN = 20;
+
+	/** Block type of a block holding references. */
+	static final byte REF_BLOCK_TYPE = 'r';
+
+	/** Block type of the index over the reference blocks. */
+	static final byte INDEX_BLOCK_TYPE = 'i';
+
+	/** Size of a block header: type and 32 bit block length. */
+	static final int BLOCK_HEADER_LEN = 5;
+
+	/** Width of one entry of a block's restart table. */
+	static final int RESTART_WIDTH = 4;
+
+	/** Width of the restart count at the end of a block. */
+	static final int RESTART_COUNT_WIDTH = 2;
+
+	/** Largest number of restart points a single block may hold. */
+	static final int MAX_RESTARTS = 0xffff;
+
+	/** Value type of a deleted reference (tombstone). */
+	static final int VALUE_NONE = 0;
+
+	/** Value type of a reference holding one object id. */
+	static final int VALUE_1ID = 1;
+
+	/** Value type of an annotated tag and its peeled object id. */
+	static final int VALUE_2ID = 2;
+
+	/** Value type of a symbolic reference. */
+	static final int VALUE_SYMREF = 3;
+
+	/** Mask selecting the value type from a record's suffix length. */
+	static final int VALUE_TYPE_MASK = 0x7;
+
+	/** Default size of a reference block. */
+	static final int DEFAULT_BLOCK_SIZE = 4 * 1024;
+
+	/** Default number of records between restart points. */
+	static final int DEFAULT_RESTART_INTERVAL = 16;
+
+	/** Largest block size encodable in the file header. */
+	static final int MAX_BLOCK_SIZE = (1 << 24) - 1;
+
+	private ReftableConstants() {
+	}
+}
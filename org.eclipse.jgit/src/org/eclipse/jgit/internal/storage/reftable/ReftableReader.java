@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.reftable;
+
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.FILE_FOOTER_LEN;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.FILE_HEADER_LEN;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.FILE_MAGIC;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.INDEX_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.REF_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VERSION_1;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Ref;
+
+/**
+ * Reads a reftable formatted file.
+ * <p>
+ * The table is read in place from the supplied buffer, which is typically a
+ * mapping of the file. Only the blocks touched by a lookup are examined, so
+ * finding a single reference or the references below a prefix costs
+ * {@code O(log n)} in the size of the table rather than a full parse.
+ * <p>
+ * Readers are thread-safe; each cursor keeps its own position.
+ */
+public class ReftableReader extends Reftable {
+	private final ByteBuffer buf;
+
+	private final int blockSize;
+
+	private final int indexPos;
+
+	private final long refCnt;
+
+	/**
+	 * Open a reftable.
+	 *
+	 * @param buf
+	 *            buffer holding the complete table. The buffer's position is
+	 *            ignored and it is not modified.
+	 * @throws IOException
+	 *             the buffer does not contain a valid reftable.
+	 */
+	public ReftableReader(ByteBuffer buf) throws IOException {
+		this.buf = buf;
+		int end = buf.limit() - FILE_FOOTER_LEN;
+		if (end < FILE_HEADER_LEN || buf.getInt(0) != FILE_MAGIC
+				|| buf.getInt(end + 16) != FILE_MAGIC)
+			throw new IOException(JGitText.get().invalidReftableFile);
+
+		int version = buf.get(4);
+		if (version != VERSION_1)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().unsupportedReftableVersion,
+					Integer.valueOf(version)));
+		blockSize = buf.getInt(4) & 0xffffff;
+
+		long idx = buf.getLong(end);
+		if (idx < FILE_HEADER_LEN || idx >= end)
+			throw new IOException(JGitText.get().invalidReftableFile);
+		indexPos = (int) idx;
+		refCnt = buf.getLong(end + 8);
+	}
+
+	/** @return the block size the table was written with. */
+	public int getBlockSize() {
+		return blockSize;
+	}
+
+	/** @return number of records in the table, including deletions. */
+	public long getRefCount() {
+		return refCnt;
+	}
+
+	/** @return size of the table in bytes. */
+	public long size() {
+		return buf.limit();
+	}
+
+	@Override
+	public RefCursor allRefs() throws IOException {
+		BlockCursor c = new BlockCursor(null, false);
+		if (FILE_HEADER_LEN < indexPos) {
+			c.block = newBlock(FILE_HEADER_LEN, REF_BLOCK_TYPE);
+		}
+		return c;
+	}
+
+	@Override
+	public RefCursor seekRef(String refName) throws IOException {
+		return seek(Constants.encode(refName), true);
+	}
+
+	@Override
+	public RefCursor seekRefsWithPrefix(String prefix) throws IOException {
+		return seek(Constants.encode(prefix), false);
+	}
+
+	private RefCursor seek(byte[] key, boolean exact) throws IOException {
+		BlockCursor c = new BlockCursor(key, exact);
+		BlockReader idx = newBlock(indexPos, INDEX_BLOCK_TYPE);
+		if (idx.seekKey(key)) {
+			// The first block whose last name is not before key holds key,
+			// or the first name following it.
+			c.block = newBlock(idx.readIndexValue(), REF_BLOCK_TYPE);
+			c.pending = c.block.seekKey(key);
+		}
+		return c;
+	}
+
+	private BlockReader newBlock(int pos, byte type) throws IOException {
+		BlockReader b = new BlockReader(buf);
+		b.readBlock(pos, type == INDEX_BLOCK_TYPE
+				? buf.limit() - FILE_FOOTER_LEN
+				: indexPos);
+		if (b.getBlockType() != type)
+			throw new IOException(MessageFormat.format(
+					JGitText.get().invalidReftableBlock,
+					Integer.valueOf(pos)));
+		return b;
+	}
+
+	private class BlockCursor extends RefCursor {
+		private final byte[] key;
+
+		private final boolean exact;
+
+		BlockReader block;
+
+		boolean pending;
+
+		private Ref ref;
+
+		private boolean deleted;
+
+		BlockCursor(byte[] key, boolean exact) {
+			this.key = key;
+			this.exact = exact;
+		}
+
+		@Override
+		public boolean next() throws IOException {
+			while (block != null) {
+				if (!pending && !block.next()) {
+					int next = block.getNextBlockPosition();
+					if (next >= indexPos) {
+						block = null;
+						break;
+					}
+					block.readBlock(next, indexPos);
+					continue;
+				}
+				pending = false;
+
+				if (key != null && (exact
+						? !block.nameEquals(key)
+						: !block.nameStartsWith(key))) {
+					block = null;
+					break;
+				}
+				if (block.isDeletion() && !includeDeletes)
+					continue;
+
+				ref = block.getRef();
+				deleted = block.isDeletion();
+				return true;
+			}
+			ref = null;
+			return false;
+		}
+
+		@Override
+		public Ref getRef() {
+			return ref;
+		}
+
+		@Override
+		public boolean wasDeleted() {
+			return deleted;
+		}
+
+		@Override
+		public void close() {
+			block = null;
+		}
+	}
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.internal.storage.reftable;
+
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.DEFAULT_BLOCK_SIZE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.DEFAULT_RESTART_INTERVAL;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.FILE_FOOTER_LEN;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.FILE_HEADER_LEN;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.FILE_MAGIC;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.INDEX_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.MAX_BLOCK_SIZE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.REF_BLOCK_TYPE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VALUE_1ID;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VALUE_2ID;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VALUE_NONE;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VALUE_SYMREF;
+import static org.eclipse.jgit.internal.storage.reftable.ReftableConstants.VERSION_1;
+import static org.eclipse.jgit.lib.Constants.OBJECT_ID_LENGTH;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.MessageFormat;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.util.NB;
+import org.eclipse.jgit.util.RawParseUtils;
+
+/**
+ * Writes a reftable formatted file.
+ * <p>
+ * A reftable is a sorted sequence of reference records, split into blocks of
+ * roughly {@link #setBlockSize(int) block size} bytes. Names are prefix
+ * compressed against the previous record, except at restart points which
+ * store the full name and are listed at the end of each block. An index
+ * block after the reference blocks records the last name of every block,
+ * so a reader can find any name with a binary search of the index, a binary
+ * search of one block's restart points and a short linear scan.
+ * <p>
+ * A table may also record deletions, which mask older values of the same
+ * name when several tables are stacked by {@link MergedReftable}.
+ * <p>
+ * A writer is used by calling {@link #begin(OutputStream)}, then adding
+ * references in sorted order, then calling {@link #finish()}.
+ */
+public class ReftableWriter {
+	private static final Comparator<Entry> BY_NAME = new Comparator<Entry>() {
+		@Override
+		public int compare(Entry a, Entry b) {
+			return BlockReader.compare(a.key, a.key.length, b.key,
+					b.key.length);
+		}
+	};
+
+	private int blockSize = DEFAULT_BLOCK_SIZE;
+
+	private int restartInterval = DEFAULT_RESTART_INTERVAL;
+
+	private OutputStream out;
+
+	private long pos;
+
+	private BlockWriter refBlock;
+
+	private BlockWriter index;
+
+	private byte[] lastKey;
+
+	private long refCnt;
+
+	private int blockCnt;
+
+	/**
+	 * @param szBytes
+	 *            desired size of a reference block in bytes. Blocks holding a
+	 *            single, very long record may be larger.
+	 * @return {@code this}
+	 */
+	public ReftableWriter setBlockSize(int szBytes) {
+		if (szBytes < 256 || szBytes > MAX_BLOCK_SIZE)
+			throw new IllegalArgumentException();
+		blockSize = szBytes;
+		return this;
+	}
+
+	/**
+	 * @param interval
+	 *            number of records between restart points. Larger intervals
+	 *            compress better but slow down lookups.
+	 * @return {@code this}
+	 */
+	public ReftableWriter setRestartInterval(int interval) {
+		if (interval < 1)
+			throw new IllegalArgumentException();
+		restartInterval = interval;
+		return this;
+	}
+
+	/**
+	 * Begin writing the reftable.
+	 *
+	 * @param os
+	 *            stream to write the table to. The caller is responsible for
+	 *            buffering and closing the stream.
+	 * @return {@code this}
+	 * @throws IOException
+	 *             the header cannot be written.
+	 */
+	public ReftableWriter begin(OutputStream os) throws IOException {
+		out = os;
+		byte[] hdr = new byte[FILE_HEADER_LEN];
+		NB.encodeInt32(hdr, 0, FILE_MAGIC);
+		NB.encodeInt32(hdr, 4, blockSize);
+		hdr[4] = VERSION_1;
+		out.write(hdr);
+		pos = hdr.length;
+		index = new BlockWriter(INDEX_BLOCK_TYPE, Integer.MAX_VALUE,
+				restartInterval);
+		return this;
+	}
+
+	/**
+	 * Sort a collection of references and write them to the reftable.
+	 *
+	 * @param refsToPack
+	 *            references to sort and write; names must be unique.
+	 *            Non-symbolic references without an object id are written as
+	 *            deletions.
+	 * @return {@code this}
+	 * @throws IOException
+	 *             the reftable cannot be written.
+	 */
+	public ReftableWriter sortAndWriteRefs(Collection<Ref> refsToPack)
+			throws IOException {
+		Entry[] all = new Entry[refsToPack.size()];
+		int i = 0;
+		for (Ref r : refsToPack)
+			all[i++] = new Entry(r);
+		Arrays.sort(all, BY_NAME);
+		for (Entry e : all)
+			write(e.key, e.ref);
+		return this;
+	}
+
+	/**
+	 * Write one reference.
+	 * <p>
+	 * References must be written in byte order of their names. Non-symbolic
+	 * references should be peeled; an unpeeled annotated tag is stored
+	 * without its peeled value. A non-symbolic reference without an object id
+	 * is written as a deletion.
+	 *
+	 * @param ref
+	 *            the reference to store.
+	 * @throws IOException
+	 *             the reftable cannot be written.
+	 */
+	public void writeRef(Ref ref) throws IOException {
+		write(Constants.encode(ref.getName()), ref);
+	}
+
+	/**
+	 * Record the deletion of a reference.
+	 *
+	 * @param refName
+	 *            name of the deleted reference, in sorted order with the other
+	 *            records of this table.
+	 * @throws IOException
+	 *             the reftable cannot be written.
+	 */
+	public void deleteRef(String refName) throws IOException {
+		write(Constants.encode(refName), null);
+	}
+
+	private void write(byte[] key, Ref ref) throws IOException {
+		if (lastKey != null && BlockReader.compare(lastKey, lastKey.length,
+				key, key.length) >= 0)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().reftableRecordsMustIncrease,
+					RawParseUtils.decode(lastKey), RawParseUtils.decode(key)));
+
+		int valueType;
+		byte[] value;
+		if (ref == null || (!ref.isSymbolic() && ref.getObjectId() == null)) {
+			valueType = VALUE_NONE;
+			value = new byte[0];
+		} else if (ref.isSymbolic()) {
+			byte[] target = Constants.encode(ref.getTarget().getName());
+			byte[] len = BlockWriter.encodeVarint(target.length);
+			valueType = VALUE_SYMREF;
+			value = new byte[len.length + target.length];
+			System.arraycopy(len, 0, value, 0, len.length);
+			System.arraycopy(target, 0, value, len.length, target.length);
+		} else {
+			ObjectId id = ref.getObjectId();
+			ObjectId peeled = ref.getPeeledObjectId();
+			if (peeled != null) {
+				valueType = VALUE_2ID;
+				value = new byte[2 * OBJECT_ID_LENGTH];
+				peeled.copyRawTo(value, OBJECT_ID_LENGTH);
+			} else {
+				valueType = VALUE_1ID;
+				value = new byte[OBJECT_ID_LENGTH];
+			}
+			id.copyRawTo(value, 0);
+		}
+
+		if (refBlock == null)
+			refBlock = new BlockWriter(REF_BLOCK_TYPE, blockSize,
+					restartInterval);
+		if (!refBlock.add(key, valueType, value)) {
+			flushRefBlock();
+			refBlock = new BlockWriter(REF_BLOCK_TYPE, blockSize,
+					restartInterval);
+			refBlock.add(key, valueType, value);
+		}
+		lastKey = key;
+		refCnt++;
+	}
+
+	private void flushRefBlock() throws IOException {
+		byte[] last = refBlock.getLastKey();
+		index.add(last, VALUE_NONE, BlockWriter.encodeVarint((int) pos));
+		pos += refBlock.writeTo(out);
+		if (pos > Integer.MAX_VALUE)
+			throw new IOException(JGitText.get().reftableTooLarge);
+		blockCnt++;
+		refBlock = null;
+	}
+
+	/**
+	 * Finish writing the reftable by writing its index and trailer.
+	 *
+	 * @return {@code this}
+	 * @throws IOException
+	 *             the reftable cannot be written.
+	 */
+	public ReftableWriter finish() throws IOException {
+		if (refBlock != null && refBlock.getEntryCount() > 0)
+			flushRefBlock();
+
+		long indexPos = pos;
+		pos += index.writeTo(out);
+
+		byte[] ftr = new byte[FILE_FOOTER_LEN];
+		NB.encodeInt64(ftr, 0, indexPos);
+		NB.encodeInt64(ftr, 8, refCnt);
+		NB.encodeInt32(ftr, 16, FILE_MAGIC);
+		out.write(ftr);
+		pos += ftr.length;
+		out.flush();
+		return this;
+	}
+
+	/** @return number of records written, including deletions. */
+	public long getRefCount() {
+		return refCnt;
+	}
+
+	/** @return number of reference blocks written. */
+	public int getBlockCount() {
+		return blockCnt;
+	}
+
+	/** @return total number of bytes written. */
+	public long size() {
+		return pos;
+	}
+
+	private static class Entry {
+		final byte[] key;
+
+		final Ref ref;
+
+		Entry(Ref ref) {
+			this.key = Constants.encode(ref.getName());
+			this.ref = ref;
+		}
+	}
+}
@@ -0,0 +1,4 @@
+/**
+ * Binary, block based sorted tables of references.
+ */
+package org.eclipse.jgit.internal.storage.reftable;
@@ -386,4 +386,166 @@ public class ConfigConstants {
 	 * @since 4.7
 	 */
 	public static final String CONFIG_KEY_RECURSE_SUBMODULES = "recurseSubmodules";
+
+	/**
+	 * The "commitGraph" key in the "core section"
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_COMMIT_GRAPH = "commitGraph";
+
+	/**
+	 * The "writeCommitGraph" key in the "gc section"
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_WRITE_COMMIT_GRAPH = "writeCommitGraph";
+
+	/**
+	 * The "indexThreads" key in the "pack section"
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_INDEX_THREADS = "indexThreads";
+
+	/**
+	 * The "shardCount" key
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_SHARD_COUNT = "shardCount";
+
+	/**
+	 * The "packedRefsFormat" key in the "core section"
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_PACKED_REFS_FORMAT = "packedRefsFormat";
+
+	/**
+	 * The "protocol" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_PROTOCOL_SECTION = "protocol";
+
+	/**
+	 * The "index" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_INDEX_SECTION = "index";
+
+	/**
+	 * The "splitIndex" key in the "core" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_SPLIT_INDEX = "splitIndex";
+
+	/**
+	 * The "untrackedCache" key in the "core" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_UNTRACKED_CACHE = "untrackedCache";
+
+	/**
+	 * The "preloadIndex" key in the "core" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_PRELOAD_INDEX = "preloadIndex";
+
+	/**
+	 * The "splitIndex" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_SPLIT_INDEX_SECTION = "splitIndex";
+
+	/**
+	 * The "maxPercentChange" key in the "splitIndex" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_MAX_PERCENT_CHANGE = "maxPercentChange";
+
+	/**
+	 * The "sharedIndexExpire" key in the "splitIndex" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_SHARED_INDEX_EXPIRE = "sharedIndexExpire";
+
+	/**
+	 * The "version" key
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_VERSION = "version";
+
+	/**
+	 * The "promisor" key in the "remote" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_PROMISOR = "promisor";
+
+	/**
+	 * The "partialclonefilter" key in the "remote" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_PARTIAL_CLONE_FILTER = "partialclonefilter";
+
+	/**
+	 * The "checkout" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_CHECKOUT_SECTION = "checkout";
+
+	/**
+	 * The "workers" key in the "checkout" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_WORKERS = "workers";
+
+	/**
+	 * The "thresholdForParallelism" key in the "checkout" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_THRESHOLD_FOR_PARALLELISM = "thresholdForParallelism";
+
+	/**
+	 * The "approximateRenames" key in the "diff" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_APPROXIMATE_RENAMES = "approximateRenames";
+
+	/**
+	 * The "multiPackIndex" key in the "core" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_MULTI_PACK_INDEX = "multiPackIndex";
+
+	/**
+	 * The "geometricFactor" key in the "gc" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_GEOMETRIC_FACTOR = "geometricFactor";
+
+	/**
+	 * The "pruneThreads" key in the "gc" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_PRUNE_THREADS = "pruneThreads";
+
+	/**
+	 * The "extensions" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_EXTENSIONS_SECTION = "extensions";
+
+	/**
+	 * The "refsStorage" key in the "extensions" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_REFS_STORAGE = "refsStorage";
+
+	/**
+	 * The "partialclone" key in the "extensions" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_PARTIAL_CLONE = "partialclone";
+
+	/**
+	 * The "blameCacheSize" key in the "gc" section
+	 * @since 4.8
+	 */
+	public static final String CONFIG_KEY_BLAME_CACHE_SIZE = "blameCacheSize";
 }
@@ -265,6 +265,13 @@ public final class Constants {
 	/** Packed refs file */
 	public static final String PACKED_REFS = "packed-refs";
 
+	/**
+	 * Directory holding packed references in reftable format
+	 *
+	 * @since 4.8
+	 */
+	public static final String REFTABLE = "reftable";
+
 	/**
 	 * Excludes-file
 	 *
@@ -428,6 +435,13 @@ public final class Constants {
 	 */
 	public static final String HOOKS = "hooks";
 
+	/**
+	 * Name of the folder (inside gitDir) where blame results are cached.
+	 *
+	 * @since 4.8
+	 */
+	public static final String BLAME_CACHE = "blame-cache";
+
 	/**
 	 * Create a new digest function for objects.
 	 *
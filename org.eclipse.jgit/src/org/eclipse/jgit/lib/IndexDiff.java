@@ -47,6 +47,7 @@
 
 package org.eclipse.jgit.lib;
 
+import java.io.File;
 import java.io.IOException;
 import java.text.MessageFormat;
 import java.util.ArrayList;
@@ -54,17 +55,21 @@
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import org.eclipse.jgit.dircache.DirCache;
 import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.dircache.UntrackedCache;
 import org.eclipse.jgit.errors.ConfigInvalidException;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.StopWalkException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.WorkerPool;
 import org.eclipse.jgit.revwalk.RevWalk;
 import org.eclipse.jgit.submodule.SubmoduleWalk;
 import org.eclipse.jgit.submodule.SubmoduleWalk.IgnoreSubmoduleMode;
@@ -78,6 +83,8 @@
 import org.eclipse.jgit.treewalk.filter.IndexDiffFilter;
 import org.eclipse.jgit.treewalk.filter.SkipWorkTreeFilter;
 import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.StringUtils;
 
 /**
  * Compares the index, a tree, and the working directory Ignored files are not
@@ -405,6 +412,9 @@ public boolean diff(final ProgressMonitor monitor, int estWorkTreeSize,
 			int estIndexSize, final String title)
 			throws IOException {
 		dirCache = repository.readDirCache();
+		UntrackedCache previousCache = dirCache.getUntrackedCache();
+		UntrackedCache untrackedCache = newUntrackedCache(previousCache);
+		Executor contentChecks = getContentCheckExecutor();
 
 		try (TreeWalk treeWalk = new TreeWalk(repository)) {
 			treeWalk.setOperationType(OperationType.CHECKIN_OP);
@@ -434,10 +444,34 @@ public boolean diff(final ProgressMonitor monitor, int estWorkTreeSize,
 				filters.add(filter);
 			filters.add(new SkipWorkTreeFilter(INDEX));
 			indexDiffFilter = new IndexDiffFilter(INDEX, WORKDIR);
+			if (untrackedCache != null)
+				indexDiffFilter.setUntrackedCache(
+						isUsable(previousCache, untrackedCache) ? previousCache
+								: null,
+						untrackedCache, repository.getWorkTree(),
+						repository.getFS());
+			if (dirCache.getFsMonitorToken() != null) {
+				indexDiffFilter.setMarkFsMonitorValid(true);
+				if (initialWorkingTreeIterator instanceof FileTreeIterator)
+					((FileTreeIterator) initialWorkingTreeIterator)
+							.setFsMonitorIndex(dirCache);
+			}
+			indexDiffFilter.setContentCheckExecutor(contentChecks);
 			filters.add(indexDiffFilter);
 			treeWalk.setFilter(AndTreeFilter.create(filters));
 			fileModes.clear();
+			Map<String, FileMode[]> pendingModes = new HashMap<>();
 			while (treeWalk.next()) {
+				if (indexDiffFilter
+						.isContentCheckPending(treeWalk.getPathString())) {
+					// Only the content can differ; see below.
+					FileMode[] modes = new FileMode[treeWalk.getTreeCount()];
+					for (int i = 0; i < modes.length; i++)
+						modes[i] = treeWalk.getFileMode(i);
+					pendingModes.put(treeWalk.getPathString(), modes);
+					continue;
+				}
+
 				AbstractTreeIterator treeIterator = treeWalk.getTree(TREE,
 						AbstractTreeIterator.class);
 				DirCacheIterator dirCacheIterator = treeWalk.getTree(INDEX,
@@ -524,6 +558,30 @@ public boolean diff(final ProgressMonitor monitor, int estWorkTreeSize,
 					}
 				}
 			}
+
+			// in index, in workdir, content differs => modified
+			for (String path : indexDiffFilter.finishContentChecks()) {
+				modified.add(path);
+				for (FileMode mode : pendingModes.get(path)) {
+					Set<String> values = fileModes.get(mode);
+					if (values == null) {
+						values = new HashSet<>();
+						fileModes.put(mode, values);
+					}
+					values.add(path);
+				}
+			}
+
+			boolean updateCache = false;
+			if (untrackedCache != null) {
+				untracked.addAll(indexDiffFilter.getCachedUntrackedFiles());
+				untrackedCache = indexDiffFilter.getUntrackedCache();
+				updateCache = !untrackedCache.equals(previousCache);
+			} else if (previousCache != null && isUntrackedCacheDisabled())
+				updateCache = true;
+			if (updateCache || indexDiffFilter.isFsMonitorValidMarked()
+					|| !indexDiffFilter.getRefreshedEntries().isEmpty())
+				updateIndex(updateCache, untrackedCache);
 		}
 
 		if (ignoreSubmoduleMode != IgnoreSubmoduleMode.ALL) {
@@ -593,6 +651,107 @@ else if (ignoreSubmoduleMode != IgnoreSubmoduleMode.DIRTY) {
 			return true;
 	}
 
+	/**
+	 * @return an empty untracked cache to record the walk in; null if this
+	 *         diff does not use the untracked cache.
+	 */
+	private UntrackedCache newUntrackedCache(UntrackedCache previous)
+			throws IOException {
+		// Skipped directories are reported as a whole, so every path of the
+		// working tree has to pass through the IndexDiffFilter.
+		if (filter != null
+				|| !(initialWorkingTreeIterator instanceof FileTreeIterator))
+			return null;
+		File workTree = repository.getWorkTree();
+		if (!workTree.equals(((FileTreeIterator) initialWorkingTreeIterator)
+				.getDirectory()))
+			return null;
+
+		String ident = UntrackedCache.ident(workTree);
+		Boolean enabled = StringUtils.toBooleanOrNull(repository.getConfig()
+				.getString(ConfigConstants.CONFIG_CORE_SECTION, null,
+						ConfigConstants.CONFIG_KEY_UNTRACKED_CACHE));
+		if (enabled == null) {
+			// "keep" or unset: use the cache only if it is already there.
+			if (previous == null || !ident.equals(previous.getIdent()))
+				return null;
+		} else if (!enabled.booleanValue())
+			return null;
+
+		FS fs = repository.getFS();
+		UntrackedCache cache = new UntrackedCache(ident);
+		cache.setInfoExcludeId(UntrackedCache.excludeId(
+				fs.resolve(repository.getDirectory(), Constants.INFO_EXCLUDE)));
+		String path = repository.getConfig().get(CoreConfig.KEY)
+				.getExcludesFile();
+		if (path == null)
+			cache.setExcludesFileId(ObjectId.zeroId());
+		else if (path.startsWith("~/")) //$NON-NLS-1$
+			cache.setExcludesFileId(UntrackedCache.excludeId(
+					fs.resolve(fs.userHome(), path.substring(2))));
+		else
+			cache.setExcludesFileId(
+					UntrackedCache.excludeId(fs.resolve(null, path)));
+		return cache;
+	}
+
+	private static boolean isUsable(UntrackedCache previous,
+			UntrackedCache next) {
+		return previous != null && previous.getIdent().equals(next.getIdent())
+				&& next.getInfoExcludeId().equals(previous.getInfoExcludeId())
+				&& next.getExcludesFileId()
+						.equals(previous.getExcludesFileId());
+	}
+
+	private boolean isUntrackedCacheDisabled() {
+		return filter == null && Boolean.FALSE.equals(StringUtils
+				.toBooleanOrNull(repository.getConfig().getString(
+						ConfigConstants.CONFIG_CORE_SECTION, null,
+						ConfigConstants.CONFIG_KEY_UNTRACKED_CACHE)));
+	}
+
+	private Executor getContentCheckExecutor() {
+		if (!repository.getConfig().getBoolean(
+				ConfigConstants.CONFIG_CORE_SECTION,
+				ConfigConstants.CONFIG_KEY_PRELOAD_INDEX, true))
+			return null;
+		return WorkerPool.get();
+	}
+
+	private void updateIndex(boolean updateCache, UntrackedCache cache) {
+		// Like C Git, only update the index if it is not locked by someone
+		// else. The caches are an optimization; failing to store them only
+		// makes the next diff look at the working tree again.
+		try {
+			DirCache dc = repository.lockDirCache();
+			try {
+				if (updateCache)
+					dc.setUntrackedCache(cache);
+				refreshStat(dc, indexDiffFilter.getRefreshedEntries());
+				if (indexDiffFilter.isFsMonitorValidMarked())
+					dc.copyFsMonitorState(dirCache);
+				dc.write();
+				dc.commit();
+			} finally {
+				dc.unlock();
+			}
+		} catch (IOException e) {
+			// Keep the index as it is.
+		}
+	}
+
+	private static void refreshStat(DirCache dc, List<DirCacheEntry> entries) {
+		for (DirCacheEntry src : entries) {
+			DirCacheEntry e = dc.getEntry(src.getPathString());
+			if (e != null && e.getStage() == 0
+					&& e.getRawMode() == src.getRawMode()
+					&& e.getObjectId().equals(src.getObjectId())) {
+				e.setLength(src.getLength());
+				e.setLastModified(src.getLastModified());
+			}
+		}
+	}
+
 	private boolean isEntryGitLink(AbstractTreeIterator ti) {
 		return ((ti != null) && (ti.getEntryRawMode() == FileMode.GITLINK
 				.getBits()));
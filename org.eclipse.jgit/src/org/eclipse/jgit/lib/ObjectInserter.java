@@ -50,8 +50,19 @@
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.security.MessageDigest;
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.WorkerPool;
 import org.eclipse.jgit.transport.PackParser;
 import org.eclipse.jgit.util.sha1.SHA1;
 
@@ -145,6 +156,22 @@ public ObjectId insert(int objectType, long length, InputStream in)
 			return delegate().insert(objectType, length, in);
 		}
 
+		@Override
+		public List<ObjectId> insert(int type, List<byte[]> objects)
+				throws IOException {
+			return delegate().insert(type, objects);
+		}
+
+		@Override
+		public void setHashThreads(int threads) {
+			delegate().setHashThreads(threads);
+		}
+
+		@Override
+		public void setDetectCollision(boolean detect) {
+			delegate().setDetectCollision(detect);
+		}
+
 		@Override
 		public PackParser newPackParser(InputStream in) throws IOException {
 			return delegate().newPackParser(in);
@@ -177,11 +204,18 @@ public void close() {
 		}
 	}
 
+	/** Minimum bytes in a batch before it is hashed on several threads. */
+	private static final int MIN_PARALLEL_HASH_BYTES = 1 << 20;
+
 	private final SHA1 hasher = SHA1.newInstance();
 
 	/** Temporary working buffer for streaming data through. */
 	private byte[] tempBuffer;
 
+	private int hashThreads = Runtime.getRuntime().availableProcessors();
+
+	private boolean detectCollision = true;
+
 	/** Create a new inserter for a database. */
 	protected ObjectInserter() {
 	}
@@ -217,6 +251,41 @@ protected byte[] buffer() {
 		return b;
 	}
 
+	/**
+	 * Set the number of threads used to hash objects inserted by
+	 * {@link #insert(int, List)}.
+	 * <p>
+	 * Default is the number of available processors. Small batches are always
+	 * hashed on the calling thread. Larger batches are split into this many
+	 * chunks, hashed by threads of a pool shared by all inserters.
+	 *
+	 * @param threads
+	 *            number of threads; values less than 1 use the number of
+	 *            available processors.
+	 * @since 4.8
+	 */
+	public void setHashThreads(int threads) {
+		if (threads < 1)
+			threads = Runtime.getRuntime().availableProcessors();
+		hashThreads = threads;
+	}
+
+	/**
+	 * Enable detection of SHA-1 collision attacks when computing the name of
+	 * objects supplied as byte arrays or streams.
+	 * <p>
+	 * Default is {@code true}. When disabled names are computed by the JDK's
+	 * {@link MessageDigest}, which is faster but cannot recognize objects
+	 * crafted to collide with another object. Disable only for trusted input.
+	 *
+	 * @param detect
+	 *            true to detect collisions.
+	 * @since 4.8
+	 */
+	public void setDetectCollision(boolean detect) {
+		detectCollision = detect;
+	}
+
 	/**
 	 * @return digest to help compute an ObjectId
 	 * @since 4.7
@@ -252,6 +321,21 @@ public ObjectId idFor(int type, byte[] data) {
 	 * @return the name of the object.
 	 */
 	public ObjectId idFor(int type, byte[] data, int off, int len) {
+		return hash(detectCollision, type, data, off, len);
+	}
+
+	private static ObjectId hash(boolean detect, int type, byte[] data,
+			int off, int len) {
+		if (!detect) {
+			MessageDigest md = Constants.newMessageDigest();
+			md.update(Constants.encodedTypeString(type));
+			md.update((byte) ' ');
+			md.update(Constants.encodeASCII(len));
+			md.update((byte) 0);
+			md.update(data, off, len);
+			return ObjectId.fromRaw(md.digest());
+		}
+
 		SHA1 md = SHA1.newInstance();
 		md.update(Constants.encodedTypeString(type));
 		md.update((byte) ' ');
@@ -277,6 +361,23 @@ public ObjectId idFor(int type, byte[] data, int off, int len) {
 	 */
 	public ObjectId idFor(int objectType, long length, InputStream in)
 			throws IOException {
+		if (!detectCollision) {
+			MessageDigest md = Constants.newMessageDigest();
+			md.update(Constants.encodedTypeString(objectType));
+			md.update((byte) ' ');
+			md.update(Constants.encodeASCII(length));
+			md.update((byte) 0);
+			byte[] buf = buffer();
+			while (length > 0) {
+				int n = in.read(buf, 0, (int) Math.min(length, buf.length));
+				if (n < 0)
+					throw new EOFException(JGitText.get().unexpectedEndOfInput);
+				md.update(buf, 0, n);
+				length -= n;
+			}
+			return ObjectId.fromRaw(md.digest());
+		}
+
 		SHA1 md = SHA1.newInstance();
 		md.update(Constants.encodedTypeString(objectType));
 		md.update((byte) ' ');
@@ -381,6 +482,124 @@ public ObjectId insert(int type, byte[] data, int off, int len)
 		return insert(type, len, new ByteArrayInputStream(data, off, len));
 	}
 
+	/**
+	 * Insert many objects of the same type into the store.
+	 * <p>
+	 * Names of the objects are computed first, on several threads if the
+	 * batch is large enough (see {@link #setHashThreads(int)}), and the
+	 * objects are then stored in order by the calling thread. When called from
+	 * a task of JGit's shared worker pool the batch is hashed on the calling
+	 * thread only, as waiting for other tasks of the pool could deadlock.
+	 *
+	 * @param type
+	 *            type code of the objects to store.
+	 * @param objects
+	 *            complete content of each object.
+	 * @return the names of the objects, in the same order as
+	 *         {@code objects}.
+	 * @throws IOException
+	 *             an object could not be stored, or hashing was interrupted.
+	 * @since 4.8
+	 */
+	public List<ObjectId> insert(int type, List<byte[]> objects)
+			throws IOException {
+		ObjectId[] ids = idFor(type, objects);
+		for (int i = 0; i < ids.length; i++) {
+			byte[] data = objects.get(i);
+			insert(ids[i], type, data, 0, data.length);
+		}
+		return Arrays.asList(ids);
+	}
+
+	/**
+	 * Insert a single object whose name is already known.
+	 * <p>
+	 * Used by {@link #insert(int, List)} after hashing the batch. The default
+	 * implementation ignores {@code id} and calls
+	 * {@link #insert(int, byte[], int, int)}; implementations should override
+	 * it to avoid hashing the object twice.
+	 *
+	 * @param id
+	 *            name of the object, as computed by
+	 *            {@link #idFor(int, byte[], int, int)}.
+	 * @param type
+	 *            type code of the object to store.
+	 * @param data
+	 *            complete content of the object.
+	 * @param off
+	 *            first position within {@code data}.
+	 * @param len
+	 *            number of bytes to copy from {@code data}.
+	 * @return the name of the object.
+	 * @throws IOException
+	 *             the object could not be stored.
+	 * @since 4.8
+	 */
+	protected ObjectId insert(ObjectId id, int type, byte[] data, int off,
+			int len) throws IOException {
+		return insert(type, data, off, len);
+	}
+
+	private ObjectId[] idFor(final int type, final List<byte[]> objects)
+			throws IOException {
+		final ObjectId[] ids = new ObjectId[objects.size()];
+		long size = 0;
+		for (byte[] data : objects)
+			size += data.length;
+
+		int threads = Math.min(hashThreads, ids.length);
+		if (threads <= 1 || size < MIN_PARALLEL_HASH_BYTES
+				|| WorkerPool.isWorkerThread()) {
+			for (int i = 0; i < ids.length; i++) {
+				byte[] data = objects.get(i);
+				ids[i] = idFor(type, data, 0, data.length);
+			}
+			return ids;
+		}
+
+		final boolean detect = detectCollision;
+		ExecutorService pool = WorkerPool.get();
+		List<Future<Void>> futures = new ArrayList<>(threads);
+		try {
+			int chunk = (ids.length + threads - 1) / threads;
+			for (int s = 0; s < ids.length; s += chunk) {
+				final int start = s;
+				final int end = Math.min(s + chunk, ids.length);
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						for (int i = start; i < end; i++) {
+							byte[] data = objects.get(i);
+							ids[i] = hash(detect, type, data, 0, data.length);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> f : futures) {
+				try {
+					f.get();
+				} catch (InterruptedException e) {
+					throw new InterruptedIOException(MessageFormat.format(
+							JGitText.get().operationCanceled,
+							JGitText.get().hashingObjects));
+				} catch (ExecutionException e) {
+					Throwable cause = e.getCause();
+					if (cause instanceof Error)
+						throw (Error) cause;
+					if (cause instanceof RuntimeException)
+						throw (RuntimeException) cause;
+					throw new IOException(cause.getMessage(), cause);
+				}
+			}
+		} finally {
+			// Only has an effect if a chunk failed.
+			for (Future<Void> f : futures)
+				f.cancel(true);
+		}
+		return ids;
+	}
+
 	/**
 	 * Insert a single object into the store, returning its unique name.
 	 *
@@ -53,6 +53,7 @@
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.internal.storage.pack.ObjectReuseAsIs;
 
 /**
@@ -264,6 +265,25 @@ public abstract ObjectLoader open(AnyObjectId objectId, int typeHint)
 	 */
 	public abstract Set<ObjectId> getShallowCommits() throws IOException;
 
+	/**
+	 * Get the commit-graph of the repository, if one is available.
+	 * <p>
+	 * The commit-graph stores parents, trees, commit times and generation
+	 * numbers of commits, allowing history to be walked without inflating
+	 * commit objects. Commits created after the graph was written are not
+	 * covered by it and must be parsed from the object database.
+	 *
+	 * @return the commit-graph, or null if the repository has no commit-graph
+	 *         or its use is disabled by configuration.
+	 * @throws IOException
+	 *             the commit-graph exists but cannot be read.
+	 * @since 4.8
+	 */
+	@Nullable
+	public CommitGraph getCommitGraph() throws IOException {
+		return null;
+	}
+
 	/**
 	 * Asynchronous object opening.
 	 *
@@ -549,6 +569,11 @@ public Set<ObjectId> getShallowCommits() throws IOException {
 			return delegate().getShallowCommits();
 		}
 
+		@Override
+		public CommitGraph getCommitGraph() throws IOException {
+			return delegate().getCommitGraph();
+		}
+
 		@Override
 		public <T extends ObjectId> AsyncObjectLoaderQueue<T> open(
 				Iterable<T> objectIds, boolean reportMissing) {
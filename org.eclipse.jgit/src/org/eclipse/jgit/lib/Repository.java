@@ -94,6 +94,7 @@
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.util.FS;
 import org.eclipse.jgit.util.FileUtils;
+import org.eclipse.jgit.util.FsMonitor;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.RawParseUtils;
 import org.eclipse.jgit.util.SystemReader;
@@ -147,6 +148,9 @@ public static ListenerList getGlobalListenerList() {
 	/** If not bare, the index file caching the working file states. */
 	private final File indexFile;
 
+	/** If set, reports which working tree files changed. */
+	private volatile FsMonitor fsMonitor;
+
 	/**
 	 * Initialize a new repository instance.
 	 *
@@ -273,6 +277,31 @@ public FS getFS() {
 		return fs;
 	}
 
+	/**
+	 * Get the monitor reporting changes of the working tree.
+	 *
+	 * @return the file system monitor; null if none was set.
+	 * @since 4.8
+	 */
+	@Nullable
+	public FsMonitor getFsMonitor() {
+		return fsMonitor;
+	}
+
+	/**
+	 * Set the monitor reporting changes of the working tree.
+	 * <p>
+	 * Index entries the monitor reports as unchanged are not compared against
+	 * their working tree files, saving a stat per file in large working trees.
+	 *
+	 * @param monitor
+	 *            the file system monitor; null to look at every file again.
+	 * @since 4.8
+	 */
+	public void setFsMonitor(@Nullable FsMonitor monitor) {
+		fsMonitor = monitor;
+	}
+
 	/**
 	 * @param objectId
 	 * @return true if the specified object is stored in this repo or any of the
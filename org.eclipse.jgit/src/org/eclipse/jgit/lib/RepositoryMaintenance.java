@@ -0,0 +1,685 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.lib;
+
+import static org.eclipse.jgit.internal.storage.pack.PackExt.BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.LAYERED_BITMAP_INDEX;
+import static org.eclipse.jgit.internal.storage.pack.PackExt.PACK;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.MessageFormat;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.dfs.DfsGarbageCollector;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackCompactor;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackDescription;
+import org.eclipse.jgit.internal.storage.dfs.DfsPackFile;
+import org.eclipse.jgit.internal.storage.dfs.DfsRepository;
+import org.eclipse.jgit.internal.storage.file.FileRepository;
+import org.eclipse.jgit.internal.storage.file.GC;
+import org.eclipse.jgit.internal.storage.file.PackFile;
+import org.eclipse.jgit.lib.RepositoryCache.FileKey;
+import org.eclipse.jgit.transport.PostReceiveHook;
+import org.eclipse.jgit.transport.ReceiveCommand;
+import org.eclipse.jgit.transport.ReceivePack;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Schedules incremental maintenance of repositories in the background.
+ * <p>
+ * Servers call {@link #onReceive(Repository)} after objects were received
+ * into a repository, e.g. through the hook returned by
+ * {@link #newPostReceiveHook()}. The number of loose objects, loose refs and
+ * packs of the repository is then estimated, and if any of them exceeds its
+ * limit the tasks needed to bring it back in line are queued. These tasks
+ * only rewrite recent packs; a full repack is left to
+ * {@link #schedule(Repository, Set)}.
+ * <p>
+ * Tasks of all repositories share one queue ordered by priority, and at most
+ * {@link #setMaxConcurrentTasks(int)} repositories are maintained at the same
+ * time. A repository is not maintained again within
+ * {@link #setMinInterval(long, TimeUnit)} of its last maintenance, spreading
+ * the work of busy repositories over time. Repositories stored in a directory
+ * are reopened through the {@link RepositoryCache} when their turn comes;
+ * other repositories are held open while queued.
+ * <p>
+ * Tasks run on daemon threads owned by this scheduler, not on the
+ * {@link WorkQueue} executor, whose single thread would otherwise be held by
+ * a long repack. Threads are started on demand and end after a minute
+ * without work. The owner of the scheduler should still call
+ * {@link #shutdown()} when it stops serving repositories.
+ *
+ * @since 4.8
+ */
+public class RepositoryMaintenance {
+	private static final Logger LOG = LoggerFactory
+			.getLogger(RepositoryMaintenance.class);
+
+	/** Maintenance tasks, in order of decreasing priority. */
+	public static enum Task {
+		/** Pack loose objects, rolling small packs together. */
+		PACK_LOOSE_OBJECTS,
+
+		/** Roll small packs together. */
+		COMPACT_PACKS,
+
+		/** Pack loose references. */
+		PACK_REFS,
+
+		/** Extend the multi-pack-index to the packs it does not cover. */
+		UPDATE_MULTI_PACK_INDEX,
+
+		/**
+		 * Roll recent packs together, layering their bitmaps on the bitmap
+		 * indexes of the packs left in place.
+		 */
+		REBUILD_BITMAPS,
+
+		/**
+		 * Repack all objects, writing the bitmap index from scratch.
+		 * <p>
+		 * This is only scheduled on receive if no pack has a bitmap index
+		 * the other packs' bitmaps could be layered on. Otherwise it must be
+		 * requested through {@link RepositoryMaintenance#schedule}, as its
+		 * cost grows with the size of the repository.
+		 */
+		FULL_REPACK;
+	}
+
+	private final Object lock = new Object();
+
+	private final ExecutorService workers;
+
+	/** Jobs ready to run, by priority. */
+	private final PriorityQueue<Job> queue = new PriorityQueue<>();
+
+	/** Jobs waiting, queued or running, by repository. */
+	private final Map<Object, Job> jobs = new HashMap<>();
+
+	/** Time the last maintenance of a repository ended, by repository. */
+	private final Map<Object, Long> lastRun = new HashMap<>();
+
+	private long sequence;
+
+	private int running;
+
+	private boolean shutdown;
+
+	private int maxConcurrentTasks = 1;
+
+	private long minIntervalMillis = TimeUnit.MINUTES.toMillis(10);
+
+	private int looseObjectLimit = 6700;
+
+	private int packLimit = 50;
+
+	private int looseRefLimit = 1000;
+
+	private int bitmapPackLimit = 10;
+
+	private int multiPackIndexPackLimit = 5;
+
+	/** Create a scheduler with default limits. */
+	public RepositoryMaintenance() {
+		workers = Executors.newCachedThreadPool(new ThreadFactory() {
+			private final ThreadFactory baseFactory = Executors
+					.defaultThreadFactory();
+
+			@Override
+			public Thread newThread(Runnable taskBody) {
+				Thread thr = baseFactory.newThread(taskBody);
+				thr.setName("JGit-Maintenance"); //$NON-NLS-1$
+				thr.setDaemon(true);
+				return thr;
+			}
+		});
+	}
+
+	/**
+	 * @param max
+	 *            maximum number of repositories maintained at the same time.
+	 *            Default is 1.
+	 * @return {@code this}
+	 */
+	public RepositoryMaintenance setMaxConcurrentTasks(int max) {
+		if (max < 1)
+			throw new IllegalArgumentException();
+		synchronized (lock) {
+			maxConcurrentTasks = max;
+			dispatch();
+		}
+		return this;
+	}
+
+	/**
+	 * @param interval
+	 *            minimum time between the end of a maintenance of a
+	 *            repository and the start of the next one. Default is 10
+	 *            minutes.
+	 * @param unit
+	 *            unit of {@code interval}.
+	 * @return {@code this}
+	 */
+	public RepositoryMaintenance setMinInterval(long interval, TimeUnit unit) {
+		synchronized (lock) {
+			minIntervalMillis = unit.toMillis(interval);
+		}
+		return this;
+	}
+
+	/**
+	 * @param limit
+	 *            number of loose objects above which they are packed. Default
+	 *            is 6700, as for {@code gc.auto}.
+	 * @return {@code this}
+	 */
+	public RepositoryMaintenance setLooseObjectLimit(int limit) {
+		looseObjectLimit = limit;
+		return this;
+	}
+
+	/**
+	 * @param limit
+	 *            number of packs above which small packs are rolled together.
+	 *            Default is 50, as for {@code gc.autopacklimit}.
+	 * @return {@code this}
+	 */
+	public RepositoryMaintenance setPackLimit(int limit) {
+		packLimit = limit;
+		return this;
+	}
+
+	/**
+	 * @param limit
+	 *            number of loose refs above which refs are packed. Default is
+	 *            1000.
+	 * @return {@code this}
+	 */
+	public RepositoryMaintenance setLooseRefLimit(int limit) {
+		looseRefLimit = limit;
+		return this;
+	}
+
+	/**
+	 * @param limit
+	 *            number of packs without a bitmap index above which recent
+	 *            packs are rolled together to extend the bitmaps. Default is
+	 *            10.
+	 * @return {@code this}
+	 */
+	public RepositoryMaintenance setBitmapPackLimit(int limit) {
+		bitmapPackLimit = limit;
+		return this;
+	}
+
+	/**
+	 * @param limit
+	 *            number of packs not covered by the multi-pack-index above
+	 *            which the index is updated, if {@code core.multiPackIndex}
+	 *            is enabled. Default is 5.
+	 * @return {@code this}
+	 */
+	public RepositoryMaintenance setMultiPackIndexPackLimit(int limit) {
+		multiPackIndexPackLimit = limit;
+		return this;
+	}
+
+	/**
+	 * @return a hook calling {@link #onReceive(Repository)} after each push
+	 *         that updated at least one reference.
+	 */
+	public PostReceiveHook newPostReceiveHook() {
+		return new PostReceiveHook() {
+			@Override
+			public void onPostReceive(ReceivePack rp,
+					Collection<ReceiveCommand> commands) {
+				for (ReceiveCommand cmd : commands) {
+					if (cmd.getResult() == ReceiveCommand.Result.OK) {
+						onReceive(rp.getRepository());
+						return;
+					}
+				}
+			}
+		};
+	}
+
+	/**
+	 * Check whether a repository needs maintenance, and schedule it.
+	 * <p>
+	 * The check only estimates counts and is cheap enough to be done after
+	 * every push. Tasks of a repository already waiting for maintenance are
+	 * merged into its pending maintenance.
+	 *
+	 * @param repo
+	 *            repository that received new objects or references.
+	 */
+	public void onReceive(Repository repo) {
+		Set<Task> tasks;
+		try {
+			tasks = getNeededTasks(repo);
+		} catch (IOException e) {
+			LOG.warn(e.getMessage(), e);
+			return;
+		}
+		schedule(repo, tasks);
+	}
+
+	/**
+	 * Schedule maintenance tasks of a repository, whether or not their limits
+	 * are exceeded.
+	 * <p>
+	 * This is the way to run {@link Task#FULL_REPACK}, e.g. from a periodic
+	 * job during quiet hours. Tasks of a repository already waiting for
+	 * maintenance are merged into its pending maintenance.
+	 *
+	 * @param repo
+	 *            the repository.
+	 * @param tasks
+	 *            tasks to run.
+	 */
+	public void schedule(Repository repo, Set<Task> tasks) {
+		if (tasks.isEmpty())
+			return;
+
+		Object key = keyFor(repo);
+		synchronized (lock) {
+			if (shutdown)
+				return;
+			Job job = jobs.get(key);
+			if (job != null) {
+				job.tasks.addAll(tasks);
+				if (job.queued) {
+					// The priority may have changed.
+					queue.remove(job);
+					queue.add(job);
+				}
+				return;
+			}
+			job = new Job(key, repo, tasks);
+			jobs.put(key, job);
+			schedule(job);
+		}
+	}
+
+	/**
+	 * Stop scheduling maintenance.
+	 * <p>
+	 * Maintenance already running is completed, waiting maintenance is
+	 * dropped. The worker threads end once the running maintenance is done.
+	 */
+	public void shutdown() {
+		synchronized (lock) {
+			shutdown = true;
+			for (Job job : jobs.values()) {
+				if (!job.running)
+					job.release();
+			}
+			jobs.clear();
+			queue.clear();
+		}
+		workers.shutdown();
+	}
+
+	/**
+	 * Wait until the worker threads ended after {@link #shutdown()}.
+	 *
+	 * @param timeout
+	 *            maximum time to wait.
+	 * @param unit
+	 *            unit of {@code timeout}.
+	 * @return true if the threads ended, false if the timeout elapsed.
+	 * @throws InterruptedException
+	 *             the thread was interrupted.
+	 */
+	boolean awaitTermination(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		return workers.awaitTermination(timeout, unit);
+	}
+
+	/**
+	 * Wait until no maintenance is waiting or running.
+	 *
+	 * @param timeout
+	 *            maximum time to wait.
+	 * @param unit
+	 *            unit of {@code timeout}.
+	 * @return true if idle, false if the timeout elapsed.
+	 * @throws InterruptedException
+	 *             the thread was interrupted.
+	 */
+	boolean awaitIdle(long timeout, TimeUnit unit)
+			throws InterruptedException {
+		long end = System.currentTimeMillis() + unit.toMillis(timeout);
+		synchronized (lock) {
+			while (!jobs.isEmpty()) {
+				long wait = end - System.currentTimeMillis();
+				if (wait <= 0)
+					return false;
+				lock.wait(wait);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Estimate which maintenance a repository needs.
+	 *
+	 * @param repo
+	 *            the repository.
+	 * @return tasks whose limit is exceeded; empty for repositories of an
+	 *         unknown storage.
+	 * @throws IOException
+	 *             the repository could not be inspected.
+	 */
+	Set<Task> getNeededTasks(Repository repo) throws IOException {
+		Set<Task> tasks = EnumSet.noneOf(Task.class);
+		if (repo instanceof FileRepository) {
+			FileRepository fr = (FileRepository) repo;
+			if (estimateLooseObjects(fr) > looseObjectLimit)
+				tasks.add(Task.PACK_LOOSE_OBJECTS);
+			Collection<PackFile> packs = fr.getObjectDatabase().getPacks();
+			if (packs.size() > packLimit)
+				tasks.add(Task.COMPACT_PACKS);
+			int withoutBitmap = 0;
+			for (PackFile p : packs) {
+				if (!hasBitmap(p))
+					withoutBitmap++;
+			}
+			addBitmapTask(tasks, withoutBitmap, packs.size());
+			if (fr.getObjectDatabase()
+					.getPacksNotInMultiPackIndex() > multiPackIndexPackLimit)
+				tasks.add(Task.UPDATE_MULTI_PACK_INDEX);
+			if (countLooseRefs(fr, looseRefLimit) > looseRefLimit)
+				tasks.add(Task.PACK_REFS);
+		} else if (repo instanceof DfsRepository) {
+			DfsPackFile[] packs = ((DfsRepository) repo).getObjectDatabase()
+					.getPacks();
+			if (packs.length > packLimit)
+				tasks.add(Task.COMPACT_PACKS);
+			int withoutBitmap = 0;
+			for (DfsPackFile p : packs) {
+				DfsPackDescription d = p.getPackDescription();
+				if (!d.hasFileExt(BITMAP_INDEX)
+						&& !d.hasFileExt(LAYERED_BITMAP_INDEX))
+					withoutBitmap++;
+			}
+			addBitmapTask(tasks, withoutBitmap, packs.length);
+		}
+		return tasks;
+	}
+
+	private void addBitmapTask(Set<Task> tasks, int withoutBitmap,
+			int packCount) {
+		if (withoutBitmap <= bitmapPackLimit)
+			return;
+		// Layered bitmaps need a base; only the first one is written by
+		// repacking everything.
+		if (withoutBitmap == packCount)
+			tasks.add(Task.FULL_REPACK);
+		else
+			tasks.add(Task.REBUILD_BITMAPS);
+	}
+
+	private static long estimateLooseObjects(FileRepository repo) {
+		// Object names are distributed evenly, so one fanout directory is a
+		// good enough sample of all 256.
+		String[] names = new File(repo.getObjectsDirectory(), "17").list(); //$NON-NLS-1$
+		if (names == null)
+			return 0;
+		long n = 0;
+		for (String name : names) {
+			if (name.length() == Constants.OBJECT_ID_STRING_LENGTH - 2)
+				n++;
+		}
+		return n * 256;
+	}
+
+	private static boolean hasBitmap(PackFile p) {
+		File pack = p.getPackFile();
+		String name = pack.getName();
+		String base = name.substring(0,
+				name.length() - PACK.getExtension().length());
+		File dir = pack.getParentFile();
+		return new File(dir, base + BITMAP_INDEX.getExtension()).exists()
+				|| new File(dir, base + LAYERED_BITMAP_INDEX.getExtension())
+						.exists();
+	}
+
+	private static int countLooseRefs(FileRepository repo, int limit) {
+		// Walk the refs directory rather than the ref database, stopping
+		// once the limit is exceeded, so repositories with many refs are
+		// not scanned on every push.
+		int n = 0;
+		ArrayDeque<File> todo = new ArrayDeque<>();
+		todo.push(new File(repo.getDirectory(), Constants.R_REFS));
+		File dir;
+		while (n <= limit && (dir = todo.poll()) != null) {
+			File[] entries = dir.listFiles();
+			if (entries == null)
+				continue;
+			for (File f : entries) {
+				if (f.isDirectory())
+					todo.push(f);
+				else if (!f.getName().endsWith(".lock") && ++n > limit) //$NON-NLS-1$
+					break;
+			}
+		}
+		return n;
+	}
+
+	private static Object keyFor(Repository repo) {
+		if (repo.getDirectory() != null)
+			return FileKey.exact(repo.getDirectory(), repo.getFS());
+		return repo;
+	}
+
+	private void schedule(Job job) {
+		Long last = lastRun.get(job.key);
+		long delay = last != null
+				? last.longValue() + minIntervalMillis
+						- System.currentTimeMillis()
+				: 0;
+		if (delay <= 0) {
+			enqueue(job);
+			return;
+		}
+		final Job waiting = job;
+		WorkQueue.getExecutor().schedule(new Runnable() {
+			@Override
+			public void run() {
+				synchronized (lock) {
+					if (jobs.get(waiting.key) == waiting)
+						enqueue(waiting);
+				}
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private void enqueue(Job job) {
+		job.sequence = sequence++;
+		job.queued = true;
+		queue.add(job);
+		dispatch();
+	}
+
+	private void dispatch() {
+		while (running < maxConcurrentTasks && !queue.isEmpty()) {
+			final Job job = queue.poll();
+			final Set<Task> tasks = EnumSet.copyOf(job.tasks);
+			job.tasks.clear();
+			job.queued = false;
+			job.running = true;
+			running++;
+			workers.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						job.run(tasks);
+					} catch (Throwable e) {
+						LOG.error(MessageFormat.format(
+								JGitText.get().repositoryMaintenanceFailed,
+								job.key), e);
+					} finally {
+						finished(job);
+					}
+				}
+			});
+		}
+	}
+
+	private void finished(Job job) {
+		synchronized (lock) {
+			running--;
+			job.running = false;
+			lastRun.put(job.key, Long.valueOf(System.currentTimeMillis()));
+			if (!shutdown && !job.tasks.isEmpty()) {
+				// Tasks added while running wait for the next turn.
+				schedule(job);
+			} else {
+				jobs.remove(job.key);
+				job.release();
+			}
+			dispatch();
+			lock.notifyAll();
+		}
+	}
+
+	private class Job implements Comparable<Job> {
+		final Object key;
+
+		/** Repository held open while waiting; null if reopened by key. */
+		final Repository repo;
+
+		final Set<Task> tasks;
+
+		long sequence;
+
+		boolean queued;
+
+		boolean running;
+
+		Job(Object key, Repository repo, Set<Task> tasks) {
+			this.key = key;
+			if (key instanceof FileKey) {
+				this.repo = null;
+			} else {
+				repo.incrementOpen();
+				this.repo = repo;
+			}
+			this.tasks = EnumSet.copyOf(tasks);
+		}
+
+		void run(Set<Task> todo) throws IOException {
+			if (repo != null) {
+				RepositoryMaintenance.run(repo, todo);
+				return;
+			}
+			try (Repository db = RepositoryCache.open((FileKey) key)) {
+				RepositoryMaintenance.run(db, todo);
+			}
+		}
+
+		void release() {
+			if (repo != null)
+				repo.close();
+		}
+
+		private int priority() {
+			int p = Integer.MAX_VALUE;
+			for (Task t : tasks)
+				p = Math.min(p, t.ordinal());
+			return p;
+		}
+
+		@Override
+		public int compareTo(Job o) {
+			int cmp = Integer.compare(priority(), o.priority());
+			return cmp != 0 ? cmp : Long.compare(sequence, o.sequence);
+		}
+	}
+
+	private static void run(Repository repo, Set<Task> tasks)
+			throws IOException {
+		int factor = repo.getConfig().getInt(ConfigConstants.CONFIG_GC_SECTION,
+				ConfigConstants.CONFIG_KEY_GEOMETRIC_FACTOR, 2);
+		boolean full = tasks.contains(Task.FULL_REPACK);
+		boolean repack = tasks.contains(Task.PACK_LOOSE_OBJECTS)
+				|| tasks.contains(Task.COMPACT_PACKS)
+				|| tasks.contains(Task.REBUILD_BITMAPS);
+		if (repo instanceof FileRepository) {
+			FileRepository fr = (FileRepository) repo;
+			GC gc = new GC(fr);
+			if (tasks.contains(Task.PACK_REFS))
+				gc.packRefs();
+			if (full)
+				gc.repack();
+			else if (repack)
+				gc.repackGeometric(Math.max(factor, 2));
+			if (full || repack
+					|| tasks.contains(Task.UPDATE_MULTI_PACK_INDEX))
+				fr.getObjectDatabase()
+						.updateMultiPackIndex(NullProgressMonitor.INSTANCE);
+		} else if (repo instanceof DfsRepository) {
+			DfsRepository dr = (DfsRepository) repo;
+			if (full)
+				new DfsGarbageCollector(dr).pack(null);
+			else if (repack)
+				new DfsPackCompactor(dr).setGeometricFactor(Math.max(factor, 2))
+						.autoAdd().compact(null);
+		}
+	}
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package org.eclipse.jgit.revwalk;
+
+import java.util.PriorityQueue;
+
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
+
+/**
+ * A queue of commits sorted by commit-graph generation number.
+ * <p>
+ * Commits with a higher generation are returned first, ties are broken by
+ * commit time. Commits which are not in the commit-graph have an unknown
+ * generation and are returned before all commits of the graph, in commit
+ * time order. Since the graph is closed under reachability, a commit is only
+ * returned once every commit of the queue's history which can reach it has
+ * been returned.
+ */
+class GenerationRevQueue extends AbstractRevQueue {
+	private final CommitGraph graph;
+
+	private final PriorityQueue<Entry> queue = new PriorityQueue<>();
+
+	/**
+	 * Create an empty generation queue.
+	 *
+	 * @param graph
+	 *            commit-graph supplying the generation numbers.
+	 */
+	GenerationRevQueue(CommitGraph graph) {
+		this.graph = graph;
+	}
+
+	@Override
+	public void add(RevCommit c) {
+		queue.add(new Entry(c, generation(c)));
+	}
+
+	@Override
+	public RevCommit next() {
+		Entry e = queue.poll();
+		return e != null ? e.commit : null;
+	}
+
+	/**
+	 * @return true if the next commit is in the commit-graph, and therefore
+	 *         no commit outside of the graph remains in the queue.
+	 */
+	boolean nextIsInGraph() {
+		Entry e = queue.peek();
+		return e != null && e.generation != CommitGraph.GENERATION_UNKNOWN;
+	}
+
+	/**
+	 * Combine the flags of the queued commits not having a flag.
+	 *
+	 * @param skip
+	 *            commits having any of these flags are ignored.
+	 * @return union of the flags of all other commits in the queue.
+	 */
+	int flagsWithout(int skip) {
+		int flags = 0;
+		for (Entry e : queue) {
+			if ((e.commit.flags & skip) == 0)
+				flags |= e.commit.flags;
+		}
+		return flags;
+	}
+
+	@Override
+	public void clear() {
+		queue.clear();
+	}
+
+	@Override
+	boolean everbodyHasFlag(int f) {
+		for (Entry e : queue) {
+			if ((e.commit.flags & f) == 0)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	boolean anybodyHasFlag(int f) {
+		for (Entry e : queue) {
+			if ((e.commit.flags & f) != 0)
+				return true;
+		}
+		return false;
+	}
+
+	private int generation(RevCommit c) {
+		int pos = graph.findGraphPosition(c);
+		if (pos < 0)
+			return CommitGraph.GENERATION_UNKNOWN;
+		int gen = graph.getGeneration(pos);
+		return gen != CommitGraph.GENERATION_NOT_COMPUTED ? gen
+				: CommitGraph.GENERATION_UNKNOWN;
+	}
+
+	private static class Entry implements Comparable<Entry> {
+		final RevCommit commit;
+
+		final int generation;
+
+		Entry(RevCommit commit, int generation) {
+			this.commit = commit;
+			this.generation = generation;
+		}
+
+		@Override
+		public int compareTo(Entry o) {
+			if (generation != o.generation)
+				return generation > o.generation ? -1 : 1;
+			return Integer.compare(o.commit.commitTime, commit.commitTime);
+		}
+	}
+}
@@ -50,6 +50,7 @@
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 
 /**
  * Computes the merge base(s) of the starting commits.
@@ -63,6 +64,14 @@
  * flags will be automatically released on the next reset of the RevWalk, but
  * not until then, as they are assigned to commits throughout the history.
  * <p>
+ * If the repository has a commit-graph the pending commits are visited in
+ * generation number order. A commit of the graph is then only visited after
+ * all of its descendants, so its flags are final once it has been popped, and
+ * the walk can stop as soon as one of the starting commits is no longer
+ * carried by any pending commit which is not an ancestor of a merge base.
+ * Commits newer than the graph have an unknown generation; they are visited
+ * first, and the cut off is only applied once all of them have been popped.
+ * <p>
  * Several internal flags are reused here for a different purpose, but this
  * should not have any impact as this generator should be run alone, and without
  * any other generators wrapped around it.
@@ -78,7 +87,9 @@ class MergeBaseGenerator extends Generator {
 
 	private final RevWalk walker;
 
-	private final DateRevQueue pending;
+	private AbstractRevQueue pending;
+
+	private GenerationRevQueue generationQueue;
 
 	private int branchMask;
 
@@ -91,10 +102,15 @@ class MergeBaseGenerator extends Generator {
 
 	MergeBaseGenerator(final RevWalk w) {
 		walker = w;
-		pending = new DateRevQueue();
 	}
 
 	void init(final AbstractRevQueue p) throws IOException {
+		CommitGraph graph = walker.commitGraph();
+		if (graph != null) {
+			generationQueue = new GenerationRevQueue(graph);
+			pending = generationQueue;
+		} else
+			pending = new DateRevQueue();
 		try {
 			for (;;) {
 				final RevCommit c = p.next();
@@ -145,6 +161,8 @@ int outputType() {
 
 	private RevCommit _next() throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
+		if (noMoreMergeBase())
+			return null;
 		for (;;) {
 			final RevCommit c = pending.next();
 			if (c == null) {
@@ -177,7 +195,7 @@ private RevCommit _next() throws MissingObjectException,
 				// that way we are done traversing; if not we just need
 				// to move to the next available commit and try again.
 				//
-				if (pending.everbodyHasFlag(MERGE_BASE))
+				if (pending.everbodyHasFlag(MERGE_BASE) || noMoreMergeBase())
 					return null;
 				continue;
 			}
@@ -190,6 +208,22 @@ private RevCommit _next() throws MissingObjectException,
 		}
 	}
 
+	/**
+	 * Whether the generation numbers prove that no other merge base exists.
+	 * <p>
+	 * Once only commits of the graph are pending, flags are added to a commit
+	 * only by the pending commits. A new merge base must be reached by every
+	 * starting commit without going through a known merge base; if a starting
+	 * commit's flag is only carried by ancestors of a merge base it cannot
+	 * reach any new one.
+	 */
+	private boolean noMoreMergeBase() {
+		if (generationQueue == null || !generationQueue.nextIsInGraph())
+			return false;
+		return (generationQueue.flagsWithout(MERGE_BASE)
+				& branchMask) != branchMask;
+	}
+
 	@Override
 	RevCommit next() throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
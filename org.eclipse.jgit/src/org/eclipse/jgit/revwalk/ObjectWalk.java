@@ -415,6 +415,7 @@ public RevObject nextObject() throws MissingObjectException,
 				if (o instanceof RevTree) {
 					tv = newTreeVisit(o);
 					tv.parent = null;
+					tv.depth = 0;
 					currVisit = tv;
 				}
 				return o;
@@ -426,6 +427,7 @@ private RevObject enterTree(RevObject obj) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
 		TreeVisit tv = newTreeVisit(obj);
 		tv.parent = currVisit;
+		tv.depth = currVisit.depth + 1;
 		currVisit = tv;
 		return obj;
 	}
@@ -568,6 +570,20 @@ public String getPathString() {
 		return RawParseUtils.decode(pathBuf, 0, pathLen);
 	}
 
+	/**
+	 * Get the depth of the tree {@link #nextObject()} is currently iterating.
+	 * <p>
+	 * The root tree of a commit is at depth 0, and the entries of the current
+	 * tree are at {@code getTreeDepth() + 1}. An {@link ObjectFilter} can use
+	 * this to skip everything below a certain depth.
+	 *
+	 * @return depth of the current tree; -1 if no tree is being iterated.
+	 * @since 4.8
+	 */
+	public int getTreeDepth() {
+		return currVisit != null ? currVisit.depth : -1;
+	}
+
 	/**
 	 * Get the current object's path hash code.
 	 * <p>
@@ -789,5 +805,8 @@ private static class TreeVisit {
 
 		/** Number of bytes in the path leading up to this tree. */
 		int pathLen;
+
+		/** Number of trees above this one, 0 for a root tree. */
+		int depth;
 	}
 }
@@ -57,6 +57,7 @@
 import org.eclipse.jgit.annotations.Nullable;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
@@ -152,7 +153,11 @@ protected RevCommit(final AnyObjectId id) {
 	@Override
 	void parseHeaders(final RevWalk walk) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
-		parseCanonical(walk, walk.getCachedBytes(this));
+		int graphPos = walk.findInCommitGraph(this);
+		if (graphPos >= 0)
+			parseInGraph(walk, walk.commitGraph(), graphPos);
+		else
+			parseCanonical(walk, walk.getCachedBytes(this));
 	}
 
 	@Override
@@ -220,6 +225,30 @@ else if (nParents == 1) {
 		flags |= PARSED;
 	}
 
+	void parseInGraph(RevWalk walk, CommitGraph graph, int graphPos)
+			throws IOException {
+		if (!walk.shallowCommitsInitialized)
+			walk.initializeShallowCommits();
+
+		CommitGraph.CommitData data = graph.getCommitData(graphPos);
+		tree = walk.lookupTree(data.getTree());
+
+		if (parents == null) {
+			int[] pGraph = data.getParents();
+			if (pGraph.length == 0)
+				parents = NO_PARENTS;
+			else {
+				RevCommit[] pList = new RevCommit[pGraph.length];
+				for (int i = 0; i < pGraph.length; i++)
+					pList[i] = walk.lookupCommit(graph.getObjectId(pGraph[i]));
+				parents = pList;
+			}
+		}
+
+		commitTime = (int) data.getCommitTime();
+		flags |= PARSED;
+	}
+
 	@Override
 	public final int getType() {
 		return Constants.OBJ_COMMIT;
@@ -47,6 +47,7 @@
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
@@ -59,6 +60,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.RevWalkException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.storage.commitgraph.CommitGraph;
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.AsyncObjectLoaderQueue;
 import org.eclipse.jgit.lib.Constants;
@@ -198,6 +200,10 @@ public class RevWalk implements Iterable<RevCommit>, AutoCloseable {
 
 	boolean shallowCommitsInitialized;
 
+	private boolean commitGraphLoaded;
+
+	private CommitGraph commitGraph;
+
 	/**
 	 * Create a new revision walker for a given repository.
 	 *
@@ -401,6 +407,13 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		try {
 			finishDelayedFreeFlags();
 			reset(~freeFlags & APP_FLAGS);
+			CommitGraph graph = commitGraph();
+			if (graph != null) {
+				int baseGen = generation(graph, base);
+				if (baseGen != CommitGraph.GENERATION_NOT_COMPUTED
+						&& baseGen != CommitGraph.GENERATION_UNKNOWN)
+					return isMergedInto(graph, baseGen, base, tip);
+			}
 			filter = RevFilter.MERGE_BASE;
 			treeFilter = TreeFilter.ALL;
 			markStart(tip);
@@ -416,6 +429,51 @@ public boolean isMergedInto(final RevCommit base, final RevCommit tip)
 		}
 	}
 
+	/**
+	 * Search for {@code base} from {@code tip}, pruning the walk using the
+	 * generation numbers of the commit-graph.
+	 * <p>
+	 * A commit can only reach {@code base} if its generation is strictly
+	 * greater than the generation of {@code base}, so any other commit of the
+	 * graph is not explored. Commits newer than the graph have an unknown
+	 * generation and are always explored.
+	 */
+	private boolean isMergedInto(CommitGraph graph, int baseGen,
+			RevCommit base, RevCommit tip) throws MissingObjectException,
+			IncorrectObjectTypeException, IOException {
+		ArrayDeque<RevCommit> todo = new ArrayDeque<>();
+		tip.flags |= SEEN;
+		roots.add(tip); // allow the next reset to clear SEEN
+		todo.push(tip);
+		RevCommit c;
+		while ((c = todo.poll()) != null) {
+			if (c == base)
+				return true;
+			if ((c.flags & PARSED) == 0)
+				c.parseHeaders(this);
+			for (RevCommit p : c.parents) {
+				if ((p.flags & SEEN) != 0)
+					continue;
+				p.flags |= SEEN;
+				if (p != base) {
+					int gen = generation(graph, p);
+					if (gen != CommitGraph.GENERATION_NOT_COMPUTED
+							&& gen != CommitGraph.GENERATION_UNKNOWN
+							&& gen <= baseGen)
+						continue;
+				}
+				todo.push(p);
+			}
+		}
+		return false;
+	}
+
+	private static int generation(CommitGraph graph, RevCommit c) {
+		int pos = graph.findGraphPosition(c);
+		return pos < 0 ? CommitGraph.GENERATION_UNKNOWN
+				: graph.getGeneration(pos);
+	}
+
 	/**
 	 * Pop the next most recent commit.
 	 *
@@ -614,6 +672,10 @@ public boolean isRetainBody() {
 	 * <p>
 	 * True by default on {@link RevWalk} and false by default for
 	 * {@link ObjectWalk}.
+	 * <p>
+	 * If bodies are not retained, the headers of commits covered by the
+	 * repository's commit-graph are read from the graph instead of being
+	 * parsed from the commit objects.
 	 *
 	 * @param retain true to retain bodies; false to discard them early.
 	 */
@@ -855,9 +917,16 @@ public RevTag parseTag(final AnyObjectId id) throws MissingObjectException,
 	public RevObject parseAny(final AnyObjectId id)
 			throws MissingObjectException, IOException {
 		RevObject r = objects.get(id);
-		if (r == null)
+		if (r == null) {
+			int graphPos = findInCommitGraph(id);
+			if (graphPos >= 0) {
+				RevCommit c = createCommit(id);
+				c.parseInGraph(this, commitGraph, graphPos);
+				objects.add(c);
+				return c;
+			}
 			r = parseNew(id, reader.open(id));
-		else
+		} else
 			parseHeaders(r);
 		return r;
 	}
@@ -898,6 +967,32 @@ private RevObject parseNew(AnyObjectId id, ObjectLoader ldr)
 		return r;
 	}
 
+	/**
+	 * Find a commit in the commit-graph, if headers may be read from it.
+	 *
+	 * @param id
+	 *            the commit to find.
+	 * @return position of the commit in {@link #commitGraph}, or -1 if the
+	 *         commit must be parsed from its object.
+	 * @throws IOException
+	 *             the commit-graph cannot be read.
+	 */
+	int findInCommitGraph(AnyObjectId id) throws IOException {
+		if (retainBody)
+			return -1;
+		CommitGraph graph = commitGraph();
+		return graph != null ? graph.findGraphPosition(id) : -1;
+	}
+
+	CommitGraph commitGraph() throws IOException {
+		if (!commitGraphLoaded) {
+			commitGraphLoaded = true;
+			if (reader != null)
+				commitGraph = reader.getCommitGraph();
+		}
+		return commitGraph;
+	}
+
 	byte[] getCachedBytes(RevObject obj) throws LargeObjectException,
 			MissingObjectException, IncorrectObjectTypeException, IOException {
 		return getCachedBytes(obj, reader.open(obj, obj.getType()));
@@ -1305,6 +1400,8 @@ public void dispose() {
 		queue = new DateRevQueue();
 		pending = new StartGenerator(this);
 		shallowCommitsInitialized = false;
+		commitGraphLoaded = false;
+		commitGraph = null;
 	}
 
 	/**
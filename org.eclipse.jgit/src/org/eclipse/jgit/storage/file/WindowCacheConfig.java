@@ -63,6 +63,8 @@ public class WindowCacheConfig {
 
 	private boolean packedGitMMAP;
 
+	private boolean packedIndexMMAP;
+
 	private int deltaBaseCacheLimit;
 
 	private int streamFileThreshold;
@@ -73,6 +75,7 @@ public WindowCacheConfig() {
 		packedGitLimit = 10 * MB;
 		packedGitWindowSize = 8 * KB;
 		packedGitMMAP = false;
+		packedIndexMMAP = false;
 		deltaBaseCacheLimit = 10 * MB;
 		streamFileThreshold = PackConfig.DEFAULT_BIG_FILE_THRESHOLD;
 	}
@@ -146,6 +149,29 @@ public void setPackedGitMMAP(final boolean usemmap) {
 		packedGitMMAP = usemmap;
 	}
 
+	/**
+	 * @return true maps pack <code>.idx</code> and <code>.bitmap</code> files
+	 *         with Java NIO and searches them in place; false reads each index
+	 *         onto the heap when its pack is first accessed. <b>Default
+	 *         false.</b>
+	 * @since 4.8
+	 */
+	public boolean isPackedIndexMMAP() {
+		return packedIndexMMAP;
+	}
+
+	/**
+	 * @param usemmap
+	 *            true maps pack <code>.idx</code> and <code>.bitmap</code>
+	 *            files with Java NIO and searches them in place, decoding
+	 *            bitmaps only when first used; false reads each index onto the
+	 *            heap when its pack is first accessed.
+	 * @since 4.8
+	 */
+	public void setPackedIndexMMAP(final boolean usemmap) {
+		packedIndexMMAP = usemmap;
+	}
+
 	/**
 	 * @return maximum number of bytes to cache in delta base cache for
 	 *         inflated, recently accessed objects, without delta chains.
@@ -200,6 +226,8 @@ public WindowCacheConfig fromConfig(final Config rc) {
 				"core", null, "packedgitwindowsize", getPackedGitWindowSize())); //$NON-NLS-1$ //$NON-NLS-2$
 		setPackedGitMMAP(rc.getBoolean(
 				"core", null, "packedgitmmap", isPackedGitMMAP())); //$NON-NLS-1$ //$NON-NLS-2$
+		setPackedIndexMMAP(rc.getBoolean(
+				"core", null, "packedindexmmap", isPackedIndexMMAP())); //$NON-NLS-1$ //$NON-NLS-2$
 		setDeltaBaseCacheLimit(rc.getInt(
 				"core", null, "deltabasecachelimit", getDeltaBaseCacheLimit())); //$NON-NLS-1$ //$NON-NLS-2$
 
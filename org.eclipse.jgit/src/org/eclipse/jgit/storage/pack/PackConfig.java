@@ -742,11 +742,15 @@ public int getThreads() {
 	 *
 	 * During delta compression, if there are enough objects to be considered
 	 * the writer will start up concurrent threads and allow them to compress
-	 * different sections of the repository concurrently.
+	 * different sections of the repository concurrently. Large object lists
+	 * also have their stored representations selected by the same number of
+	 * threads before delta compression begins.
 	 *
 	 * An application thread pool can be set by {@link #setExecutor(Executor)}.
 	 * If not set a temporary pool will be created by the writer, and torn down
-	 * automatically when compression is over.
+	 * automatically when compression is over. Representation selection then
+	 * runs on JGit's shared worker pool, and uses at most as many threads as
+	 * that pool has.
 	 *
 	 * Default setting: 0 (auto-detect processors)
 	 *
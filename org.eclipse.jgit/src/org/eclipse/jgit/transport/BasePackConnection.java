@@ -46,6 +46,8 @@
 
 package org.eclipse.jgit.transport;
 
+import static org.eclipse.jgit.transport.GitProtocolConstants.COMMAND_FETCH;
+import static org.eclipse.jgit.transport.GitProtocolConstants.COMMAND_LS_REFS;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_AGENT;
 
 import java.io.EOFException;
@@ -53,8 +55,11 @@
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Set;
 
 import org.eclipse.jgit.errors.NoRemoteRepositoryException;
@@ -62,6 +67,7 @@
 import org.eclipse.jgit.errors.RemoteRepositoryException;
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.Ref;
@@ -116,6 +122,9 @@ abstract class BasePackConnection extends BaseConnection {
 	/** True if this is a stateless RPC connection. */
 	protected boolean statelessRPC;
 
+	/** True if the remote answered in protocol version 2. */
+	boolean protocolV2;
+
 	/** Capability tokens advertised by the remote side. */
 	private final Set<String> remoteCapablities = new HashSet<>();
 
@@ -211,6 +220,13 @@ private void readAdvertisedRefsImpl() throws IOException {
 				throw new RemoteRepositoryException(uri, line.substring(4));
 			}
 
+			if (avail.isEmpty() && line.equals("version 2")) { //$NON-NLS-1$
+				// Refs are not advertised, they must be listed with the
+				// ls-refs command, see lsRefs.
+				readCapabilitiesV2();
+				return;
+			}
+
 			if (avail.isEmpty()) {
 				final int nul = line.indexOf('\0');
 				if (nul >= 0) {
@@ -254,6 +270,149 @@ private void readAdvertisedRefsImpl() throws IOException {
 		available(avail);
 	}
 
+	private void readCapabilitiesV2() throws IOException {
+		protocolV2 = true;
+		String line;
+		while ((line = pckIn.readString()) != PacketLineIn.END) {
+			remoteCapablities.add(line);
+			if (line.startsWith(COMMAND_FETCH + '=')) {
+				// Features of the fetch command, e.g. "fetch=shallow filter".
+				for (String f : line.substring(COMMAND_FETCH.length() + 1)
+						.split(" ")) //$NON-NLS-1$
+					remoteCapablities.add(f);
+			}
+		}
+	}
+
+	/**
+	 * List the remote refs with the protocol version 2 ls-refs command.
+	 * <p>
+	 * The remote only reads and returns refs whose names start with one of
+	 * the prefixes, which keeps the exchange small for repositories with many
+	 * refs the caller does not care about.
+	 *
+	 * @param refPrefixes
+	 *            prefixes of the ref names to list; empty to list all refs.
+	 * @throws TransportException
+	 *             the reference list could not be read.
+	 */
+	void lsRefs(Collection<String> refPrefixes) throws TransportException {
+		try {
+			lsRefsImpl(refPrefixes);
+		} catch (TransportException err) {
+			close();
+			throw err;
+		} catch (IOException err) {
+			close();
+			throw new TransportException(err.getMessage(), err);
+		} catch (RuntimeException err) {
+			close();
+			throw new TransportException(err.getMessage(), err);
+		}
+	}
+
+	private void lsRefsImpl(Collection<String> refPrefixes)
+			throws IOException {
+		writeCommandV2(COMMAND_LS_REFS);
+		pckOut.writeString("peel\n"); //$NON-NLS-1$
+		for (String prefix : refPrefixes)
+			pckOut.writeString("ref-prefix " + prefix + '\n'); //$NON-NLS-1$
+		pckOut.end();
+
+		final LinkedHashMap<String, Ref> avail = new LinkedHashMap<>();
+		String line;
+		while ((line = readStringV2()) != PacketLineIn.END) {
+			// oid SP name *(SP attribute)
+			final ObjectId id = ObjectId.fromString(line.substring(0, 40));
+			int sp = line.indexOf(' ', 41);
+			String name = sp < 0 ? line.substring(41) : line.substring(41, sp);
+			ObjectId peeled = null;
+			while (sp >= 0) {
+				int next = line.indexOf(' ', sp + 1);
+				String attr = next < 0 ? line.substring(sp + 1)
+						: line.substring(sp + 1, next);
+				if (attr.startsWith("peeled:")) //$NON-NLS-1$
+					peeled = ObjectId.fromString(attr.substring(7));
+				sp = next;
+			}
+
+			final Ref ref;
+			if (peeled != null)
+				ref = new ObjectIdRef.PeeledTag(Ref.Storage.NETWORK, name, id,
+						peeled);
+			else
+				ref = new ObjectIdRef.PeeledNonTag(Ref.Storage.NETWORK, name,
+						id);
+			if (avail.put(name, ref) != null)
+				throw duplicateAdvertisement(name);
+		}
+		available(avail);
+	}
+
+	/**
+	 * Start a protocol version 2 command, up to and including the delimiter
+	 * before its arguments.
+	 *
+	 * @param command
+	 *            name of the command.
+	 * @throws IOException
+	 */
+	void writeCommandV2(String command) throws IOException {
+		pckOut.writeString("command=" + command + '\n'); //$NON-NLS-1$
+		String agent = UserAgent.get();
+		if (agent != null && UserAgent.hasAgent(remoteCapablities))
+			pckOut.writeString(OPTION_AGENT + '=' + agent + '\n');
+		pckOut.writeDelim();
+	}
+
+	/**
+	 * Read a line of a protocol version 2 response.
+	 *
+	 * @return the line, {@link PacketLineIn#END} or {@link PacketLineIn#DELIM}.
+	 * @throws IOException
+	 *             the stream cannot be read, or the remote sent an error.
+	 */
+	String readStringV2() throws IOException {
+		String line = pckIn.readString();
+		if (line.startsWith("ERR ")) //$NON-NLS-1$
+			throw new RemoteRepositoryException(uri, line.substring(4));
+		return line;
+	}
+
+	/**
+	 * Compute the ref name prefixes to ask a protocol version 2 remote for.
+	 *
+	 * @param refSpecs
+	 *            specifications the caller will fetch with.
+	 * @param additionalPatterns
+	 *            further prefixes to list, used verbatim.
+	 * @return prefixes covering every ref the specifications may match.
+	 */
+	static List<String> refPrefixes(Collection<RefSpec> refSpecs,
+			String... additionalPatterns) {
+		List<String> prefixes = new ArrayList<>();
+		for (RefSpec spec : refSpecs) {
+			String src = spec.getSource();
+			if (src == null || ObjectId.isId(src))
+				continue;
+			if (spec.isWildcard()) {
+				prefixes.add(src.substring(0, src.indexOf('*')));
+			} else if (src.startsWith(Constants.R_REFS)) {
+				prefixes.add(src);
+			} else {
+				// Short names are expanded as by RefDatabase.getRef.
+				prefixes.add(src);
+				prefixes.add(Constants.R_REFS + src);
+				prefixes.add(Constants.R_TAGS + src);
+				prefixes.add(Constants.R_HEADS + src);
+				prefixes.add(Constants.R_REMOTES + src);
+			}
+		}
+		for (String pattern : additionalPatterns)
+			prefixes.add(pattern);
+		return prefixes;
+	}
+
 	/**
 	 * Create an exception to indicate problems finding a remote repository. The
 	 * caller is expected to throw the returned exception.
@@ -46,6 +46,7 @@
 package org.eclipse.jgit.transport;
 
 import static org.eclipse.jgit.lib.RefDatabase.ALL;
+import static org.eclipse.jgit.transport.GitProtocolConstants.COMMAND_FETCH;
 
 import java.io.IOException;
 import java.io.InputStream;
@@ -64,6 +65,7 @@
 import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Config.SectionParser;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.MutableObjectId;
 import org.eclipse.jgit.lib.NullProgressMonitor;
@@ -200,6 +202,12 @@ public abstract class BasePackFetchConnection extends BasePackConnection
 	 */
 	public static final String OPTION_ALLOW_REACHABLE_SHA1_IN_WANT = GitProtocolConstants.OPTION_ALLOW_REACHABLE_SHA1_IN_WANT;
 
+	/**
+	 * The client supports asking for a pack that leaves out some objects.
+	 * @since 4.8
+	 */
+	public static final String OPTION_FILTER = GitProtocolConstants.OPTION_FILTER;
+
 	private final RevWalk walk;
 
 	/** All commits that are immediately reachable by a local ref. */
@@ -227,12 +235,18 @@ public abstract class BasePackFetchConnection extends BasePackConnection
 
 	private boolean allowOfsDelta;
 
+	private final int indexThreads;
+
 	private boolean noDone;
 
 	private boolean noProgress;
 
 	private String lockMessage;
 
+	private final FilterSpec filterSpec;
+
+	private final boolean sendHaves;
+
 	private PackLock packLock;
 
 	/** RPC state, if {@link BasePackConnection#statelessRPC} is true. */
@@ -252,11 +266,15 @@ public BasePackFetchConnection(final PackTransport packTransport) {
 		if (local != null) {
 			final FetchConfig cfg = local.getConfig().get(FetchConfig.KEY);
 			allowOfsDelta = cfg.allowOfsDelta;
+			indexThreads = cfg.indexThreads;
 		} else {
 			allowOfsDelta = true;
+			indexThreads = 1;
 		}
 		includeTags = transport.getTagOpt() != TagOpt.NO_TAGS;
 		thinPack = transport.isFetchThin();
+		filterSpec = transport.getFilterSpec();
+		sendHaves = !transport.fetchWithoutHaves;
 
 		if (local != null) {
 			walk = new RevWalk(local);
@@ -288,8 +306,12 @@ public FetchConfig parse(final Config cfg) {
 
 		final boolean allowOfsDelta;
 
+		final int indexThreads;
+
 		FetchConfig(final Config c) {
 			allowOfsDelta = c.getBoolean("repack", "usedeltabaseoffset", true); //$NON-NLS-1$ //$NON-NLS-2$
+			indexThreads = c.getInt(ConfigConstants.CONFIG_PACK_SECTION,
+					ConfigConstants.CONFIG_KEY_INDEX_THREADS, 1);
 		}
 	}
 
@@ -359,7 +381,13 @@ protected void doFetch(final ProgressMonitor monitor,
 			noProgress = monitor == NullProgressMonitor.INSTANCE;
 
 			markRefsAdvertised();
-			markReachable(have, maxTimeWanted(want));
+			if (sendHaves)
+				markReachable(have, maxTimeWanted(want));
+
+			if (protocolV2) {
+				fetchV2(monitor, want, outputStream);
+				return;
+			}
 
 			if (statelessRPC) {
 				state = new TemporaryBuffer.Heap(Integer.MAX_VALUE);
@@ -499,11 +527,21 @@ private boolean sendWants(final Collection<Ref> want) throws IOException {
 		}
 		if (first)
 			return false;
+		sendFilter(p);
 		p.end();
 		outNeedsEnd = false;
 		return true;
 	}
 
+	private void sendFilter(PacketLineOut p) throws IOException {
+		if (filterSpec.isNoOp())
+			return;
+		if (!isCapableOf(OPTION_FILTER))
+			throw new PackProtocolException(uri,
+					JGitText.get().filterRequiresCapability);
+		p.writeString("filter " + filterSpec.filterLine() + '\n'); //$NON-NLS-1$
+	}
+
 	private String enableCapabilities() throws TransportException {
 		final StringBuilder line = new StringBuilder();
 		if (noProgress)
@@ -700,6 +738,120 @@ private void negotiate(final ProgressMonitor monitor) throws IOException,
 		}
 	}
 
+	/**
+	 * Negotiate and receive the pack with protocol version 2.
+	 * <p>
+	 * Each round is a complete fetch command repeating the wants and the
+	 * haves the remote acknowledged so far, so the same exchange works over
+	 * stateless and bidirectional connections.
+	 */
+	private void fetchV2(final ProgressMonitor monitor,
+			final Collection<Ref> want, OutputStream outputStream)
+			throws IOException, CancelledException {
+		state = new TemporaryBuffer.Heap(Integer.MAX_VALUE);
+		pckState = new PacketLineOut(state);
+		if (!sendWantsV2(want))
+			return;
+
+		negotiateBegin();
+		boolean receivedAck = false;
+		int havesSinceLastAck = 0;
+		for (;;) {
+			writeCommandV2(COMMAND_FETCH);
+			state.writeTo(out, null);
+
+			boolean done = receivedAck && havesSinceLastAck > MAX_HAVES;
+			for (int n = 0; !done && n < 32; n++) {
+				final RevCommit c = walk.next();
+				if (c == null) {
+					done = true;
+					break;
+				}
+				pckOut.writeString("have " + c.getId().name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+				havesSinceLastAck++;
+			}
+			if (done)
+				pckOut.writeString("done\n"); //$NON-NLS-1$
+			pckOut.end();
+			if (done)
+				break;
+
+			if (monitor.isCancelled())
+				throw new CancelledException();
+
+			expectV2("acknowledgments"); //$NON-NLS-1$
+			boolean ready = false;
+			String line;
+			while ((line = readStringV2()) != PacketLineIn.END
+					&& line != PacketLineIn.DELIM) {
+				if (line.startsWith("ACK ")) { //$NON-NLS-1$
+					ObjectId id = ObjectId.fromString(line.substring(4));
+					markCommon(walk.parseAny(id), AckNackResult.ACK_COMMON);
+					receivedAck = true;
+					havesSinceLastAck = 0;
+				} else if (line.equals("ready")) { //$NON-NLS-1$
+					ready = true;
+				} else if (!line.equals("NAK")) { //$NON-NLS-1$
+					throw new PackProtocolException(uri, MessageFormat.format(
+							JGitText.get().expectedACKNAKGot, line));
+				}
+			}
+			if (ready != (line == PacketLineIn.DELIM))
+				throw new PackProtocolException(uri, MessageFormat.format(
+						JGitText.get().expectedACKNAKGot, line));
+			if (ready)
+				break;
+		}
+
+		expectV2("packfile"); //$NON-NLS-1$
+		walk.dispose();
+		reachableCommits = null;
+		state = null;
+		pckState = null;
+
+		sideband = true;
+		receivePack(monitor, outputStream);
+	}
+
+	private boolean sendWantsV2(final Collection<Ref> want) throws IOException {
+		boolean first = true;
+		for (final Ref r : want) {
+			ObjectId objectId = r.getObjectId();
+			if (objectId == null) {
+				continue;
+			}
+			try {
+				if (walk.parseAny(objectId).has(REACHABLE)) {
+					continue;
+				}
+			} catch (IOException err) {
+				// We don't have it, but we want to fetch it.
+			}
+			pckState.writeString("want " + objectId.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			first = false;
+		}
+		if (first)
+			return false;
+
+		if (noProgress)
+			pckState.writeString(OPTION_NO_PROGRESS + '\n');
+		if (includeTags)
+			pckState.writeString(OPTION_INCLUDE_TAG + '\n');
+		if (allowOfsDelta)
+			pckState.writeString(OPTION_OFS_DELTA + '\n');
+		if (thinPack)
+			pckState.writeString(OPTION_THIN_PACK + '\n');
+		sendFilter(pckState);
+		return true;
+	}
+
+	private void expectV2(String expected) throws IOException {
+		String line = readStringV2();
+		if (!expected.equals(line))
+			throw new PackProtocolException(uri, MessageFormat.format(
+					JGitText.get().expectedGot, expected, line));
+	}
+
 	private void negotiateBegin() throws IOException {
 		walk.resetRetain(REACHABLE, ADVERTISED);
 		walk.markStart(reachableCommits);
@@ -749,7 +901,8 @@ private void markAdvertised(final AnyObjectId id) {
 
 	private void markCommon(final RevObject obj, final AckNackResult anr)
 			throws IOException {
-		if (statelessRPC && anr == AckNackResult.ACK_COMMON && !obj.has(STATE)) {
+		if ((statelessRPC || protocolV2) && anr == AckNackResult.ACK_COMMON
+				&& !obj.has(STATE)) {
 			StringBuilder s;
 
 			s = new StringBuilder(6 + Constants.OBJECT_ID_STRING_LENGTH);
@@ -777,6 +930,8 @@ private void receivePack(final ProgressMonitor monitor,
 			parser.setAllowThin(thinPack);
 			parser.setObjectChecker(transport.getObjectChecker());
 			parser.setLockMessage(lockMessage);
+			parser.setPromisor(!filterSpec.isNoOp());
+			parser.setThreads(indexThreads);
 			packLock = parser.parse(monitor);
 			ins.flush();
 		}
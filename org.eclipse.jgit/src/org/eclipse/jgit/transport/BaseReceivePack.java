@@ -79,6 +79,7 @@
 import org.eclipse.jgit.lib.BatchRefUpdate;
 import org.eclipse.jgit.lib.Config;
 import org.eclipse.jgit.lib.Config.SectionParser;
+import org.eclipse.jgit.lib.ConfigConstants;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectChecker;
@@ -247,6 +248,7 @@ public Set<String> getCapabilities() {
 	private List<ReceiveCommand> commands;
 	private long maxCommandBytes;
 	private long maxDiscardBytes;
+	private int indexThreads;
 
 	private StringBuilder advertiseError;
 
@@ -323,6 +325,7 @@ protected BaseReceivePack(final Repository into) {
 		allowPushOptions = rc.allowPushOptions;
 		maxCommandBytes = rc.maxCommandBytes;
 		maxDiscardBytes = rc.maxDiscardBytes;
+		indexThreads = rc.indexThreads;
 		advertiseRefsHook = AdvertiseRefsHook.DEFAULT;
 		refFilter = RefFilter.DEFAULT;
 		advertisedHaves = new HashSet<>();
@@ -346,6 +349,7 @@ public ReceiveConfig parse(final Config cfg) {
 		final boolean allowPushOptions;
 		final long maxCommandBytes;
 		final long maxDiscardBytes;
+		final int indexThreads;
 		final SignedPushConfig signedPush;
 
 		ReceiveConfig(final Config config) {
@@ -363,6 +367,8 @@ public ReceiveConfig parse(final Config cfg) {
 			maxDiscardBytes = config.getLong("receive", //$NON-NLS-1$
 					"maxCommandDiscardBytes", //$NON-NLS-1$
 					-1);
+			indexThreads = config.getInt(ConfigConstants.CONFIG_PACK_SECTION,
+					ConfigConstants.CONFIG_KEY_INDEX_THREADS, 1);
 			signedPush = SignedPushConfig.KEY.parse(config);
 		}
 	}
@@ -1371,6 +1377,7 @@ private void receivePack() throws IOException {
 			parser.setObjectChecker(objectChecker);
 			parser.setLockMessage(lockMsg);
 			parser.setMaxObjectSizeLimit(maxObjectSizeLimit);
+			parser.setThreads(indexThreads);
 			packLock = parser.parse(receiving, resolving);
 			packSize = Long.valueOf(parser.getPackSize());
 			stats = parser.getReceivedPackStatistics();
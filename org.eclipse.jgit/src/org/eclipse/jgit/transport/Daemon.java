@@ -52,11 +52,13 @@
 import java.net.ServerSocket;
 import java.net.Socket;
 import java.net.SocketAddress;
+import java.util.Arrays;
 
 import org.eclipse.jgit.errors.RepositoryNotFoundException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.lib.PersonIdent;
 import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.RepositoryMaintenance;
 import org.eclipse.jgit.storage.pack.PackConfig;
 import org.eclipse.jgit.transport.resolver.ReceivePackFactory;
 import org.eclipse.jgit.transport.resolver.RepositoryResolver;
@@ -91,6 +93,8 @@ public class Daemon {
 
 	volatile ReceivePackFactory<DaemonClient> receivePackFactory;
 
+	private volatile RepositoryMaintenance maintenance;
+
 	/** Configure a daemon to listen on any available network port. */
 	public Daemon() {
 		this(null);
@@ -169,6 +173,12 @@ protected void execute(final DaemonClient dc,
 							ServiceNotEnabledException,
 							ServiceNotAuthorizedException {
 						ReceivePack rp = receivePackFactory.create(dc, db);
+						RepositoryMaintenance m = maintenance;
+						if (m != null)
+							rp.setPostReceiveHook(PostReceiveHookChain
+									.newChain(Arrays.asList(
+											rp.getPostReceiveHook(),
+											m.newPostReceiveHook())));
 						InputStream in = dc.getInputStream();
 						OutputStream out = dc.getOutputStream();
 						rp.receive(in, out, null);
@@ -281,6 +291,18 @@ public void setReceivePackFactory(ReceivePackFactory<DaemonClient> factory) {
 			receivePackFactory = (ReceivePackFactory<DaemonClient>) ReceivePackFactory.DISABLED;
 	}
 
+	/**
+	 * Set the scheduler maintaining repositories after receive-pack.
+	 *
+	 * @param maintenance
+	 *            the scheduler, notified after each push. If null no
+	 *            maintenance is scheduled.
+	 * @since 4.8
+	 */
+	public void setRepositoryMaintenance(RepositoryMaintenance maintenance) {
+		this.maintenance = maintenance;
+	}
+
 	/**
 	 * Start this daemon on a background thread.
 	 *
@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.transport;
+
+import java.text.MessageFormat;
+
+import org.eclipse.jgit.errors.PackProtocolException;
+import org.eclipse.jgit.internal.JGitText;
+
+/**
+ * Object filter of a partial clone or fetch.
+ * <p>
+ * A filter lets the client ask for a pack that omits some of the objects
+ * reachable from its wants. The client sends the filter in a
+ * {@code filter <spec>} line, where {@code <spec>} is one of:
+ * <ul>
+ * <li>{@code blob:none}, omitting all blobs;</li>
+ * <li>{@code blob:limit=<n>[kmg]}, omitting blobs of at least {@code n}
+ * bytes;</li>
+ * <li>{@code tree:<depth>}, omitting trees and blobs at {@code depth} or
+ * deeper below the root tree of a commit. The root tree is at depth 0.</li>
+ * </ul>
+ * Objects named directly by a want are always sent.
+ *
+ * @since 4.8
+ */
+public final class FilterSpec {
+	/** A filter which does not omit any objects. */
+	public static final FilterSpec NO_FILTER = new FilterSpec(-1, -1);
+
+	private final long blobLimit;
+
+	private final long treeDepthLimit;
+
+	private FilterSpec(long blobLimit, long treeDepthLimit) {
+		this.blobLimit = blobLimit;
+		this.treeDepthLimit = treeDepthLimit;
+	}
+
+	/**
+	 * @param blobLimit
+	 *            blobs of this size or larger are omitted; 0 omits all blobs.
+	 * @return a filter omitting blobs by size.
+	 */
+	public static FilterSpec withBlobLimit(long blobLimit) {
+		if (blobLimit < 0)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().invalidFilter, Long.valueOf(blobLimit)));
+		return new FilterSpec(blobLimit, -1);
+	}
+
+	/**
+	 * @param treeDepthLimit
+	 *            trees and blobs at this depth or deeper are omitted; 0 omits
+	 *            all trees and blobs.
+	 * @return a filter omitting objects by their depth in the tree.
+	 */
+	public static FilterSpec withTreeDepthLimit(long treeDepthLimit) {
+		if (treeDepthLimit < 0)
+			throw new IllegalArgumentException(MessageFormat.format(
+					JGitText.get().invalidFilter, Long.valueOf(treeDepthLimit)));
+		return new FilterSpec(-1, treeDepthLimit);
+	}
+
+	/**
+	 * Parse the argument of a {@code filter} line.
+	 *
+	 * @param spec
+	 *            the filter specification, e.g. {@code blob:none}.
+	 * @return the filter.
+	 * @throws PackProtocolException
+	 *             the specification is not understood.
+	 */
+	public static FilterSpec fromFilterLine(String spec)
+			throws PackProtocolException {
+		try {
+			if (spec.equals("blob:none")) //$NON-NLS-1$
+				return withBlobLimit(0);
+			if (spec.startsWith("blob:limit=")) //$NON-NLS-1$
+				return withBlobLimit(parseSize(spec.substring(11)));
+			if (spec.startsWith("tree:")) //$NON-NLS-1$
+				return withTreeDepthLimit(Long.parseLong(spec.substring(5)));
+		} catch (IllegalArgumentException e) {
+			// Fall through to report the whole specification.
+		}
+		throw new PackProtocolException(
+				MessageFormat.format(JGitText.get().invalidFilter, spec));
+	}
+
+	private static long parseSize(String s) {
+		long unit = 1;
+		switch (s.isEmpty() ? 0 : Character.toLowerCase(s.charAt(s.length() - 1))) {
+		case 'k':
+			unit = 1024;
+			break;
+		case 'm':
+			unit = 1024 * 1024;
+			break;
+		case 'g':
+			unit = 1024 * 1024 * 1024;
+			break;
+		default:
+			return Long.parseLong(s);
+		}
+		return Long.parseLong(s.substring(0, s.length() - 1)) * unit;
+	}
+
+	/**
+	 * @return blobs of this size or larger are omitted; -1 if blobs are not
+	 *         filtered by size.
+	 */
+	public long getBlobLimit() {
+		return blobLimit;
+	}
+
+	/**
+	 * @return trees and blobs at this depth or deeper are omitted; -1 if
+	 *         objects are not filtered by depth.
+	 */
+	public long getTreeDepthLimit() {
+		return treeDepthLimit;
+	}
+
+	/** @return true if this filter does not omit any object. */
+	public boolean isNoOp() {
+		return blobLimit == -1 && treeDepthLimit == -1;
+	}
+
+	/**
+	 * @return the specification to send in a {@code filter} line; null for
+	 *         {@link #NO_FILTER}.
+	 */
+	public String filterLine() {
+		if (blobLimit == 0)
+			return "blob:none"; //$NON-NLS-1$
+		if (blobLimit > 0)
+			return "blob:limit=" + blobLimit; //$NON-NLS-1$
+		if (treeDepthLimit >= 0)
+			return "tree:" + treeDepthLimit; //$NON-NLS-1$
+		return null;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof FilterSpec))
+			return false;
+		FilterSpec f = (FilterSpec) o;
+		return blobLimit == f.blobLimit && treeDepthLimit == f.treeDepthLimit;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (31 * blobLimit + treeDepthLimit);
+	}
+
+	@Override
+	public String toString() {
+		String line = filterLine();
+		return line != null ? line : "none"; //$NON-NLS-1$
+	}
+}
@@ -144,6 +144,13 @@ public class GitProtocolConstants {
 	 */
 	public static final String OPTION_SYMREF = "symref"; //$NON-NLS-1$
 
+	/**
+	 * The client may send a {@link FilterSpec filter} for a partial fetch.
+	 *
+	 * @since 4.8
+	 */
+	public static final String OPTION_FILTER = "filter"; //$NON-NLS-1$
+
 	/**
 	 * The client will send a push certificate.
 	 *
@@ -215,6 +222,28 @@ public class GitProtocolConstants {
 	 */
 	public static final String CAPABILITY_PUSH_OPTIONS = "push-options"; //$NON-NLS-1$
 
+	/**
+	 * Extra parameter sent by a client to ask the server to speak protocol
+	 * version 2.
+	 *
+	 * @since 4.8
+	 */
+	public static final String VERSION_2_REQUEST = "version=2"; //$NON-NLS-1$
+
+	/**
+	 * Protocol version 2 command listing the refs of the repository.
+	 *
+	 * @since 4.8
+	 */
+	public static final String COMMAND_LS_REFS = "ls-refs"; //$NON-NLS-1$
+
+	/**
+	 * Protocol version 2 command negotiating and sending a pack.
+	 *
+	 * @since 4.8
+	 */
+	public static final String COMMAND_FETCH = "fetch"; //$NON-NLS-1$
+
 	static enum MultiAck {
 		OFF, CONTINUE, DETAILED;
 	}
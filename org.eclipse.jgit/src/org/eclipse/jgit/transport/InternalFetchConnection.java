@@ -46,6 +46,8 @@
 import java.io.IOException;
 import java.io.PipedInputStream;
 import java.io.PipedOutputStream;
+import java.util.Collection;
+import java.util.Collections;
 
 import org.eclipse.jgit.errors.TransportException;
 import org.eclipse.jgit.internal.JGitText;
@@ -60,7 +62,21 @@
 	public InternalFetchConnection(PackTransport transport,
 			final UploadPackFactory<C> uploadPackFactory,
 			final C req, final Repository remote) throws TransportException {
+		this(transport, uploadPackFactory, req, remote, null);
+	}
+
+	/**
+	 * @param refPrefixes
+	 *            prefixes of the refs to list if the transport is configured
+	 *            for protocol version 2; null to always use version 0.
+	 */
+	InternalFetchConnection(PackTransport transport,
+			final UploadPackFactory<C> uploadPackFactory,
+			final C req, final Repository remote,
+			final Collection<String> refPrefixes) throws TransportException {
 		super(transport);
+		final boolean v2 = refPrefixes != null
+				&& this.transport.protocol == TransferConfig.ProtocolVersion.V2;
 
 		final PipedInputStream in_r;
 		final PipedOutputStream in_w;
@@ -91,6 +107,10 @@ public InternalFetchConnection(PackTransport transport,
 			public void run() {
 				try {
 					final UploadPack rp = uploadPackFactory.create(req, remote);
+					if (v2) {
+						rp.setExtraParameters(Collections.singleton(
+								GitProtocolConstants.VERSION_2_REQUEST));
+					}
 					rp.upload(out_r, in_w, null);
 				} catch (ServiceNotEnabledException e) {
 					// Ignored. Client cannot use this repository.
@@ -123,6 +143,8 @@ public void run() {
 
 		init(in_r, out_w);
 		readAdvertisedRefs();
+		if (protocolV2)
+			lsRefs(refPrefixes);
 	}
 
 	@Override
@@ -54,7 +54,13 @@
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -62,6 +68,7 @@
 import org.eclipse.jgit.errors.MissingObjectException;
 import org.eclipse.jgit.errors.TooLargeObjectInPackException;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.internal.WorkerPool;
 import org.eclipse.jgit.internal.storage.file.PackLock;
 import org.eclipse.jgit.internal.storage.pack.BinaryDelta;
 import org.eclipse.jgit.lib.AnyObjectId;
@@ -80,6 +87,7 @@
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ObjectStream;
 import org.eclipse.jgit.lib.ProgressMonitor;
+import org.eclipse.jgit.lib.ThreadSafeProgressMonitor;
 import org.eclipse.jgit.util.BlockList;
 import org.eclipse.jgit.util.IO;
 import org.eclipse.jgit.util.NB;
@@ -183,9 +191,18 @@ public static enum Source {
 	/** Message to protect the pack data from garbage collection. */
 	private String lockMessage;
 
+	/** Was the pack sent with objects left out by a filter? */
+	private boolean promisor;
+
 	/** Git object size limit */
 	private long maxObjectSizeLimit;
 
+	/** Number of threads to resolve deltas with; 0 for all processors. */
+	private int threads = 1;
+
+	/** Guards parser state shared by concurrent delta resolvers. */
+	private final Object resolveLock = new Object();
+
 	private final ReceivedPackStatistics.Builder stats =
 			new ReceivedPackStatistics.Builder();
 
@@ -392,6 +409,30 @@ public void setLockMessage(String msg) {
 		lockMessage = msg;
 	}
 
+	/**
+	 * @return true if the incoming pack is marked as a promisor pack.
+	 * @since 4.8
+	 */
+	public boolean isPromisor() {
+		return promisor;
+	}
+
+	/**
+	 * Mark the incoming pack as received from a promisor remote.
+	 * <p>
+	 * A pack fetched with a filter leaves out objects the remote can still
+	 * provide later. Storage implementations that support it record the mark
+	 * next to the pack, so objects missing because of the filter can be told
+	 * apart from corruption.
+	 *
+	 * @param promisor
+	 *            true if the pack was fetched with an object filter.
+	 * @since 4.8
+	 */
+	public void setPromisor(boolean promisor) {
+		this.promisor = promisor;
+	}
+
 	/**
 	 * Set the maximum allowed Git object size.
 	 * <p>
@@ -405,6 +446,37 @@ public void setMaxObjectSizeLimit(long limit) {
 		maxObjectSizeLimit = limit;
 	}
 
+	/**
+	 * Get the number of threads used to resolve deltas.
+	 *
+	 * @return number of threads used to resolve deltas. 0 will auto-detect
+	 *         the threads to the number of available processors.
+	 * @since 4.8
+	 */
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * Set the number of threads to use for delta resolution.
+	 * <p>
+	 * By default only one thread is used. If more than one thread is
+	 * configured and the implementation supports {@link #newDatabaseReader()},
+	 * the base objects of the pack are partitioned across tasks run on JGit's
+	 * shared worker pool, at most one per thread of the pool. Each task
+	 * inflates, applies and hashes the delta chains built on its bases.
+	 * The resolved objects, and therefore the pack index, are identical to a
+	 * single threaded resolution.
+	 *
+	 * @param threads
+	 *            number of threads to use. If &lt;= 0 the number of available
+	 *            processors for this JVM is used.
+	 * @since 4.8
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
 	/**
 	 * Get the number of objects in the stream.
 	 * <p>
@@ -595,6 +667,13 @@ public PackLock parse(ProgressMonitor receiving, ProgressMonitor resolving)
 
 	private void resolveDeltas(final ProgressMonitor progress)
 			throws IOException {
+		int threadCnt = threads;
+		if (threadCnt <= 0)
+			threadCnt = Runtime.getRuntime().availableProcessors();
+		if (1 < threadCnt && 1 < entryCount
+				&& parallelResolveDeltas(progress, threadCnt))
+			return;
+
 		final int last = entryCount;
 		for (int i = 0; i < last; i++) {
 			resolveDeltas(entries[i], progress);
@@ -688,6 +767,63 @@ private void resolveDeltas(DeltaVisit visit, final int type,
 		} while (visit != null);
 	}
 
+	private boolean parallelResolveDeltas(ProgressMonitor progress,
+			int threadCnt) throws IOException {
+		// A resolver runs until all bases are taken, more resolvers than
+		// threads of the pool would only wait for the others to finish.
+		threadCnt = Math.min(Math.min(threadCnt, entryCount),
+				WorkerPool.getThreadCount());
+		ThreadSafeProgressMonitor pm = new ThreadSafeProgressMonitor(progress);
+		AtomicInteger nextBase = new AtomicInteger();
+		List<DeltaResolver> resolvers = new ArrayList<>(threadCnt);
+		try {
+			for (int i = 0; i < threadCnt; i++) {
+				DatabaseReader rd = newDatabaseReader();
+				if (rd == null)
+					break;
+				resolvers.add(new DeltaResolver(rd, pm, nextBase, entryCount));
+			}
+		} catch (IOException | RuntimeException e) {
+			for (DeltaResolver r : resolvers)
+				r.release();
+			throw e;
+		}
+		if (resolvers.isEmpty())
+			return false;
+
+		// Each resolver releases its own resources when its task ends.
+		pm.startWorkers(resolvers.size());
+		ExecutorService pool = WorkerPool.get();
+		List<Future<Object>> futures = new ArrayList<>(resolvers.size());
+		for (DeltaResolver r : resolvers)
+			futures.add(pool.submit(r));
+		try {
+			pm.waitForCompletion();
+			for (Future<Object> f : futures)
+				f.get();
+		} catch (InterruptedException ie) {
+			for (Future<Object> f : futures)
+				f.cancel(true);
+			throw new IOException(
+					JGitText.get().downloadCancelledDuringIndexing);
+		} catch (ExecutionException failed) {
+			// Report the failure as though the deltas were resolved by this
+			// thread.
+			Throwable err = failed.getCause();
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			if (err instanceof IOException)
+				throw (IOException) err;
+			throw new IOException(err.getMessage(), err);
+		}
+		if (progress.isCancelled())
+			throw new IOException(
+					JGitText.get().downloadCancelledDuringIndexing);
+		return true;
+	}
+
 	private final void checkIfTooLarge(int typeCode, long size)
 			throws IOException {
 		if (0 < maxObjectSizeLimit && maxObjectSizeLimit < size)
@@ -1441,6 +1577,31 @@ protected abstract ObjectTypeAndSize seekDatabase(UnresolvedDelta delta,
 	protected abstract int readDatabase(byte[] dst, int pos, int cnt)
 			throws IOException;
 
+	/**
+	 * Open a private reader over the objects already stored by the parser.
+	 * <p>
+	 * Invoked once per worker thread when delta resolution runs with more than
+	 * one thread (see {@link #setThreads(int)}). Readers are used concurrently
+	 * with each other, but never concurrently with
+	 * {@link #onStoreStream(byte[], int, int)} or
+	 * {@link #onAppendBase(int, byte[], PackedObjectInfo)}. Workers compute
+	 * CRC-32 checksums of the data they read themselves and do not invoke
+	 * {@link #seekDatabase(PackedObjectInfo, ObjectTypeAndSize)},
+	 * {@link #readDatabase(byte[], int, int)} or {@link #checkCRC(int)}.
+	 * <p>
+	 * The default implementation returns null, resolving all deltas on the
+	 * thread that called {@link #parse(ProgressMonitor, ProgressMonitor)}.
+	 *
+	 * @return a new reader; or null if the database does not support
+	 *         concurrent reads.
+	 * @throws IOException
+	 *             the database cannot be opened for reading.
+	 * @since 4.8
+	 */
+	protected DatabaseReader newDatabaseReader() throws IOException {
+		return null;
+	}
+
 	/**
 	 * Check the current CRC matches the expected value.
 	 * <p>
@@ -1537,6 +1698,43 @@ protected UnresolvedDelta onEndDelta() throws IOException {
 		return new UnresolvedDelta();
 	}
 
+	/**
+	 * Positional reader over the pack data stored by a parser.
+	 *
+	 * @since 4.8
+	 */
+	public static abstract class DatabaseReader {
+		/**
+		 * Read from the database at the given position.
+		 *
+		 * @param pos
+		 *            position within the stored pack to start reading at.
+		 * @param dst
+		 *            the buffer to copy read data into.
+		 * @param off
+		 *            position within {@code dst} to start copying data into.
+		 * @param cnt
+		 *            ideal target number of bytes to read. Actual read length
+		 *            may be shorter.
+		 * @return number of bytes stored; -1 if {@code pos} is at the end of
+		 *         the stored data.
+		 * @throws IOException
+		 *             the database cannot be accessed.
+		 */
+		public abstract int read(long pos, byte[] dst, int off, int cnt)
+				throws IOException;
+
+		/**
+		 * Release resources held by this reader.
+		 *
+		 * @throws IOException
+		 *             the reader could not be closed.
+		 */
+		public void close() throws IOException {
+			// Do nothing by default.
+		}
+	}
+
 	/** Type and size information about an object in the database buffer. */
 	public static class ObjectTypeAndSize {
 		/** The type of the object. */
@@ -1654,6 +1852,257 @@ DeltaVisit next() {
 		}
 	}
 
+	/**
+	 * Resolves the delta chains of a share of the base objects.
+	 * <p>
+	 * Bases are handed out one at a time from {@code nextBase}. Inflating,
+	 * applying and hashing deltas happens without locks; bookkeeping on the
+	 * parser (child lookup, object checks, the entry table and subclass
+	 * events) is serialized on {@link PackParser#resolveLock}.
+	 */
+	private final class DeltaResolver implements Callable<Object> {
+		private final DatabaseReader db;
+
+		private final ThreadSafeProgressMonitor pm;
+
+		private final AtomicInteger nextBase;
+
+		private final int lastBase;
+
+		private final Inflater inf = InflaterCache.get();
+
+		private final CRC32 crc = new CRC32();
+
+		private final SHA1 objectHasher = SHA1.newInstance();
+
+		private final MutableObjectId idBuf = new MutableObjectId();
+
+		private final ObjectTypeAndSize info = new ObjectTypeAndSize();
+
+		private final byte[] readBuf = new byte[BUFFER_SIZE];
+
+		private final byte[] skipBuf = new byte[1];
+
+		DeltaResolver(DatabaseReader db, ThreadSafeProgressMonitor pm,
+				AtomicInteger nextBase, int lastBase) {
+			this.db = db;
+			this.pm = pm;
+			this.nextBase = nextBase;
+			this.lastBase = lastBase;
+		}
+
+		@Override
+		public Object call() throws IOException {
+			boolean ok = false;
+			try {
+				for (;;) {
+					int i = nextBase.getAndIncrement();
+					if (lastBase <= i)
+						break;
+					resolve(entries[i]);
+					if (pm.isCancelled())
+						throw new IOException(
+								JGitText.get().downloadCancelledDuringIndexing);
+				}
+				ok = true;
+				return null;
+			} finally {
+				if (!ok)
+					nextBase.set(lastBase); // Stop the other resolvers early.
+				release();
+				pm.endWorker();
+			}
+		}
+
+		private void resolve(PackedObjectInfo oe) throws IOException {
+			DeltaVisit visit = new DeltaVisit();
+			synchronized (resolveLock) {
+				visit.nextChild = firstChildOf(oe);
+			}
+			if (visit.nextChild == null)
+				return;
+
+			visit.data = inflate(oe.getOffset());
+			visit.id = oe;
+			final int type = info.type;
+			switch (type) {
+			case Constants.OBJ_COMMIT:
+			case Constants.OBJ_TREE:
+			case Constants.OBJ_BLOB:
+			case Constants.OBJ_TAG:
+				break;
+			default:
+				throw new IOException(MessageFormat.format(
+						JGitText.get().unknownObjectType,
+						Integer.valueOf(type)));
+			}
+			if (oe.getCRC() != (int) crc.getValue()) {
+				throw new IOException(MessageFormat.format(
+						JGitText.get().corruptionDetectedReReadingAt,
+						Long.valueOf(oe.getOffset())));
+			}
+
+			synchronized (resolveLock) {
+				stats.addDeltaObject(type);
+			}
+			visit = visit.next();
+			do {
+				pm.update(1);
+				byte[] delta = inflate(visit.delta.position);
+				switch (info.type) {
+				case Constants.OBJ_OFS_DELTA:
+				case Constants.OBJ_REF_DELTA:
+					break;
+
+				default:
+					throw new IOException(MessageFormat.format(
+							JGitText.get().unknownObjectType,
+							Integer.valueOf(info.type)));
+				}
+				checkIfTooLarge(type, BinaryDelta.getResultSize(delta));
+
+				visit.data = BinaryDelta.apply(visit.parent.data, delta);
+				delta = null;
+
+				if (visit.delta.crc != (int) crc.getValue())
+					throw new IOException(MessageFormat.format(
+							JGitText.get().corruptionDetectedReReadingAt,
+							Long.valueOf(visit.delta.position)));
+
+				SHA1 objectDigest = objectHasher.reset();
+				objectDigest.update(Constants.encodedTypeString(type));
+				objectDigest.update((byte) ' ');
+				objectDigest.update(Constants.encodeASCII(visit.data.length));
+				objectDigest.update((byte) 0);
+				objectDigest.update(visit.data);
+				objectDigest.digest(idBuf);
+
+				synchronized (resolveLock) {
+					verifySafeObject(idBuf, type, visit.data);
+
+					PackedObjectInfo oe2;
+					oe2 = newInfo(idBuf, visit.delta, visit.parent.id);
+					oe2.setOffset(visit.delta.position);
+					onInflatedObjectData(oe2, type, visit.data);
+					addObjectAndTrack(oe2);
+					visit.id = oe2;
+
+					visit.nextChild = firstChildOf(oe2);
+				}
+				visit = visit.next();
+			} while (visit != null);
+		}
+
+		/**
+		 * Inflate the object stored at {@code pos}.
+		 * <p>
+		 * Populates {@link #info} with the object's header and leaves
+		 * {@link #crc} holding the checksum of the object's stored bytes.
+		 */
+		private byte[] inflate(long pos) throws IOException {
+			crc.reset();
+			int cnt = fill(pos);
+			int p = 0;
+			checkAvailable(p, cnt);
+			int c = readBuf[p++] & 0xff;
+			info.type = (c >> 4) & 7;
+			long sz = c & 15;
+			int shift = 4;
+			while ((c & 0x80) != 0) {
+				checkAvailable(p, cnt);
+				c = readBuf[p++] & 0xff;
+				sz += ((long) (c & 0x7f)) << shift;
+				shift += 7;
+			}
+			info.size = sz;
+
+			if (info.type == Constants.OBJ_OFS_DELTA) {
+				do {
+					checkAvailable(p, cnt);
+					c = readBuf[p++] & 0xff;
+				} while ((c & 128) != 0);
+			} else if (info.type == Constants.OBJ_REF_DELTA) {
+				p += 20;
+			}
+			checkAvailable(p, cnt);
+			crc.update(readBuf, 0, p);
+
+			final byte[] dst = new byte[(int) sz];
+			int dstPos = 0;
+			long next = pos + cnt;
+			inf.reset();
+			inf.setInput(readBuf, p, cnt - p);
+			try {
+				for (;;) {
+					int r;
+					if (dstPos < dst.length)
+						r = inf.inflate(dst, dstPos, dst.length - dstPos);
+					else if (0 < inf.inflate(skipBuf))
+						throw wrongDecompressedLength();
+					else
+						r = 0;
+					dstPos += r;
+					if (inf.finished())
+						break;
+					if (inf.needsInput()) {
+						crc.update(readBuf, p, cnt - p);
+						cnt = fill(next);
+						checkAvailable(0, cnt);
+						next += cnt;
+						p = 0;
+						inf.setInput(readBuf, 0, cnt);
+					} else if (r == 0) {
+						throw new CorruptObjectException(MessageFormat.format(
+								JGitText.get().packfileCorruptionDetected,
+								JGitText.get().unknownZlibError));
+					}
+				}
+			} catch (DataFormatException dfe) {
+				throw new CorruptObjectException(MessageFormat.format(
+						JGitText.get().packfileCorruptionDetected,
+						dfe.getMessage()));
+			}
+			if (dstPos != dst.length)
+				throw wrongDecompressedLength();
+			crc.update(readBuf, p, cnt - p - inf.getRemaining());
+			return dst;
+		}
+
+		private int fill(long pos) throws IOException {
+			int cnt = 0;
+			while (cnt < readBuf.length) {
+				int r = db.read(pos + cnt, readBuf, cnt, readBuf.length - cnt);
+				if (r <= 0)
+					break;
+				cnt += r;
+			}
+			return cnt;
+		}
+
+		private void checkAvailable(int p, int cnt) throws EOFException {
+			if (cnt <= p)
+				throw new EOFException(
+						JGitText.get().packfileIsTruncatedNoParam);
+		}
+
+		private CorruptObjectException wrongDecompressedLength() {
+			return new CorruptObjectException(MessageFormat.format(
+					JGitText.get().packfileCorruptionDetected,
+					JGitText.get().wrongDecompressedLength));
+		}
+
+		void release() {
+			try {
+				db.close();
+			} catch (IOException err) {
+				// Nothing useful can be done with a close failure.
+			} finally {
+				inf.reset();
+				InflaterCache.release(inf);
+			}
+		}
+	}
+
 	private void addObjectAndTrack(PackedObjectInfo oe) {
 		entries[entryCount++] = oe;
 		if (needNewObjectIds())
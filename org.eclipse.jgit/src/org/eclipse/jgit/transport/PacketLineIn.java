@@ -74,6 +74,13 @@ public class PacketLineIn {
 	/** Magic return from {@link #readString()} when a flush packet is found. */
 	public static final String END = new StringBuilder(0).toString(); 	/* must not string pool */
 
+	/**
+	 * Magic return from {@link #readString()} when a delim packet is found.
+	 *
+	 * @since 4.8
+	 */
+	public static final String DELIM = new StringBuilder(0).toString(); 	/* must not string pool */
+
 	static enum AckNackResult {
 		/** NAK */
 		NAK,
@@ -147,16 +154,20 @@ else if (arg.equals(" ready")) //$NON-NLS-1$
 	 * use {@link #readStringRaw()} instead.
 	 *
 	 * @return the string. {@link #END} if the string was the magic flush
-	 *         packet.
+	 *         packet, {@link #DELIM} if it was a delim packet.
 	 * @throws IOException
 	 *             the stream cannot be read.
 	 */
 	public String readString() throws IOException {
-		int len = readLength();
+		int len = readLength(true);
 		if (len == 0) {
 			log.debug("git< 0000"); //$NON-NLS-1$
 			return END;
 		}
+		if (len == 1) {
+			log.debug("git< 0001"); //$NON-NLS-1$
+			return DELIM;
+		}
 
 		len -= 4; // length header (4 bytes)
 		if (len == 0) {
@@ -185,16 +196,20 @@ public String readString() throws IOException {
 	 * Unlike {@link #readString()} a trailing LF will be retained.
 	 *
 	 * @return the string. {@link #END} if the string was the magic flush
-	 *         packet.
+	 *         packet, {@link #DELIM} if it was a delim packet.
 	 * @throws IOException
 	 *             the stream cannot be read.
 	 */
 	public String readStringRaw() throws IOException {
-		int len = readLength();
+		int len = readLength(true);
 		if (len == 0) {
 			log.debug("git< 0000"); //$NON-NLS-1$
 			return END;
 		}
+		if (len == 1) {
+			log.debug("git< 0001"); //$NON-NLS-1$
+			return DELIM;
+		}
 
 		len -= 4; // length header (4 bytes)
 
@@ -213,15 +228,21 @@ public String readStringRaw() throws IOException {
 
 	void discardUntilEnd() throws IOException {
 		for (;;) {
-			int n = readLength();
+			int n = readLength(true);
 			if (n == 0) {
 				break;
+			} else if (n == 1) {
+				continue;
 			}
 			IO.skipFully(in, n - 4);
 		}
 	}
 
 	int readLength() throws IOException {
+		return readLength(false);
+	}
+
+	private int readLength(boolean allowDelim) throws IOException {
 		IO.readFully(in, lineBuffer, 0, 4);
 		int len;
 		try {
@@ -230,8 +251,8 @@ int readLength() throws IOException {
 			throw invalidHeader();
 		}
 
-		if (len == 0) {
-			return 0;
+		if (len == 0 || (len == 1 && allowDelim)) {
+			return len;
 		} else if (len < 4) {
 			throw invalidHeader();
 		}
@@ -167,6 +167,22 @@ public void end() throws IOException {
 			flush();
 	}
 
+	/**
+	 * Write a delim packet, separating sections of a protocol version 2
+	 * request or response.
+	 * <p>
+	 * Unlike {@link #end()} the underlying OutputStream is not flushed.
+	 *
+	 * @throws IOException
+	 *             the delim packet could not be written.
+	 * @since 4.8
+	 */
+	public void writeDelim() throws IOException {
+		formatLength(1);
+		out.write(lenbuffer, 0, 4);
+		log.debug("git> 0001"); //$NON-NLS-1$
+	}
+
 	/**
 	 * Flush the underlying OutputStream.
 	 * <p>
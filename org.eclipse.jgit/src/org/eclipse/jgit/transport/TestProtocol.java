@@ -45,6 +45,7 @@
 
 import java.net.URISyntaxException;
 import java.text.MessageFormat;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
@@ -174,8 +175,19 @@ private class TransportInternal extends Transport implements PackTransport {
 		public FetchConnection openFetch() throws NotSupportedException,
 				TransportException {
 			handle.remote.incrementOpen();
-			return new InternalFetchConnection<>(
-					this, uploadPackFactory, handle.req, handle.remote);
+			return new InternalFetchConnection<>(this, uploadPackFactory,
+					handle.req, handle.remote,
+					Collections.<String> emptyList());
+		}
+
+		@Override
+		public FetchConnection openFetch(Collection<RefSpec> refSpecs,
+				String... additionalPatterns)
+				throws NotSupportedException, TransportException {
+			handle.remote.incrementOpen();
+			return new InternalFetchConnection<>(this, uploadPackFactory,
+					handle.req, handle.remote, BasePackConnection
+							.refPrefixes(refSpecs, additionalPatterns));
 		}
 
 		@Override
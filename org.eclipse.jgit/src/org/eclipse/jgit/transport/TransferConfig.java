@@ -43,6 +43,8 @@
 
 package org.eclipse.jgit.transport;
 
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_KEY_VERSION;
+import static org.eclipse.jgit.lib.ConfigConstants.CONFIG_PROTOCOL_SECTION;
 import static org.eclipse.jgit.util.StringUtils.equalsIgnoreCase;
 import static org.eclipse.jgit.util.StringUtils.toLowerCase;
 
@@ -80,6 +82,40 @@ enum FsckMode {
 		ERROR, WARN, IGNORE;
 	}
 
+	/**
+	 * Version of the Git wire protocol a client asks for.
+	 *
+	 * @since 4.8
+	 */
+	public enum ProtocolVersion {
+		/** The original protocol, advertising all refs up front. */
+		V0("0"), //$NON-NLS-1$
+
+		/** The command based protocol, listing refs on demand. */
+		V2("2"); //$NON-NLS-1$
+
+		private final String name;
+
+		ProtocolVersion(String name) {
+			this.name = name;
+		}
+
+		/** @return value of the {@code protocol.version} setting. */
+		public String version() {
+			return name;
+		}
+
+		@Nullable
+		static ProtocolVersion parse(@Nullable String name) {
+			for (ProtocolVersion v : values()) {
+				if (v.name.equals(name)) {
+					return v;
+				}
+			}
+			return null;
+		}
+	}
+
 	private final boolean fetchFsck;
 	private final boolean receiveFsck;
 	private final String fsckSkipList;
@@ -89,6 +125,9 @@ enum FsckMode {
 	private final boolean safeForMacOS;
 	private final boolean allowTipSha1InWant;
 	private final boolean allowReachableSha1InWant;
+	private final boolean allowAnySha1InWant;
+	private final boolean allowFilter;
+	private final ProtocolVersion protocolVersion;
 	final String[] hideRefs;
 
 	TransferConfig(final Repository db) {
@@ -141,7 +180,14 @@ enum FsckMode {
 				"uploadpack", "allowtipsha1inwant", false); //$NON-NLS-1$ //$NON-NLS-2$
 		allowReachableSha1InWant = rc.getBoolean(
 				"uploadpack", "allowreachablesha1inwant", false); //$NON-NLS-1$ //$NON-NLS-2$
+		allowAnySha1InWant = rc.getBoolean(
+				"uploadpack", "allowanysha1inwant", false); //$NON-NLS-1$ //$NON-NLS-2$
+		allowFilter = rc.getBoolean(
+				"uploadpack", "allowfilter", false); //$NON-NLS-1$ //$NON-NLS-2$
 		hideRefs = rc.getStringList("uploadpack", null, "hiderefs"); //$NON-NLS-1$ //$NON-NLS-2$
+		ProtocolVersion v = ProtocolVersion.parse(rc.getString(
+				CONFIG_PROTOCOL_SECTION, null, CONFIG_KEY_VERSION));
+		protocolVersion = v != null ? v : ProtocolVersion.V0;
 	}
 
 	/**
@@ -199,6 +245,34 @@ public boolean isAllowReachableSha1InWant() {
 		return allowReachableSha1InWant;
 	}
 
+	/**
+	 * @return allow clients to request any SHA-1, e.g. objects a partial
+	 *         clone left out?
+	 * @since 4.8
+	 */
+	public boolean isAllowAnySha1InWant() {
+		return allowAnySha1InWant;
+	}
+
+	/**
+	 * @return allow clients to send a {@link FilterSpec filter} for a partial
+	 *         fetch?
+	 * @since 4.8
+	 */
+	public boolean isAllowFilter() {
+		return allowFilter;
+	}
+
+	/**
+	 * @return protocol version clients should ask for, from
+	 *         {@code protocol.version}. Unknown values select
+	 *         {@link ProtocolVersion#V0}.
+	 * @since 4.8
+	 */
+	public ProtocolVersion getProtocolVersion() {
+		return protocolVersion;
+	}
+
 	/**
 	 * @return {@link RefFilter} respecting configured hidden refs.
 	 * @since 3.1
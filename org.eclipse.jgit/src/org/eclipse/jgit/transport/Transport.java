@@ -81,6 +81,7 @@
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectChecker;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectIdRef;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
 import org.eclipse.jgit.lib.Repository;
@@ -796,6 +797,15 @@ private static String findTrackingRefName(final String remoteName,
 	/** Should an incoming (fetch) transfer validate objects? */
 	private ObjectChecker objectChecker;
 
+	/** Objects a fetch should ask the remote to leave out. */
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
+	/** Should fetch ask for the wanted objects without sending haves? */
+	boolean fetchWithoutHaves;
+
+	/** Wire protocol version to ask the remote upload-pack for. */
+	final TransferConfig.ProtocolVersion protocol;
+
 	/** Should refs no longer on the source be pruned from the destination? */
 	private boolean removeDeletedRefs;
 
@@ -830,6 +840,7 @@ protected Transport(final Repository local, final URIish uri) {
 		this.local = local;
 		this.uri = uri;
 		this.objectChecker = tc.newObjectChecker();
+		this.protocol = tc.getProtocolVersion();
 		this.credentialsProvider = CredentialsProvider.getDefault();
 		prePush = Hooks.prePush(local, hookOutRedirect);
 	}
@@ -843,6 +854,7 @@ protected Transport(final URIish uri) {
 		this.uri = uri;
 		this.local = null;
 		this.objectChecker = new ObjectChecker();
+		this.protocol = TransferConfig.ProtocolVersion.V0;
 		this.credentialsProvider = CredentialsProvider.getDefault();
 	}
 
@@ -962,6 +974,31 @@ public void setObjectChecker(ObjectChecker impl) {
 		objectChecker = impl;
 	}
 
+	/**
+	 * @return filter the remote applies to objects sent during fetch;
+	 *         {@link FilterSpec#NO_FILTER} by default.
+	 * @since 4.8
+	 */
+	public FilterSpec getFilterSpec() {
+		return filterSpec;
+	}
+
+	/**
+	 * Ask the remote to leave some objects out of fetched packs.
+	 * <p>
+	 * The remote must advertise the {@code filter} capability. Packs received
+	 * with a filter are marked as promisor packs in the local repository, and
+	 * connectivity of the fetched history is only checked for commits.
+	 *
+	 * @param filterSpec
+	 *            the filter; {@link FilterSpec#NO_FILTER} to fetch everything.
+	 * @since 4.8
+	 */
+	public void setFilterSpec(FilterSpec filterSpec) {
+		this.filterSpec = filterSpec != null ? filterSpec
+				: FilterSpec.NO_FILTER;
+	}
+
 	/**
 	 * Default setting is: {@link RemoteConfig#DEFAULT_RECEIVE_PACK}
 	 *
@@ -1240,6 +1277,52 @@ public FetchResult fetch(final ProgressMonitor monitor,
 		return result;
 	}
 
+	/**
+	 * Fetch objects a filtered fetch left out of the local repository.
+	 * <p>
+	 * The objects are asked for by name, without negotiating common history:
+	 * they are reachable from commits the local repository already has, so
+	 * the remote would otherwise consider them present on our side. Missing
+	 * trees are fetched together with everything they reference. No refs are
+	 * updated.
+	 * <p>
+	 * The remote must allow requests for objects that are not advertised,
+	 * e.g. with {@code uploadpack.allowAnySHA1InWant}.
+	 *
+	 * @param monitor
+	 *            progress monitor to inform the user about our processing
+	 *            activity. Must not be null.
+	 * @param ids
+	 *            objects to fetch.
+	 * @throws NotSupportedException
+	 *             this transport implementation does not support fetching
+	 *             objects.
+	 * @throws TransportException
+	 *             the remote connection could not be established or object
+	 *             copying failed.
+	 * @since 4.8
+	 */
+	public void fetchPromisedObjects(ProgressMonitor monitor,
+			Collection<? extends ObjectId> ids)
+			throws NotSupportedException, TransportException {
+		if (ids.isEmpty())
+			return;
+		List<Ref> want = new ArrayList<>(ids.size());
+		for (ObjectId id : ids)
+			want.add(new ObjectIdRef.Unpeeled(Ref.Storage.NETWORK, id.name(),
+					id.copy()));
+
+		FilterSpec filter = filterSpec;
+		filterSpec = FilterSpec.NO_FILTER;
+		fetchWithoutHaves = true;
+		try (FetchConnection conn = openFetch()) {
+			conn.fetch(monitor, want, Collections.<ObjectId> emptySet());
+		} finally {
+			filterSpec = filter;
+			fetchWithoutHaves = false;
+		}
+	}
+
 	/**
 	 * Push objects and refs from the local repository to the remote one.
 	 * <p>
@@ -1423,6 +1506,32 @@ public Collection<RemoteRefUpdate> findRemoteRefUpdatesFor(
 	public abstract FetchConnection openFetch() throws NotSupportedException,
 			TransportException;
 
+	/**
+	 * Begins a new connection for fetching from the remote repository.
+	 * <p>
+	 * Transports speaking protocol version 2 only list the remote refs which
+	 * may be matched by {@code refSpecs} or by one of the
+	 * {@code additionalPatterns}. Other transports list all refs, as
+	 * {@link #openFetch()} does.
+	 *
+	 * @param refSpecs
+	 *            specifications of the refs the caller is going to fetch.
+	 * @param additionalPatterns
+	 *            additional ref name prefixes the caller is interested in,
+	 *            such as {@code HEAD} or {@code refs/tags/}.
+	 * @return a fresh connection to fetch from the remote repository.
+	 * @throws NotSupportedException
+	 *             the implementation does not support fetching.
+	 * @throws TransportException
+	 *             the remote connection could not be established.
+	 * @since 4.8
+	 */
+	public FetchConnection openFetch(Collection<RefSpec> refSpecs,
+			String... additionalPatterns)
+			throws NotSupportedException, TransportException {
+		return openFetch();
+	}
+
 	/**
 	 * Begins a new connection for pushing into the remote repository.
 	 *
@@ -52,6 +52,7 @@
 import static org.eclipse.jgit.util.HttpSupport.HDR_ACCEPT_ENCODING;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_ENCODING;
 import static org.eclipse.jgit.util.HttpSupport.HDR_CONTENT_TYPE;
+import static org.eclipse.jgit.util.HttpSupport.HDR_GIT_PROTOCOL;
 import static org.eclipse.jgit.util.HttpSupport.HDR_LOCATION;
 import static org.eclipse.jgit.util.HttpSupport.HDR_PRAGMA;
 import static org.eclipse.jgit.util.HttpSupport.HDR_USER_AGENT;
@@ -321,6 +322,19 @@ public void setUseSmartHttp(final boolean on) {
 	@Override
 	public FetchConnection openFetch() throws TransportException,
 			NotSupportedException {
+		return openFetch(Collections.<String> emptyList());
+	}
+
+	@Override
+	public FetchConnection openFetch(Collection<RefSpec> refSpecs,
+			String... additionalPatterns)
+			throws NotSupportedException, TransportException {
+		return openFetch(
+				BasePackConnection.refPrefixes(refSpecs, additionalPatterns));
+	}
+
+	private FetchConnection openFetch(Collection<String> refPrefixes)
+			throws TransportException, NotSupportedException {
 		final String service = SVC_UPLOAD_PACK;
 		try {
 			final HttpConnection c = connect(service);
@@ -329,7 +343,7 @@ public FetchConnection openFetch() throws TransportException,
 				BaseConnection f;
 				if (isSmartHttp(c, service)) {
 					readSmartHeaders(in, service);
-					f = new SmartHttpFetchConnection(in);
+					f = new SmartHttpFetchConnection(in, refPrefixes);
 				} else {
 					// Assume this server doesn't support smart HTTP fetch
 					// and fall back on dumb object walking.
@@ -498,6 +512,11 @@ private HttpConnection connect(final String service)
 				if (useSmartHttp) {
 					String exp = "application/x-" + service + "-advertisement"; //$NON-NLS-1$ //$NON-NLS-2$
 					conn.setRequestProperty(HDR_ACCEPT, exp + ", */*"); //$NON-NLS-1$
+					if (protocol == TransferConfig.ProtocolVersion.V2
+							&& SVC_UPLOAD_PACK.equals(service)) {
+						conn.setRequestProperty(HDR_GIT_PROTOCOL,
+								GitProtocolConstants.VERSION_2_REQUEST);
+					}
 				} else {
 					conn.setRequestProperty(HDR_ACCEPT, "*/*"); //$NON-NLS-1$
 				}
@@ -837,7 +856,8 @@ void close() {
 	class SmartHttpFetchConnection extends BasePackFetchConnection {
 		private MultiRequestService svc;
 
-		SmartHttpFetchConnection(final InputStream advertisement)
+		SmartHttpFetchConnection(final InputStream advertisement,
+				final Collection<String> refPrefixes)
 				throws TransportException {
 			super(TransportHttp.this);
 			statelessRPC = true;
@@ -845,6 +865,19 @@ class SmartHttpFetchConnection extends BasePackFetchConnection {
 			init(advertisement, DisabledOutputStream.INSTANCE);
 			outNeedsEnd = false;
 			readAdvertisedRefs();
+			if (protocolV2) {
+				svc = newService();
+				init(svc.getInputStream(), svc.getOutputStream());
+				outNeedsEnd = false;
+				lsRefs(refPrefixes);
+				svc = null;
+			}
+		}
+
+		private MultiRequestService newService() {
+			MultiRequestService s = new MultiRequestService(SVC_UPLOAD_PACK);
+			s.protocolV2 = protocolV2;
+			return s;
 		}
 
 		@Override
@@ -852,7 +885,7 @@ protected void doFetch(final ProgressMonitor monitor,
 				final Collection<Ref> want, final Set<ObjectId> have,
 				final OutputStream outputStream) throws TransportException {
 			try {
-				svc = new MultiRequestService(SVC_UPLOAD_PACK);
+				svc = newService();
 				init(svc.getInputStream(), svc.getOutputStream());
 				super.doFetch(monitor, want, have, outputStream);
 			} finally {
@@ -903,6 +936,9 @@ abstract class Service {
 
 		final UnionInputStream in;
 
+		/** Send the request in protocol version 2. */
+		boolean protocolV2;
+
 		Service(String serviceName) {
 			this.serviceName = serviceName;
 			this.requestType = "application/x-" + serviceName + "-request"; //$NON-NLS-1$ //$NON-NLS-2$
@@ -926,6 +962,10 @@ void openStream(final String redirectUrl) throws IOException {
 			conn.setDoOutput(true);
 			conn.setRequestProperty(HDR_CONTENT_TYPE, requestType);
 			conn.setRequestProperty(HDR_ACCEPT, responseType);
+			if (protocolV2) {
+				conn.setRequestProperty(HDR_GIT_PROTOCOL,
+						GitProtocolConstants.VERSION_2_REQUEST);
+			}
 		}
 
 		void sendRequest() throws IOException {
@@ -44,7 +44,10 @@
 package org.eclipse.jgit.transport;
 
 import static org.eclipse.jgit.lib.RefDatabase.ALL;
+import static org.eclipse.jgit.transport.GitProtocolConstants.COMMAND_FETCH;
+import static org.eclipse.jgit.transport.GitProtocolConstants.COMMAND_LS_REFS;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_AGENT;
+import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_FILTER;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_ALLOW_REACHABLE_SHA1_IN_WANT;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_ALLOW_TIP_SHA1_IN_WANT;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_INCLUDE_TAG;
@@ -57,6 +60,7 @@
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_SIDE_BAND;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_SIDE_BAND_64K;
 import static org.eclipse.jgit.transport.GitProtocolConstants.OPTION_THIN_PACK;
+import static org.eclipse.jgit.transport.GitProtocolConstants.VERSION_2_REQUEST;
 
 import java.io.ByteArrayOutputStream;
 import java.io.EOFException;
@@ -67,6 +71,7 @@
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -78,11 +83,16 @@
 import org.eclipse.jgit.errors.PackProtocolException;
 import org.eclipse.jgit.internal.JGitText;
 import org.eclipse.jgit.internal.storage.pack.PackWriter;
+import org.eclipse.jgit.internal.storage.pack.PackWriterBitmapWalker;
+import org.eclipse.jgit.lib.BitmapIndex;
+import org.eclipse.jgit.lib.BitmapIndex.BitmapBuilder;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.NullProgressMonitor;
 import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.ProgressMonitor;
 import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.RefComparator;
 import org.eclipse.jgit.lib.RefDatabase;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.revwalk.AsyncRevObjectQueue;
@@ -259,6 +269,12 @@ public Set<String> getOptions() {
 	/** Hook for taking post upload actions. */
 	private PostUploadHook postUploadHook = PostUploadHook.NULL;
 
+	/** Filter of a partial fetch requested by the client. */
+	private FilterSpec filterSpec = FilterSpec.NO_FILTER;
+
+	/** True if the client asked to speak protocol version 2. */
+	private boolean clientRequestedV2;
+
 	/** Capabilities requested by the client. */
 	private Set<String> options;
 	String userAgent;
@@ -293,18 +309,18 @@ public Set<String> getOptions() {
 	private Set<ObjectId> advertised;
 
 	/** Marked on objects the client has asked us to give them. */
-	private final RevFlag WANT;
+	private RevFlag WANT;
 
 	/** Marked on objects both we and the client have. */
-	private final RevFlag PEER_HAS;
+	private RevFlag PEER_HAS;
 
 	/** Marked on objects in {@link #commonBase}. */
-	private final RevFlag COMMON;
+	private RevFlag COMMON;
 
 	/** Objects where we found a path from the want list to a common base. */
-	private final RevFlag SATISFIED;
+	private RevFlag SATISFIED;
 
-	private final RevFlagSet SAVE;
+	private RevFlagSet SAVE;
 
 	private RequestValidator requestValidator = new AdvertisedRequestValidator();
 
@@ -327,7 +343,12 @@ public UploadPack(final Repository copyFrom) {
 		db = copyFrom;
 		walk = new RevWalk(db);
 		walk.setRetainBody(false);
+		allocateFlags();
+
+		setTransferConfig(null);
+	}
 
+	private void allocateFlags() {
 		WANT = walk.newFlag("WANT"); //$NON-NLS-1$
 		PEER_HAS = walk.newFlag("PEER_HAS"); //$NON-NLS-1$
 		COMMON = walk.newFlag("COMMON"); //$NON-NLS-1$
@@ -339,8 +360,6 @@ public UploadPack(final Repository copyFrom) {
 		SAVE.add(PEER_HAS);
 		SAVE.add(COMMON);
 		SAVE.add(SATISFIED);
-
-		setTransferConfig(null);
 	}
 
 	/** @return the repository this upload is reading from. */
@@ -376,14 +395,13 @@ public final Map<String, Ref> getAdvertisedRefs() {
 	 *            all refs were advertised.
 	 */
 	public void setAdvertisedRefs(Map<String, Ref> allRefs) {
-		if (allRefs != null)
-			refs = allRefs;
-		else
-			refs = db.getAllRefs();
+		refs = filter(allRefs != null ? allRefs : db.getAllRefs());
+	}
+
+	private Map<String, Ref> filter(Map<String, Ref> allRefs) {
 		if (refFilter == RefFilter.DEFAULT)
-			refs = transferConfig.getRefFilter().filter(refs);
-		else
-			refs = refFilter.filter(refs);
+			return transferConfig.getRefFilter().filter(allRefs);
+		return refFilter.filter(allRefs);
 	}
 
 	/** @return timeout (in seconds) before aborting an IO operation. */
@@ -403,6 +421,25 @@ public void setTimeout(final int seconds) {
 		timeout = seconds;
 	}
 
+	/**
+	 * Set the parameters the client sent outside of the pkt-line stream.
+	 * <p>
+	 * Clients pass these in the {@code Git-Protocol} HTTP header, or in the
+	 * {@code GIT_PROTOCOL} environment variable of an SSH command. A client
+	 * sending {@code version=2} is served with protocol version 2, in which
+	 * refs are only listed on request and may be limited to a set of prefixes.
+	 * Must be called before {@link #sendAdvertisedRefs(RefAdvertiser)} or
+	 * {@link #upload(InputStream, OutputStream, OutputStream)}.
+	 *
+	 * @param params
+	 *            parameters sent by the client, each in {@code key=value}
+	 *            form.
+	 * @since 4.8
+	 */
+	public void setExtraParameters(Collection<String> params) {
+		clientRequestedV2 = params.contains(VERSION_2_REQUEST);
+	}
+
 	/**
 	 * @return true if this class expects a bi-directional pipe opened between
 	 *         the client and itself. The default is true.
@@ -579,7 +616,9 @@ public void setPackConfig(PackConfig pc) {
 	 */
 	public void setTransferConfig(TransferConfig tc) {
 		this.transferConfig = tc != null ? tc : new TransferConfig(db);
-		if (transferConfig.isAllowTipSha1InWant()) {
+		if (transferConfig.isAllowAnySha1InWant()) {
+			setRequestPolicy(RequestPolicy.ANY);
+		} else if (transferConfig.isAllowTipSha1InWant()) {
 			setRequestPolicy(transferConfig.isAllowReachableSha1InWant()
 				? RequestPolicy.REACHABLE_COMMIT_TIP : RequestPolicy.TIP);
 		} else {
@@ -719,6 +758,11 @@ private Map<String, Ref> getAdvertisedOrDefaultRefs() throws IOException {
 	}
 
 	private void service() throws IOException {
+		if (clientRequestedV2) {
+			serviceV2();
+			return;
+		}
+
 		boolean sendPack;
 		// If it's a non-bidi request, we need to read the entire request before
 		// writing a response. Buffer the response until then.
@@ -747,33 +791,115 @@ else if (requestValidator instanceof AnyRequestValidator)
 
 			if (!clientShallowCommits.isEmpty())
 				verifyClientShallow();
-			if (depth != 0)
-				processShallow();
+			if (depth != 0) {
+				processShallow(pckOut);
+				pckOut.end();
+			}
 			if (!clientShallowCommits.isEmpty())
 				walk.assumeShallow(clientShallowCommits);
 			sendPack = negotiate();
 		} catch (ServiceMayNotContinueException err) {
-			if (!err.isOutput() && err.getMessage() != null) {
-				try {
-					pckOut.writeString("ERR " + err.getMessage() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
-					err.setOutput();
-				} catch (Throwable err2) {
-					// Ignore this secondary failure (and not mark output).
-				}
-			}
+			writeError(err);
 			throw err;
 		} catch (IOException | RuntimeException | Error err) {
-			boolean output = false;
+			if (writeError(err)) {
+				throw new UploadPackInternalServerErrorException(err);
+			}
+			throw err;
+		} finally {
+			rawOut.stopBuffering();
+		}
+
+		if (sendPack)
+			sendPack();
+	}
+
+	private void writeError(ServiceMayNotContinueException err) {
+		if (!err.isOutput() && err.getMessage() != null) {
 			try {
-				String msg = err instanceof PackProtocolException
-						? err.getMessage()
-						: JGitText.get().internalServerError;
-				pckOut.writeString("ERR " + msg + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
-				output = true;
+				pckOut.writeString("ERR " + err.getMessage() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+				err.setOutput();
 			} catch (Throwable err2) {
-				// Ignore this secondary failure, leave output false.
+				// Ignore this secondary failure (and not mark output).
 			}
-			if (output) {
+		}
+	}
+
+	private boolean writeError(Throwable err) {
+		try {
+			String msg = err instanceof PackProtocolException
+					? err.getMessage()
+					: JGitText.get().internalServerError;
+			pckOut.writeString("ERR " + msg + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			return true;
+		} catch (Throwable err2) {
+			// Ignore this secondary failure, leave output false.
+			return false;
+		}
+	}
+
+	private void serviceV2() throws IOException {
+		if (biDirectionalPipe) {
+			sendAdvertisedRefs(new PacketLineOutRefAdvertiser(pckOut));
+			while (serveCommandV2())
+				resetCommandState();
+		} else {
+			serveCommandV2();
+		}
+	}
+
+	/**
+	 * Forget the state of the previous protocol version 2 command.
+	 * <p>
+	 * The objects of the walk are discarded too, as they carry the flags and
+	 * the shallow boundary of the previous command.
+	 */
+	private void resetCommandState() {
+		wantIds.clear();
+		wantAll.clear();
+		commonBase.clear();
+		clientShallowCommits.clear();
+		unshallowCommits.clear();
+		depth = 0;
+		filterSpec = FilterSpec.NO_FILTER;
+		oldestTime = 0;
+		okToGiveUp = null;
+		sentReady = false;
+		statistics = null;
+		walk.dispose();
+		allocateFlags();
+	}
+
+	/**
+	 * Serve one protocol version 2 command.
+	 *
+	 * @return false if the client has no more commands to send.
+	 * @throws IOException
+	 */
+	private boolean serveCommandV2() throws IOException {
+		boolean sendPack = false;
+		try {
+			String command;
+			try {
+				command = pckIn.readString();
+			} catch (EOFException eof) {
+				return false;
+			}
+			if (command == PacketLineIn.END)
+				return false;
+
+			if (command.equals("command=" + COMMAND_LS_REFS)) //$NON-NLS-1$
+				lsRefsV2();
+			else if (command.equals("command=" + COMMAND_FETCH)) //$NON-NLS-1$
+				sendPack = fetchV2();
+			else
+				throw new PackProtocolException(MessageFormat.format(
+						JGitText.get().unknownProtocolV2Command, command));
+		} catch (ServiceMayNotContinueException err) {
+			writeError(err);
+			throw err;
+		} catch (IOException | RuntimeException | Error err) {
+			if (writeError(err)) {
 				throw new UploadPackInternalServerErrorException(err);
 			}
 			throw err;
@@ -783,6 +909,222 @@ else if (requestValidator instanceof AnyRequestValidator)
 
 		if (sendPack)
 			sendPack();
+		return true;
+	}
+
+	/**
+	 * Read the capabilities and arguments of a protocol version 2 command.
+	 * <p>
+	 * The capabilities are stored in {@link #options}.
+	 *
+	 * @return the arguments of the command.
+	 * @throws IOException
+	 */
+	private List<String> readArgumentsV2() throws IOException {
+		Set<String> caps = new HashSet<>();
+		String line = pckIn.readString();
+		while (line != PacketLineIn.DELIM && line != PacketLineIn.END) {
+			caps.add(line);
+			line = pckIn.readString();
+		}
+		options = caps;
+
+		List<String> args = new ArrayList<>();
+		if (line == PacketLineIn.DELIM) {
+			while ((line = pckIn.readString()) != PacketLineIn.END)
+				args.add(line);
+		}
+		return args;
+	}
+
+	private void lsRefsV2() throws IOException {
+		boolean symrefs = false;
+		boolean peel = false;
+		List<String> prefixes = new ArrayList<>();
+		for (String arg : readArgumentsV2()) {
+			if (arg.equals("symrefs")) //$NON-NLS-1$
+				symrefs = true;
+			else if (arg.equals("peel")) //$NON-NLS-1$
+				peel = true;
+			else if (arg.startsWith("ref-prefix ")) //$NON-NLS-1$
+				prefixes.add(arg.substring(11));
+			else
+				throw new PackProtocolException(MessageFormat.format(
+						JGitText.get().unexpectedProtocolV2Argument,
+						COMMAND_LS_REFS, arg));
+		}
+
+		advertiseRefsHook.advertiseRefs(this);
+		for (Ref ref : RefComparator.sort(getRefsV2(prefixes).values())) {
+			ObjectId id = ref.getObjectId();
+			if (id == null)
+				continue;
+			StringBuilder line = new StringBuilder();
+			line.append(id.name()).append(' ').append(ref.getName());
+			if (symrefs && ref.isSymbolic()) {
+				line.append(" symref-target:"); //$NON-NLS-1$
+				line.append(ref.getLeaf().getName());
+			}
+			if (peel) {
+				if (!ref.isPeeled())
+					ref = db.peel(ref);
+				ObjectId peeled = ref.getPeeledObjectId();
+				if (peeled != null)
+					line.append(" peeled:").append(peeled.name()); //$NON-NLS-1$
+			}
+			pckOut.writeString(line.append('\n').toString());
+		}
+		pckOut.end();
+	}
+
+	/**
+	 * Read the refs matching any of the prefixes.
+	 * <p>
+	 * Unless a hook already chose the advertised refs, only the ref
+	 * directories covering the prefixes are read from the database.
+	 *
+	 * @param prefixes
+	 *            ref name prefixes requested by the client; empty for all refs.
+	 * @return matching refs, after applying the ref filter.
+	 * @throws IOException
+	 */
+	private Map<String, Ref> getRefsV2(List<String> prefixes)
+			throws IOException {
+		if (prefixes.isEmpty() || refs != null) {
+			Map<String, Ref> all = getAdvertisedOrDefaultRefs();
+			if (prefixes.isEmpty())
+				return all;
+			Map<String, Ref> result = new HashMap<>();
+			for (Ref ref : all.values()) {
+				if (startsWithAny(ref.getName(), prefixes))
+					result.put(ref.getName(), ref);
+			}
+			return result;
+		}
+
+		RefDatabase refdb = db.getRefDatabase();
+		Map<String, Ref> result = new HashMap<>();
+		for (String prefix : prefixes) {
+			int slash = prefix.lastIndexOf('/');
+			String dir;
+			if (slash >= 0) {
+				dir = prefix.substring(0, slash + 1);
+			} else if (Constants.R_REFS.startsWith(prefix)) {
+				dir = ALL;
+			} else {
+				// As in the protocol v0 advertisement, HEAD is the only
+				// ref listed outside of refs/.
+				if (Constants.HEAD.startsWith(prefix)) {
+					Ref head = refdb.exactRef(Constants.HEAD);
+					if (head != null)
+						result.put(head.getName(), head);
+				}
+				continue;
+			}
+			for (Ref ref : refdb.getRefs(dir).values()) {
+				if (ref.getName().startsWith(prefix))
+					result.put(ref.getName(), ref);
+			}
+		}
+		return filter(result);
+	}
+
+	private static boolean startsWithAny(String name, List<String> prefixes) {
+		for (String prefix : prefixes) {
+			if (name.startsWith(prefix))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean fetchV2() throws IOException {
+		List<String> args = readArgumentsV2();
+		Set<String> opts = new HashSet<>(options);
+		opts.add(OPTION_SIDE_BAND_64K);
+		List<ObjectId> peerHas = new ArrayList<>();
+		boolean done = false;
+		for (String line : args) {
+			if (line.startsWith("want ")) { //$NON-NLS-1$
+				wantIds.add(ObjectId.fromString(line.substring(5)));
+			} else if (line.startsWith("have ")) { //$NON-NLS-1$
+				peerHas.add(ObjectId.fromString(line.substring(5)));
+			} else if (line.equals("done")) { //$NON-NLS-1$
+				done = true;
+			} else if (line.equals(OPTION_THIN_PACK)
+					|| line.equals(OPTION_OFS_DELTA)
+					|| line.equals(OPTION_INCLUDE_TAG)
+					|| line.equals(OPTION_NO_PROGRESS)) {
+				opts.add(line);
+			} else if (line.startsWith("shallow ")) { //$NON-NLS-1$
+				clientShallowCommits.add(ObjectId.fromString(line.substring(8)));
+			} else if (line.startsWith("deepen ")) { //$NON-NLS-1$
+				depth = Integer.parseInt(line.substring(7));
+				if (depth <= 0) {
+					throw new PackProtocolException(
+							MessageFormat.format(JGitText.get().invalidDepth,
+									Integer.valueOf(depth)));
+				}
+			} else if (line.startsWith(OPTION_FILTER + ' ')) {
+				parseFilter(line.substring(OPTION_FILTER.length() + 1));
+			} else {
+				throw new PackProtocolException(MessageFormat.format(
+						JGitText.get().unexpectedProtocolV2Argument,
+						COMMAND_FETCH, line));
+			}
+		}
+		options = opts;
+
+		if (wantIds.isEmpty() && wantAll.isEmpty()) {
+			preUploadHook.onBeginNegotiateRound(this, wantIds, 0);
+			preUploadHook.onEndNegotiateRound(this, wantIds, 0, 0, false);
+			pckOut.end();
+			return false;
+		}
+
+		if (requestValidator instanceof AnyRequestValidator)
+			advertised = Collections.emptySet();
+		else
+			advertised = refIdSet(getAdvertisedOrDefaultRefs().values());
+
+		if (!clientShallowCommits.isEmpty())
+			verifyClientShallow();
+		ByteArrayOutputStream shallowInfo = new ByteArrayOutputStream();
+		if (depth != 0) {
+			unshallowCommits.clear();
+			processShallow(new PacketLineOut(shallowInfo));
+		}
+		if (!clientShallowCommits.isEmpty())
+			walk.assumeShallow(clientShallowCommits);
+
+		// The client only expects acknowledgments until it says done.
+		sentReady = false;
+		if (done) {
+			processHaveLines(peerHas, ObjectId.zeroId(),
+					new PacketLineOut(NullOutputStream.INSTANCE));
+		} else {
+			ByteArrayOutputStream acks = new ByteArrayOutputStream();
+			processHaveLines(peerHas, ObjectId.zeroId(),
+					new PacketLineOut(acks));
+			pckOut.writeString("acknowledgments\n"); //$NON-NLS-1$
+			if (acks.size() == 0)
+				pckOut.writeString("NAK\n"); //$NON-NLS-1$
+			else
+				acks.writeTo(rawOut);
+			if (!sentReady) {
+				pckOut.end();
+				return false;
+			}
+			pckOut.writeString("ready\n"); //$NON-NLS-1$
+			pckOut.writeDelim();
+		}
+
+		if (depth != 0) {
+			pckOut.writeString("shallow-info\n"); //$NON-NLS-1$
+			shallowInfo.writeTo(rawOut);
+			pckOut.writeDelim();
+		}
+		pckOut.writeString("packfile\n"); //$NON-NLS-1$
+		return true;
 	}
 
 	private static Set<ObjectId> refIdSet(Collection<Ref> refs) {
@@ -800,7 +1142,7 @@ private static Set<ObjectId> refIdSet(Collection<Ref> refs) {
 		return ids;
 	}
 
-	private void processShallow() throws IOException {
+	private void processShallow(PacketLineOut out) throws IOException {
 		int walkDepth = depth - 1;
 		try (DepthWalk.RevWalk depthWalk = new DepthWalk.RevWalk(
 				walk.getObjectReader(), walkDepth)) {
@@ -822,18 +1164,17 @@ private void processShallow() throws IOException {
 				// the client need to be marked as such
 				if (c.getDepth() == walkDepth
 						&& !clientShallowCommits.contains(c))
-					pckOut.writeString("shallow " + o.name()); //$NON-NLS-1$
+					out.writeString("shallow " + o.name()); //$NON-NLS-1$
 
 				// Commits not on the boundary which are shallow in the client
 				// need to become unshallowed
 				if (c.getDepth() < walkDepth
 						&& clientShallowCommits.remove(c)) {
 					unshallowCommits.add(c.copy());
-					pckOut.writeString("unshallow " + c.name()); //$NON-NLS-1$
+					out.writeString("unshallow " + c.name()); //$NON-NLS-1$
 				}
 			}
 		}
-		pckOut.end();
 	}
 
 	private void verifyClientShallow()
@@ -877,6 +1218,22 @@ private void verifyClientShallow()
 	 */
 	public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 			ServiceMayNotContinueException {
+		if (clientRequestedV2) {
+			// Refs are listed later by the ls-refs command.
+			adv.writeOne("version 2"); //$NON-NLS-1$
+			String agent = UserAgent.get();
+			if (agent != null)
+				adv.writeOne(OPTION_AGENT + '=' + agent);
+			adv.writeOne(COMMAND_LS_REFS);
+			if (transferConfig.isAllowFilter())
+				adv.writeOne(COMMAND_FETCH + '=' + OPTION_SHALLOW + ' '
+						+ OPTION_FILTER);
+			else
+				adv.writeOne(COMMAND_FETCH + '=' + OPTION_SHALLOW);
+			adv.end();
+			return;
+		}
+
 		try {
 			advertiseRefsHook.advertiseRefs(this);
 		} catch (ServiceMayNotContinueException fail) {
@@ -897,6 +1254,8 @@ public void sendAdvertisedRefs(final RefAdvertiser adv) throws IOException,
 		adv.advertiseCapability(OPTION_THIN_PACK);
 		adv.advertiseCapability(OPTION_NO_PROGRESS);
 		adv.advertiseCapability(OPTION_SHALLOW);
+		if (transferConfig.isAllowFilter())
+			adv.advertiseCapability(OPTION_FILTER);
 		if (!biDirectionalPipe)
 			adv.advertiseCapability(OPTION_NO_DONE);
 		RequestPolicy policy = getRequestPolicy();
@@ -975,6 +1334,11 @@ private void recvWants() throws IOException {
 				continue;
 			}
 
+			if (line.startsWith(OPTION_FILTER + ' ')) {
+				parseFilter(line.substring(OPTION_FILTER.length() + 1));
+				continue;
+			}
+
 			if (!line.startsWith("want ") || line.length() < 45) //$NON-NLS-1$
 				throw new PackProtocolException(MessageFormat.format(JGitText.get().expectedGot, "want", line)); //$NON-NLS-1$
 
@@ -992,6 +1356,27 @@ private void recvWants() throws IOException {
 		}
 	}
 
+	private void parseFilter(String spec) throws PackProtocolException {
+		if (!transferConfig.isAllowFilter())
+			throw new PackProtocolException(MessageFormat.format(
+					JGitText.get().filterNotAllowed, spec));
+		filterSpec = FilterSpec.fromFilterLine(spec);
+	}
+
+	/**
+	 * Returns the filter of a partial fetch. Valid only after calling
+	 * recvWants().
+	 *
+	 * @return the filter requested by the client, or
+	 *         {@link FilterSpec#NO_FILTER}.
+	 * @since 4.8
+	 */
+	public FilterSpec getFilterSpec() {
+		if (options == null)
+			throw new RequestNotYetReadException();
+		return filterSpec;
+	}
+
 	/**
 	 * Returns the clone/fetch depth. Valid only after calling recvWants(). A
 	 * depth of 1 means return only the wants.
@@ -1045,7 +1430,7 @@ private boolean negotiate() throws IOException {
 			}
 
 			if (line == PacketLineIn.END) {
-				last = processHaveLines(peerHas, last);
+				last = processHaveLines(peerHas, last, pckOut);
 				if (commonBase.isEmpty() || multiAck != MultiAck.OFF)
 					pckOut.writeString("NAK\n"); //$NON-NLS-1$
 				if (noDone && sentReady) {
@@ -1060,7 +1445,7 @@ private boolean negotiate() throws IOException {
 				peerHas.add(ObjectId.fromString(line.substring(5)));
 
 			} else if (line.equals("done")) { //$NON-NLS-1$
-				last = processHaveLines(peerHas, last);
+				last = processHaveLines(peerHas, last, pckOut);
 
 				if (commonBase.isEmpty())
 					pckOut.writeString("NAK\n"); //$NON-NLS-1$
@@ -1076,8 +1461,8 @@ else if (multiAck != MultiAck.OFF)
 		}
 	}
 
-	private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
-			throws IOException {
+	private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last,
+			PacketLineOut out) throws IOException {
 		preUploadHook.onBeginNegotiateRound(this, wantIds, peerHas.size());
 		if (wantAll.isEmpty() && !wantIds.isEmpty())
 			parseWants();
@@ -1118,16 +1503,20 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 
 				// If both sides have the same object; let the client know.
 				//
+				if (clientRequestedV2) {
+					out.writeString("ACK " + obj.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					continue;
+				}
 				switch (multiAck) {
 				case OFF:
 					if (commonBase.size() == 1)
-						pckOut.writeString("ACK " + obj.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
+						out.writeString("ACK " + obj.name() + "\n"); //$NON-NLS-1$ //$NON-NLS-2$
 					break;
 				case CONTINUE:
-					pckOut.writeString("ACK " + obj.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					out.writeString("ACK " + obj.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
 					break;
 				case DETAILED:
-					pckOut.writeString("ACK " + obj.name() + " common\n"); //$NON-NLS-1$ //$NON-NLS-2$
+					out.writeString("ACK " + obj.name() + " common\n"); //$NON-NLS-1$ //$NON-NLS-2$
 					break;
 				}
 			}
@@ -1153,10 +1542,10 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 						case OFF:
 							break;
 						case CONTINUE:
-							pckOut.writeString("ACK " + id.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
+							out.writeString("ACK " + id.name() + " continue\n"); //$NON-NLS-1$ //$NON-NLS-2$
 							break;
 						case DETAILED:
-							pckOut.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
+							out.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
 							sentReady = true;
 							break;
 						}
@@ -1168,9 +1557,11 @@ private ObjectId processHaveLines(List<ObjectId> peerHas, ObjectId last)
 
 		if (multiAck == MultiAck.DETAILED && !didOkToGiveUp && okToGiveUp()) {
 			ObjectId id = peerHas.get(peerHas.size() - 1);
-			pckOut.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
+			out.writeString("ACK " + id.name() + " ready\n"); //$NON-NLS-1$ //$NON-NLS-2$
 			sentReady = true;
 		}
+		if (clientRequestedV2 && okToGiveUp())
+			sentReady = true;
 
 		preUploadHook.onEndNegotiateRound(this, wantAll, haveCnt, missCnt, sentReady);
 		peerHas.clear();
@@ -1245,7 +1636,7 @@ else if (!wants.isEmpty())
 		@Override
 		public void checkWants(UploadPack up, List<ObjectId> wants)
 				throws PackProtocolException, IOException {
-			checkNotAdvertisedWants(up.getRevWalk(), wants,
+			checkNotAdvertisedWants(up, wants,
 					refIdSet(up.getAdvertisedRefs().values()));
 		}
 	}
@@ -1282,7 +1673,7 @@ else if (!wants.isEmpty()) {
 		@Override
 		public void checkWants(UploadPack up, List<ObjectId> wants)
 				throws PackProtocolException, IOException {
-			checkNotAdvertisedWants(up.getRevWalk(), wants,
+			checkNotAdvertisedWants(up, wants,
 					refIdSet(up.getRepository().getRefDatabase().getRefs(ALL).values()));
 		}
 	}
@@ -1300,15 +1691,26 @@ public void checkWants(UploadPack up, List<ObjectId> wants)
 		}
 	}
 
-	private static void checkNotAdvertisedWants(RevWalk walk,
+	private static void checkNotAdvertisedWants(UploadPack up,
 			List<ObjectId> notAdvertisedWants, Set<ObjectId> reachableFrom)
 			throws MissingObjectException, IncorrectObjectTypeException, IOException {
+		RevWalk walk = up.getRevWalk();
+		BitmapIndex bitmapIndex = walk.getObjectReader().getBitmapIndex();
+		if (bitmapIndex != null) {
+			checkNotAdvertisedWantsUsingBitmap(walk.getObjectReader(),
+					bitmapIndex, notAdvertisedWants, reachableFrom);
+			return;
+		}
+
 		// Walk the requested commits back to the provided set of commits. If any
 		// commit exists, a branch was deleted or rewound and the repository owner
 		// no longer exports that requested item. If the requested commit is merged
 		// into an advertised branch it will be marked UNINTERESTING and no commits
 		// return.
 
+		// Trees and blobs have no history to walk back. Finding them would
+		// take a walk over every object reachable from the provided set of
+		// commits, so they are only accepted when a bitmap can answer.
 		AsyncRevObjectQueue q = walk.parseAny(notAdvertisedWants, true);
 		try {
 			RevObject obj;
@@ -1337,6 +1739,24 @@ private static void checkNotAdvertisedWants(RevWalk walk,
 		walk.reset();
 	}
 
+	private static void checkNotAdvertisedWantsUsingBitmap(ObjectReader reader,
+			BitmapIndex bitmapIndex, List<ObjectId> notAdvertisedWants,
+			Set<ObjectId> reachableFrom) throws IOException {
+		// Combine the bitmaps of the advertised tips. Only history newer
+		// than the bitmaps is walked. Unlike the walk without bitmaps, any
+		// reachable object, not only commits, may be requested.
+		try (ObjectWalk objWalk = new ObjectWalk(reader)) {
+			PackWriterBitmapWalker bitmapWalker = new PackWriterBitmapWalker(
+					objWalk, bitmapIndex, null);
+			BitmapBuilder reachable = bitmapWalker.findObjects(reachableFrom,
+					null, true);
+			for (ObjectId id : notAdvertisedWants) {
+				if (!reachable.contains(id))
+					throw new WantNotValidException(id);
+			}
+		}
+	}
+
 	private void addCommonBase(final RevObject o) {
 		if (!o.has(COMMON)) {
 			o.add(COMMON);
@@ -1492,6 +1912,7 @@ private void sendPack(final boolean sideband) throws IOException {
 			pw.setUseCachedPacks(true);
 			pw.setUseBitmaps(depth == 0 && clientShallowCommits.isEmpty());
 			pw.setClientShallowCommits(clientShallowCommits);
+			pw.setFilterSpec(filterSpec);
 			pw.setReuseDeltaCommits(true);
 			pw.setDeltaBaseAsOffset(options.contains(OPTION_OFS_DELTA));
 			pw.setThin(options.contains(OPTION_THIN_PACK));
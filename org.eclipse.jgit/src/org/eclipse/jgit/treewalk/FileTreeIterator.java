@@ -52,12 +52,15 @@
 import java.io.IOException;
 import java.io.InputStream;
 
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.lib.Repository;
 import org.eclipse.jgit.util.FS;
+import org.eclipse.jgit.util.RawParseUtils;
 
 /**
  * Working directory iterator for standard Java IO.
@@ -87,6 +90,9 @@ public class FileTreeIterator extends WorkingTreeIterator {
 	 */
 	protected final FileModeStrategy fileModeStrategy;
 
+	/** Index whose file system monitor state spares stat calls. */
+	private DirCache fsMonitorIndex;
+
 	/**
 	 * Create a new iterator to traverse the work tree and its children.
 	 *
@@ -224,9 +230,29 @@ protected FileTreeIterator(final WorkingTreeIterator p, final File root,
 		directory = root;
 		this.fs = fs;
 		this.fileModeStrategy = fileModeStrategy;
+		if (p instanceof FileTreeIterator)
+			fsMonitorIndex = ((FileTreeIterator) p).fsMonitorIndex;
 		init(entries());
 	}
 
+	/**
+	 * Skip the stat of files the file system monitor reports as unmodified.
+	 * <p>
+	 * Files whose index entry {@link DirCacheEntry#isFsMonitorValid() is
+	 * valid} take their mode, length and modification time from the index
+	 * instead of the file system. This applies to the subdirectories entered
+	 * after this call; entries of this iterator's own directory have already
+	 * been read.
+	 *
+	 * @param index
+	 *            index of the repository this iterator's working tree belongs
+	 *            to; null to stat every file.
+	 * @since 4.8
+	 */
+	public void setFsMonitorIndex(DirCache index) {
+		fsMonitorIndex = index;
+	}
+
 	@Override
 	public AbstractTreeIterator createSubtreeIterator(final ObjectReader reader)
 			throws IncorrectObjectTypeException, IOException {
@@ -238,8 +264,22 @@ private Entry[] entries() {
 		if (all == null)
 			return EOF;
 		final Entry[] r = new Entry[all.length];
-		for (int i = 0; i < r.length; i++)
-			r[i] = new FileEntry(all[i], fs, fileModeStrategy);
+		final DirCache index = fsMonitorIndex;
+		if (index == null || index.getFsMonitorToken() == null) {
+			for (int i = 0; i < r.length; i++)
+				r[i] = new FileEntry(all[i], fs, fileModeStrategy);
+			return r;
+		}
+
+		final String prefix = RawParseUtils.decode(path, 0, pathOffset);
+		for (int i = 0; i < r.length; i++) {
+			final File f = all[i];
+			final DirCacheEntry e = index.getEntry(prefix + f.getName());
+			if (e != null && e.isFsMonitorValid())
+				r[i] = new FileEntry(f, fs, e);
+			else
+				r[i] = new FileEntry(f, fs, fileModeStrategy);
+		}
 		return r;
 	}
 
@@ -334,6 +374,13 @@ static public class FileEntry extends Entry {
 
 		private FS fs;
 
+		/** File of an entry created from the index; otherwise null. */
+		private File file;
+
+		private long length;
+
+		private long lastModified;
+
 		/**
 		 * Create a new file entry.
 		 *
@@ -366,6 +413,24 @@ public FileEntry(File f, FS fs, FileModeStrategy fileModeStrategy) {
 			mode = fileModeStrategy.getMode(f, attributes);
 		}
 
+		/**
+		 * Create a file entry from index data known to match the file.
+		 *
+		 * @param f
+		 *            file
+		 * @param fs
+		 *            file system
+		 * @param e
+		 *            index entry of the unmodified file
+		 */
+		FileEntry(File f, FS fs, DirCacheEntry e) {
+			this.fs = fs;
+			file = f;
+			mode = e.getFileMode();
+			length = e.getLength() & 0xffffffffL;
+			lastModified = e.getLastModified();
+		}
+
 		@Override
 		public FileMode getMode() {
 			return mode;
@@ -373,16 +438,22 @@ public FileMode getMode() {
 
 		@Override
 		public String getName() {
+			if (attributes == null)
+				return file.getName();
 			return attributes.getName();
 		}
 
 		@Override
 		public long getLength() {
+			if (attributes == null)
+				return length;
 			return attributes.getLength();
 		}
 
 		@Override
 		public long getLastModified() {
+			if (attributes == null)
+				return lastModified;
 			return attributes.getLastModifiedTime();
 		}
 
@@ -402,6 +473,8 @@ public InputStream openInputStream() throws IOException {
 		 * @return the underlying file of this entry
 		 */
 		public File getFile() {
+			if (attributes == null)
+				return file;
 			return attributes.getFile();
 		}
 	}
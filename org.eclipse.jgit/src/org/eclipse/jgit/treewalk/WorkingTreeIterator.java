@@ -60,6 +60,7 @@
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.concurrent.Callable;
 
 import org.eclipse.jgit.api.errors.FilterFailedException;
 import org.eclipse.jgit.attributes.AttributesNode;
@@ -76,6 +77,7 @@
 import org.eclipse.jgit.ignore.FastIgnoreRule;
 import org.eclipse.jgit.ignore.IgnoreNode;
 import org.eclipse.jgit.internal.JGitText;
+import org.eclipse.jgit.lib.AnyObjectId;
 import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.CoreConfig;
 import org.eclipse.jgit.lib.CoreConfig.CheckStat;
@@ -911,6 +913,8 @@ public boolean isModified(DirCacheEntry entry, boolean forceContentCheck,
 			ObjectReader reader) throws IOException {
 		if (entry == null)
 			return !FileMode.MISSING.equals(getEntryFileMode());
+		if (entry.isFsMonitorValid())
+			return false;
 		MetadataDiff diff = compareMetadata(entry);
 		switch (diff) {
 		case DIFFER_BY_TIMESTAMP:
@@ -1021,32 +1025,187 @@ private boolean contentCheck(DirCacheEntry entry, ObjectReader reader)
 			case DIRECT:
 				return true;
 			default:
-				try {
-					ObjectLoader loader = reader.open(entry.getObjectId());
-					if (loader == null)
-						return true;
-
-					// We need to compute the length, but only if it is not
-					// a binary stream.
-					long dcInLen;
-					try (InputStream dcIn = new AutoLFInputStream(
-							loader.openStream(), true,
-							true /* abort if binary */)) {
-						dcInLen = computeLength(dcIn);
-					} catch (AutoLFInputStream.IsBinaryException e) {
-						return true;
-					}
-
-					try (InputStream dcIn = new AutoLFInputStream(
-							loader.openStream(), true)) {
-						byte[] autoCrLfHash = computeHash(dcIn, dcInLen);
-						boolean changed = getEntryObjectId()
-								.compareTo(autoCrLfHash, 0) != 0;
-						return changed;
-					}
-				} catch (IOException e) {
-					return true;
+				state.initializeReadBuffer();
+				return differsByAutoCrLf(reader, entry.getObjectId(),
+						getEntryObjectId(), state.contentReadBuffer);
+			}
+		}
+	}
+
+	/**
+	 * Compare a work tree content id with the index blob, after converting
+	 * the blob's line endings to LF.
+	 */
+	private static boolean differsByAutoCrLf(ObjectReader reader,
+			ObjectId blobId, AnyObjectId workTreeId, byte[] buf) {
+		try {
+			ObjectLoader loader = reader.open(blobId);
+			if (loader == null)
+				return true;
+
+			// We need to compute the length, but only if it is not
+			// a binary stream.
+			long dcInLen;
+			try (InputStream dcIn = new AutoLFInputStream(
+					loader.openStream(), true,
+					true /* abort if binary */)) {
+				dcInLen = computeLength(dcIn);
+			} catch (AutoLFInputStream.IsBinaryException e) {
+				return true;
+			}
+
+			try (InputStream dcIn = new AutoLFInputStream(
+					loader.openStream(), true)) {
+				byte[] autoCrLfHash = computeHash(dcIn, dcInLen, buf);
+				return workTreeId.compareTo(autoCrLfHash, 0) != 0;
+			}
+		} catch (IOException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Prepare a content check of the current entry which can run on another
+	 * thread.
+	 * <p>
+	 * The check answers {@link #isModified(DirCacheEntry, boolean,
+	 * ObjectReader) isModified(entry, true, reader)} for entries whose stat
+	 * data cannot decide it, such as smudged entries after a checkout or
+	 * files whose timestamp was touched. Attributes and line ending
+	 * conversion are looked up now, while the walk is still positioned on
+	 * the entry, so the check is independent of the walk.
+	 *
+	 * @param entry
+	 *            the index entry to compare with; may be null.
+	 * @return the check; null if stat data decides, or the content cannot be
+	 *         checked off the walk (clean filters, symbolic links and
+	 *         gitlinks).
+	 * @throws IOException
+	 *             the attributes of the entry cannot be read.
+	 * @since 4.8
+	 */
+	public ContentCheck newContentCheck(DirCacheEntry entry)
+			throws IOException {
+		if (entry == null || entry.isFsMonitorValid()
+				|| contentIdFromPtr == ptr
+				|| (mode & FileMode.TYPE_MASK) != FileMode.TYPE_FILE)
+			return null;
+		switch (compareMetadata(entry)) {
+		case SMUDGED:
+		case DIFFER_BY_TIMESTAMP:
+			if (getCleanFilterCommand() != null)
+				return null;
+			return new ContentCheck(current(), entry, repository,
+					getEolStreamType(OperationType.CHECKIN_OP),
+					getEolStreamType());
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * Content comparison of a working tree file with its index entry.
+	 * <p>
+	 * Created by {@link WorkingTreeIterator#newContentCheck(DirCacheEntry)};
+	 * {@link #call()} may run on any thread.
+	 *
+	 * @since 4.8
+	 */
+	public static class ContentCheck implements Callable<Boolean> {
+		private final Entry file;
+
+		private final DirCacheEntry entry;
+
+		private final ObjectId blobId;
+
+		private final Repository repository;
+
+		private final EolStreamType checkinType;
+
+		private final EolStreamType compareType;
+
+		private final long length;
+
+		private final long lastModified;
+
+		ContentCheck(Entry file, DirCacheEntry entry, Repository repository,
+				EolStreamType checkinType, EolStreamType compareType) {
+			this.file = file;
+			this.entry = entry;
+			this.blobId = entry.getObjectId();
+			this.repository = repository;
+			this.checkinType = checkinType;
+			this.compareType = compareType;
+			this.length = file.getLength();
+			this.lastModified = file.getLastModified();
+		}
+
+		/** @return the index entry the file is compared with. */
+		public DirCacheEntry getDirCacheEntry() {
+			return entry;
+		}
+
+		/** @return length of the file when the check was created. */
+		public long getLength() {
+			return length;
+		}
+
+		/** @return modification time of the file when the check was created. */
+		public long getLastModified() {
+			return lastModified;
+		}
+
+		/**
+		 * @return true if the file content differs from the index entry.
+		 *         Files which cannot be read are reported as modified.
+		 */
+		@Override
+		public Boolean call() {
+			final byte[] buf = new byte[BUFFER_SIZE];
+			final byte[] id;
+			try {
+				id = hash(buf);
+			} catch (IOException e) {
+				return Boolean.TRUE;
+			}
+			if (blobId.compareTo(id, 0) == 0)
+				return Boolean.FALSE;
+			if (compareType == EolStreamType.DIRECT || repository == null)
+				return Boolean.TRUE;
+			try (ObjectReader reader = repository.newObjectReader()) {
+				return Boolean.valueOf(differsByAutoCrLf(reader, blobId,
+						ObjectId.fromRaw(id), buf));
+			}
+		}
+
+		private byte[] hash(byte[] buf) throws IOException {
+			try (InputStream is = file.openInputStream()) {
+				if (checkinType == EolStreamType.DIRECT)
+					return computeHash(is, length, buf);
+
+				if (length <= MAXIMUM_FILE_SIZE_TO_READ_FULLY) {
+					ByteBuffer raw = IO.readWholeStream(is, (int) length);
+					ByteBuffer canon = IO.readWholeStream(
+							EolStreamTypeUtil.wrapInputStream(
+									new ByteArrayInputStream(raw.array(), 0,
+											raw.limit()),
+									checkinType),
+							raw.limit());
+					return computeHash(new ByteArrayInputStream(canon.array(),
+							0, canon.limit()), canon.limit(), buf);
+				}
+
+				if (isBinary(file))
+					return computeHash(is, length, buf);
+
+				final long canonLen;
+				try (InputStream lenIs = EolStreamTypeUtil.wrapInputStream(
+						file.openInputStream(), checkinType)) {
+					canonLen = computeLength(lenIs);
 				}
+				return computeHash(
+						EolStreamTypeUtil.wrapInputStream(is, checkinType),
+						canonLen, buf);
 			}
 		}
 	}
@@ -1099,8 +1258,12 @@ private static long computeLength(InputStream in) throws IOException {
 	}
 
 	private byte[] computeHash(InputStream in, long length) throws IOException {
+		return computeHash(in, length, state.contentReadBuffer);
+	}
+
+	private static byte[] computeHash(InputStream in, long length,
+			byte[] contentReadBuffer) throws IOException {
 		SHA1 contentDigest = SHA1.newInstance();
-		final byte[] contentReadBuffer = state.contentReadBuffer;
 
 		contentDigest.update(hblob);
 		contentDigest.update((byte) ' ');
@@ -76,6 +76,10 @@ public WorkingTreeOptions parse(final Config cfg) {
 
 	private final boolean dirNoGitLinks;
 
+	private final int checkoutWorkers;
+
+	private final int checkoutThreshold;
+
 	private WorkingTreeOptions(final Config rc) {
 		fileMode = rc.getBoolean(ConfigConstants.CONFIG_CORE_SECTION,
 				ConfigConstants.CONFIG_KEY_FILEMODE, true);
@@ -93,6 +97,13 @@ private WorkingTreeOptions(final Config rc) {
 		dirNoGitLinks = rc.getBoolean(ConfigConstants.CONFIG_CORE_SECTION, null,
 				ConfigConstants.CONFIG_KEY_DIRNOGITLINKS,
 				false);
+		int workers = rc.getInt(ConfigConstants.CONFIG_CHECKOUT_SECTION,
+				ConfigConstants.CONFIG_KEY_WORKERS, 1);
+		checkoutWorkers = workers < 1
+				? Runtime.getRuntime().availableProcessors()
+				: workers;
+		checkoutThreshold = rc.getInt(ConfigConstants.CONFIG_CHECKOUT_SECTION,
+				ConfigConstants.CONFIG_KEY_THRESHOLD_FOR_PARALLELISM, 100);
 	}
 
 	/** @return true if the execute bit on working files should be trusted. */
@@ -145,4 +156,23 @@ public HideDotFiles getHideDotFiles() {
 	 * @since 4.3
 	 */
 	public boolean isDirNoGitLinks() { return dirNoGitLinks; }
+
+	/**
+	 * @return number of threads used to write files during a checkout. 1
+	 *         (the default) writes files on the calling thread; a value
+	 *         below 1 in the configuration uses one thread per processor.
+	 * @since 4.8
+	 */
+	public int getCheckoutWorkers() {
+		return checkoutWorkers;
+	}
+
+	/**
+	 * @return minimum number of files a checkout must write before it uses
+	 *         more than one thread.
+	 * @since 4.8
+	 */
+	public int getCheckoutThreshold() {
+		return checkoutThreshold;
+	}
 }
@@ -42,20 +42,34 @@
  */
 package org.eclipse.jgit.treewalk.filter;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
 
 import org.eclipse.jgit.dircache.DirCacheEntry;
 import org.eclipse.jgit.dircache.DirCacheIterator;
+import org.eclipse.jgit.dircache.UntrackedCache;
 import org.eclipse.jgit.errors.IncorrectObjectTypeException;
 import org.eclipse.jgit.errors.MissingObjectException;
+import org.eclipse.jgit.lib.Constants;
 import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
 import org.eclipse.jgit.lib.ObjectReader;
 import org.eclipse.jgit.treewalk.TreeWalk;
 import org.eclipse.jgit.treewalk.WorkingTreeIterator;
+import org.eclipse.jgit.treewalk.WorkingTreeIterator.ContentCheck;
+import org.eclipse.jgit.util.FS;
 
 /**
  * A performance optimized variant of {@link TreeFilter#ANY_DIFF} which should
@@ -92,6 +106,30 @@ public class IndexDiffFilter extends TreeFilter {
 
 	private final LinkedList<String> untrackedFolders = new LinkedList<>();
 
+	private UntrackedCache previousCache;
+
+	private UntrackedCache untrackedCache;
+
+	private File root;
+
+	private FS fs;
+
+	private final Map<String, Boolean> unchangedExcludes = new HashMap<>();
+
+	private final LinkedList<Recording> recordings = new LinkedList<>();
+
+	private final List<String> cachedUntracked = new ArrayList<>();
+
+	private boolean markFsMonitorValid;
+
+	private boolean markedFsMonitorValid;
+
+	private Executor contentCheckExecutor;
+
+	private final Map<String, PendingCheck> pendingChecks = new LinkedHashMap<>();
+
+	private final List<DirCacheEntry> refreshed = new ArrayList<>();
+
 	/**
 	 * Creates a new instance of this filter. Do not use an instance of this
 	 * filter in multiple treewalks.
@@ -128,6 +166,147 @@ public IndexDiffFilter(int dirCacheIndex, int workingTreeIndex,
 		this.honorIgnores = honorIgnores;
 	}
 
+	/**
+	 * Reuse and refresh an untracked cache during the walk.
+	 * <p>
+	 * Every directory of the working tree which appears in no other tree is
+	 * recorded in {@code next}. If such a directory is still described by
+	 * {@code previous} it is not walked at all; its untracked files are
+	 * reported by {@link #getCachedUntrackedFiles()} instead. The cache can
+	 * only be used if this filter sees every path of the working tree.
+	 *
+	 * @param previous
+	 *            cache recorded by an earlier walk; null to rescan all
+	 *            untracked directories.
+	 * @param next
+	 *            cache receiving the state observed by this walk. Its
+	 *            directories should be empty.
+	 * @param workTree
+	 *            root of the working tree being walked.
+	 * @param fileSystem
+	 *            file system of the working tree.
+	 * @since 4.8
+	 */
+	public void setUntrackedCache(UntrackedCache previous, UntrackedCache next,
+			File workTree, FS fileSystem) {
+		this.previousCache = previous;
+		this.untrackedCache = next;
+		this.root = workTree;
+		this.fs = fileSystem;
+	}
+
+	/**
+	 * Mark index entries found unmodified as valid for the file system
+	 * monitor.
+	 * <p>
+	 * The index must have been read with a file system monitor installed, so
+	 * later changes of the marked entries' files are reported by the monitor.
+	 *
+	 * @param mark
+	 *            true to {@link DirCacheEntry#setFsMonitorValid(boolean) mark}
+	 *            clean entries.
+	 * @since 4.8
+	 */
+	public void setMarkFsMonitorValid(boolean mark) {
+		markFsMonitorValid = mark;
+	}
+
+	/**
+	 * @return true if the walk marked at least one index entry as valid for
+	 *         the file system monitor.
+	 * @since 4.8
+	 */
+	public boolean isFsMonitorValidMarked() {
+		return markedFsMonitorValid;
+	}
+
+	/**
+	 * Check the content of files in the background.
+	 * <p>
+	 * Files whose modification cannot be decided from their stat data are
+	 * hashed by tasks run on {@code executor} while the walk goes on. Such
+	 * paths are included by this filter; the caller must skip them if
+	 * {@link #isContentCheckPending(String)} and call
+	 * {@link #finishContentChecks()} once the walk is done.
+	 *
+	 * @param executor
+	 *            executor running the content checks; null to check them on
+	 *            the walking thread.
+	 * @since 4.8
+	 */
+	public void setContentCheckExecutor(Executor executor) {
+		contentCheckExecutor = executor;
+	}
+
+	/**
+	 * @param path
+	 *            path included by this filter.
+	 * @return true if the path was included only because its content is
+	 *         being checked in the background.
+	 * @since 4.8
+	 */
+	public boolean isContentCheckPending(String path) {
+		return pendingChecks.containsKey(path);
+	}
+
+	/**
+	 * Wait for the content checks started by the walk.
+	 * <p>
+	 * Index entries of unmodified files get the stat data of their files, as
+	 * reported by {@link #getRefreshedEntries()}.
+	 *
+	 * @return paths whose content differs from the index, in walk order.
+	 * @throws IOException
+	 *             the wait was interrupted, or a check failed.
+	 * @since 4.8
+	 */
+	public List<String> finishContentChecks() throws IOException {
+		final List<String> modified = new ArrayList<>();
+		try {
+			for (Map.Entry<String, PendingCheck> e : pendingChecks
+					.entrySet()) {
+				final PendingCheck p = e.getValue();
+				if (p.get().booleanValue()) {
+					modified.add(e.getKey());
+					continue;
+				}
+				final DirCacheEntry dce = p.check.getDirCacheEntry();
+				dce.setLength(p.check.getLength());
+				dce.setLastModified(p.check.getLastModified());
+				refreshed.add(dce);
+				if (markFsMonitorValid) {
+					dce.setFsMonitorValid(true);
+					markedFsMonitorValid = true;
+				}
+			}
+		} catch (InterruptedException e) {
+			for (PendingCheck p : pendingChecks.values())
+				p.cancel(true);
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException e) {
+			Throwable err = e.getCause();
+			if (err instanceof Error)
+				throw (Error) err;
+			if (err instanceof RuntimeException)
+				throw (RuntimeException) err;
+			throw new IOException(err.getMessage(), err);
+		} finally {
+			pendingChecks.clear();
+		}
+		return modified;
+	}
+
+	/**
+	 * @return index entries found unmodified by
+	 *         {@link #finishContentChecks()}, now carrying the stat data of
+	 *         their files.
+	 * @since 4.8
+	 */
+	public List<DirCacheEntry> getRefreshedEntries() {
+		return refreshed;
+	}
+
 	@Override
 	public boolean include(TreeWalk tw) throws MissingObjectException,
 			IncorrectObjectTypeException, IOException {
@@ -175,6 +354,10 @@ public boolean include(TreeWalk tw) throws MissingObjectException,
 					break;
 				}
 			}
+
+			if (untrackedCache != null && honorIgnores
+					&& skipCachedDirectory(tw, wi, path, wm))
+				return false;
 		}
 
 		// If the working tree file doesn't exist, it does exist for at least
@@ -224,8 +407,40 @@ public boolean include(TreeWalk tw) throws MissingObjectException,
 		// Only one chance left to detect a diff: between index and working
 		// tree. Make use of the WorkingTreeIterator#isModified() method to
 		// avoid computing SHA1 on filesystem content if not really needed.
-		return wi.isModified(di == null ? null : di.getDirCacheEntry(), true,
-				tw.getObjectReader());
+		final DirCacheEntry dce = di == null ? null : di.getDirCacheEntry();
+		if (contentCheckExecutor != null) {
+			final ContentCheck check = wi.newContentCheck(dce);
+			if (check != null) {
+				final PendingCheck p = new PendingCheck(check);
+				pendingChecks.put(path, p);
+				contentCheckExecutor.execute(p);
+				return true;
+			}
+		}
+		if (!wi.isModified(dce, true, tw.getObjectReader())) {
+			if (markFsMonitorValid && !dce.isFsMonitorValid()
+					&& isMonitored(dm)) {
+				dce.setFsMonitorValid(true);
+				markedFsMonitorValid = true;
+			}
+			return false;
+		}
+		return true;
+	}
+
+	private static class PendingCheck extends FutureTask<Boolean> {
+		final ContentCheck check;
+
+		PendingCheck(ContentCheck check) {
+			super(check);
+			this.check = check;
+		}
+	}
+
+	private static boolean isMonitored(int mode) {
+		return FileMode.REGULAR_FILE.equals(mode)
+				|| FileMode.EXECUTABLE_FILE.equals(mode)
+				|| FileMode.SYMLINK.equals(mode);
 	}
 
 	/**
@@ -251,6 +466,147 @@ private void copyUntrackedFolders(String currentPath) {
 		}
 	}
 
+	/**
+	 * Record the current entry in the untracked cache.
+	 *
+	 * @return true if the entry is an untracked directory whose content is
+	 *         known from the previous cache; its untracked files were added
+	 *         to {@link #cachedUntracked} and it need not be walked.
+	 */
+	private boolean skipCachedDirectory(TreeWalk tw, WorkingTreeIterator wi,
+			String path, int wm) throws IOException {
+		while (!recordings.isEmpty() && !path
+				.startsWith(recordings.getFirst().dir.getPath() + "/")) //$NON-NLS-1$
+			recordings.removeFirst().finish();
+		if (wm == 0)
+			return false;
+		for (int i = 0; i < tw.getTreeCount(); i++) {
+			if (i != workingTree && tw.getRawMode(i) != FileMode.TYPE_MISSING)
+				return false;
+		}
+
+		boolean tree = FileMode.TREE.equals(wm);
+		boolean ignored = wi.isEntryIgnored();
+		Recording parent = recordings.peekFirst();
+		if (parent != null) {
+			// Ignored paths are reported individually, which the cache
+			// cannot reproduce. Such directories are always listed.
+			if (ignored)
+				parent.clean = false;
+			else
+				parent.dir.getUntracked()
+						.add(tree ? tw.getNameString() + '/' : tw.getNameString());
+		}
+		if (!tree || ignored)
+			return false;
+
+		if (excludesUnchanged(path) && isUnchanged(path)) {
+			reuse(path);
+			return true;
+		}
+
+		// The stat data must be taken before the directory is listed, so
+		// that any later modification is noticed by the next walk.
+		FS.Attributes attrs = fs.getAttributes(new File(root, path));
+		UntrackedCache.Directory d = new UntrackedCache.Directory(path);
+		d.setLastModified(attrs.getLastModifiedTime());
+		d.setLength(attrs.getLength());
+		d.setExcludeId(untrackedCache.getDirectory(path).getExcludeId());
+		untrackedCache.addDirectory(d);
+		recordings.addFirst(new Recording(d));
+		return false;
+	}
+
+	/**
+	 * Check whether the {@code .gitignore} files of a directory and all its
+	 * parents are the ones recorded in the previous cache. The current ids are
+	 * recorded in the new cache.
+	 */
+	private boolean excludesUnchanged(String dir) throws IOException {
+		Boolean unchanged = unchangedExcludes.get(dir);
+		if (unchanged == null) {
+			ObjectId id = excludeId(dir);
+			UntrackedCache.Directory d = new UntrackedCache.Directory(dir);
+			d.setExcludeId(id);
+			untrackedCache.addDirectory(d);
+
+			boolean parentUnchanged = dir.isEmpty()
+					|| excludesUnchanged(parent(dir));
+			UntrackedCache.Directory old = previousCache != null
+					? previousCache.getDirectory(dir) : null;
+			unchanged = Boolean.valueOf(parentUnchanged && old != null
+					&& id.equals(old.getExcludeId()));
+			unchangedExcludes.put(dir, unchanged);
+		}
+		return unchanged.booleanValue();
+	}
+
+	/**
+	 * Check whether an untracked directory and its untracked subdirectories
+	 * still look as recorded in the previous cache. The {@code .gitignore}
+	 * files of {@code dir} and its parents must already be known unchanged.
+	 */
+	private boolean isUnchanged(String dir) throws IOException {
+		UntrackedCache.Directory old = previousCache.getDirectory(dir);
+		if (old == null || !old.isValid())
+			return false;
+		FS.Attributes attrs = fs.getAttributes(new File(root, dir));
+		if (!attrs.isDirectory()
+				|| attrs.getLastModifiedTime() != old.getLastModified()
+				|| (attrs.getLength() & 0xffffffffL) != old.getLength())
+			return false;
+		for (String name : old.getUntracked()) {
+			if (!name.endsWith("/")) //$NON-NLS-1$
+				continue;
+			String sub = dir + '/' + name.substring(0, name.length() - 1);
+			UntrackedCache.Directory s = previousCache.getDirectory(sub);
+			if (s == null || !excludeId(sub).equals(s.getExcludeId())
+					|| !isUnchanged(sub))
+				return false;
+		}
+		return true;
+	}
+
+	private void reuse(String dir) {
+		UntrackedCache.Directory old = previousCache.getDirectory(dir);
+		untrackedCache.addDirectory(old);
+		for (String name : old.getUntracked()) {
+			if (name.endsWith("/")) //$NON-NLS-1$
+				reuse(dir + '/' + name.substring(0, name.length() - 1));
+			else
+				cachedUntracked.add(dir + '/' + name);
+		}
+	}
+
+	private ObjectId excludeId(String dir) throws IOException {
+		File d = dir.isEmpty() ? root : new File(root, dir);
+		return UntrackedCache.excludeId(new File(d, Constants.DOT_GIT_IGNORE));
+	}
+
+	private static String parent(String path) {
+		int s = path.lastIndexOf('/');
+		return s < 0 ? "" : path.substring(0, s); //$NON-NLS-1$
+	}
+
+	private static class Recording {
+		final UntrackedCache.Directory dir;
+
+		final long read = System.currentTimeMillis();
+
+		boolean clean = true;
+
+		Recording(UntrackedCache.Directory dir) {
+			this.dir = dir;
+		}
+
+		void finish() {
+			// A directory modified shortly before it was listed might be
+			// modified again without changing its time stamp, just like a
+			// racily clean index entry. Do not trust it yet.
+			dir.setValid(clean && read - dir.getLastModified() > 2500);
+		}
+	}
+
 	private WorkingTreeIterator workingTree(TreeWalk tw) {
 		return tw.getTree(workingTree, WorkingTreeIterator.class);
 	}
@@ -301,4 +657,27 @@ public List<String> getUntrackedFolders() {
 		}
 		return ret;
 	}
+
+	/**
+	 * @return untracked files inside directories which were skipped because
+	 *         the untracked cache still described them. Empty unless
+	 *         {@link #setUntrackedCache(UntrackedCache, UntrackedCache, File, FS)}
+	 *         was called.
+	 * @since 4.8
+	 */
+	public List<String> getCachedUntrackedFiles() {
+		return cachedUntracked;
+	}
+
+	/**
+	 * @return the untracked cache recorded by the walk; null unless
+	 *         {@link #setUntrackedCache(UntrackedCache, UntrackedCache, File, FS)}
+	 *         was called. Only complete once the walk is finished.
+	 * @since 4.8
+	 */
+	public UntrackedCache getUntrackedCache() {
+		while (!recordings.isEmpty())
+			recordings.removeFirst().finish();
+		return untrackedCache;
+	}
 }
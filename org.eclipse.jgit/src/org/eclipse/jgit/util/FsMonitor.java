@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.util;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Reports which paths of a working tree changed.
+ * <p>
+ * A monitor is installed with
+ * {@link org.eclipse.jgit.lib.Repository#setFsMonitor(FsMonitor)}. Whenever
+ * the index of such a repository is read, the monitor is asked for the paths
+ * changed since the token recorded in the index. Index entries found clean by
+ * an earlier status and not reported by the monitor are then trusted without
+ * looking at the working tree file at all.
+ * <p>
+ * Implementations must never report fewer changes than actually happened. If
+ * they cannot tell, for example because the token is unknown to them, they
+ * must report that everything may have changed.
+ *
+ * @since 4.8
+ */
+public abstract class FsMonitor {
+	/**
+	 * Get the paths which changed since an earlier query.
+	 * <p>
+	 * Changes made before this method is called must be included in the
+	 * result, or in the result of the next query using the returned token.
+	 *
+	 * @param token
+	 *            token returned by an earlier query; null if there is none.
+	 * @return the changes since {@code token}; never null.
+	 * @throws IOException
+	 *             the monitor cannot be queried.
+	 */
+	public abstract Changes getChangesSince(String token) throws IOException;
+
+	/** Result of {@link FsMonitor#getChangesSince(String)}. */
+	public static class Changes {
+		private final String token;
+
+		private final Set<String> paths;
+
+		/**
+		 * Create a result listing the changed paths.
+		 *
+		 * @param token
+		 *            token to pass to the next query.
+		 * @param paths
+		 *            changed paths relative to the working tree, separated by
+		 *            '/'. If a path names a directory, everything below it may
+		 *            have changed.
+		 */
+		public Changes(String token, Collection<String> paths) {
+			this.token = token;
+			this.paths = Collections.unmodifiableSet(new HashSet<>(paths));
+		}
+
+		/**
+		 * Create a result telling that every path may have changed.
+		 *
+		 * @param token
+		 *            token to pass to the next query.
+		 */
+		public Changes(String token) {
+			this.token = token;
+			this.paths = null;
+		}
+
+		/** @return token to pass to the next query. */
+		public String getToken() {
+			return token;
+		}
+
+		/**
+		 * @return the changed paths; null if every path may have changed.
+		 */
+		public Set<String> getPaths() {
+			return paths;
+		}
+	}
+}
@@ -87,6 +87,13 @@ public class HttpSupport {
 	/** The {@code Pragma} header. */
 	public static final String HDR_PRAGMA = "Pragma"; //$NON-NLS-1$
 
+	/**
+	 * The {@code Git-Protocol} header.
+	 *
+	 * @since 4.8
+	 */
+	public static final String HDR_GIT_PROTOCOL = "Git-Protocol"; //$NON-NLS-1$
+
 	/** The {@code User-Agent} header. */
 	public static final String HDR_USER_AGENT = "User-Agent"; //$NON-NLS-1$
 
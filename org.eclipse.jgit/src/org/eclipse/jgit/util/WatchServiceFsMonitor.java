@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2017, Google Inc.
+ * and other copyright owners as documented in the project's IP log.
+ *
+ * This program and the accompanying materials are made available
+ * under the terms of the Eclipse Distribution License v1.0 which
+ * accompanies this distribution, is reproduced below, and is
+ * available at http://www.eclipse.org/org/documents/edl-v10.php
+ *
+ * All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or
+ * without modification, are permitted provided that the following
+ * conditions are met:
+ *
+ * - Redistributions of source code must retain the above copyright
+ *   notice, this list of conditions and the following disclaimer.
+ *
+ * - Redistributions in binary form must reproduce the above
+ *   copyright notice, this list of conditions and the following
+ *   disclaimer in the documentation and/or other materials provided
+ *   with the distribution.
+ *
+ * - Neither the name of the Eclipse Foundation, Inc. nor the
+ *   names of its contributors may be used to endorse or promote
+ *   products derived from this software without specific prior
+ *   written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND
+ * CONTRIBUTORS "AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES,
+ * INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL,
+ * SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT
+ * NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER
+ * CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT,
+ * STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package org.eclipse.jgit.util;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+
+/**
+ * File system monitor using the {@link WatchService} of the default file
+ * system.
+ * <p>
+ * Every directory of the working tree is registered with the watch service,
+ * so the monitor only pays off on platforms whose watch service is backed by
+ * native notifications, such as inotify on Linux. Each query synchronizes
+ * with the event stream by creating a cookie file below the repository's
+ * metadata directory and waiting for its event; if the event does not arrive
+ * in time the monitor reports that everything may have changed.
+ *
+ * @since 4.8
+ */
+public class WatchServiceFsMonitor extends FsMonitor implements AutoCloseable {
+	private static final String COOKIE_DIR = "fsmonitor--jgit"; //$NON-NLS-1$
+
+	private static final String COOKIE_PREFIX = "cookie-"; //$NON-NLS-1$
+
+	/** Changes remembered before all older tokens are given up. */
+	private static final int MAX_CHANGES = 100000;
+
+	private static final long SYNC_TIMEOUT_MILLIS = 2000;
+
+	private final Path workTree;
+
+	private final Path cookieDir;
+
+	private final WatchService watcher;
+
+	private final String instance = UUID.randomUUID().toString();
+
+	private final Thread thread;
+
+	/** Watched directories. Guarded by {@code this}. */
+	private final Map<WatchKey, Path> keys = new HashMap<>();
+
+	/** Changed paths and the sequence number of their last change. */
+	private final Map<String, Long> changes = new LinkedHashMap<>();
+
+	/** Cookie files whose event has been seen. */
+	private final Set<String> cookies = new HashSet<>();
+
+	/** Sequence number of the last change. */
+	private long seq;
+
+	/** Oldest sequence number all later changes are known for. */
+	private long firstSeq;
+
+	private long nextCookie;
+
+	private boolean closed;
+
+	/**
+	 * Start watching the working tree of a repository.
+	 *
+	 * @param repo
+	 *            the repository; must have a working tree.
+	 * @throws IOException
+	 *             the working tree cannot be registered with the watch
+	 *             service.
+	 */
+	public WatchServiceFsMonitor(Repository repo) throws IOException {
+		workTree = repo.getWorkTree().toPath();
+		cookieDir = new File(repo.getDirectory(), COOKIE_DIR).toPath();
+		Files.createDirectories(cookieDir);
+		watcher = workTree.getFileSystem().newWatchService();
+		try {
+			synchronized (this) {
+				keys.put(cookieDir.register(watcher, ENTRY_CREATE), cookieDir);
+				registerAll(workTree);
+			}
+		} catch (IOException e) {
+			watcher.close();
+			throw e;
+		}
+		thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				processEvents();
+			}
+		}, "JGit-FsMonitor"); //$NON-NLS-1$
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	@Override
+	public Changes getChangesSince(String token) throws IOException {
+		if (!sync()) {
+			synchronized (this) {
+				return new Changes(token());
+			}
+		}
+		synchronized (this) {
+			final long since = parse(token);
+			if (since < firstSeq)
+				return new Changes(token());
+			final List<String> paths = new ArrayList<>();
+			for (Map.Entry<String, Long> e : changes.entrySet()) {
+				if (e.getValue().longValue() > since)
+					paths.add(e.getKey());
+			}
+			return new Changes(token(), paths);
+		}
+	}
+
+	/**
+	 * Stop watching the working tree.
+	 *
+	 * @throws IOException
+	 *             the watch service cannot be closed.
+	 */
+	@Override
+	public void close() throws IOException {
+		synchronized (this) {
+			closed = true;
+			notifyAll();
+		}
+		watcher.close();
+	}
+
+	private String token() {
+		return instance + ':' + seq;
+	}
+
+	private long parse(String token) {
+		if (token == null || !token.startsWith(instance + ':'))
+			return -1;
+		try {
+			return Long.parseLong(token.substring(instance.length() + 1));
+		} catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Wait until all events which happened before this call were processed.
+	 *
+	 * @return true if the events were processed in time.
+	 */
+	private boolean sync() throws IOException {
+		final String name;
+		synchronized (this) {
+			if (closed)
+				return false;
+			name = COOKIE_PREFIX + nextCookie++;
+		}
+		final Path cookie = cookieDir.resolve(name);
+		Files.deleteIfExists(cookie);
+		Files.createFile(cookie);
+		try {
+			final long end = System.currentTimeMillis() + SYNC_TIMEOUT_MILLIS;
+			synchronized (this) {
+				while (!cookies.remove(name)) {
+					final long wait = end - System.currentTimeMillis();
+					if (closed || wait <= 0)
+						return false;
+					try {
+						wait(wait);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return false;
+					}
+				}
+				return true;
+			}
+		} finally {
+			Files.deleteIfExists(cookie);
+		}
+	}
+
+	private void processEvents() {
+		try {
+			for (;;) {
+				final WatchKey key = watcher.take();
+				synchronized (this) {
+					if (cookieDir.equals(keys.get(key))) {
+						// Events queued on other keys may be older than the
+						// cookie; record them before acknowledging it.
+						for (WatchKey k : new ArrayList<>(keys.keySet())) {
+							if (k != key)
+								process(k, k.pollEvents());
+						}
+					}
+					process(key, key.pollEvents());
+					if (!key.reset())
+						keys.remove(key);
+				}
+			}
+		} catch (InterruptedException | ClosedWatchServiceException e) {
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+		}
+	}
+
+	private void process(WatchKey key, List<WatchEvent<?>> events) {
+		final Path dir = keys.get(key);
+		if (dir == null)
+			return;
+		for (WatchEvent<?> event : events) {
+			if (event.kind() == OVERFLOW) {
+				overflow();
+				continue;
+			}
+			final Path p = dir.resolve((Path) event.context());
+			if (dir.equals(cookieDir)) {
+				cookies.add(p.getFileName().toString());
+				notifyAll();
+				continue;
+			}
+			if (event.kind() == ENTRY_CREATE && Files.isDirectory(p)
+					&& !isGitDir(p)) {
+				try {
+					registerAll(p);
+				} catch (IOException e) {
+					// Changes below the directory cannot be seen anymore.
+					overflow();
+					continue;
+				}
+			}
+			changed(p);
+		}
+	}
+
+	private void changed(Path p) {
+		final StringBuilder path = new StringBuilder();
+		for (Path n : workTree.relativize(p)) {
+			if (path.length() > 0)
+				path.append('/');
+			path.append(n.toString());
+		}
+		final String s = path.toString();
+		changes.remove(s);
+		changes.put(s, Long.valueOf(++seq));
+		if (changes.size() > MAX_CHANGES)
+			overflow();
+	}
+
+	private void overflow() {
+		changes.clear();
+		firstSeq = ++seq;
+	}
+
+	private void registerAll(Path root) throws IOException {
+		Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult preVisitDirectory(Path dir,
+					BasicFileAttributes attrs) throws IOException {
+				if (isGitDir(dir))
+					return FileVisitResult.SKIP_SUBTREE;
+				keys.put(dir.register(watcher, ENTRY_CREATE, ENTRY_DELETE,
+						ENTRY_MODIFY), dir);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult visitFileFailed(Path file, IOException e) {
+				// Deleted while walking; its parent reports the deletion.
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+
+	private static boolean isGitDir(Path dir) {
+		final Path name = dir.getFileName();
+		return name != null && Constants.DOT_GIT.equals(name.toString());
+	}
+}